@@ -0,0 +1,389 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.api;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.LargeMapPage;
+import org.zoodb.internal.LargeVectorPage;
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * Persistent map for large numbers of entries.
+ * 
+ * Unlike {@link DBHashMap}, the entries are not stored as part of the map object. Instead 
+ * they are stored in pages of a B+tree that is ordered by the hash codes of the keys. Each
+ * page is a separate persistent object. Pages are loaded only when they are accessed and only
+ * modified pages are written during commit. Pages that are no longer required are deleted, 
+ * this includes all pages when the map itself is deleted.
+ * 
+ * The hash codes of keys are stored in the database, therefore keys must have hash codes
+ * that do not change between sessions, such as Strings or Numbers. For persistent keys the
+ * object ID is used instead of the hash code, these keys must be persistent before they
+ * can be added to the map.
+ * 
+ * @author Tilmann Zaeschke
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class DBLargeHashMap<K, V> extends ZooPCImpl implements Map<K, V>, DBCollection {
+
+	private LargeMapPage root;
+	private int size;
+	
+	private transient PagedMap t = new PagedMap();
+	
+	public DBLargeHashMap() {
+		//nothing to do
+	}
+	
+	/**
+	 * Remove all entries and delete all pages.
+	 */
+	@Override
+	public void clear() {
+		zooActivateRead();
+		t.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		zooActivateRead();
+		return t.containsKey(key);
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		zooActivateRead();
+		return t.containsValue(value);
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		zooActivateRead();
+		return t.entrySet();
+	}
+
+	@Override
+	public V get(Object key) {
+		zooActivateRead();
+		return t.get(key);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		zooActivateRead();
+		return t.isEmpty();
+	}
+
+	@Override
+	public Set<K> keySet() {
+		zooActivateRead();
+		return t.keySet();
+	}
+
+	@Override
+	public V put(K key, V value) {
+		zooActivateRead();
+		return t.put(key, value);
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m) {
+		zooActivateRead();
+		t.putAll(m);
+	}
+
+	@Override
+	public V remove(Object key) {
+		zooActivateRead();
+		return t.remove(key);
+	}
+
+	@Override
+	public int size() {
+		zooActivateRead();
+		return size;
+	}
+
+	@Override
+	public Collection<V> values() {
+		zooActivateRead();
+		return t.values();
+	}
+
+	private int hash(Object key) {
+		if (key == null) {
+			return 0;
+		}
+		if (key instanceof ZooPCImpl) {
+			ZooPCImpl pc = (ZooPCImpl) key;
+			if (!pc.jdoZooIsPersistent()) {
+				throw DBLogger.newUser("Persistent keys must be made persistent before they " +
+						"can be used in a " + DBLargeHashMap.class.getSimpleName());
+			}
+			long oid = pc.jdoZooGetOid();
+			return (int) (oid ^ (oid >>> 32));
+		}
+		return key.hashCode();
+	}
+	
+	/**
+	 * Map view on the pages. 
+	 */
+	@SuppressWarnings("unchecked")
+	private class PagedMap extends AbstractMap<K, V> {
+
+		private int modCount = 0;
+		private final Set<Map.Entry<K, V>> entrySet = new EntrySet();
+		
+		@Override
+		public V get(Object key) {
+			if (root == null) {
+				return null;
+			}
+			int hash = hash(key);
+			LargeMapPage leaf = root.findLeaf(hash);
+			int pos = leaf.indexOf(hash, key);
+			return pos < 0 ? null : (V) leaf.getValue(pos);
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			if (root == null) {
+				return false;
+			}
+			int hash = hash(key);
+			return root.findLeaf(hash).indexOf(hash, key) >= 0;
+		}
+
+		@Override
+		public V put(K key, V value) {
+			int hash = hash(key);
+			if (root == null) {
+				setRoot(new LargeMapPage(0));
+			} else {
+				LargeMapPage leaf = root.findLeaf(hash);
+				int pos = leaf.indexOf(hash, key);
+				if (pos >= 0) {
+					return (V) leaf.setValue(pos, value);
+				}
+			}
+			LargeMapPage newPage = root.insert(hash, key, value);
+			if (newPage != null) {
+				setRoot(LargeMapPage.newRoot(root, newPage));
+			}
+			setSize(size + 1);
+			return null;
+		}
+
+		@Override
+		public V remove(Object key) {
+			if (root == null) {
+				return null;
+			}
+			int hash = hash(key);
+			LargeMapPage leaf = root.findLeaf(hash);
+			int pos = leaf.indexOf(hash, key);
+			if (pos < 0) {
+				return null;
+			}
+			V prev = (V) leaf.getValue(pos);
+			root.remove(hash, key);
+			if (size == 1) {
+				LargeVectorPage.deletePage(root);
+				setRoot(null);
+			} else {
+				LargeMapPage single = root.getSingleSubPage();
+				if (single != null) {
+					LargeVectorPage.deletePage(root);
+					setRoot(single);
+				}
+			}
+			setSize(size - 1);
+			return prev;
+		}
+
+		@Override
+		public void clear() {
+			if (root != null) {
+				root.deleteAll();
+				setRoot(null);
+			}
+			setSize(0);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Set<Map.Entry<K, V>> entrySet() {
+			return entrySet;
+		}
+		
+		private void setRoot(LargeMapPage newRoot) {
+			zooActivateWrite();
+			root = newRoot;
+		}
+		
+		private void setSize(int newSize) {
+			zooActivateWrite();
+			size = newSize;
+			modCount++;
+		}
+
+		private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new PagedIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+			
+			@Override
+			public void clear() {
+				PagedMap.this.clear();
+			}
+		}
+		
+		/**
+		 * Iterator that visits every leaf page only once. The entries of the current leaf are
+		 * copied, so removing entries does not affect the iteration.
+		 */
+		private class PagedIterator implements Iterator<Map.Entry<K, V>> {
+
+			private int expectedModCount = modCount;
+			private int hash;
+			private Object[] keys = new Object[0];
+			private Object[] values = new Object[0];
+			private int nEntries = 0;
+			private int pos = 0;
+			private K lastKey;
+			private boolean canRemove = false;
+			
+			private PagedIterator() {
+				if (root != null) {
+					LargeMapPage leaf = root.findLeaf(Integer.MIN_VALUE);
+					if (leaf.size() > 0) {
+						readLeaf(leaf);
+					}
+				}
+			}
+			
+			private void readLeaf(LargeMapPage leaf) {
+				nEntries = leaf.size();
+				if (keys.length < nEntries) {
+					keys = new Object[nEntries];
+					values = new Object[nEntries];
+				}
+				for (int i = 0; i < nEntries; i++) {
+					keys[i] = leaf.getKey(i);
+					values[i] = leaf.getValue(i);
+				}
+				hash = leaf.getHash(nEntries-1);
+				pos = 0;
+			}
+			
+			@Override
+			public boolean hasNext() {
+				if (pos < nEntries) {
+					return true;
+				}
+				if (nEntries == 0 || hash == Integer.MAX_VALUE || root == null) {
+					return false;
+				}
+				LargeMapPage leaf = root.findLeafAfter(hash);
+				if (leaf == null) {
+					nEntries = 0;
+					return false;
+				}
+				readLeaf(leaf);
+				return true;
+			}
+
+			@Override
+			public Map.Entry<K, V> next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				lastKey = (K) keys[pos];
+				canRemove = true;
+				final K key = lastKey;
+				final V value = (V) values[pos++];
+				return new SimpleEntry<K, V>(key, value) {
+					private static final long serialVersionUID = 1L;
+					@Override
+					public V setValue(V value) {
+						super.setValue(value);
+						return put(key, value);
+					}
+				};
+			}
+
+			@Override
+			public void remove() {
+				if (!canRemove) {
+					throw new IllegalStateException();
+				}
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				PagedMap.this.remove(lastKey);
+				canRemove = false;
+				expectedModCount = modCount;
+			}
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (jdoZooGetOid()*10000) | size();  
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null || !(obj instanceof DBLargeHashMap)) {
+			return false;
+		}
+		DBLargeHashMap<?, ?> m = (DBLargeHashMap<?, ?>) obj;
+		if (size() != m.size() || jdoZooGetOid() != m.jdoZooGetOid()) {
+			return false;
+		}
+		return t.equals(m.t);
+	}
+}
@@ -20,8 +20,343 @@
  */
 package org.zoodb.api;
 
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
-public class DBLargeVector<E> extends DBArrayList<E> implements List<E>, DBCollection {
+import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.LargeVectorPage;
 
+/**
+ * Persistent list for large numbers of elements.
+ * 
+ * Unlike {@link DBArrayList}, the elements are not stored as part of the list object. Instead 
+ * they are stored in pages of a B+tree, where each page is a separate persistent object. 
+ * Pages are loaded only when they are accessed and only modified pages are written during
+ * commit. Pages that are no longer required are deleted, this includes all pages when the list
+ * itself is deleted.
+ * 
+ * @author Tilmann Zaeschke
+ *
+ * @param <E>
+ */
+public class DBLargeVector<E> extends ZooPCImpl implements List<E>, DBCollection {
+
+	private LargeVectorPage root;
+	
+	private transient PagedList v = new PagedList();
+	
+	public DBLargeVector() {
+		//nothing to do
+	}
+	
+	@Override
+	public boolean add(E e) {
+		zooActivateRead();
+		return v.add(e);
+	}
+
+	@Override
+	public void add(int index, E element) {
+		zooActivateRead();
+		v.add(index, element);
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		zooActivateRead();
+		return v.addAll(c);
+	}
+
+	@Override
+	public boolean addAll(int index, Collection<? extends E> c) {
+		zooActivateRead();
+		return v.addAll(index, c);
+	}
+
+	/**
+	 * Remove all elements and delete all pages.
+	 */
+	@Override
+	public void clear() {
+		zooActivateRead();
+		v.clear();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		zooActivateRead();
+		return v.contains(o);
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		zooActivateRead();
+		return v.containsAll(c);
+	}
+
+	@Override
+	public E get(int index) {
+		zooActivateRead();
+		return v.get(index);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		zooActivateRead();
+		return v.indexOf(o);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		zooActivateRead();
+		return v.isEmpty();
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		zooActivateRead();
+		return v.iterator();
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		zooActivateRead();
+		return v.lastIndexOf(o);
+	}
+
+	@Override
+	public ListIterator<E> listIterator() {
+		zooActivateRead();
+		return v.listIterator();
+	}
+
+	@Override
+	public ListIterator<E> listIterator(int index) {
+		zooActivateRead();
+		return v.listIterator(index);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		zooActivateRead();
+		return v.remove(o);
+	}
+
+	@Override
+	public E remove(int index) {
+		zooActivateRead();
+		return v.remove(index);
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		zooActivateRead();
+		return v.removeAll(c);
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		zooActivateRead();
+		return v.retainAll(c);
+	}
+
+	@Override
+	public E set(int index, E element) {
+		zooActivateRead();
+		return v.set(index, element);
+	}
+
+	@Override
+	public int size() {
+		zooActivateRead();
+		return v.size();
+	}
+
+	@Override
+	public List<E> subList(int fromIndex, int toIndex) {
+		zooActivateRead();
+		return v.subList(fromIndex, toIndex);
+	}
+
+	@Override
+	public Object[] toArray() {
+		zooActivateRead();
+		return v.toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] a) {
+		zooActivateRead();
+		return v.toArray(a);
+	}
+
+	private void setRoot(LargeVectorPage root) {
+		zooActivateWrite();
+		this.root = root;
+	}
+	
+	/**
+	 * List view on the pages. The list object itself is only modified if the root page 
+	 * changes.
+	 */
+	private class PagedList extends AbstractList<E> {
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public E get(int index) {
+			checkIndex(index, size());
+			return (E) root.get(index);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public E set(int index, E element) {
+			checkIndex(index, size());
+			return (E) root.set(index, element);
+		}
+
+		@Override
+		public void add(int index, E element) {
+			int size = size();
+			checkIndex(index, size + 1);
+			if (root == null) {
+				setRoot(new LargeVectorPage(0));
+			}
+			LargeVectorPage newPage = root.add(index, element);
+			if (newPage != null) {
+				setRoot(LargeVectorPage.newRoot(root, newPage));
+			}
+			modCount++;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public E remove(int index) {
+			int size = size();
+			checkIndex(index, size);
+			E prev = (E) root.remove(index);
+			if (size == 1) {
+				LargeVectorPage.deletePage(root);
+				setRoot(null);
+			} else {
+				LargeVectorPage single = root.getSingleSubPage();
+				if (single != null) {
+					LargeVectorPage.deletePage(root);
+					setRoot(single);
+				}
+			}
+			modCount++;
+			return prev;
+		}
+
+		@Override
+		public void clear() {
+			if (root != null) {
+				root.deleteAll();
+				setRoot(null);
+			}
+			modCount++;
+		}
+
+		@Override
+		public int size() {
+			return root == null ? 0 : root.size();
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			return new PagedIterator();
+		}
+		
+		private void checkIndex(int index, int size) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+		}
+		
+		/**
+		 * Iterator that visits every leaf page only once.
+		 */
+		private class PagedIterator implements Iterator<E> {
+
+			private int pos = 0;
+			private int lastRet = -1;
+			private int size = size();
+			private int expectedModCount = modCount;
+			private LargeVectorPage leaf;
+			private final int[] leafStart = new int[1];
+			private int leafEnd;
+			
+			@Override
+			public boolean hasNext() {
+				return pos < size;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public E next() {
+				checkModCount();
+				if (pos >= size) {
+					throw new NoSuchElementException();
+				}
+				if (leaf == null || pos >= leafEnd) {
+					leafStart[0] = 0;
+					leaf = root.findLeaf(pos, leafStart);
+					leafEnd = leafStart[0] + leaf.size();
+				}
+				E e = (E) leaf.get(pos - leafStart[0]);
+				lastRet = pos++;
+				return e;
+			}
+
+			@Override
+			public void remove() {
+				if (lastRet < 0) {
+					throw new IllegalStateException();
+				}
+				checkModCount();
+				PagedList.this.remove(lastRet);
+				pos = lastRet;
+				lastRet = -1;
+				size--;
+				leaf = null;
+				expectedModCount = modCount;
+			}
+			
+			private void checkModCount() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int) (jdoZooGetOid()*10000) | size();  
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null || !(obj instanceof DBLargeVector)) {
+			return false;
+		}
+		DBLargeVector<?> o = (DBLargeVector<?>) obj;
+		if (size() != o.size() || jdoZooGetOid() != o.jdoZooGetOid()) {
+			return false;
+		}
+		Iterator<?> it2 = o.iterator();
+		for (E e: this) {
+			Object e2 = it2.next();
+			if (!(e == null ? e2 == null : e.equals(e2))) {
+				return false;
+			}
+		}
+		return true;
+	}
 }
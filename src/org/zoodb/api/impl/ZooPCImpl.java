@@ -27,6 +27,7 @@ import org.zoodb.api.ZooInstanceEvent;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.Session;
 import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.client.PCContext;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.Util;
@@ -71,11 +72,19 @@ public abstract class ZooPCImpl {
 	//store only byte i.o. reference!
 	//TODO store only one of the following?
 	private transient ObjectState status;
+	//Whether the object is currently being deserialized. See zooActivateRead().
+	private transient volatile boolean isLoading = false;
 	private transient byte stateFlags;
 	
 	private transient PCContext context;
 	
-	private transient long[] prevValues = null;
+	private transient Object[] prevValues = null;
+	
+	//Fields that have been loaded, or 'null' if the object is loaded completely. 
+	//See zooActivateRead(String).
+	private transient boolean[] loadedFields = null;
+	//Position of the record from which the fields were loaded
+	private transient long loadedPos;
 	
 	public final boolean jdoZooIsDirty() {
 		return (stateFlags & PS_DIRTY) != 0;
@@ -151,11 +160,44 @@ public abstract class ZooPCImpl {
 		stateFlags = 0;
 		jdoZooOid = Session.OID_NOT_ASSIGNED;
 	}
+	/**
+	 * Flags the object as being loaded. Other threads that access the object wait until 
+	 * loading is finished.
+	 * @param isLoading
+	 */
+	public final void jdoZooSetLoading(boolean isLoading) {
+		this.isLoading = isLoading;
+	}
 	public final void jdoZooMarkClean() {
 		//TODO is that all?
 		setPersClean();
 		prevValues = null;
 	}
+	/**
+	 * Flags the object as partially loaded.
+	 * @param loadedFields Flags for each field that has been loaded, or 'null' if the object
+	 * has been loaded completely.
+	 * @param loadedPos The position of the record from which the fields were loaded
+	 */
+	public final void jdoZooSetLoadedFields(boolean[] loadedFields, long loadedPos) {
+		this.loadedFields = loadedFields;
+		this.loadedPos = loadedPos;
+	}
+	/**
+	 * @return Flags for each field that has been loaded, or 'null' if the object is not 
+	 * partially loaded.
+	 */
+	public final boolean[] jdoZooGetLoadedFields() {
+		return loadedFields;
+	}
+	public final long jdoZooGetLoadedPos() {
+		return loadedPos;
+	}
+	private final void loadMissingFields() {
+		if (loadedFields != null) {
+			jdoZooGetNode().activateObject(this, false);
+		}
+	}
 //	public final void jdoZooMarkNew() {
 //		ObjectState statusO = status;
 //		if (statusO == ObjectState.TRANSIENT) {
@@ -171,6 +213,7 @@ public abstract class ZooPCImpl {
 		ObjectState statusO = status;
 		context.notifyEvent(this, ZooInstanceEvent.PRE_DIRTY);
 		if (statusO == ObjectState.PERSISTENT_CLEAN) {
+			loadMissingFields();
 			setPersDirty();
 			getPrevValues();
 		} else if (statusO == ObjectState.PERSISTENT_NEW) {
@@ -193,6 +236,8 @@ public abstract class ZooPCImpl {
 		ObjectState statusO = status;
 		if (statusO == ObjectState.PERSISTENT_CLEAN ||
 				statusO == ObjectState.PERSISTENT_DIRTY) {
+			//index entries are removed using the field values
+			loadMissingFields();
 			setPersDeleted();
 		} else if (statusO == ObjectState.PERSISTENT_NEW) {
 			setPersNewDeleted();
@@ -211,6 +256,7 @@ public abstract class ZooPCImpl {
 		//TODO is that all?
 		setHollow();
 		prevValues = null;
+		loadedFields = null;
 	}
 
 	public final void jdoZooMarkTransient() {
@@ -219,6 +265,7 @@ public abstract class ZooPCImpl {
 			//nothing to do 
 		} else if (statusO == ObjectState.PERSISTENT_CLEAN ||
 				statusO == ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL) {
+			loadMissingFields();
 			setTransient();
 		} else if (statusO == ObjectState.PERSISTENT_NEW) {
 			throw DBLogger.newUser("The object is new.");
@@ -294,7 +341,7 @@ public abstract class ZooPCImpl {
 		
 	}
 	
-	public long[] jdoZooGetBackup() {
+	public Object[] jdoZooGetBackup() {
 		return prevValues;
 	}
 
@@ -320,13 +367,19 @@ public abstract class ZooPCImpl {
 				throw DBLogger.newUser("The PersistenceManager of this object is not active " +
 						"(-> use begin()).");
 			}
-			jdoZooGetNode().refreshObject(this);
+			jdoZooGetNode().activateObject(this, false);
 			return;
 		case PERSISTENT_DELETED:
 		case PERSISTENT_NEW_DELETED:
 			throw DBLogger.newUser("The object has been deleted.");
-		case PERSISTENT_NEW:
 		case PERSISTENT_CLEAN:
+			if (isLoading || loadedFields != null) {
+				//The object is being loaded (possibly by another thread), wait until it is done.
+				//Partially loaded objects are completed.
+				jdoZooGetNode().activateObject(this, false);
+			}
+			return;
+		case PERSISTENT_NEW:
 		case PERSISTENT_DIRTY:
 			//nothing to do
 			return;
@@ -357,6 +410,57 @@ public abstract class ZooPCImpl {
 //		}
 	}
 	
+	/**
+	 * This method ensures that the specified field of the object is loaded. Other fields are 
+	 * loaded only as far as defined by the session's fetch groups.
+	 * 
+	 * It can be used instead of {@link #zooActivateRead()} in methods that read only a single
+	 * persistent field.
+	 * 
+	 * @param field The name of the field
+	 */
+	public final void zooActivateRead(String field) {
+		switch (status) {
+		case HOLLOW_PERSISTENT_NONTRANSACTIONAL:
+			if (jdoZooGetContext().getSession().isClosed()) {
+				throw DBLogger.newUser("The PersistenceManager of this object is not open.");
+			}
+			if (!jdoZooGetContext().getSession().isActive()) {
+				throw DBLogger.newUser("The PersistenceManager of this object is not active " +
+						"(-> use begin()).");
+			}
+			jdoZooGetNode().activateObject(this, true);
+			break;
+		case PERSISTENT_CLEAN:
+			if (isLoading) {
+				jdoZooGetNode().activateObject(this, true);
+			}
+			break;
+		default:
+			zooActivateRead();
+			return;
+		}
+		boolean[] loaded = loadedFields;
+		if (loaded != null) {
+			ZooFieldDef fd = jdoZooGetClassDef().getField(field);
+			if (!loaded[fd.getFieldPos()]) {
+				jdoZooGetNode().activateObject(this, false);
+			}
+		}
+	}
+	
+	/**
+	 * Ensures that the field at the given position is loaded if the object has been loaded 
+	 * partially. The object must not be hollow.
+	 * @param fieldPos The position of the field in {@link ZooClassDef#getAllFields()}
+	 */
+	public final void jdoZooActivateField(int fieldPos) {
+		boolean[] loaded = loadedFields;
+		if (loaded != null && !loaded[fieldPos]) {
+			jdoZooGetNode().activateObject(this, false);
+		}
+	}
+	
 	/**
 	 * This method ensures that the specified object is in the cache and then flags it as dirty.
 	 * It includes a call to zooActivateRead().
@@ -377,7 +481,12 @@ public abstract class ZooPCImpl {
 				throw DBLogger.newUser("The PersitenceManager of this object is not active " +
 						"(-> use begin()).");
 			}
-			jdoZooGetNode().refreshObject(this);
+			jdoZooGetNode().activateObject(this, false);
+			break;
+		case PERSISTENT_CLEAN:
+			if (isLoading) {
+				jdoZooGetNode().activateObject(this, false);
+			}
 			break;
 		case PERSISTENT_DELETED:
 		case PERSISTENT_NEW_DELETED:
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import org.zoodb.internal.SerializerTools.PRIMITIVE;
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * Per-class field accessor for the (de-)serializers. A codec is created once per 
+ * ZooClassDef and gives indexed access to all fields (see getAllFields()) of the class.
+ * <p>
+ * The default implementation accesses fields via method handles that are created once per
+ * class. This avoids the access checks and dispatching in Field.get()/set() for every field
+ * of every object. The types of the fields are checked when the codec is created. If the 
+ * handles can not be created (final fields on older JVMs, security manager, ...), the codec 
+ * falls back to reflection.
+ * 
+ * @author Tilmann Zaeschke
+ */
+abstract class ClassCodec {
+
+	private final ZooFieldDef[] fields;
+	
+	private ClassCodec(ZooFieldDef[] fields) {
+		this.fields = fields;
+	}
+	
+	/**
+	 * @param fields All fields of a class, as returned by getAllFields(). 
+	 * @return A codec for the given fields.
+	 */
+	static ClassCodec create(ZooFieldDef[] fields) {
+		try {
+			return new HandleCodec(fields);
+		} catch (IllegalAccessException e) {
+			//fall back to reflection
+		} catch (RuntimeException e) {
+			//fall back to reflection, for example for fields without Java field
+		}
+		return createReflective(fields);
+	}
+	
+	/**
+	 * @param fields All fields of a class, as returned by getAllFields(). 
+	 * @return A codec that uses reflection.
+	 */
+	static ClassCodec createReflective(ZooFieldDef[] fields) {
+		return new ReflectionCodec(fields);
+	}
+	
+	/**
+	 * @return The fields for which this codec was created.
+	 */
+	final ZooFieldDef[] getFields() {
+		return fields;
+	}
+	
+	/**
+	 * Check that the codec can be used on the given object. This has to be called 
+	 * before any of the get/set methods is called on the object.
+	 * @param o
+	 */
+	abstract void checkInstance(Object o);
+	
+	abstract boolean getBoolean(Object o, int i) throws IllegalAccessException;
+	abstract byte getByte(Object o, int i) throws IllegalAccessException;
+	abstract char getChar(Object o, int i) throws IllegalAccessException;
+	abstract double getDouble(Object o, int i) throws IllegalAccessException;
+	abstract float getFloat(Object o, int i) throws IllegalAccessException;
+	abstract int getInt(Object o, int i) throws IllegalAccessException;
+	abstract long getLong(Object o, int i) throws IllegalAccessException;
+	abstract short getShort(Object o, int i) throws IllegalAccessException;
+	abstract Object getObject(Object o, int i) throws IllegalAccessException;
+
+	abstract void setBoolean(Object o, int i, boolean v) throws IllegalAccessException;
+	abstract void setByte(Object o, int i, byte v) throws IllegalAccessException;
+	abstract void setChar(Object o, int i, char v) throws IllegalAccessException;
+	abstract void setDouble(Object o, int i, double v) throws IllegalAccessException;
+	abstract void setFloat(Object o, int i, float v) throws IllegalAccessException;
+	abstract void setInt(Object o, int i, int v) throws IllegalAccessException;
+	abstract void setLong(Object o, int i, long v) throws IllegalAccessException;
+	abstract void setShort(Object o, int i, short v) throws IllegalAccessException;
+	abstract void setObject(Object o, int i, Object v) throws IllegalAccessException;
+
+	
+	/**
+	 * Codec that accesses fields via method handles. 
+	 * 
+	 * The handles are adapted to take an Object as receiver and the declared type of the
+	 * field (primitive type or Object) as value. Calls with other types fail, as do calls
+	 * with objects of other classes or with values that can not be assigned to the field. 
+	 */
+	private static final class HandleCodec extends ClassCodec {
+		
+		private final MethodHandle[] getters;
+		private final MethodHandle[] setters;
+		private final Class<?>[] types;
+		//The class that declares the last field. All other fields are declared in this
+		//class or in its super-classes.
+		private final Class<?> cls;
+		
+		HandleCodec(ZooFieldDef[] fields) throws IllegalAccessException {
+			super(fields);
+			getters = new MethodHandle[fields.length];
+			setters = new MethodHandle[fields.length];
+			types = new Class<?>[fields.length];
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			Class<?> c = Object.class;
+			for (int i = 0; i < fields.length; i++) {
+				Field f = fields[i].getJavaField();
+				if (f == null) {
+					throw new IllegalStateException("No Java field: " + fields[i].getName());
+				}
+				Class<?> type = f.getType();
+				types[i] = type;
+				if (fields[i].isPrimitiveType()) {
+					if (type != toClass(fields[i].getPrimitiveType())) {
+						throw new IllegalStateException("Field type mismatch: " + 
+								fields[i].getPrimitiveType() + " <-> " + type.getName());
+					}
+				} else {
+					if (type.isPrimitive()) {
+						throw new IllegalStateException("Field type mismatch: " + 
+								fields[i].getTypeName() + " <-> " + type.getName());
+					}
+					type = Object.class;
+				}
+				getters[i] = lookup.unreflectGetter(f).asType(
+						MethodType.methodType(type, Object.class));
+				setters[i] = lookup.unreflectSetter(f).asType(
+						MethodType.methodType(void.class, Object.class, type));
+				c = f.getDeclaringClass();
+			}
+			cls = c;
+		}
+		
+		private static Class<?> toClass(PRIMITIVE prim) {
+			switch (prim) {
+			case BOOLEAN: return Boolean.TYPE;
+			case BYTE: return Byte.TYPE;
+			case CHAR: return Character.TYPE;
+			case DOUBLE: return Double.TYPE;
+			case FLOAT: return Float.TYPE;
+			case INT: return Integer.TYPE;
+			case LONG: return Long.TYPE;
+			case SHORT: return Short.TYPE;
+			default:
+				throw new UnsupportedOperationException(prim.toString());
+			}
+		}
+		
+		private static RuntimeException rethrow(Throwable t) {
+			if (t instanceof RuntimeException) {
+				return (RuntimeException) t;
+			}
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+			return DBLogger.newFatal("Field access failed", t);
+		}
+		
+		@Override
+		void checkInstance(Object o) {
+			//The handles check this as well, but we fail early with a proper message
+			if (!cls.isInstance(o)) {
+				throw new ClassCastException("Codec for " + cls.getName() + 
+						" used with: " + (o == null ? null : o.getClass().getName()));
+			}
+		}
+		
+		@Override
+		boolean getBoolean(Object o, int i) {
+			try {
+				return (boolean) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		byte getByte(Object o, int i) {
+			try {
+				return (byte) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		char getChar(Object o, int i) {
+			try {
+				return (char) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		double getDouble(Object o, int i) {
+			try {
+				return (double) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		float getFloat(Object o, int i) {
+			try {
+				return (float) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		int getInt(Object o, int i) {
+			try {
+				return (int) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		long getLong(Object o, int i) {
+			try {
+				return (long) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		short getShort(Object o, int i) {
+			try {
+				return (short) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		Object getObject(Object o, int i) {
+			try {
+				return (Object) getters[i].invokeExact(o);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setBoolean(Object o, int i, boolean v) {
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setByte(Object o, int i, byte v) {
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setChar(Object o, int i, char v) {
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setDouble(Object o, int i, double v) {
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setFloat(Object o, int i, float v) {
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setInt(Object o, int i, int v) {
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setLong(Object o, int i, long v) {
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setShort(Object o, int i, short v) {
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		void setObject(Object o, int i, Object v) {
+			//Same check as in Field.set()
+			if (v != null && !types[i].isInstance(v)) {
+				throw new IllegalArgumentException("Can not set " + types[i].getName() + 
+						" field " + getFields()[i].getName() + " to " + v.getClass().getName());
+			}
+			try {
+				setters[i].invokeExact(o, v);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Fallback codec that uses reflection.
+	 */
+	private static final class ReflectionCodec extends ClassCodec {
+		
+		private final Field[] jFields;
+		
+		ReflectionCodec(ZooFieldDef[] fields) {
+			super(fields);
+			jFields = new Field[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				jFields[i] = fields[i].getJavaField();
+			}
+		}
+		
+		@Override
+		void checkInstance(Object o) {
+			//Field.get()/set() check this
+		}
+		
+		@Override
+		boolean getBoolean(Object o, int i) throws IllegalAccessException {
+			return jFields[i].getBoolean(o);
+		}
+
+		@Override
+		byte getByte(Object o, int i) throws IllegalAccessException {
+			return jFields[i].getByte(o);
+		}
+
+		@Override
+		char getChar(Object o, int i) throws IllegalAccessException {
+			return jFields[i].getChar(o);
+		}
+
+		@Override
+		double getDouble(Object o, int i) throws IllegalAccessException {
+			return jFields[i].getDouble(o);
+		}
+
+		@Override
+		float getFloat(Object o, int i) throws IllegalAccessException {
+			return jFields[i].getFloat(o);
+		}
+
+		@Override
+		int getInt(Object o, int i) throws IllegalAccessException {
+			return jFields[i].getInt(o);
+		}
+
+		@Override
+		long getLong(Object o, int i) throws IllegalAccessException {
+			return jFields[i].getLong(o);
+		}
+
+		@Override
+		short getShort(Object o, int i) throws IllegalAccessException {
+			return jFields[i].getShort(o);
+		}
+
+		@Override
+		Object getObject(Object o, int i) throws IllegalAccessException {
+			return jFields[i].get(o);
+		}
+
+		@Override
+		void setBoolean(Object o, int i, boolean v) throws IllegalAccessException {
+			jFields[i].setBoolean(o, v);
+		}
+
+		@Override
+		void setByte(Object o, int i, byte v) throws IllegalAccessException {
+			jFields[i].setByte(o, v);
+		}
+
+		@Override
+		void setChar(Object o, int i, char v) throws IllegalAccessException {
+			jFields[i].setChar(o, v);
+		}
+
+		@Override
+		void setDouble(Object o, int i, double v) throws IllegalAccessException {
+			jFields[i].setDouble(o, v);
+		}
+
+		@Override
+		void setFloat(Object o, int i, float v) throws IllegalAccessException {
+			jFields[i].setFloat(o, v);
+		}
+
+		@Override
+		void setInt(Object o, int i, int v) throws IllegalAccessException {
+			jFields[i].setInt(o, v);
+		}
+
+		@Override
+		void setLong(Object o, int i, long v) throws IllegalAccessException {
+			jFields[i].setLong(o, v);
+		}
+
+		@Override
+		void setShort(Object o, int i, short v) throws IllegalAccessException {
+			jFields[i].setShort(o, v);
+		}
+
+		@Override
+		void setObject(Object o, int i, Object v) throws IllegalAccessException {
+			jFields[i].set(o, v);
+		}
+	}
+}
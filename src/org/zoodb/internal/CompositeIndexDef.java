@@ -0,0 +1,248 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.server.index.CompositeKey;
+import org.zoodb.internal.server.index.PagedStringLong;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.Util;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Definition of a composite index, i.e. an index over several fields of a class. 
+ * 
+ * The index is defined on a class and shared by all sub-classes, in the same way as field
+ * indices are shared. Each version of a class has its own instances of this class that
+ * reference the fields of that version.
+ * 
+ * The keys are built with {@link CompositeKey}, they are ordered by the first field, then
+ * by the second field, and so on.
+ * 
+ * Keys are limited to {@link PagedStringLong#maxKeyLength(int, boolean)}. In non-unique 
+ * indices, each String field gets an equal share of the remaining key length and longer
+ * values are truncated. This way a long String can not cut the following fields from the 
+ * key. Queries on truncated keys return additional objects, which are filtered out during 
+ * query evaluation. 
+ * Unique indices can not truncate values, because different keys could not be 
+ * distinguished anymore. Objects whose key is too long are rejected.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class CompositeIndexDef {
+
+	private final ZooClassDef declaringType;
+	private final ZooFieldDef[] fields;
+	private final boolean isUnique;
+	private final int maxKeyLength;
+	/** Maximum encoded length of a String field. */
+	private final int maxStringLength;
+	
+	public CompositeIndexDef(ZooClassDef declaringType, ZooFieldDef[] fields, boolean isUnique) {
+		if (fields.length < 2) {
+			throw new IllegalArgumentException("Composite indices require at least two fields.");
+		}
+		int nStrings = 0;
+		for (ZooFieldDef f: fields) {
+			if (f.isString()) {
+				nStrings++;
+			} else if (!f.isPrimitiveType()) {
+				throw DBLogger.newUser("Type can not be indexed: " + f.getTypeName() + 
+						" (" + f.getName() + ")");
+			}
+		}
+		this.declaringType = declaringType;
+		this.fields = fields;
+		this.isUnique = isUnique;
+		this.maxKeyLength = PagedStringLong.maxKeyLength(ZooConfig.getFilePageSize(), isUnique);
+		if (isUnique || nStrings == 0) {
+			maxStringLength = Integer.MAX_VALUE;
+		} else {
+			//primitives use 4 chars
+			maxStringLength = (maxKeyLength - 4 * (fields.length - nStrings)) / nStrings;
+			//marker, terminator and at least one char
+			if (maxStringLength < 3) {
+				throw DBLogger.newUser("Too many fields for composite index: " + this);
+			}
+		}
+	}
+
+	/**
+	 * @param newDef
+	 * @return The definition of this index for a new version of the declaring class, or 
+	 * {@code null} if one of the fields does not exist anymore.
+	 */
+	public CompositeIndexDef forVersion(ZooClassDef newDef) {
+		ZooFieldDef[] newFields = resolveFields(newDef, getFieldIds());
+		if (newFields == null) {
+			return null;
+		}
+		return new CompositeIndexDef(newDef, newFields, isUnique);
+	}
+	
+	/**
+	 * @param def
+	 * @param fieldIds
+	 * @return The fields with the given schema IDs or {@code null} if not all fields were 
+	 * found.
+	 */
+	public static ZooFieldDef[] resolveFields(ZooClassDef def, long[] fieldIds) {
+		ZooFieldDef[] ret = new ZooFieldDef[fieldIds.length];
+		for (int i = 0; i < fieldIds.length; i++) {
+			for (ZooFieldDef f: def.getAllFields()) {
+				if (f.getFieldSchemaId() == fieldIds[i]) {
+					ret[i] = f;
+					break;
+				}
+			}
+			if (ret[i] == null) {
+				return null;
+			}
+		}
+		return ret;
+	}
+	
+	public ZooClassDef getDeclaringType() {
+		return declaringType;
+	}
+	
+	public ZooFieldDef[] getFields() {
+		return fields;
+	}
+	
+	public boolean isUnique() {
+		return isUnique;
+	}
+	
+	public long[] getFieldIds() {
+		long[] ids = new long[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			ids[i] = fields[i].getFieldSchemaId();
+		}
+		return ids;
+	}
+	
+	/**
+	 * @param fieldIds
+	 * @return Whether this index consists of the given fields in the given order.
+	 */
+	public boolean matches(long[] fieldIds) {
+		return Arrays.equals(getFieldIds(), fieldIds);
+	}
+	
+	public boolean containsField(ZooFieldDef field) {
+		for (ZooFieldDef f: fields) {
+			if (f.getFieldSchemaId() == field.getFieldSchemaId()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public boolean hasStringField() {
+		for (ZooFieldDef f: fields) {
+			if (f.isString()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Append the value of a String field to a key. Long values are truncated in non-unique
+	 * indices.
+	 * @param sb The key
+	 * @param value The value, may be {@code null}
+	 */
+	public void appendString(StringBuilder sb, String value) {
+		CompositeKey.appendString(sb, value, maxStringLength);
+	}
+	
+	/**
+	 * @param sb The key
+	 * @param oid The OID of the object, for error reporting
+	 * @return The key. Fails if the key is too long for a unique index.
+	 */
+	public String toKey(StringBuilder sb, long oid) {
+		if (sb.length() > maxKeyLength) {
+			//can only happen in unique indices
+			throw DBLogger.newUser("The key of object " + Util.oidToString(oid) + 
+					" is too long for unique index " + this + ": " + sb.length() + 
+					" characters, the maximum is " + maxKeyLength + ".");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @param co
+	 * @return The index key of the given object.
+	 */
+	public String getKey(ZooPCImpl co) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			for (ZooFieldDef fd: fields) {
+				Field f = fd.getJavaField();
+				if (fd.isString()) {
+					appendString(sb, (String) f.get(co));
+				} else {
+					CompositeKey.appendLong(sb, 
+							SerializerTools.primitiveFieldToLong(co, f, fd.getPrimitiveType()));
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw DBLogger.newFatal("Error accessing fields of index " + this, e);
+		}
+		return toKey(sb, co.jdoZooGetOid());
+	}
+	
+	/**
+	 * @param co
+	 * @return The index key of the given object.
+	 */
+	public String getKey(GenericObject co) {
+		StringBuilder sb = new StringBuilder();
+		for (ZooFieldDef fd: fields) {
+			if (fd.isString()) {
+				appendString(sb, (String) co.getFieldRawSCO(fd.getFieldPos()));
+			} else {
+				CompositeKey.appendLong(sb, SerializerTools.primitiveToLong(
+						co.getFieldRaw(fd.getFieldPos()), fd.getPrimitiveType()));
+			}
+		}
+		return toKey(sb, co.getOid());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(fields[i].getName());
+		}
+		sb.append(")");
+		return sb.toString();
+	}
+}
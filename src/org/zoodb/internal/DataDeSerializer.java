@@ -25,6 +25,7 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -41,13 +42,14 @@ import javax.jdo.listener.LoadCallback;
 import org.zoodb.api.DBArrayList;
 import org.zoodb.api.DBCollection;
 import org.zoodb.api.DBHashMap;
-import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.ZooInstanceEvent;
 import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.SerializerTools.PRIMITIVE;
 import org.zoodb.internal.client.AbstractCache;
 import org.zoodb.internal.server.ObjectReader;
+import org.zoodb.internal.server.index.BitTools;
 import org.zoodb.internal.util.ClassCreator;
+import org.zoodb.internal.util.ClientLock;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.Util;
 import org.zoodb.jdo.spi.PersistenceCapableImpl;
@@ -99,8 +101,12 @@ public class DataDeSerializer {
         new ConcurrentHashMap<Class<?>, Constructor<?>>(100);
     
     private final AbstractCache cache;
+    private final ClientLock lock;
     private boolean allowGenericObjects = false;
     
+    //Hollow objects that are referenced by the objects that are read, 'null' if not collected.
+    private ArrayList<ZooPCImpl> hollowRefs = null;
+    
     //Cached Sets and Maps
     //The maps and sets are only filled after the keys have been de-serialized. Otherwise 
     //the keys will be inserted with a wrong hash value.
@@ -141,8 +147,20 @@ public class DataDeSerializer {
     public DataDeSerializer(ObjectReader in, AbstractCache cache) {
         this.in = in;
         this.cache = cache;
+        this.lock = cache.getSession().getLock();
    }
 
+    
+    /**
+     * Read the next object from a copy of its data page instead of reading the page 
+     * from the file.
+     * @param page
+     * @param pageId
+     */
+    public void usePage(ByteBuffer page, int pageId) {
+        in.usePage(page, pageId);
+    }
+
 
 	/**
      * This method returns an object that is read from the input 
@@ -181,9 +199,19 @@ public class DataDeSerializer {
         }
         
         
-        ZooPCImpl pObj = getInstance(clsDef, oid, pc);
+        ZooPCImpl pObj = getInstance(clsDef, oid, pc, skipIfCached);
+        if (pObj == null) {
+        	//loaded by another thread or currently being loaded by this thread
+        	in = or;
+        	return cache.findCoByOID(oid);
+        }
 
-        readObjPrivate(pObj, oid, clsDef);
+        try {
+        	boolean[] fetchMask = isEvolved ? null : getFetchMask(pObj, clsDef);
+        	readObjPrivate(pObj, oid, clsDef, fetchMask, BitTools.getPos(page, offs));
+        } finally {
+        	lock.release(pObj);
+        }
         in = or;
         if (isEvolved) {
             //force object to be stored again
@@ -214,6 +242,39 @@ public class DataDeSerializer {
     }
     
     
+    /**
+     * Reads only the value of a String field. This is used to populate String indices. 
+     * The fixed size part of the object is skipped, the variable size part is read until the
+     * requested field is found.
+     * @param page 
+     * @param offs 
+     * @param field The field, it must be part of the schema version of the object.
+     * @return The value of the String field.
+     */
+    public String readStringField(int page, int offs, ZooFieldDef field) {
+    	allowGenericObjects = true;
+    	long clsOid = in.startReading(page, offs);
+    	//Read oid
+    	in.readLong();
+    	ZooFieldDef[] fields = cache.getSchema(clsOid).getAllFields();
+    	//skip the fixed size part, we already read the OID.
+    	in.skipRead(fields[fields.length-1].getNextOffset() - ZooFieldDef.OFS_INIITIAL);
+    	String ret = null;
+    	for (ZooFieldDef fd: fields) {
+    		if (!fd.isFixedSize() || fd.isString()) {
+    			Object deObj = deserializeObjectSCO();
+    			if (fd.getFieldPos() == field.getFieldPos()) {
+    				ret = (String) deObj;
+    				break;
+    			}
+    		}
+    	}
+    	postProcessCollections();
+    	allowGenericObjects = false;
+    	return ret;
+    }
+    
+    
     private GenericObject readGOPrivate(GenericObject pObj, long oid, ZooClassDef clsDef) {
     	// read first object (FCO)
         deserializeFieldsGO( pObj, clsDef );
@@ -279,32 +340,97 @@ public class DataDeSerializer {
         }
     }
 
-    public ZooPCImpl readObject(ZooPCImpl pc, int page, int offs) {
+    /**
+     * Start collecting hollow objects that are referenced by the objects that are read. 
+     * This allows prefetching referenced objects.
+     */
+    public void startCollectingHollowRefs() {
+    	hollowRefs = new ArrayList<ZooPCImpl>();
+    }
+    
+    /**
+     * Stop collecting hollow references.
+     * @return The hollow objects that were referenced by the objects read since 
+     * {@link #startCollectingHollowRefs()}. The list may contain duplicates.
+     */
+    public ArrayList<ZooPCImpl> stopCollectingHollowRefs() {
+    	ArrayList<ZooPCImpl> ret = hollowRefs;
+    	hollowRefs = null;
+    	return ret;
+    }
+    
+    /**
+     * Reads an object into an existing instance.
+     * @param pc
+     * @param page
+     * @param offs
+     * @param useFetchPlan Whether only the fields defined by the session's fetch groups 
+     * should be read.
+     * @return The object.
+     */
+    public ZooPCImpl readObject(ZooPCImpl pc, int page, int offs, boolean useFetchPlan) {
         long clsOid = in.startReading(page, offs);
     	
         //Read first object:
     	long oid = in.readLong();
     	
     	ZooClassDef clsDef = cache.getSchema(clsOid);
+    	pc.jdoZooSetLoading(true);
     	pc.jdoZooMarkClean();
 
-        return readObjPrivate(pc, oid, clsDef);
+    	boolean[] fetchMask = useFetchPlan ? getFetchMask(pc, clsDef) : null;
+        return readObjPrivate(pc, oid, clsDef, fetchMask, BitTools.getPos(page, offs));
     }
     
+    /**
+     * Reads the fields of a partially loaded object that have not been loaded yet.
+     * @param pc
+     * @param page
+     * @param offs
+     * @see ZooPCImpl#jdoZooGetLoadedFields()
+     */
+    public void readMissingFields(ZooPCImpl pc, int page, int offs) {
+        in.startReading(page, offs);
+        //skip OID
+        in.readLong();
+    	pc.jdoZooSetLoading(true);
+    	try {
+    		deserializeMissingFields(pc, pc.jdoZooGetClassDef(), pc.jdoZooGetLoadedFields());
+	        postProcessCollections();
+	        pc.jdoZooSetLoadedFields(null, 0);
+    	} finally {
+    		pc.jdoZooSetLoading(false);
+    	}
+    }
     
-    private ZooPCImpl readObjPrivate(ZooPCImpl pObj, long oid, ZooClassDef clsDef) {
-    	// read first object (FCO)
-    	//read fixed size part
-        deserializeFields1( pObj, clsDef );
-        //read variable size part
-        deserializeFields2( pObj, clsDef );
-        
-        //read special classes
-        if (pObj instanceof DBCollection) {
-        	deserializeSpecial( pObj );
-        }
-
-        postProcessCollections();
+    private boolean[] getFetchMask(ZooPCImpl pObj, ZooClassDef clsDef) {
+    	boolean[] mask = pObj.jdoZooGetContext().getFetchMask();
+    	if (mask != null && pObj.jdoZooGetContext().getClassDef() != clsDef) {
+    		//different schema version
+    		return null;
+    	}
+    	return mask;
+    }
+    
+    private ZooPCImpl readObjPrivate(ZooPCImpl pObj, long oid, ZooClassDef clsDef, 
+    		boolean[] fetchMask, long pos) {
+    	try {
+	    	// read first object (FCO)
+	    	//read fixed size part
+	        deserializeFields1( pObj, clsDef, fetchMask );
+	        //read variable size part
+	        deserializeFields2( pObj, clsDef, fetchMask );
+	        
+	        //read special classes
+	        if (pObj instanceof DBCollection) {
+	        	deserializeSpecial( pObj );
+	        }
+	
+	        postProcessCollections();
+	        pObj.jdoZooSetLoadedFields(fetchMask, pos);
+    	} finally {
+    		pObj.jdoZooSetLoading(false);
+    	}
         
         if (pObj instanceof LoadCallback) {
         	((LoadCallback)pObj).jdoPostLoad();
@@ -342,36 +468,67 @@ public class DataDeSerializer {
         usedClasses.clear();
     }
     
-    private final ZooPCImpl getInstance(ZooClassDef clsDef, long oid, ZooPCImpl co) {
-    	if (co != null) {
-    		//might be hollow!
-    		co.jdoZooMarkClean();
-    		return co;
-        }
-        
-		Class<?> cls = clsDef.getJavaClass(); 
-		if (cls == null) {
-			throw DBLogger.newUser("Java class not found: " + clsDef.getClassName());
-		}
-    	ZooPCImpl obj = (ZooPCImpl) createInstance(cls);
-    	prepareObject(obj, oid, false, clsDef);
-        return obj;
+    /**
+     * Returns the instance for an object and claims it for loading.
+     * @return The instance or <tt>null</tt> if the object could not be claimed. Objects 
+     * can not be claimed if they are loaded by the current thread, or if another thread
+     * loaded them while we were waiting.
+     */
+    private final ZooPCImpl getInstance(ZooClassDef clsDef, long oid, ZooPCImpl co, 
+    		boolean skipIfCached) {
+    	if (co == null) {
+    		Class<?> cls = clsDef.getJavaClass(); 
+    		if (cls == null) {
+    			throw DBLogger.newUser("Java class not found: " + clsDef.getClassName());
+    		}
+    		ZooPCImpl obj = (ZooPCImpl) createInstance(cls);
+    		//claim and flag it before it becomes visible in the cache
+    		lock.claim(obj);
+    		obj.jdoZooSetLoading(true);
+    		co = prepareObject(obj, oid, false, clsDef);
+    		if (co == obj) {
+    			return obj;
+    		}
+    		//another thread has added the object to the cache
+    		obj.jdoZooSetLoading(false);
+    		lock.release(obj);
+    	}
+    	
+    	if (!lock.claim(co)) {
+    		return null;
+    	}
+    	if (skipIfCached && (co.jdoZooIsDeleted() || !co.jdoZooIsStateHollow())) {
+    		//loaded by another thread while we were waiting
+    		lock.release(co);
+    		return null;
+    	}
+    	//might be hollow!
+    	co.jdoZooSetLoading(true);
+    	co.jdoZooMarkClean();
+    	return co;
     }
 
-    private final Object deserializeFields1(Object obj, ZooClassDef clsDef) {
+    private final Object deserializeFields1(Object obj, ZooClassDef clsDef, boolean[] mask) {
         Field f1 = null;
         Object deObj = null;
         try {
             //Read fields
-        	for (ZooFieldDef fd: clsDef.getAllFields()) {
-                Field f = fd.getJavaField();
-                f1 = f;
+        	ClassCodec codec = clsDef.getCodec();
+        	codec.checkInstance(obj);
+        	ZooFieldDef[] fields = codec.getFields();
+        	for (int i = 0; i < fields.length; i++) {
+        		ZooFieldDef fd = fields[i];
+                f1 = fd.getJavaField();
                 PRIMITIVE prim = fd.getPrimitiveType();
-                if (prim != null) {
-                	deserializePrimitive(obj, f, prim);
+                if (mask != null && !mask[i]) {
+                	if (prim != null || fd.isFixedSize()) {
+                		in.skipRead(fd.getLength());
+                	}
+                } else if (prim != null) {
+                	deserializePrimitive(obj, codec, i, prim);
                 } else if (fd.isFixedSize()) {
                     deObj = deserializeObjectNoSco(fd);
-                    f.set(obj, deObj);
+                    codec.setObject(obj, i, deObj);
                 }
         	}
             return obj;
@@ -393,17 +550,23 @@ public class DataDeSerializer {
         }
     }
 
-    private final Object deserializeFields2(Object obj, ZooClassDef clsDef) {
+    private final Object deserializeFields2(Object obj, ZooClassDef clsDef, boolean[] mask) {
         Field f1 = null;
         Object deObj = null;
         try {
             //Read fields
-        	for (ZooFieldDef fd: clsDef.getAllFields()) {
+        	ClassCodec codec = clsDef.getCodec();
+        	ZooFieldDef[] fields = codec.getFields();
+        	for (int i = 0; i < fields.length; i++) {
+        		ZooFieldDef fd = fields[i];
                 if (!fd.isFixedSize() || fd.isString()) {
-                	Field f = fd.getJavaField();
-                	f1 = f;
+                	if (mask != null && !mask[i]) {
+                		//the remaining fields are not requested, see PCContext.getFetchMask()
+                		break;
+                	}
+                	f1 = fd.getJavaField();
                    	deObj = deserializeObjectSCO();
-                    f.set(obj, deObj);
+                    codec.setObject(obj, i, deObj);
                 }
         	}
             return obj;
@@ -423,6 +586,59 @@ public class DataDeSerializer {
         }
     }
 
+    private final void deserializeMissingFields(ZooPCImpl obj, ZooClassDef clsDef, 
+    		boolean[] loaded) {
+        Field f1 = null;
+        Object deObj = null;
+        try {
+        	ClassCodec codec = clsDef.getCodec();
+        	codec.checkInstance(obj);
+        	ZooFieldDef[] fields = codec.getFields();
+        	//Read fixed size fields
+        	for (int i = 0; i < fields.length; i++) {
+        		ZooFieldDef fd = fields[i];
+                f1 = fd.getJavaField();
+                PRIMITIVE prim = fd.getPrimitiveType();
+                if (prim == null && !fd.isFixedSize()) {
+                	continue;
+                }
+                if (loaded[i]) {
+                	in.skipRead(fd.getLength());
+                } else if (prim != null) {
+                	deserializePrimitive(obj, codec, i, prim);
+                } else {
+                    deObj = deserializeObjectNoSco(fd);
+                    codec.setObject(obj, i, deObj);
+                }
+        	}
+        	//Read variable size fields, values of fields that are already loaded are discarded.
+        	int last = -1;
+        	for (int i = 0; i < fields.length; i++) {
+        		if (!loaded[i]) {
+        			last = i;
+        		}
+        	}
+        	for (int i = 0; i <= last; i++) {
+        		ZooFieldDef fd = fields[i];
+                if (!fd.isFixedSize() || fd.isString()) {
+                	f1 = fd.getJavaField();
+                   	deObj = deserializeObjectSCO();
+                   	if (!loaded[i]) {
+                   		codec.setObject(obj, i, deObj);
+                   	}
+                }
+        	}
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (BinaryDataCorruptedException e) {
+            throw new BinaryDataCorruptedException("Corrupted Object: " +
+                    Util.getOidAsString(obj) + " " + clsDef + " F:" + 
+                    f1 + " DO: " + (deObj != null ? deObj.getClass() : null), e);
+        }
+    }
+
     private final Object deserializeSCO(Object obj, Class<?> cls) {
         Field f1 = null;
         Object deObj = null;
@@ -464,9 +680,6 @@ public class DataDeSerializer {
             if (obj instanceof DBHashMap) {
                 deserializeDBHashMap((DBHashMap<Object, Object>) obj);
                 ((ZooPCImpl)obj).jdoZooMarkClean();
-            } else if (obj instanceof DBLargeVector) {
-                deserializeDBList((DBLargeVector<Object>) obj);
-                ((ZooPCImpl)obj).jdoZooMarkClean();
             } else if (obj instanceof DBArrayList) {
                 deserializeDBList((DBArrayList<Object>) obj);
                 ((ZooPCImpl)obj).jdoZooMarkClean();
@@ -485,10 +698,6 @@ public class DataDeSerializer {
     		HashMap<Object, Object> m = new HashMap<Object, Object>();
     		obj.setDbCollection(m);
     		deserializeDBHashMap(m);
-    	} else if (obj.getClassDef().getClassName().equals(DBLargeVector.class.getName())) {
-    		ArrayList<Object> l = new ArrayList<Object>();
-    		obj.setDbCollection(l);
-    		deserializeDBList(l);
     	} else if (obj.getClassDef().getClassName().equals(DBArrayList.class.getName())) {
     		ArrayList<Object> l = new ArrayList<Object>();
     		obj.setDbCollection(l);
@@ -512,6 +721,22 @@ public class DataDeSerializer {
         }
     }        
              
+    private final void deserializePrimitive(Object parent, ClassCodec codec, int i, 
+    		PRIMITIVE prim) throws IllegalArgumentException, IllegalAccessException {
+        switch (prim) {
+        case BOOLEAN: codec.setBoolean(parent, i, in.readBoolean()); break;
+        case BYTE: codec.setByte(parent, i, in.readByte()); break;
+        case CHAR: codec.setChar(parent, i, in.readChar()); break;
+        case DOUBLE: codec.setDouble(parent, i, in.readDouble()); break;
+        case FLOAT: codec.setFloat(parent, i, in.readFloat()); break;
+        case INT: codec.setInt(parent, i, in.readInt()); break;
+        case LONG: codec.setLong(parent, i, in.readLong()); break;
+        case SHORT: codec.setShort(parent, i, in.readShort()); break;
+        default:
+            throw new UnsupportedOperationException(prim.toString());
+        }
+    }        
+             
     private final Object deserializePrimitive(PRIMITIVE prim) 
     throws IllegalArgumentException, IllegalAccessException {
     	switch (prim) {
@@ -1009,15 +1234,19 @@ public class DataDeSerializer {
     
    //TODO rename to setOid/setPersistentState
     //TODO merge with createdumy & createObject
-    private final void prepareObject(ZooPCImpl obj, long oid, boolean hollow, 
+    /**
+     * @return The cached object, this may differ from <tt>obj</tt> if another thread has 
+     * added the object in the meantime.
+     */
+    private final ZooPCImpl prepareObject(ZooPCImpl obj, long oid, boolean hollow, 
     		ZooClassDef classDef) {
 //        obj.jdoNewInstance(sm); //?
         
         if (hollow) {
-        	cache.addToCache(obj, classDef, oid, ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL);
-        } else {
-        	cache.addToCache(obj, classDef, oid, ObjectState.PERSISTENT_CLEAN);
+        	return cache.addToCache(obj, classDef, oid, 
+        			ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL);
         }
+        return cache.addToCache(obj, classDef, oid, ObjectState.PERSISTENT_CLEAN);
     }
     
     private final Object hollowForOid(long oid, ZooClassDef clsDef) {
@@ -1026,12 +1255,17 @@ public class DataDeSerializer {
         }
         
         //check cache
-    	Object obj = cache.findCoByOID(oid);
-        if (obj != null) {
+    	ZooPCImpl co = cache.findCoByOID(oid);
+        if (co != null) {
         	//Object exist.
-            return obj;
+        	if (hollowRefs != null && co.jdoZooIsStateHollow()) {
+        		hollowRefs.add(co);
+        	}
+            return co;
         }
         
+        Object obj;
+        
         if (allowGenericObjects) {
         	//this instance is only used to return the OID (what about when deserializing arrays?)
         	Class<?> c = findOrCreateGoClass(clsDef);
@@ -1045,12 +1279,16 @@ public class DataDeSerializer {
 				}
 				((GOProxy)obj).go = GenericObject.newInstance(clsDef, oid, false, cache);
         	} else {
-    	        obj = createInstance(clsDef.getJavaClass());
-    	        prepareObject((ZooPCImpl) obj, oid, true, clsDef);
+    	        obj = prepareObject((ZooPCImpl) createInstance(clsDef.getJavaClass()), oid, 
+    	        		true, clsDef);
         	}
         } else {
-	        obj = createInstance(clsDef.getJavaClass());
-	        prepareObject((ZooPCImpl) obj, oid, true, clsDef);
+	        ZooPCImpl pc = prepareObject((ZooPCImpl) createInstance(clsDef.getJavaClass()), 
+	        		oid, true, clsDef);
+	        if (hollowRefs != null && pc.jdoZooIsStateHollow()) {
+	        	hollowRefs.add(pc);
+	        }
+	        obj = pc;
         }
         return obj;
     }
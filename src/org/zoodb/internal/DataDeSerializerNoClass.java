@@ -20,6 +20,8 @@
  */
 package org.zoodb.internal;
 
+import java.util.Date;
+
 import org.zoodb.internal.server.StorageChannelInput;
 import org.zoodb.internal.server.DiskIO.DATA_TYPE;
 import org.zoodb.internal.server.index.BitTools;
@@ -33,6 +35,11 @@ import org.zoodb.internal.util.Util;
  */
 public class DataDeSerializerNoClass {
 
+    /** 
+     * Returned by {@link #getAttrAsObject(ZooFieldDef)} for non-null Strings and references. 
+     */
+    public static final Object NOT_NULL = new Object();
+    
     private final StorageChannelInput in;
     private long oid;
     private long clsOid;
@@ -232,6 +239,45 @@ public class DataDeSerializerNoClass {
 		}
 	}
 
+	/**
+	 * Reads the value of a field as boxed object, as it would be returned by 
+	 * {@code Field.get()}. Strings and references are not read, for these only 
+	 * {@code null} or {@link #NOT_NULL} is returned.
+	 * The header is not checked, the caller has to ensure that the field is part of the
+	 * schema of the object.
+	 * @param field
+	 * @return The value of the field.
+	 */
+	public Object getAttrAsObject(ZooFieldDef field) {
+    	int skip = readHeader(null, true);
+    	skip += field.getOffset();
+    	in.skipRead(skip);
+    	if (field.isPrimitiveType()) {
+	    	switch (field.getPrimitiveType()) {
+	    	case BOOLEAN: return in.readBoolean();
+	    	case BYTE: return in.readByte();
+	    	case CHAR: return in.readChar();
+	    	case DOUBLE: return in.readDouble();
+	    	case FLOAT: return in.readFloat();
+	    	case INT: return in.readInt();
+	    	case LONG: return in.readLong();
+	    	case SHORT: return in.readShort();
+	    	default: 
+	    		throw new IllegalArgumentException(field.getJdoType() + " " + field.getName());
+	    	}
+    	}
+    	if (in.readByte() == -1) {
+    		return null;
+    	}
+		switch (field.getJdoType()) {
+		case DATE: return new Date(in.readLong());
+		case STRING: 
+		case REFERENCE: return NOT_NULL;
+		default: 
+			throw new IllegalArgumentException(field.getJdoType() + " " + field.getName());
+		}
+	}
+
 	public long getLastOid() {
 		return oid;
 	}
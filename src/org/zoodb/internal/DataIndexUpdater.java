@@ -22,23 +22,28 @@ package org.zoodb.internal;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.SerializerTools.PRIMITIVE;
-import org.zoodb.internal.server.index.BitTools;
 
 
 /**
  * This class provides a method to backup indexed fields for later removal from the according
  * field index. 
+ * Primitive fields are backed up as Long, String fields as String.
+ * The field values are followed by the keys of all composite indices of the class, see 
+ * {@link ZooClassDef#getAllCompositeIndices()}. 
  * 
  * @author Tilmann Zaeschke
  */
 public final class DataIndexUpdater {
 
+	private final ZooClassDef def;
 	private final ZooFieldDef[] indFields;
 	
 	public DataIndexUpdater(ZooClassDef def) {
+		this.def = def;
 		ArrayList<ZooFieldDef> pfl = new ArrayList<ZooFieldDef>();
 		for (ZooFieldDef f: def.getAllFields()) {
 			if (f.isIndexed()) {
@@ -49,12 +54,13 @@ public final class DataIndexUpdater {
 	}
 	
 	
-    public final long[] getBackup(ZooPCImpl co) {
-    	if (indFields.length == 0) {
+    public final Object[] getBackup(ZooPCImpl co) {
+    	List<CompositeIndexDef> cil = def.getAllCompositeIndices();
+    	if (indFields.length == 0 && cil.isEmpty()) {
     		return null;
     	}
         try {
-        	long[] la = new long[indFields.length];
+        	Object[] la = new Object[indFields.length + cil.size()];
             //set primitive fields
             for (int i = 0; i < indFields.length; i++) {
             	ZooFieldDef fd = indFields[i];
@@ -64,10 +70,12 @@ public final class DataIndexUpdater {
                 	la[i] = SerializerTools.primitiveFieldToLong(co, f, p);
                 } else {
                 	//must be String
-                	String str = (String)f.get(co);
-                	la[i] = BitTools.toSortableLong(str);
+                	la[i] = (String)f.get(co);
                 }
             }
+            for (int i = 0; i < cil.size(); i++) {
+            	la[indFields.length + i] = cil.get(i).getKey(co);
+            }
             return la;
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
@@ -76,11 +84,12 @@ public final class DataIndexUpdater {
         }
     }
     
-    public final long[] getBackup(GenericObject co, Object[] raw) {
-    	if (indFields.length == 0) {
+    public final Object[] getBackup(GenericObject co, Object[] raw) {
+    	List<CompositeIndexDef> cil = def.getAllCompositeIndices();
+    	if (indFields.length == 0 && cil.isEmpty()) {
     		return null;
     	}
-    	long[] la = new long[indFields.length];
+    	Object[] la = new Object[indFields.length + cil.size()];
     	//set primitive fields
     	for (int i = 0; i < indFields.length; i++) {
     		ZooFieldDef fd = indFields[i];
@@ -88,10 +97,13 @@ public final class DataIndexUpdater {
     		if (p != null) {
     			la[i] = SerializerTools.primitiveToLong(raw[fd.getFieldPos()], p);
     		} else {
-    			//must be String (already hashed)
-    			la[i] = (Long)raw[fd.getFieldPos()];
+    			//must be String, 'raw' contains only the hashed value
+    			la[i] = (String)co.getFieldRawSCO(fd.getFieldPos());
     		}
     	}
+    	for (int i = 0; i < cil.size(); i++) {
+    		la[indFields.length + i] = cil.get(i).getKey(co);
+    	}
     	return la;
     }
     
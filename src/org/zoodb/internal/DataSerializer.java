@@ -190,14 +190,17 @@ public final class DataSerializer {
     private final void serializeFields1(Object o, ZooClassDef clsDef) {
         // Write fields
         try {
-        	for (ZooFieldDef fd: clsDef.getAllFields()) {
-        		Field f = fd.getJavaField();
+        	ClassCodec codec = clsDef.getCodec();
+        	codec.checkInstance(o);
+        	ZooFieldDef[] fields = codec.getFields();
+        	for (int i = 0; i < fields.length; i++) {
+        		ZooFieldDef fd = fields[i];
         		if (fd.isPrimitiveType()) {
-                    serializePrimitive(o, f, fd.getPrimitiveType());
+                    serializePrimitive(o, codec, i, fd.getPrimitiveType());
                 } else if (fd.isFixedSize()) {
-                    serializeObjectNoSCO(f.get(o), fd);
+                    serializeObjectNoSCO(codec.getObject(o, i), fd);
                 } else {
-                	scos.add(f.get(o));
+                	scos.add(codec.getObject(o, i));
                 }
         	}
         } catch (IllegalAccessException e) {
@@ -285,6 +288,21 @@ public final class DataSerializer {
         }
     }
 
+    private final void serializePrimitive(Object parent, ClassCodec codec, int i, 
+    		PRIMITIVE type) throws IllegalArgumentException, IllegalAccessException {
+        // no need to store the type, primitives can't be subclassed.
+        switch (type) {
+        case BOOLEAN: out.writeBoolean(codec.getBoolean(parent, i)); break;
+        case BYTE: out.writeByte(codec.getByte(parent, i)); break;
+        case CHAR: out.writeChar(codec.getChar(parent, i)); break;
+        case DOUBLE: out.writeDouble(codec.getDouble(parent, i)); break;
+        case FLOAT: out.writeFloat(codec.getFloat(parent, i)); break;
+        case INT: out.writeInt(codec.getInt(parent, i)); break;
+        case LONG: out.writeLong(codec.getLong(parent, i)); break;
+        case SHORT: out.writeShort(codec.getShort(parent, i)); break;
+        }
+    }
+
     
     private final void serializePrimitive(Object v, PRIMITIVE type) 
     		throws IllegalArgumentException, IllegalAccessException {
@@ -108,7 +108,7 @@ public class GenericObject {
 	private boolean isNew = false;
 	private boolean isHollow = false;
 	private ZooHandleImpl handle = null;
-	private long[] prevValues = null; //backup to remove old field-index entries
+	private Object[] prevValues = null; //backup to remove old field-index entries
 	
 	private GenericObject(ZooClassDef def, long oid, boolean isNew, AbstractCache cache) {
 		this.def = def;
@@ -473,7 +473,7 @@ public class GenericObject {
 		prevValues = context.getIndexer().getBackup(this, fixedValues);
 	}
 	
-	public long[] jdoZooGetBackup() {
+	public Object[] jdoZooGetBackup() {
 		return prevValues;
 	}
 
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal;
+
+import java.util.Arrays;
+
+import org.zoodb.api.impl.ZooPCImpl;
+
+/**
+ * Page of a {@link org.zoodb.api.DBLargeHashMap}.
+ * 
+ * The pages form a B+tree that is ordered by the hash code of the keys. Leaf pages contain 
+ * the entries, inner pages contain references to their sub-pages and the minimum hash code in
+ * each sub-page. All entries with the same hash code are always stored in the same leaf. 
+ * Every page is a separate persistent object, therefore pages are loaded only when they are 
+ * accessed and only modified pages are written during commit.
+ * 
+ * This class is internal, it is public only to be accessible by the collection.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class LargeMapPage extends ZooPCImpl {
+
+	static final int MAX_LEAF_N = 128;
+	static final int MAX_INNER_N = 64;
+	
+	/** 0 for leaves. */
+	private int level;
+	/** Number of entries in leaves or number of sub-pages in inner pages. */
+	private int nEntries;
+	/** Hash codes of keys in leaves, minimum hash codes of sub-pages in inner pages. */
+	private int[] hashes;
+	private Object[] keys;
+	private Object[] values;
+	private LargeMapPage[] subPages;
+	
+	private LargeMapPage() {
+		//for de-serialisation
+	}
+	
+	public LargeMapPage(int level) {
+		this.level = level;
+		if (level == 0) {
+			hashes = new int[MAX_LEAF_N];
+			keys = new Object[MAX_LEAF_N];
+			values = new Object[MAX_LEAF_N];
+		} else {
+			hashes = new int[MAX_INNER_N];
+			subPages = new LargeMapPage[MAX_INNER_N];
+		}
+	}
+	
+	/**
+	 * Create a new root page with two sub-pages.
+	 */
+	public static LargeMapPage newRoot(LargeMapPage p1, LargeMapPage p2) {
+		LargeMapPage root = new LargeMapPage(p1.level + 1);
+		root.subPages[0] = p1;
+		root.hashes[0] = p1.getMinHash();
+		root.subPages[1] = p2;
+		root.hashes[1] = p2.getMinHash();
+		root.nEntries = 2;
+		return root;
+	}
+	
+	private int getMinHash() {
+		zooActivateRead();
+		return hashes[0];
+	}
+	
+	/**
+	 * @return Position of the sub-page that may contain the hash code. 
+	 */
+	private int subPagePos(int hash) {
+		int i = 1;
+		while (i < nEntries && hashes[i] <= hash) {
+			i++;
+		}
+		return i - 1;
+	}
+	
+	/**
+	 * @return The leaf that would contain the hash code.
+	 */
+	public LargeMapPage findLeaf(int hash) {
+		zooActivateRead();
+		if (level == 0) {
+			return this;
+		}
+		return subPages[subPagePos(hash)].findLeaf(hash);
+	}
+	
+	/**
+	 * @return The first leaf that contains entries with hash codes larger than the given hash
+	 * code, or {@code null} if no such leaf exists.
+	 */
+	public LargeMapPage findLeafAfter(int hash) {
+		zooActivateRead();
+		if (level == 0) {
+			return (nEntries > 0 && hashes[nEntries-1] > hash) ? this : null;
+		}
+		for (int i = subPagePos(hash); i < nEntries; i++) {
+			LargeMapPage leaf = subPages[i].findLeafAfter(hash);
+			if (leaf != null) {
+				return leaf;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Leaf method.
+	 * @return Position of the key or -1 if the key is not in this leaf.
+	 */
+	public int indexOf(int hash, Object key) {
+		zooActivateRead();
+		for (int i = firstPos(hash); i < nEntries && hashes[i] == hash; i++) {
+			Object k = keys[i];
+			if (k == key || (k != null && k.equals(key))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return The position of the first entry with a hash code equal or larger than the given
+	 * hash code.
+	 */
+	private int firstPos(int hash) {
+		int i = Arrays.binarySearch(hashes, 0, nEntries, hash);
+		if (i < 0) {
+			return -(i+1);
+		}
+		while (i > 0 && hashes[i-1] == hash) {
+			i--;
+		}
+		return i;
+	}
+	
+	public int size() {
+		zooActivateRead();
+		return nEntries;
+	}
+	
+	public int getHash(int pos) {
+		zooActivateRead();
+		return hashes[pos];
+	}
+	
+	public Object getKey(int pos) {
+		zooActivateRead();
+		return keys[pos];
+	}
+	
+	public Object getValue(int pos) {
+		zooActivateRead();
+		return values[pos];
+	}
+	
+	public Object setValue(int pos, Object value) {
+		zooActivateWrite();
+		Object prev = values[pos];
+		values[pos] = value;
+		return prev;
+	}
+
+	/**
+	 * Insert a new entry. The key must not already exist in the map.
+	 * @return The new right sibling if this page had to be split, otherwise {@code null}. 
+	 */
+	public LargeMapPage insert(int hash, Object key, Object value) {
+		zooActivateWrite();
+		if (level == 0) {
+			LargeMapPage page = this;
+			LargeMapPage right = null;
+			if (nEntries == hashes.length) {
+				int nKeep = splitPos();
+				if (nKeep < 0) {
+					//all entries have the same hash code, we can not split the page
+					grow();
+				} else {
+					right = new LargeMapPage(0);
+					right.nEntries = nEntries - nKeep;
+					System.arraycopy(hashes, nKeep, right.hashes, 0, right.nEntries);
+					System.arraycopy(keys, nKeep, right.keys, 0, right.nEntries);
+					System.arraycopy(values, nKeep, right.values, 0, right.nEntries);
+					Arrays.fill(keys, nKeep, nEntries, null);
+					Arrays.fill(values, nKeep, nEntries, null);
+					nEntries = nKeep;
+					if (hash >= right.hashes[0]) {
+						page = right;
+					}
+				}
+			}
+			int pos = page.firstPos(hash);
+			System.arraycopy(page.hashes, pos, page.hashes, pos+1, page.nEntries-pos);
+			System.arraycopy(page.keys, pos, page.keys, pos+1, page.nEntries-pos);
+			System.arraycopy(page.values, pos, page.values, pos+1, page.nEntries-pos);
+			page.hashes[pos] = hash;
+			page.keys[pos] = key;
+			page.values[pos] = value;
+			page.nEntries++;
+			return right;
+		}
+
+		int i = subPagePos(hash);
+		LargeMapPage newPage = subPages[i].insert(hash, key, value);
+		if (hash < hashes[i]) {
+			hashes[i] = hash;
+		}
+		if (newPage == null) {
+			return null;
+		}
+		return addSubPage(i+1, newPage);
+	}
+	
+	/**
+	 * @return A split position that separates different hash codes, or -1 if all hash codes 
+	 * are equal. 
+	 */
+	private int splitPos() {
+		int mid = nEntries >> 1;
+		for (int d = 0; d < mid; d++) {
+			if (hashes[mid-d-1] != hashes[mid-d]) {
+				return mid-d;
+			}
+			if (mid+d+1 < nEntries && hashes[mid+d] != hashes[mid+d+1]) {
+				return mid+d+1;
+			}
+		}
+		return -1;
+	}
+	
+	private void grow() {
+		int len = hashes.length << 1;
+		hashes = Arrays.copyOf(hashes, len);
+		keys = Arrays.copyOf(keys, len);
+		values = Arrays.copyOf(values, len);
+	}
+	
+	private LargeMapPage addSubPage(int pos, LargeMapPage page) {
+		LargeMapPage target = this;
+		LargeMapPage right = null;
+		if (nEntries == MAX_INNER_N) {
+			right = new LargeMapPage(level);
+			int nKeep = nEntries >> 1;
+			right.nEntries = nEntries - nKeep;
+			System.arraycopy(hashes, nKeep, right.hashes, 0, right.nEntries);
+			System.arraycopy(subPages, nKeep, right.subPages, 0, right.nEntries);
+			Arrays.fill(subPages, nKeep, nEntries, null);
+			nEntries = nKeep;
+			if (pos > nKeep) {
+				target = right;
+				pos -= nKeep;
+			}
+		}
+		System.arraycopy(target.hashes, pos, target.hashes, pos+1, target.nEntries-pos);
+		System.arraycopy(target.subPages, pos, target.subPages, pos+1, target.nEntries-pos);
+		target.hashes[pos] = page.getMinHash();
+		target.subPages[pos] = page;
+		target.nEntries++;
+		return right;
+	}
+	
+	/**
+	 * Remove an entry. Sub-pages that become empty are deleted, small sub-pages are merged
+	 * with their neighbours.
+	 * @return Whether the key was found.
+	 */
+	public boolean remove(int hash, Object key) {
+		if (level == 0) {
+			int pos = indexOf(hash, key);
+			if (pos < 0) {
+				return false;
+			}
+			zooActivateWrite();
+			System.arraycopy(hashes, pos+1, hashes, pos, nEntries-pos-1);
+			System.arraycopy(keys, pos+1, keys, pos, nEntries-pos-1);
+			System.arraycopy(values, pos+1, values, pos, nEntries-pos-1);
+			nEntries--;
+			keys[nEntries] = null;
+			values[nEntries] = null;
+			return true;
+		}
+		zooActivateRead();
+		int i = subPagePos(hash);
+		LargeMapPage sub = subPages[i];
+		if (!sub.remove(hash, key)) {
+			return false;
+		}
+		zooActivateWrite();
+		if (sub.size() == 0) {
+			LargeVectorPage.deletePage(sub);
+			removeSubPage(i);
+		} else if (sub.isSmall()) {
+			if (i > 0 && subPages[i-1].merge(sub)) {
+				removeSubPage(i);
+			} else if (i < nEntries-1 && sub.merge(subPages[i+1])) {
+				removeSubPage(i+1);
+			}
+		}
+		return true;
+	}
+	
+	private boolean isSmall() {
+		int max = level == 0 ? MAX_LEAF_N : MAX_INNER_N;
+		//The second term reduces frequent reading of neighbours.
+		return nEntries < (max >> 2) && (nEntries % 8 == 0);
+	}
+	
+	/**
+	 * Move all entries of the following page into this page, if they fit. The following
+	 * page is deleted.
+	 * @return Whether the pages were merged. 
+	 */
+	private boolean merge(LargeMapPage next) {
+		zooActivateRead();
+		next.zooActivateRead();
+		int max = level == 0 ? MAX_LEAF_N : MAX_INNER_N;
+		if (nEntries + next.nEntries > max || nEntries + next.nEntries > hashes.length) {
+			return false;
+		}
+		zooActivateWrite();
+		System.arraycopy(next.hashes, 0, hashes, nEntries, next.nEntries);
+		if (level == 0) {
+			System.arraycopy(next.keys, 0, keys, nEntries, next.nEntries);
+			System.arraycopy(next.values, 0, values, nEntries, next.nEntries);
+		} else {
+			System.arraycopy(next.subPages, 0, subPages, nEntries, next.nEntries);
+		}
+		nEntries += next.nEntries;
+		LargeVectorPage.deletePage(next);
+		return true;
+	}
+	
+	private void removeSubPage(int pos) {
+		System.arraycopy(hashes, pos+1, hashes, pos, nEntries-pos-1);
+		System.arraycopy(subPages, pos+1, subPages, pos, nEntries-pos-1);
+		nEntries--;
+		subPages[nEntries] = null;
+	}
+	
+	/**
+	 * @return The only sub-page of an inner page, otherwise {@code null}.
+	 */
+	public LargeMapPage getSingleSubPage() {
+		zooActivateRead();
+		if (level > 0 && nEntries == 1) {
+			return subPages[0];
+		}
+		return null;
+	}
+	
+	/**
+	 * Delete this page and all sub-pages.
+	 */
+	public void deleteAll() {
+		zooActivateRead();
+		for (int i = 0; i < nEntries && level > 0; i++) {
+			if (level == 1) {
+				//leaves are deleted without loading them
+				LargeVectorPage.deletePage(subPages[i]);
+			} else {
+				subPages[i].deleteAll();
+			}
+		}
+		LargeVectorPage.deletePage(this);
+	}
+}
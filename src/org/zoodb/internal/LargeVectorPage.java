@@ -0,0 +1,326 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal;
+
+import org.zoodb.api.impl.ZooPCImpl;
+
+/**
+ * Page of a {@link org.zoodb.api.DBLargeVector}.
+ * 
+ * The pages form a B+tree. Leaf pages contain the elements, inner pages contain references 
+ * to their sub-pages and the number of elements in each sub-page, which allows locating 
+ * elements by position. Every page is a separate persistent object, therefore pages are 
+ * loaded only when they are accessed and only modified pages are written during commit.
+ * 
+ * This class is internal, it is public only to be accessible by the collection.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class LargeVectorPage extends ZooPCImpl {
+
+	static final int MAX_LEAF_N = 256;
+	static final int MAX_INNER_N = 64;
+	
+	/** 0 for leaves. */
+	private int level;
+	/** Number of elements in leaves or number of sub-pages in inner pages. */
+	private int nEntries;
+	private Object[] elements;
+	private LargeVectorPage[] subPages;
+	/** Number of elements in each sub-page. */
+	private int[] counts;
+	
+	private LargeVectorPage() {
+		//for de-serialisation
+	}
+	
+	public LargeVectorPage(int level) {
+		this.level = level;
+		if (level == 0) {
+			elements = new Object[MAX_LEAF_N];
+		} else {
+			subPages = new LargeVectorPage[MAX_INNER_N];
+			counts = new int[MAX_INNER_N];
+		}
+	}
+	
+	/**
+	 * Create a new root page with two sub-pages.
+	 */
+	public static LargeVectorPage newRoot(LargeVectorPage p1, LargeVectorPage p2) {
+		LargeVectorPage root = new LargeVectorPage(p1.level + 1);
+		root.subPages[0] = p1;
+		root.counts[0] = p1.size();
+		root.subPages[1] = p2;
+		root.counts[1] = p2.size();
+		root.nEntries = 2;
+		return root;
+	}
+	
+	public int size() {
+		zooActivateRead();
+		if (level == 0) {
+			return nEntries;
+		}
+		int n = 0;
+		for (int i = 0; i < nEntries; i++) {
+			n += counts[i];
+		}
+		return n;
+	}
+	
+	public Object get(int pos) {
+		zooActivateRead();
+		if (level == 0) {
+			return elements[pos];
+		}
+		for (int i = 0; i < nEntries; i++) {
+			if (pos < counts[i]) {
+				return subPages[i].get(pos);
+			}
+			pos -= counts[i];
+		}
+		throw new IndexOutOfBoundsException();
+	}
+	
+	public Object set(int pos, Object e) {
+		zooActivateRead();
+		if (level == 0) {
+			zooActivateWrite();
+			Object prev = elements[pos];
+			elements[pos] = e;
+			return prev;
+		}
+		for (int i = 0; i < nEntries; i++) {
+			if (pos < counts[i]) {
+				return subPages[i].set(pos, e);
+			}
+			pos -= counts[i];
+		}
+		throw new IndexOutOfBoundsException();
+	}
+	
+	/**
+	 * @param pos Position relative to this page
+	 * @param start Returns the position of the first element of the leaf
+	 * @return The leaf page that contains the position 
+	 */
+	public LargeVectorPage findLeaf(int pos, int[] start) {
+		zooActivateRead();
+		if (level == 0) {
+			return this;
+		}
+		for (int i = 0; i < nEntries; i++) {
+			if (pos < counts[i]) {
+				return subPages[i].findLeaf(pos, start);
+			}
+			pos -= counts[i];
+			start[0] += counts[i];
+		}
+		throw new IndexOutOfBoundsException();
+	}
+	
+	/**
+	 * Insert an element.
+	 * @param pos Position relative to this page
+	 * @param e The element
+	 * @return The new right sibling if this page had to be split, otherwise {@code null}. 
+	 */
+	public LargeVectorPage add(int pos, Object e) {
+		zooActivateWrite();
+		if (level == 0) {
+			LargeVectorPage page = this;
+			LargeVectorPage right = null;
+			if (nEntries == MAX_LEAF_N) {
+				right = new LargeVectorPage(0);
+				//Elements are often appended, in this case we leave the full page as it is.
+				int nKeep = pos == nEntries ? nEntries : nEntries >> 1;
+				right.nEntries = nEntries - nKeep;
+				System.arraycopy(elements, nKeep, right.elements, 0, right.nEntries);
+				for (int i = nKeep; i < nEntries; i++) {
+					elements[i] = null;
+				}
+				nEntries = nKeep;
+				if (pos > nKeep || nKeep == MAX_LEAF_N) {
+					page = right;
+					pos -= nKeep;
+				}
+			}
+			page.insertLocal(pos, e);
+			return right;
+		}
+		
+		//inner page, append to the last page if pos == size()
+		int i = 0;
+		while (i < nEntries-1 && pos > counts[i]) {
+			pos -= counts[i];
+			i++;
+		}
+		LargeVectorPage newPage = subPages[i].add(pos, e);
+		if (newPage == null) {
+			counts[i]++;
+			return null;
+		}
+		counts[i] = subPages[i].size();
+		return addSubPage(i+1, newPage);
+	}
+	
+	private void insertLocal(int pos, Object e) {
+		System.arraycopy(elements, pos, elements, pos+1, nEntries-pos);
+		elements[pos] = e;
+		nEntries++;
+	}
+	
+	private LargeVectorPage addSubPage(int pos, LargeVectorPage page) {
+		LargeVectorPage target = this;
+		LargeVectorPage right = null;
+		if (nEntries == MAX_INNER_N) {
+			right = new LargeVectorPage(level);
+			int nKeep = pos == nEntries ? nEntries : nEntries >> 1;
+			right.nEntries = nEntries - nKeep;
+			System.arraycopy(subPages, nKeep, right.subPages, 0, right.nEntries);
+			System.arraycopy(counts, nKeep, right.counts, 0, right.nEntries);
+			for (int i = nKeep; i < nEntries; i++) {
+				subPages[i] = null;
+				counts[i] = 0;
+			}
+			nEntries = nKeep;
+			if (pos > nKeep || nKeep == MAX_INNER_N) {
+				target = right;
+				pos -= nKeep;
+			}
+		}
+		System.arraycopy(target.subPages, pos, target.subPages, pos+1, target.nEntries-pos);
+		System.arraycopy(target.counts, pos, target.counts, pos+1, target.nEntries-pos);
+		target.subPages[pos] = page;
+		target.counts[pos] = page.size();
+		target.nEntries++;
+		return right;
+	}
+	
+	/**
+	 * Remove an element. Sub-pages that become empty are deleted, small sub-pages are merged
+	 * with their neighbours.
+	 * @param pos Position relative to this page
+	 * @return The removed element
+	 */
+	public Object remove(int pos) {
+		zooActivateWrite();
+		if (level == 0) {
+			Object prev = elements[pos];
+			System.arraycopy(elements, pos+1, elements, pos, nEntries-pos-1);
+			elements[--nEntries] = null;
+			return prev;
+		}
+		int i = 0;
+		while (pos >= counts[i]) {
+			pos -= counts[i];
+			i++;
+		}
+		LargeVectorPage sub = subPages[i];
+		Object prev = sub.remove(pos);
+		counts[i]--;
+		if (counts[i] == 0) {
+			deletePage(sub);
+			removeSubPage(i);
+		} else if (sub.isSmall()) {
+			//Merging requires reading the neighbour, the second term reduces frequent reading.
+			if (i > 0 && subPages[i-1].merge(sub)) {
+				counts[i-1] += counts[i];
+				removeSubPage(i);
+			} else if (i < nEntries-1 && sub.merge(subPages[i+1])) {
+				counts[i] += counts[i+1];
+				removeSubPage(i+1);
+			}
+		}
+		return prev;
+	}
+	
+	private boolean isSmall() {
+		int max = level == 0 ? MAX_LEAF_N : MAX_INNER_N;
+		return nEntries < (max >> 2) && (nEntries % 8 == 0);
+	}
+	
+	/**
+	 * Move all entries of the following page into this page, if they fit. The following
+	 * page is deleted.
+	 * @return Whether the pages were merged. 
+	 */
+	private boolean merge(LargeVectorPage next) {
+		zooActivateRead();
+		next.zooActivateRead();
+		int max = level == 0 ? MAX_LEAF_N : MAX_INNER_N;
+		if (nEntries + next.nEntries > max) {
+			return false;
+		}
+		zooActivateWrite();
+		if (level == 0) {
+			System.arraycopy(next.elements, 0, elements, nEntries, next.nEntries);
+		} else {
+			System.arraycopy(next.subPages, 0, subPages, nEntries, next.nEntries);
+			System.arraycopy(next.counts, 0, counts, nEntries, next.nEntries);
+		}
+		nEntries += next.nEntries;
+		deletePage(next);
+		return true;
+	}
+	
+	private void removeSubPage(int pos) {
+		System.arraycopy(subPages, pos+1, subPages, pos, nEntries-pos-1);
+		System.arraycopy(counts, pos+1, counts, pos, nEntries-pos-1);
+		nEntries--;
+		subPages[nEntries] = null;
+		counts[nEntries] = 0;
+	}
+	
+	/**
+	 * @return The only sub-page of an inner page, otherwise {@code null}.
+	 */
+	public LargeVectorPage getSingleSubPage() {
+		zooActivateRead();
+		if (level > 0 && nEntries == 1) {
+			return subPages[0];
+		}
+		return null;
+	}
+	
+	/**
+	 * Delete this page and all sub-pages.
+	 */
+	public void deleteAll() {
+		zooActivateRead();
+		for (int i = 0; i < nEntries && level > 0; i++) {
+			if (level == 1) {
+				//leaves are deleted without loading them
+				deletePage(subPages[i]);
+			} else {
+				subPages[i].deleteAll();
+			}
+		}
+		deletePage(this);
+	}
+	
+	public static void deletePage(ZooPCImpl page) {
+		if (page.jdoZooIsPersistent()) {
+			page.jdoZooGetContext().getSession().deletePersistent(page);
+		}
+	}
+}
@@ -21,8 +21,15 @@
 package org.zoodb.internal;
 
 import java.util.Iterator;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.query.QueryAccumulator;
+import org.zoodb.internal.query.QueryAdvice;
+import org.zoodb.internal.query.QueryGroupTable;
+import org.zoodb.internal.query.QueryTreeNode;
+import org.zoodb.internal.server.index.IndexStatistics;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
 import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.tools.DBStatistics.STATS;
@@ -41,6 +48,8 @@ public abstract class Node {
 
 	public abstract OidBuffer getOidBuffer();
 
+	public abstract void beginTransaction();
+
 	public void rollback() {
 		//TODO
 		DBLogger.debugPrintln(2, "STUB: Node.rollback()");
@@ -52,7 +61,7 @@ public abstract class Node {
 	public abstract void commit();
 
 	public abstract CloseableIterator<ZooPCImpl> loadAllInstances(ZooClassProxy def, 
-            boolean loadFromCache);
+            boolean loadFromCache, QueryTreeNode filter);
 
 	public abstract ZooPCImpl loadInstanceById(long oid);
 
@@ -62,14 +71,39 @@ public abstract class Node {
 
 	public abstract boolean removeIndex(ZooClassDef def, ZooFieldDef f);
 
+	public abstract void defineCompositeIndex(ZooClassDef def, CompositeIndexDef index);
+
+	public abstract boolean removeCompositeIndex(ZooClassDef def, CompositeIndexDef index);
+
 	public void connect() {
 		// TODO Auto-generated method stub
 		throw new UnsupportedOperationException();
 		//
 	}
 
-	public abstract Iterator<ZooPCImpl> readObjectFromIndex(ZooFieldDef field, 
-			long minValue, long maxValue, boolean loadFromCache);
+	public abstract Iterator<ZooPCImpl> readObjectFromIndex(ZooFieldDef field, long minValue, 
+			long maxValue, boolean ascending, boolean loadFromCache, QueryTreeNode filter);
+
+	public abstract Iterator<ZooPCImpl> readObjectFromIndex(ZooFieldDef field, String minValue, 
+			String maxValue, boolean ascending, boolean loadFromCache, QueryTreeNode filter);
+
+	public abstract Iterator<ZooPCImpl> readObjectFromIndex(CompositeIndexDef index, 
+			String minValue, String maxValue, boolean ascending, boolean loadFromCache, 
+			QueryTreeNode filter);
+
+	public abstract Iterator<ZooPCImpl> readObjectFromIndices(List<QueryAdvice> advices, 
+			boolean loadFromCache, QueryTreeNode filter);
+
+	public abstract IndexStatistics getIndexStatistics(ZooFieldDef field);
+
+	public abstract LLEntry readIndexBoundary(ZooFieldDef field, boolean last);
+
+	public abstract boolean aggregateInstances(ZooClassProxy clsPx, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter, QueryAccumulator[] accumulators);
+
+	public abstract boolean groupInstances(ZooClassProxy clsPx, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter, ZooFieldDef[] columns, 
+			QueryGroupTable table);
 
 	public abstract int getStats(STATS stats);
 
@@ -85,6 +119,24 @@ public abstract class Node {
 
 	public abstract void refreshObject(ZooPCImpl pc);
 
+	/**
+	 * Loads a hollow object. In multithreaded sessions, this waits if the object is being 
+	 * loaded by another thread.
+	 * @param pc
+	 * @param useFetchPlan If 'true', a hollow object is loaded only partially as defined by 
+	 * the session's fetch groups. If 'false', a hollow object is loaded completely and any
+	 * missing fields of a partially loaded object are loaded as well.
+	 */
+	public abstract void activateObject(ZooPCImpl pc, boolean useFetchPlan);
+
+	/**
+	 * Loads the objects with the given OIDs into the cache. The objects are read in the order
+	 * of their position in the database. Objects that are already loaded and OIDs that do not 
+	 * exist are ignored.
+	 * @param oids
+	 */
+	public abstract void loadInstancesById(long[] oids);
+
 	public abstract void refreshSchema(ZooClassDef def);
 
 	public abstract void renameSchema(ZooClassDef def, String newName);
@@ -106,6 +158,10 @@ public abstract class Node {
 
 	public abstract GenericObject readGenericObject(ZooClassDef def, long oid);
 
+	public abstract List<GenericObject> readOutdatedObjects(int maxObjects);
+
+	public abstract long countOutdatedObjects();
+
 	public abstract void deleteSchema(ZooClassDef cs);
 	
 	public abstract boolean checkIfObjectExists(long oid);
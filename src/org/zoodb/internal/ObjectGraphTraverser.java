@@ -42,6 +42,7 @@ import javax.jdo.Query;
 import org.zoodb.api.DBArrayList;
 import org.zoodb.api.DBCollection;
 import org.zoodb.api.DBHashMap;
+import org.zoodb.api.DBLargeHashMap;
 import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.client.session.ClientSessionCache;
@@ -52,8 +53,14 @@ import org.zoodb.jdo.impl.PersistenceManagerFactoryImpl;
 import org.zoodb.jdo.impl.PersistenceManagerImpl;
 
 /**
- * This class traverses all objects in the Java cache. It looks for new 
- * objects that have not been made persistent and makes them persistent.
+ * This class traverses all objects that have been made dirty or persistent since the last 
+ * commit. It looks for new objects that have not been made persistent and makes them persistent.
+ * <p>
+ * The traversal is driven by the list of dirty objects in the cache, which is filled by
+ * {@link ClientSessionCache#notifyDirty(ZooPCImpl)}. Clean objects in the cache are never
+ * visited, so the cost of a commit depends only on the number of modified objects.
+ * Objects that are made persistent during the traversal are appended to the list of dirty 
+ * objects and are traversed in the same pass.
  * <p>
  * This class is only public so it can be accessed by the test harness. 
  * Please do not use.
@@ -76,9 +83,9 @@ public class ObjectGraphTraverser {
 
     private final ObjectIdentitySet<Object> seenObjects;
     private final ArrayList<Object> workList;
-    private boolean isTraversingCache = false;
     private int mpCount = 0;
-    private final ArrayList<ZooPCImpl> toBecomePersistent;
+    /** Number of entries in the list of dirty objects that have already been traversed. */
+    private int nTraversed = 0;
 
     /**
      * This HashSet contains types that are not persistent and that
@@ -143,14 +150,9 @@ public class ObjectGraphTraverser {
         this.session = session;
         this.cache = cache;
         
-        //We need to copy the cache to a local list, because the cache we might make additional
-        //objects persistent while iterating. We need to ensure that these new objects are covered
-        //as well. And we have the problem of concurrent updates in the cache.
-        
+        //Non-persistent objects, such as transient collections, that still need to be traversed.
         workList = new ArrayList<Object>();
         seenObjects = new ObjectIdentitySet<Object>();
-        //TODO ObjIdentSet? -> ArrayList might be faster in most cases
-        toBecomePersistent = new ArrayList<ZooPCImpl>(); 
     }
 
     /**
@@ -162,44 +164,44 @@ public class ObjectGraphTraverser {
         //through reachability.
         //For this, we have to check objects that are DIRTY or NEW (by 
         //makePersistent()). 
-    	DBLogger.debugPrintln(1, "Starting OGT: " + workList.size());
+    	DBLogger.debugPrintln(1, "Starting OGT: " + nTraversed);
         long t1 = System.currentTimeMillis();
         long nObjects = 0;
 
-        nObjects += traverseCache();
-        nObjects += traverseWorkList();
-                
-        long t2 = System.currentTimeMillis();
-        DBLogger.debugPrintln(1, "Finished OGT: " + nObjects + " (seen="
-                + seenObjects.size() + " ) / " + (t2-t1)/1000.0
-                + " MP=" + mpCount);    
-    }
-    
-    private int traverseCache() {
-    	isTraversingCache = true;
-    	int nObjects = 0;
-    	//TODO is this really necessary? Looks VERY ugly.
-    	//Profiling FlatObject.commit(): ~7% spent in next()!
-    	for (ZooPCImpl co: cache.getDirtyObjects()) {
-        	//ignore clean objects. Ignore hollow objects? Don't follow deleted objects.
+        //Objects that are made persistent during traversal are appended to the list, so we
+        //have to iterate by position. The list is only modified by this thread, because
+        //commit() holds the session lock.
+        ArrayList<ZooPCImpl> dirtyObjects = cache.getDirtyObjects();
+        while (nTraversed < dirtyObjects.size()) {
+        	ZooPCImpl co = dirtyObjects.get(nTraversed++);
+        	//ignore clean objects. Don't follow deleted objects.
         	//we require objects that are dirty or new (=dirty and not deleted?)
         	if (co.jdoZooIsDirty() & !co.jdoZooIsDeleted()) {
         		traverseObject(co);
         		nObjects++;
+        		nObjects += traverseWorkList();
         	}
         }
-        isTraversingCache = false;
-
-        //make objects persistent. This has to be delayed after traversing the cache to avoid
-        //concurrent modification on the cache.
-        for (ZooPCImpl pc: toBecomePersistent) {
-        	if (!pc.jdoZooIsPersistent()) {
-        		cache.getSession().makePersistent(pc);
-        	}
+        if (!seenObjects.isEmpty()) {
+        	seenObjects.clear();
         }
-        mpCount += toBecomePersistent.size();
-        
-        return nObjects;
+                
+        long t2 = System.currentTimeMillis();
+        DBLogger.debugPrintln(1, "Finished OGT: " + nObjects + " / " + (t2-t1)/1000.0
+                + " MP=" + mpCount);    
+    }
+    
+    /**
+     * Reset the traverser. This must be called whenever the list of dirty objects is cleared
+     * (after commit and rollback) and after a failed commit, because objects that have already
+     * been traversed may be modified again before the next commit.
+     */
+    public final void reset() {
+    	nTraversed = 0;
+    	workList.clear();
+    	if (!seenObjects.isEmpty()) {
+    		seenObjects.clear();
+    	}
     }
     
     private int traverseWorkList() {
@@ -207,10 +209,8 @@ public class ObjectGraphTraverser {
         while (!workList.isEmpty()) {
             nObjects++;
             Object object = workList.remove(workList.size()-1);
-            //Objects in the work-list are always already made persistent:
-            //Objects in the work-list are either added by the constructor 
-            //(already made  persistent).
-            //or have been added by addToWorkList (which uses makePersistent() first).
+            //Objects in the work-list are never persistent, persistent objects are 
+            //traversed via the list of dirty objects.
             traverseObject(object);
         }
         return nObjects;
@@ -261,20 +261,14 @@ public class ObjectGraphTraverser {
         	ZooPCImpl pc = (ZooPCImpl) object;
         	//This can happen if e.g. a LinkedList contains new persistent capable objects.
             if (!pc.jdoZooIsPersistent()) {
-                //Make object persistent, if necessary
-            	if (isTraversingCache) {
-            		//during cache traversal:
-            		toBecomePersistent.add(pc);
-            	} else {
-            		//during work list traversal:
-            		session.makePersistent(pc);
-            		mpCount++;
-            	}
-            } else {
-            	//This object is already persistent. It is either in the worklist or it is 
-            	//uninteresting (not dirty).
-            	return;
+                //Make object persistent. This appends it to the list of dirty objects, where
+            	//it will be traversed by traverse().
+            	session.makePersistent(pc);
+            	mpCount++;
             }
+            //Persistent objects are either in the list of dirty objects or they are 
+            //uninteresting (not dirty).
+            return;
         }
 
         if (!seenObjects.contains(object)) {
@@ -323,9 +317,10 @@ public class ObjectGraphTraverser {
 	private final void doPersistentContainer(Object container) {
         if (container instanceof DBArrayList) {
             doCollection((DBArrayList)container);
-        } else if (container instanceof DBLargeVector) {
-//            doEnumeration(((DBLargeVector)container).elements(), container);
-            doCollection(((DBLargeVector)container));
+        } else if (container instanceof DBLargeVector || container instanceof DBLargeHashMap) {
+        	//Paged collections store their content in separate persistent pages, which
+        	//are traversed if they are dirty.
+            doObject(container);
         } else if (container instanceof DBHashMap) {
             DBHashMap t = (DBHashMap)container;
             doCollection(t.keySet());
@@ -23,6 +23,8 @@ package org.zoodb.internal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 import javax.jdo.ObjectState;
@@ -30,10 +32,14 @@ import javax.jdo.listener.DeleteCallback;
 import javax.jdo.listener.InstanceLifecycleListener;
 import javax.jdo.listener.StoreCallback;
 
+import org.zoodb.api.DBLargeHashMap;
+import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.ZooInstanceEvent;
 import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.client.SchemaManager;
 import org.zoodb.internal.client.session.ClientSessionCache;
+import org.zoodb.internal.query.QueryTreeNode;
+import org.zoodb.internal.util.ClientLock;
 import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.IteratorRegistry;
@@ -65,6 +71,12 @@ public class Session implements IteratorRegistry {
 	private boolean isOpen = true;
 	private boolean isActive = false;
 	private final SessionConfig config;
+	private final ClientLock lock = new ClientLock();
+	private final ObjectGraphTraverser ogt;
+	//Fields to load per class, or 'null' to load all fields of all classes
+	private volatile Map<Class<?>, Set<String>> fetchGroups = null;
+	private volatile int fetchGroupsVersion = 0;
+	private volatile int maxFetchDepth = 1;
 	
 	private final WeakHashMap<CloseableIterator<?>, Object> extents = 
 	    new WeakHashMap<CloseableIterator<?>, Object>(); 
@@ -79,65 +91,106 @@ public class Session implements IteratorRegistry {
 		this.config = config;
 		this.cache = new ClientSessionCache(this);
 		this.schemaManager = new SchemaManager(cache, config.getAutoCreateSchema());
+		this.ogt = new ObjectGraphTraverser(this, cache);
 		this.primary = ZooFactory.get().createNode(dbPath, cache);
 		this.nodes.add(primary);
 		this.cache.addNode(primary);
 		this.primary.connect();
 	}
 	
+	/**
+	 * @return The lock of this session. The lock is only active if the session is 
+	 * multithreaded.
+	 */
+	public ClientLock getLock() {
+		return lock;
+	}
+	
+	public boolean getMultithreaded() {
+		return lock.isMultithreaded();
+	}
+	
+	public void setMultithreaded(boolean isMultithreaded) {
+		lock.setMultithreaded(isMultithreaded);
+	}
+	
 	public boolean isActive() {
 		return isActive;
 	}
 	
 	public void begin() {
-		checkOpen();
-        if (isActive) {
-            throw DBLogger.newUser("Can't open new transaction inside existing transaction.");
-        }
-		isActive = true;
+		lock.lockWrite();
+		try {
+			checkOpen();
+	        if (isActive) {
+	            throw DBLogger.newUser("Can't open new transaction inside existing transaction.");
+	        }
+			for (Node n: nodes) {
+				n.beginTransaction();
+			}
+			isActive = true;
+		} finally {
+			lock.unlockWrite();
+		}
 	}
 	
 	public void commit(boolean retainValues) {
-		checkActive();
-		//pre-commit: traverse object tree for transitive persistence
-		ObjectGraphTraverser ogt = new ObjectGraphTraverser(this, cache);
-		ogt.traverse();
-		
-		schemaManager.commit();
-		
+		lock.lockWrite();
 		try {
-			commitInternal();
-			for (Node n: nodes) {
-				//TODO two-phase commit() !!!
-				n.commit();
+			checkActive();
+			//pre-commit: traverse dirty objects for transitive persistence
+			try {
+				ogt.traverse();
+			} catch (RuntimeException e) {
+				//traversed objects may be modified before the commit is retried
+				ogt.reset();
+				throw e;
 			}
-			cache.postCommit(retainValues);
-		} catch (RuntimeException e) {
-			if (DBLogger.isUser(e)) {
-				//reset sinks
-		        for (ZooClassDef cs: cache.getSchemata()) {
-		            cs.getProvidedContext().getDataSink().reset();
-		            cs.getProvidedContext().getDataDeleteSink().reset();
-		        }		
-				//allow for retry after user exceptions
+		
+			schemaManager.commit();
+		
+			try {
+				commitInternal();
 				for (Node n: nodes) {
-					n.revert();
+					//TODO two-phase commit() !!!
+					n.commit();
 				}
+				cache.postCommit(retainValues);
+				ogt.reset();
+			} catch (RuntimeException e) {
+				ogt.reset();
+				if (DBLogger.isUser(e)) {
+					//reset sinks
+			        for (ZooClassDef cs: cache.getSchemata()) {
+			            cs.getProvidedContext().getDataSink().reset();
+			            cs.getProvidedContext().getDataDeleteSink().reset();
+			        }		
+					//allow for retry after user exceptions
+					for (Node n: nodes) {
+						n.revert();
+					}
+				}
+				throw e;
 			}
-			throw e;
-		}
         
-		for (CloseableIterator<?> ext: extents.keySet()) {
-		    //TODO
-		    //Refresh extents to allow cross-session-border extents.
-		    //As a result, extents may skip objects or return objects twice,
-		    //but at least they return valid object.
-		    //This problem occurs because extents use pos-indices.
-		    //TODO Ideally we should use a OID based class-index. See design.txt.
-		    ext.refresh();
+			ArrayList<CloseableIterator<?>> openExtents;
+			synchronized (extents) {
+				openExtents = new ArrayList<CloseableIterator<?>>(extents.keySet());
+			}
+			for (CloseableIterator<?> ext: openExtents) {
+			    //TODO
+			    //Refresh extents to allow cross-session-border extents.
+			    //As a result, extents may skip objects or return objects twice,
+			    //but at least they return valid object.
+			    //This problem occurs because extents use pos-indices.
+			    //TODO Ideally we should use a OID based class-index. See design.txt.
+			    ext.refresh();
+			}
+			DBLogger.debugPrintln(2, "FIXME: 2-phase Session.commit()");
+			isActive = false;
+		} finally {
+			lock.unlockWrite();
 		}
-		DBLogger.debugPrintln(2, "FIXME: 2-phase Session.commit()");
-		isActive = false;
 	}
 
 	
@@ -231,46 +284,62 @@ public class Session implements IteratorRegistry {
 	}
 
 	public void rollback() {
-		checkActive();
-		schemaManager.rollback();
+		lock.lockWrite();
+		try {
+			checkActive();
+			schemaManager.rollback();
 		
-		for (Node n: nodes) {
-			n.rollback();
-			//TODO two-phase rollback() ????
+			for (Node n: nodes) {
+				n.rollback();
+				//TODO two-phase rollback() ????
+			}
+			cache.rollback();
+			ogt.reset();
+			isActive = false;
+		} finally {
+			lock.unlockWrite();
 		}
-		cache.rollback();
-		isActive = false;
 	}
 	
 	public void makePersistent(ZooPCImpl pc) {
-		checkActive();
-		if (pc.jdoZooIsPersistent()) {
-			if (pc.jdoZooGetContext().getSession() != this) {
-				throw DBLogger.newUser("The object belongs to a different persistence manager.");
-			}
-			if (pc.jdoZooIsDeleted()) {
-				throw DBLogger.newUser("The object has been deleted!");
+		lock.lockWrite();
+		try {
+			checkActive();
+			if (pc.jdoZooIsPersistent()) {
+				if (pc.jdoZooGetContext().getSession() != this) {
+					throw DBLogger.newUser("The object belongs to a different persistence manager.");
+				}
+				if (pc.jdoZooIsDeleted()) {
+					throw DBLogger.newUser("The object has been deleted!");
+				}
+				//nothing to do, is already persistent
+				return; 
 			}
-			//nothing to do, is already persistent
-			return; 
+			primary.makePersistent(pc);
+		} finally {
+			lock.unlockWrite();
 		}
-		primary.makePersistent(pc);
 	}
 
 	public void makeTransient(ZooPCImpl pc) {
-		checkActive();
-		if (!pc.jdoZooIsPersistent()) {
-			//already transient
-			return;
-		}
-		if (pc.jdoZooGetContext().getSession() != this) {
-			throw DBLogger.newUser("The object belongs to a different persistence manager.");
-		}
-		if (pc.jdoZooIsDirty()) {
-			throw DBLogger.newUser("Dirty objects can not be made transient.");
+		lock.lockWrite();
+		try {
+			checkActive();
+			if (!pc.jdoZooIsPersistent()) {
+				//already transient
+				return;
+			}
+			if (pc.jdoZooGetContext().getSession() != this) {
+				throw DBLogger.newUser("The object belongs to a different persistence manager.");
+			}
+			if (pc.jdoZooIsDirty()) {
+				throw DBLogger.newUser("Dirty objects can not be made transient.");
+			}
+			//remove from cache
+			cache.makeTransient((ZooPCImpl) pc);
+		} finally {
+			lock.unlockWrite();
 		}
-		//remove from cache
-		cache.makeTransient((ZooPCImpl) pc);
 	}
 
 	public static void assertOid(long oid) {
@@ -280,19 +349,34 @@ public class Session implements IteratorRegistry {
 		
 	}
 
+	/**
+	 * 
+	 * @param cls
+	 * @param subClasses
+	 * @param loadFromCache
+	 * @param filter Optional query that is evaluated on serialized objects before they are
+	 * deserialized, may be {@code null}. The query still needs to be evaluated on all
+	 * returned objects.
+	 * @return Iterator over all instances.
+	 */
 	public MergingIterator<ZooPCImpl> loadAllInstances(Class<?> cls, 
 			boolean subClasses, 
-            boolean loadFromCache) {
-		checkActive();
-		MergingIterator<ZooPCImpl> iter = 
-			new MergingIterator<ZooPCImpl>(this);
-        ZooClassDef def = cache.getSchema(cls, primary);
-		loadAllInstances(def.getVersionProxy(), subClasses, iter, loadFromCache);
-		if (loadFromCache) {
-			//also add 'new' instances
-			iter.add(cache.iterator(def, subClasses, ObjectState.PERSISTENT_NEW));
+            boolean loadFromCache, QueryTreeNode filter) {
+		lock.lockRead();
+		try {
+			checkActive();
+			MergingIterator<ZooPCImpl> iter = 
+				new MergingIterator<ZooPCImpl>(this);
+	        ZooClassDef def = cache.getSchema(cls, primary);
+			loadAllInstances(def.getVersionProxy(), subClasses, iter, loadFromCache, filter);
+			if (loadFromCache) {
+				//also add 'new' instances
+				iter.add(cache.iterator(def, subClasses, ObjectState.PERSISTENT_NEW));
+			}
+			return iter;
+		} finally {
+			lock.unlockRead();
 		}
-		return iter;
 	}
 
 	/**
@@ -302,60 +386,70 @@ public class Session implements IteratorRegistry {
 	 * @param iter
 	 */
 	private void loadAllInstances(ZooClassProxy def, boolean subClasses, 
-			MergingIterator<ZooPCImpl> iter, boolean loadFromCache) {
+			MergingIterator<ZooPCImpl> iter, boolean loadFromCache, QueryTreeNode filter) {
 		for (Node n: nodes) {
-			iter.add(n.loadAllInstances(def, loadFromCache));
+			iter.add(n.loadAllInstances(def, loadFromCache, filter));
 		}
 		
 		if (subClasses) {
 			for (ZooClassProxy sub: def.getSubProxies()) {
-				loadAllInstances(sub, true, iter, loadFromCache);
+				loadAllInstances(sub, true, iter, loadFromCache, filter);
 			}
 		}
 	}
 
 
 	public ZooHandleImpl getHandle(long oid) {
-		checkActive();
-		GenericObject gob = cache.getGeneric(oid);
-		if (gob != null) {
-			return gob.getOrCreateHandle();
-		}
+		lock.lockRead();
+		try {
+			checkActive();
+			GenericObject gob = cache.getGeneric(oid);
+			if (gob != null) {
+				return gob.getOrCreateHandle();
+			}
 		
-		ZooPCImpl co = cache.findCoByOID(oid);
-        if (co != null) {
-        	if (co.jdoZooIsNew() || co.jdoZooIsDirty()) {
-        		//TODO  the problem here is the initialisation of the GO, which would require
-        		//a way to serialize PCs into memory and deserialize them into an GO
-        		throw new UnsupportedOperationException("Handles on new or dirty Java PC objects " +
-        				"are not allowed. Please call commit() first or create handles with " +
-        				"ZooClass.newInstance() instead. OID: " + Util.getOidAsString(co));
-        	}
-        	ZooClassDef schema = co.jdoZooGetClassDef();
-        	GenericObject go = co.jdoZooGetNode().readGenericObject(schema, oid);
-        	return go.getOrCreateHandle();
-        }
+			ZooPCImpl co = cache.findCoByOID(oid);
+	        if (co != null) {
+	        	if (co.jdoZooIsNew() || co.jdoZooIsDirty()) {
+	        		//TODO  the problem here is the initialisation of the GO, which would require
+	        		//a way to serialize PCs into memory and deserialize them into an GO
+	        		throw new UnsupportedOperationException("Handles on new or dirty Java PC objects " +
+	        				"are not allowed. Please call commit() first or create handles with " +
+	        				"ZooClass.newInstance() instead. OID: " + Util.getOidAsString(co));
+	        	}
+	        	ZooClassDef schema = co.jdoZooGetClassDef();
+	        	GenericObject go = co.jdoZooGetNode().readGenericObject(schema, oid);
+	        	return go.getOrCreateHandle();
+	        }
 
-        try {
-	        for (Node n: nodes) {
-	        	//We should load the object only as byte[], if at all...
-	        	ZooClassProxy schema = getSchemaManager().locateSchemaForObject(oid, n);
-	        	GenericObject go = n.readGenericObject(schema.getSchemaDef(), oid);
-	    		return go.getOrCreateHandle();
+	        try {
+		        for (Node n: nodes) {
+		        	//We should load the object only as byte[], if at all...
+		        	ZooClassProxy schema = getSchemaManager().locateSchemaForObject(oid, n);
+		        	GenericObject go = n.readGenericObject(schema.getSchemaDef(), oid);
+		    		return go.getOrCreateHandle();
+		        }
+	        } catch (RuntimeException e) {
+	        	if (!DBLogger.isObjectNotFoundException(e)) {
+	        		throw e;
+	        	}
+	        	//ignore, return null
 	        }
-        } catch (RuntimeException e) {
-        	if (!DBLogger.isObjectNotFoundException(e)) {
-        		throw e;
-        	}
-        	//ignore, return null
-        }
-        return null;
+	        return null;
+		} finally {
+			lock.unlockRead();
+		}
 	}
 
 	public Object refreshObject(Object pc) {
-        ZooPCImpl co = checkObject(pc);
-        co.jdoZooGetNode().refreshObject(co);
-        return pc;
+        lock.lockWrite();
+        try {
+            ZooPCImpl co = checkObject(pc);
+            co.jdoZooGetNode().refreshObject(co);
+            return pc;
+        } finally {
+            lock.unlockWrite();
+        }
 	}
 	
 	/**
@@ -384,36 +478,58 @@ public class Session implements IteratorRegistry {
 
 
 	public Object getObjectById(Object arg0) {
-		checkActive();
-        long oid = (Long) arg0;
-        ZooPCImpl co = cache.findCoByOID(oid);
-        if (co != null) {
-            if (co.jdoZooIsStateHollow() && !co.jdoZooIsDeleted()) {
-                co.jdoZooGetNode().refreshObject(co);
-            }
-            return co;
-        }
+		lock.lockRead();
+		try {
+			checkActive();
+	        long oid = (Long) arg0;
+	        ZooPCImpl co = cache.findCoByOID(oid);
+	        if (co != null) {
+	            if (co.jdoZooIsStateHollow() && !co.jdoZooIsDeleted()) {
+	                co.jdoZooGetNode().activateObject(co, true);
+	            }
+	            return co;
+	        }
 
-        //find it
-        for (Node n: nodes) {
-        	co = n.loadInstanceById(oid);
-        	if (co != null) {
-        		break;
-        	}
-        }
+	        //find it
+	        for (Node n: nodes) {
+	        	co = n.loadInstanceById(oid);
+	        	if (co != null) {
+	        		break;
+	        	}
+	        }
 
-        return co;
+	        return co;
+		} finally {
+			lock.unlockRead();
+		}
 	}
 	
-	public Object[] getObjectsById(Collection<? extends Object> arg0) {
-		checkActive();
-		Object[] res = new Object[arg0.size()];
-		int i = 0;
-		for ( Object obj: arg0 ) {
-			res[i] = getObjectById(obj);
-			i++;
+	public Object[] getObjectsById(Collection<?> arg0) {
+		lock.lockRead();
+		try {
+			checkActive();
+			Object[] res = new Object[arg0.size()];
+			if (res.length > 1) {
+				//load the objects in one batch, this reads each page only once
+				long[] oids = new long[res.length];
+				int i = 0;
+				for (Object obj: arg0) {
+					if (!(obj instanceof Long)) {
+						throw DBLogger.newUser("Illegal OID: " + obj);
+					}
+					oids[i++] = (Long) obj;
+				}
+				primary.loadInstancesById(oids);
+			}
+			int i = 0;
+			for ( Object obj: arg0 ) {
+				res[i] = getObjectById(obj);
+				i++;
+			}
+			return res;
+		} finally {
+			lock.unlockRead();
 		}
-		return res;
 	}
 
 	/**
@@ -421,30 +537,46 @@ public class Session implements IteratorRegistry {
 	 * @return Whether the object exists
 	 */
 	public boolean isOidUsed(long oid) {
-		checkActive();
-		//TODO we could also just compare it with max-value in the OID manager...
-        ZooPCImpl co = cache.findCoByOID(oid);
-        if (co != null) {
-        	return true;
-        }
-        GenericObject go = cache.getGeneric(oid);
-        if (go != null) {
-        	return true;
-        }
-        //find it
-        for (Node n: nodes) {
-        	if (n.checkIfObjectExists(oid)) {
-        		return true;
-        	}
-        }
-        return false;
+		lock.lockRead();
+		try {
+			checkActive();
+			//TODO we could also just compare it with max-value in the OID manager...
+	        ZooPCImpl co = cache.findCoByOID(oid);
+	        if (co != null) {
+	        	return true;
+	        }
+	        GenericObject go = cache.getGeneric(oid);
+	        if (go != null) {
+	        	return true;
+	        }
+	        //find it
+	        for (Node n: nodes) {
+	        	if (n.checkIfObjectExists(oid)) {
+	        		return true;
+	        	}
+	        }
+	        return false;
+		} finally {
+			lock.unlockRead();
+		}
 	}
 	
 
 	public void deletePersistent(Object pc) {
-		checkActive();
-		ZooPCImpl co = checkObject(pc);
-		co.jdoZooMarkDeleted();
+		lock.lockWrite();
+		try {
+			checkActive();
+			ZooPCImpl co = checkObject(pc);
+			//paged collections delete their pages
+			if (co instanceof DBLargeVector) {
+				((DBLargeVector<?>) co).clear();
+			} else if (co instanceof DBLargeHashMap) {
+				((DBLargeHashMap<?, ?>) co).clear();
+			}
+			co.jdoZooMarkDeleted();
+		} finally {
+			lock.unlockWrite();
+		}
 	}
 
 
@@ -455,22 +587,32 @@ public class Session implements IteratorRegistry {
 
 
 	public void close() {
-		if (!isOpen) {
-			throw DBLogger.newUser("This session is closed.");
-		}
-		for (Node n: nodes) {
-			n.closeConnection();
+		lock.lockWrite();
+		try {
+			if (!isOpen) {
+				throw DBLogger.newUser("This session is closed.");
+			}
+			for (Node n: nodes) {
+				n.closeConnection();
+			}
+			cache.close();
+			TransientField.deregisterPm(this);
+			isOpen = false;
+		} finally {
+			lock.unlockWrite();
 		}
-		cache.close();
-		TransientField.deregisterPm(this);
-		isOpen = false;
 	}
 
 
     public void refreshAll(Collection<?> arg0) {
-		checkActive();
-		for ( Object obj: arg0 ) {
-			refreshObject(obj);
+		lock.lockWrite();
+		try {
+			checkActive();
+			for ( Object obj: arg0 ) {
+				refreshObject(obj);
+			}
+		} finally {
+			lock.unlockWrite();
 		}
     }
 
@@ -487,26 +629,137 @@ public class Session implements IteratorRegistry {
     }
 
 
+    /**
+     * Set the fields that should be loaded when an object is activated. Fields of a class
+     * apply also to its sub-classes. Objects of classes without entry are always loaded 
+     * completely. Any other field is loaded on first access via 
+     * {@link ZooPCImpl#zooActivateRead(String)}.
+     * @param fetchGroups Map of classes to the names of the fields to load, or 'null' to 
+     * load all fields of all classes.
+     */
+    public void setFetchGroups(Map<Class<?>, Set<String>> fetchGroups) {
+    	this.fetchGroups = fetchGroups;
+    	fetchGroupsVersion++;
+    }
+
+
+    /**
+     * @return The fields to load per class, or 'null' if all fields are loaded.
+     * @see #setFetchGroups(Map)
+     */
+    public Map<Class<?>, Set<String>> getFetchGroups() {
+    	return fetchGroups;
+    }
+
+
+    /**
+     * @return A number that changes whenever the fetch groups are changed.
+     */
+    public int getFetchGroupsVersion() {
+    	return fetchGroupsVersion;
+    }
+
+
+    /**
+     * Set the depth up to which referenced objects are loaded when an object is activated.
+     * Referenced objects are loaded in batches ordered by their position in the database. 
+     * @param maxFetchDepth 1 to load only the activated object, 2 to also load all objects 
+     * that it references, and so on. -1 means no limit.
+     */
+    public void setMaxFetchDepth(int maxFetchDepth) {
+    	this.maxFetchDepth = maxFetchDepth;
+    }
+
+
+    /**
+     * @return The maximum fetch depth.
+     * @see #setMaxFetchDepth(int)
+     */
+    public int getMaxFetchDepth() {
+    	return maxFetchDepth;
+    }
+
+
+    /**
+     * Rewrites objects that are stored with an outdated version of their schema to the 
+     * latest schema version. The objects are written when the transaction is committed.
+     * This must be called in a transaction without any other modifications. 
+     * @param maxObjects The maximum number of objects to migrate
+     * @return The number of objects that are migrated in this transaction. 0 means that 
+     * there are no more outdated objects in the database.
+     */
+    public int evolveOutdatedObjects(int maxObjects) {
+		lock.lockWrite();
+		try {
+			checkActive();
+			if (!cache.getDirtyObjects().isEmpty() || 
+					!cache.getDirtyGenericObjects().isEmpty()) {
+				throw DBLogger.newUser("Objects can only be migrated in a transaction " +
+						"without other modifications.");
+			}
+			int n = 0;
+			for (GenericObject go: primary.readOutdatedObjects(maxObjects)) {
+				go.ensureLatestVersion();
+				go.setDirty(true);
+				n++;
+			}
+			return n;
+		} finally {
+			lock.unlockWrite();
+		}
+    }
+
+
+    /**
+     * @return The number of objects in the database that are stored with an outdated 
+     * version of their schema.
+     */
+    public long countOutdatedObjects() {
+		lock.lockRead();
+		try {
+			checkActive();
+			return primary.countOutdatedObjects();
+		} finally {
+			lock.unlockRead();
+		}
+    }
+
+
     public void evictAll() {
-		checkActive();
-        cache.evictAll();
+		lock.lockWrite();
+		try {
+			checkActive();
+	        cache.evictAll();
+		} finally {
+			lock.unlockWrite();
+		}
     }
 
 
     public void evictAll(Object[] pcs) {
-		checkActive();
-    	for (Object obj: pcs) {
-    		ZooPCImpl pc = (ZooPCImpl) obj;
-    		if (!pc.jdoZooIsDirty()) {
-    			pc.jdoZooEvict();
-    		}
-    	}
+		lock.lockWrite();
+		try {
+			checkActive();
+	    	for (Object obj: pcs) {
+	    		ZooPCImpl pc = (ZooPCImpl) obj;
+	    		if (!pc.jdoZooIsDirty()) {
+	    			pc.jdoZooEvict();
+	    		}
+	    	}
+		} finally {
+			lock.unlockWrite();
+		}
     }
 
 
     public void evictAll(boolean subClasses, Class<?> cls) {
-		checkActive();
-        cache.evictAll(subClasses, cls);
+		lock.lockWrite();
+		try {
+			checkActive();
+	        cache.evictAll(subClasses, cls);
+		} finally {
+			lock.unlockWrite();
+		}
     }
 
 
@@ -521,23 +774,32 @@ public class Session implements IteratorRegistry {
 	 */
 	@Override
     public void registerIterator(CloseableIterator<?> it) {
-        extents.put(it, null);
+    	synchronized (extents) {
+    		extents.put(it, null);
+    	}
     }
 
 
     @Override
     public void deregisterIterator(CloseableIterator<?> iter) {
-        extents.remove(iter);
+    	synchronized (extents) {
+    		extents.remove(iter);
+    	}
     }
 
 
     public Collection<ZooPCImpl> getCachedObjects() {
-		checkActive();
-        HashSet<ZooPCImpl> ret = new HashSet<ZooPCImpl>();
-        for (ZooPCImpl o: cache.getAllObjects()) {
-            ret.add(o);
-        }
-        return ret;
+		lock.lockRead();
+		try {
+			checkActive();
+	        HashSet<ZooPCImpl> ret = new HashSet<ZooPCImpl>();
+	        for (ZooPCImpl o: cache.getAllObjects()) {
+	            ret.add(o);
+	        }
+	        return ret;
+		} finally {
+			lock.unlockRead();
+		}
     }
 
 
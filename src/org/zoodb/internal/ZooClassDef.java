@@ -24,7 +24,9 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,8 +65,11 @@ public class ZooClassDef extends ZooPCImpl {
 	
 	private final ArrayList<ZooFieldDef> localFields = new ArrayList<ZooFieldDef>(10);
 	private transient ZooFieldDef[] allFields = new ZooFieldDef[0];
+	private transient ClassCodec codec = null;
 	private transient HashMap<String, ZooFieldDef> fieldBuffer = null;
 	private transient PCContext providedContext = null;
+	//Composite indices defined on this class, not including those of super-classes
+	private transient ArrayList<CompositeIndexDef> compositeIndices = null;
 	
 	private long prevVersionOid = 0;
 	private transient ZooClassDef nextVersion = null;
@@ -223,6 +228,16 @@ public class ZooClassDef extends ZooPCImpl {
 		}
 		newDef.associateFields();
 		
+		//composite indices
+		if (compositeIndices != null) {
+			for (CompositeIndexDef ci: compositeIndices) {
+				CompositeIndexDef ciNew = ci.forVersion(newDef);
+				if (ciNew != null) {
+					newDef.addCompositeIndex(ciNew);
+				}
+			}
+		}
+		
 		return newDef;
 	}
 
@@ -430,6 +445,7 @@ public class ZooClassDef extends ZooPCImpl {
 		}
 		
 		String fName = null;
+		codec = null;
 		try {
 			Class<?> tmpClass = Class.forName(className);
 			for (ZooFieldDef f: localFields) {
@@ -482,6 +498,26 @@ public class ZooClassDef extends ZooPCImpl {
 		return allFields;
 	}
 
+	/**
+	 * @return The codec for accessing the Java fields of this class, see getAllFields().
+	 */
+	ClassCodec getCodec() {
+		ClassCodec c = codec;
+		if (c == null || c.getFields() != allFields) {
+			c = ClassCodec.create(allFields);
+			codec = c;
+		}
+		return c;
+	}
+	
+	/**
+	 * Replace the codec, for testing only.
+	 * @param codec
+	 */
+	void setCodec(ClassCodec codec) {
+		this.codec = codec;
+	}
+
 	public ZooClassProxy getVersionProxy() {
 		return versionProxy;
 	}
@@ -615,6 +651,7 @@ public class ZooClassDef extends ZooPCImpl {
 			}
 			i++;
 		}
+		removeCompositeIndicesRecursive(fieldDef);
 		// for op, use position in allFields
 		i = 0;
 		for (ZooFieldDef fd: allFields) {
@@ -628,6 +665,90 @@ public class ZooClassDef extends ZooPCImpl {
 		throw new IllegalStateException("Field not found: " + fieldDef);
 	}
 
+	private void removeCompositeIndicesRecursive(ZooFieldDef fieldDef) {
+		if (compositeIndices != null) {
+			Iterator<CompositeIndexDef> it = compositeIndices.iterator();
+			while (it.hasNext()) {
+				if (it.next().containsField(fieldDef)) {
+					it.remove();
+				}
+			}
+		}
+		for (ZooClassProxy c: versionProxy.getSubProxies()) {
+			c.getSchemaDef().removeCompositeIndicesRecursive(fieldDef);
+		}
+	}
+	
+	public void addCompositeIndex(CompositeIndexDef index) {
+		if (compositeIndices == null) {
+			compositeIndices = new ArrayList<CompositeIndexDef>();
+		}
+		long[] ids = index.getFieldIds();
+		for (CompositeIndexDef ci: compositeIndices) {
+			if (ci.matches(ids)) {
+				return;
+			}
+		}
+		compositeIndices.add(index);
+	}
+	
+	public boolean removeCompositeIndex(CompositeIndexDef index) {
+		if (compositeIndices == null) {
+			return false;
+		}
+		long[] ids = index.getFieldIds();
+		Iterator<CompositeIndexDef> it = compositeIndices.iterator();
+		while (it.hasNext()) {
+			if (it.next().matches(ids)) {
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param fieldIds Schema IDs of the fields
+	 * @return The composite index over the given fields that is defined on this class or on a
+	 * super-class, or {@code null} if there is no such index.
+	 */
+	public CompositeIndexDef getCompositeIndex(long[] fieldIds) {
+		for (CompositeIndexDef ci: getAllCompositeIndices()) {
+			if (ci.matches(fieldIds)) {
+				return ci;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return The composite indices that are defined on this class.
+	 */
+	public List<CompositeIndexDef> getCompositeIndices() {
+		if (compositeIndices == null) {
+			return Collections.emptyList();
+		}
+		return compositeIndices;
+	}
+	
+	/**
+	 * @return The composite indices that apply to this class, including those defined on 
+	 * super-classes. Indices of super-classes come first.
+	 */
+	public List<CompositeIndexDef> getAllCompositeIndices() {
+		List<CompositeIndexDef> sup = 
+				superDef == null ? null : superDef.getAllCompositeIndices();
+		if (sup == null || sup.isEmpty()) {
+			return getCompositeIndices();
+		}
+		if (compositeIndices == null || compositeIndices.isEmpty()) {
+			return sup;
+		}
+		ArrayList<CompositeIndexDef> ret = new ArrayList<CompositeIndexDef>(sup);
+		ret.addAll(compositeIndices);
+		return ret;
+	}
+	
 	public ZooClassDef getNextVersion() {
 		return nextVersion;
 	}
@@ -137,6 +137,37 @@ public class ZooClassProxy implements ZooClass {
 		return locateFieldOrFail(fieldName).isIndexUnique();
 	}
 	
+	@Override
+	public void createCompositeIndex(boolean isUnique, String ... fieldNames) {
+		checkInvalid();
+		schemaManager.defineCompositeIndex(def, locateFieldDefsOrFail(fieldNames), isUnique);
+	}
+	
+	@Override
+	public boolean removeCompositeIndex(String ... fieldNames) {
+		checkInvalid();
+		return schemaManager.removeCompositeIndex(def, locateFieldDefsOrFail(fieldNames));
+	}
+	
+	@Override
+	public boolean hasCompositeIndex(String ... fieldNames) {
+		checkInvalid();
+		return schemaManager.isCompositeIndexDefined(def, locateFieldDefsOrFail(fieldNames));
+	}
+	
+	private ZooFieldDef[] locateFieldDefsOrFail(String[] fieldNames) {
+		ZooFieldDef[] ret = new ZooFieldDef[fieldNames.length];
+		for (int i = 0; i < fieldNames.length; i++) {
+			ret[i] = def.getField(fieldNames[i]);
+			for (int j = 0; j < i; j++) {
+				if (ret[j] == ret[i]) {
+					throw new IllegalArgumentException("Duplicate field: " + fieldNames[i]);
+				}
+			}
+		}
+		return ret;
+	}
+	
 	private ZooField locateFieldOrFail(String fieldName) {
 		ZooField f = getField(fieldName);
 		if (f == null) {
@@ -337,7 +368,7 @@ public class ZooClassProxy implements ZooClass {
 	public Iterator<?> getInstanceIterator() {
 		checkInvalid();
 		//TODO return CloseableIterator instead?
-		return def.jdoZooGetNode().loadAllInstances(this, true);
+		return def.jdoZooGetNode().loadAllInstances(this, true, null);
 	}
 
 	@Override
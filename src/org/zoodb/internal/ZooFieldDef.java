@@ -434,7 +434,7 @@ public class ZooFieldDef {
 	public long getMaxValue() {
 		if (isPrimitiveType()) {
 			switch(getPrimitiveType()) {
-			case BOOLEAN: return 0;
+			case BOOLEAN: return 1;
 			case BYTE: return Byte.MAX_VALUE;
 			case CHAR: return Character.MAX_VALUE;
 			case DOUBLE: return BitTools.toSortableLong(Double.MAX_VALUE);
@@ -25,6 +25,7 @@ import javax.jdo.ObjectState;
 import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.Node;
+import org.zoodb.internal.Session;
 import org.zoodb.internal.ZooClassDef;
 
 public interface AbstractCache {
@@ -40,7 +41,13 @@ public interface AbstractCache {
 
 	public abstract ZooClassDef getSchema(Class<?> cls, Node node);
 
-	public abstract void addToCache(ZooPCImpl obj,
+	/**
+	 * Adds an object to the cache, unless the cache already contains an object with the
+	 * same OID. 
+	 * @return The cached object, this is <tt>obj</tt> unless another thread has added an 
+	 * object with the same OID. 
+	 */
+	public abstract ZooPCImpl addToCache(ZooPCImpl obj,
 			ZooClassDef classDef, long oid, ObjectState state);
 
 	ZooClassDef getSchema(String clsName);
@@ -49,4 +56,6 @@ public interface AbstractCache {
 
 	public abstract void addGeneric(GenericObject genericObject);
 
+	public abstract Session getSession();
+
 }
@@ -21,6 +21,9 @@
 package org.zoodb.internal.client;
 
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import javax.jdo.listener.ClearLifecycleListener;
 import javax.jdo.listener.CreateLifecycleListener;
@@ -31,6 +34,7 @@ import javax.jdo.listener.InstanceLifecycleListener;
 import javax.jdo.listener.LoadLifecycleListener;
 import javax.jdo.listener.StoreLifecycleListener;
 
+import org.zoodb.api.DBCollection;
 import org.zoodb.api.ZooInstanceEvent;
 import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.DataDeleteSink;
@@ -40,6 +44,7 @@ import org.zoodb.internal.DataSink;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.Session;
 import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.util.DBLogger;
 
 /**
@@ -66,6 +71,7 @@ public final class PCContext {
     private final DataSink dataSink;
     private final DataDeleteSink dataDeleteSink;
     private InstanceLifecycleListener[] listeners = null;
+    private volatile FetchMask fetchMask = null;
 	
 	public PCContext(ZooClassDef def, Session session, Node node) {
 		this.def = def;
@@ -117,6 +123,78 @@ public final class PCContext {
         return dataDeleteSink;
     }
 
+    /**
+     * Returns the fields that should be loaded when an object of this class is activated.
+     * This is derived from the session's fetch groups.
+     * @return A flag for each field in {@link ZooClassDef#getAllFields()}, or 'null' if all 
+     * fields should be loaded.
+     * @see Session#setFetchGroups(Map)
+     */
+    public boolean[] getFetchMask() {
+    	FetchMask fm = fetchMask;
+    	int version = session.getFetchGroupsVersion();
+    	if (fm == null || fm.version != version) {
+    		fm = new FetchMask(version, createFetchMask(session.getFetchGroups()));
+    		fetchMask = fm;
+    	}
+    	return fm.mask;
+    }
+    
+    private boolean[] createFetchMask(Map<Class<?>, Set<String>> groups) {
+    	if (groups == null || def == null) {
+    		return null;
+    	}
+    	Class<?> cls = def.getJavaClass();
+    	if (cls == null || DBCollection.class.isAssignableFrom(cls) || 
+    			ZooClassDef.class.isAssignableFrom(cls)) {
+    		return null;
+    	}
+    	Set<String> members = null;
+    	for (Map.Entry<Class<?>, Set<String>> e: groups.entrySet()) {
+    		if (e.getKey().isAssignableFrom(cls)) {
+    			if (members == null) {
+    				members = new HashSet<String>();
+    			}
+    			members.addAll(e.getValue());
+    		}
+    	}
+    	if (members == null) {
+    		return null;
+    	}
+    	ZooFieldDef[] fields = def.getAllFields();
+    	boolean[] mask = new boolean[fields.length];
+    	int lastVarField = -1;
+    	for (int i = 0; i < fields.length; i++) {
+    		mask[i] = members.contains(fields[i].getName());
+    		if (mask[i] && isVariableSize(fields[i])) {
+    			lastVarField = i;
+    		}
+    	}
+    	//Variable size fields are stored one after the other, so we have to read all of them 
+    	//up to the last requested one anyway.
+    	boolean isPartial = false;
+    	for (int i = 0; i < fields.length; i++) {
+    		if (i < lastVarField && isVariableSize(fields[i])) {
+    			mask[i] = true;
+    		}
+    		isPartial |= !mask[i];
+    	}
+    	return isPartial ? mask : null;
+    }
+    
+    private static boolean isVariableSize(ZooFieldDef f) {
+    	return !f.isFixedSize() || f.isString();
+    }
+    
+    private static final class FetchMask {
+    	private final int version;
+    	private final boolean[] mask;
+    	FetchMask(int version, boolean[] mask) {
+    		this.version = version;
+    		this.mask = mask;
+    	}
+    }
+
     
 	public void addLifecycleListener(InstanceLifecycleListener listener) {
 		if (listeners == null) {
@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
@@ -226,6 +227,41 @@ public class SchemaManager {
 		return f.isIndexUnique();
 	}
 	
+	public void defineCompositeIndex(ZooClassDef def, ZooFieldDef[] fields, boolean isUnique) {
+		CompositeIndexDef index = new CompositeIndexDef(def, fields, isUnique);
+		if (def.getCompositeIndex(index.getFieldIds()) != null) {
+			throw DBLogger.newUser("Composite index is already defined: " + index);
+		}
+		ops.add(new SchemaOperation.CompositeIndexCreate(index));
+	}
+
+	public boolean removeCompositeIndex(ZooClassDef def, ZooFieldDef[] fields) {
+		CompositeIndexDef index = findCompositeIndex(def, fields);
+		if (index == null) {
+			return false;
+		}
+		ops.add(new SchemaOperation.CompositeIndexRemove(index));
+		return true;
+	}
+
+	public boolean isCompositeIndexDefined(ZooClassDef def, ZooFieldDef[] fields) {
+		return findCompositeIndex(def, fields) != null;
+	}
+
+	private CompositeIndexDef findCompositeIndex(ZooClassDef def, ZooFieldDef[] fields) {
+		long[] ids = new long[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			ids[i] = fields[i].getFieldSchemaId();
+		}
+		//Only indices that are defined on this class can be removed via this class
+		for (CompositeIndexDef ci: def.getCompositeIndices()) {
+			if (ci.matches(ids)) {
+				return ci;
+			}
+		}
+		return null;
+	}
+
 	public void commit() {
 		//If nothing changed, there is no need to verify anything!
 		if (!ops.isEmpty()) {
@@ -20,6 +20,7 @@
  */
 package org.zoodb.internal.client;
 
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
@@ -124,6 +125,62 @@ public abstract class SchemaOperation {
 		}
 	}
 
+	/**
+	 * Operation to create a composite index.
+	 */
+	public static class CompositeIndexCreate extends SchemaOperation {
+		private final CompositeIndexDef index;
+
+		public CompositeIndexCreate(CompositeIndexDef index) {
+			super(index.getDeclaringType().jdoZooGetNode());
+			this.index = index;
+			initial();
+		}
+		
+		@Override
+		void initial() {
+			index.getDeclaringType().addCompositeIndex(index);
+		}
+		
+		@Override
+		void commit() {
+			node.defineCompositeIndex(index.getDeclaringType(), index);
+		}
+		
+		@Override
+		void rollback() {
+			index.getDeclaringType().removeCompositeIndex(index);
+		}
+	}
+	
+	/**
+	 * Operation to remove a composite index.
+	 */
+	public static class CompositeIndexRemove extends SchemaOperation {
+		private final CompositeIndexDef index;
+
+		public CompositeIndexRemove(CompositeIndexDef index) {
+			super(index.getDeclaringType().jdoZooGetNode());
+			this.index = index;
+			initial();
+		}
+		
+		@Override
+		void initial() {
+			index.getDeclaringType().removeCompositeIndex(index);
+		}
+		
+		@Override
+		void commit() {
+			node.removeCompositeIndex(index.getDeclaringType(), index);
+		}
+		
+		@Override
+		void rollback() {
+			index.getDeclaringType().addCompositeIndex(index);
+		}
+	}
+
 	public static class DropInstances extends SchemaOperation {
 		private final ZooClassProxy def;
 
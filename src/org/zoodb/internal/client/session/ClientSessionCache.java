@@ -23,6 +23,7 @@ package org.zoodb.internal.client.session;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 
 import javax.jdo.ObjectState;
@@ -40,7 +41,6 @@ import org.zoodb.internal.util.PrimLongMap;
 import org.zoodb.internal.util.PrimLongMapLI;
 import org.zoodb.internal.util.PrimLongMapLISoft;
 import org.zoodb.internal.util.PrimLongMapLIWeak;
-import org.zoodb.internal.util.PrimLongMap.PLMValueIterator;
 
 public class ClientSessionCache implements AbstractCache {
 	
@@ -49,7 +49,14 @@ public class ClientSessionCache implements AbstractCache {
 //    private final PrimLongMapLI<ZooPCImpl> objs = 
 //    	new PrimLongMapLI<ZooPCImpl>();
 //    private final PrimLongMapLISoft<ZooPCImpl> objs = 
-    private final PrimLongMap<ZooPCImpl> objs; 
+    
+	/** 
+	 * Number of stripes of the object cache, must be a power of two. 
+	 * The object cache is striped so that multithreaded sessions can access it concurrently.
+	 * Each stripe is synchronized on itself. 
+	 */
+	private static final int N_STRIPES = 16;
+	private final PrimLongMap<ZooPCImpl>[] objs; 
 	
 	private final PrimLongMapLI<ZooClassDef> schemata = 
 		new PrimLongMapLI<ZooClassDef>();
@@ -78,13 +85,18 @@ public class ClientSessionCache implements AbstractCache {
 	public ClientSessionCache(Session session) {
 		this.session = session;
 		
-		switch (session.getConfig().getCacheMode()) {
-		case WEAK: objs = new PrimLongMapLIWeak<ZooPCImpl>(); break; 
-		case SOFT: objs = new PrimLongMapLISoft<ZooPCImpl>(); break;
-		case PIN: objs = new PrimLongMapLI<ZooPCImpl>(); break;
-		default:
-			throw new UnsupportedOperationException();
+		@SuppressWarnings("unchecked")
+		PrimLongMap<ZooPCImpl>[] stripes = (PrimLongMap<ZooPCImpl>[]) new PrimLongMap<?>[N_STRIPES];
+		for (int i = 0; i < stripes.length; i++) {
+			switch (session.getConfig().getCacheMode()) {
+			case WEAK: stripes[i] = new PrimLongMapLIWeak<ZooPCImpl>(); break; 
+			case SOFT: stripes[i] = new PrimLongMapLISoft<ZooPCImpl>(); break;
+			case PIN: stripes[i] = new PrimLongMapLI<ZooPCImpl>(); break;
+			default:
+				throw new UnsupportedOperationException();
+			}
 		}
+		objs = stripes;
 
 		
 		ZooClassDef zpc = ZooClassDef.bootstrapZooPCImpl();
@@ -94,10 +106,77 @@ public class ClientSessionCache implements AbstractCache {
 		schemata.put(metaSchema.getOid(), metaSchema);
 	}
 	
+	@Override
 	public Session getSession() {
 		return session;
 	}
 
+	private PrimLongMap<ZooPCImpl> stripe(long oid) {
+		//OIDs are allocated sequentially, so the lowest bits are sufficient
+		return objs[(int) (oid & (N_STRIPES - 1))];
+	}
+	
+	private void objsPut(long oid, ZooPCImpl pc) {
+		PrimLongMap<ZooPCImpl> stripe = stripe(oid);
+		synchronized (stripe) {
+			stripe.put(oid, pc);
+		}
+	}
+
+	private ZooPCImpl objsPutIfAbsent(long oid, ZooPCImpl pc) {
+		PrimLongMap<ZooPCImpl> stripe = stripe(oid);
+		synchronized (stripe) {
+			ZooPCImpl cached = stripe.get(oid);
+			if (cached != null) {
+				return cached;
+			}
+			stripe.put(oid, pc);
+			return pc;
+		}
+	}
+
+	private ZooPCImpl objsGet(long oid) {
+		PrimLongMap<ZooPCImpl> stripe = stripe(oid);
+		synchronized (stripe) {
+			return stripe.get(oid);
+		}
+	}
+
+	private ZooPCImpl objsRemove(long oid) {
+		PrimLongMap<ZooPCImpl> stripe = stripe(oid);
+		synchronized (stripe) {
+			return stripe.remove(oid);
+		}
+	}
+
+	/**
+	 * @return A snapshot of all cached objects. 
+	 */
+	private ArrayList<ZooPCImpl> objsValues() {
+		ArrayList<ZooPCImpl> ret = new ArrayList<ZooPCImpl>();
+		for (PrimLongMap<ZooPCImpl> stripe: objs) {
+			synchronized (stripe) {
+				for (ZooPCImpl pc: stripe.values()) {
+					//weak and soft maps may return cleared references
+					if (pc != null) {
+						ret.add(pc);
+					}
+				}
+			}
+		}
+		return ret;
+	}
+	
+	private int objsSize() {
+		int n = 0;
+		for (PrimLongMap<ZooPCImpl> stripe: objs) {
+			synchronized (stripe) {
+				n += stripe.size();
+			}
+		}
+		return n;
+	}
+
 
 	@Override
 	public void rollback() {
@@ -135,7 +214,7 @@ public class ClientSessionCache implements AbstractCache {
 	    	if (co.jdoZooIsDirty()) { // i.e. not refreshed
 	    		if (co.jdoZooIsNew()) {
 	    			//remove co
-	    			objs.remove(co.jdoZooGetOid());
+	    			objsRemove(co.jdoZooGetOid());
 	    		} else {
 	    			co.jdoZooMarkHollow();
 	    		}
@@ -145,7 +224,7 @@ public class ClientSessionCache implements AbstractCache {
 	    	if (co.jdoZooIsDirty()) { // i.e. not refreshed
 	    		if (co.jdoZooIsNew()) {
 	    			//remove co
-	    			objs.remove(co.jdoZooGetOid());
+	    			objsRemove(co.jdoZooGetOid());
 	    		} else {
 	    			co.jdoZooMarkHollow();
 	    		}
@@ -182,13 +261,14 @@ public class ClientSessionCache implements AbstractCache {
 			return;
 		}
 		
-		addToCache(pc, clsDef, oid, ObjectState.PERSISTENT_NEW);
+		pc.jdoZooInit(ObjectState.PERSISTENT_NEW, clsDef.getProvidedContext(), oid);
+		objsPut(oid, pc);
 	}
 
 
 	public final void makeTransient(ZooPCImpl pc) {
 		//remove it
-		if (objs.remove(pc.jdoZooGetOid()) == null) {
+		if (objsRemove(pc.jdoZooGetOid()) == null) {
 			throw DBLogger.newFatal("Object is not in cache.");
 		}
 		//update
@@ -197,18 +277,19 @@ public class ClientSessionCache implements AbstractCache {
 
 
 	@Override
-	public final void addToCache(ZooPCImpl obj, ZooClassDef classDef, long oid, 
+	public final ZooPCImpl addToCache(ZooPCImpl obj, ZooClassDef classDef, long oid, 
 			ObjectState state) {
     	obj.jdoZooInit(state, classDef.getProvidedContext(), oid);
 		//TODO call newInstance elsewhere
 		//obj.jdoReplaceStateManager(co);
-		objs.put(obj.jdoZooGetOid(), obj);
+		//In multithreaded sessions, another thread may have loaded the object already
+		return objsPutIfAbsent(obj.jdoZooGetOid(), obj);
 	}
 	
 	
 	@Override
 	public final ZooPCImpl findCoByOID(long oid) {
-		return objs.get(oid);
+		return objsGet(oid);
 	}
 
 	/**
@@ -260,7 +341,7 @@ public class ClientSessionCache implements AbstractCache {
 		
 		for (ZooPCImpl co: deletedObjects.values()) {
 			if (co.jdoZooIsDeleted()) {
-				objs.remove(co.jdoZooGetOid());
+				objsRemove(co.jdoZooGetOid());
 				co.jdoZooGetContext().notifyEvent(co, ZooInstanceEvent.POST_DELETE);
 			}
 		}
@@ -272,11 +353,11 @@ public class ClientSessionCache implements AbstractCache {
 				}
 			}
 		} else {
-			if (objs.size() > 100000) {
+			if (objsSize() > 100000) {
 				DBLogger.debugPrintln(0, "Cache is getting large. Consider retainValues=true"
 						+ " to speed up and avoid expensive eviction.");
 			}
-            for (ZooPCImpl co: objs.values()) {
+            for (ZooPCImpl co: objsValues()) {
                 if (retainValues || co instanceof ZooClassDef) {
                     co.jdoZooMarkClean();
                 } else {
@@ -338,7 +419,7 @@ public class ClientSessionCache implements AbstractCache {
 		if (clsDef.getNextVersion() == null && clsDef.getJavaClass() != null) {
 			nodeSchemata.get(node).put(clsDef.getJavaClass(), clsDef);
 		}
-		objs.put(clsDef.getOid(), clsDef);
+		objsPut(clsDef.getOid(), clsDef);
 	}
 	
 	public void updateSchema(ZooClassDef clsDef, Class<?> oldCls, Class<?> newCls) {
@@ -351,18 +432,22 @@ public class ClientSessionCache implements AbstractCache {
 	}
 
 	public Collection<ZooPCImpl> getAllObjects() {
-		return objs.values();
+		return objsValues();
 	}
 
     public void close() {
-        objs.clear();
+        for (PrimLongMap<ZooPCImpl> stripe: objs) {
+        	synchronized (stripe) {
+        		stripe.clear();
+        	}
+        }
         schemata.clear();
         nodeSchemata.clear();
     }
 
 
     public void evictAll() {
-        for (ZooPCImpl co: objs.values()) {
+        for (ZooPCImpl co: objsValues()) {
             if (!co.jdoZooIsDirty()) {
                 co.jdoZooEvict();
             }
@@ -370,7 +455,7 @@ public class ClientSessionCache implements AbstractCache {
     }
 
     public void evictAll(boolean subClasses, Class<?> cls) {
-        for (ZooPCImpl co: objs.values()) {
+        for (ZooPCImpl co: objsValues()) {
             if (!co.jdoZooIsDirty() && (co.jdoZooGetClassDef().getJavaClass() == cls || 
                     (subClasses && cls.isAssignableFrom(co.jdoZooGetClassDef().getJavaClass())))) {
                 co.jdoZooEvict();
@@ -385,21 +470,49 @@ public class ClientSessionCache implements AbstractCache {
 
 	public CloseableIterator<ZooPCImpl> iterator(ZooClassDef def, boolean subClasses, 
 			ObjectState state) {
-		return new CacheIterator(objs.values().iterator(), def, subClasses, state);
+		Collection<ZooPCImpl> candidates;
+		switch (state) {
+		case PERSISTENT_NEW:
+		case PERSISTENT_DIRTY:
+		case PERSISTENT_DELETED:
+		case PERSISTENT_NEW_DELETED:
+			//Only dirty objects can be in these states. This also avoids iterating over all
+			//cached objects.
+			candidates = getDirtyCandidates();
+			break;
+		default:
+			candidates = objsValues();
+		}
+		return new CacheIterator(candidates.iterator(), def, subClasses, state);
+	}
+	
+	private Collection<ZooPCImpl> getDirtyCandidates() {
+		IdentityHashMap<ZooPCImpl, Object> ret = new IdentityHashMap<ZooPCImpl, Object>();
+		synchronized (dirtyObjects) {
+			for (ZooPCImpl pc: dirtyObjects) {
+				ret.put(pc, null);
+			}
+		}
+		synchronized (deletedObjects) {
+			for (ZooPCImpl pc: deletedObjects.values()) {
+				ret.put(pc, null);
+			}
+		}
+		return ret.keySet();
 	}
 	
 	
 	private static class CacheIterator implements CloseableIterator<ZooPCImpl> {
 
 		private ZooPCImpl next = null;
-		private final PLMValueIterator<ZooPCImpl> iter;
+		private final Iterator<ZooPCImpl> iter;
 		private final ZooClassDef cls;
 		private final boolean subClasses;
 		private final ObjectState state;
 		
 		private CacheIterator(Iterator<ZooPCImpl> iter, 
 				ZooClassDef cls, boolean subClasses, ObjectState state) {
-			this.iter = (PLMValueIterator<ZooPCImpl>) iter;
+			this.iter = iter;
 			this.cls = cls;
 			this.subClasses = subClasses;
 			this.state = state;
@@ -422,8 +535,8 @@ public class ClientSessionCache implements AbstractCache {
 			ZooPCImpl ret = next;
 			ZooPCImpl co = null;
 			final boolean subClasses = this.subClasses;
-			while (iter.hasNextEntry()) {
-				co = iter.nextValue();
+			while (iter.hasNext()) {
+				co = iter.next();
 				ZooClassDef defCand = co.jdoZooGetClassDef();
 				if (defCand == cls || (subClasses && cls.hasSuperClass(cls))) {
 					if (co.jdoZooHasState(state)) {
@@ -461,7 +574,9 @@ public class ClientSessionCache implements AbstractCache {
 	}
 
 	public void notifyDirty(ZooPCImpl pc) {
-		dirtyObjects.add(pc);
+		synchronized (dirtyObjects) {
+			dirtyObjects.add(pc);
+		}
 	}
 	
 	public ArrayList<ZooPCImpl> getDirtyObjects() {
@@ -469,7 +584,9 @@ public class ClientSessionCache implements AbstractCache {
 	}
 
 	public void notifyDelete(ZooPCImpl pc) {
-		deletedObjects.put(pc.jdoZooGetOid(), pc);
+		synchronized (deletedObjects) {
+			deletedObjects.put(pc.jdoZooGetOid(), pc);
+		}
 	}
 	
 	public PrimLongMapLI<ZooPCImpl>.PrimLongValues getDeletedObjects() {
@@ -477,10 +594,13 @@ public class ClientSessionCache implements AbstractCache {
 	}
 
     public void addGeneric(GenericObject genericObject) {
-    	if (genericObject.isDirty()) {
-    		dirtyGenObjects.add(genericObject);
+    	//generic objects are also created when objects of old schema versions are loaded
+    	synchronized (genericObjects) {
+    		if (genericObject.isDirty()) {
+    			dirtyGenObjects.add(genericObject);
+    		}
+    		genericObjects.put(genericObject.getOid(), genericObject);
     	}
-    	genericObjects.put(genericObject.getOid(), genericObject);
     }
 
     public ArrayList<GenericObject> getDirtyGenericObjects() {
@@ -489,6 +609,8 @@ public class ClientSessionCache implements AbstractCache {
 
     @Override
     public GenericObject getGeneric(long oid) {
-    	return genericObjects.get(oid);
+    	synchronized (genericObjects) {
+    		return genericObjects.get(oid);
+    	}
     }
 }
@@ -22,17 +22,20 @@ package org.zoodb.internal.model1p;
 
 import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.DataDeleteSink;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.SerializerTools;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.client.AbstractCache;
-import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.AbstractPagedIndex;
 import org.zoodb.internal.server.index.PagedOidIndex;
 import org.zoodb.internal.server.index.PagedPosIndex;
+import org.zoodb.internal.server.index.PagedStringLong;
 import org.zoodb.internal.server.index.AbstractPagedIndex.LongLongIndex;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
 import org.zoodb.internal.util.DBLogger;
@@ -130,14 +133,71 @@ public class DataDeleteSink1P implements DataDeleteSink {
     }
 
     private void flushBuffer() {
+        updateCompositeIndices();
         updateFieldIndices();
         bufferCnt = 0;
         if (bufferGOCnt > 0) {
+	        updateCompositeIndicesGO();
 	        updateFieldIndicesGO();
 	        bufferGOCnt = 0;
         }
     }
 
+    private void updateCompositeIndices() {
+        final ZooPCImpl[] buffer = this.buffer;
+        final int bufferCnt = this.bufferCnt;
+        List<CompositeIndexDef> cil = cls.getAllCompositeIndices();
+        int nFieldInd = DataSink1P.countIndexedFields(cls);
+        for (int iC = 0; iC < cil.size(); iC++) {
+        	CompositeIndexDef index = cil.get(iC);
+        	PagedStringLong ind = 
+        		node.getSchemaIE(index.getDeclaringType()).getCompositeIndex(index);
+        	for (int i = 0; i < bufferCnt; i++) {
+        		ZooPCImpl co = buffer[i];
+        		Object[] backup = co.jdoZooGetBackup();
+        		String key;
+        		if (!co.jdoZooIsNew() && backup != null 
+        				&& backup.length == nFieldInd + cil.size()) {
+        			key = (String) backup[nFieldInd + iC];
+        		} else {
+        			if (co.zooIsHollow() && index.hasStringField()) {
+        				//We need to activate it to get the values!
+        				co.jdoZooGetContext().getNode().refreshObject(co);
+        			}
+        			key = index.getKey(co);
+        		}
+        		ind.removeString(key, co.jdoZooGetOid());
+        	}
+        }
+    }
+
+    private void updateCompositeIndicesGO() {
+        final GenericObject[] buffer = this.bufferGO;
+        final int bufferCnt = this.bufferGOCnt;
+        List<CompositeIndexDef> cil = cls.getAllCompositeIndices();
+        int nFieldInd = DataSink1P.countIndexedFields(cls);
+        for (int iC = 0; iC < cil.size(); iC++) {
+        	CompositeIndexDef index = cil.get(iC);
+        	PagedStringLong ind = 
+        		node.getSchemaIE(index.getDeclaringType()).getCompositeIndex(index);
+        	for (int i = 0; i < bufferCnt; i++) {
+        		GenericObject co = buffer[i];
+        		Object[] backup = co.jdoZooGetBackup();
+        		String key;
+        		if (!co.isNew() && backup != null && backup.length == nFieldInd + cil.size()) {
+        			key = (String) backup[nFieldInd + iC];
+        		} else {
+        			if (co.isHollow() && index.hasStringField()) {
+        				//See updateFieldIndicesGO()
+        				throw new UnsupportedOperationException();
+        			}
+        			key = index.getKey(co);
+        		}
+        		ind.removeString(key, co.getOid());
+        	}
+        }
+    }
+
 
     private void updateFieldIndices() {
         final ZooPCImpl[] buffer = this.buffer;
@@ -155,7 +215,7 @@ public class DataDeleteSink1P implements DataDeleteSink {
             //For now we define that an index is shared by all classes and sub-classes that have
             //a matching field. So there is only one index which is defined in the top-most class
             SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-            LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+            AbstractPagedIndex fieldInd = schemaTop.getIndex(field);
             try {
                 Field jField = field.getJavaField();
                 for (int i = 0; i < bufferCnt; i++) {
@@ -167,25 +227,24 @@ public class DataDeleteSink1P implements DataDeleteSink {
                         if (co.jdoZooGetBackup()!=null) {
                             //TODO It is bad that we update ALL indices here, even if the value didn't
                             //change... -> Field-wise dirty!
-                            long l = co.jdoZooGetBackup()[iInd];
-                            fieldInd.removeLong(l, co.jdoZooGetOid());
+                            removeIndexEntry(fieldInd, field, co.jdoZooGetBackup()[iInd], 
+                            		co.jdoZooGetOid());
                             continue;
                         }
                     }
-                    long l;
+                    Object value;
                     if (field.isString()) {
                         if (co.zooIsHollow()) {
                         	//We need to activate it to get the values!
                         	//But only for String, the primitives should be fine.
                         	co.jdoZooGetContext().getNode().refreshObject(co);
                         }
-                    	String str = (String)jField.get(co);
-                        l = BitTools.toSortableLong(str);
+                    	value = jField.get(co);
                     } else {
-                    	l = SerializerTools.primitiveFieldToLong(co, jField, 
+                    	value = SerializerTools.primitiveFieldToLong(co, jField, 
                     			field.getPrimitiveType());
                     }
-                    fieldInd.removeLong(l, co.jdoZooGetOid());
+                    removeIndexEntry(fieldInd, field, value, co.jdoZooGetOid());
                 }
             } catch (SecurityException e) {
                 throw DBLogger.newFatal("Error accessing field: " + field.getName(), e);
@@ -221,7 +280,7 @@ public class DataDeleteSink1P implements DataDeleteSink {
             //For now we define that an index is shared by all classes and sub-classes that have
             //a matching field. So there is only one index which is defined in the top-most class
             SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-            LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+            AbstractPagedIndex fieldInd = schemaTop.getIndex(field);
             try {
                 for (int i = 0; i < bufferCnt; i++) {
                     GenericObject co = buffer[i];
@@ -232,12 +291,12 @@ public class DataDeleteSink1P implements DataDeleteSink {
                         if (co.jdoZooGetBackup()!=null) {
                             //TODO It is bad that we update ALL indices here, even if the value didn't
                             //change... -> Field-wise dirty!
-                            long l = co.jdoZooGetBackup()[iInd];
-                            fieldInd.removeLong(l, co.getOid());
+                            removeIndexEntry(fieldInd, field, co.jdoZooGetBackup()[iInd], 
+                            		co.getOid());
                             continue;
                         }
                     }
-                	long l;
+                	Object value;
                     if (field.isString()) {
                         if (co.isHollow()) {
                         	//We need to activate it to get the values!
@@ -246,12 +305,12 @@ public class DataDeleteSink1P implements DataDeleteSink {
                         	//TODO do we really need this?
                         	//co.getContext().getNode().refreshObject(co);
                         }
-                    	l = (Long)co.getFieldRaw(field.getFieldPos());
+                    	value = co.getFieldRawSCO(field.getFieldPos());
                     } else {
                     	Object primO = co.getFieldRaw(field.getFieldPos());
-                    	l = SerializerTools.primitiveToLong(primO, field.getPrimitiveType());
+                    	value = SerializerTools.primitiveToLong(primO, field.getPrimitiveType());
                     }
-                    fieldInd.removeLong(l, co.getOid());
+                    removeIndexEntry(fieldInd, field, value, co.getOid());
                 }
             } catch (IllegalArgumentException e) {
                 throw DBLogger.newFatal(
@@ -285,4 +344,13 @@ public class DataDeleteSink1P implements DataDeleteSink {
     		pos = nextPos;
     	} while (pos != PagedPosIndex.MARK_SECONDARY);
     }
-}
\ No newline at end of file
+
+    private static void removeIndexEntry(AbstractPagedIndex fieldInd, ZooFieldDef field, 
+    		Object value, long oid) {
+    	if (field.isString()) {
+    		((PagedStringLong)fieldInd).removeString((String)value, oid);
+    	} else {
+    		((LongLongIndex)fieldInd).removeLong((Long)value, oid);
+    	}
+    }
+}
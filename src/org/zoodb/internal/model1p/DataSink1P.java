@@ -23,8 +23,10 @@ package org.zoodb.internal.model1p;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.DataSerializer;
 import org.zoodb.internal.DataSink;
 import org.zoodb.internal.GenericObject;
@@ -33,7 +35,8 @@ import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.client.AbstractCache;
 import org.zoodb.internal.server.ObjectWriter;
-import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.AbstractPagedIndex;
+import org.zoodb.internal.server.index.PagedStringLong;
 import org.zoodb.internal.server.index.AbstractPagedIndex.LongLongIndex;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
 import org.zoodb.internal.util.DBLogger;
@@ -66,16 +69,30 @@ public class DataSink1P implements DataSink {
     private int bufferGOCnt = 0;
     private boolean isStarted = false;
     private final ArrayList<Pair>[] fieldUpdateBuffer;
+    private final ArrayList<CompositePair> compositeUpdateBuffer = new ArrayList<CompositePair>();
 
     private static class Pair {
     	private final long oid;
     	private final long value;
-    	public Pair(long oid, long value) {
+    	private final String str;
+    	public Pair(long oid, long value, String str) {
     		this.oid = oid;
     		this.value = value;
+    		this.str = str;
 		}
     }
     
+    private static class CompositePair {
+    	private final CompositeIndexDef index;
+    	private final long oid;
+    	private final String key;
+    	public CompositePair(CompositeIndexDef index, long oid, String key) {
+    		this.index = index;
+    		this.oid = oid;
+    		this.key = key;
+    	}
+    }
+    
     @SuppressWarnings("unchecked")
 	public DataSink1P(Node1P node, AbstractCache cache, ZooClassDef cls, ObjectWriter out) {
         this.node = node;
@@ -133,6 +150,7 @@ public class DataSink1P implements DataSink {
             Arrays.fill(buffer, null);
             bufferCnt = 0;
             Arrays.fill(fieldUpdateBuffer, null);
+            compositeUpdateBuffer.clear();
             if (bufferGOCnt > 0) {
                 Arrays.fill(bufferGO, null);
                 bufferGOCnt = 0;
@@ -157,9 +175,11 @@ public class DataSink1P implements DataSink {
 
     private void flushBuffer() {
         updateFieldIndices();
+        updateCompositeIndices();
         bufferCnt = 0;
         if (bufferGOCnt > 0) {
 	        updateFieldIndicesGO();
+	        updateCompositeIndicesGO();
 	        bufferGOCnt = 0;
         }
 
@@ -171,19 +191,122 @@ public class DataSink1P implements DataSink {
                     continue;
                 }
                 SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-                LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+                AbstractPagedIndex fieldInd = schemaTop.getIndex(field);
         		for (Pair p: a) {
         			//This should now work, all objects have been removed
         			//Refreshing is also not an issue, we already have the index-value
-                	if (!fieldInd.insertLongIfNotSet(p.value, p.oid)) {
+        			boolean success;
+        			if (field.isString()) {
+        				success = ((PagedStringLong)fieldInd).insertStringIfNotSet(p.str, p.oid);
+        			} else {
+        				success = ((LongLongIndex)fieldInd).insertLongIfNotSet(p.value, p.oid);
+        			}
+                	if (!success) {
                 		throw DBLogger.newUser("Unique index clash by value of field " 
-                				+ field.getName() + "=" + p.value +  " of object "
-                				+ Util.oidToString(p.oid));
+                				+ field.getName() + "=" + (field.isString() ? p.str : p.value) 
+                				+  " of object " + Util.oidToString(p.oid));
                 	}
         		}
         		fieldUpdateBuffer[i] = null;
         	}
         }
+        
+        for (CompositePair p: compositeUpdateBuffer) {
+        	PagedStringLong ind = getCompositeIndex(p.index);
+        	if (!ind.insertStringIfNotSet(p.key, p.oid)) {
+        		throw DBLogger.newUser("Unique index clash by value of composite index " 
+        				+ p.index + " of object " + Util.oidToString(p.oid));
+        	}
+        }
+        compositeUpdateBuffer.clear();
+    }
+
+    private PagedStringLong getCompositeIndex(CompositeIndexDef index) {
+    	//The index is shared by all sub-classes, it is stored with the defining class
+    	return node.getSchemaIE(index.getDeclaringType()).getCompositeIndex(index);
+    }
+
+    private void updateCompositeIndices() {
+        final ZooPCImpl[] buffer = this.buffer;
+        final int bufferCnt = this.bufferCnt;
+        List<CompositeIndexDef> cil = cls.getAllCompositeIndices();
+        int nFieldInd = countIndexedFields(cls);
+        for (int iC = 0; iC < cil.size(); iC++) {
+        	CompositeIndexDef index = cil.get(iC);
+        	PagedStringLong ind = getCompositeIndex(index);
+            for (int i = 0; i < bufferCnt; i++) {
+                ZooPCImpl co = buffer[i];
+                if (!co.jdoZooIsNew()) {
+                	removeCompositeEntry(ind, co.jdoZooGetBackup(), nFieldInd, 
+                			cil.size(), iC, co.jdoZooGetOid());
+                }
+                insertCompositeEntry(ind, index, index.getKey(co), co.jdoZooGetOid());
+            }
+        }
+    }
+
+    private void updateCompositeIndicesGO() {
+        final GenericObject[] buffer = this.bufferGO;
+        final int bufferCnt = this.bufferGOCnt;
+        List<CompositeIndexDef> cil = cls.getAllCompositeIndices();
+        int nFieldInd = countIndexedFields(cls);
+        for (int iC = 0; iC < cil.size(); iC++) {
+        	CompositeIndexDef index = cil.get(iC);
+        	PagedStringLong ind = getCompositeIndex(index);
+            for (int i = 0; i < bufferCnt; i++) {
+                GenericObject co = buffer[i];
+                if (!co.isNew()) {
+                	removeCompositeEntry(ind, co.jdoZooGetBackup(), nFieldInd, 
+                			cil.size(), iC, co.getOid());
+                }
+                insertCompositeEntry(ind, index, index.getKey(co), co.getOid());
+            }
+        }
+    }
+
+    static int countIndexedFields(ZooClassDef cls) {
+    	int n = 0;
+    	for (ZooFieldDef f: cls.getAllFields()) {
+    		if (f.isIndexed()) {
+    			n++;
+    		}
+    	}
+    	return n;
+    }
+    
+    /**
+     * Remove the previous key of an object from a composite index. The composite keys are 
+     * stored at the end of the backup, after the values of the indexed fields. 
+     * @param backup The backup of the object
+     * @param nFieldInd The number of indexed fields of the class
+     * @param nComposite The number of composite indices of the class
+     * @param iComposite The position of the index in the list of composite indices  
+     */
+    private static void removeCompositeEntry(PagedStringLong ind, Object[] backup, 
+    		int nFieldInd, int nComposite, int iComposite, long oid) {
+    	if (backup == null || backup.length != nFieldInd + nComposite) {
+    		//The object was modified before the index was defined, so the backup does not 
+    		//contain the old key. This may leave an outdated entry in the index, which is 
+    		//harmless for queries because they check all candidates.
+    		return;
+    	}
+    	String key = (String) backup[nFieldInd + iComposite];
+    	ind.removeString(key, oid);
+    }
+
+    /**
+     * Insert a key into a composite index. As for field indices, clashes in unique indices are
+     * buffered, because they may be resolved by other objects that are written later. 
+     */
+    private void insertCompositeEntry(PagedStringLong ind, CompositeIndexDef index, String key,
+    		long oid) {
+    	if (!index.isUnique()) {
+    		ind.insertString(key, oid);
+    		return;
+    	}
+    	if (!ind.insertStringIfNotSet(key, oid)) {
+    		compositeUpdateBuffer.add(new CompositePair(index, oid, key));
+    	}
     }
 
 
@@ -208,7 +331,7 @@ public class DataSink1P implements DataSink {
             //For now we define that an index is shared by all classes and sub-classes that have
             //a matching field. So there is only one index which is defined in the top-most class
             SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-            LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+            AbstractPagedIndex fieldInd = schemaTop.getIndex(field);
             try {
                 Field jField = field.getJavaField();
                 for (int i = 0; i < bufferCnt; i++) {
@@ -216,25 +339,16 @@ public class DataSink1P implements DataSink {
                     if (!co.jdoZooIsNew()) {
                         //TODO It is bad that we update ALL indices here, even if the value didn't
                         //change... -> Field-wise dirty!
-                        long l = co.jdoZooGetBackup()[iInd];
-                        fieldInd.removeLong(l, co.jdoZooGetOid());
+                        removeIndexEntry(fieldInd, field, co.jdoZooGetBackup()[iInd], 
+                        		co.jdoZooGetOid());
                     }
-                    final long l;
                     if (field.isString()) {
                         String str = (String)jField.get(co);
-                        l = BitTools.toSortableLong(str);
+                        insertIndexEntry(fieldInd, field, iField, 0, str, co.jdoZooGetOid());
                     } else {
-                    	l = SerializerTools.primitiveFieldToLong(co, jField, field.getPrimitiveType());
-                    }
-                    if (field.isIndexUnique()) {
-                    	if (!fieldInd.insertLongIfNotSet(l, co.jdoZooGetOid())) {
-                    		if (fieldUpdateBuffer[iField] == null) {
-                    			fieldUpdateBuffer[iField] = new ArrayList<Pair>();
-                    		}
-                    		fieldUpdateBuffer[iField].add(new Pair(co.jdoZooGetOid(), l));
-                    	}
-                    } else {
-                    	fieldInd.insertLong(l, co.jdoZooGetOid());
+                    	long l = 
+                    		SerializerTools.primitiveFieldToLong(co, jField, field.getPrimitiveType());
+                        insertIndexEntry(fieldInd, field, iField, l, null, co.jdoZooGetOid());
                     }
                 }
             } catch (SecurityException e) {
@@ -268,32 +382,22 @@ public class DataSink1P implements DataSink {
             //For now we define that an index is shared by all classes and sub-classes that have
             //a matching field. So there is only one index which is defined in the top-most class
             SchemaIndexEntry schemaTop = node.getSchemaIE(field.getDeclaringType()); 
-            LongLongIndex fieldInd = (LongLongIndex) schemaTop.getIndex(field);
+            AbstractPagedIndex fieldInd = schemaTop.getIndex(field);
             try {
                 for (int i = 0; i < bufferCnt; i++) {
                     GenericObject co = buffer[i];
                     if (!co.isNew()) {
                         //TODO It is bad that we update ALL indices here, even if the value didn't
                         //change... -> Field-wise dirty!
-                        long l = co.jdoZooGetBackup()[iInd];
-                        fieldInd.removeLong(l, co.getOid());
+                        removeIndexEntry(fieldInd, field, co.jdoZooGetBackup()[iInd], co.getOid());
                     }
-                    final long l;
                     if (field.isString()) {
-                        l = (Long)co.getFieldRaw(iField);
+                        String str = (String)co.getFieldRawSCO(iField);
+                        insertIndexEntry(fieldInd, field, iField, 0, str, co.getOid());
                     } else {
                     	Object primO = co.getFieldRaw(iField);
-                    	l = SerializerTools.primitiveToLong(primO, field.getPrimitiveType());
-                    }
-                    if (field.isIndexUnique()) {
-                    	if (!fieldInd.insertLongIfNotSet(l, co.getOid())) {
-                    		if (fieldUpdateBuffer[iField] == null) {
-                    			fieldUpdateBuffer[iField] = new ArrayList<Pair>();
-                    		}
-                    		fieldUpdateBuffer[iField].add(new Pair(co.getOid(), l));
-                    	}
-                    } else {
-                    	fieldInd.insertLong(l, co.getOid());
+                    	long l = SerializerTools.primitiveToLong(primO, field.getPrimitiveType());
+                        insertIndexEntry(fieldInd, field, iField, l, null, co.getOid());
                     }
                 }
             } catch (IllegalArgumentException e) {
@@ -301,4 +405,45 @@ public class DataSink1P implements DataSink {
             }
         }
     }
+
+    private static void removeIndexEntry(AbstractPagedIndex fieldInd, ZooFieldDef field, 
+    		Object prevValue, long oid) {
+    	if (field.isString()) {
+    		((PagedStringLong)fieldInd).removeString((String)prevValue, oid);
+    	} else {
+    		((LongLongIndex)fieldInd).removeLong((Long)prevValue, oid);
+    	}
+    }
+    
+    /**
+     * Insert a value into a field index. Clashes in unique indices are buffered, because they
+     * may be resolved by other objects that are written later. 
+     * @param value The value for primitive fields
+     * @param str The value for String fields
+     */
+    private void insertIndexEntry(AbstractPagedIndex fieldInd, ZooFieldDef field, int iField,
+    		long value, String str, long oid) {
+    	boolean success;
+    	if (field.isString()) {
+    		PagedStringLong strInd = (PagedStringLong) fieldInd;
+    		if (!field.isIndexUnique()) {
+    			strInd.insertString(str, oid);
+    			return;
+    		}
+    		success = strInd.insertStringIfNotSet(str, oid);
+    	} else {
+    		LongLongIndex llInd = (LongLongIndex) fieldInd;
+    		if (!field.isIndexUnique()) {
+    			llInd.insertLong(value, oid);
+    			return;
+    		}
+    		success = llInd.insertLongIfNotSet(value, oid);
+    	}
+    	if (!success) {
+    		if (fieldUpdateBuffer[iField] == null) {
+    			fieldUpdateBuffer[iField] = new ArrayList<Pair>();
+    		}
+    		fieldUpdateBuffer[iField].add(new Pair(oid, value, str));
+    	}
+    }
 }
@@ -22,8 +22,10 @@ package org.zoodb.internal.model1p;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.DataDeleteSink;
 import org.zoodb.internal.DataSink;
 import org.zoodb.internal.GenericObject;
@@ -36,10 +38,17 @@ import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.ZooHandleImpl;
 import org.zoodb.internal.client.SchemaManager;
 import org.zoodb.internal.client.session.ClientSessionCache;
+import org.zoodb.internal.query.QueryAccumulator;
+import org.zoodb.internal.query.QueryAdvice;
+import org.zoodb.internal.query.QueryGroupTable;
+import org.zoodb.internal.query.QueryTreeNode;
 import org.zoodb.internal.server.DiskAccess;
 import org.zoodb.internal.server.DiskAccessOneFile;
+import org.zoodb.internal.server.index.IndexStatistics;
 import org.zoodb.internal.server.index.PagedOidIndex;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
+import org.zoodb.internal.util.ClientLock;
 import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.tools.DBStatistics.STATS;
@@ -66,7 +75,15 @@ public class Node1P extends Node {
 	@Override
 	public void connect() {
 		disk = new DiskAccessOneFile(this, commonCache);
-
+		try {
+			loadSchemata();
+		} catch (RuntimeException e) {
+			disk.close();
+			throw e;
+		}
+	}
+	
+	private void loadSchemata() {
 		//load all schema data
 		Collection<ZooClassDef> defs = disk.readSchemaAll();
 		for (ZooClassDef def: defs) {
@@ -85,6 +102,8 @@ public class Node1P extends Node {
 			for (ZooClassDef def: defs) {
 				commonCache.addSchema(def, true, this);
 			}
+			//the schemata must be known to read the objects
+			disk.upgradeIndices(defs);
 		}
 	}
 	
@@ -101,11 +120,21 @@ public class Node1P extends Node {
 		return disk;
 	}
 
+	@Override
+	public void beginTransaction() {
+		disk.beginTransaction();
+	}
+	
 	@Override
 	public void commit() {
 		disk.commit();
 	}
 	
+	@Override
+	public void rollback() {
+		disk.rollback();
+	}
+	
 	
 	@Override
 	public void revert() {
@@ -114,8 +143,8 @@ public class Node1P extends Node {
 	
     @Override
     public CloseableIterator<ZooPCImpl> loadAllInstances(ZooClassProxy def, 
-            boolean loadFromCache) {
-        return disk.readAllObjects(def.getSchemaId(), loadFromCache);
+            boolean loadFromCache, QueryTreeNode filter) {
+        return disk.readAllObjects(def.getSchemaId(), loadFromCache, filter);
     }
 
     @Override
@@ -135,6 +164,22 @@ public class Node1P extends Node {
 		disk.readObject(pc);
 	}
 	
+	@Override
+	public void activateObject(ZooPCImpl pc, boolean useFetchPlan) {
+		ClientLock lock = commonCache.getSession().getLock();
+		lock.lockRead();
+		try {
+			disk.activateObject(pc, useFetchPlan, commonCache.getSession().getMaxFetchDepth());
+		} finally {
+			lock.unlockRead();
+		}
+	}
+	
+	@Override
+	public void loadInstancesById(long[] oids) {
+		disk.readObjects(oids, commonCache.getSession().getMaxFetchDepth());
+	}
+	
 	@Override
 	public void refreshSchema(ZooClassDef def) {
 		disk.refreshSchema(def);
@@ -173,9 +218,63 @@ public class Node1P extends Node {
 	}
 
 	@Override
-	public Iterator<ZooPCImpl> readObjectFromIndex( ZooFieldDef field, 
-			long minValue, long maxValue, boolean loadFromCache) {
-		return disk.readObjectFromIndex(field, minValue, maxValue, loadFromCache);
+	public void defineCompositeIndex(ZooClassDef def, CompositeIndexDef index) {
+		disk.defineCompositeIndex(def, index);
+	}
+
+	@Override
+	public boolean removeCompositeIndex(ZooClassDef def, CompositeIndexDef index) {
+		return disk.removeCompositeIndex(def, index);
+	}
+
+	@Override
+	public Iterator<ZooPCImpl> readObjectFromIndex( ZooFieldDef field, long minValue, 
+			long maxValue, boolean ascending, boolean loadFromCache, QueryTreeNode filter) {
+		return disk.readObjectFromIndex(field, minValue, maxValue, ascending, loadFromCache, 
+				filter);
+	}
+
+	@Override
+	public Iterator<ZooPCImpl> readObjectFromIndex( ZooFieldDef field, String minValue, 
+			String maxValue, boolean ascending, boolean loadFromCache, QueryTreeNode filter) {
+		return disk.readObjectFromIndex(field, minValue, maxValue, ascending, loadFromCache, 
+				filter);
+	}
+
+	@Override
+	public Iterator<ZooPCImpl> readObjectFromIndex( CompositeIndexDef index, String minValue, 
+			String maxValue, boolean ascending, boolean loadFromCache, QueryTreeNode filter) {
+		return disk.readObjectFromIndex(index, minValue, maxValue, ascending, loadFromCache, 
+				filter);
+	}
+
+	@Override
+	public Iterator<ZooPCImpl> readObjectFromIndices(List<QueryAdvice> advices, 
+			boolean loadFromCache, QueryTreeNode filter) {
+		return disk.readObjectFromIndices(advices, loadFromCache, filter);
+	}
+
+	@Override
+	public IndexStatistics getIndexStatistics(ZooFieldDef field) {
+		return disk.getIndexStatistics(field);
+	}
+
+	@Override
+	public LLEntry readIndexBoundary(ZooFieldDef field, boolean last) {
+		return disk.readIndexBoundary(field, last);
+	}
+
+	@Override
+	public boolean aggregateInstances(ZooClassProxy clsPx, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter, QueryAccumulator[] accumulators) {
+		return disk.aggregateInstances(clsPx, subClasses, advices, filter, accumulators);
+	}
+
+	@Override
+	public boolean groupInstances(ZooClassProxy clsPx, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter, ZooFieldDef[] columns, 
+			QueryGroupTable table) {
+		return disk.groupInstances(clsPx, subClasses, advices, filter, columns, table);
 	}
 
 	@Override
@@ -248,6 +347,16 @@ public class Node1P extends Node {
 		return disk.readGenericObject(def, oid);
 	}
 
+	@Override
+	public List<GenericObject> readOutdatedObjects(int maxObjects) {
+		return disk.readOutdatedObjects(maxObjects);
+	}
+
+	@Override
+	public long countOutdatedObjects() {
+		return disk.countOutdatedObjects();
+	}
+
 	@Override
 	public void deleteSchema(ZooClassDef cs) {
 		disk.deleteSchema(cs);
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.query;
+
+import org.zoodb.internal.ZooFieldDef;
+
+/**
+ * Receives the values of an aggregate, for example 'sum(x)', while the candidate objects 
+ * are read from the database. This allows computing aggregates without materializing the
+ * objects.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public interface QueryAccumulator {
+
+	/**
+	 * @return The primitive field that is aggregated, or {@code null} if the aggregate only 
+	 * counts objects.
+	 */
+	ZooFieldDef getAccumulatedField();
+	
+	/**
+	 * Add a value of an integral field. If {@link #getAccumulatedField()} returns 
+	 * {@code null}, the value is the number of objects that should be added to the count.
+	 * @param value
+	 */
+	void accumulate(long value);
+	
+	/**
+	 * Add a value of a {@code float} or {@code double} field.
+	 * @param value
+	 */
+	void accumulate(double value);
+	
+}
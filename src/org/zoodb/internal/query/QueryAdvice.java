@@ -20,23 +20,38 @@
  */
 package org.zoodb.internal.query;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.ZooFieldDef;
 
 /**
  * This class holds results from the query analyzer for the query executor.
  * - the query
  * - Index to use (if != null)
- * - min/max values of that index
+ * - Composite index to use (if != null), alternatively to the field index
+ * - min/max values of that index, String indices and composite indices use 
+ *   minString/maxString instead
  * - ascending/descending? 
+ * - further index ranges whose OIDs are intersected with the OIDs of this range. This is 
+ *   used for AND terms on several indexed fields. 
  * 
  * @author Tilmann Zaeschke
  */
 public final class QueryAdvice {
-	private final QueryTreeNode query;
+	private QueryTreeNode query;
 	private ZooFieldDef index;
+	private CompositeIndexDef compositeIndex;
 	private long min;
 	private long max;
-	private boolean ascending;
+	//null indicates no limit
+	private String minString;
+	private String maxString;
+	private boolean ascending = true;
+	//estimated fraction of the index that is read, -1 if unknown
+	private double selectivity = -1;
+	private final List<QueryAdvice> intersections = new ArrayList<QueryAdvice>();
 	
 	public QueryAdvice(QueryTreeNode queryTree) {
 		this.query = queryTree;
@@ -50,6 +65,21 @@ public final class QueryAdvice {
 		this.index = index;
 	}
 
+	public CompositeIndexDef getCompositeIndex() {
+		return compositeIndex;
+	}
+
+	void setCompositeIndex(CompositeIndexDef compositeIndex) {
+		this.compositeIndex = compositeIndex;
+	}
+
+	/**
+	 * @return Whether the range is given by minString/maxString.
+	 */
+	boolean hasStringRange() {
+		return compositeIndex != null || (index != null && index.isString());
+	}
+
 	public long getMin() {
 		return min;
 	}
@@ -66,6 +96,28 @@ public final class QueryAdvice {
 		this.max = max;
 	}
 
+	/**
+	 * @return Minimum for String indices, or {@code null} if there is no lower limit.
+	 */
+	public String getMinString() {
+		return minString;
+	}
+
+	void setMinString(String minString) {
+		this.minString = minString;
+	}
+
+	/**
+	 * @return Maximum for String indices, or {@code null} if there is no upper limit.
+	 */
+	public String getMaxString() {
+		return maxString;
+	}
+
+	void setMaxString(String maxString) {
+		this.maxString = maxString;
+	}
+
 	public boolean isAscending() {
 		return ascending;
 	}
@@ -74,9 +126,50 @@ public final class QueryAdvice {
 		this.ascending = ascending;
 	}
 
+	/**
+	 * @return The estimated fraction of index entries in the range of this advice, or -1 if 
+	 * no index statistics are available.
+	 */
+	public double getSelectivity() {
+		return selectivity;
+	}
+
+	void setSelectivity(double selectivity) {
+		this.selectivity = selectivity;
+	}
+
 	public QueryTreeNode getQuery() {
 		return query;
 	}
 	
+	void setQuery(QueryTreeNode query) {
+		this.query = query;
+	}
+
+	/**
+	 * @return Index ranges that have to be intersected with the range of this advice. The
+	 * returned advices have no intersections themselves. 
+	 */
+	public List<QueryAdvice> getIntersections() {
+		return intersections;
+	}
+	
+	/**
+	 * @return Whether the result is an intersection of several index ranges. In that case
+	 * the OIDs are not returned in index order.
+	 */
+	public boolean hasIntersections() {
+		return !intersections.isEmpty();
+	}
 	
+	void addIntersection(QueryAdvice qa) {
+		intersections.add(qa);
+	}
+	
+	/**
+	 * @return Whether the advice uses an index (field or composite) rather than an extent.
+	 */
+	public boolean isIndexed() {
+		return index != null || compositeIndex != null;
+	}
 }
\ No newline at end of file
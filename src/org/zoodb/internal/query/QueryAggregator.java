@@ -0,0 +1,184 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.query;
+
+import org.zoodb.internal.DataDeSerializerNoClass;
+import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooFieldDef;
+import org.zoodb.internal.client.AbstractCache;
+import org.zoodb.internal.server.StorageChannelInput;
+import org.zoodb.internal.util.PrimLongMapLI;
+
+/**
+ * Evaluates aggregates directly on serialized objects. For every object that matches the
+ * filter, the values of the aggregated fields are passed to the accumulators without 
+ * deserializing the object. For grouped queries, the values of the grouping and aggregated
+ * fields are added as row to a {@link QueryGroupTable}.
+ * 
+ * Unlike {@link QueryPreFilter}, the aggregator has to be exact. It can therefore only be
+ * used if the cache contains no modified, new or deleted instances of the candidate class. 
+ * If an object has a schema version that does not contain all required fields, 
+ * {@link #add(long)} returns {@code false} and the aggregates have to be computed on 
+ * materialized objects.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class QueryAggregator {
+
+	private static final int NOT_ACCEPTED = 0;
+	private static final int ACCEPTED = 1;
+	private static final int NOT_EVALUABLE = 2;
+	
+	private final QueryTreeNode filter;
+	private final QueryAccumulator[] accumulators;
+	private final ZooFieldDef[] fields;
+	private final QueryGroupTable table;
+	private final long[] row;
+	private final DataDeSerializerNoClass dds;
+	private final AbstractCache cache;
+	private final PrimLongMapLI<?> schemaIds;
+	//schema OID -> ACCEPTED, NOT_ACCEPTED or NOT_EVALUABLE 
+	private final PrimLongMapLI<Integer> evaluable = new PrimLongMapLI<Integer>();
+	
+	/**
+	 * 
+	 * @param filter The query or {@code null}. If not {@code null}, 
+	 * {@link QueryTreeNode#isEvaluableSerialized()} must be true.
+	 * @param accumulators
+	 * @param schemaIds The schema IDs of the candidate classes. Objects of other classes are 
+	 * ignored. 
+	 * @param in
+	 * @param cache
+	 */
+	public QueryAggregator(QueryTreeNode filter, QueryAccumulator[] accumulators, 
+			PrimLongMapLI<?> schemaIds, StorageChannelInput in, AbstractCache cache) {
+		this.filter = filter;
+		this.accumulators = accumulators;
+		this.fields = new ZooFieldDef[accumulators.length];
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = accumulators[i].getAccumulatedField();
+		}
+		this.table = null;
+		this.row = null;
+		this.schemaIds = schemaIds;
+		this.dds = new DataDeSerializerNoClass(in);
+		this.cache = cache;
+	}
+	
+	/**
+	 * 
+	 * @param filter The query or {@code null}. If not {@code null}, 
+	 * {@link QueryTreeNode#isEvaluableSerialized()} must be true.
+	 * @param columns The primitive fields of the rows of the table. Columns without field
+	 * (for example for 'count(this)') are {@code null}, their value is always 0.
+	 * @param table
+	 * @param schemaIds The schema IDs of the candidate classes. Objects of other classes are 
+	 * ignored. 
+	 * @param in
+	 * @param cache
+	 */
+	public QueryAggregator(QueryTreeNode filter, ZooFieldDef[] columns, QueryGroupTable table,
+			PrimLongMapLI<?> schemaIds, StorageChannelInput in, AbstractCache cache) {
+		this.filter = filter;
+		this.accumulators = null;
+		this.fields = columns;
+		this.table = table;
+		this.row = new long[columns.length];
+		this.schemaIds = schemaIds;
+		this.dds = new DataDeSerializerNoClass(in);
+		this.cache = cache;
+	}
+	
+	/**
+	 * Add an object to the aggregates, if it matches the filter.
+	 * @param pos Position of the serialized object.
+	 * @return {@code false} if the object can not be evaluated without deserializing it.
+	 */
+	public boolean add(long pos) {
+		dds.seekPos(pos);
+		long clsOid = dds.getClassOid();
+		Integer state = evaluable.get(clsOid);
+		if (state == null) {
+			state = getState(cache.getSchema(clsOid));
+			evaluable.put(clsOid, state);
+		}
+		if (state == NOT_ACCEPTED) {
+			return true;
+		}
+		if (state == NOT_EVALUABLE) {
+			return false;
+		}
+		if (filter != null && !filter.evaluate(dds, pos)) {
+			return true;
+		}
+		ZooClassDef def = cache.getSchema(clsOid);
+		if (table != null) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = fields[i] == null ? 0 : readRowValue(def, fields[i], pos);
+			}
+			table.add(row);
+			return true;
+		}
+		for (QueryAccumulator acc: accumulators) {
+			ZooFieldDef field = acc.getAccumulatedField();
+			if (field == null) {
+				acc.accumulate(1L);
+				continue;
+			}
+			dds.seekPos(pos);
+			switch (field.getPrimitiveType()) {
+			case DOUBLE: acc.accumulate(dds.getAttrDouble(def, field)); break;
+			case FLOAT: acc.accumulate((double)dds.getAttrFloat(def, field)); break;
+			default: acc.accumulate(dds.getAttrAsLong(def, field));
+			}
+		}
+		return true;
+	}
+	
+	private int getState(ZooClassDef def) {
+		if (def == null || !schemaIds.containsKey(def.getSchemaId())) {
+			return NOT_ACCEPTED;
+		}
+		ZooFieldDef[] allFields = def.getAllFields();
+		if (filter != null && !filter.isBranchContainedIn(allFields)) {
+			return NOT_EVALUABLE;
+		}
+		for (ZooFieldDef field: fields) {
+			if (field != null && !QueryTreeNode.contains(allFields, field)) {
+				return NOT_EVALUABLE;
+			}
+		}
+		return ACCEPTED;
+	}
+	
+	/**
+	 * @return The value encoded as described in {@link QueryGroupTable}.
+	 */
+	private long readRowValue(ZooClassDef def, ZooFieldDef field, long pos) {
+		dds.seekPos(pos);
+		switch (field.getPrimitiveType()) {
+		case DOUBLE: return Double.doubleToRawLongBits(dds.getAttrDouble(def, field));
+		case FLOAT: return Double.doubleToRawLongBits(dds.getAttrFloat(def, field));
+		default: return dds.getAttrAsLong(def, field);
+		}
+	}
+	
+}
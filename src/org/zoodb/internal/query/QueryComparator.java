@@ -0,0 +1,169 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.query;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+
+import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooFieldDef;
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * Comparator for query results. The comparator is created from a JDO ordering string, 
+ * for example: "_int ascending, _string descending".
+ * 
+ * Null values are smaller than any other value, this is consistent with the evaluation of
+ * query terms (see {@link QueryTerm}).
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class QueryComparator implements Comparator<Object> {
+
+	private final ZooFieldDef[] fields;
+	private final boolean[] ascending;
+	
+	/**
+	 * 
+	 * @param ordering The ordering, for example "_int ascending, _string descending".
+	 * @param clsDef The candidate class
+	 */
+	public QueryComparator(String ordering, ZooClassDef clsDef) {
+		Map<String, ZooFieldDef> allFields = clsDef.getAllFieldsAsMap();
+		ArrayList<ZooFieldDef> fieldList = new ArrayList<ZooFieldDef>();
+		ArrayList<Boolean> ascList = new ArrayList<Boolean>();
+		for (String spec: ordering.split(",", -1)) {
+			String[] tokens = spec.trim().split("\\s+");
+			if (tokens.length > 2 || tokens[0].length() == 0) {
+				throw DBLogger.newUser("Invalid ordering: \"" + ordering + "\"");
+			}
+			String fName = tokens[0];
+			if (fName.startsWith("this.")) {
+				fName = fName.substring(5);
+			}
+			ZooFieldDef f = allFields.get(fName);
+			if (f == null) {
+				throw DBLogger.newUser("Field not found in ordering: \"" + fName + "\"");
+			}
+			switch (f.getJdoType()) {
+			case PRIMITIVE:
+			case STRING:
+			case DATE:
+			case NUMBER:
+			case BIG_INT:
+			case BIG_DEC: break;
+			default:
+				throw DBLogger.newUser("Field type can not be used for ordering: \"" + 
+						fName + "\" " + f.getTypeName());
+			}
+			boolean asc = true;
+			if (tokens.length == 2) {
+				String dir = tokens[1].toLowerCase();
+				if (dir.equals("descending") || dir.equals("desc")) {
+					asc = false;
+				} else if (!dir.equals("ascending") && !dir.equals("asc")) {
+					throw DBLogger.newUser("Invalid ordering: \"" + ordering + "\"");
+				}
+			}
+			fieldList.add(f);
+			ascList.add(asc);
+		}
+		fields = fieldList.toArray(new ZooFieldDef[fieldList.size()]);
+		ascending = new boolean[fields.length];
+		for (int i = 0; i < ascending.length; i++) {
+			ascending[i] = ascList.get(i);
+		}
+	}
+
+	/**
+	 * @return The field that determines the primary order.
+	 */
+	public ZooFieldDef getFirstField() {
+		return fields[0];
+	}
+	
+	/**
+	 * @return {@code true} if the ordering consists of only one field.
+	 */
+	public boolean hasSingleField() {
+		return fields.length == 1;
+	}
+	
+	public boolean isFirstAscending() {
+		return ascending[0];
+	}
+	
+	/**
+	 * @param o
+	 * @return The values of the ordering fields of the object.
+	 */
+	public Object[] getKeys(Object o) {
+		if (o instanceof ZooPCImpl) {
+			ZooPCImpl pc = (ZooPCImpl) o;
+			for (ZooFieldDef f: fields) {
+				pc.zooActivateRead(f.getName());
+			}
+		}
+		Object[] keys = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			Field f = fields[i].getJavaField();
+			try {
+				keys[i] = f.get(o);
+			} catch (IllegalArgumentException e) {
+				throw DBLogger.newFatalInternalException("Can not access field: " + 
+						fields[i].getName() + " cl=" + o.getClass().getName(), e);
+			} catch (IllegalAccessException e) {
+				throw DBLogger.newFatalInternalException(
+						"Can not access field: " + fields[i].getName(), e);
+			}
+		}
+		return keys;
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public int compareKeys(Object[] keys1, Object[] keys2) {
+		for (int i = 0; i < keys1.length; i++) {
+			Object k1 = keys1[i];
+			Object k2 = keys2[i];
+			int res;
+			if (k1 == null) {
+				res = k2 == null ? 0 : -1;
+			} else if (k2 == null) {
+				res = 1;
+			} else {
+				res = ((Comparable)k1).compareTo(k2);
+			}
+			if (res != 0) {
+				return ascending[i] ? res : -res;
+			}
+		}
+		return 0;
+	}
+	
+	@Override
+	public int compare(Object o1, Object o2) {
+		return compareKeys(getKeys(o1), getKeys(o2));
+	}
+	
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Hash aggregation for queries with grouping.
+ * 
+ * Every input row consists of the values of the grouping fields followed by one value for 
+ * every aggregate. All values are encoded as {@code long}: integral types by value, booleans 
+ * as 0 or 1, and {@code float}/{@code double} values as bits of the {@code double} value 
+ * (see {@link Double#doubleToRawLongBits(double)}). The groups are stored in an open 
+ * addressing hash table that consists of primitive arrays, so neither keys nor aggregates 
+ * are boxed.
+ * 
+ * If the number of groups exceeds the group buffer (see 
+ * {@link ZooConfig#setQueryGroupBufferSize(int)}), rows of groups that are not in the table 
+ * are written to one of several partition files. After the groups in memory have been 
+ * returned, the partitions are aggregated one after the other, possibly partitioning them
+ * again.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class QueryGroupTable {
+
+	public enum AGG {
+		/** Only the number of rows, see {@link GroupIterator#getCount()}. */
+		COUNT, 
+		SUM, 
+		MIN, 
+		MAX;
+	}
+	
+	private static final int N_PARTITIONS = 16;
+	/** Beyond this level, partitions are not partitioned again. */
+	private static final int MAX_LEVEL = 6;
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private final int nKeys;
+	private final AGG[] aggs;
+	private final boolean[] isFloat;
+	private final int maxGroups;
+	private final int level;
+	/** Width of the state of a group: the row count followed by one slot per aggregate. */
+	private final int width;
+	
+	private int capacity;
+	private int size = 0;
+	private long[] keys;
+	private long[] states;
+	
+	private File[] partitions = null;
+	private DataOutputStream[] partitionOut = null;
+	
+	/**
+	 * 
+	 * @param nKeys Number of grouping fields.
+	 * @param aggs The aggregates.
+	 * @param isFloat Whether the values of an aggregate are {@code float} or {@code double}.
+	 */
+	public QueryGroupTable(int nKeys, AGG[] aggs, boolean[] isFloat) {
+		this(nKeys, aggs, isFloat, ZooConfig.getQueryGroupBufferSize(), 0);
+	}
+	
+	/**
+	 * 
+	 * @param nKeys Number of grouping fields.
+	 * @param aggs The aggregates.
+	 * @param isFloat Whether the values of an aggregate are {@code float} or {@code double}.
+	 * @param maxGroups Maximum number of groups in memory.
+	 */
+	public QueryGroupTable(int nKeys, AGG[] aggs, boolean[] isFloat, int maxGroups) {
+		this(nKeys, aggs, isFloat, maxGroups, 0);
+	}
+	
+	private QueryGroupTable(int nKeys, AGG[] aggs, boolean[] isFloat, int maxGroups, 
+			int level) {
+		this.nKeys = nKeys;
+		this.aggs = aggs;
+		this.isFloat = isFloat;
+		this.maxGroups = maxGroups;
+		this.level = level;
+		this.width = 1 + aggs.length;
+		this.capacity = INITIAL_CAPACITY;
+		this.keys = new long[capacity * nKeys];
+		this.states = new long[capacity * width];
+	}
+	
+	/**
+	 * @return The number of values per row.
+	 */
+	public int getRowWidth() {
+		return nKeys + aggs.length;
+	}
+	
+	/**
+	 * Add a row.
+	 * @param row The grouping values followed by one value for every aggregate.
+	 */
+	public void add(long[] row) {
+		int hash = hash(row);
+		int mask = capacity - 1;
+		int slot = hash & mask;
+		while (states[slot * width] != 0) {
+			if (isKeyEqual(slot, row)) {
+				update(slot, row);
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		//new group
+		if (size >= maxGroups && level < MAX_LEVEL) {
+			spill(hash, row);
+			return;
+		}
+		System.arraycopy(row, 0, keys, slot * nKeys, nKeys);
+		int base = slot * width;
+		states[base] = 1;
+		for (int i = 0; i < aggs.length; i++) {
+			states[base + 1 + i] = row[nKeys + i];
+		}
+		size++;
+		if (size * 2 > capacity) {
+			rehash();
+		}
+	}
+	
+	private boolean isKeyEqual(int slot, long[] row) {
+		int pos = slot * nKeys;
+		for (int i = 0; i < nKeys; i++) {
+			if (keys[pos + i] != row[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void update(int slot, long[] row) {
+		int base = slot * width;
+		states[base]++;
+		for (int i = 0; i < aggs.length; i++) {
+			int s = base + 1 + i;
+			long v = row[nKeys + i];
+			switch (aggs[i]) {
+			case COUNT: 
+				break;
+			case SUM:
+				if (isFloat[i]) {
+					states[s] = Double.doubleToRawLongBits(
+							Double.longBitsToDouble(states[s]) + Double.longBitsToDouble(v));
+				} else {
+					states[s] += v;
+				}
+				break;
+			case MIN:
+				if (isFloat[i] ? Double.longBitsToDouble(v) < Double.longBitsToDouble(states[s]) 
+						: v < states[s]) {
+					states[s] = v;
+				}
+				break;
+			case MAX:
+				if (isFloat[i] ? Double.longBitsToDouble(v) > Double.longBitsToDouble(states[s]) 
+						: v > states[s]) {
+					states[s] = v;
+				}
+				break;
+			default:
+				throw new IllegalArgumentException(aggs[i].name());
+			}
+		}
+	}
+	
+	private int hash(long[] row) {
+		//Every level uses a different hash function, otherwise partitions would not be split
+		long h = 0x9E3779B97F4A7C15L * (level + 1);
+		for (int i = 0; i < nKeys; i++) {
+			h = (h ^ row[i]) * 0xC6A4A7935BD1E995L;
+			h ^= h >>> 31;
+		}
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	private void rehash() {
+		long[] oldKeys = keys;
+		long[] oldStates = states;
+		int oldCapacity = capacity;
+		capacity *= 2;
+		keys = new long[capacity * nKeys];
+		states = new long[capacity * width];
+		int mask = capacity - 1;
+		long[] row = new long[nKeys];
+		for (int i = 0; i < oldCapacity; i++) {
+			if (oldStates[i * width] == 0) {
+				continue;
+			}
+			System.arraycopy(oldKeys, i * nKeys, row, 0, nKeys);
+			int slot = hash(row) & mask;
+			while (states[slot * width] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			System.arraycopy(row, 0, keys, slot * nKeys, nKeys);
+			System.arraycopy(oldStates, i * width, states, slot * width, width);
+		}
+	}
+	
+	private void spill(int hash, long[] row) {
+		try {
+			if (partitions == null) {
+				partitions = new File[N_PARTITIONS];
+				partitionOut = new DataOutputStream[N_PARTITIONS];
+			}
+			//Use the upper bits, the lower bits determine the slot in the table
+			int p = (hash >>> 24) & (N_PARTITIONS - 1);
+			if (partitions[p] == null) {
+				partitions[p] = File.createTempFile("zoodbGroup", ".tmp");
+				partitions[p].deleteOnExit();
+				partitionOut[p] = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(partitions[p])));
+			}
+			DataOutputStream out = partitionOut[p];
+			for (long v: row) {
+				out.writeLong(v);
+			}
+		} catch (IOException e) {
+			close();
+			throw DBLogger.newFatal("Error while grouping query result.", e);
+		}
+	}
+	
+	/**
+	 * Returns all groups. This must be called only once, after all rows have been added.
+	 * The iterator has to be closed, unless it has been iterated to the end.
+	 * @return An iterator over all groups.
+	 */
+	public GroupIterator groups() {
+		if (partitionOut != null) {
+			try {
+				for (DataOutputStream out: partitionOut) {
+					if (out != null) {
+						out.close();
+					}
+				}
+			} catch (IOException e) {
+				close();
+				throw DBLogger.newFatal("Error while grouping query result.", e);
+			}
+			partitionOut = null;
+		}
+		return new GroupIterator();
+	}
+	
+	/**
+	 * Deletes all partition files.
+	 */
+	private void close() {
+		if (partitionOut != null) {
+			for (DataOutputStream out: partitionOut) {
+				if (out != null) {
+					try {
+						out.close();
+					} catch (IOException e) {
+						//ignore, the file is deleted anyway
+						DBLogger.debugPrintln(1, "Error closing group file: " + e.getMessage());
+					}
+				}
+			}
+			partitionOut = null;
+		}
+		if (partitions != null) {
+			for (File f: partitions) {
+				if (f != null) {
+					f.delete();
+				}
+			}
+			partitions = null;
+		}
+	}
+	
+	private QueryGroupTable readPartition(File f) throws IOException {
+		QueryGroupTable t = new QueryGroupTable(nKeys, aggs, isFloat, maxGroups, level + 1);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try {
+			long[] row = new long[getRowWidth()];
+			while (true) {
+				try {
+					row[0] = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+				for (int i = 1; i < row.length; i++) {
+					row[i] = in.readLong();
+				}
+				t.add(row);
+			}
+		} finally {
+			in.close();
+			f.delete();
+		}
+		return t;
+	}
+	
+	/**
+	 * Cursor over the groups of a table. The values of the current group are accessed 
+	 * through the getters.
+	 */
+	public final class GroupIterator {
+		
+		private int slot = -1;
+		private int partition = 0;
+		private GroupIterator sub = null;
+		
+		private GroupIterator() {
+			//internal
+		}
+		
+		/**
+		 * Move to the next group.
+		 * @return {@code false} if there are no more groups.
+		 */
+		public boolean next() {
+			if (sub == null) {
+				while (++slot < capacity) {
+					if (states[slot * width] != 0) {
+						return true;
+					}
+				}
+				slot = capacity;
+			} else if (sub.next()) {
+				return true;
+			}
+			//groups in partitions
+			while (partitions != null && partition < N_PARTITIONS) {
+				File f = partitions[partition];
+				partitions[partition++] = null;
+				if (f == null) {
+					continue;
+				}
+				try {
+					sub = readPartition(f).groups();
+				} catch (IOException e) {
+					close();
+					throw DBLogger.newFatal("Error while grouping query result.", e);
+				}
+				if (sub.next()) {
+					return true;
+				}
+			}
+			sub = null;
+			return false;
+		}
+		
+		/**
+		 * @param i
+		 * @return The value of the i-th grouping field.
+		 */
+		public long getKey(int i) {
+			return sub != null ? sub.getKey(i) : keys[slot * nKeys + i];
+		}
+		
+		/**
+		 * @return The number of rows in the group.
+		 */
+		public long getCount() {
+			return sub != null ? sub.getCount() : states[slot * width];
+		}
+		
+		/**
+		 * @param i
+		 * @return The value of the i-th aggregate.
+		 */
+		public long getLong(int i) {
+			return sub != null ? sub.getLong(i) : states[slot * width + 1 + i];
+		}
+		
+		/**
+		 * @param i
+		 * @return The value of the i-th aggregate, which has to be a floating point aggregate.
+		 */
+		public double getDouble(int i) {
+			return Double.longBitsToDouble(getLong(i));
+		}
+		
+		/**
+		 * Deletes remaining partition files.
+		 */
+		public void close() {
+			if (sub != null) {
+				sub.close();
+				sub = null;
+			}
+			QueryGroupTable.this.close();
+		}
+	}
+}
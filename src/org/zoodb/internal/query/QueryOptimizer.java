@@ -20,6 +20,7 @@
  */
 package org.zoodb.internal.query;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
@@ -28,16 +29,45 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 
+import org.zoodb.internal.CompositeIndexDef;
+import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.CompositeKey;
+import org.zoodb.internal.server.index.IndexStatistics;
 
 public class QueryOptimizer {
 	
+	/** Relative cost of reading an object during an extent scan (sequential read). */
+	private static final double EXTENT_SCAN_COST = 1.0;
+	/** Relative cost of loading an object via its OID (random read). */
+	private static final double RANDOM_READ_COST = 5.0;
+	/** Relative cost of reading an index entry. */
+	private static final double INDEX_ENTRY_COST = 0.05;
+	/** Relative cost of an object that is found via an index. */
+	private static final double INDEX_SCAN_COST = INDEX_ENTRY_COST + RANDOM_READ_COST;
+	
 	private final ZooClassDef clsDef;
+	//optional, provides index statistics
+	private final Node node;
 	
+	/**
+	 * Create an optimizer that chooses indices with heuristics over the query ranges. 
+	 * @param clsDef The candidate class
+	 */
 	public QueryOptimizer(ZooClassDef clsDef) {
+		this(clsDef, null);
+	}
+	
+	/**
+	 * Create an optimizer that uses index statistics where available.
+	 * @param clsDef The candidate class
+	 * @param node The node that provides the index statistics
+	 */
+	public QueryOptimizer(ZooClassDef clsDef, Node node) {
 		this.clsDef = clsDef;
+		this.node = node;
 	}
 	
 	/**
@@ -51,7 +81,13 @@ public class QueryOptimizer {
 	 *    pointless (whole index range required). This could also be if one sub-query does not use
 	 *    any index, in which case using an index for the rest slightly increases disk access 
 	 *    (index read) but reduces CPU needs (only sub-query to process, not whole query).
-	 * 4a) For each sub-query, determine index with smallest range/density.
+	 * 4a) For each sub-query, determine index with smallest range/density. If statistics are
+	 *    available for all candidate indices, the index with the smallest estimated 
+	 *    selectivity is chosen, or none if an extent scan is estimated to be cheaper.
+	 *    Composite indices
+	 *    are preferred if the sub-query constrains more than one of their fields.
+	 *    Other indexed fields that are compared for equality are added as intersections, 
+	 *    their OIDs are intersected with the OIDs of the main index before objects are loaded.
 	 * 4b) Check for required sorting. Using an according index can be of advantage, even if range 
 	 *    is larger.
 	 * 5) Merge queries with same index and overlapping ranges
@@ -70,7 +106,7 @@ public class QueryOptimizer {
 		}
 
 		// step 1
-		if (availableIndices.isEmpty()) {
+		if (availableIndices.isEmpty() && clsDef.getAllCompositeIndices().isEmpty()) {
 			//no index usage
 			advices.add( new QueryAdvice(queryTree) );
 			return advices;
@@ -81,9 +117,12 @@ public class QueryOptimizer {
 		//the full query but only one side of every OR. All ORs are removed.
 		//-> Optimization: We remove only (and split only at) ORs where at least on branch
 		//   uses an index. TODO
+		//Splitting modifies the tree, so we split a copy. The original is used for advices
+		//that cover more than one sub-query.
 		List<QueryTreeNode> subQueries = new LinkedList<QueryTreeNode>();
-		subQueries.add(queryTree);
-		queryTree.createSubs(subQueries);
+		QueryTreeNode root = queryTree.cloneBranch();
+		subQueries.add(root);
+		root.createSubs(subQueries, clsDef.getAllCompositeIndices());
 		
 //		System.out.println("Query2: " + queryTree.print());
 		for (QueryTreeNode sq: subQueries) {
@@ -112,17 +151,18 @@ public class QueryOptimizer {
 				
 		//check for show-stoppers
 		//-> in their case, we simply run the un-split query on the full type extent.
+		if (isExtentCheaper(advices)) {
+			advices.clear();
+			advices.add(new QueryAdvice(queryTree));
+			return advices;
+		}
 		for (QueryAdvice qa: advices) {
 			//assuming that the term is not an empty term (contradicting sub-terms)
-			if (qa == null) {
-				//ah, one of them iterates over the whole result set.
-				advices.clear();
-				advices.add(qa);
-				return advices;
-			}
-			//TODO instead of fixed values, use min/max of index.
-			if (qa.getMin() <= Long.MIN_VALUE && qa.getMax() >= Long.MAX_VALUE) {
+			if (isFullScan(qa)) {
 				//ah, one of them iterates over the whole result set.
+				if (advices.size() > 1) {
+					qa = new QueryAdvice(queryTree);
+				}
 				advices.clear();
 				advices.add(qa);
 				return advices;
@@ -130,14 +170,91 @@ public class QueryOptimizer {
 		}
 		
 		//check for overlapping / global min/max
-		mergeAdvices(advices);
+		mergeAdvices(advices, queryTree);
 		
 		return advices;
 	}
 	
+	/**
+	 * Step 4b: Check for required sorting. If the query can be executed on the index of 
+	 * the primary ordering field, then the index is traversed in the requested order.
+	 * This is the case if the query uses that index anyway, or if the query uses no index at 
+	 * all, in which case the extent scan is replaced by a full index scan.
+	 * 
+	 * String indices are not used, because very long keys are truncated, so the order of
+	 * Strings with a long common prefix is not preserved.
+	 * 
+	 * @param advices The result of {@link #determineIndexToUse(QueryTreeNode)}.
+	 * @param ordering
+	 * @return {@code true} if an extent scan was replaced by a full index scan.
+	 */
+	public boolean applyOrdering(List<QueryAdvice> advices, QueryComparator ordering) {
+		if (advices.size() != 1) {
+			return false;
+		}
+		ZooFieldDef f = ordering.getFirstField();
+		if (!f.isIndexed() || !f.isPrimitiveType() || f.getDeclaringType() != clsDef) {
+			return false;
+		}
+		QueryAdvice qa = advices.get(0);
+		if (qa.getCompositeIndex() != null) {
+			return false;
+		}
+		boolean isFullScan = false;
+		if (qa.getIndex() == null) {
+			qa.setIndex(f);
+			qa.setMin(Long.MIN_VALUE);
+			qa.setMax(Long.MAX_VALUE);
+			isFullScan = true;
+		}
+		if (qa.getIndex() == f) {
+			qa.setAscending(ordering.isFirstAscending());
+			//intersecting would lose the index order
+			qa.getIntersections().clear();
+		}
+		return isFullScan;
+	}
+	
+	/**
+	 * @return Whether the statistics suggest that the sub-queries together read so many 
+	 * objects that an extent scan is cheaper.
+	 */
+	private static boolean isExtentCheaper(List<QueryAdvice> advices) {
+		if (advices.size() < 2) {
+			//already checked in determineIndexToUseSub()
+			return false;
+		}
+		double sel = 0;
+		for (QueryAdvice qa: advices) {
+			if (qa.getSelectivity() < 0) {
+				return false;
+			}
+			sel += qa.getSelectivity();
+		}
+		return sel * INDEX_SCAN_COST >= EXTENT_SCAN_COST;
+	}
+	
+	private static boolean isFullScan(QueryAdvice qa) {
+		if (!qa.isIndexed()) {
+			return true;
+		}
+		if (qa.hasStringRange()) {
+			return qa.getMinString() == null && qa.getMaxString() == null;
+		}
+		//TODO instead of fixed values, use min/max of index.
+		return qa.getMin() <= Long.MIN_VALUE && qa.getMax() >= Long.MAX_VALUE;
+	}
+	
 	private static class AdviceComparator implements Comparator<QueryAdvice> {
 		@Override
 		public int compare(QueryAdvice o1, QueryAdvice o2) {
+			if (o1.hasStringRange()) {
+				int c = compareMin(o1.getMinString(), o2.getMinString());
+				if (c != 0) {
+					return c;
+				}
+				return compareMax(o1.getMaxString(), o2.getMaxString());
+			}
 			if (o1.getMin() < o2.getMin()) {
 				return -1;
 			} else if(o1.getMin() > o2.getMin()) {
@@ -155,7 +272,14 @@ public class QueryOptimizer {
 	}
 	
 	
-	private void mergeAdvices(List<QueryAdvice> advices) {
+	/**
+	 * Merge advices with overlapping ranges on the same index.
+	 * A merged advice covers several sub-queries, so it is evaluated with the full query, 
+	 * and intersections of the sub-queries no longer apply.
+	 * @param advices
+	 * @param queryTree The full query
+	 */
+	private void mergeAdvices(List<QueryAdvice> advices, QueryTreeNode queryTree) {
 		//if they overlap, we should merge them to void duplicate loading effort and results.
 		//if they don't overlap, we don't have to care about either.
 		//-> assuming they all use the same index...
@@ -163,14 +287,15 @@ public class QueryOptimizer {
 			//shortcut
 			return;
 		}
-		IdentityHashMap<ZooFieldDef, TreeSet<QueryAdvice>> map = 
-				new IdentityHashMap<ZooFieldDef, TreeSet<QueryAdvice>>();
+		//keys are field indices or composite indices
+		IdentityHashMap<Object, TreeSet<QueryAdvice>> map = 
+				new IdentityHashMap<Object, TreeSet<QueryAdvice>>();
 		//sort QAs by index and by minValue
 		for (QueryAdvice qa: advices) {
-			TreeSet<QueryAdvice> subList = map.get(qa.getIndex());
+			TreeSet<QueryAdvice> subList = map.get(getIndexKey(qa));
 			if (subList == null) {
 				subList = new TreeSet<QueryAdvice>(new AdviceComparator());
-				map.put(qa.getIndex(), subList);
+				map.put(getIndexKey(qa), subList);
 			}
 			subList.add(qa);
 		}
@@ -178,13 +303,41 @@ public class QueryOptimizer {
 		//merge
 		boolean merged = false;
 		for (QueryAdvice qa: advices) {
-			TreeSet<QueryAdvice> subList = map.get(qa.getIndex());
+			TreeSet<QueryAdvice> subList = map.get(getIndexKey(qa));
 			Iterator<QueryAdvice> iter = subList.iterator();
 			QueryAdvice prev = iter.next();
+			if (prev.getCompositeIndex() != null) {
+				//Sub-queries on a composite index usually have different prefixes, so adjacent
+				//ranges would be merged although the merged query matches only one of them.
+				//They are executed separately, the results are merged by the caller.
+				continue;
+			}
+			if (prev.hasStringRange()) {
+				while (iter.hasNext()) {
+					QueryAdvice current = iter.next();
+					if (prev.getMaxString() == null || (current.getMinString() != null && 
+							prev.getMaxString().compareTo(current.getMinString()) >= 0)) {
+						if (compareMax(prev.getMaxString(), current.getMaxString()) < 0) {
+							prev.setMaxString(current.getMaxString());
+						}
+						prev.setQuery(queryTree);
+						prev.getIntersections().clear();
+						iter.remove();
+						merged = true;
+					} else {
+						prev = current;
+					}
+				}
+				continue;
+			}
 			while (iter.hasNext()) {
 				QueryAdvice current = iter.next();
 				if (prev.getMax() >= current.getMin()) {
-					prev.setMax(current.getMax());
+					if (prev.getMax() < current.getMax()) {
+						prev.setMax(current.getMax());
+					}
+					prev.setQuery(queryTree);
+					prev.getIntersections().clear();
 					iter.remove();
 					merged = true;
 				} else {			
@@ -201,6 +354,44 @@ public class QueryOptimizer {
 		}
 	}
 
+	private static Object getIndexKey(QueryAdvice qa) {
+		if (qa.getCompositeIndex() != null) {
+			return qa.getCompositeIndex();
+		}
+		return qa.getIndex();
+	}
+
+	/**
+	 * Compares lower bounds of String ranges, {@code null} means no limit.
+	 */
+	private static int compareMin(String min1, String min2) {
+		if (min1 == null) {
+			return min2 == null ? 0 : -1;
+		}
+		return min2 == null ? 1 : min1.compareTo(min2);
+	}
+	
+	/**
+	 * Compares upper bounds of String ranges, {@code null} means no limit.
+	 */
+	private static int compareMax(String max1, String max2) {
+		if (max1 == null) {
+			return max2 == null ? 0 : 1;
+		}
+		return max2 == null ? -1 : max1.compareTo(max2);
+	}
+	
+	/**
+	 * String ranges have no numeric width. Equality is considered the smallest possible range,
+	 * ranges that are limited on both sides are preferred over an open range (full index scan). 
+	 */
+	private static long rangeWidth(String min, String max) {
+		if (min != null && max != null) {
+			return min.equals(max) ? 0 : Long.MAX_VALUE - 1;
+		}
+		return Long.MAX_VALUE;
+	}
+	
 	/**
 	 * 
 	 * @param queryTree This is a sub-query that does not contain OR operands.
@@ -211,16 +402,31 @@ public class QueryOptimizer {
 	private QueryAdvice determineIndexToUseSub(QueryTreeNode queryTree, 
 			IdentityHashMap<ZooFieldDef, Long> minMap, 
 			IdentityHashMap<ZooFieldDef, Long> maxMap) {
+		//String indices, null indicates no limit
+		IdentityHashMap<ZooFieldDef, String> minStrMap = new IdentityHashMap<ZooFieldDef, String>();
+		IdentityHashMap<ZooFieldDef, String> maxStrMap = new IdentityHashMap<ZooFieldDef, String>();
+		List<CompositeIndexDef> composites = clsDef.getAllCompositeIndices();
 		//TODO determine the Lists directly by assigning ZooFields to term during parsing?
 		QueryTreeIterator iter = queryTree.termIterator();
 		while (iter.hasNext()) {
 			QueryTerm term = iter.next();
 			ZooFieldDef f = term.getFieldDef();
-			if (!f.isIndexed()) {
+			if (!f.isIndexed() && !isInCompositeIndex(f, composites)) {
 				//ignore fields that are not index
 				continue;
 			}
 			
+			if (f.isString()) {
+				if (!minStrMap.containsKey(f)) {
+					minStrMap.put(f, null);
+					maxStrMap.put(f, null);
+				}
+				if (term.getValue() instanceof String) {
+					determineStringRange(term, (String) term.getValue(), minStrMap, maxStrMap);
+				}
+				continue;
+			}
+			
 			Long minVal = minMap.get(f);
 			if (minVal == null) {
 				//needs initialization
@@ -238,12 +444,14 @@ public class QueryOptimizer {
 				value = BitTools.toSortableLong((Float)term.getValue());
             } else if (term.getValue() instanceof Number) {
 				value = ((Number)term.getValue()).longValue();
-			} else if (term.getValue() instanceof String) {
-				value = BitTools.toSortableLong((String) term.getValue());
 			} else if (term.getValue() instanceof Boolean) {
 				//pointless..., well pretty much, unless someone uses this to distinguish
 				//very few 'true' from many 'false' or vice versa.
-				continue;
+				//However, it is useful as prefix of a composite index.
+				if (f.isIndexed()) {
+					continue;
+				}
+				value = ((Boolean)term.getValue()) ? 1L : 0L;
 			} else {
 				throw new IllegalArgumentException("Type: " + term.getValue().getClass());
 			}
@@ -287,47 +495,334 @@ public class QueryOptimizer {
 			//But it may break everything!
 		}
 		
-		if (minMap.isEmpty()) {
+		if (minMap.isEmpty() && minStrMap.isEmpty()) {
 			//return default query
 			return new QueryAdvice(queryTree);
 		}
 		
-		//the advised index to use...
-		// start with first
-		ZooFieldDef def = minMap.keySet().iterator().next();
-		QueryAdvice qa = new QueryAdvice(queryTree);
-		qa.setIndex( def );
-		qa.setMin( minMap.get(def) );
-		qa.setMax( maxMap.get(def) );
+		//the candidate indices
+		List<QueryAdvice> candidates = new ArrayList<QueryAdvice>();
+		for (Map.Entry<ZooFieldDef, Long> me2: minMap.entrySet()) {
+			if (!me2.getKey().isIndexed()) {
+				//only part of a composite index
+				continue;
+			}
+			QueryAdvice c = new QueryAdvice(queryTree);
+			c.setIndex( me2.getKey() );
+			c.setMin( me2.getValue() );
+			c.setMax( maxMap.get(me2.getKey()) );
+			candidates.add(c);
+		}
+		for (Map.Entry<ZooFieldDef, String> me2: minStrMap.entrySet()) {
+			if (!me2.getKey().isIndexed()) {
+				//only part of a composite index
+				continue;
+			}
+			QueryAdvice c = new QueryAdvice(queryTree);
+			c.setIndex( me2.getKey() );
+			c.setMinString( me2.getValue() );
+			c.setMaxString( maxStrMap.get(me2.getKey()) );
+			candidates.add(c);
+		}
 		
-		//only one index left? -> Easy!!!
-		//TODO well, better not use it if it covers the whole range? Maybe for sorting?
-		if (minMap.size() == 1) {
-			qa.setIndex( minMap.keySet().iterator().next() );
-			return qa;
+		//the advised index to use...
+		QueryAdvice qa = chooseByCost(candidates);
+		boolean isExtentCheaper = false;
+		if (qa == null) {
+			//no statistics
+			qa = chooseByWidth(candidates, queryTree);
+		} else if (qa.getSelectivity() * INDEX_SCAN_COST >= EXTENT_SCAN_COST) {
+			//low selectivity, a sequential scan is cheaper than random access 
+			qa = new QueryAdvice(queryTree);
+			isExtentCheaper = true;
 		}
 		
-		for (Map.Entry<ZooFieldDef, Long> me2: minMap.entrySet()) {
-			long min2 = me2.getValue();
-			long max2 = maxMap.get(me2.getKey());
-			//TODO fix for very large values
-			if ((max2-min2) < (qa.getMax() - qa.getMin())) {
-				qa.setIndex( me2.getKey() );
-				qa.setMin( min2 );
-				qa.setMax( max2 );
+		//composite indices
+		QueryAdvice qaBest = null;
+		int nColsBest = 0;
+		for (CompositeIndexDef ci: composites) {
+			QueryAdvice qa2 = new QueryAdvice(queryTree);
+			int nCols = determineCompositeRange(ci, qa2, minMap, maxMap, minStrMap, maxStrMap);
+			if (nCols > nColsBest) {
+				qaBest = qa2;
+				nColsBest = nCols;
 			}
 		}
+		//Use the composite index if it covers several fields or if no other index applies. 
+		if (qaBest != null && (nColsBest > 1 || (qa.getIndex() == null && !isExtentCheaper))) {
+			qa = qaBest;
+		}
 		
-		if (qa.getIndex().isString()) {
-			//For String we have to extend the range because of the trailing hashcode
-			qa.setMin(BitTools.getMinPosInPage(qa.getMin()));
-			qa.setMax(BitTools.getMaxPosInPage(qa.getMax()));
+		if (qa.isIndexed()) {
+			addIntersections(qa, minMap, maxMap, minStrMap, maxStrMap);
 		}
 
 //		DatabaseLogger.debugPrintln(0, "Using index: " + def.getName());
 		return qa;
 	}
 
+	/**
+	 * Choose the index with the smallest range. Equality is considered the smallest range.
+	 * @return The advice, or an advice without index if there are no candidates.
+	 */
+	private static QueryAdvice chooseByWidth(List<QueryAdvice> candidates, 
+			QueryTreeNode queryTree) {
+		QueryAdvice qa = new QueryAdvice(queryTree);
+		long qaWidth = 0;
+		for (QueryAdvice c: candidates) {
+			long width;
+			if (c.hasStringRange()) {
+				width = rangeWidth(c.getMinString(), c.getMaxString());
+			} else {
+				//TODO fix for very large values
+				width = c.getMax() - c.getMin();
+			}
+			if (qa.getIndex() == null || width < qaWidth) {
+				qa = c;
+				qaWidth = width;
+			}
+		}
+		return qa;
+	}
+	
+	/**
+	 * Choose the index with the smallest estimated selectivity.
+	 * @return The advice, or {@code null} if there are no candidates or if the statistics 
+	 * of any of the candidates are missing.
+	 */
+	private QueryAdvice chooseByCost(List<QueryAdvice> candidates) {
+		QueryAdvice qa = null;
+		for (QueryAdvice c: candidates) {
+			double sel = estimateSelectivity(c);
+			if (sel < 0) {
+				return null;
+			}
+			c.setSelectivity(sel);
+			if (qa == null || sel < qa.getSelectivity()) {
+				qa = c;
+			}
+		}
+		return qa;
+	}
+	
+	/**
+	 * @return The estimated fraction of the index that is covered by the range of the 
+	 * advice, or -1 if no statistics are available. 
+	 */
+	private double estimateSelectivity(QueryAdvice qa) {
+		if (node == null) {
+			return -1;
+		}
+		IndexStatistics stats = node.getIndexStatistics(qa.getIndex());
+		if (stats == null) {
+			return -1;
+		}
+		if (qa.hasStringRange()) {
+			return stats.estimateSelectivity(qa.getMinString(), qa.getMaxString());
+		}
+		return stats.estimateSelectivity(qa.getMin(), qa.getMax());
+	}
+	
+	/**
+	 * Add the ranges of other indexed fields. With statistics, a range is added if reading 
+	 * its OIDs is cheaper than loading the objects that are filtered out by it. Without 
+	 * statistics, only equality is considered selective enough to be worth an additional 
+	 * index scan.
+	 */
+	private void addIntersections(QueryAdvice qa,
+			IdentityHashMap<ZooFieldDef, Long> minMap, 
+			IdentityHashMap<ZooFieldDef, Long> maxMap,
+			IdentityHashMap<ZooFieldDef, String> minStrMap, 
+			IdentityHashMap<ZooFieldDef, String> maxStrMap) {
+		ZooFieldDef main = qa.getIndex();
+		if (main != null && main.isIndexUnique() && 
+				(main.isString() ? qa.getMinString() != null && 
+						qa.getMinString().equals(qa.getMaxString()) : 
+					qa.getMin() == qa.getMax())) {
+			//at most one result, nothing to intersect with
+			return;
+		}
+		CompositeIndexDef ci = qa.getCompositeIndex();
+		for (Map.Entry<ZooFieldDef, Long> me: minMap.entrySet()) {
+			ZooFieldDef f = me.getKey();
+			if (!f.isIndexed() || f == main || (ci != null && ci.containsField(f))) {
+				continue;
+			}
+			QueryAdvice qa2 = new QueryAdvice(qa.getQuery());
+			qa2.setIndex(f);
+			qa2.setMin(me.getValue());
+			qa2.setMax(maxMap.get(f));
+			if (isIntersectionUseful(qa, qa2, qa2.getMin() == qa2.getMax())) {
+				qa.addIntersection(qa2);
+			}
+		}
+		for (Map.Entry<ZooFieldDef, String> me: minStrMap.entrySet()) {
+			ZooFieldDef f = me.getKey();
+			if (!f.isIndexed() || f == main || (ci != null && ci.containsField(f))) {
+				continue;
+			}
+			QueryAdvice qa2 = new QueryAdvice(qa.getQuery());
+			qa2.setIndex(f);
+			qa2.setMinString(me.getValue());
+			qa2.setMaxString(maxStrMap.get(f));
+			if (isIntersectionUseful(qa, qa2, 
+					qa2.getMinString() != null && qa2.getMinString().equals(qa2.getMaxString()))) {
+				qa.addIntersection(qa2);
+			}
+		}
+	}
+	
+	private boolean isIntersectionUseful(QueryAdvice qa, QueryAdvice qa2, boolean isEquality) {
+		double sel2 = estimateSelectivity(qa2);
+		if (sel2 < 0 || qa.getSelectivity() < 0) {
+			return isEquality;
+		}
+		qa2.setSelectivity(sel2);
+		//reading the OIDs of qa2 vs loading the objects of qa that are not in qa2
+		return sel2 * INDEX_ENTRY_COST < qa.getSelectivity() * (1 - sel2) * RANDOM_READ_COST;
+	}
+	
+	private static boolean isInCompositeIndex(ZooFieldDef f, List<CompositeIndexDef> composites) {
+		for (CompositeIndexDef ci: composites) {
+			if (ci.containsField(f)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Determine the key range of a composite index. 
+	 * The keys are ordered by the first field, then by the second field, and so on. So we can 
+	 * use the longest prefix of fields that are constrained by equality, plus a range on the 
+	 * following field. Subsequent fields can not narrow the range.
+	 * The upper limit of the range may include keys that do not match, but the query is 
+	 * evaluated on all returned objects anyway.
+	 * 
+	 * @param ci The composite index
+	 * @param qa The advice to set up
+	 * @return The number of fields that are used to narrow the range, or 0 if the index is
+	 * not useful.
+	 */
+	private static int determineCompositeRange(CompositeIndexDef ci, QueryAdvice qa, 
+			IdentityHashMap<ZooFieldDef, Long> minMap, 
+			IdentityHashMap<ZooFieldDef, Long> maxMap,
+			IdentityHashMap<ZooFieldDef, String> minStrMap, 
+			IdentityHashMap<ZooFieldDef, String> maxStrMap) {
+		StringBuilder prefix = new StringBuilder();
+		int nCols = 0;
+		String min = null;
+		String max = null;
+		for (ZooFieldDef f: ci.getFields()) {
+			StringBuilder minSB = null;
+			StringBuilder maxSB = null;
+			if (f.isString()) {
+				if (!minStrMap.containsKey(f)) {
+					break;
+				}
+				String min2 = minStrMap.get(f);
+				String max2 = maxStrMap.get(f);
+				if (min2 != null && min2.equals(max2)) {
+					ci.appendString(prefix, min2);
+					nCols++;
+					continue;
+				}
+				if (min2 != null) {
+					minSB = new StringBuilder(prefix);
+					ci.appendString(minSB, min2);
+				}
+				if (max2 != null) {
+					maxSB = new StringBuilder(prefix);
+					ci.appendString(maxSB, max2);
+				}
+			} else {
+				if (!minMap.containsKey(f)) {
+					break;
+				}
+				long min2 = minMap.get(f);
+				long max2 = maxMap.get(f);
+				if (min2 == max2) {
+					CompositeKey.appendLong(prefix, min2);
+					nCols++;
+					continue;
+				}
+				if (min2 > f.getMinValue()) {
+					minSB = new StringBuilder(prefix);
+					CompositeKey.appendLong(minSB, min2);
+				}
+				if (max2 < f.getMaxValue()) {
+					maxSB = new StringBuilder(prefix);
+					CompositeKey.appendLong(maxSB, max2);
+				}
+			}
+			//range on the current field
+			if (minSB != null) {
+				min = minSB.toString();
+			}
+			if (maxSB != null) {
+				max = CompositeKey.prefixEnd(maxSB.toString());
+			}
+			if (min != null || max != null) {
+				nCols++;
+			}
+			break;
+		}
+		if (nCols == 0) {
+			return 0;
+		}
+		if (prefix.length() > 0) {
+			if (min == null) {
+				min = prefix.toString();
+			}
+			if (max == null) {
+				max = CompositeKey.prefixEnd(prefix.toString());
+			}
+		}
+		qa.setCompositeIndex(ci);
+		qa.setMinString(min);
+		qa.setMaxString(max);
+		return nCols;
+	}
+
+	/**
+	 * Narrow the range of a String index. The resulting range may include values that do not
+	 * match, for example for '<', but the query is evaluated on all returned objects anyway.
+	 */
+	private static void determineStringRange(QueryTerm term, String value, 
+			IdentityHashMap<ZooFieldDef, String> minMap, 
+			IdentityHashMap<ZooFieldDef, String> maxMap) {
+		ZooFieldDef f = term.getFieldDef();
+		switch (term.getOp()) {
+		case EQ: 
+			minMap.put(f, value);
+			maxMap.put(f, value);
+			break;
+		case L:
+		case LE: 				
+			if (compareMax(value, maxMap.get(f)) < 0) {
+				maxMap.put(f, value);
+			}
+			break;
+		case A: 
+			//the smallest String that is larger than 'value'
+			value = value + '\u0000';
+			if (compareMin(value, minMap.get(f)) > 0) {
+				minMap.put(f, value);
+			}
+			break;
+		case AE:
+			if (compareMin(value, minMap.get(f)) > 0) {
+				minMap.put(f, value);
+			}
+			break;
+		case NE:
+			//ignore
+			break;
+		default: 
+			throw new IllegalArgumentException("Name: " + term.getOp());
+		}
+	}
+
 	private void optimize(QueryTreeNode q) {
 		stripUnaryNodes(q);
 	}
@@ -22,6 +22,7 @@ package org.zoodb.internal.query;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -54,6 +55,13 @@ public final class QueryParser {
 	private final ZooClassDef clsDef;
 	private final Map<String, ZooFieldDef> fields;
 	private final  List<QueryParameter> parameters;
+	private long rangeFrom = 0;
+	private long rangeTo = Long.MAX_VALUE;
+	private QueryParameter rangeFromParam = null;
+	private QueryParameter rangeToParam = null;
+	private boolean hasRange = false;
+	private String grouping = null;
+	private String ordering = null;
 	
 	public QueryParser(String query, ZooClassDef clsDef, List<QueryParameter> parameters) {
 		this.str = query; 
@@ -127,7 +135,46 @@ public final class QueryParser {
 		return str.substring(pos0, pos1);
 	}
 	
+	/**
+	 * Case insensitive check whether the remaining string starts with the given keyword.
+	 * @param keyword
+	 * @return {@code true} if the keyword follows
+	 */
+	private boolean startsWith(String keyword) {
+		return str.regionMatches(true, pos, keyword, 0, keyword.length());
+	}
+	
+	/**
+	 * Case insensitive check whether the remaining string starts with the given keyword, 
+	 * followed by a whitespace or the end of the string.
+	 * @param keyword
+	 * @return {@code true} if the keyword follows
+	 */
+	private boolean startsWithKeyword(String keyword) {
+		return startsWith(keyword) && 
+				(isFinished(keyword.length()) || isWS(charAt(keyword.length())));
+	}
+	
+	/**
+	 * @return {@code true} if one of the clauses that may follow the filter begins here.
+	 */
+	private boolean isClause() {
+		return startsWithKeyword("PARAMETERS") || startsWithKeyword("GROUP BY") || 
+				startsWithKeyword("ORDER BY") || startsWithKeyword("RANGE");
+	}
+	
+	/**
+	 * @return The query tree or {@code null} if the query consists only of clauses such as 
+	 * 'GROUP BY', 'ORDER BY' or 'RANGE'.
+	 */
 	public QueryTreeNode parseQuery() {
+		trim();
+		if (isClause()) {
+			//no filter
+			parseClauses();
+			return null;
+		}
+		
 		//Negation is used to invert negated operand.
 		//We just pass it down the tree while parsing, always inverting the flag if a '!' is
 		//encountered. When popping out of a function, the flag is reset to the value outside
@@ -185,25 +232,17 @@ public final class QueryParser {
 			op = LOG_OP.AND;
 		} else if (c == '|' && c2 ==  '|') {
             op = LOG_OP.OR;
-		} else if (substring(pos, pos+10).toUpperCase().equals("PARAMETERS")) {
-			inc(10);
-			trim();
-			parseParameters();
+		} else if (isClause()) {
+			parseClauses();
 			if (qt1 == null) {
 				return qn1;
 			} else {
 				return new QueryTreeNode(qn1, qt1, null, null, null, negate);
 			}
-		} else if (substring(pos, pos+9).toUpperCase().equals("VARIABLES")) {
+		} else if (startsWith("VARIABLES")) {
 			throw new UnsupportedOperationException("JDO feature not supported: VARIABLES");
-		} else if (substring(pos, pos+7).toUpperCase().equals("IMPORTS")) {
+		} else if (startsWith("IMPORTS")) {
 			throw new UnsupportedOperationException("JDO feature not supported: IMPORTS");
-		} else if (substring(pos, pos+8).toUpperCase().equals("GROUP BY")) {
-			throw new UnsupportedOperationException("JDO feature not supported: GROUP BY");
-		} else if (substring(pos, pos+8).toUpperCase().equals("ORDER BY")) {
-			throw new UnsupportedOperationException("JDO feature not supported: ORDER BY");
-		} else if (substring(pos, pos+5).toUpperCase().equals("RANGE")) {
-			throw new UnsupportedOperationException("JDO feature not supported: RANGE");
 		} else {
 			throw DBLogger.newUser("Unexpected characters: '" + c + c2 + c3 + "' at: " + pos());
 		}
@@ -526,8 +565,71 @@ public final class QueryParser {
 		}
 	}
 
-	private void parseParameters() {
+	/**
+	 * Parses the clauses that may follow the filter, in the order defined by JDO.
+	 */
+	private void parseClauses() {
+		//Parameters can be used in the range, so we apply the declarations at the end 
+		List<QueryParameter> declarations = new ArrayList<QueryParameter>();
+		if (startsWithKeyword("PARAMETERS")) {
+			inc(10);
+			trim();
+			parseParameters(declarations);
+		}
+		if (startsWithKeyword("GROUP BY")) {
+			inc(8);
+			grouping = parseClause("ORDER BY", "RANGE");
+		}
+		if (startsWithKeyword("ORDER BY")) {
+			inc(8);
+			ordering = parseClause("RANGE");
+		}
+		if (startsWithKeyword("RANGE")) {
+			inc(5);
+			parseRange();
+		}
+		if (!isFinished()) {
+			throw DBLogger.newUser("Unexpected characters at " + pos() + ": '" + 
+					substring(pos(), str.length()) + "'");
+		}
+		for (QueryParameter p: declarations) {
+			updateParameterType(p.getType(), (String) p.getName());
+		}
+	}
+	
+	/**
+	 * Parses a clause up to the next of the given keywords or to the end of the query.
+	 * @param nextKeywords The keywords of clauses that may follow
+	 * @return The trimmed clause
+	 */
+	private String parseClause(String ... nextKeywords) {
+		int pos0 = pos();
 		while (!isFinished()) {
+			if (isWS(str.charAt(pos() - 1))) {
+				for (String keyword: nextKeywords) {
+					if (startsWithKeyword(keyword)) {
+						return checkClause(substring(pos0, pos()), pos0);
+					}
+				}
+			}
+			inc();
+		}
+		return checkClause(substring(pos0, pos()), pos0);
+	}
+	
+	private String checkClause(String clause, int pos0) {
+		clause = clause.trim();
+		if (clause.length() == 0) {
+			throw DBLogger.newUser("Can not parse query at position " + pos0 + ": " + str);
+		}
+		return clause;
+	}
+	
+	private void parseParameters(List<QueryParameter> declarations) {
+		while (!isFinished()) {
+			if (isClause()) {
+				return;
+			}
 			char c = charAt0();
 			int pos0 = pos;
 			while ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || (c=='_') || (c=='.')) {
@@ -539,9 +641,6 @@ public final class QueryParser {
 	
 			//TODO check here for
 			//IMPORTS
-			//GROUP_BY
-			//ORDER_BY
-			//RANGE
 			//TODO .. and implement according sub-methods
 			
 			trim();
@@ -553,18 +652,111 @@ public final class QueryParser {
 				c = charAt0();
 			}
 			String paramName = substring(pos0, pos());
-			updateParameterType(typeName, paramName);
+			if (typeName.length() == 0 || paramName.length() == 0) {
+				throw DBLogger.newUser("Can not parse parameters at position " + pos0 + ": " + 
+						str);
+			}
+			declarations.add(new QueryParameter(typeName, paramName));
 			trim();
+			if (!isFinished() && charAt0() == ',') {
+				inc();
+				trim();
+			}
 		}
 	}
 	
-	private void addParameter(String type, String name) {
+	/**
+	 * Parses the remainder of the query string as range. 
+	 */
+	private void parseRange() {
+		parseRange(substring(pos, str.length()));
+		pos = str.length();
+	}
+	
+	/**
+	 * Parse a range of the form "fromIncl, toExcl". The bounds can be numbers or parameters, 
+	 * for example ":from, :to". Parameters are added to the parameters of the query, their 
+	 * values are assigned when the query is executed.
+	 * @param range
+	 */
+	public void parseRange(String range) {
+		String[] parts = range.split(",", -1);
+		if (parts.length != 2) {
+			throw DBLogger.newUser("Invalid range: '" + range + "'");
+		}
+		long[] bounds = new long[2];
+		QueryParameter[] params = new QueryParameter[2];
+		for (int i = 0; i < 2; i++) {
+			String s = parts[i].trim();
+			if (s.length() > 1 && s.charAt(0) == ':') {
+				//implicit parameter
+				params[i] = addParameter("long", s.substring(1));
+			} else if (s.length() > 0 && Character.isJavaIdentifierStart(s.charAt(0))) {
+				params[i] = addParameter(null, s);
+			} else {
+				try {
+					bounds[i] = Long.parseLong(s);
+				} catch (NumberFormatException e) {
+					throw DBLogger.newUser("Invalid range: '" + range + "'", e);
+				}
+			}
+		}
+		rangeFrom = bounds[0];
+		rangeTo = bounds[1];
+		rangeFromParam = params[0];
+		rangeToParam = params[1];
+		hasRange = true;
+	}
+	
+	public boolean hasRange() {
+		return hasRange;
+	}
+	
+	public long getRangeFrom() {
+		return rangeFrom;
+	}
+	
+	public long getRangeTo() {
+		return rangeTo;
+	}
+	
+	/**
+	 * @return The parameter of the lower bound or {@code null} if the bound is a number.
+	 */
+	public QueryParameter getRangeFromParam() {
+		return rangeFromParam;
+	}
+	
+	/**
+	 * @return The parameter of the upper bound or {@code null} if the bound is a number.
+	 */
+	public QueryParameter getRangeToParam() {
+		return rangeToParam;
+	}
+	
+	/**
+	 * @return The grouping of the 'GROUP BY' clause or {@code null} if there is none.
+	 */
+	public String getGrouping() {
+		return grouping;
+	}
+	
+	/**
+	 * @return The ordering of the 'ORDER BY' clause or {@code null} if there is none.
+	 */
+	public String getOrdering() {
+		return ordering;
+	}
+	
+	private QueryParameter addParameter(String type, String name) {
 		for (QueryParameter p: parameters) {
 			if (p.getName().equals(name)) {
 				throw DBLogger.newUser("Duplicate parameter name: " + name);
 			}
 		}
-		this.parameters.add(new QueryParameter(type, name));
+		QueryParameter param = new QueryParameter(type, name);
+		this.parameters.add(param);
+		return param;
 	}
 	
 	private void updateParameterType(String type, String name) {
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.query;
+
+import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.DataDeSerializerNoClass;
+import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.client.AbstractCache;
+import org.zoodb.internal.server.StorageChannelInput;
+import org.zoodb.internal.util.PrimLongMapLI;
+
+/**
+ * A filter that evaluates a query directly on serialized objects. This allows iterators
+ * to skip objects that do not match the query without deserializing them.
+ * 
+ * The filter never rejects matching objects, but it may accept non-matching objects. This
+ * happens for objects that are in the cache (these may have been modified locally) and for 
+ * objects whose schema version does not contain the fields of the query. Therefore the query 
+ * still needs to be evaluated on all returned objects.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class QueryPreFilter {
+
+	private final QueryTreeNode query;
+	private final AbstractCache cache;
+	private final boolean checkCache;
+	//schema OID -> whether objects of that schema can be evaluated 
+	private final PrimLongMapLI<Boolean> evaluable = new PrimLongMapLI<Boolean>();
+	
+	/**
+	 * 
+	 * @param query The query, {@link QueryTreeNode#isEvaluableSerialized()} must be true.
+	 * @param cache
+	 * @param checkCache Whether cached objects should always pass the filter. This should be
+	 * {@code true} if cached objects take precedence over serialized objects.
+	 */
+	public QueryPreFilter(QueryTreeNode query, AbstractCache cache, boolean checkCache) {
+		this.query = query;
+		this.cache = cache;
+		this.checkCache = checkCache;
+	}
+	
+	/**
+	 * @param in The reader, the filter seeks the position of the object.
+	 * @param pos Position of the serialized object.
+	 * @return {@code false} if the object is definitely not a match.
+	 */
+	public boolean mayMatch(StorageChannelInput in, long pos) {
+		DataDeSerializerNoClass dds = new DataDeSerializerNoClass(in);
+		dds.seekPos(pos);
+		long clsOid = dds.getClassOid();
+		if (checkCache) {
+			ZooPCImpl co = cache.findCoByOID(dds.getLastOid());
+			if (co != null && !co.jdoZooIsStateHollow()) {
+				return true;
+			}
+		}
+		Boolean isEvaluable = evaluable.get(clsOid);
+		if (isEvaluable == null) {
+			ZooClassDef def = cache.getSchema(clsOid);
+			isEvaluable = def != null && query.isBranchContainedIn(def.getAllFields());
+			evaluable.put(clsOid, isEvaluable);
+		}
+		if (!isEvaluable) {
+			return true;
+		}
+		return query.evaluate(dds, pos);
+	}
+	
+}
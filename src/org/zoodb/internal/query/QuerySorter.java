@@ -0,0 +1,394 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.Session;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Sorts query results. The keys of each object are extracted only once. 
+ * 
+ * Objects are added one by one, the sorter returns the first {@code max} objects of the 
+ * sorted result. If {@code max} fits into the sort buffer (see 
+ * {@link ZooConfig#setQuerySortBufferSize(int)}), for example for queries with a range,
+ * only the best {@code max} objects are kept in a bounded heap.
+ * 
+ * Otherwise, if the result is larger than the sort buffer, an external merge sort is 
+ * performed: The keys are sorted in runs that fit into the buffer. Each run is written to a 
+ * temporary file as pairs of OID and keys, the objects themselves are not retained. The runs
+ * are then merged and the objects are loaded by their OID in the order of the merged runs.
+ * 
+ * The sort is stable.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class QuerySorter {
+
+	private static final class Entry {
+		final Object[] keys;
+		final int pos;
+		//null for entries that were read from a run
+		final Object obj;
+		final long oid;
+		Entry(Object[] keys, int pos, Object obj, long oid) {
+			this.keys = keys;
+			this.pos = pos;
+			this.obj = obj;
+			this.oid = oid;
+		}
+	}
+	
+	private static final class EntryComparator implements Comparator<Entry> {
+		private final QueryComparator comp;
+		EntryComparator(QueryComparator comp) {
+			this.comp = comp;
+		}
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			int res = comp.compareKeys(e1.keys, e2.keys);
+			if (res != 0) {
+				return res;
+			}
+			//ensure stability
+			return e1.pos < e2.pos ? -1 : (e1.pos == e2.pos ? 0 : 1);
+		}
+	}
+	
+	//type tags for spilled keys
+	private static final byte T_NULL = 0;
+	private static final byte T_BOOL = 1;
+	private static final byte T_BYTE = 2;
+	private static final byte T_CHAR = 3;
+	private static final byte T_SHORT = 4;
+	private static final byte T_INT = 5;
+	private static final byte T_LONG = 6;
+	private static final byte T_FLOAT = 7;
+	private static final byte T_DOUBLE = 8;
+	private static final byte T_STRING = 9;
+	private static final byte T_DATE = 10;
+	private static final byte T_BIG_INT = 11;
+	private static final byte T_BIG_DEC = 12;
+	
+	private final QueryComparator comp;
+	private final EntryComparator ec;
+	private final long max;
+	private final int bufferSize;
+	private final Session session;
+	//bounded heap with the largest entry on top, or null
+	private final PriorityQueue<Entry> heap;
+	//current run, or null
+	private final ArrayList<Entry> buffer;
+	private final ArrayList<File> runs = new ArrayList<File>();
+	private int n = 0;
+	
+	/**
+	 * @param comp The comparator
+	 * @param max The maximum number of objects to return, i.e. the end of the range.
+	 * @param session The session to load objects after an external sort.
+	 */
+	public QuerySorter(QueryComparator comp, long max, Session session) {
+		this(comp, max, session, ZooConfig.getQuerySortBufferSize());
+	}
+	
+	/**
+	 * @param comp The comparator
+	 * @param max The maximum number of objects to return, i.e. the end of the range.
+	 * @param session The session to load objects after an external sort.
+	 * @param bufferSize Maximum number of entries that are sorted in memory.
+	 */
+	public QuerySorter(QueryComparator comp, long max, Session session, int bufferSize) {
+		this.comp = comp;
+		this.ec = new EntryComparator(comp);
+		this.max = max;
+		this.bufferSize = bufferSize;
+		this.session = session;
+		if (max <= bufferSize) {
+			heap = new PriorityQueue<Entry>(Math.max(1, (int) max), 
+					Collections.reverseOrder(ec));
+			buffer = null;
+		} else {
+			heap = null;
+			buffer = new ArrayList<Entry>();
+		}
+	}
+	
+	/**
+	 * Add an object to the result.
+	 * @param o
+	 */
+	public void add(Object o) {
+		Entry e = new Entry(comp.getKeys(o), n++, o, ((ZooPCImpl)o).jdoZooGetOid());
+		if (heap != null) {
+			if (heap.size() < max) {
+				heap.add(e);
+			} else if (max > 0 && ec.compare(e, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(e);
+			}
+			return;
+		}
+		buffer.add(e);
+		if (buffer.size() >= bufferSize) {
+			Collections.sort(buffer, ec);
+			try {
+				runs.add(writeRun(buffer));
+			} catch (IOException ex) {
+				deleteRuns();
+				throw DBLogger.newFatal("Error while sorting query result.", ex);
+			}
+			buffer.clear();
+		}
+	}
+	
+	/**
+	 * @return The first {@code max} objects of the sorted result.
+	 */
+	public ArrayList<Object> getResult() {
+		if (heap != null) {
+			Entry[] entries = heap.toArray(new Entry[heap.size()]);
+			heap.clear();
+			Arrays.sort(entries, ec);
+			ArrayList<Object> ret = new ArrayList<Object>(entries.length);
+			for (Entry e: entries) {
+				ret.add(e.obj);
+			}
+			return ret;
+		}
+		Collections.sort(buffer, ec);
+		if (runs.isEmpty()) {
+			ArrayList<Object> ret = new ArrayList<Object>(buffer.size());
+			for (int i = 0; i < buffer.size() && i < max; i++) {
+				ret.add(buffer.get(i).obj);
+			}
+			buffer.clear();
+			return ret;
+		}
+		try {
+			if (!buffer.isEmpty()) {
+				runs.add(writeRun(buffer));
+				buffer.clear();
+			}
+			return merge();
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error while sorting query result.", e);
+		} finally {
+			deleteRuns();
+		}
+	}
+	
+	private void deleteRuns() {
+		for (File f: runs) {
+			f.delete();
+		}
+		runs.clear();
+	}
+
+	private static final class RunReader {
+		private final DataInputStream in;
+		private Entry current;
+		RunReader(File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		}
+		boolean next() throws IOException {
+			int pos;
+			try {
+				pos = in.readInt();
+			} catch (EOFException e) {
+				current = null;
+				in.close();
+				return false;
+			}
+			long oid = in.readLong();
+			int nKeys = in.readInt();
+			Object[] keys = new Object[nKeys];
+			for (int i = 0; i < nKeys; i++) {
+				keys[i] = readKey(in);
+			}
+			current = new Entry(keys, pos, null, oid);
+			return true;
+		}
+		void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	private ArrayList<Object> merge() throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runs.size(),
+				new Comparator<RunReader>() {
+					@Override
+					public int compare(RunReader r1, RunReader r2) {
+						return ec.compare(r1.current, r2.current);
+					}
+		});
+		ArrayList<RunReader> readers = new ArrayList<RunReader>();
+		try {
+			for (File f: runs) {
+				RunReader r = new RunReader(f);
+				readers.add(r);
+				if (r.next()) {
+					queue.add(r);
+				}
+			}
+			ArrayList<Object> ret = new ArrayList<Object>();
+			while (!queue.isEmpty() && ret.size() < max) {
+				RunReader r = queue.poll();
+				ret.add(session.getObjectById(r.current.oid));
+				if (r.next()) {
+					queue.add(r);
+				}
+			}
+			return ret;
+		} finally {
+			for (RunReader r: readers) {
+				r.close();
+			}
+		}
+	}
+	
+	private static File writeRun(List<Entry> entries) throws IOException {
+		File f = File.createTempFile("zoodbSort", ".tmp");
+		f.deleteOnExit();
+		DataOutputStream out = 
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			for (Entry e: entries) {
+				out.writeInt(e.pos);
+				out.writeLong(e.oid);
+				out.writeInt(e.keys.length);
+				for (Object k: e.keys) {
+					writeKey(out, k);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return f;
+	}
+	
+	private static void writeKey(DataOutputStream out, Object k) throws IOException {
+		if (k == null) {
+			out.writeByte(T_NULL);
+		} else if (k instanceof Boolean) {
+			out.writeByte(T_BOOL);
+			out.writeBoolean((Boolean) k);
+		} else if (k instanceof Byte) {
+			out.writeByte(T_BYTE);
+			out.writeByte((Byte) k);
+		} else if (k instanceof Character) {
+			out.writeByte(T_CHAR);
+			out.writeChar((Character) k);
+		} else if (k instanceof Short) {
+			out.writeByte(T_SHORT);
+			out.writeShort((Short) k);
+		} else if (k instanceof Integer) {
+			out.writeByte(T_INT);
+			out.writeInt((Integer) k);
+		} else if (k instanceof Long) {
+			out.writeByte(T_LONG);
+			out.writeLong((Long) k);
+		} else if (k instanceof Float) {
+			out.writeByte(T_FLOAT);
+			out.writeFloat((Float) k);
+		} else if (k instanceof Double) {
+			out.writeByte(T_DOUBLE);
+			out.writeDouble((Double) k);
+		} else if (k instanceof String) {
+			out.writeByte(T_STRING);
+			String s = (String) k;
+			out.writeInt(s.length());
+			out.writeChars(s);
+		} else if (k instanceof Date) {
+			out.writeByte(T_DATE);
+			out.writeLong(((Date) k).getTime());
+		} else if (k instanceof BigInteger) {
+			out.writeByte(T_BIG_INT);
+			byte[] ba = ((BigInteger) k).toByteArray();
+			out.writeInt(ba.length);
+			out.write(ba);
+		} else if (k instanceof BigDecimal) {
+			out.writeByte(T_BIG_DEC);
+			BigDecimal bd = (BigDecimal) k;
+			byte[] ba = bd.unscaledValue().toByteArray();
+			out.writeInt(bd.scale());
+			out.writeInt(ba.length);
+			out.write(ba);
+		} else {
+			throw DBLogger.newUser("Type not supported for ordering: " + k.getClass().getName());
+		}
+	}
+	
+	private static Object readKey(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case T_NULL: return null;
+		case T_BOOL: return in.readBoolean();
+		case T_BYTE: return in.readByte();
+		case T_CHAR: return in.readChar();
+		case T_SHORT: return in.readShort();
+		case T_INT: return in.readInt();
+		case T_LONG: return in.readLong();
+		case T_FLOAT: return in.readFloat();
+		case T_DOUBLE: return in.readDouble();
+		case T_STRING: {
+			char[] ca = new char[in.readInt()];
+			for (int i = 0; i < ca.length; i++) {
+				ca[i] = in.readChar();
+			}
+			return new String(ca);
+		}
+		case T_DATE: return new Date(in.readLong());
+		case T_BIG_INT: {
+			byte[] ba = new byte[in.readInt()];
+			in.readFully(ba);
+			return new BigInteger(ba);
+		}
+		case T_BIG_DEC: {
+			int scale = in.readInt();
+			byte[] ba = new byte[in.readInt()];
+			in.readFully(ba);
+			return new BigDecimal(new BigInteger(ba), scale);
+		}
+		default:
+			throw DBLogger.newFatal("Corrupted sort file, type=" + type);
+		}
+	}
+}
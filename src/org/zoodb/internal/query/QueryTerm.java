@@ -22,6 +22,7 @@ package org.zoodb.internal.query;
 
 import java.lang.reflect.Field;
 
+import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.DataDeSerializerNoClass;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.query.QueryParser.COMP_OP;
@@ -66,11 +67,13 @@ public final class QueryTerm {
 		return value;
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public boolean evaluate(Object o) {
 		// we can not cache this, because sub-classes may have different field instances.
 		//TODO cache per class? Or reset after query has processed first class set?
 		Field f = fieldDef.getJavaField();
+		if (o instanceof ZooPCImpl) {
+			((ZooPCImpl)o).jdoZooActivateField(fieldDef.getFieldPos());
+		}
 
 		Object oVal;
 		try {
@@ -82,6 +85,39 @@ public final class QueryTerm {
 			throw DBLogger.newFatalInternalException(
 					"Can not access field: " + fieldDef.getName(), e);
 		}
+		return evaluateValue(oVal);
+	}
+
+	/**
+	 * Evaluate the term directly on a serialized object. This requires that 
+	 * {@link #isEvaluableSerialized()} returns {@code true} and that the field is part of the
+	 * schema of the object.
+	 * @param dds
+	 * @param pos
+	 * @return Whether the object is a match.
+	 */
+	public boolean evaluate(DataDeSerializerNoClass dds, long pos) {
+		dds.seekPos(pos);
+		return evaluateValue(dds.getAttrAsObject(fieldDef));
+	}
+
+	/**
+	 * Strings and references can only be compared to {@code null} without materializing
+	 * them. Other SCOs can not be evaluated at all.
+	 * @return Whether this term can be evaluated on serialized objects.
+	 */
+	boolean isEvaluableSerialized() {
+		if (fieldDef.isPrimitiveType() || fieldDef.isDate()) {
+			return true;
+		}
+		if (fieldDef.isString() || fieldDef.isPersistentType()) {
+			return getValue() == QueryParser.NULL;
+		}
+		return false;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private boolean evaluateValue(Object oVal) {
 		//TODO avoid indirection and store Parameter value in local _value field !!!!!!!!!!!!!!!!
 		Object qVal = getValue();
 		if (oVal == null) {
@@ -117,43 +153,6 @@ public final class QueryTerm {
 		return false;
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	public boolean evaluate(DataDeSerializerNoClass dds, long pos) {
-		// we can not cache this, because sub-classes may have different field instances.
-		//TODO cache per class? Or reset after query has processed first class set?
-		//Field f = fieldDef.getJavaField();
-
-		Object oVal;
-//		try {
-			dds.seekPos(pos);
-			//TODO this doesn't really work for float/double
-			oVal = dds.getAttrAsLong(fieldDef.getDeclaringType(), fieldDef);
-//		} catch (IllegalArgumentException e) {
-//			throw new JDOFatalInternalException("Can not access field: " + fieldDef.getName() + 
-//					" cl=" + fieldDef.getDeclaringType().getClassName() + 
-//					" fcl=" + f.getDeclaringClass().getName(), e);
-//		}
-		//TODO avoid indirection and store Parameter value in local _value field !!!!!!!!!!!!!!!!
-		Object qVal = getValue();
-		if (oVal == null && qVal == QueryParser.NULL) {
-			return true;
-		} else if (qVal != QueryParser.NULL && oVal != null) {
-			if (qVal.equals(oVal) && (op==COMP_OP.EQ || op==COMP_OP.LE || op==COMP_OP.AE)) {
-				return true;
-			}
-			if (qVal instanceof Comparable) {
-				Comparable qComp = (Comparable) qVal;
-				int res = qComp.compareTo(oVal);  //-1:<   0:==  1:> 
-				if (res == 1 && (op == COMP_OP.LE || op==COMP_OP.L || op==COMP_OP.NE)) {
-					return true;
-				} else if (res == -1 && (op == COMP_OP.AE || op==COMP_OP.A || op==COMP_OP.NE)) {
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-
 	public String print() {
 		StringBuilder sb = new StringBuilder();
 		sb.append(fieldDef.getName());
@@ -22,7 +22,9 @@ package org.zoodb.internal.query;
 
 import java.util.List;
 
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.DataDeSerializerNoClass;
+import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.query.QueryParser.LOG_OP;
 import org.zoodb.internal.util.DBLogger;
 
@@ -47,22 +49,34 @@ public final class QueryTreeNode {
 		return (_n2==null) && (_t2==null);
 	}
 	
-	private boolean isBranchIndexed() {
-		if (_t1 != null && _t1.getFieldDef().isIndexed()) {
+	private boolean isBranchIndexed(List<CompositeIndexDef> composites) {
+		if (_t1 != null && isIndexed(_t1.getFieldDef(), composites)) {
 			return true;
 		}
-		if (_t2 != null && _t2.getFieldDef().isIndexed()) {
+		if (_t2 != null && isIndexed(_t2.getFieldDef(), composites)) {
 			return true;
 		}
-		if (_n1 != null && _n1.isBranchIndexed()) {
+		if (_n1 != null && _n1.isBranchIndexed(composites)) {
 			return true;
 		}
-		if (_n2 != null && _n2.isBranchIndexed()) {
+		if (_n2 != null && _n2.isBranchIndexed(composites)) {
 			return true;
 		}
 		return false;
 	}
 
+	private static boolean isIndexed(ZooFieldDef f, List<CompositeIndexDef> composites) {
+		if (f.isIndexed()) {
+			return true;
+		}
+		for (CompositeIndexDef ci: composites) {
+			if (ci.containsField(f)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 
 	QueryTreeNode(QueryTreeNode n1, QueryTerm t1, LOG_OP op, QueryTreeNode n2, QueryTerm t2, 
 			boolean negate) {
@@ -132,8 +146,60 @@ public final class QueryTreeNode {
 		return (_n2 != null ? _n2.evaluate(o) : _t2.evaluate(o));
 	}
 	
+	/**
+	 * @return Whether all terms of this branch can be evaluated on serialized objects.
+	 * @see #evaluate(DataDeSerializerNoClass, long)
+	 */
+	public boolean isEvaluableSerialized() {
+		if (_t1 != null && !_t1.isEvaluableSerialized()) {
+			return false;
+		}
+		if (_t2 != null && !_t2.isEvaluableSerialized()) {
+			return false;
+		}
+		if (_n1 != null && !_n1.isEvaluableSerialized()) {
+			return false;
+		}
+		if (_n2 != null && !_n2.isEvaluableSerialized()) {
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @param fields The fields of a schema version.
+	 * @return Whether all fields of this branch are contained in the given fields.
+	 */
+	boolean isBranchContainedIn(ZooFieldDef[] fields) {
+		if (_t1 != null && !contains(fields, _t1.getFieldDef())) {
+			return false;
+		}
+		if (_t2 != null && !contains(fields, _t2.getFieldDef())) {
+			return false;
+		}
+		if (_n1 != null && !_n1.isBranchContainedIn(fields)) {
+			return false;
+		}
+		if (_n2 != null && !_n2.isBranchContainedIn(fields)) {
+			return false;
+		}
+		return true;
+	}
+	
+	static boolean contains(ZooFieldDef[] fields, ZooFieldDef field) {
+		for (ZooFieldDef f: fields) {
+			//Identity! Other schema versions may have the same field at a different offset.
+			if (f == field) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * Evaluate the query directly on a byte buffer rather than on materialized objects. 
+	 * This requires that {@link #isEvaluableSerialized()} returns {@code true} and that 
+	 * the fields of all terms are part of the schema of the object.
 	 * @param pos
 	 * @return Whether the object is a match.
 	 */
@@ -156,16 +222,17 @@ public final class QueryTreeNode {
 	 * This method splits a query into multiple queries for every occurrence of OR.
 	 * It walks down the query tree recursively, always doubling the tree when encountering
 	 * an OR in an indexed branch. A branch is 'indexed' if one of it's terms references
-	 * an indexed field.
+	 * an indexed field or a field of a composite index.
 	 * 
 	 * This method may introduce singular nodes (with one term only) that should be removed
 	 * afterwards.
 	 * 
 	 * @param subQueries container for sub query candidates, which upon return
 	 * contains one sub-query for every call.
+	 * @param composites The composite indices of the candidate class.
 	 */
-	public void createSubs(List<QueryTreeNode> subQueries) {
-		if (!isBranchIndexed()) {
+	public void createSubs(List<QueryTreeNode> subQueries, List<CompositeIndexDef> composites) {
+		if (!isBranchIndexed(composites)) {
 			//nothing to do, stop searching this branch
 			return;
 		}
@@ -225,16 +292,16 @@ public final class QueryTreeNode {
 				newTree = n2;
 			}
 			//subQueriesCandidates.add(newTree.root());
-			newTree.createSubs(subQueries);
+			newTree.createSubs(subQueries, composites);
 			subQueries.add(newTree.root());
 		}
 		
 		//go into sub-nodes
 		if (_n1 != null) {
-			_n1.createSubs(subQueries);
+			_n1.createSubs(subQueries, composites);
 		}
 		if (_n2 != null) {
-			_n2.createSubs(subQueries);
+			_n2.createSubs(subQueries, composites);
 		}
 	}
 	
@@ -269,7 +336,7 @@ public final class QueryTreeNode {
 		return ret;
 	}
 	
-	private QueryTreeNode cloneBranch() {
+	QueryTreeNode cloneBranch() {
 		QueryTreeNode n1 = null;
 		if (_n1 != null) {
 			n1 = _n1.cloneBranch();
@@ -22,16 +22,24 @@ package org.zoodb.internal.server;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.DataDeSerializer;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.ZooHandleImpl;
+import org.zoodb.internal.server.index.IndexStatistics;
 import org.zoodb.internal.server.index.PagedOidIndex;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
+import org.zoodb.internal.query.QueryAccumulator;
+import org.zoodb.internal.query.QueryAdvice;
+import org.zoodb.internal.query.QueryGroupTable;
+import org.zoodb.internal.query.QueryTreeNode;
 import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.tools.DBStatistics.STATS;
 
@@ -41,7 +49,17 @@ public interface DiskAccess {
 	
 	public long[] allocateOids(int oidAllocSize);
 
-	public CloseableIterator<ZooPCImpl> readAllObjects(long schemaId, boolean loadFromCache);
+	/**
+	 * Read all objects of a schema.
+	 * @param schemaId
+	 * @param loadFromCache
+	 * @param filter Optional query that is evaluated on the serialized objects. Objects that 
+	 * do not match are skipped. Returned objects still need to be checked against the query.
+	 * May be {@code null}. 
+	 * @return Iterator over all objects that may match the filter.
+	 */
+	public CloseableIterator<ZooPCImpl> readAllObjects(long schemaId, boolean loadFromCache, 
+			QueryTreeNode filter);
 	
 	/**
 	 * Locate an object.
@@ -49,12 +67,40 @@ public interface DiskAccess {
 	 * @return Path name of the object (later: position of obj)
 	 */
 	public ZooPCImpl readObject(long oid);
+	/**
+	 * Loads a hollow object, unless it has been loaded in the meantime.
+	 * @param pc
+	 * @param useFetchPlan Whether a hollow object should be loaded only partially as defined
+	 * by the fetch groups. If 'false', missing fields of partially loaded objects are loaded.
+	 * @param maxFetchDepth The depth up to which referenced objects are loaded as well, 
+	 * 1 means no prefetching and -1 means no limit.
+	 */
+	public void activateObject(ZooPCImpl pc, boolean useFetchPlan, int maxFetchDepth);
+	/**
+	 * Read objects in the order of their position in the database file, such that every page
+	 * is read only once. Objects that are already loaded and unknown OIDs are skipped.
+	 * @param oids
+	 * @param maxFetchDepth The depth up to which referenced objects are loaded as well, 
+	 * 1 means no prefetching and -1 means no limit.
+	 */
+	public void readObjects(long[] oids, int maxFetchDepth);
 	public ZooPCImpl readObject(DataDeSerializer dds, long oid);
 	
 	public void close();
 
+	/**
+	 * Called at the beginning of a transaction. This moves the session to the latest committed
+	 * state of the database.
+	 */
+	public void beginTransaction();
+
 	public void commit();
 
+	/**
+	 * Discards all uncommitted changes of the current transaction.
+	 */
+	public void rollback();
+
 	/**
 	 * Defines an index and populates it. All objects are put into the cache. This is not 
 	 * necessarily useful, but it is a one-off operation. Otherwise we would need a special
@@ -68,13 +114,95 @@ public interface DiskAccess {
 
 	public boolean removeIndex(ZooClassDef def, ZooFieldDef field);
 
+	/**
+	 * Defines a composite index and populates it with the existing objects.
+	 * @param def
+	 * @param index
+	 */
+	void defineCompositeIndex(ZooClassDef def, CompositeIndexDef index);
+
+	public boolean removeCompositeIndex(ZooClassDef def, CompositeIndexDef index);
+
 	public Collection<ZooClassDef> readSchemaAll();
 
 	/**
 	 * WARNING: float/double values need to be converted with BitTools before used on indices. 
+	 * @param ascending Whether the index should be traversed in ascending or descending order.
+	 * @param filter Optional query that is evaluated on the serialized objects, see 
+	 * {@link #readAllObjects(long, boolean, QueryTreeNode)}. May be {@code null}. 
+	 */
+	Iterator<ZooPCImpl> readObjectFromIndex(ZooFieldDef field, long minValue, long maxValue, 
+			boolean ascending, boolean loadFromCache, QueryTreeNode filter);
+
+	/**
+	 * Variant of {@link #readObjectFromIndex(ZooFieldDef, long, long, boolean, boolean, 
+	 * QueryTreeNode)} for String indices.
+	 * @param minValue The minimum value (inclusive) or {@code null} for no lower limit.
+	 * @param maxValue The maximum value (inclusive) or {@code null} for no upper limit.
+	 */
+	Iterator<ZooPCImpl> readObjectFromIndex(ZooFieldDef field, String minValue, String maxValue, 
+			boolean ascending, boolean loadFromCache, QueryTreeNode filter);
+
+	/**
+	 * Variant of {@link #readObjectFromIndex(ZooFieldDef, String, String, boolean, boolean, 
+	 * QueryTreeNode)} for composite indices. The keys are encoded with 
+	 * {@link org.zoodb.internal.server.index.CompositeKey}.
+	 */
+	Iterator<ZooPCImpl> readObjectFromIndex(CompositeIndexDef index, String minValue, 
+			String maxValue, boolean ascending, boolean loadFromCache, QueryTreeNode filter);
+
+	/**
+	 * Read the objects of the union of the given index ranges. The OIDs of every advice are 
+	 * intersected with the OIDs of its intersections, the resulting OID streams are merged. 
+	 * Every object is loaded only once, in the order of the OIDs.
+	 * @param advices Advices that all use an index.
+	 * @param filter Optional query that is evaluated on the serialized objects. This should be 
+	 * the full query, because an object may be a match for any of the advices.
+	 * May be {@code null}. 
+	 */
+	Iterator<ZooPCImpl> readObjectFromIndices(List<QueryAdvice> advices, boolean loadFromCache, 
+			QueryTreeNode filter);
+
+	/**
+	 * @param field An indexed field
+	 * @return Statistics of the field index or {@code null} if none are available.
+	 */
+	IndexStatistics getIndexStatistics(ZooFieldDef field);
+
+	/**
+	 * @param field A field with an index on {@code long} keys.
+	 * @param last Whether the last or the first entry should be returned.
+	 * @return The first or last entry of the field index, or {@code null} if it is empty.
+	 */
+	LLEntry readIndexBoundary(ZooFieldDef field, boolean last);
+
+	/**
+	 * Compute aggregates on the serialized instances of a class, without materializing them.
+	 * The caller has to ensure that the cache contains no modified, new or deleted instances.
+	 * @param clsPx The candidate class
+	 * @param subClasses Whether instances of sub-classes should be aggregated
+	 * @param advices The index advices, or {@code null} for a scan of all instances.
+	 * @param filter The query, this must be evaluable on serialized objects. 
+	 * May be {@code null}. 
+	 * @param accumulators
+	 * @return {@code false} if some objects could not be evaluated without deserializing 
+	 * them. In that case the accumulators contain incomplete data.
 	 */
-	Iterator<ZooPCImpl> readObjectFromIndex(ZooFieldDef field, 
-			long minValue, long maxValue, boolean loadFromCache);
+	boolean aggregateInstances(ZooClassProxy clsPx, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter, QueryAccumulator[] accumulators);
+
+	/**
+	 * Variant of {@link #aggregateInstances(ZooClassProxy, boolean, List, QueryTreeNode, 
+	 * QueryAccumulator[])} for grouped queries. The values of the given fields of every 
+	 * matching instance are added as row to the table.
+	 * @param columns The fields of the rows, {@code null} for columns without field. 
+	 * @param table
+	 * @return {@code false} if some objects could not be evaluated without deserializing 
+	 * them. In that case the table contains incomplete data.
+	 */
+	boolean groupInstances(ZooClassProxy clsPx, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter, ZooFieldDef[] columns, 
+			QueryGroupTable table);
 
 	public int getStats(STATS stats);
 
@@ -110,6 +238,25 @@ public interface DiskAccess {
 
 	public long countInstances(ZooClassProxy clsDef, boolean subClasses);
 
+	/**
+	 * Convert indices of older file versions. This is called once after the schemata have
+	 * been loaded.
+	 * @param defs All schemata
+	 */
+	public void upgradeIndices(Collection<ZooClassDef> defs);
+
+	/**
+	 * Reads objects that are stored with an outdated version of their schema. 
+	 * @param maxObjects The maximum number of objects to return
+	 * @return The objects in their stored (outdated) version
+	 */
+	public List<GenericObject> readOutdatedObjects(int maxObjects);
+
+	/**
+	 * @return The number of objects that are stored with an outdated version of their schema.
+	 */
+	public long countOutdatedObjects();
+
 	boolean checkIfObjectExists(long oid);
 	
 }
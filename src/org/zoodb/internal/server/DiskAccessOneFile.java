@@ -20,14 +20,17 @@
  */
 package org.zoodb.internal.server;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
+import org.zoodb.api.DBArrayList;
+import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.DataDeSerializer;
 import org.zoodb.internal.DataDeSerializerNoClass;
 import org.zoodb.internal.GenericObject;
@@ -37,25 +40,42 @@ import org.zoodb.internal.ZooClassProxy;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.ZooHandleImpl;
 import org.zoodb.internal.client.AbstractCache;
+import org.zoodb.internal.query.QueryAccumulator;
+import org.zoodb.internal.query.QueryAdvice;
+import org.zoodb.internal.query.QueryAggregator;
+import org.zoodb.internal.query.QueryGroupTable;
+import org.zoodb.internal.query.QueryPreFilter;
+import org.zoodb.internal.query.QueryTreeNode;
 import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.index.AbstractPagedIndex;
 import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.CompositeKey;
 import org.zoodb.internal.server.index.FreeSpaceManager;
+import org.zoodb.internal.server.index.IndexStatistics;
+import org.zoodb.internal.server.index.LLBulkLoader;
 import org.zoodb.internal.server.index.ObjectIterator;
 import org.zoodb.internal.server.index.ObjectPosIterator;
 import org.zoodb.internal.server.index.PagedOidIndex;
 import org.zoodb.internal.server.index.PagedPosIndex;
+import org.zoodb.internal.server.index.PagedStringLong;
 import org.zoodb.internal.server.index.SchemaIndex;
+import org.zoodb.internal.server.index.SortedOidIterator;
 import org.zoodb.internal.server.index.ZooHandleIteratorAdapter;
 import org.zoodb.internal.server.index.AbstractPagedIndex.AbstractPageIterator;
 import org.zoodb.internal.server.index.AbstractPagedIndex.LongLongIndex;
 import org.zoodb.internal.server.index.PagedOidIndex.FilePos;
+import org.zoodb.internal.server.index.PagedStringLong.SLEntry;
 import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
 import org.zoodb.internal.server.index.SchemaIndex.SchemaIndexEntry;
+import org.zoodb.internal.util.ClientLock;
 import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.FormattedStringBuilder;
+import org.zoodb.internal.util.OrderedIntersectIterator;
+import org.zoodb.internal.util.OrderedMergeIterator;
 import org.zoodb.internal.util.PoolDDS;
 import org.zoodb.internal.util.PrimLongMapLI;
+import org.zoodb.internal.util.SynchronizedIterator;
 import org.zoodb.internal.util.Util;
 import org.zoodb.tools.ZooConfig;
 import org.zoodb.tools.DBStatistics.STATS;
@@ -69,6 +89,7 @@ import org.zoodb.tools.DBStatistics.STATS;
  * Some data data is read on start-up and kept in memory:
  * - Schema index
  * - OID Index (all OIDs) -> needs to be changed
+ * Each session keeps copies of recently read data pages, see {@link PageObjectCache}.
  *  
  * 
  * Page chaining
@@ -105,36 +126,95 @@ import org.zoodb.tools.DBStatistics.STATS;
  *   -> Store OIDs + posInPage for all objects in a page in the beginning of that page.
  * 
  * 
+ * File versions
+ * =============
+ * Files of version 1.5 to the current version can be opened. The versions differ in the
+ * layout of the schema index, which is converted when it is written, and in the String
+ * indices, which store hash values before 1.6. These are rebuilt when such a file is
+ * opened, see {@link #upgradeIndices(Collection)}. The header keeps the version of the
+ * software that created the file.
+ * Before 1.9, {@link DBLargeVector} was a subclass of {@link DBArrayList}. Its instances 
+ * cannot be read as paged vectors, files that contain them are rejected when they are opened.
+ *
+ *
+ * Concurrency
+ * ===========
+ * Threads of a multithreaded session read in parallel. Every read method acquires the read 
+ * lock of the session (see {@link org.zoodb.internal.util.ClientLock}), including lazy query 
+ * and extent iterators, which hold it during each call to hasNext() or next(). Objects are
+ * deserialized with a {@link DataDeSerializer} from the pool and data pages are read with 
+ * readers from the pool, so every thread has its own file position. Reading the database 
+ * file is not synchronized, see {@link StorageRootFile#readPage(ByteBuffer, long)}. Only
+ * pages that are still in the {@link WriteAheadLog} are read one at a time.
+ * The indices load their pages lazily, this modifies the parent page and the copy-on-write
+ * state of open iterators. All access to the indices and to the {@link PageObjectCache} is
+ * therefore synchronized on <tt>indexLock</tt>. The lock is held only for the index lookups, 
+ * never while objects are read, because that may wait for objects that are being loaded 
+ * by another thread.
+ * Methods that write (commit, schema operations, index creation, ...) are synchronized on 
+ * the DiskAccessOneFile instance. They are called while the session holds its write lock,
+ * so they never run in parallel with readers of the same session.
+ * 
+ * Multiple sessions of the same JVM can access the database concurrently, they share the file 
+ * via a {@link SharedDatabase}. Each session has its own copy of the indices, which is a 
+ * snapshot of the last commit at the beginning of the transaction. Only one session at a 
+ * time can write, the write lock is acquired with the first modification (page allocation
+ * or schema operation) and released with commit() or rollback(). 
+ * 
+ * 
  * @author Tilmann Zaeschke
  */
 public class DiskAccessOneFile implements DiskAccess {
 	
 	public static final int DB_FILE_TYPE_ID = 13031975;
 	public static final int DB_FILE_VERSION_MAJ = 1;
-	public static final int DB_FILE_VERSION_MIN = 5;
+	public static final int DB_FILE_VERSION_MIN = 9;
+	/** The oldest minor version that can be opened, see {@link #upgradeIndices(Collection)}. */
+	private static final int DB_FILE_VERSION_MIN_SUPPORTED = 5;
+	/** The first minor version that stores {@link DBLargeVector} in pages. */
+	private static final int DB_FILE_VERSION_MIN_PAGED_VECTOR = 9;
 	private static final long ID_FAULTY_PAGE = Long.MIN_VALUE;
 	
 	private final Node node;
 	private final AbstractCache cache;
-	private final StorageChannel file;
+	private final SharedDatabase shared;
+	private final StorageView file;
+	/** Reader for methods that write, see {@link #getReader()} for readers of read methods. */
 	private final StorageChannelInput fileInAP;
-	private final StorageChannelOutput fileOut;
 	private final PoolDDS ddsPool;
+	/** Readers that are not in use, see {@link #getReader()}. */
+	private final ArrayList<StorageChannelInput> readers = new ArrayList<StorageChannelInput>();
+	/** The lock of the session. */
+	private final ClientLock lock;
+	/** Guards the indices and the object cache. */
+	private final Object indexLock = new Object();
+	/** Recently read data pages, or null if disabled. */
+	private final PageObjectCache objectCache;
+	/** OID index modification count at which the object cache was valid. */
+	private int objectCacheModCount;
 	
 	private final int[] rootPages = new int[2];
-	private int rootPageID = 0;
 	private long txId = 1;
+	/** The minor version in the file header. */
+	private int fileVersion;
 
 	private final SchemaIndex schemaIndex;
 	private final PagedOidIndex oidIndex;
 	private final FreeSpaceManager freeIndex;
-    private final ObjectReader objectReader;
 	private final RootPage rootPage;
 	
+	/** Whether this session holds the write lock. */
+	private boolean isWriter = false;
+	/** Whether this session attempted to modify the database in the current transaction. */
+	private boolean hasWritten = false;
+	/** Whether another session has modified the schema since this session was opened. */
+	private boolean isSchemaStale = false;
+	
 	
 	public DiskAccessOneFile(Node node, AbstractCache cache) {
 		this.node = node;
 		this.cache = cache;
+		this.lock = cache.getSession().getLock();
 		String dbPath = this.node.getDbPath();
 
 		
@@ -142,10 +222,57 @@ public class DiskAccessOneFile implements DiskAccess {
 
 		//create DB file
 		freeIndex = new FreeSpaceManager();
-		file = createPageAccessFile(dbPath, "rw", freeIndex);
-		StorageChannelInput in = file.getReader(false);
+		shared = SharedDatabase.open(dbPath);
+		try {
+			file = new StorageView(shared.getRoot(), shared.getLog(), freeIndex);
+			StorageChannelInput in = file.getReader(false);
+			readHeader(in);
+			if (!shared.isInitialized()) {
+				readMainPage(in);
+			}
+		} catch (RuntimeException e) {
+			shared.close(this);
+			throw e;
+		}
+		
+		//main directory
+		rootPage = new RootPage();
+		txId = shared.readSnapshot(this, rootPage);
+		
+		//OIDs
+		oidIndex = new PagedOidIndex(file, rootPage.getOidIndexPage(), shared.getLastUsedOid());
+
+		//dir for schemata
+		schemaIndex = new SchemaIndex(file, rootPage.getSchemIndexPage(), false, fileVersion);
+
+		//free space index
+		freeIndex.initBackingIndexLoad(file, rootPage.getFMSPage(), rootPage.getFSMPageCount());
+		freeIndex.setPageGuard(new FreeSpaceManager.PageGuard() {
+			@Override
+			public void beforeWrite() {
+				beginWrite();
+			}
+			@Override
+			public void pageFreed(int pageId) {
+				shared.pageFreed(pageId);
+			}
+			@Override
+			public boolean isInUse(int pageId) {
+				return shared.isInUse(pageId);
+			}
+		});
+		
+		ddsPool = new PoolDDS(file, this.cache);
+		
+		fileInAP = file.getReader(true);
 		
-		//read header
+		int nObjectPages = ZooConfig.getFileObjectCacheSize();
+		objectCache = nObjectPages > 0 ? 
+				new PageObjectCache(nObjectPages) : null;
+		objectCacheModCount = oidIndex.getModCount();
+	}
+
+	private void readHeader(StorageChannelInput in) {
 		in.seekPageForRead(DATA_TYPE.DB_HEADER, 0);
 		int fid = in.readInt();
 		if (fid != DB_FILE_TYPE_ID) { 
@@ -157,10 +284,11 @@ public class DiskAccessOneFile implements DiskAccess {
 			throw DBLogger.newFatal("Illegal major file version: " + maj + "." + min +
 					"; Software version: " + DB_FILE_VERSION_MAJ + "." + DB_FILE_VERSION_MIN);
 		}
-		if (min != DB_FILE_VERSION_MIN) { 
+		if (min < DB_FILE_VERSION_MIN_SUPPORTED || min > DB_FILE_VERSION_MIN) { 
 			throw DBLogger.newFatal("Illegal minor file version: " + maj + "." + min +
 					"; Software version: " + DB_FILE_VERSION_MAJ + "." + DB_FILE_VERSION_MIN);
 		}
+		fileVersion = min;
 
 		int pageSize = in.readInt();
 		if (pageSize != ZooConfig.getFilePageSize()) {
@@ -169,15 +297,20 @@ public class DiskAccessOneFile implements DiskAccess {
 			throw DBLogger.newFatal("Incompatible page size: " + pageSize);
 		}
 		
-		//main directory
-		rootPage = new RootPage();
 		rootPages[0] = in.readInt();
 		rootPages[1] = in.readInt();
-
+	}
+	
+	/**
+	 * Reads the root page of the last commit from disk and registers it with the shared 
+	 * database. This is only required for the first session of a database.
+	 */
+	private void readMainPage(StorageChannelInput in) {
 		//check root pages
 		//we have two root pages. They are used alternatingly.
 		long r0 = checkRoot(in, rootPages[0]);
 		long r1 = checkRoot(in, rootPages[1]);
+		int rootPageID;
 		if (r0 > r1) {
 			rootPageID = 0;
 		} else {
@@ -194,7 +327,7 @@ public class DiskAccessOneFile implements DiskAccess {
 
 		//read main directory (page IDs)
 		//tx ID
-		txId = in.readLong();
+		long txId = in.readLong();
 		//User table 
 		int userPage = in.readInt();
 		//OID table
@@ -210,23 +343,9 @@ public class DiskAccessOneFile implements DiskAccess {
 		//last used oid
 		long lastUsedOid = in.readLong();
 		
-		//OIDs
-		oidIndex = new PagedOidIndex(file, oidPage1, lastUsedOid);
-
-		//dir for schemata
-		schemaIndex = new SchemaIndex(file, schemaPage1, false);
-
-		//free space index
-		freeIndex.initBackingIndexLoad(file, freeSpacePage, pageCount);
-		
-        objectReader = new ObjectReader(file);
-		
-		ddsPool = new PoolDDS(file, this.cache);
-		
-		rootPage.set(userPage, oidPage1, schemaPage1, indexPage, freeSpacePage, pageCount);
-
-		fileInAP = file.getReader(true);
-		fileOut = file.getWriter(false);
+		RootPage rp = new RootPage();
+		rp.set(userPage, oidPage1, schemaPage1, indexPage, freeSpacePage, pageCount);
+		shared.init(rp, rootPages, rootPageID, txId, lastUsedOid);
 	}
 
 	private long checkRoot(StorageChannelInput in, int pageId) {
@@ -245,63 +364,8 @@ public class DiskAccessOneFile implements DiskAccess {
 		return ID_FAULTY_PAGE;
 	}
 
-	private static StorageChannel createPageAccessFile(String dbPath, String options, 
-			FreeSpaceManager fsm) {
-		try {
-			Class<?> cls = Class.forName(ZooConfig.getFileProcessor());
-			Constructor<?> con = cls.getConstructor(String.class, String.class, Integer.TYPE, 
-					FreeSpaceManager.class);
-			StorageChannel paf = 
-				(StorageChannel) con.newInstance(dbPath, options, ZooConfig.getFilePageSize(), fsm);
-			return paf;
-		} catch (Exception e) {
-			if (e instanceof InvocationTargetException) {
-				Throwable t2 = e.getCause();
-				if (DBLogger.USER_EXCEPTION.isAssignableFrom(t2.getClass())) {
-					throw (RuntimeException)t2;
-				}
-			}
-			throw DBLogger.newFatal("path=" + dbPath, e);
-		}
-	}
-	
-	/**
-	 * Writes the main page.
-	 * @param pageCount 
-	 */
-	private void writeMainPage(int userPage, int oidPage, int schemaPage, int indexPage, 
-			int freeSpaceIndexPage, int pageCount, StorageChannelOutput out) {
-		rootPageID = (rootPageID + 1) % 2;
-		
-		out.seekPageForWrite(DATA_TYPE.ROOT_PAGE, rootPages[rootPageID]);
-
-		//**********
-		// When updating this, also update checkRoot()!
-		//**********
-		
-		//tx ID
-		out.writeLong(txId);
-		//User table
-		out.writeInt(userPage);
-		//OID table
-		out.writeInt(oidPage);
-		//schemata
-		out.writeInt(schemaPage);
-		//indices
-		out.writeInt(indexPage);
-		//free space index
-		out.writeInt(freeSpaceIndexPage);
-		//page count
-		out.writeInt(pageCount);
-		//last used oid
-		out.writeLong(oidIndex.getLastUsedOid());
-		//tx ID. Writing the tx ID twice should ensure that the data between the two has been
-		//written correctly.
-		out.writeLong(txId);
-	}
-	
 	@Override
-	public void refreshSchema(ZooClassDef def) {
+	public synchronized void refreshSchema(ZooClassDef def) {
 		schemaIndex.refreshSchema(def, this);
 	}
 
@@ -310,7 +374,7 @@ public class DiskAccessOneFile implements DiskAccess {
 	 * @return List of all schemata in the database. These are loaded when the database is opened.
 	 */
 	@Override
-	public Collection<ZooClassDef> readSchemaAll() {
+	public synchronized Collection<ZooClassDef> readSchemaAll() {
 		Collection<ZooClassDef> all = schemaIndex.readSchemaAll(this, node);
 		if (all.isEmpty()) {
 			//new database, need to initialize!
@@ -330,39 +394,44 @@ public class DiskAccessOneFile implements DiskAccess {
 
 
 	@Override
-	public void newSchemaVersion(ZooClassDef defOld, ZooClassDef defNew) {
+	public synchronized void newSchemaVersion(ZooClassDef defOld, ZooClassDef defNew) {
+		beginWrite();
 		schemaIndex.newSchemaVersion(defOld, defNew);
 	}
 
 	@Override
-	public void defineSchema(ZooClassDef def) {
+	public synchronized void defineSchema(ZooClassDef def) {
+		beginWrite();
 		schemaIndex.defineSchema(def);
 	}
 
 	@Override
-	public void undefineSchema(ZooClassProxy def) {
+	public synchronized void undefineSchema(ZooClassProxy def) {
+		beginWrite();
 		dropInstances(def);
 		schemaIndex.undefineSchema(def);
 	}
 
 	@Override
-	public void renameSchema(ZooClassDef def, String newName) {
+	public synchronized void renameSchema(ZooClassDef def, String newName) {
+		beginWrite();
 		schemaIndex.renameSchema(def, newName);
 	}
 
 	@Override
-	public void deleteSchema(ZooClassDef sch) {
+	public synchronized void deleteSchema(ZooClassDef sch) {
+		beginWrite();
 		schemaIndex.deleteSchema(sch);
 	}
 
 	@Override
-	public long[] allocateOids(int oidAllocSize) {
-		long[] ret = oidIndex.allocateOids(oidAllocSize);
-		return ret;
+	public synchronized long[] allocateOids(int oidAllocSize) {
+		return shared.allocateOids(oidIndex, oidAllocSize);
 	}
 		
 	@Override
-	public void dropInstances(ZooClassProxy def) {
+	public synchronized void dropInstances(ZooClassProxy def) {
+		beginWrite();
 	    //ensure latest
 	    SchemaIndexEntry sie = schemaIndex.getSchema(def.getSchemaId());
 	    for (int i = 0; i < sie.getObjectIndexVersionCount(); i++) {
@@ -396,9 +465,19 @@ public class DiskAccessOneFile implements DiskAccess {
 	
 	@Override
 	public SchemaIndexEntry getSchemaIE(ZooClassDef def) {
-	    return schemaIndex.getSchema(def);
+		lock.lockRead();
+		try {
+			synchronized (indexLock) {
+				return schemaIndex.getSchema(def);
+			}
+		} finally {
+			lock.unlockRead();
+		}
 	}
 	
+	/**
+	 * The OID index must only be used by methods that write.
+	 */
 	@Override
 	public PagedOidIndex getOidIndex() {
 	    return oidIndex;
@@ -406,11 +485,66 @@ public class DiskAccessOneFile implements DiskAccess {
 	
 	@Override
 	public long countInstances(ZooClassProxy clsDef, boolean subClasses) {
-		return schemaIndex.countInstances(clsDef, subClasses);
+		lock.lockRead();
+		try {
+			synchronized (indexLock) {
+				return schemaIndex.countInstances(clsDef, subClasses);
+			}
+		} finally {
+			lock.unlockRead();
+		}
+	}
+
+	@Override
+	public synchronized List<GenericObject> readOutdatedObjects(int maxObjects) {
+		ArrayList<GenericObject> ret = new ArrayList<GenericObject>();
+		DataDeSerializer dds = ddsPool.get();
+		try {
+			for (SchemaIndexEntry sie: schemaIndex.getSchemata()) {
+				//the last version is the current one
+				for (int v = 0; v < sie.getObjectIndexVersionCount()-1; v++) {
+					PagedPosIndex.ObjectPosIterator it = 
+							sie.getObjectIndexVersion(v).iteratorObjects();
+					try {
+						while (ret.size() < maxObjects && it.hasNextOPI()) {
+							long pos = it.nextPos();
+							ret.add(dds.readGenericObject(
+									BitTools.getPage(pos), BitTools.getOffs(pos)));
+						}
+					} finally {
+						it.close();
+					}
+					if (ret.size() >= maxObjects) {
+						return ret;
+					}
+				}
+			}
+		} finally {
+			ddsPool.offer(dds);
+		}
+		return ret;
 	}
 
 	@Override
-	public ObjectWriter getWriter(ZooClassDef def) {
+	public long countOutdatedObjects() {
+		lock.lockRead();
+		try {
+			synchronized (indexLock) {
+				long n = 0;
+				for (SchemaIndexEntry sie: schemaIndex.getSchemata()) {
+					for (int v = 0; v < sie.getObjectIndexVersionCount()-1; v++) {
+						n += sie.getObjectIndexVersion(v).size();
+					}
+				}
+				return n;
+			}
+		} finally {
+			lock.unlockRead();
+		}
+	}
+
+	@Override
+	public synchronized ObjectWriter getWriter(ZooClassDef def) {
 	    return new ObjectWriterSV(file, oidIndex, def, schemaIndex);
 	}
 	
@@ -420,28 +554,365 @@ public class DiskAccessOneFile implements DiskAccess {
 	 * -> Only required for queries without index, which is worth a warning anyway.
 	 */
 	@Override
-	public CloseableIterator<ZooPCImpl> readAllObjects(long schemaId, boolean loadFromCache) {
-		SchemaIndexEntry se = schemaIndex.getSchema(schemaId);
-		if (se == null) {
-			throw DBLogger.newUser("Schema not found for class: " + schemaId);
+	public CloseableIterator<ZooPCImpl> readAllObjects(long schemaId, boolean loadFromCache, 
+			QueryTreeNode filter) {
+		lock.lockRead();
+		try {
+			PagedPosIndex.ObjectPosIteratorMerger iter;
+			synchronized (indexLock) {
+				SchemaIndexEntry se = schemaIndex.getSchema(schemaId);
+				if (se == null) {
+					throw DBLogger.newUser("Schema not found for class: " + schemaId);
+				}
+				iter = se.getObjectIndexIterator();
+			}
+			return synchronize(new ObjectPosIterator(iter, indexLock, this, loadFromCache, 
+					createPreFilter(filter, loadFromCache)));
+		} finally {
+			lock.unlockRead();
 		}
-		
-		return new ObjectPosIterator(se.getObjectIndexIterator(), cache, objectReader, 
-		        loadFromCache);
 	}
 	
+	@Override
+	public CloseableIterator<ZooPCImpl> readObjectFromIndex(ZooFieldDef field, String minValue, 
+			String maxValue, boolean ascending, boolean loadFromCache, QueryTreeNode filter) {
+		lock.lockRead();
+		try {
+			CloseableIterator<SLEntry> iter;
+			synchronized (indexLock) {
+				SchemaIndexEntry se = schemaIndex.getSchema(field.getDeclaringType());
+				PagedStringLong fieldInd = (PagedStringLong) se.getIndex(field);
+				if (ascending) {
+					iter = fieldInd.iterator(minValue, maxValue);
+				} else {
+					iter = fieldInd.descendingIterator(maxValue, minValue);
+				}
+				iter = synchronizeIndex(iter);
+			}
+			return synchronize(new ObjectIterator(iter, cache, this, loadFromCache, 
+					createPreFilter(filter, loadFromCache)));
+		} finally {
+			lock.unlockRead();
+		}
+	}	
+	
+	@Override
+	public CloseableIterator<ZooPCImpl> readObjectFromIndex(CompositeIndexDef index, 
+			String minValue, String maxValue, boolean ascending, boolean loadFromCache, 
+			QueryTreeNode filter) {
+		lock.lockRead();
+		try {
+			CloseableIterator<SLEntry> iter;
+			synchronized (indexLock) {
+				SchemaIndexEntry se = schemaIndex.getSchema(index.getDeclaringType());
+				PagedStringLong ind = se.getCompositeIndex(index);
+				if (ascending) {
+					iter = ind.iterator(minValue, maxValue);
+				} else {
+					iter = ind.descendingIterator(maxValue, minValue);
+				}
+				iter = synchronizeIndex(iter);
+			}
+			return synchronize(new ObjectIterator(iter, cache, this, loadFromCache, 
+					createPreFilter(filter, loadFromCache)));
+		} finally {
+			lock.unlockRead();
+		}
+	}	
+	
 	/**
 	 * WARNING: float/double values need to be converted with BitTools before used on indices. 
 	 */
 	@Override
-	public CloseableIterator<ZooPCImpl> readObjectFromIndex(
-			ZooFieldDef field, long minValue, long maxValue, boolean loadFromCache) {
-		SchemaIndexEntry se = schemaIndex.getSchema(field.getDeclaringType());
-		LongLongIndex fieldInd = (LongLongIndex) se.getIndex(field);
-		AbstractPageIterator<LLEntry> iter = fieldInd.iterator(minValue, maxValue);
-		return new ObjectIterator(iter, cache, this, objectReader, loadFromCache);
+	public CloseableIterator<ZooPCImpl> readObjectFromIndex(ZooFieldDef field, long minValue, 
+			long maxValue, boolean ascending, boolean loadFromCache, QueryTreeNode filter) {
+		lock.lockRead();
+		try {
+			CloseableIterator<LLEntry> iter;
+			synchronized (indexLock) {
+				SchemaIndexEntry se = schemaIndex.getSchema(field.getDeclaringType());
+				LongLongIndex fieldInd = (LongLongIndex) se.getIndex(field);
+				if (ascending) {
+					iter = fieldInd.iterator(minValue, maxValue);
+				} else {
+					iter = fieldInd.descendingIterator(maxValue, minValue);
+				}
+				iter = synchronizeIndex(iter);
+			}
+			return synchronize(new ObjectIterator(iter, cache, this, loadFromCache, 
+					createPreFilter(filter, loadFromCache)));
+		} finally {
+			lock.unlockRead();
+		}
 	}	
 	
+	@Override
+	public CloseableIterator<ZooPCImpl> readObjectFromIndices(List<QueryAdvice> advices, 
+			boolean loadFromCache, QueryTreeNode filter) {
+		lock.lockRead();
+		try {
+			CloseableIterator<LLEntry> iter;
+			synchronized (indexLock) {
+				iter = synchronizeIndex(readOids(advices));
+			}
+			return synchronize(new ObjectIterator(iter, cache, this, loadFromCache, 
+					createPreFilter(filter, loadFromCache)));
+		} finally {
+			lock.unlockRead();
+		}
+	}
+	
+	/**
+	 * Iterators read lazily from the file. Every call holds the read lock of the session and 
+	 * the monitor of the iterator, so each iterator is used by one thread at a time.
+	 */
+	private <T> CloseableIterator<T> synchronize(CloseableIterator<T> iter) {
+		return new SynchronizedIterator<T>(iter, iter, lock);
+	}
+	
+	/**
+	 * Index iterators load index pages lazily, so every call is synchronized with all other 
+	 * index access of this session.
+	 */
+	private <T> CloseableIterator<T> synchronizeIndex(CloseableIterator<T> iter) {
+		return new SynchronizedIterator<T>(iter, indexLock);
+	}
+	
+	/**
+	 * @return The OIDs of the union of all advices, sorted and without duplicates.
+	 */
+	private CloseableIterator<LLEntry> readOids(List<QueryAdvice> advices) {
+		@SuppressWarnings("unchecked")
+		CloseableIterator<LLEntry>[] union = 
+				(CloseableIterator<LLEntry>[]) new CloseableIterator<?>[advices.size()];
+		for (int i = 0; i < union.length; i++) {
+			union[i] = readOids(advices.get(i));
+		}
+		if (union.length == 1) {
+			return union[0];
+		}
+		return new OrderedMergeIterator(null, union, true);
+	}
+	
+	/**
+	 * @return The sorted OIDs in the range of the advice, intersected with the OIDs of its
+	 * intersections. 
+	 */
+	private CloseableIterator<LLEntry> readOids(QueryAdvice qa) {
+		List<QueryAdvice> intersections = qa.getIntersections();
+		SortedOidIterator[] iters = new SortedOidIterator[intersections.size() + 1];
+		iters[0] = readOidsFromRange(qa);
+		for (int i = 1; i < iters.length; i++) {
+			SortedOidIterator it = readOidsFromRange(intersections.get(i - 1));
+			//Start with the smallest set, because it drives the intersection
+			if (it.size() < iters[0].size()) {
+				iters[i] = iters[0];
+				iters[0] = it;
+			} else {
+				iters[i] = it;
+			}
+		}
+		if (iters.length == 1) {
+			return iters[0];
+		}
+		return new OrderedIntersectIterator(iters);
+	}
+	
+	private SortedOidIterator readOidsFromRange(QueryAdvice qa) {
+		if (qa.getCompositeIndex() != null) {
+			CompositeIndexDef index = qa.getCompositeIndex();
+			SchemaIndexEntry se = schemaIndex.getSchema(index.getDeclaringType());
+			PagedStringLong ind = se.getCompositeIndex(index);
+			return new SortedOidIterator(ind.iterator(qa.getMinString(), qa.getMaxString()));
+		}
+		ZooFieldDef field = qa.getIndex(); 
+		SchemaIndexEntry se = schemaIndex.getSchema(field.getDeclaringType());
+		if (field.isString()) {
+			PagedStringLong ind = (PagedStringLong) se.getIndex(field);
+			return new SortedOidIterator(ind.iterator(qa.getMinString(), qa.getMaxString()));
+		}
+		LongLongIndex ind = (LongLongIndex) se.getIndex(field);
+		return new SortedOidIterator(ind.iterator(qa.getMin(), qa.getMax()));
+	}
+	
+	@Override
+	public IndexStatistics getIndexStatistics(ZooFieldDef field) {
+		lock.lockRead();
+		try {
+			synchronized (indexLock) {
+				SchemaIndexEntry se = schemaIndex.getSchema(field.getDeclaringType());
+				return se == null ? null : se.getIndexStatistics(field);
+			}
+		} finally {
+			lock.unlockRead();
+		}
+	}
+	
+	@Override
+	public LLEntry readIndexBoundary(ZooFieldDef field, boolean last) {
+		lock.lockRead();
+		try {
+			synchronized (indexLock) {
+				SchemaIndexEntry se = schemaIndex.getSchema(field.getDeclaringType());
+				LongLongIndex ind = (LongLongIndex) se.getIndex(field);
+				AbstractPageIterator<LLEntry> iter;
+				if (last) {
+					iter = ind.descendingIterator(Long.MAX_VALUE, Long.MIN_VALUE);
+				} else {
+					iter = ind.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+				}
+				LLEntry e = iter.hasNext() ? iter.next() : null;
+				iter.close();
+				return e;
+			}
+		} finally {
+			lock.unlockRead();
+		}
+	}
+	
+	@Override
+	public boolean aggregateInstances(ZooClassProxy clsPx, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter, QueryAccumulator[] accumulators) {
+		PrimLongMapLI<ZooClassProxy> schemaIds = new PrimLongMapLI<ZooClassProxy>();
+		addSchemaIds(clsPx, subClasses, schemaIds);
+		lock.lockRead();
+		//The aggregator seeks the position of every object, so it can use a single reader.
+		StorageChannelInput in = getReader();
+		try {
+			QueryAggregator agg = new QueryAggregator(filter, accumulators, schemaIds, in, 
+					cache);
+			return scanInstances(agg, schemaIds, advices);
+		} finally {
+			offerReader(in);
+			lock.unlockRead();
+		}
+	}
+	
+	@Override
+	public boolean groupInstances(ZooClassProxy clsPx, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter, ZooFieldDef[] columns, 
+			QueryGroupTable table) {
+		PrimLongMapLI<ZooClassProxy> schemaIds = new PrimLongMapLI<ZooClassProxy>();
+		addSchemaIds(clsPx, subClasses, schemaIds);
+		lock.lockRead();
+		StorageChannelInput in = getReader();
+		try {
+			QueryAggregator agg = new QueryAggregator(filter, columns, table, schemaIds, in, 
+					cache);
+			return scanInstances(agg, schemaIds, advices);
+		} finally {
+			offerReader(in);
+			lock.unlockRead();
+		}
+	}
+	
+	/**
+	 * Pass the positions of all candidate objects to the aggregator.
+	 * @return {@code false} if the aggregator failed to evaluate an object.
+	 */
+	private boolean scanInstances(QueryAggregator agg, PrimLongMapLI<ZooClassProxy> schemaIds,
+			List<QueryAdvice> advices) {
+		if (advices == null) {
+			for (ZooClassProxy px: schemaIds.values()) {
+				PagedPosIndex.ObjectPosIteratorMerger iter;
+				synchronized (indexLock) {
+					SchemaIndexEntry se = schemaIndex.getSchema(px.getSchemaId());
+					if (se == null) {
+						continue;
+					}
+					iter = se.getObjectIndexIterator();
+				}
+				try {
+					while (true) {
+						long pos;
+						synchronized (indexLock) {
+							if (!iter.hasNextOPI()) {
+								break;
+							}
+							pos = iter.nextPos();
+						}
+						if (!agg.add(pos)) {
+							return false;
+						}
+					}
+				} finally {
+					synchronized (indexLock) {
+						iter.close();
+					}
+				}
+			}
+			return true;
+		}
+		
+		CloseableIterator<LLEntry> iter;
+		synchronized (indexLock) {
+			iter = synchronizeIndex(readOids(advices));
+		}
+		try {
+			while (iter.hasNext()) {
+				FilePos fp = findOid(iter.next().getValue());
+				if (fp != null && !agg.add(BitTools.getPos(fp.getPage(), fp.getOffs()))) {
+					return false;
+				}
+			}
+		} finally {
+			iter.close();
+		}
+		return true;
+	}
+	
+	private static void addSchemaIds(ZooClassProxy px, boolean subClasses, 
+			PrimLongMapLI<ZooClassProxy> schemaIds) {
+		schemaIds.put(px.getSchemaId(), px);
+		if (subClasses) {
+			for (ZooClassProxy sub: px.getSubProxies()) {
+				addSchemaIds(sub, true, schemaIds);
+			}
+		}
+	}
+	
+	private QueryPreFilter createPreFilter(QueryTreeNode filter, boolean loadFromCache) {
+		if (filter == null || !filter.isEvaluableSerialized()) {
+			return null;
+		}
+		return new QueryPreFilter(filter, cache, loadFromCache);
+	}
+	
+	/**
+	 * @return A reader for scanning serialized objects. It must be returned with 
+	 * {@link #offerReader(StorageChannelInput)}.
+	 */
+	private StorageChannelInput getReader() {
+		synchronized (readers) {
+			if (!readers.isEmpty()) {
+				return readers.remove(readers.size() - 1);
+			}
+		}
+		return file.getReader(true);
+	}
+	
+	private void offerReader(StorageChannelInput in) {
+		synchronized (readers) {
+			readers.add(in);
+		}
+	}
+	
+	/**
+	 * Evaluates a filter on a serialized object. This is used by the object iterators.
+	 * @param filter
+	 * @param pos
+	 * @return {@code false} if the object is definitely not a match.
+	 * @see QueryPreFilter#mayMatch(StorageChannelInput, long)
+	 */
+	public boolean mayMatch(QueryPreFilter filter, long pos) {
+		StorageChannelInput in = getReader();
+		try {
+			return filter.mayMatch(in, pos);
+		} finally {
+			offerReader(in);
+		}
+	}
+	
     /**
      * Read objects.
      * This should never be necessary. -> add warning?
@@ -449,14 +920,20 @@ public class DiskAccessOneFile implements DiskAccess {
      */
     @Override
     public CloseableIterator<ZooHandleImpl> oidIterator(ZooClassProxy clsPx, boolean subClasses) {
-        SchemaIndexEntry se = schemaIndex.getSchema(clsPx.getSchemaId());
-        if (se == null) {
-            throw new IllegalStateException("Schema not found for class: " + clsPx);
-        }
-
-        ZooHandleIteratorAdapter it = new ZooHandleIteratorAdapter(
-                se.getObjectIndexIterator(), objectReader, cache);
-        return it;
+    	lock.lockRead();
+    	try {
+    		PagedPosIndex.ObjectPosIteratorMerger iter;
+    		synchronized (indexLock) {
+    			SchemaIndexEntry se = schemaIndex.getSchema(clsPx.getSchemaId());
+    			if (se == null) {
+    				throw new IllegalStateException("Schema not found for class: " + clsPx);
+    			}
+    			iter = se.getObjectIndexIterator();
+    		}
+    		return synchronize(new ZooHandleIteratorAdapter(iter, indexLock, ddsPool));
+    	} finally {
+    		lock.unlockRead();
+    	}
     }
     	
 	/**
@@ -467,88 +944,438 @@ public class DiskAccessOneFile implements DiskAccess {
 	@Override
 	public ZooPCImpl readObject(long oid) {
 	    final DataDeSerializer dds = ddsPool.get();
-		final ZooPCImpl pci = readObject(dds, oid);
-		ddsPool.offer(dds);
-		return pci;
+	    try {
+	    	return readObject(dds, oid);
+	    } finally {
+	    	ddsPool.offer(dds);
+	    }
 	}
 
 	/**
-	 * Locate an object.
+	 * Loads a hollow object. Nothing happens if the object has been loaded by another thread
+	 * in the meantime or if it is currently being loaded by this thread.
+	 * Partially loaded objects are completed unless <tt>useFetchPlan</tt> is set.
+	 * @param pc
+	 * @param useFetchPlan
+	 * @param maxFetchDepth
+	 */
+	@Override
+	public void activateObject(ZooPCImpl pc, boolean useFetchPlan, int maxFetchDepth) {
+		lock.lockRead();
+		try {
+			if (!lock.claim(pc)) {
+				return;
+			}
+			List<ZooPCImpl> refs = null;
+			try {
+				if (pc.jdoZooIsStateHollow()) {
+					refs = readObject(pc, useFetchPlan, maxFetchDepth != 1);
+				} else if (!useFetchPlan && pc.jdoZooGetLoadedFields() != null) {
+					readMissingFields(pc);
+				}
+			} finally {
+				lock.release(pc);
+			}
+			if (refs != null) {
+				readObjects(getHollowOids(refs), maxFetchDepth < 0 ? -1 : maxFetchDepth - 1);
+			}
+		} finally {
+			lock.unlockRead();
+		}
+	}
+
+	/**
+	 * Locate an object. Nothing happens if the object is currently being loaded by this 
+	 * thread.
 	 * @param pc
 	 */
 	@Override
 	public void readObject(ZooPCImpl pc) {
+		lock.lockRead();
+		try {
+			if (!lock.claim(pc)) {
+				return;
+			}
+			try {
+				readObject(pc, false, false);
+			} finally {
+				lock.release(pc);
+			}
+		} finally {
+			lock.unlockRead();
+		}
+	}
+	
+	/**
+	 * The object must have been claimed by the current thread.
+	 * @return The hollow objects referenced by the object if <tt>collectRefs</tt> is set.
+	 */
+	private List<ZooPCImpl> readObject(ZooPCImpl pc, boolean useFetchPlan, 
+			boolean collectRefs) {
+		long oid = pc.jdoZooGetOid();
+		final DataDeSerializer dds = ddsPool.get();
+		try {
+			long pos = findPos(dds, oid);
+			if (pos < 0) {
+				throw DBLogger.newObjectNotFoundException(
+						"ERROR OID not found: " + Util.oidToString(oid));
+			}
+
+			List<ZooPCImpl> refs = null;
+			try {
+				if (collectRefs) {
+					dds.startCollectingHollowRefs();
+				}
+				try {
+					dds.readObject(pc, BitTools.getPage(pos), BitTools.getOffs(pos), 
+							useFetchPlan);
+				} finally {
+					if (collectRefs) {
+						refs = dds.stopCollectingHollowRefs();
+					}
+				}
+			} catch (Exception e) {
+				throw DBLogger.newObjectNotFoundException(
+						"ERROR reading object: " + Util.oidToString(oid), e);
+			}
+			return refs;
+		} finally {
+			ddsPool.offer(dds);
+		}
+	}
+
+	/**
+	 * Reads objects sorted by their position in the database file. This ensures that 
+	 * every page is read only once, because the reader keeps the current page. The objects
+	 * that are referenced by the objects read are read in the next round, until
+	 * <tt>maxFetchDepth</tt> is reached.
+	 * @param oids
+	 * @param maxFetchDepth
+	 */
+	@Override
+	public void readObjects(long[] oids, int maxFetchDepth) {
+		lock.lockRead();
+		final DataDeSerializer dds = ddsPool.get();
+		try {
+			long[] current = oids.clone();
+			for (int depth = 1; current.length > 0; depth++) {
+				boolean collectRefs = maxFetchDepth < 0 || depth < maxFetchDepth;
+				if (collectRefs) {
+					dds.startCollectingHollowRefs();
+				}
+				List<ZooPCImpl> refs = null;
+				try {
+					readObjectsSorted(dds, current);
+				} finally {
+					if (collectRefs) {
+						refs = dds.stopCollectingHollowRefs();
+					}
+				}
+				if (refs == null) {
+					break;
+				}
+				current = getHollowOids(refs);
+			}
+		} finally {
+			ddsPool.offer(dds);
+			lock.unlockRead();
+		}
+	}
+	
+	private void readObjectsSorted(DataDeSerializer dds, long[] oids) {
+		//Sorting the OIDs first results in fewer OID index page accesses
+		Arrays.sort(oids);
+		long[] pos = new long[oids.length];
+		int n = 0;
+		for (long oid: oids) {
+			long p = findPos(null, oid);
+			if (p >= 0) {
+				pos[n++] = p;
+			}
+		}
+		Arrays.sort(pos, 0, n);
+		for (int i = 0; i < n; i++) {
+			int page = BitTools.getPage(pos[i]);
+			if (objectCache != null) {
+				ByteBuffer buf;
+				synchronized (indexLock) {
+					buf = objectCache.getPage(page);
+				}
+				if (buf != null) {
+					dds.usePage(buf, page);
+				}
+			}
+			dds.readObject(page, BitTools.getOffs(pos[i]), true);
+		}
+	}
+	
+	private static long[] getHollowOids(List<ZooPCImpl> pcs) {
+		long[] oids = new long[pcs.size()];
+		int n = 0;
+		for (ZooPCImpl pc: pcs) {
+			if (pc.jdoZooIsStateHollow() && !pc.jdoZooIsDeleted()) {
+				oids[n++] = pc.jdoZooGetOid();
+			}
+		}
+		return n == oids.length ? oids : Arrays.copyOf(oids, n);
+	}
+
+	/**
+	 * Loads the fields that were skipped when the object was loaded partially.
+	 * If the object has been moved in the meantime, it is loaded completely.
+	 * @param pc
+	 */
+	private void readMissingFields(ZooPCImpl pc) {
 		long oid = pc.jdoZooGetOid();
-		FilePos oie = oidIndex.findOid(oid);
+		FilePos oie = findOid(oid);
 		if (oie == null) {
 			throw DBLogger.newObjectNotFoundException("ERROR OID not found: " + Util.oidToString(oid));
 		}
+		if (BitTools.getPos(oie.getPage(), oie.getOffs()) != pc.jdoZooGetLoadedPos()) {
+			readObject(pc, false, false);
+			return;
+		}
 		
+		final DataDeSerializer dds = ddsPool.get();
 		try {
-	        final DataDeSerializer dds = ddsPool.get();
-            dds.readObject(pc, oie.getPage(), oie.getOffs());
-	        ddsPool.offer(dds);
+            dds.readMissingFields(pc, oie.getPage(), oie.getOffs());
 		} catch (Exception e) {
 			throw DBLogger.newObjectNotFoundException(
 					"ERROR reading object: " + Util.oidToString(oid), e);
+		} finally {
+			ddsPool.offer(dds);
 		}
 	}
 
 	@Override
 	public GenericObject readGenericObject(ZooClassDef def, long oid) {
-		FilePos oie = oidIndex.findOid(oid);
-		if (oie == null) {
-			throw DBLogger.newObjectNotFoundException(
-					"ERROR OID not found: " + Util.oidToString(oid));
-		}
-		
-		GenericObject go;
+		lock.lockRead();
 		try {
-	        final DataDeSerializer dds = ddsPool.get();
-            go = dds.readGenericObject(oie.getPage(), oie.getOffs());
-	        ddsPool.offer(dds);
-		} catch (Exception e) {
-			throw DBLogger.newObjectNotFoundException(
-					"ERROR reading object: " + Util.oidToString(oid), e);
+			FilePos oie = findOid(oid);
+			if (oie == null) {
+				throw DBLogger.newObjectNotFoundException(
+						"ERROR OID not found: " + Util.oidToString(oid));
+			}
+
+			final DataDeSerializer dds = ddsPool.get();
+			try {
+				return dds.readGenericObject(oie.getPage(), oie.getOffs());
+			} catch (Exception e) {
+				throw DBLogger.newObjectNotFoundException(
+						"ERROR reading object: " + Util.oidToString(oid), e);
+			} finally {
+				ddsPool.offer(dds);
+			}
+		} finally {
+			lock.unlockRead();
 		}
-		return go;
 	}
 
 	
 	/**
-	 * Locate an object. This version allows providing a data de-serializer. This will be handy
-	 * later if we want to implement some concurrency, which requires using multiple of the
-	 * stateful DeSerializers. 
+	 * Locate an object. This version allows providing a data de-serializer. Every thread
+	 * needs its own de-serializer, because they are stateful.
 	 * @param dds
 	 * @param oid
 	 * @return Path name of the object (later: position of obj)
 	 */
 	@Override
 	public ZooPCImpl readObject(DataDeSerializer dds, long oid) {
-		FilePos oie = oidIndex.findOid(oid);
-		if (oie == null) {
-			throw DBLogger.newObjectNotFoundException("OID not found: " + Util.oidToString(oid));
+		lock.lockRead();
+		try {
+			long pos = findPos(dds, oid);
+			if (pos < 0) {
+				throw DBLogger.newObjectNotFoundException(
+						"OID not found: " + Util.oidToString(oid));
+			}
+
+			return dds.readObject(BitTools.getPage(pos), BitTools.getOffs(pos), false);
+		} finally {
+			lock.unlockRead();
+		}
+	}
+	
+	/**
+	 * Reads an object unless it is rejected by the filter. This is used by the object 
+	 * iterators.
+	 * @param oid
+	 * @param filter Optional filter, may be {@code null}.
+	 * @return The object or {@code null} if the filter rejects it.
+	 */
+	public ZooPCImpl readObject(long oid, QueryPreFilter filter) {
+		final DataDeSerializer dds = ddsPool.get();
+		try {
+			long pos = findPos(dds, oid);
+			if (pos < 0) {
+				throw DBLogger.newObjectNotFoundException(
+						"OID not found: " + Util.oidToString(oid));
+			}
+			if (filter != null && !mayMatch(filter, pos)) {
+				return null;
+			}
+			return dds.readObject(BitTools.getPage(pos), BitTools.getOffs(pos), false);
+		} finally {
+			ddsPool.offer(dds);
+		}
+	}
+	
+	/**
+	 * Reads the object at a given position. This is used by the object iterators.
+	 * @param pos
+	 * @param skipIfCached
+	 * @return The object.
+	 */
+	public ZooPCImpl readObjectAt(long pos, boolean skipIfCached) {
+		final DataDeSerializer dds = ddsPool.get();
+		try {
+			return dds.readObject(BitTools.getPage(pos), BitTools.getOffs(pos), skipIfCached);
+		} finally {
+			ddsPool.offer(dds);
+		}
+	}
+	
+	private FilePos findOid(long oid) {
+		synchronized (indexLock) {
+			return oidIndex.findOid(oid);
 		}
-		
-		return dds.readObject(oie.getPage(), oie.getOffs(), false);
+	}
+
+	/**
+	 * Finds the position of an object. Objects on recently read data pages are found without 
+	 * looking them up in the OID index. If the page of the object is cached, the de-serializer
+	 * is prepared to read the object from the cached page. 
+	 * @param dds The de-serializer that will read the object, may be null
+	 * @param oid
+	 * @return The position of the object or -1 if the object does not exist.
+	 */
+	private long findPos(DataDeSerializer dds, long oid) {
+		if (objectCache == null) {
+			FilePos oie = findOid(oid);
+			return oie == null ? -1 : BitTools.getPos(oie.getPage(), oie.getOffs());
+		}
+		long pos;
+		synchronized (indexLock) {
+			if (objectCacheModCount != oidIndex.getModCount()) {
+				//objects have been written or deleted, or we have a new snapshot
+				objectCache.clear();
+				objectCacheModCount = oidIndex.getModCount();
+			}
+			pos = objectCache.findPos(oid);
+			if (pos < 0) {
+				FilePos oie = oidIndex.findOid(oid);
+				if (oie == null) {
+					return -1;
+				}
+				pos = BitTools.getPos(oie.getPage(), oie.getOffs());
+			}
+		}
+		int page = BitTools.getPage(pos);
+		ByteBuffer buf;
+		synchronized (indexLock) {
+			buf = objectCache.getPage(page);
+		}
+		if (buf == null) {
+			buf = cachePage(page);
+		}
+		if (dds != null && buf != null) {
+			dds.usePage(buf, page);
+		}
+		return pos;
+	}
+	
+	/**
+	 * Reads a data page into the object cache. All objects that start on the page and 
+	 * do not continue on other pages are registered with the cache. The page is read 
+	 * without holding the index lock.
+	 * @param pageId
+	 * @return A view of the page or {@code null} if it is not a data page.
+	 */
+	private ByteBuffer cachePage(int pageId) {
+		ByteBuffer buf = ByteBuffer.allocate(file.getPageSize());
+		file.readPage(buf, pageId);
+		if (buf.get(0) != DATA_TYPE.DATA.getId()) {
+			return null;
+		}
+		ZooClassDef def = cache.getSchema(buf.getLong(DiskIO.PAGE_HEADER_SIZE));
+		if (def == null) {
+			return null;
+		}
+		synchronized (indexLock) {
+			SchemaIndexEntry sie = schemaIndex.getSchema(def);
+			if (sie == null || def.getSchemaVersion() >= sie.getObjectIndexVersionCount()) {
+				return null;
+			}
+			objectCache.putPage(pageId, buf);
+			PagedPosIndex ppi = sie.getObjectIndexVersion(def.getSchemaVersion());
+			AbstractPageIterator<LLEntry> it = ppi.iteratorPositions(pageId);
+			while (it.hasNext()) {
+				LLEntry e = it.next();
+				int offs = BitTools.getOffs(e.getKey());
+				//skip secondary pages and objects that continue on other pages
+				if (offs != (int)PagedPosIndex.MARK_SECONDARY && e.getValue() == 0) {
+					objectCache.addObject(buf.getLong(offs), offs);
+				}
+			}
+			it.close();
+		}
+		return buf.duplicate();
 	}
 
 	@Override
 	public boolean checkIfObjectExists(long oid) {
-		FilePos oie = oidIndex.findOid(oid);
-		return oie != null;
+		lock.lockRead();
+		try {
+			return findOid(oid) != null;
+		} finally {
+			lock.unlockRead();
+		}
 	}
 
 	@Override
-	public void close() {
+	public synchronized void close() {
 		DBLogger.debugPrintln(1, "Closing DB file: " + node.getDbPath());
 		file.close();
+		shared.close(this);
 	}
 
+	/**
+	 * Acquires the write lock, unless this session already holds it.
+	 */
+	private void beginWrite() {
+		if (isWriter) {
+			return;
+		}
+		hasWritten = true;
+		if (isSchemaStale) {
+			throw DBLogger.newUser("The schema has been modified by another " +
+					"PersistenceManager. Please reopen the PersistenceManager.");
+		}
+		shared.beginWrite(this, txId);
+		isWriter = true;
+		//label new pages with the ID of the new transaction
+		file.acquireLock(txId + 1);
+	}
+	
 	@Override
-	public void commit() {
-		txId++;
-		file.acquireLock(txId);
+	public synchronized void beginTransaction() {
+		if (shared.getTxId() == txId) {
+			return;
+		}
+		RootPage rp = new RootPage();
+		long newTxId = shared.readSnapshot(this, rp);
+		if (!schemaIndex.refresh(rp.getSchemIndexPage())) {
+			isSchemaStale = true;
+		}
+		oidIndex.revert(rp.getOidIndexPage());
+		freeIndex.revert(rp.getFMSPage(), rp.getFSMPageCount());
+		rootPage.set(rp);
+		txId = newTxId;
+		//buffered pages may have been reused by other sessions
+		file.resetReaders();
+	}
+	
+	@Override
+	public synchronized void commit() {
 		int oidPage = oidIndex.write();
 		int schemaPage1 = schemaIndex.write();
 		int userPage = rootPage.getUserPage(); //not updated currently
@@ -560,19 +1387,27 @@ public class DiskAccessOneFile implements DiskAccess {
 		int pageCount = freeIndex.getPageCount();
 		
 		if (!rootPage.isDirty(userPage, oidPage, schemaPage1, indexPage, freePage)) {
+			endWrite();
 			return;
 		}
+		beginWrite();
+		txId++;
 		rootPage.set(userPage, oidPage, schemaPage1, indexPage, freePage, pageCount);
+		//OIDs may have been allocated by other sessions
+		oidIndex.updateLastUsedOid(shared.getLastUsedOid());
 		
 		// flush the file including all splits 
 		file.flush(); 
-		writeMainPage(userPage, oidPage, schemaPage1, indexPage, freePage, pageCount, fileOut);
-		//Second flush to update root pages.
-		file.flush(); 
 		
 		//tell FSM that new free pages can now be reused.
 		freeIndex.notifyCommit();
 		
+		//publish the commit, the root page is written by the shared database
+		shared.commit(this, rootPage, txId, oidIndex.getLastUsedOid());
+		isWriter = false;
+		hasWritten = false;
+		shared.commitSync(txId);
+		
 		//refresh pos-index iterators, if any exist.
 		//TODO not necessary at the moment..., all tests (e.g. Test_62) pass anyway.
 		//refresh() is performed through the session object.
@@ -584,7 +1419,7 @@ public class DiskAccessOneFile implements DiskAccess {
 	 * been rewritten, this method will revert existing changes.
 	 */
 	@Override
-	public void revert() {
+	public synchronized void revert() {
 		//Empty file buffers. For now we just flush them.
 		file.flush(); //TODO revert for file???
 		//revert
@@ -594,6 +1429,22 @@ public class DiskAccessOneFile implements DiskAccess {
 		//We do NOT reset the OID count. That may cause OID leaking(does it?), but the OIDs are
 		//still assigned to uncommitted objects.
 		oidIndex.revert(rootPage.getOidIndexPage());
+		endWrite();
+	}
+	
+	@Override
+	public synchronized void rollback() {
+		if (hasWritten) {
+			revert();
+		}
+	}
+	
+	private void endWrite() {
+		if (isWriter) {
+			shared.endWrite(this);
+			isWriter = false;
+		}
+		hasWritten = false;
 	}
 	
 	/**
@@ -602,73 +1453,250 @@ public class DiskAccessOneFile implements DiskAccess {
 	 * purpose implementation of the deserializer, which would have the need for a cache removed.
 	 */
 	@Override
-	public void defineIndex(ZooClassDef def, ZooFieldDef field, boolean isUnique) {
+	public synchronized void defineIndex(ZooClassDef def, ZooFieldDef field, boolean isUnique) {
+		beginWrite();
 		SchemaIndexEntry se = schemaIndex.getSchema(def);
-		LongLongIndex fieldInd = (LongLongIndex) se.defineIndex(field, isUnique);
+		AbstractPagedIndex ind0 = se.defineIndex(field, isUnique);
 		
 		//fill index with existing objects
 		PagedPosIndex ind = se.getObjectIndexLatestSchemaVersion();
 		PagedPosIndex.ObjectPosIterator iter = ind.iteratorObjects();
         DataDeSerializerNoClass dds = new DataDeSerializerNoClass(fileInAP);
         if (field.isPrimitiveType()) {
-			while (iter.hasNext()) {
+        	//The index is empty, so we can sort all entries and build it bottom-up.
+        	LLBulkLoader loader = new LLBulkLoader((LongLongIndex) ind0);
+        	try {
+        		while (iter.hasNext()) {
+        			long pos = iter.nextPos();
+        			dds.seekPos(pos);
+        			//first read the key, then afterwards the field!
+        			long key = dds.getAttrAsLong(def, field);
+        			loader.add(key, dds.getLastOid());
+        		}
+        		//this checks for duplicates in unique indices
+        		loader.load();
+        	} finally {
+        		loader.close();
+        	}
+        } else {
+        	//must be String
+        	fillStringIndex((PagedStringLong) ind0, iter, field, isUnique);
+        }
+        iter.close();
+	}
+
+	private void fillStringIndex(PagedStringLong fieldInd, PagedPosIndex.ObjectPosIterator iter, 
+			ZooFieldDef field, boolean isUnique) {
+		DataDeSerializerNoClass dds = new DataDeSerializerNoClass(fileInAP);
+		final DataDeSerializer ds = ddsPool.get();
+		try {
+			while (iter.hasNextOPI()) {
 				long pos = iter.nextPos();
 				dds.seekPos(pos);
-				//first read the key, then afterwards the field!
-				long key = dds.getAttrAsLong(def, field);
+				long oid = dds.getOid();
+				String key = ds.readStringField(BitTools.getPage(pos), BitTools.getOffs(pos), 
+						field);
 				if (isUnique) {
-					if (!fieldInd.insertLongIfNotSet(key, dds.getLastOid())) {
+					if (!fieldInd.insertStringIfNotSet(key, oid)) {
 						throw DBLogger.newUser("Duplicate entry in unique index: " +
-								Util.oidToString(dds.getLastOid()));
+								Util.oidToString(oid));
 					}
 				} else {
-					fieldInd.insertLong(key, dds.getLastOid());
+					fieldInd.insertString(key, oid);
 				}
 			}
-        } else {
-			while (iter.hasNext()) {
-				long pos = iter.nextPos();
-				dds.seekPos(pos);
-				//first read the key, then afterwards the field!
-				long key = dds.getAttrAsLongObjectNotNull(def, field);
-				fieldInd.insertLong(key, dds.getLastOid());
-				//TODO handle null values:
-				//-ignore them?
-				//-use special value?
-			}
-			//DatabaseLogger.debugPrintln(0, "FIXME defineIndex()");
-        }
-        iter.close();
+		} finally {
+			ddsPool.offer(ds);
+		}
 	}
 
+	/**
+	 * Before 1.9, DBLargeVector was stored as a DBArrayList. These objects can not be read by
+	 * the current DBLargeVector, there is no conversion.
+	 */
+	private void checkLegacyVector(Collection<ZooClassDef> defs) {
+		for (ZooClassDef def: defs) {
+			if (!def.getClassName().equals(DBLargeVector.class.getName())) {
+				continue;
+			}
+			ZooClassDef sup = def.getSuperDef();
+			if (sup != null && sup.getClassName().equals(DBArrayList.class.getName())) {
+				throw DBLogger.newUser("The database contains DBLargeVector of file version " + 
+						DB_FILE_VERSION_MAJ + "." + fileVersion + ", which is not supported " +
+						"by file version " + DB_FILE_VERSION_MAJ + "." + 
+						DB_FILE_VERSION_MIN_PAGED_VECTOR + " and later. Please replace them " +
+						"with DBArrayList using the previous version of ZooDB: " + 
+						node.getDbPath());
+			}
+		}
+	}
+
+	private static ZooFieldDef findField(ZooClassDef def, long fieldSchemaId) {
+		for (ZooFieldDef f: def.getAllFields()) {
+			if (f.getFieldSchemaId() == fieldSchemaId) {
+				return f;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Rebuilds the String indices of files of version 1.5. These indices contain hash values 
+	 * instead of the Strings. They are rebuilt from the objects of all schema versions and
+	 * committed immediately. Later versions only differ in the layout of the schema index,
+	 * which is converted when it is written.
+	 * Files before 1.9 are rejected if they contain a {@link DBLargeVector} of the old layout.
+	 */
 	@Override
-	public boolean removeIndex(ZooClassDef cls, ZooFieldDef field) {
+	public synchronized void upgradeIndices(Collection<ZooClassDef> defs) {
+		if (fileVersion < DB_FILE_VERSION_MIN_PAGED_VECTOR) {
+			checkLegacyVector(defs);
+		}
+		if (!schemaIndex.hasLegacyIndices()) {
+			return;
+		}
+		//another session may have upgraded the file already
+		beginTransaction();
+		if (!schemaIndex.hasLegacyIndices()) {
+			return;
+		}
+		DBLogger.info("Rebuilding String indices of file version " + DB_FILE_VERSION_MAJ + "." + 
+				fileVersion + ": " + node.getDbPath());
+		try {
+			beginWrite();
+			for (ZooClassDef def: defs) {
+				SchemaIndexEntry se = schemaIndex.getSchema(def);
+				if (def.getNextVersion() != null || se == null || !se.hasLegacyIndex()) {
+					continue;
+				}
+				for (ZooFieldDef field: def.getAllFields()) {
+					PagedStringLong ind = se.replaceLegacyIndex(field);
+					if (ind == null) {
+						continue;
+					}
+					//fill with the objects of all versions that have the field
+					for (ZooClassDef v = def; v != null; v = v.getPreviousVersion()) {
+						ZooFieldDef f = findField(v, field.getFieldSchemaId());
+						if (f == null) {
+							continue;
+						}
+						PagedPosIndex.ObjectPosIterator iter = 
+								se.getObjectIndexVersion(v.getSchemaVersion()).iteratorObjects();
+						try {
+							fillStringIndex(ind, iter, f, field.isIndexUnique());
+						} finally {
+							iter.close();
+						}
+					}
+				}
+			}
+			commit();
+		} catch (RuntimeException e) {
+			revert();
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized boolean removeIndex(ZooClassDef cls, ZooFieldDef field) {
+		beginWrite();
 		SchemaIndexEntry e = schemaIndex.getSchema(cls);
 		return e.removeIndex(field);
 	}
 
+	/**
+	 * Defines a composite index and populates it with the objects of the latest schema version.
+	 * The key of each object is assembled field by field from the serialized object.
+	 */
+	@Override
+	public synchronized void defineCompositeIndex(ZooClassDef def, CompositeIndexDef index) {
+		beginWrite();
+		SchemaIndexEntry se = schemaIndex.getSchema(def);
+		PagedStringLong ind0 = se.defineCompositeIndex(index);
+		
+		//fill index with existing objects
+		PagedPosIndex ind = se.getObjectIndexLatestSchemaVersion();
+		PagedPosIndex.ObjectPosIterator iter = ind.iteratorObjects();
+		DataDeSerializerNoClass dds = new DataDeSerializerNoClass(fileInAP);
+		final DataDeSerializer ds = ddsPool.get();
+		StringBuilder sb = new StringBuilder();
+		while (iter.hasNext()) {
+			long pos = iter.nextPos();
+			sb.setLength(0);
+			for (ZooFieldDef field: index.getFields()) {
+				if (field.isString()) {
+					index.appendString(sb, ds.readStringField(
+							BitTools.getPage(pos), BitTools.getOffs(pos), field));
+				} else {
+					dds.seekPos(pos);
+					CompositeKey.appendLong(sb, dds.getAttrAsLong(def, field));
+				}
+			}
+			dds.seekPos(pos);
+			long oid = dds.getOid();
+			String key = index.toKey(sb, oid);
+			if (index.isUnique()) {
+				if (!ind0.insertStringIfNotSet(key, oid)) {
+					throw DBLogger.newUser("Duplicate entry in unique index " + index + ": " +
+							Util.oidToString(oid));
+				}
+			} else {
+				ind0.insertString(key, oid);
+			}
+		}
+		ddsPool.offer(ds);
+		iter.close();
+	}
+
+	@Override
+	public synchronized boolean removeCompositeIndex(ZooClassDef def, CompositeIndexDef index) {
+		beginWrite();
+		SchemaIndexEntry e = schemaIndex.getSchema(def);
+		return e.removeCompositeIndex(index);
+	}
+
     /**
      * Get the class of a given object.
      */
 	@Override
 	public long getObjectClass(long oid) {
-		FilePos oie = oidIndex.findOid(oid);
-		if (oie == null) {
-			throw DBLogger.newObjectNotFoundException("OID not found: " + Util.oidToString(oid));
-		}
-		
+		lock.lockRead();
 		try {
-			//TODO use ObjectReader!?!?!
-			fileInAP.seekPage(DATA_TYPE.DATA, oie.getPage(), oie.getOffs());
-			return new DataDeSerializerNoClass(fileInAP).getClassOid();
-		} catch (Exception e) {
-			throw DBLogger.newObjectNotFoundException(
-					"ERROR reading object: " + Util.oidToString(oid));
+			FilePos oie = findOid(oid);
+			if (oie == null) {
+				throw DBLogger.newObjectNotFoundException(
+						"OID not found: " + Util.oidToString(oid));
+			}
+
+			StorageChannelInput in = getReader();
+			try {
+				//TODO use ObjectReader!?!?!
+				in.seekPage(DATA_TYPE.DATA, oie.getPage(), oie.getOffs());
+				return new DataDeSerializerNoClass(in).getClassOid();
+			} catch (Exception e) {
+				throw DBLogger.newObjectNotFoundException(
+						"ERROR reading object: " + Util.oidToString(oid));
+			} finally {
+				offerReader(in);
+			}
+		} finally {
+			lock.unlockRead();
 		}
 	}
 	
 	@Override
 	public int getStats(STATS stats) {
+		lock.lockRead();
+		try {
+			synchronized (indexLock) {
+				return getStatsLocked(stats);
+			}
+		} finally {
+			lock.unlockRead();
+		}
+	}
+	
+	private int getStatsLocked(STATS stats) {
 		switch (stats) {
 		case IO_DATA_PAGE_READ_CNT:
 			return ObjectReader.statsGetReadCount();
@@ -680,6 +1708,14 @@ public class DiskAccessOneFile implements DiskAccess {
 			return file.statsGetReadCountUnique();
 		case IO_PAGE_WRITE_CNT:
 			return file.statsGetWriteCount();
+		case IO_PAGE_CACHE_HIT_CNT:
+			return file.statsGetPageCacheHitCount();
+		case IO_PAGE_CACHE_MISS_CNT:
+			return file.statsGetPageCacheMissCount();
+		case IO_OBJECT_CACHE_HIT_CNT:
+			return objectCache == null ? 0 : objectCache.statsGetHitCount();
+		case IO_OBJECT_CACHE_MISS_CNT:
+			return objectCache == null ? 0 : objectCache.statsGetMissCount();
 		case DB_PAGE_CNT:
 			return file.statsGetPageCount();
 		case DB_PAGE_CNT_IDX_FSM:
@@ -715,6 +1751,17 @@ public class DiskAccessOneFile implements DiskAccess {
 
     @Override
     public String checkDb() {
+		lock.lockRead();
+		try {
+			synchronized (indexLock) {
+				return checkDbLocked();
+			}
+		} finally {
+			lock.unlockRead();
+		}
+    }
+    
+    private String checkDbLocked() {
         final byte ROOT = 1;
         final byte IDX_FSM = 2;
         final byte IDX_OID = 3;
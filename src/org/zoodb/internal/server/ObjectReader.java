@@ -20,6 +20,8 @@
  */
 package org.zoodb.internal.server;
 
+import java.nio.ByteBuffer;
+
 
 import org.zoodb.internal.SerialInput;
 import org.zoodb.internal.server.DiskIO.DATA_TYPE;
@@ -103,12 +105,23 @@ public class ObjectReader implements SerialInput {
     	//TODO Hmm this is dirty...
         ((StorageChannelInput)in).seekPage(DATA_TYPE.DATA, page, offs);
         if (DBStatistics.isEnabled()) {
-        	statNRead++;
-        	statNReadUnique.put(page, null);
+        	synchronized (statNReadUnique) {
+        		statNRead++;
+        		statNReadUnique.put(page, null);
+        	}
         }
         return in.getHeaderClassOID();
     }
     
+    /**
+     * Use a copy of a data page for reading instead of reading the page from the file.
+     * @param page
+     * @param pageId
+     */
+    public void usePage(ByteBuffer page, int pageId) {
+        ((StorageChannelInput)in).usePage(page, pageId);
+    }
+    
 	private static final PrimLongMapLI<Object> statNReadUnique = new PrimLongMapLI<Object>();
 	private static int statNRead = 0; 
 
@@ -121,9 +134,11 @@ public class ObjectReader implements SerialInput {
 	//@Override
 	public static final int statsGetReadCountUnique() {
 		DBLogger.debugPrintln(1, "WARNING: Using static read counter");
-		int ret = statNReadUnique.size();
-		statNReadUnique.clear();
-		return ret;
+		synchronized (statNReadUnique) {
+			int ret = statNReadUnique.size();
+			statNReadUnique.clear();
+			return ret;
+		}
 	}
 
 	@Override
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server;
+
+import java.nio.ByteBuffer;
+
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.PrimLongMapLI;
+import org.zoodb.tools.DBStatistics;
+
+/**
+ * A bounded page buffer pool that sits between a {@link StorageChannel} and the file.
+ * The cache is shared by all readers and writers of a channel.
+ *
+ * Eviction uses the CLOCK algorithm (second chance). Pinned pages are never evicted.
+ * Written pages are kept as dirty pages and are only written to the backing store when they
+ * get evicted or when the cache is flushed. This is safe for the shadow paging approach,
+ * because the root pages are only written after a flush().
+ *
+ * For dirty pages we keep track of the number of bytes that have been written to the page.
+ * Only these are written back, this ensures that the file grows exactly as it would without
+ * the cache.
+ *
+ * @author Tilmann Zaeschke
+ */
+public final class PageCache {
+
+	/**
+	 * Callback for writing dirty pages back to the file.
+	 */
+	public interface PageWriter {
+		void writePage(ByteBuffer buf, long pageId);
+	}
+
+	private static final class Frame {
+		private final ByteBuffer buf;
+		private long pageId = -1;
+		private boolean isReferenced = false;
+		//number of bytes that need to be written back, 0 if the page is clean
+		private int dirtyLen = 0;
+		private int pinCount = 0;
+
+		private Frame(int pageSize) {
+			buf = ByteBuffer.allocateDirect(pageSize);
+		}
+	}
+
+	private final Frame[] frames;
+	private final PrimLongMapLI<Frame> map;
+	private final int pageSize;
+	private final PageWriter writer;
+	//number of frames that are in use
+	private int nUsed = 0;
+	private int clockHand = 0;
+
+	private int statNHit = 0;
+	private int statNMiss = 0;
+	private int statNEvict = 0;
+
+	/**
+	 *
+	 * @param pageSize the page size in bytes
+	 * @param maxPages the maximum number of pages in the cache
+	 * @param writer the callback for writing back dirty pages
+	 */
+	public PageCache(int pageSize, int maxPages, PageWriter writer) {
+		if (maxPages <= 0) {
+			throw new IllegalArgumentException("Illegal page cache size: " + maxPages);
+		}
+		this.pageSize = pageSize;
+		this.writer = writer;
+		frames = new Frame[maxPages];
+		map = new PrimLongMapLI<Frame>(maxPages);
+	}
+
+	/**
+	 * Copy a page from the cache into the buffer.
+	 * @param buf
+	 * @param pageId
+	 * @return {@code true} if the page was found in the cache, otherwise {@code false}.
+	 */
+	public boolean read(ByteBuffer buf, long pageId) {
+		Frame f = map.get(pageId);
+		if (f == null) {
+			if (DBStatistics.isEnabled()) {
+				statNMiss++;
+			}
+			return false;
+		}
+		if (DBStatistics.isEnabled()) {
+			statNHit++;
+		}
+		f.isReferenced = true;
+		ByteBuffer src = f.buf;
+		src.clear();
+		buf.put(src);
+		return true;
+	}
+
+	/**
+	 * Add a page that has been read from disk. Nothing happens if the page is already 
+	 * cached, because it may have been added by a concurrent reader, or it may be dirty.
+	 * @param buf Buffer, the content between position 0 and the current position is cached.
+	 * @param pageId
+	 */
+	public void putClean(ByteBuffer buf, long pageId) {
+		if (map.get(pageId) != null) {
+			return;
+		}
+		Frame f = allocateFrame(pageId);
+		copyIntoFrame(buf, 0, buf.position(), f);
+	}
+
+	/**
+	 * Add a page that has been written. The page will be marked dirty.
+	 * @param buf Buffer, the content between the current position and the limit is cached.
+	 * @param pageId
+	 */
+	public void putDirty(ByteBuffer buf, long pageId) {
+		Frame f = map.get(pageId);
+		if (f == null) {
+			f = allocateFrame(pageId);
+		}
+		int len = buf.remaining();
+		copyIntoFrame(buf, buf.position(), len, f);
+		if (len > f.dirtyLen) {
+			f.dirtyLen = len;
+		}
+	}
+
+	private void copyIntoFrame(ByteBuffer buf, int start, int len, Frame f) {
+		ByteBuffer src = buf.duplicate();
+		src.limit(start + len);
+		src.position(start);
+		f.buf.clear();
+		f.buf.put(src);
+		f.isReferenced = true;
+	}
+
+	private Frame allocateFrame(long pageId) {
+		Frame f;
+		if (nUsed < frames.length) {
+			f = new Frame(pageSize);
+			frames[nUsed++] = f;
+		} else {
+			f = findVictim();
+			evict(f);
+		}
+		f.pageId = pageId;
+		map.put(pageId, f);
+		return f;
+	}
+
+	private Frame findVictim() {
+		//Two rounds should suffice, unless all pages are pinned.
+		for (int i = 0; i < 2 * frames.length; i++) {
+			Frame f = frames[clockHand];
+			clockHand = (clockHand + 1) % frames.length;
+			if (f.pinCount > 0) {
+				continue;
+			}
+			if (f.isReferenced) {
+				f.isReferenced = false;
+				continue;
+			}
+			return f;
+		}
+		throw DBLogger.newFatal("Page cache exhausted, all pages are pinned: " + frames.length);
+	}
+
+	private void evict(Frame f) {
+		writeBack(f);
+		map.remove(f.pageId);
+		f.pageId = -1;
+		if (DBStatistics.isEnabled()) {
+			statNEvict++;
+		}
+	}
+
+	private void writeBack(Frame f) {
+		if (f.dirtyLen > 0) {
+			ByteBuffer b = f.buf;
+			b.limit(f.dirtyLen);
+			b.position(0);
+			writer.writePage(b, f.pageId);
+			f.dirtyLen = 0;
+		}
+	}
+
+	/**
+	 * Write back all dirty pages. Pages remain in the cache.
+	 */
+	public void flush() {
+		for (int i = 0; i < nUsed; i++) {
+			writeBack(frames[i]);
+		}
+	}
+
+	/**
+	 * @param fileLength The current length of the file in bytes
+	 * @return The length of the file after the dirty pages have been written back.
+	 */
+	public long getLengthAfterFlush(long fileLength) {
+		long len = fileLength;
+		for (int i = 0; i < nUsed; i++) {
+			Frame f = frames[i];
+			if (f.dirtyLen > 0 && f.pageId * pageSize + f.dirtyLen > len) {
+				len = f.pageId * pageSize + f.dirtyLen;
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Pin a page. Pinned pages are never evicted. Pinning is counted, every call to pin()
+	 * requires a call to unpin().
+	 * @param pageId
+	 * @return {@code false} if the page is not in the cache.
+	 */
+	public boolean pin(long pageId) {
+		Frame f = map.get(pageId);
+		if (f == null) {
+			return false;
+		}
+		f.pinCount++;
+		return true;
+	}
+
+	public void unpin(long pageId) {
+		Frame f = map.get(pageId);
+		if (f == null || f.pinCount <= 0) {
+			throw DBLogger.newFatal("Page is not pinned: " + pageId);
+		}
+		f.pinCount--;
+	}
+
+	public boolean isDirty(long pageId) {
+		Frame f = map.get(pageId);
+		return f != null && f.dirtyLen > 0;
+	}
+
+	public boolean contains(long pageId) {
+		return map.containsKey(pageId);
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public int getMaxPages() {
+		return frames.length;
+	}
+
+	public int statsGetHitCount() {
+		return statNHit;
+	}
+
+	public int statsGetMissCount() {
+		return statNMiss;
+	}
+
+	public int statsGetEvictCount() {
+		return statNEvict;
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.util.PrimLongMapLI;
+import org.zoodb.tools.DBStatistics;
+
+/**
+ * A cache for the raw data of objects on recently read data pages.
+ * 
+ * Objects of one class are stored in consecutive pages, so objects that are loaded one after 
+ * another are often located on the same page. When a data page is read, a copy of the page is
+ * kept together with the OIDs and offsets of all objects that are completely stored on that 
+ * page. Neighbouring objects can then be read from the copy, without reading the page again 
+ * and without looking up their position in the OID index.
+ * 
+ * The cache is only valid as long as objects are not moved. It has to be cleared whenever 
+ * objects are written or deleted and whenever the session moves to a new snapshot of the 
+ * database.
+ * 
+ * Objects are looked up by OID in constant time via a map from OID to the cached page.
+ * Eviction uses the CLOCK algorithm (second chance).
+ * 
+ * The cache is not thread-safe, access is synchronized by {@link DiskAccessOneFile}. Cached 
+ * pages are never modified or reused, so views of a page remain valid after the page has 
+ * been evicted. This allows threads to read objects from a view without holding the lock. 
+ * 
+ * @author Tilmann Zaeschke
+ */
+final class PageObjectCache {
+
+	private static final class Frame {
+		private ByteBuffer buf;
+		private int pageId = -1;
+		private boolean isReferenced = false;
+		//sorted OIDs and the offsets of the objects
+		private long[] oids = new long[16];
+		private int[] offsets = new int[16];
+		private int nObjects = 0;
+		
+		private int indexOf(long oid) {
+			if (nObjects == 0 || oid < oids[0] || oid > oids[nObjects-1]) {
+				return -1;
+			}
+			int i = Arrays.binarySearch(oids, 0, nObjects, oid);
+			return i >= 0 ? i : -1;
+		}
+		
+		private void add(long oid, int offs) {
+			if (nObjects == oids.length) {
+				oids = Arrays.copyOf(oids, nObjects * 2);
+				offsets = Arrays.copyOf(offsets, nObjects * 2);
+			}
+			//Objects are usually added in OID order
+			int i = nObjects;
+			while (i > 0 && oids[i-1] > oid) {
+				oids[i] = oids[i-1];
+				offsets[i] = offsets[i-1];
+				i--;
+			}
+			oids[i] = oid;
+			offsets[i] = offs;
+			nObjects++;
+		}
+	}
+	
+	private final Frame[] frames;
+	//pageId -> page
+	private final PrimLongMapLI<Frame> pages;
+	//OID -> page of the object
+	private final PrimLongMapLI<Frame> objects;
+	//number of frames that are in use
+	private int nUsed = 0;
+	private int clockHand = 0;
+	//the page that is currently filled
+	private Frame current = null;
+	//the page of the last hit, objects are often read in the order in which they are stored
+	private Frame last = null;
+
+	private int statNHit = 0;
+	private int statNMiss = 0;
+	
+	/**
+	 * @param maxPages the maximum number of pages in the cache
+	 */
+	PageObjectCache(int maxPages) {
+		if (maxPages <= 0) {
+			throw new IllegalArgumentException("Illegal object cache size: " + maxPages);
+		}
+		frames = new Frame[maxPages];
+		pages = new PrimLongMapLI<Frame>(maxPages);
+		objects = new PrimLongMapLI<Frame>();
+	}
+	
+	/**
+	 * @param oid
+	 * @return The position of the object or {@code -1} if the object is not cached.
+	 */
+	long findPos(long oid) {
+		Frame f = last;
+		int i = f == null ? -1 : f.indexOf(oid);
+		if (i < 0) {
+			f = objects.get(oid);
+			i = f == null ? -1 : f.indexOf(oid);
+		}
+		if (i < 0) {
+			if (DBStatistics.isEnabled()) {
+				statNMiss++;
+			}
+			return -1;
+		}
+		if (DBStatistics.isEnabled()) {
+			statNHit++;
+		}
+		f.isReferenced = true;
+		last = f;
+		return BitTools.getPos(f.pageId, f.offsets[i]);
+	}
+	
+	/**
+	 * @param pageId
+	 * @return A view of the cached page or {@code null} if the page is not cached. The view
+	 * must not be modified.
+	 */
+	ByteBuffer getPage(int pageId) {
+		Frame f = last;
+		if (f == null || f.pageId != pageId) {
+			f = pages.get(pageId);
+			if (f == null) {
+				return null;
+			}
+		}
+		return f.buf.duplicate();
+	}
+	
+	/**
+	 * Adds a page. Objects that are added with {@link #addObject(long, int)} are 
+	 * associated with this page.
+	 * @param pageId
+	 * @param buf The content of the page, it must not be modified afterwards.
+	 */
+	void putPage(int pageId, ByteBuffer buf) {
+		Frame f = pages.get(pageId);
+		if (f != null) {
+			evict(f);
+		} else if (nUsed < frames.length) {
+			f = new Frame();
+			frames[nUsed++] = f;
+		} else {
+			f = findVictim();
+			evict(f);
+		}
+		f.buf = buf;
+		f.pageId = pageId;
+		f.isReferenced = true;
+		pages.put(pageId, f);
+		current = f;
+	}
+	
+	/**
+	 * Adds an object to the page that was last added with {@link #putPage(int, ByteBuffer)}.
+	 * @param oid
+	 * @param offs
+	 */
+	void addObject(long oid, int offs) {
+		current.add(oid, offs);
+		objects.put(oid, current);
+	}
+
+	private Frame findVictim() {
+		//This terminates after at most two rounds, because frames are never pinned.
+		while (true) {
+			Frame f = frames[clockHand];
+			clockHand = (clockHand + 1) % frames.length;
+			if (f.isReferenced) {
+				f.isReferenced = false;
+				continue;
+			}
+			return f;
+		}
+	}
+	
+	private void evict(Frame f) {
+		for (int i = 0; i < f.nObjects; i++) {
+			//the object may have been registered again with a different page
+			if (objects.get(f.oids[i]) == f) {
+				objects.remove(f.oids[i]);
+			}
+		}
+		f.nObjects = 0;
+		pages.remove(f.pageId);
+		f.pageId = -1;
+		f.buf = null;
+		if (current == f) {
+			current = null;
+		}
+		if (last == f) {
+			last = null;
+		}
+	}
+	
+	/**
+	 * Removes all pages from the cache.
+	 */
+	void clear() {
+		for (int i = 0; i < nUsed; i++) {
+			Frame f = frames[i];
+			f.nObjects = 0;
+			f.pageId = -1;
+			f.buf = null;
+			f.isReferenced = false;
+		}
+		pages.clear();
+		objects.clear();
+		current = null;
+		last = null;
+	}
+	
+	int statsGetHitCount() {
+		return statNHit;
+	}
+
+	int statsGetMissCount() {
+		return statNMiss;
+	}
+}
@@ -20,6 +20,8 @@
  */
 package org.zoodb.internal.server;
 
+import java.nio.ByteBuffer;
+
 final class RootPage {
 
 	private int userPage;
@@ -51,6 +53,52 @@ final class RootPage {
 		this.pageCount = pageCount;
 	}
 
+	void set(RootPage rootPage) {
+		set(rootPage.userPage, rootPage.oidPage, rootPage.schemaPage, rootPage.indexPage, 
+				rootPage.freeSpaceIndexPage, rootPage.pageCount);
+	}
+
+	/**
+	 * Writes the page IDs and the page count in the format of the root page.
+	 * @param out
+	 */
+	void write(StorageChannelOutput out) {
+		//User table
+		out.writeInt(userPage);
+		//OID table
+		out.writeInt(oidPage);
+		//schemata
+		out.writeInt(schemaPage);
+		//indices
+		out.writeInt(indexPage);
+		//free space index
+		out.writeInt(freeSpaceIndexPage);
+		//page count
+		out.writeInt(pageCount);
+	}
+
+	/**
+	 * Writes the page IDs and the page count, see {@link #read(ByteBuffer)}.
+	 * @param buf
+	 */
+	void write(ByteBuffer buf) {
+		buf.putInt(userPage);
+		buf.putInt(oidPage);
+		buf.putInt(schemaPage);
+		buf.putInt(indexPage);
+		buf.putInt(freeSpaceIndexPage);
+		buf.putInt(pageCount);
+	}
+
+	/**
+	 * Reads the page IDs and the page count, see {@link #write(ByteBuffer)}.
+	 * @param buf
+	 */
+	void read(ByteBuffer buf) {
+		set(buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt(), 
+				buf.getInt());
+	}
+
 	@Deprecated
 	int getUserPage() {
 		return userPage; 
@@ -0,0 +1,643 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.index.FreeSpaceManager;
+import org.zoodb.internal.server.index.PagedOidIndex;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.PrimLongMapLI;
+import org.zoodb.internal.util.PrimLongMap.PrimLongEntry;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * The part of a database that is shared by all sessions of a JVM. This is the file 
+ * (including the page cache), the state of the last commit, the OID counter and the 
+ * write lock.
+ * 
+ * Every session reads a snapshot of the database, which is the state of the last commit 
+ * when the session started its transaction. Pages are never overwritten while they are part
+ * of a committed state (shadow paging), so a snapshot stays valid as long as the pages that
+ * were freed by later commits are not reused. For this, every freed page is tagged with the 
+ * transaction that freed it. The page is only reused once all sessions have moved on to a 
+ * snapshot of that transaction or later.
+ * 
+ * Only one session at a time can write. A session can only write if its snapshot is the 
+ * latest committed state, otherwise it would overwrite the changes of the other session 
+ * (first committer wins).
+ * 
+ * Commits are made durable by writing the root page, which is written alternatingly to one 
+ * of two root pages. The root page of a commit is only written after all pages of the commit
+ * have been forced to disk. Before the other root page can be overwritten, the root page
+ * itself must have been forced to disk. A session commits by publishing its new state in
+ * memory, after which other sessions can already start writing. Writing the root page is 
+ * then performed by {@link #sync(long)}, which makes all commits that have been published so
+ * far durable with one pair of fsyncs. Concurrent or back-to-back commits are therefore 
+ * written together (group commit). 
+ * 
+ * If durability is relaxed (see {@link ZooConfig#setFileSyncCommits(int)}), sessions do not 
+ * wait for {@link #sync(long)}. The file is then synchronized after a number of commits, 
+ * periodically or when the database is closed. Pages that are freed by a commit that is not 
+ * durable yet are not reused, so after a crash the database always reverts to the last 
+ * durable commit. 
+ * 
+ * Optionally, commits are written to a {@link WriteAheadLog} (see 
+ * {@link ZooConfig#setFileWal(boolean)}). A commit is then durable once the log has been 
+ * forced to disk. The pages of the commit are written only to the log, they are copied to 
+ * the database file during checkpoints, which are performed in the background and which 
+ * also write the root page. When the database is opened, commits in the log that are newer 
+ * than the root page are replayed.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class SharedDatabase {
+
+	private static final HashMap<String, SharedDatabase> DATABASES = 
+			new HashMap<String, SharedDatabase>();
+	
+	private final String dbPath;
+	private final StorageChannel root;
+	private int nSessions = 0;
+	
+	//The last commit, this is null until the first session has read the root page 
+	private RootPage rootPage = null;
+	private long txId;
+	private long lastUsedOid;
+	
+	/** The IDs of the two root pages. */
+	private final int[] rootPages = new int[2];
+	/** The root page that contains the last durable commit. */
+	private int rootPageId;
+	/** The ID of the last durable commit. */
+	private long durableTxId;
+	private int nCommitsSinceSync = 0;
+	/** Only one thread at a time writes a root page. */
+	private final Object syncLock = new Object();
+	/** The root page is written through its own view, see {@link #writeRootPage}. */
+	private final StorageView rootView;
+	private final StorageChannelOutput rootOut;
+	private final int syncCommits;
+	private final int syncInterval;
+	private SyncThread syncThread = null;
+	/** The log, or null if commits are not logged. */
+	private final WriteAheadLog log;
+	/** The size of the log in bytes that triggers a checkpoint. */
+	private final long checkpointSize;
+
+	private Object writer = null;
+	/** The transaction ID of the snapshot of each session. */
+	private final IdentityHashMap<Object, Long> snapshots = new IdentityHashMap<Object, Long>();
+	private long oldestSnapshot;
+	/** Freed pages and the ID of the transaction that freed them. */
+	private final PrimLongMapLI<Long> freedPages = new PrimLongMapLI<Long>();
+	
+	private SharedDatabase(String dbPath) {
+		this.dbPath = dbPath;
+		this.root = createPageAccessFile(dbPath, "rw");
+		this.rootView = new StorageView(root, null, null);
+		this.rootOut = rootView.getWriter(false);
+		this.syncCommits = ZooConfig.getFileSyncCommits();
+		this.syncInterval = ZooConfig.getFileSyncInterval();
+		this.checkpointSize = (long)ZooConfig.getFileWalCheckpointSize() * root.getPageSize();
+		WriteAheadLog log = null;
+		if (ZooConfig.isFileWal() && !(root instanceof StorageRootInMemory)) {
+			try {
+				log = new WriteAheadLog(dbPath, root.getPageSize());
+			} catch (RuntimeException e) {
+				root.close();
+				throw e;
+			}
+		}
+		this.log = log;
+	}
+	
+	/**
+	 * Open a database. Every call must be followed by a call to {@link #close(Object)}.
+	 * @param dbPath
+	 * @return The shared database.
+	 */
+	static SharedDatabase open(String dbPath) {
+		synchronized (DATABASES) {
+			SharedDatabase db = DATABASES.get(dbPath);
+			if (db == null) {
+				db = new SharedDatabase(dbPath);
+				DATABASES.put(dbPath, db);
+			}
+			db.nSessions++;
+			return db;
+		}
+	}
+	
+	/**
+	 * Close the session. The file is closed when the last session is closed.
+	 * @param session
+	 */
+	void close(Object session) {
+		synchronized (DATABASES) {
+			synchronized (this) {
+				if (writer == session) {
+					writer = null;
+				}
+				snapshots.remove(session);
+				updateOldestSnapshot();
+			}
+			nSessions--;
+			if (nSessions == 0) {
+				DATABASES.remove(dbPath);
+				if (syncThread != null) {
+					syncThread.shutdown();
+				}
+				sync(getTxId());
+				root.close();
+				if (log != null) {
+					log.close();
+					if (isInitialized()) {
+						//all commits in the log are durable in the database file
+						WriteAheadLog.deleteFiles(dbPath);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Forget all open databases. This is only meant for cleaning up after tests that did not
+	 * close all sessions.
+	 */
+	public static void closeAll() {
+		synchronized (DATABASES) {
+			DATABASES.clear();
+		}
+	}
+
+	private static StorageChannel createPageAccessFile(String dbPath, String options) {
+		try {
+			Class<?> cls = Class.forName(ZooConfig.getFileProcessor());
+			Constructor<?> con = cls.getConstructor(String.class, String.class, Integer.TYPE, 
+					FreeSpaceManager.class);
+			//The sessions have their own free space managers, see StorageView
+			StorageChannel paf = (StorageChannel) con.newInstance(dbPath, options, 
+					ZooConfig.getFilePageSize(), null);
+			return paf;
+		} catch (Exception e) {
+			if (e instanceof InvocationTargetException) {
+				Throwable t2 = e.getCause();
+				if (DBLogger.USER_EXCEPTION.isAssignableFrom(t2.getClass())) {
+					throw (RuntimeException)t2;
+				}
+			}
+			throw DBLogger.newFatal("path=" + dbPath, e);
+		}
+	}
+
+	StorageChannel getRoot() {
+		return root;
+	}
+	
+	/**
+	 * @return The log or {@code null} if commits are not logged.
+	 */
+	WriteAheadLog getLog() {
+		return log;
+	}
+	
+	/**
+	 * @return Whether the state of the last commit is known. If not, it has to be read from
+	 * disk and registered with {@link #init(RootPage, int, long, long)}.
+	 */
+	synchronized boolean isInitialized() {
+		return rootPage != null;
+	}
+	
+	synchronized void init(RootPage rootPage, int[] rootPages, int rootPageId, long txId, 
+			long lastUsedOid) {
+		if (this.rootPage == null) {
+			this.rootPages[0] = rootPages[0];
+			this.rootPages[1] = rootPages[1];
+			this.rootPageId = rootPageId;
+			this.durableTxId = txId;
+			publish(rootPage, txId, lastUsedOid);
+			recover();
+			if (log != null || (syncCommits != 1 && syncInterval > 0)) {
+				syncThread = new SyncThread();
+				syncThread.start();
+			}
+		}
+	}
+	
+	/**
+	 * Replay the log, if there is one, and make the recovered commits durable in the 
+	 * database file.
+	 */
+	private void recover() {
+		WriteAheadLog l = log;
+		if (l == null) {
+			if (!WriteAheadLog.exists(dbPath)) {
+				return;
+			}
+			//The log is disabled, but the database was not closed properly while it was enabled
+			l = new WriteAheadLog(dbPath, root.getPageSize());
+		}
+		try {
+			l.replay(new WriteAheadLog.Replay() {
+				@Override
+				public void writePage(ByteBuffer buf, int pageId) {
+					root.write(buf, pageId);
+				}
+				@Override
+				public void commit(RootPage rootPage, long txId, long lastUsedOid) {
+					publish(rootPage, txId, lastUsedOid);
+				}
+			}, durableTxId);
+			if (txId > durableTxId) {
+				DBLogger.info("Recovered commits from log: " + (durableTxId + 1) + " to " + txId);
+				writeDurable(null, rootPage, txId, lastUsedOid);
+				durableTxId = txId;
+			}
+			l.reset(txId);
+		} finally {
+			if (l != log) {
+				l.close();
+			}
+		}
+		if (l != log) {
+			WriteAheadLog.deleteFiles(dbPath);
+		}
+	}
+	
+	private void publish(RootPage rootPage, long txId, long lastUsedOid) {
+		this.rootPage = new RootPage();
+		this.rootPage.set(rootPage);
+		this.txId = txId;
+		if (lastUsedOid > this.lastUsedOid) {
+			this.lastUsedOid = lastUsedOid;
+		}
+	}
+	
+	/**
+	 * @return The transaction ID of the last commit.
+	 */
+	synchronized long getTxId() {
+		return txId;
+	}
+	
+	/**
+	 * Copies the state of the last commit into the given root page and registers it as the 
+	 * snapshot of the session.
+	 * @param session
+	 * @param rootPage
+	 * @return The transaction ID of the last commit.
+	 */
+	synchronized long readSnapshot(Object session, RootPage rootPage) {
+		rootPage.set(this.rootPage);
+		setSnapshot(session, txId);
+		return txId;
+	}
+	
+	synchronized long getLastUsedOid() {
+		return lastUsedOid;
+	}
+	
+	/**
+	 * Allocate OIDs. OIDs are allocated for all sessions from the same sequence.
+	 * @param oidIndex The OID index of the session
+	 * @param oidAllocSize
+	 * @return New OIDs.
+	 */
+	synchronized long[] allocateOids(PagedOidIndex oidIndex, int oidAllocSize) {
+		oidIndex.updateLastUsedOid(lastUsedOid);
+		long[] ret = oidIndex.allocateOids(oidAllocSize);
+		lastUsedOid = oidIndex.getLastUsedOid();
+		return ret;
+	}
+	
+	private void setSnapshot(Object session, long txId) {
+		snapshots.put(session, txId);
+		updateOldestSnapshot();
+	}
+	
+	private void updateOldestSnapshot() {
+		long oldest = Long.MAX_VALUE;
+		for (Long s: snapshots.values()) {
+			if (s < oldest) {
+				oldest = s;
+			}
+		}
+		oldestSnapshot = oldest;
+	}
+	
+	/**
+	 * Acquire the write lock.
+	 * @param session
+	 * @param snapshotTxId The transaction ID of the snapshot of the session
+	 */
+	synchronized void beginWrite(Object session, long snapshotTxId) {
+		if (writer == session) {
+			return;
+		}
+		if (writer != null) {
+			throw DBLogger.newUser("The database is being modified by another " +
+					"PersistenceManager. Please rollback and try again.");
+		}
+		if (snapshotTxId != txId) {
+			throw DBLogger.newUser("The database has been modified by another " +
+					"PersistenceManager since this transaction started. Please rollback " +
+					"and try again.");
+		}
+		if (log != null) {
+			//All commits are complete, this is a good moment to switch the log file
+			log.rotateIfRequested();
+		}
+		writer = session;
+	}
+	
+	/**
+	 * Release the write lock and publish the new state of the database. All pages of the 
+	 * commit must have been written with {@link StorageChannel#flush()}. The commit is not 
+	 * durable before {@link #sync(long)} has been called, see also {@link #commitSync(long)}.
+	 * @param session
+	 * @param rootPage
+	 * @param txId
+	 * @param lastUsedOid
+	 */
+	synchronized void commit(Object session, RootPage rootPage, long txId, long lastUsedOid) {
+		if (writer != session) {
+			throw DBLogger.newFatal("Commit without write lock.");
+		}
+		publish(rootPage, txId, lastUsedOid);
+		if (log != null) {
+			log.writeCommit(rootPage, txId, this.lastUsedOid);
+		}
+		writer = null;
+		setSnapshot(session, txId);
+		nCommitsSinceSync++;
+		//remove tags that are not required anymore
+		long oldest = Math.min(oldestSnapshot, getDurableTxId());
+		Iterator<PrimLongEntry<Long>> it = freedPages.entrySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getValue() <= oldest) {
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Make a commit durable as required by the configuration. By default, this waits until 
+	 * the commit is durable. If commits are logged, this only forces the log to disk and 
+	 * triggers a checkpoint if the log is too large.
+	 * @param txId The ID of the commit
+	 */
+	void commitSync(long txId) {
+		boolean isDue;
+		synchronized (this) {
+			isDue = syncCommits == 1 || (syncCommits > 1 && nCommitsSinceSync >= syncCommits);
+			if (isDue && log != null) {
+				nCommitsSinceSync = 0;
+			}
+		}
+		if (log == null) {
+			if (isDue) {
+				sync(txId);
+			}
+			return;
+		}
+		if (isDue) {
+			log.sync(txId);
+		}
+		if (log.getSize() > checkpointSize) {
+			syncThread.wakeUp();
+		}
+	}
+	
+	/**
+	 * @return The ID of the last commit that survives a crash.
+	 */
+	private long getDurableTxId() {
+		if (log != null) {
+			return Math.max(durableTxId, log.getSyncedTxId());
+		}
+		return durableTxId;
+	}
+	
+	/**
+	 * Ensure that a commit is durable in the database file. This makes all commits durable 
+	 * that have been published so far. If another thread is already synchronizing, this 
+	 * thread waits and then synchronizes all commits that have been published in the 
+	 * meantime, unless they have already been synchronized by yet another thread.
+	 * If commits are logged, this is a checkpoint, afterwards the log can be cleared.
+	 * @param txId The ID of the commit
+	 */
+	void sync(long txId) {
+		synchronized (syncLock) {
+			RootPage rp = new RootPage();
+			long newTxId;
+			long newLastUsedOid;
+			long sealedLog = -1;
+			long[][] pages = null;
+			synchronized (this) {
+				if (durableTxId >= txId) {
+					return;
+				}
+				if (log != null) {
+					//The current log file can be cleared after the next checkpoint  
+					log.requestRotation();
+					if (writer == null) {
+						log.rotateIfRequested();
+					}
+					sealedLog = log.getSealedGeneration();
+					pages = log.getCommittedPages();
+				}
+				rp.set(rootPage);
+				newTxId = this.txId;
+				newLastUsedOid = lastUsedOid;
+				nCommitsSinceSync = 0;
+			}
+			writeDurable(pages, rp, newTxId, newLastUsedOid);
+			if (pages != null) {
+				//Read the pages from the database file from now on 
+				log.removePages(pages);
+			}
+			if (sealedLog >= 0) {
+				//The sealed log file contains only commits that are now durable
+				log.release(sealedLog);
+			}
+			synchronized (this) {
+				durableTxId = newTxId;
+			}
+		}
+	}
+	
+	/**
+	 * @param pages The logged pages of the commits or {@code null} if the sessions have 
+	 * written the pages to the database file
+	 */
+	private void writeDurable(long[][] pages, RootPage rp, long newTxId, long newLastUsedOid) {
+		if (pages != null) {
+			log.copyPages(pages, root);
+		}
+		//All pages of the commits are written. First make them durable.
+		root.flush();
+		root.sync();
+		//Then overwrite the older root page. The newer root page is on disk, so we can always
+		//recover if writing fails.
+		int newRootPageId = (rootPageId + 1) % 2;
+		rootView.acquireLock(newTxId);
+		writeRootPage(rp, rootPages[newRootPageId], newTxId, newLastUsedOid);
+		root.flush();
+		root.sync();
+		rootPageId = newRootPageId;
+	}
+	
+	/**
+	 * Writes a root page. The writer is not registered with the shared channel, because  
+	 * the writers of the shared channel are flushed by sessions that may commit concurrently.
+	 */
+	private void writeRootPage(RootPage rp, int pageId, long txId, long lastUsedOid) {
+		StorageChannelOutput out = rootOut;
+		out.seekPageForWrite(DATA_TYPE.ROOT_PAGE, pageId);
+
+		//**********
+		// When updating this, also update DiskAccessOneFile.checkRoot()!
+		//**********
+		
+		//tx ID
+		out.writeLong(txId);
+		//page IDs and page count
+		rp.write(out);
+		//last used oid
+		out.writeLong(lastUsedOid);
+		//tx ID. Writing the tx ID twice should ensure that the data between the two has been
+		//written correctly.
+		out.writeLong(txId);
+		out.flush();
+	}
+	
+	/**
+	 * Release the write lock without committing.
+	 * @param session
+	 */
+	synchronized void endWrite(Object session) {
+		if (writer == session) {
+			writer = null;
+			if (log != null) {
+				log.discard();
+			}
+		}
+	}
+	
+	/**
+	 * Tag a page that has been freed by the current writer.
+	 * @param pageId
+	 */
+	synchronized void pageFreed(int pageId) {
+		freedPages.put(pageId, txId + 1);
+	}
+	
+	/**
+	 * @param pageId A free page
+	 * @return Whether the page may still be read by a session.
+	 */
+	synchronized boolean isInUse(int pageId) {
+		Long freedBy = freedPages.get(pageId);
+		if (freedBy == null) {
+			return false;
+		}
+		//The page is required by a snapshot or by the last durable commit
+		if (freedBy > oldestSnapshot || freedBy > getDurableTxId()) {
+			return true;
+		}
+		freedPages.remove(pageId);
+		return false;
+	}
+
+	/**
+	 * Synchronizes the file periodically if durability is relaxed and performs the 
+	 * checkpoints if commits are logged.
+	 */
+	private class SyncThread extends Thread {
+		
+		private boolean isRunning = true;
+		private boolean isSyncRequested = false;
+		
+		SyncThread() {
+			super("ZooDB sync: " + dbPath);
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					if (!isRunning) {
+						return;
+					}
+					try {
+						if (!isSyncRequested) {
+							wait(syncInterval);
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+					isSyncRequested = false;
+					if (!isRunning) {
+						return;
+					}
+				}
+				try {
+					sync(getTxId());
+				} catch (RuntimeException e) {
+					DBLogger.severe("Error while synchronizing database: " + e.getMessage());
+					return;
+				}
+			}
+		}
+		
+		/**
+		 * Synchronize the file now.
+		 */
+		synchronized void wakeUp() {
+			isSyncRequested = true;
+			notifyAll();
+		}
+		
+		/**
+		 * Stop the thread. This waits until a running synchronization is finished.
+		 */
+		void shutdown() {
+			synchronized (this) {
+				isRunning = false;
+				notifyAll();
+			}
+			try {
+				join();
+			} catch (InterruptedException e) {
+				throw DBLogger.newFatal("Interrupted while closing database: " + dbPath, e);
+			}
+		}
+	}
+}
@@ -42,8 +42,17 @@ public interface StorageChannel {
 
 	void close();
 
+	/**
+	 * Writes all buffered pages to the storage. This does not ensure that the pages are 
+	 * written to disk, see {@link #sync()}.
+	 */
 	void flush();
 
+	/**
+	 * Forces all pages that have been written with {@link #flush()} to the storage device.
+	 */
+	void sync();
+
 	void write(ByteBuffer buf, long currentPage);
 
 	void readPage(ByteBuffer buf, long pageId);
@@ -54,6 +63,10 @@ public interface StorageChannel {
 
 	int statsGetReadCountUnique();
 
+	int statsGetPageCacheHitCount();
+
+	int statsGetPageCacheMissCount();
+
 	void acquireLock(long txId);
 
 	long getTxId();
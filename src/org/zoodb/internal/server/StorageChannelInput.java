@@ -20,6 +20,8 @@
  */
 package org.zoodb.internal.server;
 
+import java.nio.ByteBuffer;
+
 import org.zoodb.internal.SerialInput;
 
 /**
@@ -38,6 +40,14 @@ public interface StorageChannelInput extends SerialInput, DiskIO {
 
 	public void seekPage(DATA_TYPE type, int page, int offs);
 
+	/**
+	 * Use a copy of a page instead of reading the page from the channel. The copy is used
+	 * until a different page is read.
+	 * @param page A buffer that contains the complete page
+	 * @param pageId
+	 */
+	void usePage(ByteBuffer page, int pageId);
+
 	int getOffset();
 
     int getPage();  
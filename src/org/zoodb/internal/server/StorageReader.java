@@ -31,7 +31,9 @@ import org.zoodb.internal.util.DBLogger;
 
 public class StorageReader implements StorageChannelInput {
 
-	private final ByteBuffer buf;
+	//Either the private buffer or a view on a mapped page
+	private ByteBuffer buf;
+	private final ByteBuffer privateBuf;
 	private int currentPage = -1;
 	
 	//indicate whether to automatically allocate and move to next page when page end is reached.
@@ -42,7 +44,10 @@ public class StorageReader implements StorageChannelInput {
 	private final int MAX_POS;
 	
 	private final StorageChannel root;
-	private final IntBuffer intBuffer;
+	//not null if pages can be read directly from a mapped file
+	private final StorageRootMappedFile mappedRoot;
+	private IntBuffer intBuffer;
+	private final IntBuffer privateIntBuffer;
 	private final int[] intArray;
 	
 	private CallbackPageRead overflowCallback = null;
@@ -58,13 +63,48 @@ public class StorageReader implements StorageChannelInput {
 		this.root = root; 
 		this.MAX_POS = root.getPageSize() - 4;
 		this.isAutoPaging = autoPaging;
+		if (root instanceof StorageRootMappedFile) {
+			mappedRoot = (StorageRootMappedFile) root;
+		} else {
+			mappedRoot = null;
+		}
 		
-		buf = ByteBuffer.allocateDirect(root.getPageSize());
+		privateBuf = ByteBuffer.allocateDirect(root.getPageSize());
+		buf = privateBuf;
 		currentPage = -1;
-		intBuffer = buf.asIntBuffer();
+		privateIntBuffer = buf.asIntBuffer();
+		intBuffer = privateIntBuffer;
 		intArray = new int[intBuffer.capacity()];
 	}
 
+	/**
+	 * Loads a page into the buffer. For mapped files, the buffer is replaced with a view on 
+	 * the mapped page.
+	 */
+	private void loadPage(int pageId) {
+		if (mappedRoot != null) {
+			ByteBuffer view = mappedRoot.getPageView(pageId);
+			if (view != null) {
+				buf = view;
+				//created on demand
+				intBuffer = null;
+				return;
+			}
+		}
+		buf = privateBuf;
+		intBuffer = privateIntBuffer;
+		buf.clear();
+		root.readPage(buf, pageId);
+	}
+
+	@Override
+	public void usePage(ByteBuffer page, int pageId) {
+		currentPage = pageId;
+		buf = page;
+		//created on demand
+		intBuffer = null;
+	}
+
 	/**
 	 * To be called after every commit, to ensure that pages are reset, in case they have been 
 	 * rewritten.
@@ -93,8 +133,7 @@ public class StorageReader implements StorageChannelInput {
 
 		if (pageId != currentPage) {
 			currentPage = pageId;
-			buf.clear();
-			root.readPage(buf, pageId);
+			loadPage(pageId);
 		}
 
 		currentType = type;
@@ -221,6 +260,11 @@ public class StorageReader implements StorageChannelInput {
 	
 	@Override
 	public void noCheckReadAsInt(long[] array, int nElements) {
+		if (intBuffer == null) {
+			ByteBuffer b = buf.duplicate();
+			b.clear();
+			intBuffer = b.asIntBuffer();
+		}
 		int pos = buf.position();
 		if ((pos >> 2) << 2 == pos) {
 			intBuffer.position(pos >> 2);
@@ -285,12 +329,10 @@ public class StorageReader implements StorageChannelInput {
 	}
 
 	private void checkPosRead(int delta) {
-		final ByteBuffer buf = this.buf;
 		if (isAutoPaging && buf.position() + delta > MAX_POS) {
 			final int pageId = buf.getInt();
 			currentPage = pageId;
-			buf.clear();
-			root.readPage(buf, pageId);
+			loadPage(pageId);
 			buf.rewind();
 			//read header
 			readHeader();
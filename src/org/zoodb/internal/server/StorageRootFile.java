@@ -33,12 +33,16 @@ import org.zoodb.internal.server.index.FreeSpaceManager;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.PrimLongMapLI;
 import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.ZooConfig;
 import org.zoodb.tools.ZooDebug;
 
 /**
  * A common root for multiple file views. Each view accesses its own page,
  * the root contains the common file resource.
  * 
+ * The root may be shared by multiple sessions, therefore access to the file and the page 
+ * cache is synchronized.
+ * 
  * @author Tilmann Zaeschke
  *
  */
@@ -58,6 +62,9 @@ public final class StorageRootFile implements StorageChannel {
 	private int statNWrite; 
 	private final PrimLongMapLI<Object> statNReadUnique = new PrimLongMapLI<Object>();
 	private long txId;
+	
+	//shared page buffer, may be null if disabled
+	private final PageCache cache;
 
 	public StorageRootFile(String dbPath, String options, int pageSize, FreeSpaceManager fsm) {
 		this.fsm = fsm;
@@ -89,6 +96,17 @@ public final class StorageRootFile implements StorageChannel {
 		} catch (IOException e) {
 			throw DBLogger.newFatal("Error opening database: " + dbPath, e);
 		}
+		int cacheSize = ZooConfig.getFilePageCacheSize();
+		if (cacheSize > 0) {
+			cache = new PageCache(pageSize, cacheSize, new PageCache.PageWriter() {
+				@Override
+				public void writePage(ByteBuffer buf, long pageId) {
+					writeToFile(buf, pageId);
+				}
+			});
+		} else {
+			cache = null;
+		}
 	}
 
 	@Override
@@ -115,14 +133,14 @@ public final class StorageRootFile implements StorageChannel {
 	}
 
 	@Override
-	public final StorageChannelInput getReader(boolean autoPaging) {
+	public final synchronized StorageChannelInput getReader(boolean autoPaging) {
 		StorageChannelInput in = new StorageReader(this, autoPaging);
 		viewsIn.add(in);
 		return in;
 	}
 	
 	@Override
-	public final StorageChannelOutput getWriter(boolean autoPaging) {
+	public final synchronized StorageChannelOutput getWriter(boolean autoPaging) {
 		StorageChannelOutput out = new StorageWriter(this, fsm, autoPaging);
 		viewsOut.add(out);
 		return out;
@@ -132,7 +150,7 @@ public final class StorageRootFile implements StorageChannel {
 	 * Not a true flush, just writes the stuff...
 	 */
 	@Override
-	public final void flush() {
+	public final synchronized void flush() {
 		//flush associated splits.
 		for (StorageChannelOutput paf: viewsOut) {
 			//flush() only writers
@@ -141,6 +159,13 @@ public final class StorageRootFile implements StorageChannel {
 		for (StorageChannelInput paf: viewsIn) {
 			paf.reset();
 		}
+		if (cache != null) {
+			cache.flush();
+		}
+	}
+
+	@Override
+	public final void sync() {
 		try {
 			fc.force(false);
 		} catch (IOException e) {
@@ -148,28 +173,59 @@ public final class StorageRootFile implements StorageChannel {
 		}
 	}
 
+	/**
+	 * Read a page. If the page cache is enabled, the page is only read from disk if it is
+	 * not in the cache. The read counters only count pages that are actually read from disk.
+	 * The file is read outside the monitor, so sessions and threads read in parallel. This
+	 * is safe because pages that are visible to a reader are not overwritten until all 
+	 * transactions that use them have ended.
+	 */
 	@Override
 	public final void readPage(ByteBuffer buf, long pageId) {
+		if (cache != null) {
+			synchronized (this) {
+				if (cache.read(buf, pageId)) {
+					return;
+				}
+			}
+		}
 		try {
 			fc.read(buf, pageId * PAGE_SIZE);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error loading Page: " + pageId, e);
+		}
+		synchronized (this) {
 			if (DBStatistics.isEnabled()) {
 				statNRead++;
 				statNReadUnique.put(pageId, null);
 			}
-		} catch (IOException e) {
-			throw DBLogger.newFatal("Error loading Page: " + pageId, e);
+			if (cache != null) {
+				cache.putClean(buf, pageId);
+			}
 		}
 	}
 
+	/**
+	 * Write a page. If the page cache is enabled, the page is only written to disk when it
+	 * is evicted from the cache or during flush().
+	 */
 	@Override
-	public final void write(ByteBuffer buf, long pageId) {
+	public final synchronized void write(ByteBuffer buf, long pageId) {
+		if (pageId<0) {
+			return;
+		}
+		if (DBStatistics.isEnabled()) {
+			statNWrite++;
+		}
+		if (cache != null) {
+			cache.putDirty(buf, pageId);
+			return;
+		}
+		writeToFile(buf, pageId);
+	}
+
+	private void writeToFile(ByteBuffer buf, long pageId) {
 		try {
-			if (pageId<0) {
-				return;
-			}
-			if (DBStatistics.isEnabled()) {
-				statNWrite++;
-			}
 			fc.write(buf, pageId * PAGE_SIZE);
 		} catch (IOException e) {
 			throw DBLogger.newFatal("Error writing page: " + pageId, e);
@@ -193,6 +249,16 @@ public final class StorageRootFile implements StorageChannel {
 		return statNWrite;
 	}
 
+	@Override
+	public int statsGetPageCacheHitCount() {
+		return cache == null ? 0 : cache.statsGetHitCount();
+	}
+
+	@Override
+	public int statsGetPageCacheMissCount() {
+		return cache == null ? 0 : cache.statsGetMissCount();
+	}
+
 	@Override
 	public final int getPageSize() {
 		return (int) PAGE_SIZE;
@@ -204,9 +270,14 @@ public final class StorageRootFile implements StorageChannel {
 	}
 
 	@Override
-	public int statsGetPageCount() {
+	public synchronized int statsGetPageCount() {
 		try {
-			return (int) (raf.length() / PAGE_SIZE);
+			long len = raf.length();
+			if (cache != null) {
+				//count pages that have not been written back yet
+				len = cache.getLengthAfterFlush(len);
+			}
+			return (int) (len / PAGE_SIZE);
 		} catch (IOException e) {
 			throw DBLogger.newFatal("", e);
 		}
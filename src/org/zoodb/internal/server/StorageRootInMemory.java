@@ -119,6 +119,11 @@ public class StorageRootInMemory implements StorageChannel {
 		}
 	}
 	
+	@Override
+	public void sync() {
+		//nothing to do
+	}
+	
 	@Override
 	public int statsGetReadCount() {
 		return statNRead;
@@ -131,6 +136,19 @@ public class StorageRootInMemory implements StorageChannel {
 		return ret;
 	}
 
+	/**
+	 * In-memory storage has no page cache.
+	 */
+	@Override
+	public int statsGetPageCacheHitCount() {
+		return 0;
+	}
+
+	@Override
+	public int statsGetPageCacheMissCount() {
+		return 0;
+	}
+
 	@Override
 	public int statsGetWriteCount() {
 		return statNWrite;
@@ -142,7 +160,7 @@ public class StorageRootInMemory implements StorageChannel {
 	}
 
 	@Override
-	public void write(ByteBuffer buf, long pageId) {
+	public synchronized void write(ByteBuffer buf, long pageId) {
 		if (pageId<0) {
 			return;
 		}
@@ -158,7 +176,7 @@ public class StorageRootInMemory implements StorageChannel {
 	}
 
 	@Override
-	public void readPage(ByteBuffer buf, long pageId) {
+	public synchronized void readPage(ByteBuffer buf, long pageId) {
 		ByteBuffer b2 = buffers.get((int) pageId);
 		b2.rewind();
 		buf.put(b2);
@@ -169,7 +187,7 @@ public class StorageRootInMemory implements StorageChannel {
 	}
 
 	@Override
-	public int statsGetPageCount() {
+	public synchronized int statsGetPageCount() {
 		return buffers.size();
 	}
 }
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.internal.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+
+import org.zoodb.internal.server.index.FreeSpaceManager;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.PrimLongMapLI;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.ZooDebug;
+
+/**
+ * A file root that maps the database file into memory. The file is mapped in large read-only
+ * segments. Readers that are created by this root decode pages directly from the mapped
+ * segments, there is no copying of pages into private buffers.
+ *
+ * Writing is performed through the FileChannel. The mapping is shared with the OS file cache,
+ * so written pages are immediately visible in the mapped segments. If the file grows beyond a
+ * mapped segment, the segment is re-mapped when the new pages are accessed.
+ *
+ * @author Tilmann Zaeschke
+ *
+ */
+public final class StorageRootMappedFile implements StorageChannel {
+
+	//64MB
+	private static final int SEGMENT_SIZE = 1 << 26;
+
+	private final ArrayList<StorageChannelInput> viewsIn = new ArrayList<StorageChannelInput>();
+	private final ArrayList<StorageChannelOutput> viewsOut = new ArrayList<StorageChannelOutput>();
+
+	private final FreeSpaceManager fsm;
+	private final RandomAccessFile raf;
+	private final FileLock fileLock;
+	private final FileChannel fc;
+	// use LONG to enforce long-arithmetic in calculations
+	private final long PAGE_SIZE;
+	private final int PAGES_PER_SEGMENT;
+
+	private final ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	private int statNRead;
+	private int statNWrite;
+	private final PrimLongMapLI<Object> statNReadUnique = new PrimLongMapLI<Object>();
+	private long txId;
+
+	public StorageRootMappedFile(String dbPath, String options, int pageSize,
+			FreeSpaceManager fsm) {
+		this.fsm = fsm;
+		PAGE_SIZE = pageSize;
+		PAGES_PER_SEGMENT = SEGMENT_SIZE / pageSize;
+		File file = new File(dbPath);
+		if (!file.exists()) {
+			throw DBLogger.newUser("DB file does not exist: " + dbPath);
+		}
+		try {
+			raf = new RandomAccessFile(file, options);
+			fc = raf.getChannel();
+			try {
+				//tryLock is supposed to return null, but it throws an Exception
+				fileLock = fc.tryLock();
+				if (fileLock == null) {
+					fc.close();
+					raf.close();
+					throw DBLogger.newUser("This file is in use by another process: " + dbPath);
+				}
+			} catch (OverlappingFileLockException e) {
+				fc.close();
+				raf.close();
+				throw DBLogger.newUser(
+						"This file is in use by another PersistenceManager: " + dbPath);
+			}
+			if (ZooDebug.isTesting()) {
+				ZooDebug.registerFile(fc);
+			}
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error opening database: " + dbPath, e);
+		}
+	}
+
+	@Override
+	public void acquireLock(long txId) {
+		this.txId = txId;
+	}
+
+	@Override
+	public long getTxId() {
+		return this.txId;
+	}
+
+	@Override
+	public final void close() {
+		flush();
+		try {
+			fc.force(true);
+			//There is no way to unmap segments, we can only hope that they are GC'd soon.
+			segments.clear();
+			fileLock.release();
+			fc.close();
+			raf.close();
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error closing database file.", e);
+		}
+	}
+
+	@Override
+	public final StorageChannelInput getReader(boolean autoPaging) {
+		StorageChannelInput in = new StorageReader(this, autoPaging);
+		viewsIn.add(in);
+		return in;
+	}
+
+	@Override
+	public final StorageChannelOutput getWriter(boolean autoPaging) {
+		StorageChannelOutput out = new StorageWriter(this, fsm, autoPaging);
+		viewsOut.add(out);
+		return out;
+	}
+
+	/**
+	 * Not a true flush, just writes the stuff...
+	 */
+	@Override
+	public final void flush() {
+		//flush associated splits.
+		for (StorageChannelOutput paf: viewsOut) {
+			//flush() only writers
+			paf.flush();
+		}
+		for (StorageChannelInput paf: viewsIn) {
+			paf.reset();
+		}
+	}
+
+	@Override
+	public final void sync() {
+		try {
+			fc.force(false);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error writing database file.", e);
+		}
+	}
+
+	/**
+	 * Returns a read-only view of a page. The view starts at position 0 of the page.
+	 * @param pageId
+	 * @return A view of the page or {@code null} if the page is not (or not completely)
+	 * contained in the file.
+	 */
+	final ByteBuffer getPageView(long pageId) {
+		ByteBuffer seg = getSegment(pageId);
+		if (seg == null) {
+			return null;
+		}
+		if (DBStatistics.isEnabled()) {
+			statNRead++;
+			statNReadUnique.put(pageId, null);
+		}
+		int offs = (int) ((pageId % PAGES_PER_SEGMENT) * PAGE_SIZE);
+		ByteBuffer view = seg.duplicate();
+		view.limit(offs + (int) PAGE_SIZE);
+		view.position(offs);
+		return view.slice();
+	}
+
+	/**
+	 * Returns the segment that contains the page. Segments that do not fully contain the
+	 * page are re-mapped, because the file may have grown since they were mapped.
+	 * @return The segment or {@code null} if the page is not completely contained in the file.
+	 */
+	private synchronized MappedByteBuffer getSegment(long pageId) {
+		int segId = (int) (pageId / PAGES_PER_SEGMENT);
+		long pageEndInSeg = (pageId % PAGES_PER_SEGMENT + 1) * PAGE_SIZE;
+		MappedByteBuffer seg = segId < segments.size() ? segments.get(segId) : null;
+		if (seg != null && seg.capacity() >= pageEndInSeg) {
+			return seg;
+		}
+		try {
+			long segStart = segId * (long)SEGMENT_SIZE;
+			long len = fc.size() - segStart;
+			if (len < pageEndInSeg) {
+				return null;
+			}
+			if (len > SEGMENT_SIZE) {
+				len = SEGMENT_SIZE;
+			}
+			seg = fc.map(MapMode.READ_ONLY, segStart, len);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error mapping page: " + pageId, e);
+		}
+		while (segments.size() <= segId) {
+			segments.add(null);
+		}
+		segments.set(segId, seg);
+		return seg;
+	}
+
+	@Override
+	public final void readPage(ByteBuffer buf, long pageId) {
+		ByteBuffer view = getPageView(pageId);
+		if (view != null) {
+			buf.put(view);
+			return;
+		}
+		//page is not (yet) completely written
+		try {
+			fc.read(buf, pageId * PAGE_SIZE);
+			if (DBStatistics.isEnabled()) {
+				statNRead++;
+				statNReadUnique.put(pageId, null);
+			}
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error loading Page: " + pageId, e);
+		}
+	}
+
+	@Override
+	public final void write(ByteBuffer buf, long pageId) {
+		try {
+			if (pageId<0) {
+				return;
+			}
+			if (DBStatistics.isEnabled()) {
+				statNWrite++;
+			}
+			fc.write(buf, pageId * PAGE_SIZE);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error writing page: " + pageId, e);
+		}
+	}
+
+	@Override
+	public final int statsGetReadCount() {
+		return statNRead;
+	}
+
+	@Override
+	public int statsGetReadCountUnique() {
+		int ret = statNReadUnique.size();
+		statNReadUnique.clear();
+		return ret;
+	}
+
+	/**
+	 * Mapped files have no page cache.
+	 */
+	@Override
+	public int statsGetPageCacheHitCount() {
+		return 0;
+	}
+
+	@Override
+	public int statsGetPageCacheMissCount() {
+		return 0;
+	}
+
+	@Override
+	public final int statsGetWriteCount() {
+		return statNWrite;
+	}
+
+	@Override
+	public final int getPageSize() {
+		return (int) PAGE_SIZE;
+	}
+
+	@Override
+	public void reportFreePage(int pageId) {
+		fsm.reportFreePage(pageId);
+	}
+
+	@Override
+	public int statsGetPageCount() {
+		try {
+			return (int) (raf.length() / PAGE_SIZE);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("", e);
+		}
+	}
+
+}
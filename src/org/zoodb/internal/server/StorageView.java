@@ -0,0 +1,190 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.zoodb.internal.server.index.FreeSpaceManager;
+
+/**
+ * The view of a session on a shared {@link StorageChannel}. The view manages the readers, 
+ * writers and the free space manager of the session. Pages are read from and written to the 
+ * shared channel. If commits are logged, written pages are appended to the 
+ * {@link WriteAheadLog} instead, and pages are read from the log until a checkpoint has 
+ * copied them to the shared channel.
+ * Readers may be created and used by multiple threads of a session, each reader must only
+ * be used by one thread at a time.
+ * 
+ * @author Tilmann Zaeschke
+ */
+final class StorageView implements StorageChannel {
+
+	private final ArrayList<StorageChannelInput> viewsIn = new ArrayList<StorageChannelInput>();
+	private final ArrayList<StorageChannelOutput> viewsOut = new ArrayList<StorageChannelOutput>();
+
+	private final StorageChannel root;
+	private final WriteAheadLog log;
+	private final FreeSpaceManager fsm;
+	private long txId;
+	
+	/**
+	 * @param root
+	 * @param log The log, may be {@code null}
+	 * @param fsm
+	 */
+	StorageView(StorageChannel root, WriteAheadLog log, FreeSpaceManager fsm) {
+		this.root = root;
+		this.log = log;
+		this.fsm = fsm;
+	}
+	
+	@Override
+	public StorageChannelInput getReader(boolean autoPaging) {
+		//Without log, readers access the root directly, this allows zero-copy reading of 
+		//mapped files.
+		StorageChannelInput in = new StorageReader(log == null ? root : this, autoPaging);
+		synchronized (viewsIn) {
+			viewsIn.add(in);
+		}
+		return in;
+	}
+
+	@Override
+	public StorageChannelOutput getWriter(boolean autoPaging) {
+		StorageChannelOutput out = new StorageWriter(this, fsm, autoPaging);
+		synchronized (viewsOut) {
+			viewsOut.add(out);
+		}
+		return out;
+	}
+
+	@Override
+	public void reportFreePage(int pageId) {
+		fsm.reportFreePage(pageId);
+	}
+
+	@Override
+	public int getPageSize() {
+		return root.getPageSize();
+	}
+
+	/**
+	 * Flushes the view. The shared channel is closed by the {@link SharedDatabase}.
+	 */
+	@Override
+	public void close() {
+		flush();
+	}
+
+	@Override
+	public void flush() {
+		synchronized (viewsOut) {
+			for (StorageChannelOutput paf: viewsOut) {
+				//flush() only writers
+				paf.flush();
+			}
+		}
+		resetReaders();
+		if (log == null) {
+			//With log, the root is only written during checkpoints 
+			root.flush();
+		}
+	}
+	
+	/**
+	 * Synchronization of the shared channel is managed by the {@link SharedDatabase}.
+	 */
+	@Override
+	public void sync() {
+		root.sync();
+	}
+	
+	/**
+	 * Reset all readers. This is required when the session moves to a newer snapshot, 
+	 * because the pages in the reader buffers may have been reused.
+	 */
+	void resetReaders() {
+		synchronized (viewsIn) {
+			for (StorageChannelInput paf: viewsIn) {
+				paf.reset();
+			}
+		}
+	}
+
+	@Override
+	public void write(ByteBuffer buf, long currentPage) {
+		if (log != null) {
+			log.writePage(buf, currentPage);
+			return;
+		}
+		root.write(buf, currentPage);
+	}
+
+	@Override
+	public void readPage(ByteBuffer buf, long pageId) {
+		if (log != null && log.readPage(buf, pageId)) {
+			return;
+		}
+		root.readPage(buf, pageId);
+	}
+
+	@Override
+	public int statsGetReadCount() {
+		return root.statsGetReadCount();
+	}
+
+	@Override
+	public int statsGetWriteCount() {
+		return root.statsGetWriteCount();
+	}
+
+	@Override
+	public int statsGetReadCountUnique() {
+		return root.statsGetReadCountUnique();
+	}
+
+	@Override
+	public int statsGetPageCacheHitCount() {
+		return root.statsGetPageCacheHitCount();
+	}
+
+	@Override
+	public int statsGetPageCacheMissCount() {
+		return root.statsGetPageCacheMissCount();
+	}
+
+	@Override
+	public void acquireLock(long txId) {
+		this.txId = txId;
+	}
+
+	@Override
+	public long getTxId() {
+		return txId;
+	}
+
+	@Override
+	public int statsGetPageCount() {
+		return root.statsGetPageCount();
+	}
+
+}
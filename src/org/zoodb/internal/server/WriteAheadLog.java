@@ -0,0 +1,623 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.PrimLongMap.PrimLongEntry;
+import org.zoodb.internal.util.PrimLongMapLI;
+
+/**
+ * A write-ahead redo log for commits. 
+ * 
+ * Every page that is written by a session is appended to the log instead of the database 
+ * file. When a session commits, the new root page is appended as commit record, together 
+ * with a checksum of all records of the commit. A commit is durable once the log has been 
+ * forced to disk, which requires only sequential writes. 
+ * 
+ * Until a checkpoint copies them into the database file, logged pages are read from the log,
+ * see {@link #readPage(ByteBuffer, long)}. For this, the log keeps the location of the 
+ * latest version of every logged page in memory. The checkpoint writes the pages in the 
+ * order of their page IDs, forces the database file to disk and then writes its root page. 
+ * After a crash, the log is replayed on top of the last root page in the database file.
+ * 
+ * The log consists of two files that are used alternatingly. Switching to the other file
+ * is only possible when no session is writing, so every commit is contained in a single
+ * file. After a checkpoint, the inactive file can be cleared. 
+ * 
+ * Record formats:
+ * Page: type(1), page ID (4), length (4), data (length).
+ * Commit: type(1), tx ID (8), root page (6*4), last used OID (8), checksum (8).
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class WriteAheadLog {
+
+	/**
+	 * Callback for replaying the log.
+	 */
+	interface Replay {
+		void writePage(ByteBuffer buf, int pageId);
+		void commit(RootPage rootPage, long txId, long lastUsedOid);
+	}
+	
+	private static final int WAL_FILE_ID = 13031976;
+	private static final int WAL_FILE_VERSION = 1;
+	/** File ID, version, page size, generation */
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+	private static final byte TYPE_PAGE = 1;
+	private static final byte TYPE_COMMIT = 2;
+	private static final int PAGE_HEADER_SIZE = 1 + 4 + 4;
+	private static final int COMMIT_SIZE = 1 + 8 + 6 * 4 + 8 + 8;
+	
+	private final String dbPath;
+	private final int pageSize;
+	private final RandomAccessFile[] rafs = new RandomAccessFile[2];
+	private final FileChannel[] fcs = new FileChannel[2];
+	/** The generation of each file, the file with the higher generation is more recent. */
+	private final long[] generations = new long[2];
+	private final byte[] pageBuf;
+	private final ByteBuffer recBuf = ByteBuffer.allocate(COMMIT_SIZE);
+	private final CRC32 crc = new CRC32();
+	
+	/** The file that is currently written. */
+	private int current = 0;
+	/** The end of the current file. */
+	private long position;
+	/** The end of the last commit record in the current file. */
+	private long commitEnd;
+	/** Whether the inactive file contains commits that are not checkpointed. */
+	private boolean isSealed = false;
+	private boolean isRotationRequested = false;
+	private long lastTxId = 0;
+	private long syncedTxId = 0;
+	private final Object syncLock = new Object();
+	/** 
+	 * The location of the latest version of every page that has not been copied to the 
+	 * database file, see {@link #toLocation(int, long)}.
+	 */
+	private final PrimLongMapLI<Long> locations = new PrimLongMapLI<Long>();
+	/** Page ID and previous location (or -1) of the pages of the uncommitted transaction. */
+	private final ArrayList<long[]> uncommitted = new ArrayList<long[]>();
+	
+	/**
+	 * Open the log of a database. Existing log files are not modified, they should be
+	 * replayed with {@link #replay(Replay, long)}.
+	 * @param dbPath
+	 * @param pageSize
+	 */
+	WriteAheadLog(String dbPath, int pageSize) {
+		this.dbPath = dbPath;
+		this.pageSize = pageSize;
+		this.pageBuf = new byte[pageSize];
+		try {
+			for (int i = 0; i < 2; i++) {
+				rafs[i] = new RandomAccessFile(getPath(dbPath, i), "rw");
+				fcs[i] = rafs[i].getChannel();
+				generations[i] = readHeader(i);
+			}
+		} catch (IOException e) {
+			close();
+			throw DBLogger.newFatal("Error opening log: " + dbPath, e);
+		}
+		current = generations[0] >= generations[1] ? 0 : 1;
+	}
+	
+	private static String getPath(String dbPath, int i) {
+		return dbPath + ".wal" + i;
+	}
+	
+	/**
+	 * @param dbPath
+	 * @return Whether the database has log files.
+	 */
+	static boolean exists(String dbPath) {
+		return new File(getPath(dbPath, 0)).exists() || new File(getPath(dbPath, 1)).exists();
+	}
+	
+	/**
+	 * Remove the log files of a database, for example when the database is removed.
+	 * @param dbPath
+	 */
+	public static void deleteFiles(String dbPath) {
+		for (int i = 0; i < 2; i++) {
+			File f = new File(getPath(dbPath, i));
+			if (f.exists() && !f.delete()) {
+				throw DBLogger.newUser("Could not remove log file: " + f);
+			}
+		}
+	}
+	
+	/**
+	 * @return The generation of the file or -1 if the file has no valid header.
+	 */
+	private long readHeader(int i) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+		if (!read(fcs[i], b, 0)) {
+			return -1;
+		}
+		if (b.getInt() != WAL_FILE_ID || b.getInt() != WAL_FILE_VERSION) {
+			return -1;
+		}
+		int ps = b.getInt();
+		if (ps != pageSize) {
+			throw DBLogger.newFatal("Incompatible page size in log: " + ps);
+		}
+		return b.getLong();
+	}
+	
+	private void writeHeader(int i, long generation) throws IOException {
+		fcs[i].truncate(0);
+		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+		b.putInt(WAL_FILE_ID);
+		b.putInt(WAL_FILE_VERSION);
+		b.putInt(pageSize);
+		b.putLong(generation);
+		b.flip();
+		write(fcs[i], b, 0);
+		fcs[i].force(true);
+		generations[i] = generation;
+	}
+	
+	/**
+	 * Read a buffer completely.
+	 * @return false if the end of the file was reached.
+	 */
+	private static boolean read(FileChannel fc, ByteBuffer b, long pos) throws IOException {
+		while (b.hasRemaining()) {
+			int n = fc.read(b, pos);
+			if (n < 0) {
+				return false;
+			}
+			pos += n;
+		}
+		b.flip();
+		return true;
+	}
+
+	private static void write(FileChannel fc, ByteBuffer b, long pos) throws IOException {
+		while (b.hasRemaining()) {
+			pos += fc.write(b, pos);
+		}
+	}
+	
+	/**
+	 * Replay all commits in the log that are newer than the given transaction.
+	 * @param replay
+	 * @param durableTxId The last transaction that is durable in the database file.
+	 */
+	void replay(Replay replay, long durableTxId) {
+		int first = generations[0] <= generations[1] ? 0 : 1;
+		try {
+			for (int i = 0; i < 2; i++) {
+				int f = (first + i) % 2;
+				if (generations[f] >= 0) {
+					durableTxId = replay(f, replay, durableTxId);
+				}
+			}
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error reading log: " + dbPath, e);
+		}
+	}
+	
+	private long replay(int f, Replay replay, long lastTxId) throws IOException {
+		FileChannel fc = fcs[f];
+		long pos = HEADER_SIZE;
+		//position, page ID and length of the pages of the current commit
+		ArrayList<long[]> pages = new ArrayList<long[]>();
+		crc.reset();
+		while (true) {
+			ByteBuffer b = ByteBuffer.wrap(pageBuf, 0, 1);
+			if (!read(fc, b, pos)) {
+				break;
+			}
+			byte type = b.get();
+			if (type == TYPE_PAGE) {
+				b = ByteBuffer.wrap(pageBuf, 0, PAGE_HEADER_SIZE);
+				if (!read(fc, b, pos)) {
+					break;
+				}
+				crc.update(pageBuf, 0, PAGE_HEADER_SIZE);
+				b.get();
+				int pageId = b.getInt();
+				int len = b.getInt();
+				if (len < 0 || len > pageSize) {
+					break;
+				}
+				b = ByteBuffer.wrap(pageBuf, 0, len);
+				if (!read(fc, b, pos + PAGE_HEADER_SIZE)) {
+					break;
+				}
+				crc.update(pageBuf, 0, len);
+				pages.add(new long[]{pos + PAGE_HEADER_SIZE, pageId, len});
+				pos += PAGE_HEADER_SIZE + len;
+			} else if (type == TYPE_COMMIT) {
+				b = ByteBuffer.wrap(pageBuf, 0, COMMIT_SIZE);
+				if (!read(fc, b, pos)) {
+					break;
+				}
+				crc.update(pageBuf, 0, COMMIT_SIZE - 8);
+				b.get();
+				long txId = b.getLong();
+				RootPage rp = new RootPage();
+				rp.read(b);
+				long lastUsedOid = b.getLong();
+				if (b.getLong() != crc.getValue()) {
+					DBLogger.severe("Ignoring incomplete commit in log: " + txId);
+					break;
+				}
+				if (txId > lastTxId) {
+					for (long[] p: pages) {
+						b = ByteBuffer.wrap(pageBuf, 0, (int) p[2]);
+						read(fc, b, p[0]);
+						replay.writePage(b, (int) p[1]);
+					}
+					replay.commit(rp, txId, lastUsedOid);
+					lastTxId = txId;
+				}
+				pages.clear();
+				crc.reset();
+				pos += COMMIT_SIZE;
+			} else {
+				break;
+			}
+		}
+		return lastTxId;
+	}
+
+	/**
+	 * Clear the log. This should only be called when all commits in the log are durable 
+	 * in the database file.
+	 * @param txId The last commit
+	 */
+	synchronized void reset(long txId) {
+		try {
+			long gen = Math.max(generations[0], generations[1]) + 1;
+			writeHeader(1 - current, gen);
+			writeHeader(current, gen + 1);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error writing log: " + dbPath, e);
+		}
+		position = HEADER_SIZE;
+		commitEnd = HEADER_SIZE;
+		isSealed = false;
+		isRotationRequested = false;
+		lastTxId = txId;
+		syncedTxId = txId;
+		crc.reset();
+		locations.clear();
+		uncommitted.clear();
+	}
+	
+	private static long toLocation(int file, long pos) {
+		return (pos << 1) | file;
+	}
+	
+	/**
+	 * Append a page to the log.
+	 * @param buf The page, the buffer is not modified
+	 * @param pageId
+	 */
+	synchronized void writePage(ByteBuffer buf, long pageId) {
+		if (pageId < 0) {
+			return;
+		}
+		ByteBuffer b = buf.duplicate();
+		int len = b.remaining();
+		recBuf.clear();
+		recBuf.put(TYPE_PAGE);
+		recBuf.putInt((int) pageId);
+		recBuf.putInt(len);
+		crc.update(recBuf.array(), 0, PAGE_HEADER_SIZE);
+		b.get(pageBuf, 0, len);
+		crc.update(pageBuf, 0, len);
+		try {
+			recBuf.flip();
+			write(fcs[current], recBuf, position);
+			write(fcs[current], ByteBuffer.wrap(pageBuf, 0, len), position + PAGE_HEADER_SIZE);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error writing log: " + dbPath, e);
+		}
+		Long prev = locations.put(pageId, toLocation(current, position + PAGE_HEADER_SIZE));
+		uncommitted.add(new long[]{pageId, prev == null ? -1 : prev});
+		position += PAGE_HEADER_SIZE + len;
+	}
+	
+	/**
+	 * Read a page that has been logged but not yet copied to the database file.
+	 * Unlike reads from the database file, this is synchronized, because a checkpoint may 
+	 * reuse the log space of the page as soon as the page is no longer in the log.
+	 * @param buf
+	 * @param pageId
+	 * @return false if the page is not in the log.
+	 */
+	synchronized boolean readPage(ByteBuffer buf, long pageId) {
+		Long loc = locations.get(pageId);
+		if (loc == null) {
+			return false;
+		}
+		readLocation(buf, loc);
+		return true;
+	}
+	
+	private void readLocation(ByteBuffer buf, long loc) {
+		FileChannel fc = fcs[(int) (loc & 1)];
+		long pos = loc >>> 1;
+		try {
+			//pages may be shorter than the page size 
+			recBuf.clear();
+			recBuf.limit(PAGE_HEADER_SIZE);
+			ByteBuffer b = buf.duplicate();
+			if (!read(fc, recBuf, pos - PAGE_HEADER_SIZE)) {
+				throw DBLogger.newFatal("Page not found in log: " + dbPath);
+			}
+			recBuf.position(1 + 4);
+			b.limit(b.position() + recBuf.getInt());
+			if (!read(fc, b, pos)) {
+				throw DBLogger.newFatal("Page not found in log: " + dbPath);
+			}
+			buf.position(b.limit());
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error reading log: " + dbPath, e);
+		}
+	}
+	
+	/**
+	 * @return The IDs and the locations of all committed pages that have not been copied to 
+	 * the database file, ordered by page ID.
+	 */
+	synchronized long[][] getCommittedPages() {
+		//Pages of the uncommitted transaction overwrite only free pages, the committed
+		//versions are not required in the database file.
+		ArrayList<long[]> ret = new ArrayList<long[]>(locations.size());
+		for (PrimLongEntry<Long> e: locations.entrySet()) {
+			long loc = e.getValue();
+			if ((loc & 1) == current && (loc >>> 1) > commitEnd) {
+				continue;
+			}
+			ret.add(new long[]{e.getKey(), loc});
+		}
+		long[][] pages = ret.toArray(new long[ret.size()][]);
+		Arrays.sort(pages, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] o1, long[] o2) {
+				return Long.compare(o1[0], o2[0]);
+			}
+		});
+		return pages;
+	}
+	
+	/**
+	 * Copy pages to the database file. 
+	 * @param pages Pages returned by {@link #getCommittedPages()}
+	 * @param root The database file
+	 */
+	void copyPages(long[][] pages, StorageChannel root) {
+		ByteBuffer buf = ByteBuffer.allocateDirect(pageSize);
+		for (long[] p: pages) {
+			buf.clear();
+			synchronized (this) {
+				readLocation(buf, p[1]);
+			}
+			buf.flip();
+			root.write(buf, p[0]);
+		}
+	}
+	
+	/**
+	 * Remove pages that have been copied to the database file. Pages that have been logged 
+	 * again in the meantime are kept.
+	 * @param pages Pages returned by {@link #getCommittedPages()}
+	 */
+	synchronized void removePages(long[][] pages) {
+		for (long[] p: pages) {
+			Long loc = locations.get(p[0]);
+			if (loc != null && loc == p[1]) {
+				locations.remove(p[0]);
+			}
+		}
+	}
+	
+	/**
+	 * Append a commit record to the log. The commit is not durable before 
+	 * {@link #sync(long)} is called.
+	 * @param rp
+	 * @param txId
+	 * @param lastUsedOid
+	 */
+	synchronized void writeCommit(RootPage rp, long txId, long lastUsedOid) {
+		recBuf.clear();
+		recBuf.put(TYPE_COMMIT);
+		recBuf.putLong(txId);
+		rp.write(recBuf);
+		recBuf.putLong(lastUsedOid);
+		crc.update(recBuf.array(), 0, COMMIT_SIZE - 8);
+		recBuf.putLong(crc.getValue());
+		crc.reset();
+		try {
+			recBuf.flip();
+			write(fcs[current], recBuf, position);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error writing log: " + dbPath, e);
+		}
+		position += COMMIT_SIZE;
+		commitEnd = position;
+		lastTxId = txId;
+		uncommitted.clear();
+	}
+	
+	/**
+	 * Remove all pages that have been written since the last commit.
+	 */
+	synchronized void discard() {
+		for (int i = uncommitted.size() - 1; i >= 0; i--) {
+			long[] p = uncommitted.get(i);
+			if (p[1] < 0) {
+				locations.remove(p[0]);
+			} else {
+				locations.put(p[0], p[1]);
+			}
+		}
+		uncommitted.clear();
+		if (position == commitEnd) {
+			return;
+		}
+		try {
+			fcs[current].truncate(commitEnd);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error writing log: " + dbPath, e);
+		}
+		position = commitEnd;
+		crc.reset();
+	}
+	
+	/**
+	 * Ensure that a commit is durable. All commits that have been written so far are made
+	 * durable together.
+	 * @param txId
+	 */
+	void sync(long txId) {
+		synchronized (syncLock) {
+			long t;
+			int c;
+			synchronized (this) {
+				if (syncedTxId >= txId) {
+					return;
+				}
+				t = lastTxId;
+				c = current;
+			}
+			try {
+				//the commit may have been written before the files were switched
+				fcs[1 - c].force(false);
+				fcs[c].force(false);
+			} catch (IOException e) {
+				throw DBLogger.newFatal("Error writing log: " + dbPath, e);
+			}
+			synchronized (this) {
+				if (t > syncedTxId) {
+					syncedTxId = t;
+				}
+			}
+		}
+	}
+	
+	synchronized long getSyncedTxId() {
+		return syncedTxId;
+	}
+	
+	/**
+	 * @return The number of bytes in the log.
+	 */
+	synchronized long getSize() {
+		long size = position - HEADER_SIZE;
+		if (isSealed) {
+			try {
+				size += fcs[1 - current].size() - HEADER_SIZE;
+			} catch (IOException e) {
+				throw DBLogger.newFatal("Error reading log: " + dbPath, e);
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Request that the log switches to the other file. The other file will then contain 
+	 * only commits that are covered by the next checkpoint.
+	 */
+	synchronized void requestRotation() {
+		isRotationRequested = true;
+	}
+	
+	/**
+	 * Switch to the other file if this has been requested. This must only be called while no
+	 * session is writing.
+	 */
+	synchronized void rotateIfRequested() {
+		if (!isRotationRequested || isSealed || position == HEADER_SIZE) {
+			return;
+		}
+		if (position != commitEnd) {
+			throw DBLogger.newFatal("Log contains uncommitted pages.");
+		}
+		try {
+			writeHeader(1 - current, generations[current] + 1);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error writing log: " + dbPath, e);
+		}
+		current = 1 - current;
+		position = HEADER_SIZE;
+		commitEnd = HEADER_SIZE;
+		isSealed = true;
+		isRotationRequested = false;
+	}
+	
+	/**
+	 * @return The generation of the inactive file if it contains commits, otherwise -1.
+	 */
+	synchronized long getSealedGeneration() {
+		return isSealed ? generations[1 - current] : -1;
+	}
+	
+	/**
+	 * Clear the inactive file after a checkpoint.
+	 * @param generation The generation of the inactive file when the checkpoint started.
+	 */
+	synchronized void release(long generation) {
+		int f = 1 - current;
+		if (!isSealed || generations[f] != generation) {
+			return;
+		}
+		try {
+			fcs[f].truncate(HEADER_SIZE);
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error writing log: " + dbPath, e);
+		}
+		isSealed = false;
+	}
+	
+	/**
+	 * Close the log files.
+	 */
+	synchronized void close() {
+		try {
+			for (int i = 0; i < 2; i++) {
+				if (fcs[i] != null) {
+					fcs[i].close();
+				}
+				if (rafs[i] != null) {
+					rafs[i].close();
+				}
+			}
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error closing log: " + dbPath, e);
+		}
+	}
+}
@@ -20,6 +20,7 @@
  */
 package org.zoodb.internal.server.index;
 
+import java.lang.ref.SoftReference;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -28,6 +29,12 @@ import org.zoodb.internal.util.DBLogger;
 
 /**
  * In the inner pages, the keys are the minimum values of the following page.
+ * 
+ * Inner pages reference clean sub-pages only softly. Clean pages can therefore be garbage 
+ * collected if memory gets low, they are re-read from disk when they are needed again. 
+ * Dirty pages are always referenced directly, they can only become evictable once they
+ * have been written. Pages that are still used, for example by iterators or page-clones,
+ * are strongly reachable and will not be collected.
 	 * 
 	 * TODO
 	 * To avoid special cases, the tree should be changed as follows:
@@ -47,7 +54,11 @@ abstract class AbstractIndexPage {
 	protected final AbstractPagedIndex ind;
 	private transient boolean isDirty;
 	final transient boolean isLeaf;
-	final AbstractIndexPage[] subPages;
+	/** 
+	 * Contains AbstractIndexPage (dirty pages) or SoftReference (clean pages) or null (not 
+	 * loaded). Use getSubPage() for reading. Directly assigned pages are treated as dirty.
+	 */
+	final Object[] subPages;
 	final int[] subPageIds;
 	private int pageId = -1;
 	//this is a pointer to the original page, in case this is a clone.
@@ -57,7 +68,7 @@ abstract class AbstractIndexPage {
 	AbstractIndexPage(AbstractPagedIndex ind, AbstractIndexPage parent, boolean isLeaf) {
 		this.ind = ind;
 		if (!isLeaf) {	
-			subPages = new AbstractIndexPage[ind.maxInnerN + 1];
+			subPages = new Object[ind.maxInnerN + 1];
 			subPageIds = new int[ind.maxInnerN + 1];
 			ind.statNInner++;
 		} else {
@@ -97,6 +108,8 @@ abstract class AbstractIndexPage {
 		if (!isDirty()) {
             setDirty( true );
             if (getParent() != null) {
+                //Make sure that the parent can not drop this page before it is written
+                getParent().pinSubPage(this);
                 //Don't clone parent. Clone only if parent actually changes.
                 getParent().markPageDirty();
             } else {
@@ -222,13 +235,57 @@ abstract class AbstractIndexPage {
 //	}
 	
 	
+	/**
+	 * @param pos
+	 * @return The sub-page at the given position or null if it is not loaded or has been 
+	 * evicted.
+	 */
+	final AbstractIndexPage getSubPage(int pos) {
+		Object o = subPages[pos];
+		if (o instanceof SoftReference) {
+			return (AbstractIndexPage) ((SoftReference<?>)o).get();
+		}
+		return (AbstractIndexPage) o;
+	}
+	
+	/**
+	 * Sets the sub-page at the given position. Dirty pages are referenced directly, clean pages
+	 * are referenced softly, which allows them to be evicted.
+	 * @param pos
+	 * @param page
+	 */
+	final void setSubPage(int pos, AbstractIndexPage page) {
+		if (page == null || page.isDirty()) {
+			subPages[pos] = page;
+		} else {
+			subPages[pos] = new SoftReference<AbstractIndexPage>(page);
+		}
+	}
+	
+	/**
+	 * Ensures that the given page is referenced directly, because it is about to become dirty.
+	 * @param page
+	 */
+	private void pinSubPage(AbstractIndexPage page) {
+		for (int i = 0; i < subPages.length; i++) {
+			Object o = subPages[i];
+			if (o == page) {
+				return;
+			}
+			if (o instanceof SoftReference && ((SoftReference<?>)o).get() == page) {
+				subPages[i] = page;
+				return;
+			}
+		}
+	}
+	
 	protected final AbstractIndexPage readPage(int pos) {
 		return readOrCreatePage(pos, false);
 	}
 	
 	
 	protected final AbstractIndexPage readOrCreatePage(int pos, boolean allowCreate) {
-		AbstractIndexPage page = subPages[pos];
+		AbstractIndexPage page = getSubPage(pos);
 		if (page != null) {
 			//page is in memory
 			return page;
@@ -250,7 +307,7 @@ abstract class AbstractIndexPage {
 			//load page
 			page = ind.readPage(pageId, this);
 		}
-		subPages[pos] = page;
+		setSubPage(pos, page);
 		return page;
 	}
 	
@@ -258,7 +315,7 @@ abstract class AbstractIndexPage {
 	
 	final AbstractIndexPage readPage(short pos, 
 			Map<AbstractIndexPage, AbstractIndexPage> transientClones) {
-	    AbstractIndexPage page = subPages[pos];
+	    AbstractIndexPage page = getSubPage(pos);
 		if (page != null) {
 			//page is in memory
 			
@@ -286,12 +343,14 @@ abstract class AbstractIndexPage {
 		} else {
 			//first write the sub pages, because they will update the page index.
 			for (int i = 0; i < getNKeys()+1; i++) {
-				AbstractIndexPage p = subPages[i];
+				AbstractIndexPage p = getSubPage(i);
 				if (p == null) {
 					//This can happen if pages are not loaded yet
 					continue;
 				}
 				subPageIds[i] = p.write();
+				//the page is clean now and can be evicted
+				setSubPage(i, p);
 			}
 			//TODO optimize: find a way to first write the inner nodes, then the leaves. Could
 			//     be faster when reading the index. -> SDD has no such problem !!?!??
@@ -321,7 +380,7 @@ abstract class AbstractIndexPage {
 		if (!isLeaf) {
 			//first write the sub pages, because they will update the page index.
 			for (int i = 0; i < getNKeys()+1; i++) {
-				AbstractIndexPage p = subPages[i];
+				AbstractIndexPage p = getSubPage(i);
 				if (p == null) {
 					continue;
 				}
@@ -360,12 +419,14 @@ abstract class AbstractIndexPage {
 		} else {
 			//now write the sub pages
 			for (int i = 0; i < getNKeys()+1; i++) {
-				AbstractIndexPage p = subPages[i];
+				AbstractIndexPage p = getSubPage(i);
 				if (p == null) {
 					//This can happen if pages are not loaded yet
 					continue;
 				}
 				subPageIds[i] = p.writeToPreallocated(map);
+				//the page is clean now and can be evicted
+				setSubPage(i, p);
 			}
 
 			//now write the page index
@@ -487,12 +548,12 @@ abstract class AbstractIndexPage {
 	 * Returns (and loads, if necessary) the page at the specified position.
 	 */
 	protected AbstractIndexPage getPageByPos(int pos) {
-		AbstractIndexPage page = subPages[pos];
+		AbstractIndexPage page = getSubPage(pos);
 		if (page != null) {
 			return page;
 		}
 		page = ind.readPage(subPageIds[pos], this);
-		subPages[pos] = page;
+		setSubPage(pos, page);
 		return page;
 	}
 
@@ -506,7 +567,7 @@ abstract class AbstractIndexPage {
 		//We know that the element exists, so we iterate to list.length instead of nEntires 
 		//(which is not available in this context at the moment.
 		for (int i = 0; i < subPages.length; i++) {
-			if (subPages[i] == indexPage) {
+			if (getSubPage(i) == indexPage) {
 				return i;
 			}
 		}
@@ -519,8 +580,9 @@ abstract class AbstractIndexPage {
 	protected void assignThisAsRootToLeaves() {
 		for (int i = 0; i <= getNKeys(); i++) {
 			//leaves may be null if they are not loaded!
-			if (subPages[i] != null) {
-				subPages[i].setParent(this);
+			AbstractIndexPage p = getSubPage(i);
+			if (p != null) {
+				p.setParent(this);
 			}
 		}
 	}
@@ -531,16 +593,6 @@ abstract class AbstractIndexPage {
 		return pageId;
 	}
 
-	/**
-	 * @return Minimal key on this branch.
-	 */
-	abstract long getMinKey();
-
-	/**
-	 * @return Value of minimal key on this branch.
-	 */
-	abstract long getMinKeyValue();
-	
 	final boolean isDirty() {
 		return isDirty;
 	}
@@ -47,6 +47,8 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 
 		AbstractPageIterator<LLEntry> iterator(long minValue, long maxValue);
 
+		AbstractPageIterator<LLEntry> descendingIterator(long maxValue, long minValue);
+
 		long removeLong(long key, long value);
 
 		void print();
@@ -117,8 +119,8 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 				        //cloned, therefore the pageId should be correct.
 				        if (parentClone.subPageIds[i] == page.pageId()) {
 				            //Why do index-tests fail if we don't check for null???
-				            if (parentClone.subPages[i] == null) {
-				                parentClone.subPages[i] = clone;
+				            if (parentClone.getSubPage(i) == null) {
+				                parentClone.setSubPage(i, clone);
 				            }
 				            break;
 				        }
@@ -184,6 +186,7 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 	protected int statNLeaves = 0;
 	protected int statNInner = 0;
 	protected int statNWrittenPages = 0;
+	private long statNUpdates = 0;
 	
 	protected final int keySize;
 	protected final int valSize;
@@ -249,8 +252,7 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 		if (!isUnique) {
 			innerEntrySize += valLen;
 		}
-		//-2 for short nKeys
-		maxInnerN = (pageSize - pageHeader - refLen - 2) / innerEntrySize;
+		maxInnerN = maxInnerN(pageSize, keyLen, valLen, isUnique);
 		if (maxInnerN * innerEntrySize + pageHeader + refLen > pageSize) {
 			throw DBLogger.newFatal("Illegal Index size: " + maxInnerN);
 		}
@@ -260,6 +262,20 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 	            maxInnerN);
 	}
 
+	/**
+	 * @return The maximum number of keys in an inner page.
+	 */
+	static int maxInnerN(int pageSize, int keyLen, int valLen, boolean isUnique) {
+		final int pageHeader = 4 + DiskIO.PAGE_HEADER_SIZE;
+		final int refLen = 4;
+		int innerEntrySize = keyLen + refLen;
+		if (!isUnique) {
+			innerEntrySize += valLen;
+		}
+		//-2 for short nKeys
+		return (pageSize - pageHeader - refLen - 2) / innerEntrySize;
+	}
+
 	abstract AbstractIndexPage createPage(AbstractIndexPage parent, boolean isLeaf);
 
 	public final int write() {
@@ -335,6 +351,14 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 		return statNWrittenPages;
 	}
 	
+	/**
+	 * @return The number of page modifications since the index was loaded. This is roughly 
+	 * the number of inserted and removed entries.
+	 */
+	public long statsGetUpdatesN() {
+		return statNUpdates;
+	}
+	
 	private AbstractPageIterator<?> registerIterator(AbstractPageIterator<?> iter) {
 		iterators.put(iter, new Object());
 		return iter;
@@ -351,6 +375,7 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 	}
 
 	final void notifyPageUpdate(AbstractIndexPage page) {
+		statNUpdates++;
 		if (iterators.isEmpty()) {
 			//seems stupid, but saves ~10% for some perf tests! 
 			return;
@@ -406,4 +431,14 @@ public abstract class AbstractPagedIndex extends AbstractIndex {
 		return dataType;
 	}
 
+	/**
+	 * The free space manager preallocates the pages of its index before writing it, so its 
+	 * leaves must not be split during the write. Compressed leaves may need to be split when 
+	 * a value changes, so they are not used for the free space index.
+	 * @return Whether leaves of this index may be stored in a compressed format.
+	 */
+	boolean allowsCompressedLeaves() {
+		return dataType != DATA_TYPE.FREE_INDEX;
+	}
+
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+/**
+ * Key encoding for composite (multi-field) indices. 
+ * 
+ * The values of all fields of a composite index are concatenated into a single String key
+ * which is stored in a {@link PagedStringLong}. The encoding preserves the lexicographic order
+ * of the field values, i.e. the natural order of the encoded Strings is the order of the first
+ * field, then of the second field, and so on. Therefore all keys with a given prefix of field
+ * values are stored in one consecutive range of the index.
+ * 
+ * Encoding
+ * ========
+ * Primitives are converted into their sortable long representation, see 
+ * {@link BitTools#toSortableLong(double)}. The long is written as four chars with the sign 
+ * bit flipped, such that negative values sort before positive values.
+ * 
+ * Strings start with a marker that distinguishes 'null' (0) from other values (1). For
+ * non-null Strings, the marker is followed by the chars of the String and a terminating 0. 
+ * The chars 0 and 1 are escaped as (1,1) and (1,2) respectively. This ensures that a
+ * String sorts before all Strings that have it as prefix. 
+ * 
+ * Long Strings can be truncated to a maximum number of encoded chars, see 
+ * {@link #appendString(StringBuilder, String, int)}. Truncation never splits an escaped 
+ * char, so the order of truncated keys is consistent with the order of the original keys, 
+ * but different keys may become equal.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class CompositeKey {
+
+	private static final char NULL_STRING = 0;
+	private static final char NON_NULL_STRING = 1;
+	private static final char ESCAPE = 1;
+	private static final char TERMINATOR = 0;
+	
+	private CompositeKey() {
+		// static methods only
+	}
+	
+	/**
+	 * Append a primitive value to a key.
+	 * @param sb The key
+	 * @param value The sortable long representation of the primitive.
+	 */
+	public static void appendLong(StringBuilder sb, long value) {
+		long v = value ^ Long.MIN_VALUE;
+		sb.append((char) (v >>> 48));
+		sb.append((char) (v >>> 32));
+		sb.append((char) (v >>> 16));
+		sb.append((char) v);
+	}
+	
+	/**
+	 * Append a String value to a key.
+	 * @param sb The key
+	 * @param value The String, may be {@code null}.
+	 */
+	public static void appendString(StringBuilder sb, String value) {
+		appendString(sb, value, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Append a String value to a key. The encoded value, including marker and terminator,
+	 * is truncated to at most {@code maxLength} chars.
+	 * @param sb The key
+	 * @param value The String, may be {@code null}.
+	 * @param maxLength The maximum number of chars to append, at least 2.
+	 */
+	public static void appendString(StringBuilder sb, String value, int maxLength) {
+		if (value == null) {
+			sb.append(NULL_STRING);
+			return;
+		}
+		sb.append(NON_NULL_STRING);
+		//marker and terminator
+		int n = maxLength - 2;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c <= ESCAPE) {
+				if ((n -= 2) < 0) {
+					break;
+				}
+				sb.append(ESCAPE);
+				sb.append((char) (c + 1));
+			} else {
+				if (--n < 0) {
+					break;
+				}
+				sb.append(c);
+			}
+		}
+		sb.append(TERMINATOR);
+	}
+	
+	/**
+	 * Returns the smallest String that is larger than all Strings that start with the given 
+	 * prefix. This can be used as upper limit for an index scan over all keys with the given 
+	 * prefix. The returned limit itself does not have the prefix, so any key that equals the 
+	 * limit is a false positive.
+	 * @param prefix
+	 * @return The upper limit or {@code null} if there is no such limit.
+	 */
+	public static String prefixEnd(String prefix) {
+		int i = prefix.length() - 1;
+		while (i >= 0 && prefix.charAt(i) == Character.MAX_VALUE) {
+			i--;
+		}
+		if (i < 0) {
+			return null;
+		}
+		char[] ca = prefix.substring(0, i + 1).toCharArray();
+		ca[i]++;
+		return new String(ca);
+	}
+}
@@ -41,11 +41,34 @@ import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
  * for every new transaction. The iterator will return only free pages from previous transactions.
  * If (iter.hasNext() == false), use atomic page counter to allocate additional pages.
  * 
+ * If the database is used by multiple sessions, a {@link PageGuard} prevents the reuse of 
+ * pages that may still be read by other sessions.
+ * 
  * @author Tilmann Zaeschke
  *
  */
 public class FreeSpaceManager {
 	
+	/**
+	 * Coordinates the allocation of pages with other sessions of the same database.
+	 */
+	public interface PageGuard {
+		/**
+		 * Called before a page is allocated or freed.
+		 */
+		void beforeWrite();
+		/**
+		 * Called for every page that is freed.
+		 * @param pageId
+		 */
+		void pageFreed(int pageId);
+		/**
+		 * @param pageId
+		 * @return Whether the free page may still be read by another session.
+		 */
+		boolean isInUse(int pageId);
+	}
+	
 	private static final int PID_DO_NOT_USE = -1;
 	private static final int PID_OK = 0;
 	
@@ -56,6 +79,7 @@ public class FreeSpaceManager {
 	private final ArrayList<Integer> toAdd = new ArrayList<Integer>();
 	private final ArrayList<Integer> toDelete = new ArrayList<Integer>();
 
+	private PageGuard guard = null;
 	
 	/**
 	 * Constructor for free space manager.
@@ -92,6 +116,14 @@ public class FreeSpaceManager {
 	}
 	
 	
+	public void setPageGuard(PageGuard guard) {
+		this.guard = guard;
+	}
+	
+	private boolean isUsable(long pageId, long pageIdValue) {
+		return pageIdValue != PID_DO_NOT_USE && (guard == null || !guard.isInUse((int) pageId));
+	}
+	
 	public int write() {
 		for (Integer l: toDelete) {
 			idx.removeLong(l);
@@ -141,6 +173,9 @@ public class FreeSpaceManager {
 	 * @return New free page.
 	 */
 	public int getNextPage(int prevPage) {
+		if (guard != null) {
+			guard.beforeWrite();
+		}
 		reportFreePage(prevPage);
 		
 		if (iter.hasNextULL()) {
@@ -148,14 +183,16 @@ public class FreeSpaceManager {
 			long pageId = e.getKey();
 			long pageIdValue = e.getValue();
 			
-			// do not return pages that are PID_DO_NOT_USE.
-			while (pageIdValue == PID_DO_NOT_USE && iter.hasNextULL()) {
-				toDelete.add((int) pageId);
+			// do not return pages that are PID_DO_NOT_USE or still in use.
+			while (!isUsable(pageId, pageIdValue) && iter.hasNextULL()) {
+				if (pageIdValue == PID_DO_NOT_USE) {
+					toDelete.add((int) pageId);
+				}
 				e = iter.nextULL();
 				pageId = e.getKey();
 				pageIdValue = e.getValue();
 			}
-			if (pageIdValue != PID_DO_NOT_USE) {
+			if (isUsable(pageId, pageIdValue)) {
 				toDelete.add((int) pageId);
 				return (int) pageId;
 			}
@@ -184,6 +221,9 @@ public class FreeSpaceManager {
 	 * @return free page ID
 	 */
 	public int getNextPageWithoutDeletingIt(int prevPage) {
+		if (guard != null) {
+			guard.beforeWrite();
+		}
 		reportFreePage(prevPage);
 		
 		if (iter.hasNextULL()) {
@@ -191,14 +231,14 @@ public class FreeSpaceManager {
 			long pageId = e.getKey();
 			long pageIdValue = e.getValue();
 			
-			// do not return pages that are PID_DO_NOT_USE.
-			while (pageIdValue == PID_DO_NOT_USE && iter.hasNextULL()) {
+			// do not return pages that are PID_DO_NOT_USE or still in use.
+			while (!isUsable(pageId, pageIdValue) && iter.hasNextULL()) {
 				//don't delete these pages here, we just ignore them
 				e = iter.nextULL();
 				pageId = e.getKey();
 				pageIdValue = e.getValue();
 			}
-			if (pageIdValue != PID_DO_NOT_USE) {
+			if (isUsable(pageId, pageIdValue)) {
 				//label the page as invalid
 				//We have to use toDelete here to indicate to the write map builder that something
 				//has changed!
@@ -216,6 +256,10 @@ public class FreeSpaceManager {
 
 	public void reportFreePage(int prevPage) {
 		if (prevPage > 2) {
+			if (guard != null) {
+				guard.beforeWrite();
+				guard.pageFreed(prevPage);
+			}
 			toAdd.add(prevPage);
 		}
 		//Comment: pages tend to be seemingly reported multiple times, but they are always 
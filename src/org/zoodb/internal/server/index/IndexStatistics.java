@@ -0,0 +1,255 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+import java.util.Arrays;
+
+import org.zoodb.internal.server.StorageChannelInput;
+import org.zoodb.internal.server.StorageChannelOutput;
+import org.zoodb.internal.server.index.PagedStringLong.SLEntry;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
+
+/**
+ * Statistics of an attribute index. They are used by the query optimizer to estimate the 
+ * selectivity of a query term.
+ * 
+ * The statistics consist of the number of entries, the number of distinct keys and an 
+ * equi-depth histogram, i.e. a list of keys that split the index into buckets with roughly
+ * the same number of entries.
+ * String keys are mapped to longs via their first four characters, see 
+ * {@link #toSortableLong(String)}.
+ * 
+ * The statistics are built when the query optimizer requests them and when they are missing 
+ * or when a sufficient part of the index has changed since they were built. Outdated 
+ * statistics are dropped during commit, current statistics are persisted with the 
+ * {@link SchemaIndex}.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class IndexStatistics {
+
+	/** Maximum number of buckets in the histogram. */
+	static final int MAX_BUCKETS = 32;
+	
+	private final long nEntries;
+	private final long nDistinct;
+	/** Bucket boundaries, bucket i contains keys from bounds[i] to bounds[i+1]. */
+	private final long[] bounds;
+	
+	private IndexStatistics(long nEntries, long nDistinct, long[] bounds) {
+		this.nEntries = nEntries;
+		this.nDistinct = nDistinct;
+		this.bounds = bounds;
+	}
+	
+	/**
+	 * Create statistics by scanning an index. 
+	 * @param iter Iterator over {@link LLEntry} or {@link SLEntry} instances, in key order.
+	 * @return The statistics
+	 */
+	public static IndexStatistics build(AbstractPagedIndex.AbstractPageIterator<?> iter) {
+		//We keep every n-th key, where n is doubled whenever the sample is full. This 
+		//results in evenly spaced keys without knowing the size of the index in advance.
+		long[] sample = new long[2 * MAX_BUCKETS];
+		int nSample = 0;
+		long stride = 1;
+		long n = 0;
+		long nDistinct = 0;
+		long last = 0;
+		String prevString = null;
+		while (iter.hasNext()) {
+			Object e = iter.next();
+			long key64;
+			boolean isNewKey;
+			if (e instanceof LLEntry) {
+				key64 = ((LLEntry)e).getKey();
+				isNewKey = n == 0 || key64 != last;
+			} else {
+				String key = ((SLEntry)e).getKey();
+				key64 = toSortableLong(key);
+				isNewKey = n == 0 || 
+						(key == null ? prevString != null : !key.equals(prevString));
+				prevString = key;
+			}
+			if (isNewKey) {
+				nDistinct++;
+			}
+			if (n % stride == 0) {
+				if (nSample == sample.length) {
+					for (int i = 0; i < nSample/2; i++) {
+						sample[i] = sample[i*2];
+					}
+					nSample /= 2;
+					stride *= 2;
+				}
+				if (n % stride == 0) {
+					sample[nSample++] = key64;
+				}
+			}
+			last = key64;
+			n++;
+		}
+		iter.close();
+		if (n == 0) {
+			return new IndexStatistics(0, 0, new long[0]);
+		}
+		int nBuckets = Math.min(MAX_BUCKETS, nSample);
+		long[] bounds = new long[nBuckets + 1];
+		for (int i = 0; i < nBuckets; i++) {
+			bounds[i] = sample[(int) ((long)i * nSample / nBuckets)];
+		}
+		bounds[nBuckets] = last;
+		return new IndexStatistics(n, nDistinct, bounds);
+	}
+	
+	/**
+	 * @return The number of entries in the index.
+	 */
+	public long getEntryCount() {
+		return nEntries;
+	}
+	
+	/**
+	 * @return The number of distinct keys in the index.
+	 */
+	public long getDistinctCount() {
+		return nDistinct;
+	}
+	
+	/**
+	 * Estimate the fraction of entries in a range.
+	 * @param min The minimum key (inclusive)
+	 * @param max The maximum key (inclusive)
+	 * @return The estimated fraction of index entries with keys in the given range, between
+	 * 0 and 1.
+	 */
+	public double estimateSelectivity(long min, long max) {
+		if (nEntries == 0 || min > max) {
+			return 0;
+		}
+		int nBuckets = bounds.length - 1;
+		if (min == max) {
+			if (min < bounds[0] || min > bounds[nBuckets]) {
+				return 0;
+			}
+			//Frequent keys fill whole buckets
+			int nFull = 0;
+			for (int i = 0; i < nBuckets; i++) {
+				if (bounds[i] == min && bounds[i+1] == min) {
+					nFull++;
+				}
+			}
+			return Math.max(1.0 / nDistinct, (double)nFull / nBuckets);
+		}
+		double sum = 0;
+		for (int i = 0; i < nBuckets; i++) {
+			long lo = bounds[i];
+			long hi = bounds[i+1];
+			if (max < lo || min > hi) {
+				continue;
+			}
+			if (min <= lo && max >= hi) {
+				sum += 1;
+				continue;
+			}
+			//partial overlap, assume uniform distribution inside the bucket
+			double width = (double)hi - (double)lo;
+			if (width <= 0) {
+				sum += 1;
+				continue;
+			}
+			double from = Math.max((double)min, (double)lo);
+			double to = Math.min((double)max, (double)hi);
+			sum += (to - from) / width;
+		}
+		//add a single key to account for inclusive boundaries
+		double sel = sum / nBuckets + 1.0 / nDistinct;
+		return Math.min(1, sel);
+	}
+	
+	/**
+	 * Variant of {@link #estimateSelectivity(long, long)} for String indices. 
+	 * @param min The minimum key (inclusive) or {@code null} for no lower limit.
+	 * @param max The maximum key (inclusive) or {@code null} for no upper limit.
+	 * @return The estimated fraction of index entries with keys in the given range.
+	 */
+	public double estimateSelectivity(String min, String max) {
+		if (min != null && min.equals(max)) {
+			//Strings with the same prefix fill the same buckets, so the histogram can not
+			//identify frequent keys. We assume the average frequency instead.
+			long key64 = toSortableLong(min);
+			if (nEntries == 0 || key64 < bounds[0] || key64 > bounds[bounds.length-1]) {
+				return 0;
+			}
+			return 1.0 / nDistinct;
+		}
+		long min64 = min == null ? Long.MIN_VALUE : toSortableLong(min);
+		//Strings with the same prefix map to the same long, so we include them 
+		long max64 = max == null ? Long.MAX_VALUE : toSortableLong(max);
+		return estimateSelectivity(min64, max64);
+	}
+	
+	/**
+	 * Map a String to a long such that the order is preserved. Only the first four 
+	 * characters are considered.
+	 * @param s The String, may be {@code null}
+	 * @return The long representation
+	 */
+	public static long toSortableLong(String s) {
+		if (s == null) {
+			return Long.MIN_VALUE;
+		}
+		long l = 0;
+		for (int i = 0; i < 4; i++) {
+			l <<= 16;
+			if (i < s.length()) {
+				l |= s.charAt(i);
+			}
+		}
+		//unsigned to signed
+		return l ^ Long.MIN_VALUE;
+	}
+	
+	void write(StorageChannelOutput out) {
+		out.writeLong(nEntries);
+		out.writeLong(nDistinct);
+		out.writeShort((short) bounds.length);
+		for (long b: bounds) {
+			out.writeLong(b);
+		}
+	}
+	
+	static IndexStatistics read(StorageChannelInput in) {
+		long nEntries = in.readLong();
+		long nDistinct = in.readLong();
+		long[] bounds = new long[in.readShort()];
+		for (int i = 0; i < bounds.length; i++) {
+			bounds[i] = in.readLong();
+		}
+		return new IndexStatistics(nEntries, nDistinct, bounds);
+	}
+	
+	@Override
+	public String toString() {
+		return "entries=" + nEntries + " distinct=" + nDistinct + 
+				" histogram=" + Arrays.toString(bounds);
+	}
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import org.zoodb.internal.server.index.AbstractPagedIndex.LongLongIndex;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.internal.util.Util;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Bottom-up bulk loader for empty long-long indices (unique and non-unique).
+ * 
+ * The loader collects (key, value) pairs and sorts them. If there are more entries than 
+ * fit into the buffer (see {@link ZooConfig#setIndexBulkLoadBufferSize(int)}), the sorted 
+ * buffers are written as runs to temporary files and merged afterwards.
+ * The sorted entries are then written to completely filled leaf pages, followed by the 
+ * inner pages. Pages are written as soon as they are full, they are therefore not kept in
+ * memory.
+ * 
+ * This is much faster than inserting the entries one by one, and the resulting index is 
+ * smaller because the leaves are not only half full.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class LLBulkLoader {
+
+	private final AbstractPagedIndex ind;
+	private final int bufferSize;
+	
+	private long[] keys;
+	private long[] values;
+	private int n = 0;
+	private final ArrayList<File> runs = new ArrayList<File>();
+	
+	//pages that are currently being filled, one for each level of inner pages 
+	private LLIndexPage[] inner = new LLIndexPage[4];
+	private long[] innerMinKeys = new long[4];
+	private long[] innerMinValues = new long[4];
+	
+	public LLBulkLoader(LongLongIndex ind) {
+		this(ind, ZooConfig.getIndexBulkLoadBufferSize());
+	}
+	
+	/**
+	 * @param ind An empty index.
+	 * @param bufferSize Maximum number of entries that are sorted in memory.
+	 */
+	public LLBulkLoader(LongLongIndex ind, int bufferSize) {
+		this.ind = (AbstractPagedIndex) ind;
+		this.bufferSize = bufferSize;
+		if (this.ind.getRoot().getNKeys() != -1) {
+			throw DBLogger.newFatal("Bulk loading requires an empty index.");
+		}
+		int initialSize = Math.min(bufferSize, 1024);
+		keys = new long[initialSize];
+		values = new long[initialSize];
+	}
+	
+	/**
+	 * Add an entry. Entries can be added in any order.
+	 * @param key
+	 * @param value
+	 */
+	public void add(long key, long value) {
+		if (n == keys.length) {
+			if (n < bufferSize) {
+				int newSize = (int) Math.min((long)n << 1, bufferSize);
+				long[] k2 = new long[newSize];
+				long[] v2 = new long[newSize];
+				System.arraycopy(keys, 0, k2, 0, n);
+				System.arraycopy(values, 0, v2, 0, n);
+				keys = k2;
+				values = v2;
+			} else {
+				try {
+					runs.add(writeRun());
+				} catch (IOException e) {
+					close();
+					throw DBLogger.newFatal("Error while sorting index entries.", e);
+				}
+			}
+		}
+		keys[n] = key;
+		values[n] = value;
+		n++;
+	}
+	
+	/**
+	 * Sort all entries and write them to the index.
+	 * For unique indices, this fails if a key occurs more than once.
+	 */
+	public void load() {
+		try {
+			SortedInput input;
+			if (runs.isEmpty()) {
+				sort(keys, values, 0, n);
+				input = new ArrayInput(keys, values, n);
+			} else {
+				if (n > 0) {
+					runs.add(writeRun());
+				}
+				input = new MergeInput(runs);
+			}
+			try {
+				build(input);
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			throw DBLogger.newFatal("Error while sorting index entries.", e);
+		} finally {
+			close();
+		}
+	}
+	
+	/**
+	 * Release the buffer and remove temporary files. This is only necessary if 
+	 * {@link #load()} is not called.
+	 */
+	public void close() {
+		for (File f: runs) {
+			f.delete();
+		}
+		runs.clear();
+		keys = null;
+		values = null;
+		n = 0;
+	}
+	
+	private void build(SortedInput input) throws IOException {
+		final boolean isUnique = ind.isUnique();
+		LLIndexPage leaf = null;
+		int nLeaf = 0;
+		long minValue = 0;
+		long maxValue = 0;
+		long prevKey = 0;
+		boolean isFirst = true;
+		while (input.next()) {
+			long key = input.key;
+			long value = input.value;
+			if (isUnique && !isFirst && key == prevKey) {
+				throw DBLogger.newUser("Duplicate entry in unique index: " + 
+						Util.oidToString(value));
+			}
+			isFirst = false;
+			prevKey = key;
+			if (leaf != null) {
+				//fill the leaf as long as it fits on a page, if necessary in compressed form
+				long min = Math.min(minValue, value);
+				long max = Math.max(maxValue, value);
+				if (leaf.fits(nLeaf + 1, key - leaf.getKeys()[0], max - min)) {
+					minValue = min;
+					maxValue = max;
+				} else {
+					finishLeaf(leaf, nLeaf);
+					leaf = null;
+				}
+			}
+			if (leaf == null) {
+				leaf = (LLIndexPage) ind.createPage(null, true);
+				nLeaf = 0;
+				minValue = value;
+				maxValue = value;
+			}
+			leaf.ensureCapacity(nLeaf + 1);
+			leaf.getKeys()[nLeaf] = key;
+			leaf.getValues()[nLeaf] = value;
+			nLeaf++;
+		}
+		if (leaf == null) {
+			//no entries, keep the empty root
+			return;
+		}
+		finishLeaf(leaf, nLeaf);
+		
+		//finish inner pages bottom-up, the last remaining page is the root
+		LLIndexPage root = null;
+		for (int level = 0; level < inner.length && inner[level] != null; level++) {
+			LLIndexPage p = inner[level];
+			if (level + 1 < inner.length && inner[level + 1] != null) {
+				p.write();
+				addToParent(level + 1, p, innerMinKeys[level], innerMinValues[level]);
+			} else {
+				root = p;
+			}
+		}
+		root.write();
+		
+		//replace empty root
+		ind.statNInner--;
+		ind.updateRoot(root);
+		ind.markDirty();
+	}
+	
+	private void finishLeaf(LLIndexPage leaf, int nLeaf) {
+		leaf.setNEntries(nLeaf);
+		leaf.write();
+		addToParent(0, leaf, leaf.getKeys()[0], leaf.getValues()[0]);
+	}
+	
+	/**
+	 * Add a written page to the inner page on the given level. If the inner page is full, it 
+	 * is written as well and a new inner page is started.
+	 */
+	private void addToParent(int level, LLIndexPage page, long minKey, long minValue) {
+		if (level == inner.length) {
+			LLIndexPage[] inner2 = new LLIndexPage[level * 2];
+			long[] minKeys2 = new long[level * 2];
+			long[] minValues2 = new long[level * 2];
+			System.arraycopy(inner, 0, inner2, 0, level);
+			System.arraycopy(innerMinKeys, 0, minKeys2, 0, level);
+			System.arraycopy(innerMinValues, 0, minValues2, 0, level);
+			inner = inner2;
+			innerMinKeys = minKeys2;
+			innerMinValues = minValues2;
+		}
+		LLIndexPage p = inner[level];
+		if (p != null && p.getNKeys() == ind.maxInnerN) {
+			p.write();
+			addToParent(level + 1, p, innerMinKeys[level], innerMinValues[level]);
+			p = null;
+		}
+		if (p == null) {
+			p = (LLIndexPage) ind.createPage(null, false);
+			inner[level] = p;
+			innerMinKeys[level] = minKey;
+			innerMinValues[level] = minValue;
+		} else {
+			//the key is the minimum of the following sub-page
+			int nKeys = p.getNKeys();
+			p.getKeys()[nKeys] = minKey;
+			if (!ind.isUnique()) {
+				p.getValues()[nKeys] = minValue;
+			}
+		}
+		p.incrementNEntries();
+		int pos = p.getNKeys();
+		p.subPageIds[pos] = page.pageId();
+		p.setSubPage(pos, page);
+		page.setParent(p);
+	}
+	
+	private File writeRun() throws IOException {
+		sort(keys, values, 0, n);
+		File f = File.createTempFile("zoodbIndex", ".tmp");
+		f.deleteOnExit();
+		DataOutputStream out = 
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			for (int i = 0; i < n; i++) {
+				out.writeLong(keys[i]);
+				out.writeLong(values[i]);
+			}
+		} finally {
+			out.close();
+		}
+		n = 0;
+		return f;
+	}
+	
+	private static boolean isLess(long k1, long v1, long k2, long v2) {
+		return k1 < k2 || (k1 == k2 && v1 < v2);
+	}
+	
+	/**
+	 * Merge sort on (key, value) pairs.
+	 */
+	private static void sort(long[] keys, long[] values, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		long[] k2 = new long[to - from];
+		long[] v2 = new long[to - from];
+		mergeSort(keys, values, k2, v2, from, to);
+	}
+
+	private static void mergeSort(long[] keys, long[] values, long[] k2, long[] v2, 
+			int from, int to) {
+		if (to - from <= 16) {
+			//insertion sort
+			for (int i = from + 1; i < to; i++) {
+				long k = keys[i];
+				long v = values[i];
+				int j = i - 1;
+				while (j >= from && isLess(k, v, keys[j], values[j])) {
+					keys[j + 1] = keys[j];
+					values[j + 1] = values[j];
+					j--;
+				}
+				keys[j + 1] = k;
+				values[j + 1] = v;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(keys, values, k2, v2, from, mid);
+		mergeSort(keys, values, k2, v2, mid, to);
+		if (!isLess(keys[mid], values[mid], keys[mid - 1], values[mid - 1])) {
+			//already in order
+			return;
+		}
+		int n = to - from;
+		System.arraycopy(keys, from, k2, 0, n);
+		System.arraycopy(values, from, v2, 0, n);
+		int i1 = 0;
+		int i2 = mid - from;
+		for (int i = from; i < to; i++) {
+			if (i2 >= n || (i1 < mid - from && !isLess(k2[i2], v2[i2], k2[i1], v2[i1]))) {
+				keys[i] = k2[i1];
+				values[i] = v2[i1];
+				i1++;
+			} else {
+				keys[i] = k2[i2];
+				values[i] = v2[i2];
+				i2++;
+			}
+		}
+	}
+	
+	private abstract static class SortedInput {
+		long key;
+		long value;
+		abstract boolean next() throws IOException;
+		abstract void close() throws IOException;
+	}
+	
+	private static class ArrayInput extends SortedInput {
+		private final long[] keys;
+		private final long[] values;
+		private final int n;
+		private int pos = 0;
+		ArrayInput(long[] keys, long[] values, int n) {
+			this.keys = keys;
+			this.values = values;
+			this.n = n;
+		}
+		@Override
+		boolean next() {
+			if (pos >= n) {
+				return false;
+			}
+			key = keys[pos];
+			value = values[pos];
+			pos++;
+			return true;
+		}
+		@Override
+		void close() {
+			//nothing to do
+		}
+	}
+	
+	private static class RunReader extends SortedInput {
+		private final DataInputStream in;
+		RunReader(File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		}
+		@Override
+		boolean next() throws IOException {
+			try {
+				key = in.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+			value = in.readLong();
+			return true;
+		}
+		@Override
+		void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	private static class MergeInput extends SortedInput {
+		private final ArrayList<RunReader> readers = new ArrayList<RunReader>();
+		private final PriorityQueue<RunReader> queue;
+		MergeInput(ArrayList<File> runs) throws IOException {
+			queue = new PriorityQueue<RunReader>(runs.size(), new Comparator<RunReader>() {
+				@Override
+				public int compare(RunReader r1, RunReader r2) {
+					if (isLess(r1.key, r1.value, r2.key, r2.value)) {
+						return -1;
+					}
+					return (r1.key == r2.key && r1.value == r2.value) ? 0 : 1;
+				}
+			});
+			for (File f: runs) {
+				RunReader r = new RunReader(f);
+				readers.add(r);
+				if (r.next()) {
+					queue.add(r);
+				}
+			}
+		}
+		@Override
+		boolean next() throws IOException {
+			RunReader r = queue.poll();
+			if (r == null) {
+				return false;
+			}
+			key = r.key;
+			value = r.value;
+			if (r.next()) {
+				queue.add(r);
+			}
+			return true;
+		}
+		@Override
+		void close() throws IOException {
+			for (RunReader r: readers) {
+				r.close();
+			}
+		}
+	}
+}
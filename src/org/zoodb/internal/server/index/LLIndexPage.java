@@ -23,13 +23,30 @@ package org.zoodb.internal.server.index;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
 
+import org.zoodb.internal.server.DiskIO;
 import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
 import org.zoodb.internal.util.DBLogger;
 
+/**
+ * Index page with long keys and long values.
+ * 
+ * Leaf pages are stored in one of two formats. If the entries fit, they are stored with the
+ * fixed key and value sizes of the index. Leaves with more entries are stored with 
+ * frame-of-reference encoding: Only the minimum key and value are stored in full, all other
+ * keys and values are stored as bit-packed differences to these minima. This works well for
+ * dense keys such as OIDs or positions, where leaves can hold several times as many entries.
+ * The compressed format is indicated by a negative number of entries. 
+ */
 class LLIndexPage extends AbstractIndexPage {
+	
+	/** nEntries, key bit-width, value bit-width, min key, min value. */
+	private static final int COMPRESSED_HEADER_SIZE = 2 + 1 + 1 + 8 + 8;
+	/** Limits the size of the in-memory arrays of compressed leaves. */
+	private static final int MAX_COMPRESSION_FACTOR = 8;
+	
 	private LLIndexPage parent;
-	private final long[] keys;
-	private final long[] values;
+	private long[] keys;
+	private long[] values;
 	/** number of keys. There are nEntries+1 subPages in any leaf page. */
 	private short nEntries;
 	
@@ -70,17 +87,204 @@ class LLIndexPage extends AbstractIndexPage {
 	
 	@Override
 	void readData() {
-		nEntries = ind.in.readShort();
+		short n = ind.in.readShort();
+		if (n < 0) {
+			readCompressed(-1 - n);
+			return;
+		}
+		nEntries = n;
 		readArrayFromRaf(ind.keySize, keys, nEntries);
 		readArrayFromRaf(ind.valSize, values, nEntries);
 	}
 	
 	@Override
 	void writeData() {
+		if (nEntries > ind.maxLeafN) {
+			writeCompressed();
+			return;
+		}
+		if (keys.length > ind.maxLeafN) {
+			//the uncompressed format always stores arrays of size maxLeafN 
+			keys = Arrays.copyOf(keys, ind.maxLeafN);
+			values = Arrays.copyOf(values, ind.maxLeafN);
+		}
 		ind.out.writeShort(nEntries);
 		writeArrayToRaf(ind.keySize, keys, nEntries);
 		writeArrayToRaf(ind.valSize, values, nEntries);
 	}
+	
+	private void writeCompressed() {
+		long minKey = keys[0];
+		long maxKey = keys[nEntries-1];
+		long minValue = 0;
+		long maxValue = 0;
+		if (ind.valSize > 0) {
+			minValue = values[0];
+			maxValue = values[0];
+			for (int i = 1; i < nEntries; i++) {
+				minValue = Math.min(minValue, values[i]);
+				maxValue = Math.max(maxValue, values[i]);
+			}
+		}
+		int keyBits = bitWidth(maxKey - minKey);
+		int valueBits = bitWidth(maxValue - minValue);
+		long[] buf = new long[(nEntries * (keyBits + valueBits) + 63) >>> 6];
+		int bitPos = 0;
+		for (int i = 0; i < nEntries; i++) {
+			bitPos = pack(buf, bitPos, keys[i] - minKey, keyBits);
+		}
+		for (int i = 0; i < nEntries; i++) {
+			bitPos = pack(buf, bitPos, values[i] - minValue, valueBits);
+		}
+		ind.out.writeShort((short) (-1 - nEntries));
+		ind.out.writeByte((byte) keyBits);
+		ind.out.writeByte((byte) valueBits);
+		ind.out.writeLong(minKey);
+		ind.out.writeLong(minValue);
+		if (buf.length > 0) {
+			ind.out.noCheckWrite(buf);
+		}
+	}
+	
+	private void readCompressed(int n) {
+		ensureCapacity(n);
+		nEntries = (short) n;
+		int keyBits = ind.in.readByte();
+		int valueBits = ind.in.readByte();
+		long minKey = ind.in.readLong();
+		long minValue = ind.in.readLong();
+		long[] buf = new long[(n * (keyBits + valueBits) + 63) >>> 6];
+		if (buf.length > 0) {
+			ind.in.noCheckRead(buf);
+		}
+		int bitPos = 0;
+		for (int i = 0; i < n; i++) {
+			keys[i] = minKey + unpack(buf, bitPos, keyBits);
+			bitPos += keyBits;
+		}
+		for (int i = 0; i < n; i++) {
+			values[i] = minValue + unpack(buf, bitPos, valueBits);
+			bitPos += valueBits;
+		}
+	}
+
+	private static int pack(long[] buf, int bitPos, long x, int bits) {
+		if (bits == 0) {
+			return bitPos;
+		}
+		int i = bitPos >>> 6;
+		int offs = bitPos & 63;
+		buf[i] |= x << offs;
+		if (offs + bits > 64) {
+			buf[i+1] |= x >>> (64 - offs);
+		}
+		return bitPos + bits;
+	}
+	
+	private static long unpack(long[] buf, int bitPos, int bits) {
+		if (bits == 0) {
+			return 0;
+		}
+		int i = bitPos >>> 6;
+		int offs = bitPos & 63;
+		long x = buf[i] >>> offs;
+		if (offs + bits > 64) {
+			x |= buf[i+1] << (64 - offs);
+		}
+		if (bits < 64) {
+			x &= (1L << bits) - 1;
+		}
+		return x;
+	}
+	
+	/**
+	 * @param range The difference between maximum and minimum, interpreted as unsigned value.
+	 * @return The number of bits required to store all values in the range.
+	 */
+	private static int bitWidth(long range) {
+		return 64 - Long.numberOfLeadingZeros(range);
+	}
+	
+	/**
+	 * Check whether a leaf with the given properties can be written to a single page.
+	 * @param n number of entries
+	 * @param keyRange Difference between maximum and minimum key
+	 * @param valueRange Difference between maximum and minimum value
+	 * @return Whether the leaf can be stored.
+	 */
+	final boolean fits(int n, long keyRange, long valueRange) {
+		if (n <= ind.maxLeafN) {
+			return true;
+		}
+		if (n > ind.maxLeafN * MAX_COMPRESSION_FACTOR || n > Short.MAX_VALUE || 
+				!ind.allowsCompressedLeaves()) {
+			return false;
+		}
+		int bits = bitWidth(keyRange);
+		if (ind.valSize > 0) {
+			bits += bitWidth(valueRange);
+		}
+		int size = COMPRESSED_HEADER_SIZE + (((n * bits + 63) >>> 6) << 3);
+		//page header, leaf-flag
+		return size <= ind.file.getPageSize() - DiskIO.PAGE_HEADER_SIZE - 2;
+	}
+	
+	/**
+	 * Check whether the leaf still fits on a page if an entry is added or replaced.
+	 * @param replacePos Position of the entry to replace or -1 if the entry is added.
+	 */
+	private boolean fitsWith(int replacePos, long key, long value) {
+		int n = replacePos < 0 ? nEntries + 1 : nEntries;
+		if (n <= ind.maxLeafN) {
+			return true;
+		}
+		long minKey = Math.min(keys[0], key);
+		long maxKey = Math.max(keys[nEntries-1], key);
+		long minValue = value;
+		long maxValue = value;
+		for (int i = 0; i < nEntries; i++) {
+			if (i != replacePos) {
+				minValue = Math.min(minValue, values[i]);
+				maxValue = Math.max(maxValue, values[i]);
+			}
+		}
+		return fits(n, maxKey - minKey, maxValue - minValue);
+	}
+	
+	/**
+	 * Check whether this leaf can be merged into the previous leaf. Some space is left on 
+	 * the merged page to avoid splitting it again with the next insert.
+	 */
+	private boolean fitsMergedWith(LLIndexPage prevPage) {
+		int n = nEntries + prevPage.nEntries;
+		if (n <= ind.maxLeafN) {
+			return true;
+		}
+		long minValue = values[0];
+		long maxValue = values[0];
+		for (int i = 1; i < nEntries; i++) {
+			minValue = Math.min(minValue, values[i]);
+			maxValue = Math.max(maxValue, values[i]);
+		}
+		for (int i = 0; i < prevPage.nEntries; i++) {
+			minValue = Math.min(minValue, prevPage.values[i]);
+			maxValue = Math.max(maxValue, prevPage.values[i]);
+		}
+		return fits(n + 8, keys[nEntries-1] - prevPage.keys[0], maxValue - minValue);
+	}
+	
+	/**
+	 * Leaves may hold more than maxLeafN entries if they are compressed.
+	 * @param n
+	 */
+	final void ensureCapacity(int n) {
+		if (n <= keys.length) {
+			return;
+		}
+		int newLen = Math.max(n, keys.length << 1);
+		keys = Arrays.copyOf(keys, newLen);
+		values = Arrays.copyOf(values, newLen);
+	}
 
 	@Override
 	void writeKeys() {
@@ -294,16 +498,27 @@ class LLIndexPage extends AbstractIndexPage {
         if (pos >= 0) {
         	//check if values changes
             if (value != values[pos]) {
+            	if (!fitsWith(pos, key, value)) {
+            		//The new value does not fit on the compressed page. 
+            		//Remove the entry and insert it again, this splits the page.
+                    markPageDirtyAndClone();
+                    System.arraycopy(keys, pos+1, keys, pos, nEntries-pos-1);
+                    System.arraycopy(values, pos+1, values, pos, nEntries-pos-1);
+                    nEntries--;
+                    put(key, value);
+                    return;
+            	}
                 markPageDirtyAndClone();
                 values[pos] = value;
             }
             return;
         } 
 
-        if (nEntries < ind.maxLeafN) {
+        if (fitsWith(-1, key, value)) {
             //okay so we add it locally
             pos = -(pos+1);
             markPageDirtyAndClone();
+            ensureCapacity(nEntries+1);
             if (pos < nEntries) {
                 System.arraycopy(keys, pos, keys, pos+1, nEntries-pos);
                 System.arraycopy(values, pos, values, pos+1, nEntries-pos);
@@ -319,8 +534,10 @@ class LLIndexPage extends AbstractIndexPage {
 			boolean isPrev = false;
 			//use ind.maxLeafN -1 to avoid pretty much pointless copying (and possible endless 
 			//loops, see iterator tests)
+			//Merging is only done if the resulting neighbour page fits without compression.
 			LLIndexPage next = (LLIndexPage) parent.getNextLeafPage(this);
-			if (next != null && next.nEntries < ind.maxLeafN-1) {
+			if (next != null && next.nEntries < ind.maxLeafN-1 && 
+					nEntries + next.nEntries <= 2*ind.maxLeafN - 2) {
 				//merge
 				newP = next;
 				newP.markPageDirtyAndClone();
@@ -328,7 +545,8 @@ class LLIndexPage extends AbstractIndexPage {
 			} else {
 				//Merging with prev is not make a big difference, maybe we should remove it...
 				LLIndexPage prev = (LLIndexPage) parent.getPrevLeafPage(this);
-				if (prev != null && prev.nEntries < ind.maxLeafN-1) {
+				if (prev != null && prev.nEntries < ind.maxLeafN-1 && 
+						nEntries + prev.nEntries <= 2*ind.maxLeafN - 2) {
 					//merge
 					newP = prev;
 					newP.markPageDirtyAndClone();
@@ -341,7 +559,14 @@ class LLIndexPage extends AbstractIndexPage {
 			
 			markPageDirtyAndClone();
 			int nEntriesToKeep = (nEntries + newP.nEntries) >> 1;
-			if (isNew) {
+			if (isNew && nEntries > ind.maxLeafN) {
+				//Compressed page: If the new entry is appended, we start a new page, this works 
+				//well for increasing keys such as OIDs. Otherwise we split the page in half.
+				if (next == null && (key > keys[nEntries-1] || 
+						(!ind.isUnique() && key == keys[nEntries-1] && value > values[nEntries-1]))) {
+					nEntriesToKeep = nEntries;
+				}
+			} else if (isNew) {
 				if (ind.isUnique()) {
 					//This is an optimization for indices that add increasing unique numbers 
 					//such as OIDs. For these, it increases the average fill-size.
@@ -362,6 +587,7 @@ class LLIndexPage extends AbstractIndexPage {
 			int nEntriesToCopy = nEntries - nEntriesToKeep;
 			if (isNew) {
 				//works only if new page follows current page
+				newP.ensureCapacity(nEntriesToCopy);
 				System.arraycopy(keys, nEntriesToKeep, newP.keys, 0, nEntriesToCopy);
 				System.arraycopy(values, nEntriesToKeep, newP.values, 0, nEntriesToCopy);
 			} else if (isPrev) {
@@ -381,9 +607,24 @@ class LLIndexPage extends AbstractIndexPage {
 			}
 			nEntries = (short) nEntriesToKeep;
 			newP.nEntries = (short) (nEntriesToCopy + newP.nEntries);
+			if (isNew && newP.nEntries > 0) {
+				//Add the new page before inserting the entry. If the entry does not fit on a
+				//compressed page, the insert splits the page again, which requires a consistent
+				//parent. 
+				parent.addSubPage(newP, newP.keys[0], newP.values[0]);
+				if (newP.keys[0] > key || (newP.keys[0]==key && newP.values[0] > value)) {
+					put(key, value);
+				} else {
+					newP.put(key, value);
+				}
+				parent.updateKey(this, keys[0], values[0]);
+				return;
+			}
 			//New page and min key
 			if (isNew || !isPrev) {
-				if (ind.isUnique()) {
+				if (newP.nEntries == 0) {
+					newP.put(key, value);
+				} else if (ind.isUnique()) {
 					if (newP.keys[0] > key) {
 						put(key, value);
 					} else {
@@ -439,7 +680,7 @@ class LLIndexPage extends AbstractIndexPage {
 		
 		markPageDirtyAndClone();
 		for (int i = start; i <= nEntries; i++) {
-			if (subPages[i] == indexPage) {
+			if (getSubPage(i) == indexPage) {
 				if (i > 0) {
 					keys[i-1] = key;
 					if (!ind.isUnique()) {
@@ -504,10 +745,10 @@ class LLIndexPage extends AbstractIndexPage {
 					ii = 0;
 				} else {
 					System.arraycopy(keys, 0, keys, 1, nEntries);
-					long oldKey = subPages[0].getMinKey();
+					long oldKey = ((LLIndexPage)readPage(0)).getMinKey();
 					if (!ind.isUnique()) {
 						System.arraycopy(values, 0, values, 1, nEntries);
-						long oldValue = subPages[0].getMinKeyValue();
+						long oldValue = ((LLIndexPage)readPage(0)).getMinKeyValue();
 						if ((minKey > oldKey) || (minKey==oldKey && minValue > oldValue)) {
 							ii = 1;
 							keys[0] = minKey;
@@ -588,20 +829,24 @@ class LLIndexPage extends AbstractIndexPage {
 		}
 	}
 	
-	@Override
+	/**
+	 * @return Minimal key on this branch.
+	 */
 	long getMinKey() {
 		if (isLeaf) {
 			return keys[0];
 		}
-		return readPage(0).getMinKey();
+		return ((LLIndexPage)readPage(0)).getMinKey();
 	}
 	
-	@Override
+	/**
+	 * @return Value of minimal key on this branch.
+	 */
 	long getMinKeyValue() {
 		if (isLeaf) {
 			return values[0];
 		}
-		return readPage(0).getMinKeyValue();
+		return ((LLIndexPage)readPage(0)).getMinKeyValue();
 	}
 	
 	@Override
@@ -624,9 +869,9 @@ class LLIndexPage extends AbstractIndexPage {
 //					Arrays.toString(leaves));
 			System.out.print(indent + "[");
 			for (int i = 0; i <= nEntries; i++) {
-				if (subPages[i] != null) { 
+				if (getSubPage(i) != null) { 
 					System.out.print(indent + "i=" + i + ": ");
-					subPages[i].print(indent + "  ");
+					getSubPage(i).print(indent + "  ");
 				}
 				else System.out.println("Page not loaded: " + subPageIds[i]);
 			}
@@ -684,9 +929,10 @@ class LLIndexPage extends AbstractIndexPage {
         if (nEntries == 0) {
         	ind.statNLeaves--;
         	parent.removeLeafPage(this, oid, value);
-        } else if (nEntries < (ind.maxLeafN >> 1) && (nEntries % 8 == 0)) {
+        } else if (nEntries < (keys.length >> 1) && (nEntries % 8 == 0)) {
         	//The second term prevents frequent reading of previous and following pages.
         	//TODO Should we instead check for nEntries==MAx>>1 then == (MAX>>2) then <= (MAX>>3)?
+        	//The array size is larger than maxLeafN only for pages that have been compressed.
 
         	//now attempt merging this page
         	LLIndexPage prevPage = (LLIndexPage) parent.getPrevLeafPage(this);
@@ -694,10 +940,11 @@ class LLIndexPage extends AbstractIndexPage {
          		//We merge only if they all fit on a single page. This means we may read
         		//the previous page unnecessarily, but we avoid writing it as long as 
         		//possible. TODO find a balance, and do no read prev page in all cases
-        		if (nEntries + prevPage.nEntries < ind.maxLeafN) {
+        		if (nEntries + prevPage.nEntries < ind.maxLeafN || fitsMergedWith(prevPage)) {
         			//TODO for now this work only for leaves with the same root. We
         			//would need to update the min values in the inner nodes.
         			prevPage.markPageDirtyAndClone();
+        			prevPage.ensureCapacity(prevPage.nEntries + nEntries);
         			System.arraycopy(keys, 0, prevPage.keys, prevPage.nEntries, nEntries);
         			System.arraycopy(values, 0, prevPage.values, prevPage.nEntries, nEntries);
         			prevPage.nEntries += nEntries;
@@ -719,7 +966,7 @@ class LLIndexPage extends AbstractIndexPage {
 		}
 		
 		for (int i = start; i <= nEntries; i++) {
-			if (subPages[i] == indexPage) {
+			if (getSubPage(i) == indexPage) {
 				markPageDirtyAndClone();
 				//remove sub page page from FSM.
 				ind.file.reportFreePage(subPageIds[i]);
@@ -759,7 +1006,7 @@ class LLIndexPage extends AbstractIndexPage {
 					
 					if (nEntries == 0) {
 						//only one element left, no merging occurred -> move sub-page up to parent
-						AbstractIndexPage child = readPage(0);
+						LLIndexPage child = (LLIndexPage) readPage(0);
 						parent.replaceChildPage(this, key, value, child);
 					}
 				} else {
@@ -814,13 +1061,13 @@ class LLIndexPage extends AbstractIndexPage {
 	 * case we pull up the sub-sub-page to the local page, replacing the sub-page.
 	 */
 	protected void replaceChildPage(LLIndexPage indexPage, long key, long value, 
-			AbstractIndexPage subChild) {
+			LLIndexPage subChild) {
 		int start = binarySearch(0, nEntries, key, value);
 		if (start < 0) {
 			start = -(start+1);
 		}
 		for (int i = start; i <= nEntries; i++) {
-			if (subPages[i] == indexPage) {
+			if (getSubPage(i) == indexPage) {
 				markPageDirtyAndClone();
 				
 				//remove page from FSM.
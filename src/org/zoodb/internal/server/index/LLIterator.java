@@ -355,7 +355,7 @@ class LLIterator extends AbstractPageIterator<LLEntry> {
 		//TODO optimize search? E.g. can we use the pos from the stack here????
 		int i = 0;
 		for (i = 0; i < parent.getNKeys(); i++) {
-			if (parent.subPages[i] == child) {
+			if (parent.getSubPage(i) == child) {
 				break;
 			}
 		}
@@ -381,11 +381,11 @@ class LLIterator extends AbstractPageIterator<LLEntry> {
 	private long findFollowingKeyOrMVInParents(LLIndexPage child) {
 		LLIndexPage parent = child.getParent();
 		for (int i = 0; i < parent.getNKeys(); i++) {
-			if (parent.subPages[i] == child) {
+			if (parent.getSubPage(i) == child) {
 				return parent.getKeys()[i];
 			}
 		}
-		if (parent.subPages[parent.getNKeys()] == child) {
+		if (parent.getSubPage(parent.getNKeys()) == child) {
 			if (parent.getParent() == null) {
 				return Long.MAX_VALUE;
 			}
@@ -23,11 +23,10 @@ package org.zoodb.internal.server.index;
 import java.util.NoSuchElementException;
 
 import org.zoodb.api.impl.ZooPCImpl;
-import org.zoodb.internal.DataDeSerializer;
 import org.zoodb.internal.client.AbstractCache;
+import org.zoodb.internal.query.QueryPreFilter;
 import org.zoodb.internal.server.DiskAccessOneFile;
-import org.zoodb.internal.server.ObjectReader;
-import org.zoodb.internal.server.index.AbstractPagedIndex.AbstractPageIterator;
+import org.zoodb.internal.server.index.PagedStringLong.SLEntry;
 import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
 import org.zoodb.internal.util.CloseableIterator;
 
@@ -43,11 +42,12 @@ import org.zoodb.internal.util.CloseableIterator;
  */
 public class ObjectIterator implements CloseableIterator<ZooPCImpl> {
 
-	private final LLIterator iter;  
+	/** Iterator over LLEntry or SLEntry, the values are OIDs. */
+	private final CloseableIterator<?> iter;  
 	private final DiskAccessOneFile file;
-	private final DataDeSerializer deSer;
 	private final boolean loadFromCache;
 	private final AbstractCache cache;
+	private final QueryPreFilter filter;
 	private ZooPCImpl pc = null;
 	
 	/**
@@ -56,17 +56,22 @@ public class ObjectIterator implements CloseableIterator<ZooPCImpl> {
 	 * The last three fields can be null. If they are, the objects are simply returned and no checks
 	 * are performed.
 	 * 
-	 * @param iter
+	 * @param iter Iterator over {@link LLEntry} or {@link SLEntry} instances, for example an 
+	 * index iterator or a {@link SortedOidIterator}.
 	 * @param cache
-	 * @param file
+	 * @param file The file, objects are read with {@link DiskAccessOneFile#readObject(long,
+	 * QueryPreFilter)}.
+	 * @param loadFromCache
+	 * @param filter Optional filter, objects that are rejected by the filter are not 
+	 * deserialized. May be {@code null}.
 	 */
-	public ObjectIterator(AbstractPageIterator<LLEntry> iter, AbstractCache cache, 
-			DiskAccessOneFile file, ObjectReader in, boolean loadFromCache) {
-		this.iter = (LLIterator) iter;
+	public ObjectIterator(CloseableIterator<?> iter, AbstractCache cache, 
+			DiskAccessOneFile file, boolean loadFromCache, QueryPreFilter filter) {
+		this.iter = iter;
 		this.file = file;
-		this.deSer = new DataDeSerializer(in, cache);
 		this.loadFromCache = loadFromCache; 
 		this.cache = cache;
+		this.filter = filter;
 		findNext();
 	}
 
@@ -91,12 +96,11 @@ public class ObjectIterator implements CloseableIterator<ZooPCImpl> {
 	}
 	
 	private void findNext() {
-		while (iter.hasNextULL()) {
-			LLEntry e = iter.nextULL();
+		while (iter.hasNext()) {
+			long oid = nextOid();
 			
 			//try loading from cache first
 			if (loadFromCache) {
-	            long oid = e.getValue();
 	            ZooPCImpl co = cache.findCoByOID(oid);
 	            if (co != null && !co.jdoZooIsStateHollow()) {
 	                if (co.jdoZooIsDeleted()) {
@@ -111,11 +115,21 @@ public class ObjectIterator implements CloseableIterator<ZooPCImpl> {
 	            //telling that cache-lok-up is pointless.
 			}
 			
-			this.pc = file.readObject(deSer, e.getValue());
-			return;
+			this.pc = file.readObject(oid, filter);
+			if (this.pc != null) {
+				return;
+			}
 		}
 		close();
 	}
+	
+	private long nextOid() {
+		Object e = iter.next();
+		if (e instanceof LLEntry) {
+			return ((LLEntry)e).getValue();
+		}
+		return ((SLEntry)e).getValue();
+	}
 
 	@Override
 	public void remove() {
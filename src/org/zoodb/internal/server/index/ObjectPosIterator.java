@@ -21,9 +21,8 @@
 package org.zoodb.internal.server.index;
 
 import org.zoodb.api.impl.ZooPCImpl;
-import org.zoodb.internal.DataDeSerializer;
-import org.zoodb.internal.client.AbstractCache;
-import org.zoodb.internal.server.ObjectReader;
+import org.zoodb.internal.query.QueryPreFilter;
+import org.zoodb.internal.server.DiskAccessOneFile;
 import org.zoodb.internal.util.CloseableIterator;
 
 /**
@@ -39,21 +38,37 @@ import org.zoodb.internal.util.CloseableIterator;
 public class ObjectPosIterator implements CloseableIterator<ZooPCImpl> {
 
 	private final PagedPosIndex.ObjectPosIteratorMerger iter;
+	/** Monitor for all access to the index iterator. */
+	private final Object indexLock;
 	private final boolean skipIfCached;
-	private final DataDeSerializer dds;
+	private final DiskAccessOneFile file;
+	private final QueryPreFilter filter;
 	private ZooPCImpl pc = null;
 	
-	public ObjectPosIterator(PagedPosIndex.ObjectPosIteratorMerger iter, AbstractCache cache, 
-	        ObjectReader raf, boolean skipIfCached) {
+	/**
+	 * 
+	 * @param iter
+	 * @param indexLock Monitor for all access to the index iterator
+	 * @param file
+	 * @param skipIfCached
+	 * @param filter Optional filter, objects that are rejected by the filter are not 
+	 * deserialized. May be {@code null}.
+	 */
+	public ObjectPosIterator(PagedPosIndex.ObjectPosIteratorMerger iter, Object indexLock, 
+			DiskAccessOneFile file, boolean skipIfCached, QueryPreFilter filter) {
 		this.iter = iter;
-        this.dds = new DataDeSerializer(raf, cache);
+		this.indexLock = indexLock;
+        this.file = file;
         this.skipIfCached = skipIfCached;
+        this.filter = filter;
         findNext();
 	}
 
 	@Override
 	public void refresh() {
-	    iter.refresh();
+		synchronized (indexLock) {
+			iter.refresh();
+		}
 	}
 	
 	@Override
@@ -69,9 +84,18 @@ public class ObjectPosIterator implements CloseableIterator<ZooPCImpl> {
 	}
 	
 	private void findNext() {
-	    while (iter.hasNextOPI()) {
-	        long pos = iter.nextPos();
-	        pc = dds.readObject(BitTools.getPage(pos), BitTools.getOffs(pos), skipIfCached);
+	    while (true) {
+	    	long pos;
+	    	synchronized (indexLock) {
+	    		if (!iter.hasNextOPI()) {
+	    			break;
+	    		}
+	    		pos = iter.nextPos();
+	    	}
+	        if (filter != null && !file.mayMatch(filter, pos)) {
+	        	continue;
+	        }
+	        pc = file.readObjectAt(pos, skipIfCached);
 	        if (skipIfCached) {
     		    if (!pc.jdoZooIsDeleted()) {
     		        return;
@@ -86,12 +110,16 @@ public class ObjectPosIterator implements CloseableIterator<ZooPCImpl> {
 	@Override
 	public void remove() {
 		// do we need this? Should we allow it? I guess it fails anyway in the LLE-iterator.
-		iter.remove();
+		synchronized (indexLock) {
+			iter.remove();
+		}
 	}
 	
 	@Override
 	public void close() {
 	    pc = null;
-		iter.close();
+	    synchronized (indexLock) {
+	    	iter.close();
+	    }
 	}
 }
@@ -110,6 +110,7 @@ public class PagedLongLong extends AbstractPagedIndex implements AbstractPagedIn
 		return root.getMax();
 	}
 
+	@Override
 	public AbstractPageIterator<LLEntry> descendingIterator(long max, long min) {
 		AbstractPageIterator<LLEntry> iter = new LLDescendingIterator(this, max, min);
 		return iter;
@@ -170,6 +170,7 @@ public class PagedOidIndex {
 	
 	private transient long lastAllocatedInMemory = MIN_OID;
 	private transient PagedUniqueLongLong idx;
+	private transient int modCount = 0;
 	
 	/**
 	 * Constructor for creating new index. 
@@ -196,6 +197,7 @@ public class PagedOidIndex {
 	public void insertLong(long oid, int schPage, int schOffs) {
 		long newVal = (((long)schPage) << 32) | (long)schOffs;
 		idx.insertLong(oid, newVal);
+		modCount++;
 		if (oid > lastAllocatedInMemory) {
 			lastAllocatedInMemory = oid;
 		}
@@ -207,6 +209,7 @@ public class PagedOidIndex {
 	 * @throws NoSuchElementException if key is not found
 	 */
 	public long removeOid(long oid) {
+		modCount++;
 		return idx.removeLong(oid);
 	}
 
@@ -216,6 +219,7 @@ public class PagedOidIndex {
 	 * @return the previous value
 	 */
 	public long removeOidNoFail(long oid, long failValue) {
+		modCount++;
 		return idx.removeLongNoFail(oid, failValue);
 	}
 
@@ -284,11 +288,30 @@ public class PagedOidIndex {
 		return lastAllocatedInMemory;
 	}
 	
+	/**
+	 * Ensure that OIDs that have been allocated elsewhere are not allocated again.
+	 * @param lastUsedOid
+	 */
+	public void updateLastUsedOid(long lastUsedOid) {
+		if (lastUsedOid > lastAllocatedInMemory) {
+			lastAllocatedInMemory = lastUsedOid;
+		}
+	}
+	
 	public List<Integer> debugPageIds() {
 	    return idx.debugPageIds();
 	}
 
 	public void revert(int pageId) {
 		idx = new PagedUniqueLongLong(idx.getDataType(), idx.file, pageId);
+		modCount++;
+	}
+
+	/**
+	 * @return A counter that changes whenever an object is added, moved or removed, or when 
+	 * the index is reverted.
+	 */
+	public int getModCount() {
+		return modCount;
 	}
 }
@@ -262,6 +262,16 @@ public class PagedPosIndex {
 		return idx.iterator(0, Long.MAX_VALUE);
 	}
 
+	/**
+	 * @param page
+	 * @return An iterator over all positions on the given page, including the position
+	 * of the secondary page of an object that started on a previous page.
+	 */
+	public AbstractPageIterator<LLEntry> iteratorPositions(int page) {
+		long pos = BitTools.getPos(page, 0);
+		return idx.iterator(pos, BitTools.getMaxPosInPage(pos));
+	}
+
 	public void print() {
 		idx.print();
 	}
@@ -303,7 +313,20 @@ public class PagedPosIndex {
         idx.refreshIterators();
     }
 
+	/**
+	 * Counts the objects in the index. This requires a scan of the index, but no object
+	 * is read.
+	 * @return The number of objects, secondary pages of objects are not counted.
+	 */
 	public long size() {
-		return idx.size();
+		LLIterator iter = (LLIterator) idx.iterator(0, Long.MAX_VALUE);
+		long n = 0;
+		while (iter.hasNextULL()) {
+			if (BitTools.getOffs(iter.nextKey()) != (int)MARK_SECONDARY) {
+				n++;
+			}
+		}
+		iter.close();
+		return n;
 	}
 }
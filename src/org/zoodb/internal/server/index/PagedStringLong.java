@@ -0,0 +1,285 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.server.DiskIO;
+import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.StorageChannel;
+
+
+/**
+ * B+tree index with String keys and long values, for example to index String fields.
+ * 
+ * Keys are stored in full (see {@link SLIndexPage}), with the exception of very long keys.
+ * In non-unique indices, keys that are longer than {@link #getMaxKeyLength()} are truncated to 
+ * that length before they are stored. Truncation preserves the order of keys, so range 
+ * searches on the index still return all matching entries, but they may return additional 
+ * entries whose key only matches in the truncated part. 
+ * Unique indices can not simply truncate keys, because different keys could not be 
+ * distinguished. Instead, longer keys are stored as a prefix followed by a 64 bit hash of the 
+ * full key, see {@link #toKey(String)}. Two different keys clash only if they have the same 
+ * prefix and the same hash. As with truncated keys, range searches may return additional 
+ * entries with the same prefix.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class PagedStringLong extends AbstractPagedIndex {
+	
+	public static class SLEntry {
+		private final String key;
+		private final long value;
+		public SLEntry(String k, long v) {
+			key = k;
+			value = v;
+		}
+		public String getKey() {
+			return key;
+		}
+		public long getValue() {
+			return value;
+		}
+	}
+	
+	/** Number of characters of the hash of a long key in unique indices. */
+	private static final int HASH_CHARS = 4;
+	/** Largest possible hash, this is an upper bound for keys with a given prefix. */
+	private static final String HASH_MAX = "\uFFFF\uFFFF\uFFFF\uFFFF";
+	
+	/** Available bytes for keys and values in leaf pages. */
+	final int maxLeafBytes;
+	/** Available bytes for keys and values in inner pages. */
+	final int maxInnerBytes;
+	/** Maximum number of characters per key. */
+	private final int maxKeyLength;
+	
+	private transient SLIndexPage root;
+	
+	/**
+	 * Constructor for creating new index. 
+	 * @param file
+	 */
+	public PagedStringLong(DATA_TYPE dataType, StorageChannel file, boolean isUnique) {
+		super(file, true, 8, 8, isUnique, dataType);
+		maxLeafBytes = maxLeafBytes(file.getPageSize());
+		maxInnerBytes = maxInnerBytes(file.getPageSize(), isUnique);
+		maxKeyLength = maxKeyLength(file.getPageSize(), isUnique);
+		//bootstrap index
+		root = createPage(null, false);
+	}
+
+	/**
+	 * Constructor for reading index from disk.
+	 */
+	public PagedStringLong(DATA_TYPE dataType, StorageChannel file, int pageId, 
+			boolean isUnique) {
+		super(file, false, 8, 8, isUnique, dataType);
+		maxLeafBytes = maxLeafBytes(file.getPageSize());
+		maxInnerBytes = maxInnerBytes(file.getPageSize(), isUnique);
+		maxKeyLength = maxKeyLength(file.getPageSize(), isUnique);
+		root = (SLIndexPage) readRoot(pageId);
+	}
+	
+	private static int maxLeafBytes(int pageSize) {
+		//page header, leaf-flag, nEntries
+		return pageSize - DiskIO.PAGE_HEADER_SIZE - 2 - 2;
+	}
+	
+	private static int maxInnerBytes(int pageSize, boolean isUnique) {
+		//page header, sub-page count, sub-page IDs, nEntries
+		int maxInnerN = maxInnerN(pageSize, 8, 8, isUnique);
+		return pageSize - DiskIO.PAGE_HEADER_SIZE - 2 - 4 * (maxInnerN + 1) - 2;
+	}
+	
+	/**
+	 * @param pageSize
+	 * @param isUnique
+	 * @return The maximum number of characters of a key in an index with the given page size.
+	 */
+	public static int maxKeyLength(int pageSize, boolean isUnique) {
+		//Any entry may use at most a quarter of a page. This guarantees that split pages 
+		//can always accommodate the new entry. An entry consists of 4 bytes header, 
+		//2 bytes per char and an 8 byte value.  
+		int maxEntry = Math.min(maxLeafBytes(pageSize), maxInnerBytes(pageSize, isUnique)) >> 2;
+		return (maxEntry - 4 - 8) >> 1;
+	}
+	
+	/**
+	 * @return The maximum number of characters of a key. Longer keys are truncated in 
+	 * non-unique indices and shortened to a prefix and a hash in unique indices.
+	 */
+	public int getMaxKeyLength() {
+		return maxKeyLength;
+	}
+	
+	/**
+	 * @param key
+	 * @return The key to store.
+	 */
+	private String toKey(String key) {
+		if (key == null || key.length() <= maxKeyLength) {
+			return key;
+		}
+		if (!isUnique()) {
+			return key.substring(0, maxKeyLength);
+		}
+		return key.substring(0, maxKeyLength - HASH_CHARS) + hash(key);
+	}
+	
+	/**
+	 * @param min
+	 * @return A key that is not larger than the stored keys of 'min' and all larger keys.
+	 */
+	private String toMinKey(String min) {
+		if (isUnique() && min != null && min.length() > maxKeyLength - HASH_CHARS) {
+			return min.substring(0, maxKeyLength - HASH_CHARS);
+		}
+		return toKey(min);
+	}
+	
+	/**
+	 * @param max
+	 * @return A key that is not smaller than the stored keys of 'max' and all smaller keys.
+	 */
+	private String toMaxKey(String max) {
+		if (isUnique() && max != null && max.length() > maxKeyLength - HASH_CHARS) {
+			return max.substring(0, maxKeyLength - HASH_CHARS) + HASH_MAX;
+		}
+		return toKey(max);
+	}
+	
+	/**
+	 * 64 bit FNV-1a hash. This must not change, because the hash values are stored in indices.
+	 * @param key
+	 * @return The hash of the key as {@link #HASH_CHARS} characters.
+	 */
+	private static String hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		char[] ca = new char[HASH_CHARS];
+		for (int i = 0; i < HASH_CHARS; i++) {
+			ca[i] = (char) (h >>> ((HASH_CHARS - 1 - i) << 4));
+		}
+		return new String(ca);
+	}
+	
+	/**
+	 * Add an entry. For unique indices, an existing value for the key is replaced. For 
+	 * non-unique indices, nothing happens if the pair already exists.
+	 * @param key
+	 * @param value
+	 */
+	public void insertString(String key, long value) {
+		key = toKey(key);
+		SLIndexPage page = getRoot().locatePageForKey(key, value, true);
+		page.put(key, value);
+	}
+
+	/**
+	 * Special method for unique indices.
+	 * @param key
+	 * @param value
+	 * @return False if the key was already used. Otherwise true.
+	 */
+	public boolean insertStringIfNotSet(String key, long value) {
+		key = toKey(key);
+		SLIndexPage page = getRoot().locatePageForKey(key, value, true);
+		if (page.binarySearch(0, page.getNKeys(), key, value) >= 0) {
+			return false;
+		}
+		page.put(key, value);
+		return true;
+	}
+
+	/**
+	 * @param key
+	 * @param value The value, this is ignored for unique indices.
+	 * @return the previous value
+	 * @throws NoSuchElementException if key is not found
+	 */
+	public long removeString(String key, long value) {
+		key = toKey(key);
+		SLIndexPage page = getRoot().locatePageForKey(key, value, false);
+		if (page == null) {
+			throw new NoSuchElementException("Key not found: " + key);
+		}
+		return page.remove(key, value);
+	}
+
+	/**
+	 * Special method for unique indices.
+	 * @param key
+	 * @return The entry or null if the key was not found.
+	 */
+	public SLEntry findValue(String key) {
+		if (!isUnique()) {
+			throw new IllegalStateException();
+		}
+		key = toKey(key);
+		SLIndexPage page = getRoot().locatePageForKey(key, 0, false);
+		if (page == null) {
+			return null;
+		}
+		return page.getValueFromLeafUnique(key);
+	}
+
+	@Override
+	SLIndexPage createPage(AbstractIndexPage parent, boolean isLeaf) {
+		return new SLIndexPage(this, (SLIndexPage) parent, isLeaf);
+	}
+
+	@Override
+	protected final SLIndexPage getRoot() {
+		return root;
+	}
+
+	/**
+	 * @param min The minimum key (inclusive) or null to start with the first key.
+	 * @param max The maximum key (inclusive) or null to return all keys from 'min' on.
+	 * @return Ascending iterator over the keys in the given range.
+	 */
+	public AbstractPageIterator<SLEntry> iterator(String min, String max) {
+		return new SLIterator(this, toMinKey(min), toMaxKey(max), max != null);
+	}
+
+	/**
+	 * @param max The maximum key (inclusive) or null to start with the last key.
+	 * @param min The minimum key (inclusive) or null to return all keys up to 'max'.
+	 * @return Descending iterator over the keys in the given range.
+	 */
+	public AbstractPageIterator<SLEntry> descendingIterator(String max, String min) {
+		return new SLDescendingIterator(this, toMaxKey(max), max != null, toMinKey(min));
+	}
+
+	@Override
+	protected void updateRoot(AbstractIndexPage newRoot) {
+		root = (SLIndexPage) newRoot;
+	}
+	
+	public void print() {
+		root.print("");
+	}
+
+}
@@ -159,6 +159,7 @@ public class PagedUniqueLongLong extends AbstractPagedIndex implements LongLongI
 		return root.getMax();
 	}
 
+	@Override
 	public AbstractPageIterator<LLEntry> descendingIterator(long max, long min) {
 		return new LLDescendingIterator(this, max, min);
 	}
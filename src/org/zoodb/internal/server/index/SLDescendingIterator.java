@@ -0,0 +1,286 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.server.index.AbstractPagedIndex.AbstractPageIterator;
+import org.zoodb.internal.server.index.PagedStringLong.SLEntry;
+import org.zoodb.internal.server.index.SLIterator.IteratorPos;
+
+/**
+ * Descending iterator over a {@link PagedStringLong}. This works like 
+ * {@link LLDescendingIterator}.
+ * 
+ * @author Tilmann Zaeschke
+ */
+class SLDescendingIterator extends AbstractPageIterator<SLEntry> {
+
+	private SLIndexPage currentPage = null;
+	private short currentPos = 0;
+	private final String minKey;
+	private String maxKey;
+	private long maxValue = Long.MAX_VALUE;
+	private boolean hasMaxKey;
+	private final ArrayList<IteratorPos> stack = new ArrayList<IteratorPos>(20);
+	private String nextKey;
+	private long nextValue;
+	private boolean hasValue = false;
+	
+	/**
+	 * @param ind
+	 * @param maxKey Maximum key
+	 * @param hasMaxKey Whether 'maxKey' should be used or whether there is no upper limit. 
+	 * @param minKey Minimum key, null keys are smaller than any other key.
+	 */
+	public SLDescendingIterator(AbstractPagedIndex ind, String maxKey, boolean hasMaxKey, 
+			String minKey) {
+		super(ind);
+		this.minKey = minKey;
+		this.maxKey = maxKey;
+		this.hasMaxKey = hasMaxKey;
+		this.currentPage = (SLIndexPage) ind.getRoot();
+
+		findFirstPosInPage();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return hasValue;
+	}
+
+	@Override
+	protected final void reset() {
+		if (!hasValue) {
+			return;
+		}
+		currentPos = 0;
+		stack.clear();
+		maxKey = nextKey;
+		maxValue = nextValue;
+		hasMaxKey = true;
+		
+		this.currentPage = (SLIndexPage) ind.getRoot();
+
+		findFirstPosInPage();
+	}
+	
+	private boolean isBelowMin(String key) {
+		return SLIndexPage.compareKeys(key, minKey) < 0;
+	}
+	
+	private void goToNextPage() {
+		releasePage(currentPage);
+		IteratorPos ip = stack.remove(stack.size()-1);
+		currentPage = ip.page;
+		currentPos = ip.pos;
+		currentPos--;
+		
+		while (currentPos < 0) {
+			releasePage(currentPage);
+			if (stack.isEmpty()) {
+				close();
+				return;
+			}
+			ip = stack.remove(stack.size()-1);
+			currentPage = ip.page;
+			currentPos = ip.pos;
+			currentPos--;
+		}
+
+		while (!currentPage.isLeaf) {
+			//start with the last sub-page
+			stack.add(new IteratorPos(currentPage, currentPos));
+			currentPage = (SLIndexPage) findPage(currentPage, currentPos);
+			currentPos = currentPage.getNKeys();
+		}
+		//leaf page positions are smaller than inner-page positions
+		currentPos--;
+	}
+	
+	private boolean goToFirstPage() {
+		while (!currentPage.isLeaf) {
+			if (currentPage.getNKeys() == -1) {
+				return false;
+			}
+			int pos2;
+			if (!hasMaxKey) {
+				pos2 = currentPage.getNKeys();
+			} else {
+				//The stored key[i] is the min-key of the according page[i+1}
+				pos2 = currentPage.binarySearch(0, currentPage.getNKeys(), maxKey, maxValue);
+				if (pos2 >=0) {
+					pos2++;
+				} else {
+					pos2 = -(pos2+1);
+				}
+			}
+			currentPos = (short)pos2;
+
+			SLIndexPage newPage = (SLIndexPage) findPage(currentPage, currentPos);
+			stack.add(new IteratorPos(currentPage, currentPos));
+			currentPage = newPage;
+		}
+		return true;
+	}
+	
+	private void gotoPosInPage() {
+		//when we get here, we are on a valid page with a valid position 
+		nextKey = currentPage.getKeys()[currentPos];
+		nextValue = currentPage.getValues()[currentPos];
+		hasValue = true;
+		currentPos--;
+		
+		//now progress to next element
+		
+		//first progress to next page, if necessary.
+		if (currentPos < 0) {
+			goToNextPage();
+			if (currentPage == null) {
+				return;
+			}
+		}
+		
+		//check for invalid value
+		if (isBelowMin(currentPage.getKeys()[currentPos])) {
+			close();
+		}
+	}
+
+	private void findFirstPosInPage() {
+		hasValue = false;
+		//find first page
+		if (!goToFirstPage()) {
+			close();
+			return;
+		}
+
+		//find very first element. 
+		if (!hasMaxKey) {
+			currentPos = (short) (currentPage.getNKeys() - 1);
+		} else {
+			currentPos = (short) currentPage.binarySearch(0, currentPage.getNKeys(), 
+					maxKey, maxValue);
+			if (currentPos < 0) {
+				//position of the largest key smaller than 'maxKey'
+				currentPos = (short) (-(currentPos+1) - 1);
+			}
+		}
+		
+		//check position
+		if (currentPos < 0) {
+			//The keys in the inner pages are only lower bounds, the page may contain only
+			//larger keys. All keys on the previous page are smaller than 'maxKey'.
+			goToNextPage();
+			if (currentPage == null) {
+				return;
+			}
+		}
+		if (currentPos < 0 || isBelowMin(currentPage.getKeys()[currentPos])) {
+			close();
+			return;
+		}
+		gotoPosInPage();
+	}
+	
+	
+	@Override
+	public SLEntry next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		SLEntry e = new SLEntry(nextKey, nextValue);
+		if (currentPage == null) {
+			hasValue = false;
+		} else {
+			gotoPosInPage();
+		}
+		return e;
+	}
+
+	@Override
+	public void remove() {
+		//As defined in the JDO 2.2. spec:
+		throw new UnsupportedOperationException();
+	}
+	
+	/**
+	 * This method is possibly not be called if the iterator is used in 'for ( : ext) {}' 
+	 * constructs! 
+	 */
+	@Override
+	public void close() {
+		// after close() everything should throw NoSuchElementException (see 2.2. spec)
+		currentPage = null;
+		super.close();
+	}
+
+	@Override
+	boolean pageIsRelevant(AbstractIndexPage aiPage) {
+		if (!hasNext()) {
+			return false;
+		}
+		
+		SLIndexPage page = (SLIndexPage) aiPage;
+		if (page == currentPage) {
+			return true;
+		}
+		if (page.getParent() == null) {
+			//if anything has been cloned, then the root page has been cloned as well.
+			return true;
+		}
+		
+		//leaf page?
+		if (page.isLeaf) {
+			if (page.getNKeys() == 0) {
+				//this must be a new page (isLeaf==true and isEmpty), so we are not interested.
+				return false;
+			}
+			String firstKey = page.getKeys()[0];
+			int c = SLIndexPage.compareKeys(nextKey, firstKey);
+			if (isBelowMin(page.getKeys()[page.getNKeys() - 1])
+					|| c < 0
+					|| (c == 0 && !isUnique() && nextValue < page.getValues()[0])) {
+				return false;
+			}
+			return true;
+		}
+		
+		//inner pages are always considered relevant, the keys are only lower bounds. 
+		return true;
+	}
+
+	@Override
+	void replaceCurrentAndStackIfEqual(AbstractIndexPage equal,
+			AbstractIndexPage replace) {
+		if (currentPage == equal) {
+			currentPage = (SLIndexPage) replace;
+			return;
+		}
+		for (IteratorPos p: stack) {
+			if (p.page == equal) {
+				p.page = (SLIndexPage) replace;
+				return;
+			}
+		}
+	}
+}
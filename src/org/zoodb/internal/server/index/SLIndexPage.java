@@ -0,0 +1,650 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.server.index.PagedStringLong.SLEntry;
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * Index page for String keys. Keys are stored in full, sorted by {@link String#compareTo},
+ * with <tt>null</tt> keys sorted before any other key.
+ * 
+ * On disk, each key is front-compressed against the preceding key on the same page: only the
+ * length of the shared prefix and the remaining characters are written. Because keys have
+ * variable length, pages are split when either the maximum number of entries or the available 
+ * bytes on the page are exhausted, whichever comes first.
+ * 
+ * Unlike in {@link LLIndexPage}, pages are not merged when entries are removed. Empty pages
+ * are removed from the tree. 
+ * 
+ * @author Tilmann Zaeschke
+ */
+class SLIndexPage extends AbstractIndexPage {
+	
+	/** Bytes per key for the prefix length and the suffix length. */
+	private static final int KEY_HEADER = 4;
+	
+	private SLIndexPage parent;
+	private final String[] keys;
+	private final long[] values;
+	/** number of keys. There are nEntries+1 subPages in any leaf page. */
+	private short nEntries;
+	/** bytes required to store the keys and values of this page. */
+	private int nBytes;
+	
+	
+	public SLIndexPage(AbstractPagedIndex ind, SLIndexPage parent, boolean isLeaf) {
+		super(ind, parent, isLeaf);
+		this.parent = parent;
+		if (isLeaf) {
+			nEntries = 0;
+			keys = new String[ind.maxLeafN];
+			values = new long[ind.maxLeafN];
+		} else {
+			nEntries = -1;
+			keys = new String[ind.maxInnerN];
+			if (ind.isUnique()) {
+				values = null;
+			} else {
+				values = new long[ind.maxInnerN];
+			}
+		}
+	}
+
+	public SLIndexPage(SLIndexPage p) {
+		super(p);
+		keys = p.keys.clone();
+		nEntries = p.nEntries;
+		nBytes = p.nBytes;
+		parent = p.parent;
+		if (p.values != null) {
+			values = p.values.clone();
+		} else {
+			values = null;
+		}
+	}
+	
+	@Override
+	void readData() {
+		nEntries = ind.in.readShort();
+		readKeyArray();
+		for (int i = 0; i < nEntries; i++) {
+			values[i] = ind.in.readLong();
+		}
+		nBytes = computeBytes();
+	}
+	
+	@Override
+	void writeData() {
+		ind.out.writeShort(nEntries);
+		writeKeyArray();
+		for (int i = 0; i < nEntries; i++) {
+			ind.out.writeLong(values[i]);
+		}
+	}
+
+	@Override
+	void writeKeys() {
+		ind.out.writeShort(nEntries);
+		writeKeyArray();
+		if (!ind.isUnique()) {
+			for (int i = 0; i < nEntries; i++) {
+				ind.out.writeLong(values[i]);
+			}
+		}
+	}
+
+	@Override
+	void readKeys() {
+		nEntries = ind.in.readShort();
+		readKeyArray();
+		if (!ind.isUnique()) {
+			for (int i = 0; i < nEntries; i++) {
+				values[i] = ind.in.readLong();
+			}
+		}
+		nBytes = computeBytes();
+	}
+	
+	private void writeKeyArray() {
+		String prev = null;
+		for (int i = 0; i < nEntries; i++) {
+			String key = keys[i];
+			if (key == null) {
+				ind.out.writeShort((short) 0);
+				ind.out.writeShort((short) -1);
+			} else {
+				int prefixLen = commonPrefix(prev, key);
+				ind.out.writeShort((short) prefixLen);
+				ind.out.writeShort((short) (key.length() - prefixLen));
+				for (int j = prefixLen; j < key.length(); j++) {
+					ind.out.writeChar(key.charAt(j));
+				}
+			}
+			prev = key;
+		}
+	}
+	
+	private void readKeyArray() {
+		String prev = null;
+		for (int i = 0; i < nEntries; i++) {
+			int prefixLen = ind.in.readShort();
+			int suffixLen = ind.in.readShort();
+			if (suffixLen < 0) {
+				keys[i] = null;
+			} else {
+				char[] ca = new char[prefixLen + suffixLen];
+				if (prefixLen > 0) {
+					prev.getChars(0, prefixLen, ca, 0);
+				}
+				for (int j = prefixLen; j < ca.length; j++) {
+					ca[j] = ind.in.readChar();
+				}
+				keys[i] = new String(ca);
+			}
+			prev = keys[i];
+		}
+	}
+	
+	private static int commonPrefix(String s1, String s2) {
+		if (s1 == null || s2 == null) {
+			return 0;
+		}
+		int max = Math.min(s1.length(), s2.length());
+		int i = 0;
+		while (i < max && s1.charAt(i) == s2.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * @param prev The preceding key or null.
+	 * @param key
+	 * @return The number of bytes required to store 'key' after 'prev'.
+	 */
+	private static int keySize(String prev, String key) {
+		if (key == null) {
+			return KEY_HEADER;
+		}
+		return KEY_HEADER + ((key.length() - commonPrefix(prev, key)) << 1);
+	}
+	
+	/**
+	 * @return Number of bytes required for each value on this page.
+	 */
+	private int valueSize() {
+		return values != null ? 8 : 0;
+	}
+	
+	private int maxBytes() {
+		PagedStringLong sInd = (PagedStringLong) ind; 
+		return isLeaf ? sInd.maxLeafBytes : sInd.maxInnerBytes;
+	}
+	
+	private int maxEntries() {
+		return isLeaf ? ind.maxLeafN : ind.maxInnerN;
+	}
+	
+	private int computeBytes() {
+		int n = 0;
+		String prev = null;
+		for (int i = 0; i < nEntries; i++) {
+			n += keySize(prev, keys[i]);
+			prev = keys[i];
+		}
+		return n + (nEntries > 0 ? nEntries * valueSize() : 0);
+	}
+	
+	/**
+	 * @return The change in size if 'key' is inserted at 'pos'.
+	 */
+	private int insertSize(int pos, String key) {
+		String prev = pos > 0 ? keys[pos-1] : null;
+		int size = keySize(prev, key) + valueSize();
+		if (pos < nEntries) {
+			size += keySize(key, keys[pos]) - keySize(prev, keys[pos]);
+		}
+		return size;
+	}
+	
+	/**
+	 * @return The change in size if the key at 'pos' is removed. This is always negative.
+	 */
+	private int removeSize(int pos) {
+		String prev = pos > 0 ? keys[pos-1] : null;
+		int size = -keySize(prev, keys[pos]) - valueSize();
+		if (pos+1 < nEntries) {
+			size += keySize(prev, keys[pos+1]) - keySize(keys[pos], keys[pos+1]);
+		}
+		return size;
+	}
+	
+	private boolean hasSpace(int delta) {
+		return nEntries < maxEntries() && nBytes + delta <= maxBytes();
+	}
+	
+	/**
+	 * Compares keys, null keys are smaller than any other key.
+	 */
+	static int compareKeys(String k1, String k2) {
+		if (k1 == k2) {
+			return 0;
+		}
+		if (k1 == null) {
+			return -1;
+		}
+		if (k2 == null) {
+			return 1;
+		}
+		return k1.compareTo(k2);
+	}
+
+	/**
+	 * Compares key/value pairs. For unique trees, the value is ignored.
+	 */
+	private int compare(String k1, long v1, String k2, long v2) {
+		int c = compareKeys(k1, k2);
+		if (c != 0 || ind.isUnique()) {
+			return c;
+		}
+		return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+	}
+	
+	/**
+	 * Binary search.
+	 * 
+	 * @param toIndex Exclusive, search stops at (toIndex-1).
+	 * @param value For non-unique trees, the value is taken into account as well.
+	 */
+	int binarySearch(int fromIndex, int toIndex, String key, long value) {
+		int low = fromIndex;
+		int high = toIndex - 1;
+		boolean isUnique = ind.isUnique();
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compareKeys(keys[mid], key);
+			if (c == 0 && !isUnique) {
+				long midVal = values[mid];
+				c = midVal < value ? -1 : (midVal == value ? 0 : 1);
+			}
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return mid; // key found
+			}
+		}
+		return -(low + 1);  // key not found.
+	}
+
+	/**
+	 * Locate the (first) page that could contain the given key.
+	 * In the inner pages, the keys are the minimum values of the sub-page. The value is
+	 * the according minimum value of the first key of the sub-page.
+	 * @param key
+	 * @return Page for that key
+	 */
+	SLIndexPage locatePageForKey(String key, long value, boolean allowCreate) {
+		if (isLeaf) {
+			return this;
+		}
+		if (nEntries == -1 && !allowCreate) {
+			return null;
+		}
+
+		//The stored value[i] is the min-values of the according page[i+1} 
+		int pos = binarySearch(0, nEntries, key, value);
+		if (pos >= 0) {
+			//pos of matching key
+			pos++;
+		} else {
+			pos = -(pos+1);
+		}
+		SLIndexPage page = (SLIndexPage) readOrCreatePage(pos, allowCreate);
+		if (page == null) {
+			return null;
+		}
+		return page.locatePageForKey(key, value, allowCreate);
+	}
+	
+	SLEntry getValueFromLeafUnique(String key) {
+		if (!isLeaf) {
+			throw DBLogger.newFatal("Leaf inconsistency.");
+		}
+		int pos = binarySearch(0, nEntries, key, 0);
+		if (pos >= 0) {
+			return new SLEntry(keys[pos], values[pos]);
+		}
+		return null;
+	}
+
+	/**
+	 * Add an entry at 'key'/'value'. If the PAIR already exists, nothing happens. For unique
+	 * trees, the value of an existing key is replaced.
+	 * @param key
+	 * @param value
+	 */
+	void put(String key, long value) {
+		if (!isLeaf) {
+			throw DBLogger.newFatal("Tree inconsistency.");
+		}
+		int pos = binarySearch(0, nEntries, key, value);
+		if (pos >= 0) {
+			if (values[pos] != value) {
+				markPageDirtyAndClone();
+				values[pos] = value;
+			}
+			return;
+		}
+		pos = -(pos+1);
+		
+		int delta = insertSize(pos, key);
+		if (hasSpace(delta)) {
+			markPageDirtyAndClone();
+			System.arraycopy(keys, pos, keys, pos+1, nEntries-pos);
+			System.arraycopy(values, pos, values, pos+1, nEntries-pos);
+			keys[pos] = key;
+			values[pos] = value;
+			nEntries++;
+			nBytes += delta;
+			return;
+		}
+		
+		//split page
+		markPageDirtyAndClone();
+		SLIndexPage newP = new SLIndexPage(ind, parent, true);
+		int nKeep = splitPos(pos == nEntries);
+		int nMove = nEntries - nKeep;
+		System.arraycopy(keys, nKeep, newP.keys, 0, nMove);
+		System.arraycopy(values, nKeep, newP.values, 0, nMove);
+		Arrays.fill(keys, nKeep, nEntries, null);
+		nEntries = (short) nKeep;
+		newP.nEntries = (short) nMove;
+		nBytes = computeBytes();
+		newP.nBytes = newP.computeBytes();
+		
+		String newMinKey = newP.keys[0];
+		long newMinValue = newP.values[0];
+		parent.addSubPage(newP, newMinKey, newMinValue);
+		
+		//insert the new element
+		if (compare(key, value, newMinKey, newMinValue) < 0) {
+			put(key, value);
+		} else {
+			newP.put(key, value);
+		}
+	}
+
+	/**
+	 * Find the position where a full page is split. Pages are split such that both halves
+	 * contain approximately the same number of bytes. If new elements are appended to the 
+	 * end of the page, we keep more elements on the current page, because that is likely
+	 * to be an ascending insertion.
+	 * @param isAppending Whether the new element will be appended at the end of the page.  
+	 * @return The number of elements that stay on the current page. For inner pages, this is
+	 * the position of the key that moves to the parent page.
+	 */
+	private int splitPos(boolean isAppending) {
+		int limit = isAppending ? (int) (nBytes * 0.9) : (nBytes >> 1); 
+		int size = 0;
+		int valueSize = valueSize();
+		String prev = null;
+		for (int i = 0; i < nEntries - 1; i++) {
+			size += keySize(prev, keys[i]) + valueSize;
+			prev = keys[i];
+			if (size >= limit) {
+				return i + 1;
+			}
+		}
+		return nEntries - 1;
+	}
+	
+	/**
+	 * Add a new sub-page with the given minimum key/value.
+	 * @param newP
+	 * @param minKey
+	 * @param minValue
+	 */
+	void addSubPage(SLIndexPage newP, String minKey, long minValue) {
+		if (isLeaf) {
+			throw DBLogger.newFatal("Tree inconsistency");
+		}
+		markPageDirtyAndClone();
+		
+		int pos = binarySearch(0, nEntries, minKey, minValue);
+		if (pos >= 0) {
+			throw DBLogger.newFatal("Tree inconsistency, duplicate key: " + minKey);
+		}
+		pos = -(pos+1);
+		
+		int delta = insertSize(pos, minKey);
+		if (hasSpace(delta)) {
+			System.arraycopy(keys, pos, keys, pos+1, nEntries-pos);
+			System.arraycopy(subPages, pos+1, subPages, pos+2, nEntries-pos);
+			System.arraycopy(subPageIds, pos+1, subPageIds, pos+2, nEntries-pos);
+			if (values != null) {
+				System.arraycopy(values, pos, values, pos+1, nEntries-pos);
+				values[pos] = minValue;
+			}
+			keys[pos] = minKey;
+			subPages[pos+1] = newP;
+			subPageIds[pos+1] = 0;
+			newP.setParent(this);
+			nEntries++;
+			nBytes += delta;
+			return;
+		}
+		
+		//split inner page
+		SLIndexPage newInner = (SLIndexPage) ind.createPage(parent, false);
+		int m = splitPos(false);
+		String upKey = keys[m];
+		long upValue = values != null ? values[m] : 0;
+		int nMove = nEntries - m - 1;
+		System.arraycopy(keys, m+1, newInner.keys, 0, nMove);
+		System.arraycopy(subPages, m+1, newInner.subPages, 0, nMove+1);
+		System.arraycopy(subPageIds, m+1, newInner.subPageIds, 0, nMove+1);
+		if (values != null) {
+			System.arraycopy(values, m+1, newInner.values, 0, nMove);
+		}
+		Arrays.fill(keys, m, nEntries, null);
+		Arrays.fill(subPages, m+1, nEntries+1, null);
+		Arrays.fill(subPageIds, m+1, nEntries+1, 0);
+		newInner.nEntries = (short) nMove;
+		nEntries = (short) m;
+		newInner.assignThisAsRootToLeaves();
+		nBytes = computeBytes();
+		newInner.nBytes = newInner.computeBytes();
+
+		if (parent == null) {
+			//create a new root
+			SLIndexPage newRoot = (SLIndexPage) ind.createPage(null, false);
+			newRoot.subPages[0] = this;
+			newRoot.nEntries = 0;  // 0: indicates one leaf / zero keys
+			setParent(newRoot);
+			newInner.setParent(newRoot);
+			ind.updateRoot(newRoot);
+		}
+		parent.addSubPage(newInner, upKey, upValue);
+		
+		//finally add the page to the according half
+		if (compare(minKey, minValue, upKey, upValue) < 0) {
+			addSubPage(newP, minKey, minValue);
+		} else {
+			newInner.addSubPage(newP, minKey, minValue);
+		}
+	}
+	
+	/**
+	 * @param key
+	 * @param value Ignored for unique trees.
+	 * @return the previous value
+	 */
+	long remove(String key, long value) {
+		int i = binarySearch(0, nEntries, key, value);
+		if (i < 0) {
+			//key not found
+			throw new NoSuchElementException("Key not found: " + key + "/" + value);
+		}
+		markPageDirtyAndClone();
+		long oldValue = values[i];
+		nBytes += removeSize(i);
+		System.arraycopy(keys, i+1, keys, i, nEntries-i-1);
+		System.arraycopy(values, i+1, values, i, nEntries-i-1);
+		nEntries--;
+		keys[nEntries] = null;
+		if (nEntries == 0) {
+			ind.statNLeaves--;
+			parent.removeSubPage(this);
+		}
+		return oldValue;
+	}
+	
+	/**
+	 * Removes an empty sub-page. If this page becomes empty, it is removed from its parent.
+	 * The root page is never removed.
+	 */
+	private void removeSubPage(SLIndexPage subPage) {
+		int i = getPagePosition(subPage);
+		markPageDirtyAndClone();
+		ind.file.reportFreePage(subPageIds[i]);
+		if (nEntries > 0) {
+			//remove the sub-page and the key that separates it from its predecessor. If there
+			//is no predecessor, the key of the successor page is removed.
+			int k = i > 0 ? i-1 : 0;
+			nBytes += removeSize(k);
+			System.arraycopy(keys, k+1, keys, k, nEntries-k-1);
+			if (values != null) {
+				System.arraycopy(values, k+1, values, k, nEntries-k-1);
+			}
+			System.arraycopy(subPages, i+1, subPages, i, nEntries-i);
+			System.arraycopy(subPageIds, i+1, subPageIds, i, nEntries-i);
+			keys[nEntries-1] = null;
+			subPages[nEntries] = null;
+			subPageIds[nEntries] = 0;
+			nEntries--;
+			return;
+		}
+		
+		//this was the last sub-page
+		subPages[0] = null;
+		subPageIds[0] = 0;
+		nEntries = -1;
+		nBytes = 0;
+		if (parent != null) {
+			ind.statNInner--;
+			parent.removeSubPage(this);
+		}
+	}
+	
+	@Override
+	public void print(String indent) {
+		if (isLeaf) {
+			System.out.println(indent + "Leaf page(id=" + pageId() + "): nK=" + nEntries + 
+					" bytes=" + nBytes + " keys=" + Arrays.toString(keys));
+			System.out.println(indent + "                         " + Arrays.toString(values));
+		} else {
+			System.out.println(indent + "Inner page(id=" + pageId() + "): nK=" + nEntries + 
+					" bytes=" + nBytes + " keys=" + Arrays.toString(keys));
+			System.out.println(indent + "                " + nEntries + " page=" + 
+					Arrays.toString(subPageIds));
+			if (!ind.isUnique()) {
+				System.out.println(indent + "              " + nEntries + " values=" + 
+						Arrays.toString(values));
+			}
+			System.out.print(indent + "[");
+			for (int i = 0; i <= nEntries; i++) {
+				if (getSubPage(i) != null) { 
+					System.out.print(indent + "i=" + i + ": ");
+					getSubPage(i).print(indent + "  ");
+				}
+				else System.out.println("Page not loaded: " + subPageIds[i]);
+			}
+			System.out.println(']');
+		}
+	}
+
+	@Override
+	public void printLocal() {
+		System.out.println("PrintLocal() for " + this);
+		if (isLeaf) {
+			System.out.println("Leaf page(id=" + pageId() + "): nK=" + nEntries + " keys=" + 
+					Arrays.toString(keys));
+			System.out.println("                         " + Arrays.toString(values));
+		} else {
+			System.out.println("Inner page(id=" + pageId() + "): nK=" + nEntries + " keys=" + 
+					Arrays.toString(keys));
+			System.out.println("                      " + Arrays.toString(subPageIds));
+			if (!ind.isUnique()) {
+				System.out.println("                      " + Arrays.toString(values));
+			}
+			System.out.println("                      " + Arrays.toString(subPages));
+		}
+	}
+
+	@Override
+	protected short getNKeys() {
+		return nEntries;
+	}
+	
+	@Override
+	SLIndexPage getParent() {
+		return parent;
+	}
+	
+	@Override
+	void setParent(AbstractIndexPage parent) {
+		this.parent = (SLIndexPage) parent;
+	}
+	
+	@Override
+	protected AbstractIndexPage newInstance() {
+		return new SLIndexPage(this);
+	}
+
+	@Override
+	protected void incrementNEntries() {
+		nEntries++;
+	}
+
+	final String[] getKeys() {
+		return keys;
+	}
+
+	final long[] getValues() {
+		return values;
+	}
+
+	@Override
+	final void setNEntries(int n) {
+		nEntries = (short) n;
+		if (n <= 0) {
+			Arrays.fill(keys, null);
+			nBytes = 0;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.server.index.AbstractPagedIndex.AbstractPageIterator;
+import org.zoodb.internal.server.index.PagedStringLong.SLEntry;
+
+/**
+ * Ascending iterator over a {@link PagedStringLong}. This works like {@link LLIterator}.
+ * 
+ * @author Tilmann Zaeschke
+ */
+class SLIterator extends AbstractPageIterator<SLEntry> {
+
+	static class IteratorPos {
+		IteratorPos(SLIndexPage page, short pos) {
+			this.page = page;
+			this.pos = pos;
+		}
+		//This is for the iterator, do _not_ use WeakRefs here.
+		SLIndexPage page;
+		short pos;
+	}
+
+	private SLIndexPage currentPage = null;
+	private short currentPos = 0;
+	private String minKey;
+	private long minValue = Long.MIN_VALUE;
+	private final String maxKey;
+	private final boolean hasMaxKey;
+	private final ArrayList<IteratorPos> stack = new ArrayList<IteratorPos>(20);
+	private String nextKey;
+	private long nextValue;
+	private boolean hasValue = false;
+	
+	/**
+	 * @param ind
+	 * @param minKey Minimum key, null keys are smaller than any other key.
+	 * @param maxKey Maximum key
+	 * @param hasMaxKey Whether 'maxKey' should be used or whether there is no upper limit. 
+	 */
+	public SLIterator(AbstractPagedIndex ind, String minKey, String maxKey, boolean hasMaxKey) {
+		super(ind);
+		this.minKey = minKey;
+		this.maxKey = maxKey;
+		this.hasMaxKey = hasMaxKey;
+		this.currentPage = (SLIndexPage) ind.getRoot();
+
+		findFirstPosInPage();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return hasValue;
+	}
+
+	@Override
+	protected final void reset() {
+		if (!hasValue) {
+			return;
+		}
+		currentPos = 0;
+		stack.clear();
+		minKey = nextKey;
+		minValue = nextValue;
+		
+		this.currentPage = (SLIndexPage) ind.getRoot();
+
+		findFirstPosInPage();
+	}
+	
+	private boolean isAboveMax(String key) {
+		return hasMaxKey && SLIndexPage.compareKeys(key, maxKey) > 0;
+	}
+	
+	private void goToNextPage() {
+		releasePage(currentPage);
+		IteratorPos ip = stack.remove(stack.size()-1);
+		currentPage = ip.page;
+		currentPos = ip.pos;
+		currentPos++;
+		
+		while (currentPos > currentPage.getNKeys()) {
+			releasePage(currentPage);
+			if (stack.isEmpty()) {
+				close();
+				return;
+			}
+			ip = stack.remove(stack.size()-1);
+			currentPage = ip.page;
+			currentPos = ip.pos;
+			currentPos++;
+		}
+
+		while (!currentPage.isLeaf) {
+			//we are not on the first page here, so we can assume that pos=0 is correct to 
+			//start with
+			stack.add(new IteratorPos(currentPage, currentPos));
+			currentPage = (SLIndexPage) findPage(currentPage, currentPos);
+			currentPos = 0;
+		}
+	}
+	
+	private boolean goToFirstPage() {
+		while (!currentPage.isLeaf) {
+			if (currentPage.getNKeys() == -1) {
+				return false;
+			}
+			//The stored key[i] is the min-key of the according page[i+1}
+			int pos2 = currentPage.binarySearch(0, currentPage.getNKeys(), minKey, minValue);
+			if (pos2 >=0) {
+				pos2++;
+			} else {
+				pos2 = -(pos2+1);
+			}
+			currentPos = (short)pos2;
+
+			SLIndexPage newPage = (SLIndexPage) findPage(currentPage, currentPos);
+			stack.add(new IteratorPos(currentPage, currentPos));
+			currentPage = newPage;
+			currentPos = 0;
+		}
+		return true;
+	}
+	
+	private void gotoPosInPage() {
+		//when we get here, we are on a valid page with a valid position 
+		nextKey = currentPage.getKeys()[currentPos];
+		nextValue = currentPage.getValues()[currentPos];
+		hasValue = true;
+		currentPos++;
+		
+		//now progress to next element
+		
+		//first progress to next page, if necessary.
+		if (currentPos >= currentPage.getNKeys()) {
+			goToNextPage();
+			if (currentPage == null) {
+				return;
+			}
+		}
+		
+		//check for invalid value
+		if (isAboveMax(currentPage.getKeys()[currentPos])) {
+			close();
+		}
+	}
+
+	private void findFirstPosInPage() {
+		hasValue = false;
+		//find first page
+		if (!goToFirstPage()) {
+			close();
+			return;
+		}
+
+		//find very first element. 
+		currentPos = (short) currentPage.binarySearch(0, currentPage.getNKeys(), 
+				minKey, minValue);
+		if (currentPos < 0) {
+			currentPos = (short) -(currentPos+1);
+		}
+		
+		//check position
+		if (currentPos >= currentPage.getNKeys()) {
+			//The keys in the inner pages are only lower bounds, the page may contain only
+			//smaller keys. All keys on the following page are larger than 'minKey'.
+			goToNextPage();
+			if (currentPage == null) {
+				return;
+			}
+		}
+		if (currentPos >= currentPage.getNKeys() 
+				|| isAboveMax(currentPage.getKeys()[currentPos])) {
+			close();
+			return;
+		}
+		gotoPosInPage();
+	}
+	
+	
+	@Override
+	public SLEntry next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		SLEntry e = new SLEntry(nextKey, nextValue);
+		if (currentPage == null) {
+			hasValue = false;
+		} else {
+			gotoPosInPage();
+		}
+		return e;
+	}
+
+	@Override
+	public void remove() {
+		//As defined in the JDO 2.2. spec:
+		throw new UnsupportedOperationException();
+	}
+	
+	/**
+	 * This method is possibly not be called if the iterator is used in 'for ( : ext) {}' 
+	 * constructs! 
+	 */
+	@Override
+	public void close() {
+		// after close() everything should throw NoSuchElementException (see 2.2. spec)
+		currentPage = null;
+		super.close();
+	}
+
+	@Override
+	boolean pageIsRelevant(AbstractIndexPage aiPage) {
+		if (!hasNext()) {
+			return false;
+		}
+		
+		SLIndexPage page = (SLIndexPage) aiPage;
+		if (page == currentPage) {
+			return true;
+		}
+		if (page.getParent() == null) {
+			//if anything has been cloned, then the root page has been cloned as well.
+			return true;
+		}
+		
+		//leaf page?
+		if (page.isLeaf) {
+			if (page.getNKeys() == 0) {
+				//this must be a new page (isLeaf==true and isEmpty), so we are not interested.
+				return false;
+			}
+			int last = page.getNKeys() - 1;
+			String lastKey = page.getKeys()[last];
+			int c = SLIndexPage.compareKeys(nextKey, lastKey);
+			if (isAboveMax(page.getKeys()[0])
+					|| c > 0
+					|| (c == 0 && !isUnique() && nextValue > page.getValues()[last])) {
+				return false;
+			}
+			return true;
+		}
+		
+		//inner pages are always considered relevant, the keys are only lower bounds. 
+		return true;
+	}
+
+	@Override
+	void replaceCurrentAndStackIfEqual(AbstractIndexPage equal,
+			AbstractIndexPage replace) {
+		if (currentPage == equal) {
+			currentPage = (SLIndexPage) replace;
+			return;
+		}
+		for (IteratorPos p: stack) {
+			if (p.page == equal) {
+				p.page = (SLIndexPage) replace;
+				return;
+			}
+		}
+	}
+}
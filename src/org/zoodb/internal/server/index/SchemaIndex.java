@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 
+import org.zoodb.internal.CompositeIndexDef;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.PersistentSchemaOperation;
 import org.zoodb.internal.ZooClassDef;
@@ -41,6 +42,7 @@ import org.zoodb.internal.server.StorageChannel;
 import org.zoodb.internal.server.StorageChannelInput;
 import org.zoodb.internal.server.StorageChannelOutput;
 import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.index.AbstractPagedIndex.LongLongIndex;
 import org.zoodb.internal.server.index.PagedPosIndex.ObjectPosIteratorMerger;
 import org.zoodb.internal.util.DBLogger;
 import org.zoodb.internal.util.PrimLongMapLI;
@@ -79,7 +81,11 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 	private final StorageChannelOutput out;
 	private final StorageChannelInput in;
 	private boolean isDirty = false;
+	/** Statistics are rebuilt if more than 1/10 of the entries have changed. */
+	private static final int STATS_REBUILD_RATIO = 10;
 	private final ArrayList<Integer> pageIDs = new ArrayList<Integer>();
+	/** The minor file version of index pages that do not state their own version. */
+	private final int fileVersion;
 	
 	private static class FieldIndex {
 	    //This is the unique fieldId which is maintained throughout different versions of the field
@@ -88,6 +94,20 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		private FTYPE fType;
 		private int page;
 		private AbstractPagedIndex index;
+		//null if not available yet
+		private IndexStatistics stats;
+		//number of updates of the index when the statistics were built
+		private long statsUpdates;
+		//String index of file version 1.5, it contains hash values and must be rebuilt
+		private boolean isLegacy;
+	}
+
+	private static class CompositeIndex {
+	    //The unique fieldIds of the indexed fields, in index order
+		private long[] fieldIds;
+		private boolean isUnique;
+		private int page;
+		private PagedStringLong index;
 	}
 
 	private enum FTYPE {
@@ -133,12 +153,13 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		private int[] objIndexPages;
 		private transient PagedPosIndex[] objIndex;
 		private ArrayList<FieldIndex> fieldIndices = new ArrayList<FieldIndex>();
+		private ArrayList<CompositeIndex> compositeIndices = new ArrayList<CompositeIndex>();
 		private transient ZooClassDef classDef;
 		
 		/**
 		 * Constructor for reading index.
 		 */
-		private SchemaIndexEntry(StorageChannelInput in) {
+		private SchemaIndexEntry(StorageChannelInput in, int version) {
 		    schemaId = in.readLong();
 		    int nVersion = in.readShort();
             schemaOids = new long[nVersion];
@@ -158,6 +179,24 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		    	fi.fType = FTYPE.values()[in.readByte()];
 		    	fi.isUnique = in.readBoolean();
 		    	fi.page = in.readInt();
+		    	//String indices before 1.6 store hash values
+		    	fi.isLegacy = version < 6 && fi.fType == FTYPE.STRING;
+		    	//statistics since 1.8
+		    	if (version >= 8 && in.readBoolean()) {
+		    		fi.stats = IndexStatistics.read(in);
+		    	}
+		    }
+		    //composite indices since 1.7
+		    int nC = version >= 7 ? in.readShort() : 0;
+		    for (int i = 0; i < nC; i++) {
+		    	CompositeIndex ci = new CompositeIndex();
+		    	compositeIndices.add(ci);
+		    	ci.fieldIds = new long[in.readShort()];
+		    	for (int j = 0; j < ci.fieldIds.length; j++) {
+		    		ci.fieldIds[j] = in.readLong();
+		    	}
+		    	ci.isUnique = in.readBoolean();
+		    	ci.page = in.readInt();
 		    }
 		}
 		
@@ -196,6 +235,19 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		    	out.writeByte((byte) fi.fType.ordinal());
 		    	out.writeBoolean(fi.isUnique);
 		    	out.writeInt(fi.page);
+		    	out.writeBoolean(fi.stats != null);
+		    	if (fi.stats != null) {
+		    		fi.stats.write(out);
+		    	}
+		    }
+		    out.writeShort((short) compositeIndices.size());
+		    for (CompositeIndex ci: compositeIndices) {
+		    	out.writeShort((short) ci.fieldIds.length);
+		    	for (long id: ci.fieldIds) {
+		    		out.writeLong(id);
+		    	}
+		    	out.writeBoolean(ci.isUnique);
+		    	out.writeInt(ci.page);
 		    }
 		}
 
@@ -244,11 +296,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 			fi.isUnique = isUnique;
 			field.setIndexed(true);
 			field.setUnique(isUnique);
-			if (isUnique) {
-				fi.index = new PagedUniqueLongLong(DATA_TYPE.FIELD_INDEX, file);
-			} else {
-				fi.index = new PagedLongLong(DATA_TYPE.FIELD_INDEX, file);
-			}
+			fi.index = createFieldIndex(fi);
 			fieldIndices.add(fi);
 			return fi.index;
 		}
@@ -271,11 +319,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 			for (FieldIndex fi: fieldIndices) {
 				if (fi.fieldId == field.getFieldSchemaId()) {
 					if (fi.index == null) {
-						if (fi.isUnique) {
-							fi.index = new PagedUniqueLongLong(DATA_TYPE.FIELD_INDEX, file, fi.page);
-						} else {
-							fi.index = new PagedLongLong(DATA_TYPE.FIELD_INDEX, file, fi.page);
-						}
+						fi.index = readFieldIndex(fi);
 					}
 					return fi.index;
 				}
@@ -283,6 +327,129 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 			return null;
 		}
 
+		/**
+		 * Statistics that are missing or outdated are rebuilt by scanning the index.
+		 * @param field
+		 * @return The statistics of the index or {@code null} if there is no index.
+		 */
+		public IndexStatistics getIndexStatistics(ZooFieldDef field) {
+			for (FieldIndex fi: fieldIndices) {
+				if (fi.fieldId == field.getFieldSchemaId()) {
+					if (fi.isLegacy) {
+						return null;
+					}
+					if (fi.index == null) {
+						fi.index = readFieldIndex(fi);
+					}
+					if (isStale(fi)) {
+						buildStatistics(fi);
+					}
+					return fi.stats;
+				}
+			}
+			return null;
+		}
+		
+		public PagedStringLong defineCompositeIndex(CompositeIndexDef def) {
+			long[] fieldIds = def.getFieldIds();
+			for (CompositeIndex ci: compositeIndices) {
+				if (Arrays.equals(ci.fieldIds, fieldIds)) {
+					throw new IllegalArgumentException(
+							"Composite index is already defined: " + def);
+				}
+			}
+			CompositeIndex ci = new CompositeIndex();
+			ci.fieldIds = fieldIds;
+			ci.isUnique = def.isUnique();
+			ci.index = new PagedStringLong(DATA_TYPE.FIELD_INDEX, file, ci.isUnique);
+			compositeIndices.add(ci);
+			markDirty();
+			return ci.index;
+		}
+
+		public boolean removeCompositeIndex(CompositeIndexDef def) {
+			Iterator<CompositeIndex> iter = compositeIndices.iterator();
+			while (iter.hasNext()) {
+				CompositeIndex ci = iter.next(); 
+				if (def.matches(ci.fieldIds)) {
+					iter.remove();
+					getCompositeIndex(ci).clear();
+					markDirty();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public PagedStringLong getCompositeIndex(CompositeIndexDef def) {
+			for (CompositeIndex ci: compositeIndices) {
+				if (def.matches(ci.fieldIds)) {
+					return getCompositeIndex(ci);
+				}
+			}
+			return null;
+		}
+
+		private PagedStringLong getCompositeIndex(CompositeIndex ci) {
+			if (ci.index == null) {
+				ci.index = new PagedStringLong(DATA_TYPE.FIELD_INDEX, file, ci.page, ci.isUnique);
+			}
+			return ci.index;
+		}
+
+		/**
+		 * Create the definitions of the composite indices for a given version of the class.
+		 * Indices that reference fields that do not exist in this version are ignored. 
+		 * @param def
+		 */
+		private void associateCompositeIndices(ZooClassDef def) {
+			for (CompositeIndexDef cid: new ArrayList<CompositeIndexDef>(
+					def.getCompositeIndices())) {
+				def.removeCompositeIndex(cid);
+			}
+			for (CompositeIndex ci: compositeIndices) {
+				ZooFieldDef[] fields = CompositeIndexDef.resolveFields(def, ci.fieldIds);
+				if (fields != null) {
+					def.addCompositeIndex(new CompositeIndexDef(def, fields, ci.isUnique));
+				}
+			}
+		}
+
+		/**
+		 * @return Whether the entry contains String indices of file version 1.5.
+		 */
+		public boolean hasLegacyIndex() {
+			for (FieldIndex fi: fieldIndices) {
+				if (fi.isLegacy) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Replace a String index of file version 1.5 with an empty String index. The 
+		 * pages of the old index are released. 
+		 * @param field
+		 * @return The new index, or {@code null} if the field has no legacy index.
+		 */
+		public PagedStringLong replaceLegacyIndex(ZooFieldDef field) {
+			for (FieldIndex fi: fieldIndices) {
+				if (fi.fieldId == field.getFieldSchemaId() && fi.isLegacy) {
+					if (fi.index == null) {
+						fi.index = readFieldIndex(fi);
+					}
+					fi.index.clear();
+					fi.isLegacy = false;
+					fi.stats = null;
+					fi.index = createFieldIndex(fi);
+					markDirty();
+					return (PagedStringLong) fi.index;
+				}
+			}
+			return null;
+		}
+
 		public ArrayList<AbstractPagedIndex> getIndices() {
 			ArrayList<AbstractPagedIndex> indices = new ArrayList<AbstractPagedIndex>();
 			for (FieldIndex fi: fieldIndices) {
@@ -295,6 +462,10 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 			ArrayList<AbstractPagedIndex> indices = new ArrayList<AbstractPagedIndex>();
 			for (FieldIndex fi: fieldIndices) {
 				fi.index.clear();
+				fi.stats = null;
+			}
+			for (CompositeIndex ci: compositeIndices) {
+				getCompositeIndex(ci).clear();
 			}
 			return indices;
 		}
@@ -317,10 +488,20 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 			for (FieldIndex fi: fieldIndices) {
 				//is index loaded?
 				if (fi.index != null && fi.index.isDirty()) {
+					//Outdated statistics are not written, they are rebuilt when needed
+					if (fi.stats != null && isStale(fi)) {
+						fi.stats = null;
+					}
 					fi.page = fi.index.write();
 					dirty = true;
 				}
 			}
+			for (CompositeIndex ci: compositeIndices) {
+				if (ci.index != null && ci.index.isDirty()) {
+					ci.page = ci.index.write();
+					dirty = true;
+				}
+			}
 			return dirty;
 		}
 
@@ -339,11 +520,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
                     fi.fieldId = op.getFieldId();
                     fi.fType = FTYPE.fromType(field.getTypeName());
                     fi.isUnique = field.isIndexUnique();
-                    if (fi.isUnique) {
-                        fi.index = new PagedUniqueLongLong(DATA_TYPE.FIELD_INDEX, file);
-                    } else {
-                        fi.index = new PagedLongLong(DATA_TYPE.FIELD_INDEX, file);
-                    }
+                    fi.index = createFieldIndex(fi);
                     fieldIndices.add(fi);
                 } else {
                     for (int i = 0; i < fieldIndices.size(); i++) {
@@ -354,6 +531,15 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
                     }
                 }
             }
+            //remove composite indices that contain deleted fields
+            Iterator<CompositeIndex> it = compositeIndices.iterator();
+            while (it.hasNext()) {
+            	CompositeIndex ci = it.next();
+            	if (CompositeIndexDef.resolveFields(defNew, ci.fieldIds) == null) {
+            		it.remove();
+            		getCompositeIndex(ci).clear();
+            	}
+            }
             classDef = defNew;
         }
         
@@ -370,8 +556,15 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
         }
 	}
 
-	public SchemaIndex(StorageChannel file, int indexPage1, boolean isNew) {
+	/**
+	 * @param file
+	 * @param indexPage1
+	 * @param isNew
+	 * @param fileVersion The minor version of the file, see {@link DiskAccessOneFile}. 
+	 */
+	public SchemaIndex(StorageChannel file, int indexPage1, boolean isNew, int fileVersion) {
 		this.isDirty = isNew;
+		this.fileVersion = fileVersion;
 		this.file = file;
 		this.in = file.getReader(true);
 		this.out = file.getWriter(true);
@@ -386,8 +579,15 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 	private void readIndex() {
 		in.seekPageForRead(DATA_TYPE.SCHEMA_INDEX, pageId);
 		int nIndex = in.readInt();
+		//Since 1.8 the page starts with the negative version. Older pages have the version
+		//of the file.
+		int version = fileVersion;
+		if (nIndex < 0) {
+			version = -nIndex;
+			nIndex = in.readInt();
+		}
 		for (int i = 0; i < nIndex; i++) {
-			SchemaIndexEntry entry = new SchemaIndexEntry(in);
+			SchemaIndexEntry entry = new SchemaIndexEntry(in, version);
 			schemaIndex.put(entry.schemaId, entry);
 		}
 	}
@@ -432,7 +632,8 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		//TODO we should use a PagedObjectAccess here. This means that we treat SchemaIndexEntries 
 		//as objects, but would also allow proper use of FSM for them. 
 		
-		//number of indices
+		//version and number of indices
+		out.writeInt(-DiskAccessOneFile.DB_FILE_VERSION_MIN);
 		out.writeInt(schemaIndex.size());
 
 		//write the index directory
@@ -463,6 +664,18 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		return Collections.unmodifiableCollection(schemaIndex.values());
 	}
 
+	/**
+	 * @return Whether there are String indices of file version 1.5 that need to be rebuilt.
+	 */
+	public boolean hasLegacyIndices() {
+		for (SchemaIndexEntry e: schemaIndex.values()) {
+			if (e.hasLegacyIndex()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
     private final boolean isDirty() {
         return isDirty;
     }
@@ -474,8 +687,57 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 	private final void markClean() {
 		isDirty = false;
 	}
+	
+	/**
+	 * Create a new index for a field. String fields get a String index, all other types are
+	 * indexed via their long representation.
+	 */
+	private AbstractPagedIndex createFieldIndex(FieldIndex fi) {
+		if (fi.fType == FTYPE.STRING) {
+			return new PagedStringLong(DATA_TYPE.FIELD_INDEX, file, fi.isUnique);
+		}
+		if (fi.isUnique) {
+			return new PagedUniqueLongLong(DATA_TYPE.FIELD_INDEX, file);
+		}
+		return new PagedLongLong(DATA_TYPE.FIELD_INDEX, file);
+	}
+	
+	private AbstractPagedIndex readFieldIndex(FieldIndex fi) {
+		//the update counter starts with 0
+		fi.statsUpdates = 0;
+		if (fi.fType == FTYPE.STRING && !fi.isLegacy) {
+			return new PagedStringLong(DATA_TYPE.FIELD_INDEX, file, fi.page, fi.isUnique);
+		}
+		if (fi.isUnique) {
+			return new PagedUniqueLongLong(DATA_TYPE.FIELD_INDEX, file, fi.page);
+		}
+		return new PagedLongLong(DATA_TYPE.FIELD_INDEX, file, fi.page);
+	}
 		
 
+	/**
+	 * @return Whether the statistics of a loaded index are missing or whether more than 
+	 * 1/STATS_REBUILD_RATIO of the index has changed since they were built.
+	 */
+	private static boolean isStale(FieldIndex fi) {
+		long updates = fi.index.statsGetUpdatesN() - fi.statsUpdates;
+		return fi.stats == null || updates > fi.stats.getEntryCount() / STATS_REBUILD_RATIO;
+	}
+	
+	/**
+	 * Rebuild the statistics of a loaded index. This requires a full scan of the index, so 
+	 * it is done only when the statistics are requested, not during commit.
+	 */
+	private static void buildStatistics(FieldIndex fi) {
+		if (fi.fType == FTYPE.STRING) {
+			fi.stats = IndexStatistics.build(((PagedStringLong)fi.index).iterator(null, null));
+		} else {
+			fi.stats = IndexStatistics.build(((LongLongIndex)fi.index).iterator(
+					Long.MIN_VALUE, Long.MAX_VALUE));
+		}
+		fi.statsUpdates = fi.index.statsGetUpdatesN();
+	}
+
 	public void refreshSchema(ZooClassDef def, DiskAccessOneFile dao) {
 		SchemaIndexEntry e = getSchema(def);
 		if (e == null) {
@@ -492,6 +754,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 				f.setUnique(e.isUnique(f));
 			}
 		}
+		e.associateCompositeIndices(def);
 	}
 
 	
@@ -537,6 +800,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 					f.setType(ret.get(f.getTypeOID()));
 				}
 			}
+			se.associateCompositeIndices(def);
 		}
 
 		//build proxy structure
@@ -559,7 +823,7 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		
 		//search schema in index
 		for (SchemaIndexEntry e: schemaIndex.values()) {
-			if (e.classDef.getClassName().equals(clsName)) {
+			if (e.classDef != null && e.classDef.getClassName().equals(clsName)) {
 	            throw DBLogger.newFatal("Schema is already defined: " + clsName + 
 	                    " oid=" + Util.oidToString(def.getOid()));
 			}
@@ -587,6 +851,9 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 		for (FieldIndex fi: entry.fieldIndices) {
 			fi.index.clear();
 		}
+		for (CompositeIndex ci: entry.compositeIndices) {
+			entry.getCompositeIndex(ci).clear();
+		}
 		
 		//pos index
         for (PagedPosIndex oi: entry.objIndex) {
@@ -617,6 +884,9 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
             for (FieldIndex fi: e.fieldIndices) {
                 ret.addAll(fi.index.debugPageIds());
             }
+            for (CompositeIndex ci: e.compositeIndices) {
+                ret.addAll(e.getCompositeIndex(ci).debugPageIds());
+            }
         }
         return ret;
 	}
@@ -627,9 +897,36 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
 	}
 
 	public void revert(int rootPage) {
+		refresh(rootPage);
+	}
+
+	/**
+	 * Reload the index from the given root page, for example after another session committed
+	 * changes. Schemata that are still present keep their class definitions.
+	 * @param rootPage
+	 * @return {@code false} if the loaded index contains schemata, schema versions or indices
+	 * that were not known before.
+	 */
+	public boolean refresh(int rootPage) {
+		PrimLongMapLI<SchemaIndexEntry> prev = new PrimLongMapLI<SchemaIndexEntry>(schemaIndex);
 		schemaIndex.clear();
 		pageId = rootPage;
 		readIndex();
+		boolean isKnown = true;
+		for (SchemaIndexEntry e: schemaIndex.values()) {
+			SchemaIndexEntry p = prev.get(e.schemaId);
+			if (p == null) {
+				isKnown = false;
+				continue;
+			}
+			e.classDef = p.classDef;
+			if (p.schemaOids == null || p.schemaOids.length != e.schemaOids.length ||
+					p.fieldIndices.size() != e.fieldIndices.size() ||
+					p.compositeIndices.size() != e.compositeIndices.size()) {
+				isKnown = false;
+			}
+		}
+		return isKnown;
 	}
 
     public void refreshIterators() {
@@ -642,6 +939,11 @@ public class SchemaIndex implements CallbackPageRead, CallbackPageWrite {
             for (FieldIndex fi: e.fieldIndices) {
                 fi.index.refreshIterators();
             }
+            for (CompositeIndex ci: e.compositeIndices) {
+                if (ci.index != null) {
+                    ci.index.refreshIterators();
+                }
+            }
         }
     }
 
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.server.index.PagedStringLong.SLEntry;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
+import org.zoodb.internal.util.CloseableIterator;
+
+/**
+ * Iterator over the OIDs (values) of an index range, sorted by OID. 
+ * The index iterator returns the entries sorted by key, so the OIDs are read upfront and 
+ * sorted. The returned entries use the OID as key and as value, such that they can be 
+ * merged and intersected with other OID streams.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class SortedOidIterator implements CloseableIterator<LLEntry> {
+
+	private long[] oids;
+	private int size = 0;
+	private int pos = 0;
+	
+	/**
+	 * @param iter Iterator over {@link LLEntry} or {@link SLEntry} instances. The iterator is
+	 * closed when this constructor returns.
+	 */
+	public SortedOidIterator(AbstractPagedIndex.AbstractPageIterator<?> iter) {
+		oids = new long[16];
+		boolean isSorted = true;
+		long prev = Long.MIN_VALUE;
+		while (iter.hasNext()) {
+			Object e = iter.next();
+			long oid;
+			if (e instanceof LLEntry) {
+				oid = ((LLEntry)e).getValue();
+			} else {
+				oid = ((SLEntry)e).getValue();
+			}
+			if (size == oids.length) {
+				oids = Arrays.copyOf(oids, size * 2);
+			}
+			oids[size++] = oid;
+			//Values of equal keys are already sorted in non-unique indices 
+			isSorted &= oid > prev;
+			prev = oid;
+		}
+		iter.close();
+		if (!isSorted) {
+			Arrays.sort(oids, 0, size);
+		}
+	}
+	
+	/**
+	 * @return The number of OIDs.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		return pos < size;
+	}
+
+	@Override
+	public LLEntry next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		long oid = oids[pos++];
+		return new LLEntry(oid, oid);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		pos = size;
+	}
+
+	@Override
+	public void refresh() {
+		//nothing to do, the OIDs have been read already
+	}
+}
@@ -23,10 +23,9 @@ package org.zoodb.internal.server.index;
 import org.zoodb.internal.DataDeSerializer;
 import org.zoodb.internal.GenericObject;
 import org.zoodb.internal.ZooHandleImpl;
-import org.zoodb.internal.client.AbstractCache;
-import org.zoodb.internal.server.ObjectReader;
 import org.zoodb.internal.server.index.PagedPosIndex.ObjectPosIteratorMerger;
 import org.zoodb.internal.util.CloseableIterator;
+import org.zoodb.internal.util.PoolDDS;
 
 /**
  * 
@@ -36,39 +35,63 @@ import org.zoodb.internal.util.CloseableIterator;
 public class ZooHandleIteratorAdapter implements CloseableIterator<ZooHandleImpl> {
 
     private final ObjectPosIteratorMerger it;
-    private final DataDeSerializer dds;
+    private final Object indexLock;
+    private final PoolDDS ddsPool;
     
-    public ZooHandleIteratorAdapter(ObjectPosIteratorMerger objectPosIterator,
-            ObjectReader in, AbstractCache cache) {
-        this.dds = new DataDeSerializer(in, cache);
+    /**
+     * @param objectPosIterator
+     * @param indexLock Monitor for all access to the index iterator
+     * @param ddsPool Pool of the deserializers for reading the objects
+     */
+    public ZooHandleIteratorAdapter(ObjectPosIteratorMerger objectPosIterator, 
+    		Object indexLock, PoolDDS ddsPool) {
         this.it = objectPosIterator;
+        this.indexLock = indexLock;
+        this.ddsPool = ddsPool;
     }
 
     @Override
     public boolean hasNext() {
-        return it.hasNextOPI();
+    	synchronized (indexLock) {
+    		return it.hasNextOPI();
+    	}
     }
 
     @Override
     public ZooHandleImpl next() {
-        long pos = it.nextPos();
-        GenericObject go = dds.readGenericObject(BitTools.getPage(pos), BitTools.getOffs(pos));
-        return go.getOrCreateHandle();
+    	long pos;
+    	synchronized (indexLock) {
+    		pos = it.nextPos();
+    	}
+        DataDeSerializer dds = ddsPool.get();
+        try {
+        	GenericObject go = dds.readGenericObject(BitTools.getPage(pos), 
+        			BitTools.getOffs(pos));
+        	return go.getOrCreateHandle();
+        } finally {
+        	ddsPool.offer(dds);
+        }
     }
 
     @Override
     public void remove() {
-        it.remove();
+    	synchronized (indexLock) {
+    		it.remove();
+    	}
     }
 
     @Override
     public void close() {
-        it.close();
+    	synchronized (indexLock) {
+    		it.close();
+    	}
     }
 
     @Override
     public void refresh() {
-        it.refresh();
+    	synchronized (indexLock) {
+    		it.refresh();
+    	}
     }
 
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.util;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Lock for sessions that are used by multiple threads.
+ * 
+ * Operations that only read the state of the session (loading objects, queries) acquire the
+ * read lock and can run concurrently, including their disk reads, see 
+ * {@link org.zoodb.internal.server.DiskAccessOneFile}. Operations that change the state
+ * of the session (begin, commit, makePersistent, ...) acquire the write lock. 
+ * 
+ * Threads that hold the read lock may load the same object at the same time. Every object
+ * is therefore claimed before it is deserialized, see {@link #claim(Object)}. 
+ * 
+ * The lock is only used if the session is multithreaded. Otherwise all methods return 
+ * immediately.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public final class ClientLock {
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile boolean isMultithreaded = false;
+	//objects that are being loaded -> loading thread
+	private final IdentityHashMap<Object, Thread> loading = new IdentityHashMap<Object, Thread>();
+	//waiting thread -> object that the thread waits for
+	private final HashMap<Thread, Object> waiting = new HashMap<Thread, Object>();
+	
+	public boolean isMultithreaded() {
+		return isMultithreaded;
+	}
+	
+	/**
+	 * Enable or disable locking. Disabling waits until all other threads have left the 
+	 * session.
+	 * @param isMultithreaded
+	 */
+	public void setMultithreaded(boolean isMultithreaded) {
+		if (this.isMultithreaded == isMultithreaded) {
+			return;
+		}
+		if (isMultithreaded) {
+			this.isMultithreaded = true;
+			return;
+		}
+		lockWrite();
+		try {
+			this.isMultithreaded = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void lockRead() {
+		if (isMultithreaded) {
+			lock.readLock().lock();
+		}
+	}
+
+	public void unlockRead() {
+		//Do not check isMultithreaded, it may have been changed since lockRead().
+		if (lock.getReadHoldCount() > 0) {
+			lock.readLock().unlock();
+		}
+	}
+	
+	public void lockWrite() {
+		if (!isMultithreaded) {
+			return;
+		}
+		if (lock.getReadHoldCount() > 0 && !lock.isWriteLockedByCurrentThread()) {
+			//This would deadlock
+			throw DBLogger.newUser("This operation is not allowed while the thread is " +
+					"reading from the session, for example in a load callback.");
+		}
+		lock.writeLock().lock();
+	}
+
+	public void unlockWrite() {
+		if (lock.isWriteLockedByCurrentThread()) {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Claims an object for loading. If another thread is loading the object, this waits 
+	 * until that thread has released it with {@link #release(Object)}.
+	 * Objects are not claimed if the current thread is already loading them or if the 
+	 * loading thread waits (directly or indirectly) for an object that the current thread 
+	 * is loading, for example because of cyclic references in load callbacks or hash codes.
+	 * Such objects should be used as they are, which is what a single thread would do.
+	 * @param obj
+	 * @return {@code true} if the object has been claimed and has to be released.
+	 */
+	public boolean claim(Object obj) {
+		if (!isMultithreaded) {
+			return true;
+		}
+		Thread current = Thread.currentThread();
+		synchronized (loading) {
+			while (true) {
+				Thread owner = loading.get(obj);
+				if (owner == null) {
+					loading.put(obj, current);
+					return true;
+				}
+				if (owner == current || isWaitingFor(owner, current)) {
+					return false;
+				}
+				waiting.put(current, obj);
+				try {
+					loading.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw DBLogger.newFatal("Interrupted while waiting for an object to load.", e);
+				} finally {
+					waiting.remove(current);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return Whether <tt>t</tt> waits for an object that is loaded by <tt>owner</tt>, 
+	 * possibly via other threads. 
+	 */
+	private boolean isWaitingFor(Thread t, Thread owner) {
+		while (t != null) {
+			Object obj = waiting.get(t);
+			if (obj == null) {
+				return false;
+			}
+			t = loading.get(obj);
+			if (t == owner) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Releases an object that has been claimed with {@link #claim(Object)}.
+	 * @param obj
+	 */
+	public void release(Object obj) {
+		if (!isMultithreaded) {
+			return;
+		}
+		synchronized (loading) {
+			loading.remove(obj);
+			if (!waiting.isEmpty()) {
+				loading.notifyAll();
+			}
+		}
+	}
+}
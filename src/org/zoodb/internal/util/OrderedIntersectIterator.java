@@ -0,0 +1,116 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.util;
+
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
+
+/**
+ * This iterator returns the intersection of multiple iterators, i.e. only entries whose key
+ * is returned by all sub-iterators.
+ * The iterator expects the sub-iterators to be sorted by key and to contain every key at most
+ * once. The returned results are ordered in the natural (Java) order.
+ * 
+ * @author Tilmann Zaeschke
+ *
+ */
+public class OrderedIntersectIterator implements CloseableIterator<LLEntry> {
+
+	private final CloseableIterator<LLEntry>[] iterators;
+	private LLEntry current; 
+	
+    public OrderedIntersectIterator(CloseableIterator<LLEntry>[] iterators) {
+    	this.iterators = iterators;
+    	findNext();
+    }
+
+    private void findNext() {
+    	current = null;
+    	if (!iterators[0].hasNext()) {
+    		close();
+    		return;
+    	}
+    	LLEntry candidate = iterators[0].next();
+    	int nMatch = 1;
+    	int pos = 1;
+    	//advance the iterators round robin until all agree on the candidate
+    	while (nMatch < iterators.length) {
+    		CloseableIterator<LLEntry> iter = iterators[pos];
+    		LLEntry e = null;
+    		while (iter.hasNext()) {
+    			e = iter.next();
+    			if (e.getKey() >= candidate.getKey()) {
+    				break;
+    			}
+    		}
+    		if (e == null || e.getKey() < candidate.getKey()) {
+    			//exhausted
+    			close();
+    			return;
+    		}
+    		if (e.getKey() == candidate.getKey()) {
+    			nMatch++;
+    		} else {
+    			candidate = e;
+    			nMatch = 1;
+    		}
+    		pos = (pos + 1) % iterators.length;
+    	}
+    	current = candidate;
+    }
+    
+    @Override
+	public boolean hasNext() {
+		return current != null;
+	}
+
+	@Override
+	public LLEntry next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		LLEntry ret = current;
+		findNext();
+		return ret;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		current = null;
+		for (CloseableIterator<?> i: iterators) {
+			i.close();
+		}
+	}
+
+	@Override
+    public void refresh() {
+        for (CloseableIterator<?> it: iterators) {
+            it.refresh();
+        }
+    }
+	
+}
@@ -43,13 +43,27 @@ public class OrderedMergeIterator implements CloseableIterator<LLEntry> {
 	private final ArrayList<LLEntry> currentValues;
 	private LLEntry current; 
 	private final IteratorRegistry registry;
+	private final boolean distinct;
 	
     public OrderedMergeIterator(CloseableIterator<LLEntry>[] iterators) {
     	this(null, iterators);
     }
 
     public OrderedMergeIterator(IteratorRegistry registry, CloseableIterator<LLEntry>[] iterators) {
+    	this(registry, iterators, false);
+    }
+
+    /**
+     * 
+     * @param registry Optional registry, may be {@code null}
+     * @param iterators The sorted sub-iterators
+     * @param distinct If {@code true}, entries with a key that is equal to the key of the 
+     * previous entry are skipped. This is used to build the union of several OID streams. 
+     */
+    public OrderedMergeIterator(IteratorRegistry registry, CloseableIterator<LLEntry>[] iterators,
+    		boolean distinct) {
         this.registry = registry;
+        this.distinct = distinct;
         if (registry != null) {
         	registry.registerIterator(this);
         }
@@ -62,19 +76,7 @@ public class OrderedMergeIterator implements CloseableIterator<LLEntry> {
         		currentValues.add(iter.next());
         	}
         }
-        //find smallest value
-        if (!currentValues.isEmpty()) {
-	        int currentPos = 0;
-	        current = currentValues.get(0);
-	        for (int i = 1; i < currentValues.size(); i++) {
-	        	if (current.getKey() > currentValues.get(i).getKey()) {
-	        		currentPos = i;
-	        		current = currentValues.get(i);
-	        	}
-	        }
-	        //refill
-	        getNext(currentPos);
-        }
+        findSmallest();
     }
     
     private void getNext(int currentPos) {
@@ -104,6 +106,13 @@ public class OrderedMergeIterator implements CloseableIterator<LLEntry> {
 		
 		LLEntry dummy = current;
 		
+		do {
+			findSmallest();
+		} while (distinct && current != null && current.getKey() == dummy.getKey());
+		return dummy;
+	}
+	
+	private void findSmallest() {
         //find smallest value
         if (currentValues.isEmpty()) {
         	current = null;
@@ -119,7 +128,6 @@ public class OrderedMergeIterator implements CloseableIterator<LLEntry> {
 	        //refill
 	        getNext(currentPos);
         }
-		return dummy;
 	}
 
 	@Override
@@ -36,7 +36,7 @@ import org.zoodb.internal.server.StorageChannel;
 public class PoolDDS {
     /** Main lock for all access */
     private final ReentrantLock lock = new ReentrantLock(false);
-    private static final boolean CONCURRENT = false;
+    private static final boolean CONCURRENT = true;
     private final DataDeSerializer[] items = new DataDeSerializer[10]; 
     private int count = 0;
     
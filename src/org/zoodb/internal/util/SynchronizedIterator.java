@@ -0,0 +1,125 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.util;
+
+/**
+ * Iterator that synchronizes every call on a given monitor. This is used for iterators that 
+ * lazily read from a resource that is shared by multiple threads.
+ * Optionally, every call also holds the read lock of a session, see {@link ClientLock}.
+ * 
+ * @author Tilmann Zaeschke
+ *
+ * @param <E>
+ */
+public class SynchronizedIterator<E> implements CloseableIterator<E> {
+
+	private final CloseableIterator<E> iter;
+	private final Object monitor;
+	private final ClientLock lock;
+	
+	public SynchronizedIterator(CloseableIterator<E> iter, Object monitor) {
+		this(iter, monitor, null);
+	}
+	
+	/**
+	 * @param iter
+	 * @param monitor
+	 * @param lock The read lock is acquired before the monitor, may be {@code null}.
+	 */
+	public SynchronizedIterator(CloseableIterator<E> iter, Object monitor, ClientLock lock) {
+		this.iter = iter;
+		this.monitor = monitor;
+		this.lock = lock;
+	}
+	
+	private void lock() {
+		if (lock != null) {
+			lock.lockRead();
+		}
+	}
+	
+	private void unlock() {
+		if (lock != null) {
+			lock.unlockRead();
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		lock();
+		try {
+			synchronized (monitor) {
+				return iter.hasNext();
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	@Override
+	public E next() {
+		lock();
+		try {
+			synchronized (monitor) {
+				return iter.next();
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	@Override
+	public void remove() {
+		lock();
+		try {
+			synchronized (monitor) {
+				iter.remove();
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		lock();
+		try {
+			synchronized (monitor) {
+				iter.close();
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	@Override
+	public void refresh() {
+		lock();
+		try {
+			synchronized (monitor) {
+				iter.refresh();
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+}
@@ -128,8 +128,6 @@ public abstract class AbstractPersistenceManagerFactory
     			System.out.println("STUB: Property not supported: " + key + "=" + props.get(key)); //TODO
     		} else if (Constants.PROPERTY_MULTITHREADED.equals(key)) {
     			isMultiThreaded = Boolean.parseBoolean(props.getProperty(key));
-    			if (isMultiThreaded == true) 
-    				System.out.println("STUB: Property not supported: " + key + "=" + props.get(key)); //TODO
     		} else if (Constants.PROPERTY_DETACH_ALL_ON_COMMIT.equals(key)) {
     			System.out.println("STUB: Property not supported: " + key + "=" + props.get(key)); //TODO
     		} else if (Constants.PROPERTY_COPY_ON_ATTACH.equals(key)) {
@@ -307,10 +305,7 @@ public abstract class AbstractPersistenceManagerFactory
 	}
 
 	public void setMultithreaded(boolean arg0) {
-		//TODO
 		this.isMultiThreaded = arg0;
-		if (isMultiThreaded == true) 
-			System.out.println("STUB: MultiThreaded = true not supported."); //TODO
 	}
 
     public Object clone() {
@@ -29,6 +29,7 @@ import javax.jdo.JDOUserException;
 import javax.jdo.PersistenceManager;
 
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.query.QueryTreeNode;
 import org.zoodb.internal.util.CloseableIterator;
 import org.zoodb.internal.util.MergingIterator;
 
@@ -78,12 +79,21 @@ public class ExtentImpl<T> implements Extent<T> {
      */
     @Override
 	public Iterator<T> iterator() {
+    	return iterator(null);
+    }
+    
+    /**
+     * @param filter Optional query that allows skipping serialized objects that do not match.
+     * The returned objects still need to be checked against the query.
+     * @return Iterator over all instances that may match the filter.
+     */
+    Iterator<T> iterator(QueryTreeNode filter) {
     	if (isDummyExtent) {
     		return new MergingIterator<T>();
     	}
     	@SuppressWarnings("unchecked")
 		CloseableIterator<T> it = (CloseableIterator<T>) pm.getSession().loadAllInstances(
-    		        extClass, subclasses, !ignoreCache);
+    		        extClass, subclasses, !ignoreCache, filter);
     	allIterators.add(it);
     	return it;
     }
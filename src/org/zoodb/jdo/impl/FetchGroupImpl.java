@@ -0,0 +1,286 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.jdo.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jdo.FetchGroup;
+
+import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.util.DBLogger;
+
+/**
+ * Fetch groups define which fields of a class are loaded when an object is activated.
+ * Fields that are not part of the active fetch groups are loaded on first access.
+ * 
+ * Note that the ZooDB default fetch group contains all fields. 
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class FetchGroupImpl implements FetchGroup {
+
+	private final Class<?> type;
+	private final String name;
+	private final Set<String> members = new HashSet<String>();
+	private final Map<String, Integer> recursionDepths = new HashMap<String, Integer>();
+	private boolean postLoad = false;
+	private boolean isUnmodifiable = false;
+	//The PersistenceManager to notify about changes, may be null.
+	private final PersistenceManagerImpl pm;
+	
+	FetchGroupImpl(Class<?> type, String name, PersistenceManagerImpl pm) {
+		if (type == null || name == null) {
+			throw DBLogger.newUser("Class and name of a fetch group must not be null.");
+		}
+		this.type = type;
+		this.name = name;
+		this.pm = pm;
+	}
+	
+	/**
+	 * Create a modifiable copy of a fetch group.
+	 * @param fg
+	 * @param pm
+	 */
+	FetchGroupImpl(FetchGroupImpl fg, PersistenceManagerImpl pm) {
+		this(fg.type, fg.name, pm);
+		members.addAll(fg.members);
+		recursionDepths.putAll(fg.recursionDepths);
+		postLoad = fg.postLoad;
+	}
+	
+	@Override
+	public int hashCode() {
+		return type.hashCode() * 31 + name.hashCode();
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FetchGroup)) {
+			return false;
+		}
+		FetchGroup fg = (FetchGroup) obj;
+		return type == fg.getType() && name.equals(fg.getName());
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Class getType() {
+		return type;
+	}
+
+	@Override
+	public boolean getPostLoad() {
+		return postLoad;
+	}
+
+	@Override
+	public FetchGroup setPostLoad(boolean postLoad) {
+		checkModifiable();
+		this.postLoad = postLoad;
+		return this;
+	}
+
+	@Override
+	public FetchGroup addMember(String memberName) {
+		checkModifiable();
+		getField(memberName);
+		members.add(memberName);
+		notifyPM();
+		return this;
+	}
+
+	@Override
+	public FetchGroup addMembers(String... memberNames) {
+		checkModifiable();
+		for (String m: memberNames) {
+			getField(m);
+		}
+		Collections.addAll(members, memberNames);
+		notifyPM();
+		return this;
+	}
+
+	@Override
+	public FetchGroup removeMember(String memberName) {
+		checkModifiable();
+		getField(memberName);
+		members.remove(memberName);
+		recursionDepths.remove(memberName);
+		notifyPM();
+		return this;
+	}
+
+	@Override
+	public FetchGroup removeMembers(String... memberNames) {
+		checkModifiable();
+		for (String m: memberNames) {
+			getField(m);
+		}
+		for (String m: memberNames) {
+			members.remove(m);
+			recursionDepths.remove(m);
+		}
+		notifyPM();
+		return this;
+	}
+
+	@Override
+	public FetchGroup addCategory(String categoryName) {
+		checkModifiable();
+		members.addAll(getCategory(categoryName));
+		notifyPM();
+		return this;
+	}
+
+	@Override
+	public FetchGroup removeCategory(String categoryName) {
+		checkModifiable();
+		members.removeAll(getCategory(categoryName));
+		notifyPM();
+		return this;
+	}
+
+	@Override
+	public FetchGroup setRecursionDepth(String memberName, int recursionDepth) {
+		checkModifiable();
+		if (!members.contains(memberName)) {
+			throw DBLogger.newUser("Field is not a member of fetch group '" + name + 
+					"': " + memberName);
+		}
+		recursionDepths.put(memberName, recursionDepth);
+		return this;
+	}
+
+	@Override
+	public int getRecursionDepth(String memberName) {
+		if (!members.contains(memberName)) {
+			throw DBLogger.newUser("Field is not a member of fetch group '" + name + 
+					"': " + memberName);
+		}
+		Integer depth = recursionDepths.get(memberName);
+		return depth != null ? depth : 1;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Set getMembers() {
+		return Collections.unmodifiableSet(members);
+	}
+
+	@Override
+	public FetchGroup setUnmodifiable() {
+		isUnmodifiable = true;
+		return this;
+	}
+
+	@Override
+	public boolean isUnmodifiable() {
+		return isUnmodifiable;
+	}
+
+	/**
+	 * @return The member names as a new set.
+	 */
+	Set<String> getMemberNames() {
+		return new HashSet<String>(members);
+	}
+	
+	@Override
+	public String toString() {
+		return "FetchGroup(" + type.getName() + ", " + name + "): " + members; 
+	}
+	
+	private void checkModifiable() {
+		if (isUnmodifiable) {
+			throw DBLogger.newUser("Fetch group is unmodifiable: " + name);
+		}
+	}
+	
+	private void notifyPM() {
+		if (pm != null) {
+			pm.updateFetchGroups();
+		}
+	}
+	
+	private Field getField(String memberName) {
+		for (Field f: getPersistentFields()) {
+			if (f.getName().equals(memberName)) {
+				return f;
+			}
+		}
+		throw DBLogger.newUser("Field not found in class " + type.getName() + ": " + 
+				memberName);
+	}
+	
+	private Set<Field> getPersistentFields() {
+		Set<Field> fields = new HashSet<Field>();
+		Class<?> cls = type;
+		while (cls != null && cls != Object.class && cls != ZooPCImpl.class) {
+			for (Field f: cls.getDeclaredFields()) {
+				int mod = f.getModifiers();
+				if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod)) {
+					fields.add(f);
+				}
+			}
+			cls = cls.getSuperclass();
+		}
+		return fields;
+	}
+	
+	private Set<String> getCategory(String categoryName) {
+		boolean isAll = FetchGroup.ALL.equals(categoryName) || 
+				FetchGroup.DEFAULT.equals(categoryName);
+		if (!isAll && !FetchGroup.BASIC.equals(categoryName) && 
+				!FetchGroup.MULTIVALUED.equals(categoryName) && 
+				!FetchGroup.RELATIONSHIP.equals(categoryName)) {
+			throw DBLogger.newUser("Unknown fetch group category: " + categoryName);
+		}
+		Set<String> ret = new HashSet<String>();
+		for (Field f: getPersistentFields()) {
+			Class<?> t = f.getType();
+			boolean isBasic = t.isPrimitive() || Number.class.isAssignableFrom(t) || 
+					t == String.class || t == Boolean.class || t == Character.class ||
+					t == Date.class;
+			boolean isMulti = t.isArray() || Collection.class.isAssignableFrom(t) || 
+					Map.class.isAssignableFrom(t);
+			if (isAll || (FetchGroup.BASIC.equals(categoryName) && isBasic)
+					|| (FetchGroup.MULTIVALUED.equals(categoryName) && isMulti)
+					|| (FetchGroup.RELATIONSHIP.equals(categoryName) && !isBasic)) {
+				ret.add(f.getName());
+			}
+		}
+		return ret;
+	}
+}
@@ -20,138 +20,169 @@
  */
 package org.zoodb.jdo.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import javax.jdo.FetchPlan;
 
 import org.zoodb.internal.util.DBLogger;
 
+/**
+ * The fetch plan of a PersistenceManager. The fetch groups of the plan define which fields are
+ * loaded when an object is activated, see {@link FetchGroupImpl}.
+ * 
+ * @author Tilmann Zaeschke
+ */
 public class FetchPlanImpl implements FetchPlan {
 
+	private final PersistenceManagerImpl pm;
+	private final Set<String> groups = new LinkedHashSet<String>();
+	private int maxFetchDepth = 1;
+	private int fetchSize = FETCH_SIZE_OPTIMAL;
+	private int detachmentOptions = DETACH_LOAD_FIELDS;
+	private Collection<?> detachmentRoots = Collections.emptyList();
+	private Class<?>[] detachmentRootClasses = new Class<?>[0];
+	
+	FetchPlanImpl(PersistenceManagerImpl pm) {
+		this.pm = pm;
+		groups.add(DEFAULT);
+	}
+	
 	@Override
 	public FetchPlan addGroup(String fetchGroupName) {
-		//TODO
-		DBLogger.debugPrint(1, "STUB FecthPlanImpl");
+		groups.add(fetchGroupName);
+		pm.updateFetchGroups();
 		return this;
 	}
 
 	@Override
 	public FetchPlan removeGroup(String fetchGroupName) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		groups.remove(fetchGroupName);
+		pm.updateFetchGroups();
+		return this;
 	}
 
 	@Override
 	public FetchPlan clearGroups() {
-		//TODO
-		DBLogger.debugPrint(1, "STUB FecthPlanImpl");
+		groups.clear();
+		pm.updateFetchGroups();
 		return this;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Set getGroups() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		return Collections.unmodifiableSet(new LinkedHashSet<String>(groups));
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public FetchPlan setGroups(Collection fetchGroupNames) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		groups.clear();
+		for (Object o: fetchGroupNames) {
+			groups.add((String) o);
+		}
+		pm.updateFetchGroups();
+		return this;
 	}
 
 	@Override
 	public FetchPlan setGroups(String... fetchGroupNames) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		groups.clear();
+		Collections.addAll(groups, fetchGroupNames);
+		pm.updateFetchGroups();
+		return this;
 	}
 
 	@Override
 	public FetchPlan setGroup(String fetchGroupName) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		groups.clear();
+		groups.add(fetchGroupName);
+		pm.updateFetchGroups();
+		return this;
 	}
 
 	@Override
 	public FetchPlan setMaxFetchDepth(int fetchDepth) {
-		//TODO
-		DBLogger.debugPrint(1, "STUB FecthPlanImpl");
+		if (fetchDepth == 0 || fetchDepth < -1) {
+			throw DBLogger.newUser("Illegal fetch depth: " + fetchDepth);
+		}
+		this.maxFetchDepth = fetchDepth;
+		pm.getSession().setMaxFetchDepth(fetchDepth);
 		return this;
 	}
 
 	@Override
 	public int getMaxFetchDepth() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return 0;
+		return maxFetchDepth;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public FetchPlan setDetachmentRoots(Collection roots) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		this.detachmentRoots = new ArrayList<Object>((Collection<?>) roots);
+		return this;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Collection getDetachmentRoots() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		return Collections.unmodifiableCollection(detachmentRoots);
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public FetchPlan setDetachmentRootClasses(Class... rootClasses) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		this.detachmentRootClasses = rootClasses.clone();
+		return this;
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Class[] getDetachmentRootClasses() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		return detachmentRootClasses.clone();
 	}
 
 	@Override
 	public FetchPlan setFetchSize(int fetchSize) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		if (fetchSize < FETCH_SIZE_GREEDY) {
+			throw DBLogger.newUser("Illegal fetch size: " + fetchSize);
+		}
+		this.fetchSize = fetchSize;
+		return this;
 	}
 
 	@Override
 	public int getFetchSize() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return 0;
+		return fetchSize;
 	}
 
 	@Override
 	public FetchPlan setDetachmentOptions(int options) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return null;
+		this.detachmentOptions = options;
+		return this;
 	}
 
 	@Override
 	public int getDetachmentOptions() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
-		//return 0;
+		return detachmentOptions;
 	}
 
+	/**
+	 * @return Whether the plan loads all fields of all classes.
+	 */
+	boolean isLoadingAllFields() {
+		return groups.contains(DEFAULT) || groups.contains(ALL);
+	}
+	
+	/**
+	 * @param fetchGroupName
+	 * @return Whether the fetch group is part of the plan.
+	 */
+	boolean hasGroup(String fetchGroupName) {
+		return groups.contains(fetchGroupName);
+	}
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.jdo.impl;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.zoodb.internal.util.CloseableIterator;
+
+/**
+ * A query result that is evaluated lazily. Objects are only pulled from the underlying
+ * query iterator when they are requested. If the query has a range, the underlying iterator
+ * is closed as soon as the end of the range is reached.
+ * 
+ * Iterators are forward-only cursors that do not retain any objects. The first iterator uses
+ * the scan that was started when the query was executed, every further iterator starts a 
+ * new scan, in the same way as iterators of an {@link javax.jdo.Extent}.
+ * Only {@code get(int)} and {@code size()} buffer the objects that they retrieve, 
+ * {@code size()} retrieves all remaining objects. Once the buffer is in use, iterators 
+ * return the buffered objects. The result is read-only.
+ *
+ * @param <E>
+ * 
+ * @author Tilmann Zaeschke
+ */
+public abstract class LazyQueryResult<E> extends AbstractList<E> {
+
+	private final long fromIncl;
+	private final long toExcl;
+	//Cursor that has not been handed out yet
+	private Cursor spare;
+	private final ArrayList<Cursor> openCursors = new ArrayList<Cursor>();
+	//null until get() or size() is called
+	private ArrayList<E> buffer = null;
+	private Cursor bufferSource;
+	private boolean isClosed = false;
+	
+	/**
+	 * 
+	 * @param iter The iterator that returns all matching objects.
+	 * @param fromIncl First object to return (inclusive).
+	 * @param toExcl Last object to return (exclusive).
+	 */
+	LazyQueryResult(CloseableIterator<E> iter, long fromIncl, long toExcl) {
+		this.fromIncl = fromIncl;
+		this.toExcl = toExcl;
+		this.spare = new Cursor(iter);
+	}
+	
+	/**
+	 * @return A new iterator that returns all matching objects.
+	 */
+	protected abstract CloseableIterator<E> newIterator();
+	
+	private Cursor takeCursor() {
+		Cursor c = spare;
+		spare = null;
+		if (c == null) {
+			c = new Cursor(newIterator());
+		}
+		openCursors.add(c);
+		return c;
+	}
+	
+	/**
+	 * Fetch the next object into the buffer.
+	 * @return {@code false} if there are no more objects. 
+	 */
+	private boolean fetchNext() {
+		if (buffer == null) {
+			buffer = new ArrayList<E>();
+			if (isClosed) {
+				return false;
+			}
+			bufferSource = takeCursor();
+		}
+		if (bufferSource == null || !bufferSource.hasNext()) {
+			return false;
+		}
+		buffer.add(bufferSource.next());
+		return true;
+	}
+	
+	@Override
+	public Iterator<E> iterator() {
+		if (buffer != null) {
+			return new Iterator<E>() {
+				private int pos = 0;
+
+				@Override
+				public boolean hasNext() {
+					return pos < buffer.size() || fetchNext();
+				}
+
+				@Override
+				public E next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return buffer.get(pos++);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		if (isClosed) {
+			return Collections.<E>emptyList().iterator();
+		}
+		return takeCursor();
+	}
+
+	@Override
+	public E get(int index) {
+		while ((buffer == null || index >= buffer.size()) && fetchNext()) {
+			//fetch up to index
+		}
+		if (index < 0 || index >= buffer.size()) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		return buffer.get(index);
+	}
+
+	@Override
+	public int size() {
+		while (fetchNext()) {
+			//fetch all
+		}
+		return buffer.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		if (buffer != null) {
+			return buffer.isEmpty() && !fetchNext();
+		}
+		if (isClosed) {
+			return true;
+		}
+		//This does not consume any objects, so the cursor can be used by the next iterator
+		if (spare == null) {
+			spare = new Cursor(newIterator());
+		}
+		return !spare.hasNext();
+	}
+	
+	/**
+	 * Close the underlying iterators. Objects that have already been buffered remain 
+	 * accessible.
+	 */
+	public void close() {
+		isClosed = true;
+		if (spare != null) {
+			spare.close();
+			spare = null;
+		}
+		while (!openCursors.isEmpty()) {
+			//this removes the cursor from the list
+			openCursors.get(openCursors.size() - 1).close();
+		}
+		bufferSource = null;
+	}
+	
+	/**
+	 * Forward-only iterator over the range of the result. 
+	 */
+	private class Cursor implements Iterator<E> {
+		private final CloseableIterator<E> iter;
+		private long toSkip = fromIncl;
+		private long remaining = toExcl - fromIncl;
+		private boolean isFinished = false;
+		
+		Cursor(CloseableIterator<E> iter) {
+			this.iter = iter;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if (isFinished) {
+				return false;
+			}
+			while (toSkip > 0 && iter.hasNext()) {
+				iter.next();
+				toSkip--;
+			}
+			if (remaining <= 0 || !iter.hasNext()) {
+				close();
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public E next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			remaining--;
+			return iter.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		void close() {
+			isFinished = true;
+			iter.close();
+			openCursors.remove(this);
+		}
+	}
+}
@@ -41,6 +41,7 @@ import javax.jdo.spi.JDOImplHelper;
 import javax.jdo.spi.StateInterrogation;
 
 import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.util.DBLogger;
 import org.zoodb.jdo.spi.ZooStateInterrogator;
 
 /**
@@ -61,6 +62,8 @@ public class PersistenceManagerFactoryImpl
 	private HashMap<InstanceLifecycleListener, List<Class<?>>> lcListeners = 
 			new HashMap<InstanceLifecycleListener, List<Class<?>>>(); 
 	
+	private Set<FetchGroupImpl> fetchGroups = new HashSet<FetchGroupImpl>();
+	
     /**
      * @param props NOT SUPPORTED!
      */
@@ -94,13 +97,8 @@ public class PersistenceManagerFactoryImpl
      * @see PersistenceManagerFactory#getPersistenceManager()
      */
 	@Override
-    public PersistenceManager getPersistenceManager() {
+    public synchronized PersistenceManager getPersistenceManager() {
     	checkOpen();
-    	if (!pms.isEmpty()) {
-    		//TODO
-    		System.err.println("WARNING Multiple PM per factory are not supported.");
-    	    //throw new UnsupportedOperationException("Multiple PM per factory are not supported.");
-    	}
         PersistenceManagerImpl pm = new PersistenceManagerImpl(this, getConnectionPassword());
         pms.add(pm);
         setFrozen();
@@ -131,14 +129,26 @@ public class PersistenceManagerFactoryImpl
         PersistenceManagerFactoryImpl pmf = 
             (PersistenceManagerFactoryImpl) super.clone();
         pmf.pms = new HashSet<PersistenceManagerImpl>(); //do not clone _pm!
+        pmf.fetchGroups = new HashSet<FetchGroupImpl>(fetchGroups);
         return pmf;
     }
 
 	@Override
-	public void addFetchGroups(FetchGroup... arg0) {
+	public void addFetchGroups(FetchGroup... groups) {
 		checkOpen(); //? TZ
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		for (FetchGroup fg: groups) {
+			if (!(fg instanceof FetchGroupImpl)) {
+				throw DBLogger.newUser("Fetch group was not created by ZooDB: " + fg);
+			}
+		}
+		synchronized (fetchGroups) {
+			for (FetchGroup fg: groups) {
+				fg.setUnmodifiable();
+				//replace existing groups with the same name and class
+				fetchGroups.remove(fg);
+				fetchGroups.add((FetchGroupImpl) fg);
+			}
+		}
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -160,7 +170,7 @@ public class PersistenceManagerFactoryImpl
 	}
 
 	@Override
-	public void close() {
+	public synchronized void close() {
 		for (PersistenceManagerImpl pm: pms) {
 			if (!pm.isClosed()) {
 				throw new JDOUserException("Found open PersistenceManager. ", 
@@ -221,16 +231,37 @@ public class PersistenceManagerFactoryImpl
 
 	@SuppressWarnings("rawtypes")
 	@Override
-	public FetchGroup getFetchGroup(Class arg0, String arg1) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+	public FetchGroup getFetchGroup(Class cls, String name) {
+		FetchGroupImpl def = getFetchGroupDefinition(cls, name);
+		return def != null ? new FetchGroupImpl(def, null) : new FetchGroupImpl(cls, name, null);
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Set getFetchGroups() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		return getActiveFetchGroups();
+	}
+	
+	/**
+	 * @param cls
+	 * @param name
+	 * @return The active fetch group with the given class and name or 'null' if there is none.
+	 */
+	FetchGroupImpl getFetchGroupDefinition(Class<?> cls, String name) {
+		synchronized (fetchGroups) {
+			for (FetchGroupImpl fg: fetchGroups) {
+				if (fg.getType() == cls && fg.getName().equals(name)) {
+					return fg;
+				}
+			}
+		}
+		return null;
+	}
+	
+	Set<FetchGroupImpl> getActiveFetchGroups() {
+		synchronized (fetchGroups) {
+			return new HashSet<FetchGroupImpl>(fetchGroups);
+		}
 	}
 
 	@Override
@@ -306,15 +337,19 @@ public class PersistenceManagerFactoryImpl
 	@Override
 	public void removeAllFetchGroups() {
 		checkOpen(); //? TZ
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		synchronized (fetchGroups) {
+			fetchGroups.clear();
+		}
 	}
 
 	@Override
-	public void removeFetchGroups(FetchGroup... arg0) {
+	public void removeFetchGroups(FetchGroup... groups) {
 		checkOpen(); //? TZ
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		synchronized (fetchGroups) {
+			for (FetchGroup fg: groups) {
+				fetchGroups.remove(fg);
+			}
+		}
 	}
 
 	@Override
@@ -452,7 +487,7 @@ public class PersistenceManagerFactoryImpl
 		}
 	}
 
-	void deRegister(PersistenceManagerImpl persistenceManagerImpl) {
+	synchronized void deRegister(PersistenceManagerImpl persistenceManagerImpl) {
 		pms.remove(persistenceManagerImpl);
 	}
 
@@ -20,11 +20,14 @@
  */
 package org.zoodb.jdo.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -75,7 +78,9 @@ public class PersistenceManagerImpl implements PersistenceManager {
     
     private Session nativeConnection;
     
-    private final FetchPlan fetchplan = new FetchPlanImpl();
+    private final FetchPlanImpl fetchplan = new FetchPlanImpl(this);
+    
+    private final Set<FetchGroupImpl> fetchGroups = new HashSet<FetchGroupImpl>();
     
     /**
      * @param props
@@ -87,6 +92,7 @@ public class PersistenceManagerImpl implements PersistenceManager {
         cfg.setAutoCreateSchema(factory.getAutoCreateSchema());
         cfg.setEvictPrimitives(factory.getEvictPrimitives());
     	nativeConnection = new Session(this, factory.getConnectionURL(), cfg);
+    	nativeConnection.setMultithreaded(factory.getMultithreaded());
         transaction = new TransactionImpl(this, 
         		factory.getRetainValues(),
         		factory.getOptimistic(),
@@ -357,7 +363,14 @@ public class PersistenceManagerImpl implements PersistenceManager {
 	@Override
     public Collection getObjectsById(Collection oids) {
         checkOpen();
-        throw new UnsupportedOperationException();
+        Object[] res = nativeConnection.getObjectsById(oids);
+        int i = 0;
+        for (Object oid: oids) {
+        	if (res[i++] == null) {
+        		throw new JDOObjectNotFoundException("OID=" + Util.oidToString(oid));
+        	}
+        }
+        return new ArrayList<Object>(Arrays.asList(res));
     }
 
     /**
@@ -473,18 +486,60 @@ public class PersistenceManagerImpl implements PersistenceManager {
 
 	@SuppressWarnings("rawtypes")
 	@Override
-	public FetchGroup getFetchGroup(Class arg0, String arg1) {
+	public FetchGroup getFetchGroup(Class cls, String name) {
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+        for (FetchGroupImpl fg: fetchGroups) {
+        	if (fg.getType() == cls && fg.getName().equals(name)) {
+        		return fg;
+        	}
+        }
+        FetchGroupImpl def = factory.getFetchGroupDefinition(cls, name);
+        FetchGroupImpl fg = def != null ? 
+        		new FetchGroupImpl(def, this) : new FetchGroupImpl(cls, name, this);
+        fetchGroups.add(fg);
+        updateFetchGroups();
+        return fg;
 	}
 
 	@Override
 	public FetchPlan getFetchPlan() {
         checkOpen();
-        DBLogger.debugPrint(1, "STUB PersistenceManagerImpl.getFetchPlan()");
         return fetchplan;
 	}
+	
+	/**
+	 * Passes the fields of the fetch groups in the current fetch plan to the session.
+	 * Groups of this PersistenceManager override groups of the factory with the same name and
+	 * class.
+	 */
+	void updateFetchGroups() {
+		if (fetchplan.isLoadingAllFields()) {
+			nativeConnection.setFetchGroups(null);
+			return;
+		}
+		Map<Class<?>, Set<String>> map = new HashMap<Class<?>, Set<String>>();
+		for (FetchGroupImpl fg: factory.getActiveFetchGroups()) {
+			if (fetchplan.hasGroup(fg.getName()) && !fetchGroups.contains(fg)) {
+				addFetchGroupMembers(map, fg);
+			}
+		}
+		for (FetchGroupImpl fg: fetchGroups) {
+			if (fetchplan.hasGroup(fg.getName())) {
+				addFetchGroupMembers(map, fg);
+			}
+		}
+		nativeConnection.setFetchGroups(map.isEmpty() ? null : map);
+	}
+	
+	private static void addFetchGroupMembers(Map<Class<?>, Set<String>> map, 
+			FetchGroupImpl fg) {
+		Set<String> members = map.get(fg.getType());
+		if (members == null) {
+			members = new HashSet<String>();
+			map.put(fg.getType(), members);
+		}
+		members.addAll(fg.getMemberNames());
+	}
 
 	@Override
 	public boolean getIgnoreCache() {
@@ -551,8 +606,7 @@ public class PersistenceManagerImpl implements PersistenceManager {
 	@Override
 	public boolean getMultithreaded() {
         checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		return nativeConnection.getMultithreaded();
 	}
 
 	@Override
@@ -573,17 +627,14 @@ public class PersistenceManagerImpl implements PersistenceManager {
 	}
 
 	@Override
-	public Object[] getObjectsById(Object[] arg0, boolean arg1) {
-        checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+	public Object[] getObjectsById(Object[] oids, boolean validate) {
+		//see getObjectById(Object, boolean)
+		return getObjectsById(oids);
 	}
 
 	@Override
-	public Object[] getObjectsById(boolean arg0, Object... arg1) {
-        checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+	public Object[] getObjectsById(boolean validate, Object... oids) {
+		return getObjectsById(oids);
 	}
 
 	@Override
@@ -927,8 +978,7 @@ public class PersistenceManagerImpl implements PersistenceManager {
 	@Override
 	public void setMultithreaded(boolean arg0) {
 		checkOpenIgnoreTx();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		nativeConnection.setMultithreaded(arg0);
 	}
 
 	@Override
@@ -940,10 +990,9 @@ public class PersistenceManagerImpl implements PersistenceManager {
 
 	@SuppressWarnings("rawtypes")
 	@Override
-	public Collection getObjectsById(Collection arg0, boolean arg1) {
-        checkOpen();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+	public Collection getObjectsById(Collection oids, boolean validate) {
+		//see getObjectById(Object, boolean)
+		return getObjectsById(oids);
 	}
 	
 	/**
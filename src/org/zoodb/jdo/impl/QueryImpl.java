@@ -26,12 +26,13 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
 import javax.jdo.Extent;
 import javax.jdo.FetchPlan;
 import javax.jdo.JDOUserException;
+import javax.jdo.ObjectState;
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
 
@@ -39,10 +40,13 @@ import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
+import org.zoodb.internal.client.session.ClientSessionCache;
 import org.zoodb.internal.query.QueryAdvice;
+import org.zoodb.internal.query.QueryComparator;
 import org.zoodb.internal.query.QueryOptimizer;
 import org.zoodb.internal.query.QueryParameter;
 import org.zoodb.internal.query.QueryParser;
+import org.zoodb.internal.query.QuerySorter;
 import org.zoodb.internal.query.QueryTerm;
 import org.zoodb.internal.query.QueryTreeIterator;
 import org.zoodb.internal.query.QueryTreeNode;
@@ -72,11 +76,19 @@ public class QueryImpl implements Query {
 	
 	private boolean unique = false;
 	private boolean subClasses = true;
-	private boolean ascending = true;
 	private boolean ignoreCache = true;
+	private String ordering = null;
+	private long rangeFrom = 0;
+	private long rangeTo = Long.MAX_VALUE;
+	//range parameters, their values are assigned for every execution
+	private QueryParameter rangeFromParam = null;
+	private QueryParameter rangeToParam = null;
+	//range set with setRange(String), it is parsed with the filter
+	private String range = null;
 	
 	private String resultSettings = null;
 	private Class<?> resultClass = null;
+	private String grouping = null;
 	
 	private final ObjectIdentitySet<Object> queryResults = new ObjectIdentitySet<Object>();
 
@@ -186,6 +198,10 @@ public class QueryImpl implements Query {
 			q = q.substring(5).trim();
 			this.filter = q;
 			//TODO
+		} else if (tok.toLowerCase().equals("parameters") || tok.toLowerCase().equals("group") ||
+				tok.toLowerCase().equals("order") || tok.toLowerCase().equals("range")) {
+			//no filter, the clauses are parsed with the filter
+			this.filter = q;
 		} else {
 		    //maybe the query is finished?
 		    if (!tok.toLowerCase().equals("")) {
@@ -246,13 +262,15 @@ public class QueryImpl implements Query {
 
 	@Override
 	public void close(Object queryResult) {
-		Object qr = queryResults.remove(queryResult);
-		if (qr == null) {
+		if (!queryResults.remove(queryResult)) {
 			//TODO what does JDO say about this?
 			DBLogger.debugPrintln(0, "QueryResult not found.");
 			return;
 		}
-		if (qr instanceof ExtentAdaptor) {
+		Object qr = queryResult;
+		if (qr instanceof LazyQueryResult) {
+			((LazyQueryResult<?>)qr).close();
+		} else if (qr instanceof ExtentAdaptor) {
 			((ExtentAdaptor<?>)qr).closeAll();
 		} else if (qr instanceof ExtentImpl) {
 			((ExtentImpl<?>)qr).closeAll();
@@ -277,8 +295,19 @@ public class QueryImpl implements Query {
 	}
 	
 	private void compileQuery() {
-		if (filter == null || filter.length() == 0) {
-			return;
+		if (rangeFromParam != null || rangeToParam != null) {
+			//the range is parsed again
+			rangeFromParam = null;
+			rangeToParam = null;
+			rangeFrom = 0;
+			rangeTo = Long.MAX_VALUE;
+		}
+		boolean hasFilter = filter != null && filter.length() > 0;
+		if (!hasFilter) {
+			queryTree = null;
+			if (range == null || isDummyQuery) {
+				return;
+			}
 		}
 		//TODO compile only if it was not already compiled, unless the filter changed...
 		
@@ -287,9 +316,39 @@ public class QueryImpl implements Query {
 		//Probably not: 
 		//- every parameter change would require rebuilding the tree
 		//- we would require an additional parser to assign the parameters
+		//keep declared types, for example if the range is set after declareParameters()
+		List<QueryParameter> declared = new ArrayList<QueryParameter>(parameters);
 		parameters.clear(); //See Test_122: We need to clear this for setFilter() calls
 		QueryParser qp = new QueryParser(filter, candClsDef, parameters); 
-		queryTree = qp.parseQuery();
+		if (hasFilter) {
+			queryTree = qp.parseQuery();
+			if (qp.getGrouping() != null) {
+				grouping = qp.getGrouping();
+			}
+			if (qp.getOrdering() != null) {
+				ordering = qp.getOrdering();
+			}
+		}
+		if (range != null && !qp.hasRange()) {
+			//parameters of the range follow the parameters of the filter
+			qp.parseRange(range);
+		}
+		if (qp.hasRange()) {
+			rangeFromParam = qp.getRangeFromParam();
+			rangeToParam = qp.getRangeToParam();
+			if (rangeFromParam == null && rangeToParam == null) {
+				checkRange(qp.getRangeFrom(), qp.getRangeTo());
+			}
+			rangeFrom = qp.getRangeFrom();
+			rangeTo = qp.getRangeTo();
+		}
+		for (QueryParameter p: parameters) {
+			for (QueryParameter d: declared) {
+				if (p.getType() == null && p.getName().equals(d.getName())) {
+					p.setType(d.getType());
+				}
+			}
+		}
 	}
 
 	@Override
@@ -396,6 +455,32 @@ public class QueryImpl implements Query {
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * Assigns the values of the range parameters, if any.
+	 */
+	private void assignRangeParameters() {
+		if (rangeFromParam == null && rangeToParam == null) {
+			return;
+		}
+		long from = rangeFromParam != null ? getRangeValue(rangeFromParam) : rangeFrom;
+		long to = rangeToParam != null ? getRangeValue(rangeToParam) : rangeTo;
+		checkRange(from, to);
+		rangeFrom = from;
+		rangeTo = to;
+	}
+	
+	private long getRangeValue(QueryParameter param) {
+		if (param.getType() == null) {
+			throw new JDOUserException("Parameter has not been declared: " + param.getName());
+		}
+		Object value = param.getValue();
+		if (!(value instanceof Number)) {
+			throw DBLogger.newUser("Range parameter '" + param.getName() + 
+					"' must be a number: " + value);
+		}
+		return ((Number)value).longValue();
+	}
+	
 	private void assignParametersToQueryTree(QueryTreeNode queryTree) {
 		QueryTreeIterator iter = queryTree.termIterator();
 		while (iter.hasNext()) {
@@ -427,59 +512,151 @@ public class QueryImpl implements Query {
 		}
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private void applyQueryOnExtent(List<Object> ret, QueryAdvice qa) {
-		QueryTreeNode queryTree = qa.getQuery();
-		Iterator<?> ext2;
-		if (qa.getIndex() != null) {
-			//TODO other nodes...
-			ext2 = pm.getSession().getPrimaryNode().readObjectFromIndex(qa.getIndex(),
-					qa.getMin(), qa.getMax(), !ignoreCache);
-			//System.out.println("Index: " + qa.getIndex().getName() + "  " + qa.getMin() + "/" + qa.getMax());
-		} else {
-			//use extent
-			if (ext != null) {
-				//use user-defined extent
-				ext2 = ext.iterator();
+	/**
+	 * @return An iterator over the extent of the class that skips objects that do not match 
+	 * the filter.
+	 */
+	private <T> Iterator<T> extentIterator(Class<T> cls, QueryTreeNode filter) {
+		return new ExtentImpl<T>(cls, subClasses, pm, ignoreCache).iterator(filter);
+	}
+	
+	/**
+	 * Iterator over all candidates of the sub-queries that match the query.
+	 * If there is more than one sub-query, or if index ranges need to be intersected, 
+	 * the OIDs are read from the indices and merged before any object is loaded. 
+	 */
+	private class QueryIterator implements CloseableIterator<Object> {
+		private final QueryTreeNode queryTree;
+		private final Iterator<?> ext2;
+		//This is used to check the class of a user-defined extent
+		private final Class<?> supCls;
+		private final boolean hasSub;
+		//This is used to exclude sub-classes in index scans
+		private final boolean checkClass;
+		private Object next = null;
+		
+		@SuppressWarnings("unchecked")
+		QueryIterator(List<QueryAdvice> advices) {
+			QueryAdvice qa = advices.get(0);
+			queryTree = advices.size() > 1 ? QueryImpl.this.queryTree : qa.getQuery();
+			if (advices.size() > 1 || qa.hasIntersections()) {
+				//TODO other nodes...
+				ext2 = pm.getSession().getPrimaryNode().readObjectFromIndices(
+						advices, !ignoreCache, queryTree);
+			} else if (qa.getCompositeIndex() != null) {
+				ext2 = pm.getSession().getPrimaryNode().readObjectFromIndex(
+						qa.getCompositeIndex(), qa.getMinString(), qa.getMaxString(), 
+						qa.isAscending(), !ignoreCache, queryTree);
+			} else if (qa.getIndex() != null) {
+				//TODO other nodes...
+				if (qa.getIndex().isString()) {
+					ext2 = pm.getSession().getPrimaryNode().readObjectFromIndex(qa.getIndex(),
+							qa.getMinString(), qa.getMaxString(), qa.isAscending(), !ignoreCache, 
+							queryTree);
+				} else {
+					ext2 = pm.getSession().getPrimaryNode().readObjectFromIndex(qa.getIndex(),
+							qa.getMin(), qa.getMax(), qa.isAscending(), !ignoreCache, queryTree);
+				}
+			} else {
+				//use extent
+				if (ext != null) {
+					//use user-defined extent
+					ext2 = ext.iterator();
+				} else {
+					//create type extent, objects that don't match are skipped without deserializing
+					ext2 = extentIterator(candCls, queryTree);
+				}
+			}
+			if (ext != null && 
+					(!ext.hasSubclasses() || !ext.getCandidateClass().isAssignableFrom(candCls))) {
+				hasSub = ext.hasSubclasses();
+				supCls = ext.getCandidateClass();
+				checkClass = false;
 			} else {
-				//create type extent
-				ext2 = new ExtentImpl(candCls, subClasses, pm, ignoreCache).iterator();
+				// normal iteration (ignoring the possibly existing compatible extent to allow indices)
+				hasSub = true;
+				supCls = null;
+				checkClass = !subClasses && qa.isIndexed(); 
 			}
+			findNext();
 		}
 		
-		if (ext != null && (!ext.hasSubclasses() || !ext.getCandidateClass().isAssignableFrom(candCls))) {
-			final boolean hasSub = ext.hasSubclasses();
-			final Class supCls = ext.getCandidateClass();
-			// normal iteration
+		private void findNext() {
 			while (ext2.hasNext()) {
 				Object o = ext2.next();
-				if (hasSub) {
-					if (!supCls.isAssignableFrom(o.getClass())) {
-						continue;
-					}
-				} else {
-					if (supCls != o.getClass()) {
-						continue;
+				if (supCls != null) {
+					if (hasSub) {
+						if (!supCls.isAssignableFrom(o.getClass())) {
+							continue;
+						}
+					} else {
+						if (supCls != o.getClass()) {
+							continue;
+						}
 					}
 				}
-				boolean isMatch = queryTree.evaluate(o);
-				if (isMatch) {
-					ret.add(o);
+				if (checkClass && o.getClass() != candCls) {
+					continue;
 				}
-			}
-		} else {
-			// normal iteration (ignoring the possibly existing compatible extent to allow indices)
-			while (ext2.hasNext()) {
-				Object o = ext2.next();
-				boolean isMatch = queryTree.evaluate(o);
-				if (isMatch) {
-					ret.add(o);
+				if (queryTree == null || queryTree.evaluate(o)) {
+					next = o;
+					return;
 				}
 			}
+			next = null;
+			close();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		@Override
+		public Object next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Object ret = next;
+			findNext();
+			return ret;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public void refresh() {
+			if (ext2 instanceof CloseableIterator) {
+				((CloseableIterator<?>)ext2).refresh();
+			}
+		}
+		
+		@Override
+		public void close() {
+			next = null;
+			if (ext2 instanceof CloseableIterator) {
+				((CloseableIterator<?>)ext2).close();
+			}
 		}
-		if (ext2 instanceof CloseableIterator) {
-			((CloseableIterator)ext2).close();
+	}
+	
+	/**
+	 * 
+	 * @param ret
+	 * @param advices
+	 * @param max The maximum number of results to add. 
+	 */
+	private void applyQueryOnExtent(List<Object> ret, List<QueryAdvice> advices, long max) {
+		QueryIterator iter = new QueryIterator(advices);
+		long n = 0;
+		while (n < max && iter.hasNext()) {
+			ret.add(iter.next());
+			n++;
 		}
+		iter.close();
 	}
 	
 	private void checkParamCount(int i) {
@@ -499,49 +676,177 @@ public class QueryImpl implements Query {
 			return new LinkedList<Object>();
 		}
 
-		//assign parameters
-		assignParametersToQueryTree(queryTree);
+		assignRangeParameters();
+		
 		//This is only for indices, not for given extents
-		QueryOptimizer qo = new QueryOptimizer(candClsDef);
-		indexToUse = qo.determineIndexToUse(queryTree);
+		QueryOptimizer qo = new QueryOptimizer(candClsDef, pm.getSession().getPrimaryNode());
+		if (queryTree != null) {
+			//assign parameters
+			assignParametersToQueryTree(queryTree);
+			indexToUse = qo.determineIndexToUse(queryTree);
+		} else {
+			//no filter, this happens only for ordered or ranged queries 
+			indexToUse = new LinkedList<QueryAdvice>();
+			indexToUse.add(new QueryAdvice(null));
+		}
+		
+		//Aggregates do not depend on the ordering
+		Object aggregates = processAggregates(indexToUse);
+		if (aggregates != null) {
+			return aggregates;
+		}
+		
+		QueryComparator comparator = null;
+		boolean addNewObjects = false;
+		if (ordering != null) {
+			comparator = new QueryComparator(ordering, candClsDef);
+			//If the extent scan is replaced by an index scan, we have to add new objects
+			addNewObjects = qo.applyOrdering(indexToUse, comparator) && !ignoreCache;
+		}
+		
+		//Can we stream the result?
+		if (resultSettings == null && !unique) {
+			QueryAdvice qa = indexToUse.get(0);
+			if (comparator == null || (indexToUse.size() == 1 && comparator.hasSingleField() && 
+					qa.getIndex() == comparator.getFirstField() && isCacheClean())) {
+				final List<QueryAdvice> advices = indexToUse;
+				LazyQueryResult<Object> result = new LazyQueryResult<Object>(
+						new QueryIterator(advices), rangeFrom, rangeTo) {
+					@Override
+					protected CloseableIterator<Object> newIterator() {
+						return new QueryIterator(advices);
+					}
+				};
+				queryResults.add(result);
+				return result;
+			}
+		}
 
 		//TODO can also return a list with (yet) unknown size. In that case size() should return
 		//Integer.MAX_VALUE (JDO 2.2 14.6.1)
 		ArrayList<Object> ret = new ArrayList<Object>();
-		for (QueryAdvice qa: indexToUse) {
-			applyQueryOnExtent(ret, qa);
+		QuerySorter sorter = null;
+		if (comparator == null) {
+			//Without sorting we can stop at the end of the range
+			applyQueryOnExtent(ret, indexToUse, rangeTo);
+		} else {
+			//The sorter keeps only objects that can be in the range
+			sorter = new QuerySorter(comparator, rangeTo, pm.getSession());
+			QueryIterator iter = new QueryIterator(indexToUse);
+			while (iter.hasNext()) {
+				sorter.add(iter.next());
+			}
+			iter.close();
 		}
-		
-		//Now check if we need to check for duplicates, i.e. if multiple indices were used.
-		for (QueryAdvice qa: indexToUse) {
-			if (qa.getIndex() != indexToUse.get(0).getIndex()) {
-				DBLogger.debugPrintln(0, "Merging query results(A)!");
-				System.out.println("Merging query results(A)!");
-				Set<Object> ret2 = new ObjectIdentitySet<Object>();
-				ret2.addAll(ret);
-				return postProcess(ret2);
+		if (addNewObjects) {
+			Iterator<ZooPCImpl> it = pm.getSession().internalGetCache().iterator(
+					candClsDef, subClasses, ObjectState.PERSISTENT_NEW);
+			while (it.hasNext()) {
+				ZooPCImpl o = it.next();
+				if (queryTree == null || queryTree.evaluate(o)) {
+					if (sorter != null) {
+						sorter.add(o);
+					} else {
+						ret.add(o);
+					}
+				}
 			}
 		}
+		if (sorter != null) {
+			ret = sorter.getResult();
+		}
 		
-		//If we have more than one sub-query, we need to merge anyway, because the result sets may
-		//overlap. 
-		//TODO implement merging of sub-queries!!!
-		if (indexToUse.size() > 1) {
-			DBLogger.debugPrintln(0, "Merging query results(B)!");
-			System.out.println("Merging query results(B)!");
-			Set<Object> ret2 = new ObjectIdentitySet<Object>();
-			ret2.addAll(ret);
-			return postProcess(ret2);
+		//Sub-queries have been merged on their OIDs, so there are no duplicates.
+		Collection<Object> result = ret;
+		
+		if (hasRange()) {
+			ArrayList<Object> ranged = new ArrayList<Object>();
+			long pos = 0;
+			for (Object o: result) {
+				if (pos >= rangeTo) {
+					break;
+				}
+				if (pos >= rangeFrom) {
+					ranged.add(o);
+				}
+				pos++;
+			}
+			result = ranged;
 		}
 		
-		return postProcess(ret);
+		return postProcess(result);
+	}
+	
+	/**
+	 * @return {@code true} if the cache contains no new or modified objects that would 
+	 * be returned in the wrong order by an index scan.
+	 */
+	private boolean isCacheClean() {
+		if (ignoreCache) {
+			return true;
+		}
+		ClientSessionCache cache = pm.getSession().internalGetCache();
+		return !cache.iterator(candClsDef, subClasses, ObjectState.PERSISTENT_DIRTY).hasNext() &&
+				!cache.iterator(candClsDef, subClasses, ObjectState.PERSISTENT_NEW).hasNext();
+	}
+	
+	/**
+	 * @return {@code true} if the cache contains no new, modified or deleted instances of the
+	 * candidate class. This is required for evaluating queries on serialized objects.
+	 */
+	private boolean isCacheUnmodified() {
+		ClientSessionCache cache = pm.getSession().internalGetCache();
+		return !cache.iterator(candClsDef, subClasses, ObjectState.PERSISTENT_DIRTY).hasNext() &&
+				!cache.iterator(candClsDef, subClasses, ObjectState.PERSISTENT_NEW).hasNext() &&
+				!cache.iterator(candClsDef, subClasses, ObjectState.PERSISTENT_DELETED).hasNext() &&
+				!cache.iterator(candClsDef, subClasses, 
+						ObjectState.PERSISTENT_NEW_DELETED).hasNext();
+	}
+	
+	/**
+	 * Computes aggregates such as 'count(this)' or 'sum(x)' without materializing the 
+	 * candidate objects, if possible.
+	 * @param advices The index advices, or {@code null} if there is no filter.
+	 * @return The aggregate(s) or {@code null} if the objects have to be loaded.
+	 */
+	@SuppressWarnings("unchecked")
+	private Object processAggregates(List<QueryAdvice> advices) {
+		if (grouping != null && resultSettings == null) {
+			throw DBLogger.newUser("Grouping requires a result definition.");
+		}
+		if (resultSettings == null || hasRange() || !isCacheUnmodified()) {
+			return null;
+		}
+		if (ext != null && 
+				(ext.getCandidateClass() != candCls || ext.hasSubclasses() != subClasses)) {
+			//user-defined extent
+			return null;
+		}
+		QueryResultProcessor rp = new QueryResultProcessor(resultSettings, candCls, candClsDef, 
+				resultClass, grouping);
+		if (advices != null && advices.size() == 1 && !advices.get(0).isIndexed()) {
+			//extent scan
+			advices = null;
+		}
+		Object o = rp.processAggregates(pm.getSession().getPrimaryNode(), candClsDef, 
+				subClasses, advices, queryTree);
+		if (o instanceof Collection) {
+			//grouped result
+			return applyUnique((Collection<Object>) o);
+		}
+		return o;
+	}
+	
+	private boolean hasRange() {
+		return rangeFrom > 0 || rangeTo < Long.MAX_VALUE || 
+				rangeFromParam != null || rangeToParam != null;
 	}
 
 	@SuppressWarnings("unchecked")
 	private Object postProcess(Collection<Object> c) {
 		if (resultSettings != null) {
-			QueryResultProcessor rp = 
-					new QueryResultProcessor(resultSettings, candCls, candClsDef, resultClass);
+			QueryResultProcessor rp = new QueryResultProcessor(resultSettings, candCls, 
+					candClsDef, resultClass, grouping);
 			Object o = rp.processResult(c, unique);
 			if (!(o instanceof Collection)) {
 				//must be an aggregate
@@ -549,6 +854,10 @@ public class QueryImpl implements Query {
 			}
 			c = (Collection<Object>) o;
 		}
+		return applyUnique(c);
+	}
+	
+	private Object applyUnique(Collection<Object> c) {
 		if (unique) {
 			//unique
 			Iterator<Object> iter = c.iterator();
@@ -570,15 +879,21 @@ public class QueryImpl implements Query {
 	@Override
 	public Object execute() {
 		//now go through extent. Skip this if extent was generated on server from local filters.
-		if (filter.equals("")) {
+		if (filter.equals("") && ordering == null && !hasRange()) {
 			if (isDummyQuery) {
 				//empty result is no schema is defined (auto-create schema)
 				return new LinkedList<Object>();
 			}
+			Object aggregates = processAggregates(null);
+			if (aggregates != null) {
+				return aggregates;
+			}
 	        if (ext == null) {
 	            ext = new ExtentImpl(candCls, subClasses, pm, ignoreCache);
 	        }
-			return postProcess(new ExtentAdaptor(ext));
+	        ExtentAdaptor result = new ExtentAdaptor(ext);
+	        queryResults.add(result);
+			return postProcess(result);
 		}
 		
 		checkParamCount(0);
@@ -713,8 +1028,10 @@ public class QueryImpl implements Query {
 	@Override
 	public void setGrouping(String group) {
 		checkUnmodifiable();
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		if (group != null && group.trim().length() == 0) {
+			group = null;
+		}
+		this.grouping = group;
 	}
 
 	@Override
@@ -725,21 +1042,49 @@ public class QueryImpl implements Query {
 	@Override
 	public void setOrdering(String ordering) {
 		checkUnmodifiable();
-		ascending = true;
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		if (ordering != null && ordering.trim().length() == 0) {
+			ordering = null;
+		}
+		this.ordering = ordering;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * The bounds can be numbers or parameters, for example "0, 10" or ":from, :to". 
+	 * Parameters of the range follow the parameters of the filter.
+	 */
 	@Override
 	public void setRange(String fromInclToExcl) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		checkUnmodifiable();
+		String prev = range;
+		range = fromInclToExcl;
+		try {
+			compileQuery();
+		} catch (RuntimeException e) {
+			range = prev;
+			compileQuery();
+			throw e;
+		}
 	}
 
 	@Override
 	public void setRange(long fromIncl, long toExcl) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException();
+		checkUnmodifiable();
+		checkRange(fromIncl, toExcl);
+		if (range != null) {
+			range = null;
+			compileQuery();
+		}
+		rangeFromParam = null;
+		rangeToParam = null;
+		rangeFrom = fromIncl;
+		rangeTo = toExcl;
+	}
+	
+	private void checkRange(long fromIncl, long toExcl) {
+		if (fromIncl < 0 || toExcl < fromIncl) {
+			throw DBLogger.newUser("Invalid range: " + fromIncl + " - " + toExcl);
+		}
 	}
 
 	@Override
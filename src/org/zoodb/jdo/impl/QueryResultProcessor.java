@@ -23,10 +23,22 @@ package org.zoodb.jdo.impl;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import org.zoodb.api.impl.ZooPCImpl;
+import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
+import org.zoodb.internal.ZooClassProxy;
 import org.zoodb.internal.ZooFieldDef;
 import org.zoodb.internal.SerializerTools.PRIMITIVE;
+import org.zoodb.internal.query.QueryAccumulator;
+import org.zoodb.internal.query.QueryAdvice;
+import org.zoodb.internal.query.QueryGroupTable;
+import org.zoodb.internal.query.QueryGroupTable.AGG;
+import org.zoodb.internal.query.QueryGroupTable.GroupIterator;
+import org.zoodb.internal.query.QueryTreeNode;
+import org.zoodb.internal.server.index.BitTools;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
 import org.zoodb.internal.util.DBLogger;
 
 /**
@@ -34,6 +46,10 @@ import org.zoodb.internal.util.DBLogger;
  * 
  * See Jdo 2.2 spec 14.6.9.
  * 
+ * Grouped queries are aggregated with a {@link QueryGroupTable}. Grouping is supported on 
+ * primitive fields, the HAVING clause may compare aggregates and grouping fields with 
+ * literals.
+ * 
  * @author Tilmann Zaeschke
  *
  */
@@ -41,13 +57,20 @@ class QueryResultProcessor {
 
 	private final ArrayList<Item> items = new ArrayList<Item>();
 	private boolean isProjection = false;
+	/** Grouping fields, the position in the list is the position in the group key. */
+	private final ArrayList<FIELD> groupFields = new ArrayList<FIELD>();
+	/** Aggregates of grouped queries, including those that occur only in HAVING. */
+	private final ArrayList<Item> aggItems = new ArrayList<Item>();
+	private Having having = null;
 	
 	
-	private static abstract class Item {
+	private static abstract class Item implements QueryAccumulator {
 		ZooFieldDef field;
 		Field jField;
 		Class<?> resultClass;
 		boolean isFloat;
+		/** Column of the aggregate in the group table. */
+		int column = -1;
 		void setField(ZooFieldDef field, Class<?> resultClass) {
 			this.field = field;
 			if (field.getJavaField() == null) {
@@ -61,7 +84,16 @@ class QueryResultProcessor {
 			isFloat = field.getPrimitiveType() == PRIMITIVE.FLOAT || 
 					field.getPrimitiveType() == PRIMITIVE.DOUBLE;
 		}
+		/**
+		 * Loads the field if the object has been loaded only partially.
+		 */
+		private void activate(Object o) {
+			if (o instanceof ZooPCImpl) {
+				((ZooPCImpl)o).jdoZooActivateField(field.getFieldPos());
+			}
+		}
 		protected Object getValue(Object o) {
+			activate(o);
 			try {
 				return jField.get(o);
 			} catch (IllegalArgumentException e) {
@@ -71,6 +103,7 @@ class QueryResultProcessor {
 			}
 		}
 		protected double getFloat(Object o) {
+			activate(o);
 			try {
 				switch (field.getPrimitiveType()) {
 				case DOUBLE: return jField.getDouble(o);
@@ -83,6 +116,7 @@ class QueryResultProcessor {
 			}
 		}
 		protected long getInt(Object o) {
+			activate(o);
 			try {
 				switch (field.getPrimitiveType()) {
 				case BYTE: return jField.getByte(o);
@@ -119,7 +153,65 @@ class QueryResultProcessor {
 	    		throw new UnsupportedOperationException(field.getPrimitiveType().name());
 			}
 		}
-		abstract void add(Object o);
+		void add(Object o) {
+			if (isFloat) {
+				accumulate(getFloat(o));
+			} else {
+				accumulate(getInt(o));
+			}
+		}
+		@Override
+		public ZooFieldDef getAccumulatedField() {
+			return field;
+		}
+		/**
+		 * @return Whether the aggregate can be computed from serialized objects.
+		 */
+		boolean isAccumulable() {
+			if (!field.isPrimitiveType()) {
+				return false;
+			}
+			return field.getPrimitiveType() != PRIMITIVE.BOOLEAN;
+		}
+		/**
+		 * @return Whether the aggregate can be computed from the first or last entry of the 
+		 * field index. 
+		 */
+		boolean isIndexBoundary() {
+			return false;
+		}
+		/**
+		 * @return The value of the field, encoded as described in {@link QueryGroupTable}.
+		 */
+		long getRowValue(Object o) {
+			activate(o);
+			try {
+				switch (field.getPrimitiveType()) {
+				case BOOLEAN: return jField.getBoolean(o) ? 1 : 0;
+				case DOUBLE: return Double.doubleToRawLongBits(jField.getDouble(o));
+				case FLOAT: return Double.doubleToRawLongBits(jField.getFloat(o));
+				default: return getInt(o);
+				}
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		AGG getGroupAggregate() {
+			throw new UnsupportedOperationException();
+		}
+		long groupLong(GroupIterator g) {
+			return g.getLong(column);
+		}
+		double groupDouble(GroupIterator g) {
+			return g.getDouble(column);
+		}
+		Object groupResult(GroupIterator g) {
+			if (isFloat) {
+				return toFloat(groupDouble(g));
+			} else {
+				return toInt(groupLong(g));
+			}
+		}
 		abstract Object result();
 	}
 	
@@ -128,13 +220,26 @@ class QueryResultProcessor {
 		private long l;
 		long n;
 		@Override
-		void add(Object o) {
+		public void accumulate(long value) {
 			n++;
-			if (isFloat) {
-				d += getFloat(o);
-			} else {
-				l += getInt(o);
-			}
+			l += value;
+		}
+		@Override
+		public void accumulate(double value) {
+			n++;
+			d += value;
+		}
+		@Override
+		AGG getGroupAggregate() {
+			return AGG.SUM;
+		}
+		@Override
+		long groupLong(GroupIterator g) {
+			return g.getLong(column) / g.getCount();
+		}
+		@Override
+		double groupDouble(GroupIterator g) {
+			return g.getDouble(column) / g.getCount();
 		}
 		@Override
 		Object result() {
@@ -152,20 +257,26 @@ class QueryResultProcessor {
 		private double d = Double.NEGATIVE_INFINITY;
 		private long l = Long.MIN_VALUE;
 		@Override
-		void add(Object o) {
-			if (isFloat) {
-				double d2 = getFloat(o);
-				if (d2 > d) {
-					d = d2;
-				}
-			} else {
-				long i2 = getInt(o);
-				if (i2 > l) {
-					l = i2;
-				}
+		public void accumulate(long value) {
+			if (value > l) {
+				l = value;
+			}
+		}
+		@Override
+		public void accumulate(double value) {
+			if (value > d) {
+				d = value;
 			}
 		}
 		@Override
+		AGG getGroupAggregate() {
+			return AGG.MAX;
+		}
+		@Override
+		boolean isIndexBoundary() {
+			return isAccumulable() && field.isIndexed();
+		}
+		@Override
 		Object result() {
 			if (isFloat) {
 				return toFloat(d);
@@ -179,20 +290,26 @@ class QueryResultProcessor {
 		private double d = Double.MAX_VALUE;
 		private long l = Long.MAX_VALUE;
 		@Override
-		void add(Object o) {
-			if (isFloat) {
-				double d2 = getFloat(o);
-				if (d2 < d) {
-					d = d2;
-				}
-			} else {
-				long i2 = getInt(o);
-				if (i2 < l) {
-					l = i2;
-				}
+		public void accumulate(long value) {
+			if (value < l) {
+				l = value;
+			}
+		}
+		@Override
+		public void accumulate(double value) {
+			if (value < d) {
+				d = value;
 			}
 		}
 		@Override
+		AGG getGroupAggregate() {
+			return AGG.MIN;
+		}
+		@Override
+		boolean isIndexBoundary() {
+			return isAccumulable() && field.isIndexed();
+		}
+		@Override
 		Object result() {
 			if (isFloat) {
 				return toFloat(d);
@@ -206,11 +323,23 @@ class QueryResultProcessor {
 		private double d;
 		private long l;
 		@Override
-		void add(Object o) {
+		public void accumulate(long value) {
+			l += value;
+		}
+		@Override
+		public void accumulate(double value) {
+			d += value;
+		}
+		@Override
+		AGG getGroupAggregate() {
+			return AGG.SUM;
+		}
+		@Override
+		Object groupResult(GroupIterator g) {
 			if (isFloat) {
-				d += getFloat(o);
+				return groupDouble(g);
 			} else {
-				l += getInt(o);
+				return groupLong(g);
 			}
 		}
 		@Override
@@ -226,10 +355,54 @@ class QueryResultProcessor {
 	private static class COUNT extends Item {
 		private long n = 0;
 		@Override
+		void setField(ZooFieldDef field, Class<?> resultClass) {
+			//count(this) has no field
+			if (field != null) {
+				super.setField(field, resultClass);
+			}
+		}
+		@Override
 		void add(Object o) {
 			n++;
 		}
 		@Override
+		public ZooFieldDef getAccumulatedField() {
+			//Only objects are counted
+			return null;
+		}
+		@Override
+		public void accumulate(long value) {
+			n += value;
+		}
+		@Override
+		public void accumulate(double value) {
+			throw new UnsupportedOperationException();
+		}
+		@Override
+		boolean isAccumulable() {
+			return true;
+		}
+		@Override
+		long getRowValue(Object o) {
+			return 0;
+		}
+		@Override
+		AGG getGroupAggregate() {
+			return AGG.COUNT;
+		}
+		@Override
+		long groupLong(GroupIterator g) {
+			return g.getCount();
+		}
+		@Override
+		double groupDouble(GroupIterator g) {
+			return g.getCount();
+		}
+		@Override
+		Object groupResult(GroupIterator g) {
+			return g.getCount();
+		}
+		@Override
 		Object result() {
 			return n;
 		}
@@ -237,24 +410,270 @@ class QueryResultProcessor {
 	
 	private static class FIELD extends Item {
 		private Object ret = null;
+		/** Position in the group key. */
+		int key = -1;
 		@Override
 		void add(Object o) {
 			ret = getValue(o);
 		}
 		@Override
+		public void accumulate(long value) {
+			throw new UnsupportedOperationException();
+		}
+		@Override
+		public void accumulate(double value) {
+			throw new UnsupportedOperationException();
+		}
+		@Override
+		boolean isAccumulable() {
+			return false;
+		}
+		@Override
+		long groupLong(GroupIterator g) {
+			return g.getKey(key);
+		}
+		@Override
+		double groupDouble(GroupIterator g) {
+			return Double.longBitsToDouble(g.getKey(key));
+		}
+		@Override
+		Object groupResult(GroupIterator g) {
+			if (field.getPrimitiveType() == PRIMITIVE.BOOLEAN) {
+				return g.getKey(key) != 0;
+			}
+			return super.groupResult(g);
+		}
+		@Override
 		Object result() {
 			return ret;
 		}
 	}
 	
+	private enum CMP {
+		EQ, NE, L, LE, A, AE;
+		boolean matches(int res) {
+			switch (this) {
+			case EQ: return res == 0;
+			case NE: return res != 0;
+			case L: return res < 0;
+			case LE: return res <= 0;
+			case A: return res > 0;
+			case AE: return res >= 0;
+			default: throw new IllegalStateException(name());
+			}
+		}
+	}
+	
+	/**
+	 * Condition of the HAVING clause. This is either a comparison of an aggregate or a 
+	 * grouping field with a literal, or an AND/OR of two conditions.
+	 */
+	private static final class Having {
+		private final Having left;
+		private final Having right;
+		private final boolean isAnd;
+		private final Item operand;
+		private final CMP op;
+		private final boolean isFloatLiteral;
+		private final long lValue;
+		private final double dValue;
+		
+		Having(Having left, Having right, boolean isAnd) {
+			this.left = left;
+			this.right = right;
+			this.isAnd = isAnd;
+			this.operand = null;
+			this.op = null;
+			this.isFloatLiteral = false;
+			this.lValue = 0;
+			this.dValue = 0;
+		}
+		
+		Having(Item operand, CMP op, String literal) {
+			this.left = null;
+			this.right = null;
+			this.isAnd = false;
+			this.operand = operand;
+			this.op = op;
+			try {
+				if (literal.equals("true") || literal.equals("false")) {
+					isFloatLiteral = false;
+					lValue = literal.equals("true") ? 1 : 0;
+					dValue = lValue;
+				} else if (literal.indexOf('.') >= 0 || literal.indexOf('e') >= 0 || 
+						literal.indexOf('E') >= 0 || literal.endsWith("f") || 
+						literal.endsWith("F") || literal.endsWith("d") || literal.endsWith("D")) {
+					isFloatLiteral = true;
+					dValue = Double.parseDouble(literal);
+					lValue = (long) dValue;
+				} else {
+					isFloatLiteral = false;
+					if (literal.endsWith("l") || literal.endsWith("L")) {
+						literal = literal.substring(0, literal.length() - 1);
+					}
+					lValue = Long.parseLong(literal);
+					dValue = lValue;
+				}
+			} catch (NumberFormatException e) {
+				throw DBLogger.newUser("Illegal literal in HAVING clause: " + literal, e);
+			}
+		}
+		
+		boolean evaluate(GroupIterator g) {
+			if (operand == null) {
+				if (isAnd) {
+					return left.evaluate(g) && right.evaluate(g);
+				}
+				return left.evaluate(g) || right.evaluate(g);
+			}
+			int res;
+			if (operand.isFloat && !(operand instanceof COUNT)) {
+				res = Double.compare(operand.groupDouble(g), dValue);
+			} else if (isFloatLiteral) {
+				res = Double.compare(operand.groupLong(g), dValue);
+			} else {
+				long l = operand.groupLong(g);
+				res = l < lValue ? -1 : (l == lValue ? 0 : 1);
+			}
+			return op.matches(res);
+		}
+	}
+	
+	/**
+	 * Parser for the HAVING clause.
+	 */
+	private final class HavingParser {
+		private final String str;
+		private final ZooClassDef candClsDef;
+		private int pos = 0;
+		
+		HavingParser(String str, ZooClassDef candClsDef) {
+			this.str = str;
+			this.candClsDef = candClsDef;
+		}
+		
+		Having parse() {
+			Having h = parseOr();
+			skipWhitespace();
+			if (pos < str.length()) {
+				throw DBLogger.newUser("Unexpected token in HAVING clause at " + pos + ": " + str);
+			}
+			return h;
+		}
+		
+		private Having parseOr() {
+			Having h = parseAnd();
+			while (skip("||")) {
+				h = new Having(h, parseAnd(), false);
+			}
+			return h;
+		}
+		
+		private Having parseAnd() {
+			Having h = parseTerm();
+			while (skip("&&")) {
+				h = new Having(h, parseTerm(), true);
+			}
+			return h;
+		}
+		
+		private Having parseTerm() {
+			if (skip("(")) {
+				Having h = parseOr();
+				if (!skip(")")) {
+					throw DBLogger.newUser("')' expected in HAVING clause at " + pos + ": " + str);
+				}
+				return h;
+			}
+			String name = readToken();
+			Item item;
+			if (skip("(")) {
+				int end = str.indexOf(')', pos);
+				if (end < 0) {
+					throw DBLogger.newUser("')' not found in HAVING clause: " + str);
+				}
+				String arg = str.substring(pos, end).trim();
+				pos = end + 1;
+				item = newAggregate(name);
+				if (item == null) {
+					throw DBLogger.newUser("Unknown aggregate in HAVING clause: " + name);
+				}
+				initItem(item, arg, candClsDef, null);
+				addAggregate(item);
+			} else {
+				ZooFieldDef def = candClsDef.getAllFieldsAsMap().get(name);
+				item = def == null ? null : findGroupField(def);
+				if (item == null) {
+					throw DBLogger.newUser("HAVING clause may only refer to aggregates and " +
+							"grouping fields: " + name);
+				}
+			}
+			CMP op = readOp();
+			String literal = readToken();
+			return new Having(item, op, literal);
+		}
+		
+		private CMP readOp() {
+			if (skip("==")) {
+				return CMP.EQ;
+			} else if (skip("!=")) {
+				return CMP.NE;
+			} else if (skip("<=")) {
+				return CMP.LE;
+			} else if (skip(">=")) {
+				return CMP.AE;
+			} else if (skip("<")) {
+				return CMP.L;
+			} else if (skip(">")) {
+				return CMP.A;
+			}
+			throw DBLogger.newUser("Comparator expected in HAVING clause at " + pos + ": " + str);
+		}
+		
+		private String readToken() {
+			skipWhitespace();
+			int start = pos;
+			while (pos < str.length()) {
+				char c = str.charAt(pos);
+				if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && c != '-' && 
+						c != '+') {
+					break;
+				}
+				pos++;
+			}
+			if (start == pos) {
+				throw DBLogger.newUser("Unexpected token in HAVING clause at " + pos + ": " + str);
+			}
+			return str.substring(start, pos);
+		}
+		
+		private boolean skip(String token) {
+			skipWhitespace();
+			if (str.startsWith(token, pos)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+		
+		private void skipWhitespace() {
+			while (pos < str.length() && Character.isWhitespace(str.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+	
 	/**
 	 * 
 	 * @param data For example: "avg(salary), sum(salary)".  min, max, avg, sum, count
 	 * @param candCls
 	 * @param candClsDef 
+	 * @param resultClass
+	 * @param grouping The grouping, for example "dept, age having count(this) > 1", or
+	 * {@code null}. 
 	 */
 	QueryResultProcessor(String data, Class<?> candCls, ZooClassDef candClsDef, 
-			Class<?> resultClass) {
+			Class<?> resultClass, String grouping) {
 		data = data.trim();
 		while (data.length() > 0) {
 			Item item;
@@ -310,11 +729,7 @@ class QueryResultProcessor {
 			}
 			
 			items.add(item);
-			ZooFieldDef def = candClsDef.getAllFieldsAsMap().get(fieldName);
-			if (def == null) {
-				throw DBLogger.newUser("Invalid fieldname in result definition: " + fieldName);
-			}
-			item.setField(def, resultClass);//getField(candCls, candClsDef, fieldName));
+			initItem(item, fieldName, candClsDef, resultClass);
 
 			if (!data.isEmpty() && data.charAt(0) == ',') {
 				data = data.substring(1).trim();
@@ -324,6 +739,11 @@ class QueryResultProcessor {
 			}
 		}		
 		
+		if (grouping != null) {
+			parseGrouping(grouping, candClsDef);
+			return;
+		}
+		
 		//some verification
 		for (Item i: items) {
 			if (!(i instanceof FIELD) && isProjection) {
@@ -332,7 +752,93 @@ class QueryResultProcessor {
 		}
 	}
 	
+	private static Item newAggregate(String name) {
+		name = name.toLowerCase();
+		if (name.equals("avg")) {
+			return new AVG();
+		} else if (name.equals("max")) {
+			return new MAX();
+		} else if (name.equals("min")) {
+			return new MIN();
+		} else if (name.equals("sum")) {
+			return new SUM();
+		} else if (name.equals("count")) {
+			return new COUNT();
+		}
+		return null;
+	}
+	
+	private static void initItem(Item item, String fieldName, ZooClassDef candClsDef, 
+			Class<?> resultClass) {
+		if (item instanceof COUNT && fieldName.equals("this")) {
+			//count(this) counts the candidate objects
+			item.setField(null, resultClass);
+		} else {
+			ZooFieldDef def = candClsDef.getAllFieldsAsMap().get(fieldName);
+			if (def == null) {
+				throw DBLogger.newUser("Invalid fieldname in result definition: " + fieldName);
+			}
+			item.setField(def, resultClass);//getField(candCls, candClsDef, fieldName));
+		}
+	}
+	
+	private void parseGrouping(String grouping, ZooClassDef candClsDef) {
+		String[] parts = grouping.trim().split("(?i)\\s+having\\s+", 2);
+		for (String name: parts[0].split(",")) {
+			name = name.trim();
+			ZooFieldDef def = candClsDef.getAllFieldsAsMap().get(name);
+			if (def == null) {
+				throw DBLogger.newUser("Invalid fieldname in grouping: " + name);
+			}
+			if (!def.isPrimitiveType()) {
+				throw DBLogger.newUser("Grouping is only supported on primitive fields: " + name);
+			}
+			FIELD f = new FIELD();
+			f.setField(def, null);
+			f.key = groupFields.size();
+			groupFields.add(f);
+		}
+		
+		for (Item item: items) {
+			if (item instanceof FIELD) {
+				FIELD g = findGroupField(item.field);
+				if (g == null) {
+					throw DBLogger.newUser("Result field is not a grouping field: " + 
+							item.field.getName());
+				}
+				((FIELD)item).key = g.key;
+			} else {
+				addAggregate(item);
+			}
+		}
+		
+		if (parts.length > 1) {
+			having = new HavingParser(parts[1], candClsDef).parse();
+		}
+	}
+	
+	private FIELD findGroupField(ZooFieldDef def) {
+		for (FIELD f: groupFields) {
+			if (f.field == def) {
+				return f;
+			}
+		}
+		return null;
+	}
+	
+	private void addAggregate(Item item) {
+		if (!item.isAccumulable()) {
+			throw DBLogger.newUser("Aggregates of grouped queries require numeric fields: " + 
+					item.field.getName());
+		}
+		item.column = aggItems.size();
+		aggItems.add(item);
+	}
+	
 	Object processResult(Collection<Object> in, boolean unique) {
+		if (!groupFields.isEmpty()) {
+			return processGroups(in);
+		}
 		if (unique && isProjection && in.size() > 1) {
 			throw DBLogger.newUser("Non-unique result encountered.");
 		}
@@ -368,18 +874,163 @@ class QueryResultProcessor {
 					i.add(o);
 				}
 			}
-			//prepare returning results
-			if (items.size() == 1) {
-				ret = items.get(0).result();
-			} else {
-				Object[] oa = new Object[items.size()]; 
-				for (int i = 0; i < items.size(); i++) {
-					oa[i] = items.get(i).result(); 
+			ret = aggregateResult();
+		}
+		
+		return ret;
+	}
+
+	private Object processGroups(Collection<Object> in) {
+		QueryGroupTable table = createGroupTable();
+		long[] row = new long[table.getRowWidth()];
+		int nKeys = groupFields.size();
+		for (Object o: in) {
+			for (int i = 0; i < nKeys; i++) {
+				row[i] = groupFields.get(i).getRowValue(o);
+			}
+			for (int i = 0; i < aggItems.size(); i++) {
+				row[nKeys + i] = aggItems.get(i).getRowValue(o);
+			}
+			table.add(row);
+		}
+		return groupResult(table);
+	}
+	
+	private QueryGroupTable createGroupTable() {
+		AGG[] aggs = new AGG[aggItems.size()];
+		boolean[] isFloat = new boolean[aggs.length];
+		for (int i = 0; i < aggs.length; i++) {
+			aggs[i] = aggItems.get(i).getGroupAggregate();
+			isFloat[i] = aggItems.get(i).isFloat;
+		}
+		return new QueryGroupTable(groupFields.size(), aggs, isFloat);
+	}
+	
+	private ArrayList<Object> groupResult(QueryGroupTable table) {
+		ArrayList<Object> r = new ArrayList<Object>();
+		GroupIterator g = table.groups();
+		try {
+			while (g.next()) {
+				if (having != null && !having.evaluate(g)) {
+					continue;
+				}
+				if (items.size() == 1) {
+					r.add(items.get(0).groupResult(g));
+				} else {
+					Object[] oa = new Object[items.size()];
+					for (int i = 0; i < oa.length; i++) {
+						oa[i] = items.get(i).groupResult(g);
+					}
+					r.add(oa);
 				}
-				ret = oa;
+			}
+		} finally {
+			g.close();
+		}
+		return r;
+	}
+	
+	private Object aggregateResult() {
+		if (items.size() == 1) {
+			return items.get(0).result();
+		}
+		Object[] oa = new Object[items.size()]; 
+		for (int i = 0; i < items.size(); i++) {
+			oa[i] = items.get(i).result(); 
+		}
+		return oa;
+	}
+	
+	/**
+	 * Compute aggregates without materializing the candidate objects. Without filter, 
+	 * 'count' is read from the object index and 'min'/'max' of indexed fields are read from 
+	 * the field index. Otherwise the values are read from the serialized objects.
+	 * The caller has to ensure that the cache contains no modified, new or deleted instances
+	 * of the candidate class.
+	 * 
+	 * @param node
+	 * @param candClsDef
+	 * @param subClasses
+	 * @param advices The index advices or {@code null} for a scan of all instances.
+	 * @param filter The query or {@code null}.
+	 * @return The aggregate(s) or {@code null} if the aggregates have to be computed on 
+	 * materialized objects. In that case the processor must not be used anymore.
+	 */
+	Object processAggregates(Node node, ZooClassDef candClsDef, boolean subClasses, 
+			List<QueryAdvice> advices, QueryTreeNode filter) {
+		if (filter != null && !filter.isEvaluableSerialized()) {
+			return null;
+		}
+		ZooClassProxy px = candClsDef.getVersionProxy();
+		if (!groupFields.isEmpty()) {
+			int nKeys = groupFields.size();
+			ZooFieldDef[] columns = new ZooFieldDef[nKeys + aggItems.size()];
+			for (int i = 0; i < nKeys; i++) {
+				columns[i] = groupFields.get(i).field;
+			}
+			for (int i = 0; i < aggItems.size(); i++) {
+				columns[nKeys + i] = aggItems.get(i).getAccumulatedField();
+			}
+			QueryGroupTable table = createGroupTable();
+			if (!node.groupInstances(px, subClasses, advices, filter, columns, table)) {
+				//delete temporary files
+				table.groups().close();
+				return null;
+			}
+			return groupResult(table);
+		}
+		if (isProjection) {
+			return null;
+		}
+		boolean fromIndex = filter == null && advices == null;
+		for (Item i: items) {
+			if (!i.isAccumulable()) {
+				return null;
+			}
+			if (!(i instanceof COUNT) && 
+					!(i.isIndexBoundary() && isIndexOfClass(i.field, candClsDef, subClasses))) {
+				fromIndex = false;
 			}
 		}
 		
-		return ret;
+		if (!fromIndex) {
+			QueryAccumulator[] accs = items.toArray(new QueryAccumulator[items.size()]);
+			if (!node.aggregateInstances(px, subClasses, advices, filter, accs)) {
+				return null;
+			}
+			return aggregateResult();
+		}
+		
+		for (Item i: items) {
+			if (i instanceof COUNT) {
+				i.accumulate(node.countInstances(px, subClasses));
+				continue;
+			}
+			LLEntry e = node.readIndexBoundary(i.field, i instanceof MAX);
+			if (e == null) {
+				//empty index
+				continue;
+			}
+			switch (i.field.getPrimitiveType()) {
+			case DOUBLE: i.accumulate(BitTools.toDouble(e.getKey())); break;
+			case FLOAT: i.accumulate((double)BitTools.toFloat(e.getKey())); break;
+			default: i.accumulate(e.getKey());
+			}
+		}
+		return aggregateResult();
+	}
+	
+	/**
+	 * @return Whether the index of the field contains exactly the instances of the 
+	 * candidate class.
+	 */
+	private static boolean isIndexOfClass(ZooFieldDef field, ZooClassDef candClsDef, 
+			boolean subClasses) {
+		if (field.getDeclaringType().getSchemaId() != candClsDef.getSchemaId()) {
+			//The index also contains instances of super-classes
+			return false;
+		}
+		//The index also contains instances of sub-classes
+		return subClasses || candClsDef.getVersionProxy().getSubProxies().isEmpty();
 	}
 }
@@ -58,6 +58,29 @@ public interface ZooClass {
 	 */
 	public abstract boolean isIndexUnique(String fieldName);
 
+	/**
+	 * Create a composite index over several fields. The index is ordered by the first field,
+	 * then by the second field, and so on. Queries can use the index if they constrain a 
+	 * prefix of the fields with equality and optionally the following field with a range.
+	 * Supported field types are primitives and String.
+	 * @param isUnique Whether the combination of field values has to be unique
+	 * @param fieldNames The names of the indexed fields, at least two.
+	 */
+	public abstract void createCompositeIndex(boolean isUnique, String ... fieldNames);
+
+	/**
+	 * Remove a composite index that was defined on this class.
+	 * @param fieldNames The names of the indexed fields in index order.
+	 * @return {@code true} if an index was removed, otherwise {@code false}.
+	 */
+	public abstract boolean removeCompositeIndex(String ... fieldNames);
+
+	/**
+	 * @param fieldNames The names of the indexed fields in index order.
+	 * @return Whether a composite index over the given fields is defined on this class.
+	 */
+	public abstract boolean hasCompositeIndex(String ... fieldNames);
+
 	/**
 	 * Drops all instances of the class. This does not affect cached instances
 	 */
@@ -25,7 +25,7 @@ import org.zoodb.internal.Session;
 public class DBStatistics {
 
 	public enum STATS {
-		/** Page read access counter. */
+		/** Page read access counter. Counts only pages that are not found in the page cache. */
 		IO_PAGE_READ_CNT,
 		/** Page read access counter. Counts only unique access (each page counted only once). */
 		IO_PAGE_READ_CNT_UNQ,
@@ -36,6 +36,14 @@ public class DBStatistics {
 		/** Data page (only stored objects) read access counter. 
 		 * Counts only unique access (each page counted only once). */
 		IO_DATA_PAGE_READ_CNT_UNQ, 
+		/** Number of page reads that were served by the page cache. */
+		IO_PAGE_CACHE_HIT_CNT,
+		/** Number of page reads that were not found in the page cache. */
+		IO_PAGE_CACHE_MISS_CNT,
+		/** Number of objects that were found on recently read data pages. */
+		IO_OBJECT_CACHE_HIT_CNT,
+		/** Number of objects that were not found on recently read data pages. */
+		IO_OBJECT_CACHE_MISS_CNT,
 		
 		/** Number of pages used by free space manager. */
 		DB_PAGE_CNT_IDX_FSM, 
@@ -100,6 +108,14 @@ public class DBStatistics {
 		return s.getPrimaryNode().getStats(STATS.IO_DATA_PAGE_READ_CNT_UNQ);
 	}
 
+	public int getPageCacheHitCount() {
+		return s.getPrimaryNode().getStats(STATS.IO_PAGE_CACHE_HIT_CNT);
+	}
+
+	public int getPageCacheMissCount() {
+		return s.getPrimaryNode().getStats(STATS.IO_PAGE_CACHE_MISS_CNT);
+	}
+
 	public int getStat(STATS stat) {
 		return s.getPrimaryNode().getStats(stat);
 	}
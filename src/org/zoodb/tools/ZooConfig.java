@@ -15,22 +15,50 @@ public class ZooConfig {
 	public static final String FILE_PAF_BB = preServer + "StorageRootFile";
 	//public static final String FILE_PAF_BB = preServer + "StorageInMemory";
 	public static final String FILE_PAF_IN_MEMORY = preServer + "StorageRootInMemory";
+	/** Memory mapped file, recommended for read-heavy databases. */
+	public static final String FILE_PAF_MAPPED = preServer + "StorageRootMappedFile";
 
 	public static final String FILE_MGR_IN_MEMORY = preZoo + "tools.impl.DataStoreManagerInMemory";
 	public static final String FILE_MGR_ONE_FILE = preZoo + "tools.impl.DataStoreManagerOneFile";
 	//public static final String FILE_MGR_ONE_FILE = FILE_MGR_IN_MEMORY; 
 
 	public static final int FILE_PAGE_SIZE_DEFAULT = 1024*4;  //bytes
+	public static final int FILE_PAGE_CACHE_SIZE_DEFAULT = 256;  //pages
+	public static final int FILE_OBJECT_CACHE_SIZE_DEFAULT = 32;  //pages
+	public static final int QUERY_SORT_BUFFER_SIZE_DEFAULT = 100000;  //objects
+	public static final int QUERY_GROUP_BUFFER_SIZE_DEFAULT = 100000;  //groups
+	public static final int INDEX_BULK_LOAD_BUFFER_SIZE_DEFAULT = 1000000;  //entries
+	public static final int FILE_SYNC_COMMITS_DEFAULT = 1;  //commits
+	public static final int FILE_SYNC_INTERVAL_DEFAULT = 0;  //milliseconds
+	public static final int FILE_WAL_CHECKPOINT_SIZE_DEFAULT = 10000;  //pages
 
 	
 	private static String fileDefault = FILE_PAF_BB;
 	private static String fileManagerDefault = FILE_MGR_ONE_FILE;
 	private static int defaultPageSize = FILE_PAGE_SIZE_DEFAULT;
+	private static int defaultPageCacheSize = FILE_PAGE_CACHE_SIZE_DEFAULT;
+	private static int objectCacheSize = FILE_OBJECT_CACHE_SIZE_DEFAULT;
+	private static int querySortBufferSize = QUERY_SORT_BUFFER_SIZE_DEFAULT;
+	private static int queryGroupBufferSize = QUERY_GROUP_BUFFER_SIZE_DEFAULT;
+	private static int indexBulkLoadBufferSize = INDEX_BULK_LOAD_BUFFER_SIZE_DEFAULT;
+	private static int fileSyncCommits = FILE_SYNC_COMMITS_DEFAULT;
+	private static int fileSyncInterval = FILE_SYNC_INTERVAL_DEFAULT;
+	private static boolean fileWal = false;
+	private static int fileWalCheckpointSize = FILE_WAL_CHECKPOINT_SIZE_DEFAULT;
 
 	public static void setDefaults() {
 		fileDefault = FILE_PAF_BB;
 		fileManagerDefault = FILE_MGR_ONE_FILE;
 		defaultPageSize = FILE_PAGE_SIZE_DEFAULT;
+		defaultPageCacheSize = FILE_PAGE_CACHE_SIZE_DEFAULT;
+		objectCacheSize = FILE_OBJECT_CACHE_SIZE_DEFAULT;
+		querySortBufferSize = QUERY_SORT_BUFFER_SIZE_DEFAULT;
+		queryGroupBufferSize = QUERY_GROUP_BUFFER_SIZE_DEFAULT;
+		indexBulkLoadBufferSize = INDEX_BULK_LOAD_BUFFER_SIZE_DEFAULT;
+		fileSyncCommits = FILE_SYNC_COMMITS_DEFAULT;
+		fileSyncInterval = FILE_SYNC_INTERVAL_DEFAULT;
+		fileWal = false;
+		fileWalCheckpointSize = FILE_WAL_CHECKPOINT_SIZE_DEFAULT;
 	}
 	
 	public static void setFileManager(String className) {
@@ -42,6 +70,16 @@ public class ZooConfig {
 		}
 	}
 
+	/**
+	 * Select the file processor, for example {@link #FILE_PAF_BB} or {@link #FILE_PAF_MAPPED}. 
+	 * The processor has to be compatible with the file manager. 
+	 * The setting takes effect when a database file is opened.
+	 * @param className
+	 */
+	public static void setFileProcessor(String className) {
+		fileDefault = className;
+	}
+
 	public static String getFileProcessor() {
 		return fileDefault;
 	}
@@ -61,4 +99,161 @@ public class ZooConfig {
 	public static void setFilePageSize(int pageSize) {
 		defaultPageSize = pageSize;
 	}
+
+	public static int getFilePageCacheSize() {
+		return defaultPageCacheSize;
+	}
+
+	/**
+	 * Set the size of the page cache that is shared by all readers and writers of a database 
+	 * file. The setting takes effect when a database file is opened.
+	 * @param nPages maximum number of cached pages, {@code 0} disables the cache.
+	 */
+	public static void setFilePageCacheSize(int nPages) {
+		defaultPageCacheSize = nPages;
+	}
+
+	public static int getFileObjectCacheSize() {
+		return objectCacheSize;
+	}
+
+	/**
+	 * Set the number of recently read data pages that each session keeps for loading 
+	 * neighbouring objects. Objects on these pages are loaded without reading the page again
+	 * and without looking up their position in the OID index. 
+	 * The setting takes effect when a PersistenceManager is opened.
+	 * @param nPages maximum number of pages, {@code 0} disables the cache.
+	 */
+	public static void setFileObjectCacheSize(int nPages) {
+		if (nPages < 0) {
+			throw new IllegalArgumentException("Illegal object cache size: " + nPages);
+		}
+		objectCacheSize = nPages;
+	}
+
+	public static int getQuerySortBufferSize() {
+		return querySortBufferSize;
+	}
+
+	/**
+	 * Set the maximum number of objects that are sorted in memory when a query has an 
+	 * ordering. Larger query results are sorted with an external merge sort that stores 
+	 * intermediate runs in temporary files. 
+	 * @param nObjects maximum number of objects to sort in memory.
+	 */
+	public static void setQuerySortBufferSize(int nObjects) {
+		if (nObjects < 1) {
+			throw new IllegalArgumentException("Illegal sort buffer size: " + nObjects);
+		}
+		querySortBufferSize = nObjects;
+	}
+
+	public static int getQueryGroupBufferSize() {
+		return queryGroupBufferSize;
+	}
+
+	/**
+	 * Set the maximum number of groups that are aggregated in memory when a query has a 
+	 * grouping. If a query result has more groups, the remaining rows are partitioned into 
+	 * temporary files and aggregated partition by partition. 
+	 * @param nGroups maximum number of groups in memory.
+	 */
+	public static void setQueryGroupBufferSize(int nGroups) {
+		if (nGroups < 1) {
+			throw new IllegalArgumentException("Illegal group buffer size: " + nGroups);
+		}
+		queryGroupBufferSize = nGroups;
+	}
+
+	public static int getIndexBulkLoadBufferSize() {
+		return indexBulkLoadBufferSize;
+	}
+
+	/**
+	 * Set the maximum number of index entries that are sorted in memory when an index is 
+	 * created on existing objects. If there are more objects, the entries are sorted with an 
+	 * external merge sort that stores intermediate runs in temporary files. 
+	 * @param nEntries maximum number of entries to sort in memory.
+	 */
+	public static void setIndexBulkLoadBufferSize(int nEntries) {
+		if (nEntries < 1) {
+			throw new IllegalArgumentException("Illegal bulk load buffer size: " + nEntries);
+		}
+		indexBulkLoadBufferSize = nEntries;
+	}
+
+	public static int getFileSyncCommits() {
+		return fileSyncCommits;
+	}
+
+	/**
+	 * Set the durability of commits. By default ({@code 1}), a commit returns only after it 
+	 * has been written to disk. Commits of concurrent transactions are written together.
+	 * Any other value relaxes durability: commits return before they are written to disk 
+	 * and the database file is synchronized only after the given number of commits, after
+	 * the interval set with {@link #setFileSyncInterval(int)} or when the database is closed. 
+	 * After a crash, the database reverts to the last synchronized commit. This does never
+	 * corrupt the database. 
+	 * If commits are logged (see {@link #setFileWal(boolean)}), this setting applies to the 
+	 * log instead of the database file. 
+	 * The setting takes effect when a database file is opened.
+	 * @param nCommits number of commits after which the file is synchronized, {@code 0} to 
+	 * synchronize only periodically and when the database is closed.
+	 */
+	public static void setFileSyncCommits(int nCommits) {
+		if (nCommits < 0) {
+			throw new IllegalArgumentException("Illegal number of commits: " + nCommits);
+		}
+		fileSyncCommits = nCommits;
+	}
+
+	public static int getFileSyncInterval() {
+		return fileSyncInterval;
+	}
+
+	/**
+	 * Set the maximum time that a commit may remain unsynchronized if durability is relaxed
+	 * with {@link #setFileSyncCommits(int)}. 
+	 * The setting takes effect when a database file is opened.
+	 * @param ms interval in milliseconds, {@code 0} disables periodic synchronization.
+	 */
+	public static void setFileSyncInterval(int ms) {
+		if (ms < 0) {
+			throw new IllegalArgumentException("Illegal sync interval: " + ms);
+		}
+		fileSyncInterval = ms;
+	}
+
+	public static boolean isFileWal() {
+		return fileWal;
+	}
+
+	/**
+	 * Enable the write-ahead log. Commits are then appended to a log file and the database 
+	 * file is only written during checkpoints, which are performed in the background
+	 * (see {@link #setFileWalCheckpointSize(int)}) and when the database is closed. 
+	 * This replaces the random writes of a commit with sequential writes to the log. 
+	 * The log is replayed when a database is opened after a crash. 
+	 * The setting takes effect when a database file is opened.
+	 * @param wal Whether to use a write-ahead log, the default is {@code false}.
+	 */
+	public static void setFileWal(boolean wal) {
+		fileWal = wal;
+	}
+
+	public static int getFileWalCheckpointSize() {
+		return fileWalCheckpointSize;
+	}
+
+	/**
+	 * Set the size of the write-ahead log that triggers a checkpoint. 
+	 * The setting takes effect when a database file is opened.
+	 * @param nPages size of the log in pages
+	 */
+	public static void setFileWalCheckpointSize(int nPages) {
+		if (nPages < 1) {
+			throw new IllegalArgumentException("Illegal checkpoint size: " + nPages);
+		}
+		fileWalCheckpointSize = nPages;
+	}
 }
@@ -24,6 +24,8 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 
+import org.zoodb.internal.server.SharedDatabase;
+
 /**
  * This class should only be used during development to manage test-runs.
  * 
@@ -62,6 +64,8 @@ public class ZooDebug {
 			}
 		}
 		fcList.clear();
+		//forget the shared state of the closed files
+		SharedDatabase.closeAll();
 		if (failed > 0) {
 			throw new IllegalStateException("Some files were not closed: " + failed);
 		}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.tools;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+
+import org.zoodb.internal.Session;
+import org.zoodb.internal.util.DBLogger;
+import org.zoodb.jdo.ZooJdoProperties;
+
+/**
+ * Migrates objects that are stored with an outdated version of their schema to the latest
+ * schema version. 
+ * 
+ * Usually, objects are only migrated when they are modified. Until then, every read
+ * access requires evolving the object in memory. The migrator rewrites all outdated 
+ * objects eagerly, either synchronously via {@link #run()} or in a background thread via 
+ * {@link #start()}.
+ * 
+ * Objects are migrated in batches, each batch is committed in a separate transaction.
+ * Between batches the migrator pauses to leave resources to other PersistenceManagers. 
+ * Batches that conflict with concurrent transactions are rolled back and retried.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class ZooSchemaMigrator {
+
+	/**
+	 * Listener for the progress of a migration.
+	 */
+	public interface ProgressListener {
+		/**
+		 * Called after every committed batch.
+		 * @param nMigrated The number of objects migrated so far
+		 * @param nTotal The number of outdated objects when the migration was started
+		 */
+		void progress(long nMigrated, long nTotal);
+	}
+	
+	public static final int BATCH_SIZE_DEFAULT = 1000;
+	public static final int BATCH_PAUSE_DEFAULT = 10;
+	/** Maximum number of consecutive failed batches before the migration is aborted. */
+	private static final int MAX_RETRIES = 100;
+	
+	private final PersistenceManagerFactory pmf;
+	private int batchSize = BATCH_SIZE_DEFAULT;
+	private int batchPause = BATCH_PAUSE_DEFAULT;
+	private ProgressListener listener;
+	
+	private volatile long nMigrated = 0;
+	private volatile long nTotal = 0;
+	private volatile boolean isFinished = false;
+	private volatile boolean isStopped = false;
+	private volatile RuntimeException error;
+	private Thread thread;
+	
+	/**
+	 * @param pmf The factory of the database to be migrated.
+	 */
+	public ZooSchemaMigrator(PersistenceManagerFactory pmf) {
+		this.pmf = pmf;
+	}
+	
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("Usage: ZooSchemaMigrator <database>");
+			return;
+		}
+		String dbName = args[0];
+		
+		if (!ZooHelper.getDataStoreManager().dbExists(dbName)) {
+			System.err.println("ERROR Database not found: " + dbName);
+			return;
+		}
+		
+		System.out.println("Migrating database: " + dbName);
+
+		ZooJdoProperties props = new ZooJdoProperties(dbName);
+		PersistenceManagerFactory pmf = JDOHelper.getPersistenceManagerFactory(props);
+		ZooSchemaMigrator m = new ZooSchemaMigrator(pmf);
+		m.setBatchPause(0);
+		m.setProgressListener(new ProgressListener() {
+			@Override
+			public void progress(long nMigrated, long nTotal) {
+				System.out.println("Migrated objects: " + nMigrated + " / " + nTotal);
+			}
+		});
+		m.run();
+		pmf.close();
+		if (m.getError() != null) {
+			System.err.println("ERROR Migration failed: " + m.getError().getMessage());
+			return;
+		}
+		System.out.println("Migrating database done.");
+	}
+	
+	/**
+	 * @param batchSize The maximum number of objects that are migrated in one transaction.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be > 0: " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * @param batchPause The pause in milliseconds between two batches. 
+	 */
+	public void setBatchPause(int batchPause) {
+		if (batchPause < 0) {
+			throw new IllegalArgumentException("Batch pause must be >= 0: " + batchPause);
+		}
+		this.batchPause = batchPause;
+	}
+	
+	public int getBatchPause() {
+		return batchPause;
+	}
+	
+	public void setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * @return The number of objects migrated so far.
+	 */
+	public long getMigratedCount() {
+		return nMigrated;
+	}
+	
+	/**
+	 * @return The number of outdated objects when the migration was started.
+	 */
+	public long getTotalCount() {
+		return nTotal;
+	}
+	
+	/**
+	 * @return {@code true} if there are no more outdated objects in the database.
+	 */
+	public boolean isFinished() {
+		return isFinished;
+	}
+	
+	/**
+	 * @return The exception that aborted the migration, or {@code null}.
+	 */
+	public RuntimeException getError() {
+		return error;
+	}
+	
+	/**
+	 * Start the migration in a background thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			throw DBLogger.newUser("The migration has already been started.");
+		}
+		thread = new Thread("ZooDB schema migration") {
+			@Override
+			public void run() {
+				ZooSchemaMigrator.this.run();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stop the migration. This waits until the current batch is finished. Objects that 
+	 * have already been migrated remain migrated.
+	 */
+	public void stop() {
+		synchronized (this) {
+			isStopped = true;
+			//Do not interrupt the thread, this would close the database file during I/O
+			notifyAll();
+		}
+		join();
+	}
+	
+	/**
+	 * Wait for the background migration to finish.
+	 */
+	public void join() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t == null || t == Thread.currentThread()) {
+			return;
+		}
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			throw DBLogger.newFatal("Interrupted while waiting for schema migration.", e);
+		}
+	}
+	
+	/**
+	 * Run the migration in the current thread.
+	 */
+	public void run() {
+		nTotal = countOutdatedObjects();
+		int nFailed = 0;
+		while (!isStopped) {
+			int n;
+			try {
+				n = migrateBatch();
+				nFailed = 0;
+			} catch (RuntimeException e) {
+				if (!DBLogger.isUser(e) || ++nFailed > MAX_RETRIES) {
+					DBLogger.severe("Schema migration failed: " + e.getMessage());
+					error = e;
+					return;
+				}
+				//conflict with another transaction, try again later
+				DBLogger.info("Retrying schema migration: " + e.getMessage());
+				if (!pause(batchPause > 0 ? batchPause : 1)) {
+					return;
+				}
+				continue;
+			}
+			if (n == 0) {
+				isFinished = true;
+				return;
+			}
+			nMigrated += n;
+			if (nMigrated > nTotal) {
+				//new outdated objects were created by other transactions
+				nTotal = nMigrated;
+			}
+			if (listener != null) {
+				listener.progress(nMigrated, nTotal);
+			}
+			if (!pause(batchPause)) {
+				return;
+			}
+		}
+	}
+	
+	private long countOutdatedObjects() {
+		PersistenceManager pm = pmf.getPersistenceManager();
+		try {
+			pm.currentTransaction().begin();
+			Session s = (Session) pm.getDataStoreConnection().getNativeConnection();
+			long n = s.countOutdatedObjects();
+			pm.currentTransaction().rollback();
+			return n;
+		} finally {
+			pm.close();
+		}
+	}
+	
+	/**
+	 * Migrate one batch of objects. A new PersistenceManager is used for every batch so that 
+	 * migrated objects do not accumulate in the cache and the latest schema is used.
+	 * @return The number of migrated objects.
+	 */
+	private int migrateBatch() {
+		PersistenceManager pm = pmf.getPersistenceManager();
+		try {
+			pm.currentTransaction().begin();
+			Session s = (Session) pm.getDataStoreConnection().getNativeConnection();
+			int n = s.evolveOutdatedObjects(batchSize);
+			pm.currentTransaction().commit();
+			return n;
+		} finally {
+			if (pm.currentTransaction().isActive()) {
+				pm.currentTransaction().rollback();
+			}
+			pm.close();
+		}
+	}
+	
+	private synchronized boolean pause(int millis) {
+		if (millis > 0 && !isStopped) {
+			try {
+				wait(millis);
+			} catch (InterruptedException e) {
+				isStopped = true;
+			}
+		}
+		return !isStopped;
+	}
+}
@@ -37,6 +37,8 @@ import javax.jdo.PersistenceManagerFactory;
 
 import org.zoodb.api.DBArrayList;
 import org.zoodb.api.DBHashMap;
+import org.zoodb.internal.LargeMapPage;
+import org.zoodb.internal.LargeVectorPage;
 import org.zoodb.internal.server.DiskIO.DATA_TYPE;
 import org.zoodb.internal.server.StorageChannelOutput;
 import org.zoodb.internal.server.StorageRootInMemory;
@@ -144,6 +146,8 @@ public class DataStoreManagerInMemory implements DataStoreManager {
 		schema.addClass(PersistenceCapableImpl.class);
 		schema.addClass(DBHashMap.class);
 		schema.addClass(DBArrayList.class);
+		schema.addClass(LargeVectorPage.class);
+		schema.addClass(LargeMapPage.class);
 
 		pm.currentTransaction().commit();
 		pm.close();
@@ -35,10 +35,13 @@ import javax.jdo.PersistenceManagerFactory;
 
 import org.zoodb.api.DBArrayList;
 import org.zoodb.api.DBHashMap;
+import org.zoodb.internal.LargeMapPage;
+import org.zoodb.internal.LargeVectorPage;
 import org.zoodb.internal.server.DiskIO.DATA_TYPE;
 import org.zoodb.internal.server.StorageChannel;
 import org.zoodb.internal.server.StorageChannelOutput;
 import org.zoodb.internal.server.StorageRootFile;
+import org.zoodb.internal.server.WriteAheadLog;
 import org.zoodb.internal.server.index.FreeSpaceManager;
 import org.zoodb.internal.server.index.PagedOidIndex;
 import org.zoodb.internal.util.DBLogger;
@@ -89,6 +92,8 @@ public class DataStoreManagerOneFile implements DataStoreManager {
 			if (!dbFile.createNewFile()) {
 				throw DBLogger.newUser("ZOO: Error creating DB file: " + dbFile);
 			}
+			//remove the log of a previous database with the same name
+			WriteAheadLog.deleteFiles(dbPath);
 			FreeSpaceManager fsm = new FreeSpaceManager();
 			file = new StorageRootFile(dbPath, "rw",
 					ZooConfig.getFilePageSize(), fsm);
@@ -165,6 +170,8 @@ public class DataStoreManagerOneFile implements DataStoreManager {
 			schema.addClass(PersistenceCapableImpl.class);
 			schema.addClass(DBHashMap.class);
 			schema.addClass(DBArrayList.class);
+			schema.addClass(LargeVectorPage.class);
+			schema.addClass(LargeMapPage.class);
 			
 			pm.currentTransaction().commit();
 			pm.close();
@@ -232,6 +239,7 @@ public class DataStoreManagerOneFile implements DataStoreManager {
 //		if (!dbFile.delete()) {
 //			throw DBLogger.newUser("ZOO: Could not remove DB file: " + dbFile);
 //		}
+		WriteAheadLog.deleteFiles(toPath(dbName));
 		return dbFile.delete();
 	}
 	
@@ -38,7 +38,6 @@ import javax.jdo.ObjectState;
 
 import org.zoodb.api.DBArrayList;
 import org.zoodb.api.DBHashMap;
-import org.zoodb.api.DBLargeVector;
 import org.zoodb.api.impl.ZooPCImpl;
 import org.zoodb.internal.BinaryDataCorruptedException;
 import org.zoodb.internal.GenericObject;
@@ -257,12 +256,6 @@ public class DataDeSerializer {
     		obj.setDbCollection(m);
     		deserializeDBHashMap(m);
     		in.stopReadingField();
-    	} else if (obj.getClassDef().getClassName().equals(DBLargeVector.class.getName())) {
-    		in.startReadingField(-1);
-    		ArrayList<Object> l = new ArrayList<Object>();
-    		obj.setDbCollection(l);
-    		deserializeDBList(l);
-    		in.stopReadingField();
     	} else if (obj.getClassDef().getClassName().equals(DBArrayList.class.getName())) {
     		in.startReadingField(-1);
     		ArrayList<Object> l = new ArrayList<Object>();
@@ -742,7 +735,6 @@ public class DataDeSerializer {
 
     private Object getGO(long oid, ZooClassDef cls) {
     	if (cls.getClassName().equals(DBHashMap.class.getName()) || 
-    			cls.getClassName().equals(DBLargeVector.class.getName()) ||
     			cls.getClassName().equals(DBArrayList.class.getName())) {
     		return getInstance(cls, oid, null);
     	}
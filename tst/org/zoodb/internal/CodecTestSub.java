@@ -0,0 +1,121 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal;
+
+/**
+ * Class with private fields of all primitive types, a final field and references. 
+ * See {@link TestClassCodec}.
+ */
+public class CodecTestSub extends CodecTestBase {
+
+	private boolean b;
+	private byte by;
+	private char c;
+	private double d;
+	private float f;
+	private int i;
+	private long l;
+	private short s;
+	private final long fin;
+	private Object ref;
+	private CodecTestSub other;
+	
+	public CodecTestSub() {
+		fin = 0;
+	}
+	
+	CodecTestSub(long fin) {
+		this.fin = fin;
+	}
+	
+	void setData(boolean b, byte by, char c, double d, float f, int i, long l, short s) {
+		zooActivateWrite();
+		this.b = b;
+		this.by = by;
+		this.c = c;
+		this.d = d;
+		this.f = f;
+		this.i = i;
+		this.l = l;
+		this.s = s;
+	}
+	
+	void setRefs(Object ref, CodecTestSub other) {
+		zooActivateWrite();
+		this.ref = ref;
+		this.other = other;
+	}
+	
+	boolean getBool() {
+		zooActivateRead();
+		return b;
+	}
+
+	byte getByte() {
+		zooActivateRead();
+		return by;
+	}
+
+	char getChar() {
+		zooActivateRead();
+		return c;
+	}
+
+	double getDouble() {
+		zooActivateRead();
+		return d;
+	}
+
+	float getFloat() {
+		zooActivateRead();
+		return f;
+	}
+
+	int getInt() {
+		zooActivateRead();
+		return i;
+	}
+
+	long getLong() {
+		zooActivateRead();
+		return l;
+	}
+
+	short getShort() {
+		zooActivateRead();
+		return s;
+	}
+
+	long getFinal() {
+		zooActivateRead();
+		return fin;
+	}
+
+	Object getRef() {
+		zooActivateRead();
+		return ref;
+	}
+
+	CodecTestSub getOther() {
+		zooActivateRead();
+		return other;
+	}
+}
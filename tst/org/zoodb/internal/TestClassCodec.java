@@ -0,0 +1,236 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * White-box test for the field accessors of the (de-)serializers.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class TestClassCodec {
+
+	@Before
+	public void before() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(CodecTestBase.class, CodecTestSub.class);
+	}
+	
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+	
+	private static ZooClassDef getDef(PersistenceManager pm, Class<?> cls) {
+		return ((ZooClassProxy)ZooJdoHelper.schema(pm).getClass(cls)).getSchemaDef();
+	}
+	
+	private static int fieldPos(ClassCodec codec, String name) {
+		ZooFieldDef[] fields = codec.getFields();
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].getName().equals(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+	
+	private static boolean isReflective(ClassCodec codec) {
+		return codec.getClass().getSimpleName().equals("ReflectionCodec");
+	}
+	
+	private static CodecTestSub create() {
+		CodecTestSub o = new CodecTestSub(1234567890123L);
+		o.setBase(-7, "base");
+		o.setData(true, Byte.MIN_VALUE, Character.MAX_VALUE, -Double.MAX_VALUE, 
+				Float.MIN_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Short.MIN_VALUE);
+		o.setRefs(new CodecTestBase(), new CodecTestSub(5));
+		return o;
+	}
+	
+	private static void check(CodecTestSub o) {
+		assertEquals(-7, o.getBaseInt());
+		assertEquals("base", o.getBaseStr());
+		assertEquals(true, o.getBool());
+		assertEquals(Byte.MIN_VALUE, o.getByte());
+		assertEquals(Character.MAX_VALUE, o.getChar());
+		assertEquals(-Double.MAX_VALUE, o.getDouble(), 0);
+		assertEquals(Float.MIN_VALUE, o.getFloat(), 0);
+		assertEquals(Integer.MIN_VALUE, o.getInt());
+		assertEquals(Long.MAX_VALUE, o.getLong());
+		assertEquals(Short.MIN_VALUE, o.getShort());
+		assertEquals(1234567890123L, o.getFinal());
+		assertTrue(o.getRef() instanceof CodecTestBase);
+		assertFalse(o.getRef() instanceof CodecTestSub);
+		assertEquals(5, o.getOther().getFinal());
+		assertNull(o.getOther().getOther());
+		assertNull(o.getOther().getBaseStr());
+	}
+	
+	private void roundTrip(boolean reflective) {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		if (reflective) {
+			ZooClassDef def = getDef(pm, CodecTestSub.class);
+			def.setCodec(ClassCodec.createReflective(def.getAllFields()));
+		}
+		CodecTestSub o = create();
+		pm.makePersistent(o);
+		Object oid = pm.getObjectId(o);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClassDef def = getDef(pm, CodecTestSub.class);
+		if (reflective) {
+			def.setCodec(ClassCodec.createReflective(def.getAllFields()));
+		}
+		check((CodecTestSub) pm.getObjectById(oid));
+		if (reflective) {
+			assertTrue(isReflective(def.getCodec()));
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+	
+	@Test
+	public void testRoundTrip() {
+		roundTrip(false);
+	}
+	
+	@Test
+	public void testRoundTripReflection() {
+		roundTrip(true);
+	}
+	
+	private void checkAccess(ClassCodec codec) throws IllegalAccessException {
+		CodecTestSub o = new CodecTestSub(3);
+		codec.checkInstance(o);
+		codec.setBoolean(o, fieldPos(codec, "b"), true);
+		codec.setByte(o, fieldPos(codec, "by"), (byte) -3);
+		codec.setChar(o, fieldPos(codec, "c"), 'x');
+		codec.setDouble(o, fieldPos(codec, "d"), 1.5);
+		codec.setFloat(o, fieldPos(codec, "f"), -2.5f);
+		codec.setInt(o, fieldPos(codec, "i"), 42);
+		codec.setLong(o, fieldPos(codec, "l"), -42L);
+		codec.setShort(o, fieldPos(codec, "s"), (short) 7);
+		codec.setLong(o, fieldPos(codec, "fin"), 8);
+		codec.setInt(o, fieldPos(codec, "baseInt"), 9);
+		codec.setObject(o, fieldPos(codec, "baseStr"), "str");
+		codec.setObject(o, fieldPos(codec, "other"), o);
+		
+		assertEquals(true, o.getBool());
+		assertEquals(-3, o.getByte());
+		assertEquals('x', o.getChar());
+		assertEquals(1.5, o.getDouble(), 0);
+		assertEquals(-2.5f, o.getFloat(), 0);
+		assertEquals(42, o.getInt());
+		assertEquals(-42L, o.getLong());
+		assertEquals(7, o.getShort());
+		assertEquals(8, o.getFinal());
+		assertEquals(9, o.getBaseInt());
+		assertEquals("str", o.getBaseStr());
+		assertTrue(o.getOther() == o);
+
+		assertEquals(true, codec.getBoolean(o, fieldPos(codec, "b")));
+		assertEquals(-3, codec.getByte(o, fieldPos(codec, "by")));
+		assertEquals('x', codec.getChar(o, fieldPos(codec, "c")));
+		assertEquals(1.5, codec.getDouble(o, fieldPos(codec, "d")), 0);
+		assertEquals(-2.5f, codec.getFloat(o, fieldPos(codec, "f")), 0);
+		assertEquals(42, codec.getInt(o, fieldPos(codec, "i")));
+		assertEquals(-42L, codec.getLong(o, fieldPos(codec, "l")));
+		assertEquals(7, codec.getShort(o, fieldPos(codec, "s")));
+		assertEquals(8, codec.getLong(o, fieldPos(codec, "fin")));
+		assertEquals(9, codec.getInt(o, fieldPos(codec, "baseInt")));
+		assertEquals("str", codec.getObject(o, fieldPos(codec, "baseStr")));
+		assertTrue(codec.getObject(o, fieldPos(codec, "other")) == o);
+		
+		//wrong reference type
+		try {
+			codec.setObject(o, fieldPos(codec, "other"), new CodecTestBase());
+			fail();
+		} catch (IllegalArgumentException e) {
+			//good
+		}
+		assertTrue(o.getOther() == o);
+	}
+	
+	@Test
+	public void testAccess() throws IllegalAccessException {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooFieldDef[] fields = getDef(pm, CodecTestSub.class).getAllFields();
+		checkAccess(ClassCodec.create(fields));
+		checkAccess(ClassCodec.createReflective(fields));
+		
+		//no reflection for classes without final fields
+		assertFalse(isReflective(ClassCodec.create(getDef(pm, CodecTestBase.class).getAllFields())));
+		pm.currentTransaction().commit();
+	}
+	
+	@Test
+	public void testCheckInstance() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ClassCodec codec = ClassCodec.create(getDef(pm, CodecTestSub.class).getAllFields());
+		codec.checkInstance(new CodecTestSub());
+		try {
+			//super class
+			codec.checkInstance(new CodecTestBase());
+			fail();
+		} catch (ClassCastException e) {
+			//good
+		}
+		try {
+			codec.checkInstance(null);
+			fail();
+		} catch (ClassCastException e) {
+			//good
+		}
+		
+		//sub-classes can use the codec of the super-class
+		codec = ClassCodec.create(getDef(pm, CodecTestBase.class).getAllFields());
+		codec.checkInstance(new CodecTestSub());
+		try {
+			codec.checkInstance("Hello");
+			fail();
+		} catch (ClassCastException e) {
+			//good
+		}
+		pm.currentTransaction().commit();
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.internal.server.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.StorageChannel;
+import org.zoodb.internal.server.StorageRootInMemory;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Test that clean index pages can be evicted (their soft references cleared) while 
+ * iterators are open and while pages are modified and written.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class TestIndexPageEviction {
+
+	private static final int PAGE_SIZE = 128;
+	private static final int MAX = 20000;
+
+	@BeforeClass
+	public static void setUp() {
+		ZooConfig.setFilePageSize(PAGE_SIZE);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		ZooConfig.setFilePageSize(ZooConfig.FILE_PAGE_SIZE_DEFAULT);
+	}
+
+	/**
+	 * Clears the soft references to all clean pages, as the garbage collector does when 
+	 * memory gets low. Page clones share the references with their originals, so they lose 
+	 * the pages as well.
+	 */
+	private static void evictCleanPages(AbstractPagedIndex ind) {
+		evictCleanPages(ind.getRoot());
+	}
+
+	private static void evictCleanPages(AbstractIndexPage page) {
+		if (page.isLeaf) {
+			return;
+		}
+		for (int i = 0; i < page.subPages.length; i++) {
+			AbstractIndexPage subPage = page.getSubPage(i);
+			if (subPage != null) {
+				evictCleanPages(subPage);
+			}
+			if (page.subPages[i] instanceof SoftReference) {
+				((SoftReference<?>)page.subPages[i]).clear();
+			}
+		}
+	}
+
+	private PagedUniqueLongLong createCleanIndex(StorageChannel paf) {
+		PagedUniqueLongLong ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf);
+		for (int i = 0; i < MAX; i++) {
+			ind.insertLong(i*2, 32+i*2);
+		}
+		ind.write();
+		return ind;
+	}
+
+	@Test
+	public void testEvictedPagesAreReloaded() {
+		StorageChannel paf = new StorageRootInMemory(PAGE_SIZE);
+		PagedUniqueLongLong ind = createCleanIndex(paf);
+		int nLeaves = ind.statsGetLeavesN();
+
+		evictCleanPages(ind);
+		for (int i = 0; i < MAX; i++) {
+			assertEquals(32+i*2, ind.findValue(i*2).getValue());
+			assertNull(ind.findValue(i*2+1));
+		}
+		//all leaves have been read again
+		assertTrue(ind.statsGetLeavesN() >= 2*nLeaves);
+	}
+
+	@Test
+	public void testDirtyPagesAreNotEvicted() {
+		StorageChannel paf = new StorageRootInMemory(PAGE_SIZE);
+		PagedUniqueLongLong ind = createCleanIndex(paf);
+
+		//modify every 10th leaf entry, then evict and modify again
+		for (int i = 0; i < MAX; i += 10) {
+			ind.insertLong(i*2+1, 1);
+		}
+		evictCleanPages(ind);
+		for (int i = 0; i < MAX; i += 20) {
+			ind.removeLong(i*2);
+		}
+		evictCleanPages(ind);
+		int root = ind.write();
+		
+		//pages are clean now and can be evicted
+		evictCleanPages(ind);
+		checkModified(ind);
+
+		//read the written pages
+		PagedUniqueLongLong ind2 = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		checkModified(ind2);
+	}
+
+	private void checkModified(PagedUniqueLongLong ind) {
+		for (int i = 0; i < MAX; i++) {
+			LLEntry e = ind.findValue(i*2);
+			if (i % 20 == 0) {
+				assertNull(e);
+			} else {
+				assertNotNull(e);
+				assertEquals(32+i*2, e.getValue());
+			}
+			e = ind.findValue(i*2+1);
+			if (i % 10 == 0) {
+				assertEquals(1, e.getValue());
+			} else {
+				assertNull(e);
+			}
+		}
+	}
+
+	@Test
+	public void testEvictionWhileIterating() {
+		StorageChannel paf = new StorageRootInMemory(PAGE_SIZE);
+		PagedUniqueLongLong ind = createCleanIndex(paf);
+
+		Iterator<LLEntry> iterA = ind.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		Iterator<LLEntry> iterD = ind.descendingIterator(Long.MAX_VALUE, Long.MIN_VALUE);
+
+		for (int i = 0; i < MAX; i++) {
+			if (i % 100 == 0) {
+				//evict, then modify pages ahead of both iterators, which causes the 
+				//iterators to clone pages that were just re-read
+				evictCleanPages(ind);
+				int j = (i + 500) % MAX;
+				ind.insertLong(j*2+1, 1);
+				ind.removeLong((MAX-j-1)*2);
+				evictCleanPages(ind);
+			}
+			assertTrue(iterA.hasNext());
+			assertTrue(iterD.hasNext());
+			LLEntry eA = iterA.next();
+			LLEntry eD = iterD.next();
+			assertEquals(i*2, eA.getKey());
+			assertEquals(32+i*2, eA.getValue());
+			assertEquals((MAX-i-1)*2, eD.getKey());
+			assertEquals(32+(MAX-i-1)*2, eD.getValue());
+		}
+		assertFalse(iterA.hasNext());
+		assertFalse(iterD.hasNext());
+	}
+
+	@Test
+	public void testEvictionWhileIteratingAndWriting() {
+		StorageChannel paf = new StorageRootInMemory(PAGE_SIZE);
+		PagedUniqueLongLong ind = createCleanIndex(paf);
+
+		Iterator<LLEntry> iter = ind.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		for (int i = 0; i < MAX; i++) {
+			if (i % 1000 == 0) {
+				//modify pages ahead of the iterator, write and evict them
+				for (int j = i; j < MAX; j += 50) {
+					ind.insertLong(j*2+1, 1);
+				}
+				ind.write();
+				evictCleanPages(ind);
+			}
+			LLEntry e = iter.next();
+			assertEquals(i*2, e.getKey());
+			assertEquals(32+i*2, e.getValue());
+		}
+		assertFalse(iter.hasNext());
+		
+		//new iterators see the written entries
+		evictCleanPages(ind);
+		iter = ind.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		int n = 0;
+		while (iter.hasNext()) {
+			iter.next();
+			n++;
+		}
+		assertEquals(MAX + MAX/50, n);
+	}
+
+}
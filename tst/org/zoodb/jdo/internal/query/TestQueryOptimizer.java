@@ -1,7 +1,10 @@
 package org.zoodb.jdo.internal.query;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
 import java.util.List;
@@ -12,13 +15,16 @@ import javax.jdo.Query;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.zoodb.internal.Node;
 import org.zoodb.internal.ZooClassDef;
 import org.zoodb.internal.ZooClassProxy;
 import org.zoodb.internal.query.QueryAdvice;
 import org.zoodb.internal.query.QueryOptimizer;
 import org.zoodb.internal.query.QueryParser;
 import org.zoodb.internal.query.QueryTreeNode;
+import org.zoodb.internal.server.index.IndexStatistics;
 import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.jdo.impl.PersistenceManagerImpl;
 import org.zoodb.schema.ZooClass;
 import org.zoodb.test.jdo.TestClass;
 import org.zoodb.test.testutil.TestTools;
@@ -175,6 +181,162 @@ public class TestQueryOptimizer {
 	}
 
 	
+	private QueryAdvice getSingleAdvice(String queryFilter) {
+		ZooClassDef def = getDef(TestClass.class);
+		QueryParser qp = new QueryParser(queryFilter, def, null);
+		List<QueryAdvice> advices = new QueryOptimizer(def).determineIndexToUse(qp.parseQuery());
+		assertEquals(1, advices.size());
+		return advices.get(0);
+	}
+	
+	@Test
+	public void testCompositeIndexSelection() {
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.createIndex("_int", false);
+		s.createCompositeIndex(false, "_int", "_long", "_string");
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+
+		//prefix and range on the following field
+		QueryAdvice qa = getSingleAdvice("_int == 3 && _long > 5 && _long < 10");
+		assertNotNull(qa.getCompositeIndex());
+		assertNull(qa.getIndex());
+		assertNotNull(qa.getMinString());
+		assertNotNull(qa.getMaxString());
+		
+		//full key
+		qa = getSingleAdvice("_string == 'x' && _long == 5 && _int == 3");
+		assertNotNull(qa.getCompositeIndex());
+		
+		//single field prefix: the field index is preferred
+		qa = getSingleAdvice("_int == 3");
+		assertNull(qa.getCompositeIndex());
+		assertNotNull(qa.getIndex());
+		
+		//no prefix: composite index is not applicable
+		qa = getSingleAdvice("_long == 5 && _string == 'x'");
+		assertNull(qa.getCompositeIndex());
+		assertNull(qa.getIndex());
+
+		//without field index, a single field prefix is sufficient
+		s.removeIndex("_int");
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		qa = getSingleAdvice("_int > 3");
+		assertNotNull(qa.getCompositeIndex());
+		assertNull(qa.getMaxString());
+	}
+	
+	@Test
+	public void testIntersectionSelection() {
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.createIndex("_int", false);
+		s.createIndex("_short", false);
+		s.createIndex("_string", false);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+
+		//equality on several indexed fields
+		QueryAdvice qa = getSingleAdvice("_int == 3 && _short == 5 && _string == 'x'");
+		assertNotNull(qa.getIndex());
+		assertEquals(2, qa.getIntersections().size());
+		for (QueryAdvice qa2: qa.getIntersections()) {
+			assertTrue(qa2.getIndex() != qa.getIndex());
+			assertFalse(qa2.hasIntersections());
+		}
+		
+		//ranges are not intersected
+		qa = getSingleAdvice("_int > 3 && _short == 5");
+		assertEquals("_short", qa.getIndex().getName());
+		assertFalse(qa.hasIntersections());
+		
+		//OR: one sub-query without index requires a full scan with the full query
+		ZooClassDef def = getDef(TestClass.class);
+		QueryParser qp = new QueryParser("_int == 3 || _long == 5", def, null);
+		QueryTreeNode qtn = qp.parseQuery();
+		List<QueryAdvice> advices = new QueryOptimizer(def).determineIndexToUse(qtn);
+		assertEquals(1, advices.size());
+		assertNull(advices.get(0).getIndex());
+		assertTrue(advices.get(0).getQuery() == qtn);
+	}
+	
+	@Test
+	public void testCostBasedSelection() {
+		for (int i = 0; i < 100; i++) {
+			TestClass t = new TestClass();
+			t.setInt(i);
+			t.setShort((short) 1);
+			t.setLong(i % 2);
+			pm.makePersistent(t);
+		}
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.createIndex("_int", false);
+		s.createIndex("_short", false);
+		s.createIndex("_long", false);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		
+		//statistics are built when needed
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClassDef def = getDef(TestClass.class);
+		Node node = ((PersistenceManagerImpl)pm).getSession().getPrimaryNode();
+		IndexStatistics stats = node.getIndexStatistics(def.getField("_int"));
+		assertEquals(100, stats.getEntryCount());
+		assertEquals(100, stats.getDistinctCount());
+		assertEquals(1, node.getIndexStatistics(def.getField("_short")).getDistinctCount());
+		
+		//selective index
+		QueryAdvice qa = getCostAdvice(node, "_int < 5");
+		assertEquals("_int", qa.getIndex().getName());
+		assertTrue(qa.getSelectivity() < 0.1);
+		
+		//low selectivity: extent scan
+		assertNull(getCostAdvice(node, "_short == 1").getIndex());
+		assertNull(getCostAdvice(node, "_int > 10").getIndex());
+		assertNull(getCostAdvice(node, "_long == 1").getIndex());
+		
+		//competing indices, _short does not filter anything
+		qa = getCostAdvice(node, "_short == 1 && _int == 5");
+		assertEquals("_int", qa.getIndex().getName());
+		assertFalse(qa.hasIntersections());
+		
+		//OR: together the sub-queries are too expensive
+		ZooClassDef def2 = getDef(TestClass.class);
+		QueryParser qp = new QueryParser("_int < 3 || _int > 96", def2, null);
+		assertEquals(2, new QueryOptimizer(def2, node).determineIndexToUse(
+				qp.parseQuery()).size());
+		qp = new QueryParser("_int < 3 || _long == 1", def2, null);
+		List<QueryAdvice> advices = 
+				new QueryOptimizer(def2, node).determineIndexToUse(qp.parseQuery());
+		assertEquals(1, advices.size());
+		assertNull(advices.get(0).getIndex());
+		
+		checkResults("_int < 3 || _long == 1", 52);
+		checkResults("_short == 1 && _int == 5", 1);
+		
+		//outdated statistics are rebuilt after commit
+		for (int i = 100; i < 150; i++) {
+			TestClass t = new TestClass();
+			t.setInt(i);
+			pm.makePersistent(t);
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		stats = node.getIndexStatistics(def.getField("_int"));
+		assertEquals(150, stats.getEntryCount());
+		assertEquals(2, node.getIndexStatistics(def.getField("_short")).getDistinctCount());
+	}
+	
+	private QueryAdvice getCostAdvice(Node node, String queryFilter) {
+		ZooClassDef def = getDef(TestClass.class);
+		QueryParser qp = new QueryParser(queryFilter, def, null);
+		List<QueryAdvice> advices = 
+				new QueryOptimizer(def, node).determineIndexToUse(qp.parseQuery());
+		assertEquals(1, advices.size());
+		return advices.get(0);
+	}
+	
 	@Test 
 	public void testThatPrintingDoesntThrowExceptions() {
 		pm.currentTransaction().commit();
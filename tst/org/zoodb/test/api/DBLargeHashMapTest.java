@@ -0,0 +1,209 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.api.DBLargeHashMap;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Test harness for DBLargeHashMap.
+ *
+ * @author  Tilmann Zaeschke
+ */
+public final class DBLargeHashMapTest {
+
+	private static final String PAGE_CLASS = "org.zoodb.internal.LargeMapPage";
+	
+    @BeforeClass
+    public static void setUpClass() {
+        TestTools.createDb();
+        TestTools.defineSchema(PersistentDummyImpl.class, DBLargeHashMap.class);
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+        TestTools.removeDb();
+    }
+    
+    @After
+    public void after() {
+    	TestTools.closePM();
+    }
+   
+    private static void check(Map<?, ?> expected, Map<?, ?> m) {
+    	assertEquals(expected.size(), m.size());
+    	for (Map.Entry<?, ?> e: expected.entrySet()) {
+    		assertEquals(e.getValue(), m.get(e.getKey()));
+    		assertTrue(m.containsKey(e.getKey()));
+    	}
+    	int n = 0;
+    	for (Map.Entry<?, ?> e: m.entrySet()) {
+    		assertEquals(expected.get(e.getKey()), e.getValue());
+    		n++;
+    	}
+    	assertEquals(expected.size(), n);
+    }
+    
+    /**
+     * Compare random operations with a HashMap.
+     */
+    @Test
+    public void testTransientOperations() {
+    	DBLargeHashMap<Object, Integer> m = new DBLargeHashMap<Object, Integer>();
+    	HashMap<Object, Integer> h = new HashMap<Object, Integer>();
+    	Random r = new Random(0);
+    	for (int i = 0; i < 50000; i++) {
+    		//Long keys with colliding hash codes
+    		Object key = (i % 3 == 0) ? "k" + r.nextInt(10000) : 
+    			Long.valueOf(((long)r.nextInt(100)) << 32 | r.nextInt(100));
+    		if (r.nextInt(3) == 0) {
+        		assertEquals(h.remove(key), m.remove(key));
+    		} else {
+    			assertEquals(h.put(key, i), m.put(key, i));
+    		}
+    	}
+    	check(h, m);
+    	assertNull(m.get("xyz"));
+    	assertFalse(m.containsKey("xyz"));
+    	
+    	//remove via iterator
+    	Iterator<Object> it = m.keySet().iterator();
+    	while (it.hasNext()) {
+    		Object k = it.next();
+    		if (k instanceof String) {
+    			it.remove();
+    			h.remove(k);
+    		}
+    	}
+    	check(h, m);
+    	
+    	m.clear();
+    	assertEquals(0, m.size());
+    	assertTrue(m.isEmpty());
+    	assertFalse(m.entrySet().iterator().hasNext());
+    }
+    
+    /**
+     * Many keys with the same hash code.
+     */
+    @Test
+    public void testEqualHashCodes() {
+    	DBLargeHashMap<Long, Long> m = new DBLargeHashMap<Long, Long>();
+    	//all keys 'i << 32 | i' have hash code 0
+    	for (long i = 1; i <= 1000; i++) {
+    		m.put(i << 32 | i, i);
+    		m.put(i, i);
+    	}
+    	assertEquals(2000, m.size());
+    	for (long i = 1; i <= 1000; i++) {
+    		assertEquals(i, (long)m.get(i << 32 | i));
+    		assertEquals(i, (long)m.get(i));
+    	}
+    	for (long i = 1; i <= 1000; i++) {
+    		assertEquals(i, (long)m.remove(i << 32 | i));
+    	}
+    	assertEquals(1000, m.size());
+    }
+    
+    @SuppressWarnings("unchecked")
+	@Test
+    public void testPersistence() {
+    	final int N = 10000;
+    	PersistenceManager pm = TestTools.openPM();
+    	pm.currentTransaction().begin();
+    	DBLargeHashMap<Object, Object> m = new DBLargeHashMap<Object, Object>();
+    	HashMap<Object, Object> h = new HashMap<Object, Object>();
+    	for (int i = 0; i < N; i++) {
+    		Object v = (i % 100 == 0) ? new PersistentDummyImpl() : "value-" + i;
+    		m.put("key-" + i, v);
+    		h.put("key-" + i, v);
+    	}
+    	PersistentDummyImpl pKey = new PersistentDummyImpl();
+    	try {
+    		m.put(pKey, "x");
+    		fail();
+    	} catch (JDOUserException e) {
+    		//good, persistent keys must be persistent
+    	}
+    	pm.makePersistent(pKey);
+    	m.put(pKey, "pKey");
+    	h.put(pKey, "pKey");
+    	pm.makePersistent(m);
+    	Object oid = pm.getObjectId(m);
+    	Object oidKey = pm.getObjectId(pKey);
+    	pm.currentTransaction().commit();
+    	pm.currentTransaction().begin();
+    	check(h, m);
+    	pm.currentTransaction().commit();
+    	TestTools.closePM();
+    	
+    	pm = TestTools.openPM();
+    	pm.currentTransaction().begin();
+    	m = (DBLargeHashMap<Object, Object>) pm.getObjectById(oid);
+    	assertEquals(N + 1, m.size());
+    	assertEquals("value-4321", m.get("key-4321"));
+    	assertTrue(m.get("key-4300") instanceof PersistentDummyImpl);
+    	assertEquals("pKey", m.get(pm.getObjectById(oidKey)));
+    	//Modifying a value only modifies a page, not the map object
+    	m.put("key-4321", "new-4321");
+    	assertFalse(JDOHelper.isDirty(m));
+    	m.remove("key-1");
+    	pm.currentTransaction().commit();
+    	TestTools.closePM();
+    	
+    	pm = TestTools.openPM();
+    	pm.currentTransaction().begin();
+    	m = (DBLargeHashMap<Object, Object>) pm.getObjectById(oid);
+    	assertEquals(N, m.size());
+    	assertEquals("new-4321", m.get("key-4321"));
+    	assertNull(m.get("key-1"));
+    	long nPages = ZooJdoHelper.schema(pm).getClass(PAGE_CLASS).instanceCount(false);
+    	assertTrue("" + nPages, nPages > 1);
+    	
+    	//deleting the map deletes all pages 
+    	pm.deletePersistent(m);
+    	pm.currentTransaction().commit();
+    	pm.currentTransaction().begin();
+    	assertEquals(0, ZooJdoHelper.schema(pm).getClass(PAGE_CLASS).instanceCount(false));
+    	pm.currentTransaction().commit();
+    	TestTools.closePM();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.api.DBLargeVector;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Test harness for DBLargeVector.
+ *
+ * @author  Tilmann Zaeschke
+ */
+public final class DBLargeVectorTest {
+
+	private static final String PAGE_CLASS = "org.zoodb.internal.LargeVectorPage";
+	
+    @BeforeClass
+    public static void setUpClass() {
+        TestTools.createDb();
+        TestTools.defineSchema(PersistentDummyImpl.class, DBLargeVector.class);
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+        TestTools.removeDb();
+    }
+    
+    @After
+    public void after() {
+    	TestTools.closePM();
+    }
+   
+    private static void check(List<?> expected, List<?> v) {
+    	assertEquals(expected.size(), v.size());
+    	for (int i = 0; i < expected.size(); i++) {
+    		assertEquals(expected.get(i), v.get(i));
+    	}
+    	Iterator<?> it = v.iterator();
+    	for (Object o: expected) {
+    		assertEquals(o, it.next());
+    	}
+    	assertFalse(it.hasNext());
+    }
+    
+    /**
+     * Compare random operations with an ArrayList.
+     */
+    @Test
+    public void testTransientOperations() {
+    	DBLargeVector<Integer> v = new DBLargeVector<Integer>();
+    	ArrayList<Integer> l = new ArrayList<Integer>();
+    	Random r = new Random(0);
+    	for (int i = 0; i < 20000; i++) {
+    		v.add(i);
+    		l.add(i);
+    	}
+    	check(l, v);
+    	for (int i = 0; i < 20000; i++) {
+    		int pos = r.nextInt(l.size() + 1);
+    		switch (r.nextInt(3)) {
+    		case 0: 
+    			v.add(pos, -i);
+    			l.add(pos, -i);
+    			break;
+    		case 1:
+    			if (pos < l.size()) {
+    				assertEquals(l.set(pos, i), v.set(pos, i));
+    			}
+    			break;
+    		case 2:
+    			if (pos < l.size()) {
+    				assertEquals(l.remove(pos), v.remove(pos));
+    			}
+    			break;
+    		}
+    	}
+    	check(l, v);
+    	
+    	//remove most elements
+    	Iterator<Integer> it = v.iterator();
+    	while (it.hasNext()) {
+    		if (it.next() % 10 != 0) {
+    			it.remove();
+    		}
+    	}
+    	it = l.iterator();
+    	while (it.hasNext()) {
+    		if (it.next() % 10 != 0) {
+    			it.remove();
+    		}
+    	}
+    	check(l, v);
+    	
+    	v.clear();
+    	assertEquals(0, v.size());
+    	assertTrue(v.isEmpty());
+    	v.add(1);
+    	assertEquals(1, (int)v.get(0));
+    }
+    
+    @SuppressWarnings("unchecked")
+	@Test
+    public void testPersistence() {
+    	final int N = 10000;
+    	PersistenceManager pm = TestTools.openPM();
+    	pm.currentTransaction().begin();
+    	DBLargeVector<Object> v = new DBLargeVector<Object>();
+    	ArrayList<Object> l = new ArrayList<Object>();
+    	for (int i = 0; i < N; i++) {
+    		Object o = (i % 100 == 0) ? new PersistentDummyImpl() : "element-" + i;
+    		v.add(o);
+    		l.add(o);
+    	}
+    	pm.makePersistent(v);
+    	Object oid = pm.getObjectId(v);
+    	pm.currentTransaction().commit();
+    	pm.currentTransaction().begin();
+    	check(l, v);
+    	pm.currentTransaction().commit();
+    	TestTools.closePM();
+    	
+    	pm = TestTools.openPM();
+    	pm.currentTransaction().begin();
+    	v = (DBLargeVector<Object>) pm.getObjectById(oid);
+    	assertEquals(N, v.size());
+    	assertEquals("element-4321", v.get(4321));
+    	assertTrue(v.get(4300) instanceof PersistentDummyImpl);
+    	//Modifying an element only modifies a page, not the vector object
+    	v.set(4321, "new-4321");
+    	l.set(4321, "new-4321");
+    	assertFalse(JDOHelper.isDirty(v));
+    	v.remove(0);
+    	l.remove(0);
+    	pm.currentTransaction().commit();
+    	TestTools.closePM();
+    	
+    	pm = TestTools.openPM();
+    	pm.currentTransaction().begin();
+    	v = (DBLargeVector<Object>) pm.getObjectById(oid);
+    	assertEquals(N-1, v.size());
+    	for (int i = 0; i < l.size(); i++) {
+    		if (l.get(i) instanceof String) {
+    			assertEquals(l.get(i), v.get(i));
+    		} else {
+    			assertTrue(v.get(i) instanceof PersistentDummyImpl);
+    		}
+    	}
+    	long nPages = ZooJdoHelper.schema(pm).getClass(PAGE_CLASS).instanceCount(false);
+    	assertTrue("" + nPages, nPages > 1);
+    	
+    	//deleting the vector deletes all pages 
+    	pm.deletePersistent(v);
+    	pm.currentTransaction().commit();
+    	pm.currentTransaction().begin();
+    	assertEquals(0, ZooJdoHelper.schema(pm).getClass(PAGE_CLASS).instanceCount(false));
+    	pm.currentTransaction().commit();
+    	TestTools.closePM();
+    }
+    
+    @SuppressWarnings("unchecked")
+	@Test
+    public void testRemoveDeletesPages() {
+    	PersistenceManager pm = TestTools.openPM();
+    	pm.currentTransaction().begin();
+    	DBLargeVector<Integer> v = new DBLargeVector<Integer>();
+    	for (int i = 0; i < 10000; i++) {
+    		v.add(i);
+    	}
+    	pm.makePersistent(v);
+    	Object oid = pm.getObjectId(v);
+    	pm.currentTransaction().commit();
+    	pm.currentTransaction().begin();
+    	long nPages = ZooJdoHelper.schema(pm).getClass(PAGE_CLASS).instanceCount(false);
+    	pm.currentTransaction().commit();
+    	TestTools.closePM();
+
+    	pm = TestTools.openPM();
+    	pm.currentTransaction().begin();
+    	v = (DBLargeVector<Integer>) pm.getObjectById(oid);
+    	for (int i = 0; i < 9000; i++) {
+    		v.remove(v.size() - 1);
+    	}
+    	pm.currentTransaction().commit();
+    	pm.currentTransaction().begin();
+    	assertEquals(1000, v.size());
+    	assertEquals(999, (int)v.get(999));
+    	long nPages2 = ZooJdoHelper.schema(pm).getClass(PAGE_CLASS).instanceCount(false);
+    	assertTrue(nPages + " -> " + nPages2, nPages2 < nPages / 5);
+    	v.clear();
+    	pm.currentTransaction().commit();
+    	pm.currentTransaction().begin();
+    	assertEquals(0, ZooJdoHelper.schema(pm).getClass(PAGE_CLASS).instanceCount(false));
+    	pm.deletePersistent(v);
+    	pm.currentTransaction().commit();
+    	TestTools.closePM();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.index;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.zoodb.internal.server.index.CompositeKey;
+
+public class TestCompositeKey {
+
+	private static String key(String s, long l, int maxLength) {
+		StringBuilder sb = new StringBuilder();
+		CompositeKey.appendString(sb, s, maxLength);
+		CompositeKey.appendLong(sb, l);
+		return sb.toString();
+	}
+	
+	@Test
+	public void testTruncation() {
+		String s = "abcdefghij";
+		StringBuilder sb = new StringBuilder();
+		CompositeKey.appendString(sb, s, 7);
+		//marker, 5 chars, terminator
+		assertEquals(7, sb.length());
+		
+		//escaped chars are not split
+		sb.setLength(0);
+		CompositeKey.appendString(sb, "ab\u0000cd", 5);
+		assertEquals(4, sb.length());
+		sb.setLength(0);
+		CompositeKey.appendString(sb, "ab\u0000cd", 6);
+		assertEquals(6, sb.length());
+		
+		//the following field is kept
+		assertTrue(key(s + "x", 1, 7).compareTo(key(s + "y", 2, 7)) < 0);
+		assertTrue(key(s + "y", 1, 7).compareTo(key(s + "x", 2, 7)) < 0);
+		assertEquals(key(s + "x", 1, 7), key(s + "y", 1, 7));
+	}
+	
+	@Test
+	public void testTruncatedOrder() {
+		Random r = new Random(0);
+		String[] strs = new String[500];
+		for (int i = 0; i < strs.length; i++) {
+			char[] ca = new char[r.nextInt(12)];
+			for (int j = 0; j < ca.length; j++) {
+				//mostly chars that need escaping
+				ca[j] = (char) r.nextInt(4);
+			}
+			strs[i] = new String(ca);
+		}
+		for (int len = 2; len < 15; len++) {
+			for (int i = 0; i < strs.length; i++) {
+				for (int j = 0; j < strs.length; j += 7) {
+					String k1 = key(strs[i], 0, len);
+					String k2 = key(strs[j], 0, len);
+					String f1 = key(strs[i], 0, Integer.MAX_VALUE);
+					String f2 = key(strs[j], 0, Integer.MAX_VALUE);
+					assertEquals(Integer.signum(strs[i].compareTo(strs[j])), 
+							Integer.signum(f1.compareTo(f2)));
+					if (f1.compareTo(f2) < 0) {
+						assertTrue(k1.compareTo(k2) <= 0);
+					}
+				}
+			}
+		}
+	}
+}
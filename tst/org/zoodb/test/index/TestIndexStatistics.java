@@ -0,0 +1,154 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.internal.server.StorageChannel;
+import org.zoodb.internal.server.StorageRootInMemory;
+import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.index.IndexStatistics;
+import org.zoodb.internal.server.index.PagedLongLong;
+import org.zoodb.internal.server.index.PagedStringLong;
+import org.zoodb.tools.ZooConfig;
+
+public class TestIndexStatistics {
+
+    private static final int PAGE_SIZE = 1024;
+
+    @BeforeClass
+    public static void setUp() {
+    	ZooConfig.setFilePageSize(PAGE_SIZE);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+    	ZooConfig.setFilePageSize(ZooConfig.FILE_PAGE_SIZE_DEFAULT);
+    }
+
+    @Before
+    public void setUpTest() {
+    	ZooConfig.setFilePageSize(PAGE_SIZE);
+    }
+    
+    private StorageChannel createPageAccessFile() {
+    	StorageChannel paf = new StorageRootInMemory(ZooConfig.getFilePageSize());
+    	return paf;
+    }
+    
+    private static void assertAbout(double expected, double actual) {
+    	assertTrue("expected=" + expected + " actual=" + actual, 
+    			Math.abs(expected - actual) <= 0.02);
+    }
+    
+    @Test
+    public void testEmpty() {
+        PagedLongLong ind = new PagedLongLong(DATA_TYPE.FIELD_INDEX, createPageAccessFile());
+        IndexStatistics s = IndexStatistics.build(ind.iterator());
+        assertEquals(0, s.getEntryCount());
+        assertEquals(0, s.estimateSelectivity(0, 0), 0);
+        assertEquals(0, s.estimateSelectivity(Long.MIN_VALUE, Long.MAX_VALUE), 0);
+    }
+    
+    @Test
+    public void testUniform() {
+        PagedLongLong ind = new PagedLongLong(DATA_TYPE.FIELD_INDEX, createPageAccessFile());
+        for (int i = 0; i < 10000; i++) {
+        	ind.insertLong(i, 2*i);
+        	ind.insertLong(i, 2*i+1);
+        }
+        IndexStatistics s = IndexStatistics.build(ind.iterator());
+        assertEquals(20000, s.getEntryCount());
+        assertEquals(10000, s.getDistinctCount());
+        
+        assertAbout(1.0/10000, s.estimateSelectivity(5, 5));
+        assertAbout(0.1, s.estimateSelectivity(0, 999));
+        assertAbout(0.5, s.estimateSelectivity(2500, 7499));
+        assertAbout(1, s.estimateSelectivity(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertAbout(0, s.estimateSelectivity(20000, Long.MAX_VALUE));
+        assertAbout(0, s.estimateSelectivity(-1, -1));
+    }
+    
+    @Test
+    public void testSkewed() {
+        PagedLongLong ind = new PagedLongLong(DATA_TYPE.FIELD_INDEX, createPageAccessFile());
+        for (int i = 0; i < 10000; i++) {
+        	ind.insertLong(i < 9000 ? 5 : i, i);
+        }
+        IndexStatistics s = IndexStatistics.build(ind.iterator());
+        assertEquals(10000, s.getEntryCount());
+        assertEquals(1001, s.getDistinctCount());
+        
+        //the frequent key fills most buckets
+        assertTrue(s.estimateSelectivity(5, 5) > 0.8);
+        assertAbout(1.0/1001, s.estimateSelectivity(9500, 9500));
+        assertAbout(0.05, s.estimateSelectivity(9500, 9999));
+    }
+    
+    @Test
+    public void testStrings() {
+    	PagedStringLong ind = 
+    			new PagedStringLong(DATA_TYPE.FIELD_INDEX, createPageAccessFile(), false);
+        for (int i = 0; i < 1000; i++) {
+        	ind.insertString("k" + (char)('a' + i % 26) + i, i);
+        }
+        ind.insertString(null, 1000);
+        IndexStatistics s = IndexStatistics.build(ind.iterator(null, null));
+        assertEquals(1001, s.getEntryCount());
+        assertEquals(1001, s.getDistinctCount());
+        
+        assertAbout(1.0/1001, s.estimateSelectivity("ka0", "ka0"));
+        assertAbout(1.0/26, s.estimateSelectivity("ka", "kb"));
+        assertAbout(1, s.estimateSelectivity(null, null));
+        assertAbout(0, s.estimateSelectivity("x", null));
+    }
+    
+    @Test
+    public void testStringsSamePrefix() {
+    	PagedStringLong ind = 
+    			new PagedStringLong(DATA_TYPE.FIELD_INDEX, createPageAccessFile(), false);
+        for (int i = 0; i < 1000; i++) {
+        	ind.insertString("IndexedObject" + i, i);
+        }
+        IndexStatistics s = IndexStatistics.build(ind.iterator(null, null));
+        assertEquals(1000, s.getDistinctCount());
+        
+        //all keys share the first four characters
+        assertAbout(1.0/1000, s.estimateSelectivity("IndexedObject5", "IndexedObject5"));
+        assertAbout(0, s.estimateSelectivity("Other", "Other"));
+    }
+    
+    @Test
+    public void testToSortableLong() {
+    	String[] strs = {"", "a", "ab", "abc", "abcd", "b", "\u00ff", "\uffff"};
+    	for (int i = 1; i < strs.length; i++) {
+    		assertTrue(strs[i], IndexStatistics.toSortableLong(strs[i-1]) < 
+    				IndexStatistics.toSortableLong(strs[i]));
+    	}
+    	assertEquals(IndexStatistics.toSortableLong("abcd"), 
+    			IndexStatistics.toSortableLong("abcde"));
+    }
+}
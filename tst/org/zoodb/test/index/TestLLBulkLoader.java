@@ -0,0 +1,242 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.StorageChannel;
+import org.zoodb.internal.server.StorageRootInMemory;
+import org.zoodb.internal.server.index.LLBulkLoader;
+import org.zoodb.internal.server.index.PagedLongLong;
+import org.zoodb.internal.server.index.PagedUniqueLongLong;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for bottom-up bulk loading of long-long indices.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class TestLLBulkLoader {
+
+	private static final int PAGE_SIZE = 128;
+
+	@Before
+	public void before() {
+		ZooConfig.setFilePageSize(PAGE_SIZE);
+	}
+
+	@After
+	public void after() {
+		ZooConfig.setFilePageSize(ZooConfig.FILE_PAGE_SIZE_DEFAULT);
+	}
+
+	private StorageChannel createPageAccessFile() {
+		return new StorageRootInMemory(ZooConfig.getFilePageSize());
+	}
+
+	/**
+	 * @return shuffled keys 0..n-1
+	 */
+	private static long[] shuffled(int n) {
+		long[] a = new long[n];
+		for (int i = 0; i < n; i++) {
+			a[i] = i;
+		}
+		Random r = new Random(0);
+		for (int i = n - 1; i > 0; i--) {
+			int j = r.nextInt(i + 1);
+			long x = a[i];
+			a[i] = a[j];
+			a[j] = x;
+		}
+		return a;
+	}
+	
+	private void checkUnique(int n, int bufferSize) {
+		StorageChannel paf = createPageAccessFile();
+		PagedUniqueLongLong ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf);
+		LLBulkLoader loader = new LLBulkLoader(ind, bufferSize);
+		for (long k: shuffled(n)) {
+			loader.add(k, k + 32);
+		}
+		loader.load();
+		
+		Iterator<LLEntry> it = ind.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		for (int i = 0; i < n; i++) {
+			LLEntry e = it.next();
+			assertEquals(i, e.getKey());
+			assertEquals(i + 32, e.getValue());
+		}
+		assertFalse(it.hasNext());
+		for (int i = 0; i < n; i++) {
+			LLEntry e = ind.findValue(i);
+			assertNotNull("i=" + i, e);
+			assertEquals(i + 32, e.getValue());
+		}
+		assertNull(ind.findValue(n));
+		
+		//read from disk
+		int root = ind.write();
+		PagedUniqueLongLong ind2 = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		Iterator<LLEntry> it2 = ind2.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, it2.next().getKey());
+		}
+		assertFalse(it2.hasNext());
+		assertEquals(0, ind2.statsGetWrittenPagesN());
+	}
+	
+	@Test
+	public void testUniqueSmall() {
+		checkUnique(0, 1000);
+		checkUnique(1, 1000);
+		checkUnique(10, 1000);
+		checkUnique(100, 1000);
+	}
+	
+	@Test
+	public void testUniqueLarge() {
+		checkUnique(100000, 1000000);
+	}
+	
+	@Test
+	public void testUniqueExternalSort() {
+		checkUnique(100000, 1000);
+		checkUnique(1001, 1000);
+	}
+	
+	@Test
+	public void testNonUnique() {
+		final int N = 10000;
+		final int DUP = 5;
+		StorageChannel paf = createPageAccessFile();
+		PagedLongLong ind = new PagedLongLong(DATA_TYPE.GENERIC_INDEX, paf);
+		LLBulkLoader loader = new LLBulkLoader(ind, 777);
+		for (long k: shuffled(N * DUP)) {
+			loader.add(k % N, k);
+		}
+		loader.load();
+		
+		Iterator<LLEntry> it = ind.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < DUP; j++) {
+				LLEntry e = it.next();
+				assertEquals(i, e.getKey());
+				assertEquals(i + j * N, e.getValue());
+			}
+		}
+		assertFalse(it.hasNext());
+		
+		it = ind.iterator(123, 123);
+		for (int j = 0; j < DUP; j++) {
+			assertEquals(123 + j * N, it.next().getValue());
+		}
+		assertFalse(it.hasNext());
+	}
+	
+	/**
+	 * Bulk loaded indices should be smaller than incrementally built ones, and they have to
+	 * support later updates.
+	 */
+	@Test
+	public void testDensityAndUpdates() {
+		final int N = 100000;
+		long[] keys = shuffled(N);
+		
+		PagedUniqueLongLong ind1 = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, 
+				createPageAccessFile());
+		for (long k: keys) {
+			ind1.insertLong(k, k);
+		}
+		
+		PagedUniqueLongLong ind2 = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, 
+				createPageAccessFile());
+		LLBulkLoader loader = new LLBulkLoader(ind2);
+		for (long k: keys) {
+			loader.add(k, k);
+		}
+		loader.load();
+		assertTrue(ind2.statsGetLeavesN() + " / " + ind1.statsGetLeavesN(), 
+				ind2.statsGetLeavesN() < ind1.statsGetLeavesN());
+		
+		//updates
+		for (int i = 0; i < N; i += 2) {
+			ind2.removeLong(i);
+		}
+		for (int i = N; i < N + 1000; i++) {
+			ind2.insertLong(i, i);
+		}
+		ind2.insertLong(-1, -1);
+		Iterator<LLEntry> it = ind2.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		assertEquals(-1, it.next().getKey());
+		for (int i = 1; i < N; i += 2) {
+			assertEquals(i, it.next().getKey());
+		}
+		for (int i = N; i < N + 1000; i++) {
+			assertEquals(i, it.next().getKey());
+		}
+		assertFalse(it.hasNext());
+	}
+	
+	@Test
+	public void testUniqueDuplicates() {
+		PagedUniqueLongLong ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, 
+				createPageAccessFile());
+		LLBulkLoader loader = new LLBulkLoader(ind, 10);
+		for (int i = 0; i < 100; i++) {
+			loader.add(i, i);
+		}
+		loader.add(55, 1000);
+		try {
+			loader.load();
+			fail();
+		} catch (RuntimeException e) {
+			//good
+			assertTrue(e.getMessage(), e.getMessage().contains("Duplicate"));
+		}
+	}
+	
+	@Test
+	public void testNonEmptyIndexFails() {
+		PagedUniqueLongLong ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, 
+				createPageAccessFile());
+		ind.insertLong(1, 1);
+		try {
+			new LLBulkLoader(ind);
+			fail();
+		} catch (RuntimeException e) {
+			//good
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.StorageChannel;
+import org.zoodb.internal.server.StorageRootInMemory;
+import org.zoodb.internal.server.index.PagedLongLong;
+import org.zoodb.internal.server.index.PagedUniqueLongLong;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for compressed leaf pages of long-long indices.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class TestLLIndexCompression {
+
+	private static final int PAGE_SIZE = 128;
+	/** Entries per leaf without compression. */
+	private static final int MAX_LEAF_N = (PAGE_SIZE - 16) / 16;
+
+	@Before
+	public void before() {
+		ZooConfig.setFilePageSize(PAGE_SIZE);
+	}
+
+	@After
+	public void after() {
+		ZooConfig.setFilePageSize(ZooConfig.FILE_PAGE_SIZE_DEFAULT);
+	}
+
+	private StorageChannel createPageAccessFile() {
+		return new StorageRootInMemory(ZooConfig.getFilePageSize());
+	}
+
+	private static void checkUnique(PagedUniqueLongLong ind, long[] values) {
+		Iterator<LLEntry> it = ind.iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == -1) {
+				assertNull(ind.findValue(i));
+				continue;
+			}
+			LLEntry e = it.next();
+			assertEquals(i, e.getKey());
+			assertEquals(values[i], e.getValue());
+			e = ind.findValue(i);
+			assertNotNull("i=" + i, e);
+			assertEquals(values[i], e.getValue());
+		}
+		assertFalse(it.hasNext());
+	}
+	
+	@Test
+	public void testSequentialKeys() {
+		final int N = 10000;
+		StorageChannel paf = createPageAccessFile();
+		PagedUniqueLongLong ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf);
+		long[] values = new long[N];
+		for (int i = 0; i < N; i++) {
+			values[i] = 1000 + 3 * i;
+			ind.insertLong(i, values[i]);
+		}
+		checkUnique(ind, values);
+		//dense keys and values require much fewer leaves than uncompressed storage
+		assertTrue("" + ind.statsGetLeavesN(), ind.statsGetLeavesN() < N / (2 * MAX_LEAF_N));
+		
+		int root = ind.write();
+		PagedUniqueLongLong ind2 = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		checkUnique(ind2, values);
+	}
+	
+	@Test
+	public void testRandomKeys() {
+		final int N = 10000;
+		StorageChannel paf = createPageAccessFile();
+		PagedUniqueLongLong ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf);
+		long[] values = new long[N];
+		Random r = new Random(0);
+		for (int i = 0; i < N; i++) {
+			values[i] = -1;
+		}
+		for (int i = 0; i < 3 * N; i++) {
+			int k = r.nextInt(N);
+			values[k] = r.nextInt(100000);
+			ind.insertLong(k, values[k]);
+		}
+		checkUnique(ind, values);
+		
+		int root = ind.write();
+		PagedUniqueLongLong ind2 = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		checkUnique(ind2, values);
+	}
+	
+	/**
+	 * Updated values that do not fit on compressed pages anymore.
+	 */
+	@Test
+	public void testUpdateWidensValueRange() {
+		final int N = 5000;
+		StorageChannel paf = createPageAccessFile();
+		PagedUniqueLongLong ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf);
+		long[] values = new long[N];
+		for (int i = 0; i < N; i++) {
+			values[i] = i;
+			ind.insertLong(i, values[i]);
+		}
+		int root = ind.write();
+		ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		Random r = new Random(0);
+		for (int i = 0; i < N; i += 7) {
+			values[i] = r.nextLong();
+			ind.insertLong(i, values[i]);
+		}
+		checkUnique(ind, values);
+		
+		root = ind.write();
+		PagedUniqueLongLong ind2 = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		checkUnique(ind2, values);
+	}
+	
+	@Test
+	public void testRemove() {
+		final int N = 10000;
+		StorageChannel paf = createPageAccessFile();
+		PagedUniqueLongLong ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf);
+		long[] values = new long[N];
+		for (int i = 0; i < N; i++) {
+			values[i] = 2 * i;
+			ind.insertLong(i, values[i]);
+		}
+		int root = ind.write();
+		ind = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		Random r = new Random(0);
+		for (int i = 0; i < N; i++) {
+			int k = r.nextInt(N);
+			if (values[k] != -1) {
+				assertEquals(values[k], ind.removeLong(k));
+				values[k] = -1;
+			}
+		}
+		checkUnique(ind, values);
+		
+		root = ind.write();
+		PagedUniqueLongLong ind2 = new PagedUniqueLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		checkUnique(ind2, values);
+	}
+	
+	@Test
+	public void testNonUnique() {
+		final int N = 10000;
+		final int M = 4;
+		StorageChannel paf = createPageAccessFile();
+		PagedLongLong ind = new PagedLongLong(DATA_TYPE.GENERIC_INDEX, paf);
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < M; j++) {
+				ind.insertLong(i, j);
+			}
+		}
+		int root = ind.write();
+		PagedLongLong ind2 = new PagedLongLong(DATA_TYPE.GENERIC_INDEX, paf, root);
+		Iterator<LLEntry> it = ind2.iterator();
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < M; j++) {
+				LLEntry e = it.next();
+				assertEquals(i, e.getKey());
+				assertEquals(j, e.getValue());
+			}
+		}
+		assertFalse(it.hasNext());
+		
+		for (int i = 0; i < N; i += 2) {
+			ind2.removeLong(i, 1);
+		}
+		it = ind2.iterator(N/2, N/2);
+		assertEquals(3, count(it));
+		it = ind2.iterator(N/2 + 1, N/2 + 1);
+		assertEquals(4, count(it));
+	}
+	
+	private static int count(Iterator<?> it) {
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+	
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.internal.server.StorageChannel;
+import org.zoodb.internal.server.StorageRootInMemory;
+import org.zoodb.internal.server.DiskIO.DATA_TYPE;
+import org.zoodb.internal.server.index.PagedStringLong;
+import org.zoodb.internal.server.index.PagedStringLong.SLEntry;
+import org.zoodb.tools.ZooConfig;
+
+public class TestStringLongIndex {
+
+    private static final int PAGE_SIZE = 1024;
+
+    @BeforeClass
+    public static void setUp() {
+    	ZooConfig.setFilePageSize(PAGE_SIZE);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+    	ZooConfig.setFilePageSize(ZooConfig.FILE_PAGE_SIZE_DEFAULT);
+    }
+
+    @Before
+    public void setUpTest() {
+    	ZooConfig.setFilePageSize(PAGE_SIZE);
+    }
+    
+    private StorageChannel createPageAccessFile() {
+    	StorageChannel paf = new StorageRootInMemory(ZooConfig.getFilePageSize());
+    	return paf;
+    }
+    
+    /**
+     * Keys with varying length and long common prefixes.
+     */
+    private static String key(int i) {
+    	StringBuilder sb = new StringBuilder("key-");
+    	for (int j = 0; j < i % 7; j++) {
+    		sb.append("abc");
+    	}
+    	sb.append(i);
+    	return sb.toString();
+    }
+    
+    private static void checkRange(PagedStringLong ind, TreeMap<String, Long> map, 
+    		String min, String max) {
+    	Map<String, Long> sub;
+    	if (min == null && max == null) {
+    		sub = map;
+    	} else if (min == null) {
+    		sub = map.headMap(max, true);
+    	} else if (max == null) {
+    		sub = map.tailMap(min, true);
+    	} else {
+    		sub = map.subMap(min, true, max, true);
+    	}
+    	Iterator<SLEntry> it = ind.iterator(min, max);
+    	for (Map.Entry<String, Long> e: sub.entrySet()) {
+    		assertTrue(it.hasNext());
+    		SLEntry se = it.next();
+    		assertEquals(e.getKey(), se.getKey());
+    		assertEquals((long)e.getValue(), se.getValue());
+    	}
+    	assertFalse(it.hasNext());
+
+    	it = ind.descendingIterator(max, min);
+    	List<Map.Entry<String, Long>> list = new ArrayList<Map.Entry<String,Long>>(sub.entrySet());
+    	for (int i = list.size()-1; i >= 0; i--) {
+    		assertTrue(it.hasNext());
+    		SLEntry se = it.next();
+    		assertEquals(list.get(i).getKey(), se.getKey());
+    		assertEquals((long)list.get(i).getValue(), se.getValue());
+    	}
+    	assertFalse(it.hasNext());
+    }
+    
+    @Test
+    public void testUniqueInsertFindIterate() {
+        final int MAX = 20000;
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, true);
+        TreeMap<String, Long> map = new TreeMap<String, Long>();
+        Random r = new Random(0);
+        for (int i = 0; i < MAX; i++) {
+        	int k = r.nextInt(MAX*10);
+        	assertEquals(!map.containsKey(key(k)), ind.insertStringIfNotSet(key(k), k));
+        	map.put(key(k), (long) k);
+        }
+        for (Map.Entry<String, Long> e: map.entrySet()) {
+        	SLEntry se = ind.findValue(e.getKey());
+        	assertNotNull(se);
+        	assertEquals((long)e.getValue(), se.getValue());
+        }
+        assertNull(ind.findValue("xyz"));
+        assertNull(ind.findValue(""));
+        
+        checkRange(ind, map, null, null);
+        checkRange(ind, map, "key-1", "key-5");
+        checkRange(ind, map, "key-abc", "key-abcabc");
+        checkRange(ind, map, null, "key-1");
+        checkRange(ind, map, "key-abcabcabcabc", null);
+        checkRange(ind, map, "x", null);
+        checkRange(ind, map, null, "a");
+        checkRange(ind, map, "key-2", "key-2");
+    }
+
+    @Test
+    public void testUniqueOverwrite() {
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, true);
+        ind.insertString("a", 1);
+        ind.insertString("a", 2);
+        assertFalse(ind.insertStringIfNotSet("a", 3));
+        assertEquals(2, ind.findValue("a").getValue());
+        Iterator<SLEntry> it = ind.iterator(null, null);
+        assertEquals(2, it.next().getValue());
+        assertFalse(it.hasNext());
+    }
+    
+    @Test
+    public void testNonUnique() {
+        final int MAX = 5000;
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, false);
+        for (int i = 0; i < MAX; i++) {
+        	ind.insertString(key(i), i);
+        	ind.insertString(key(i), i + MAX);
+        	ind.insertString(key(i), i + 2*MAX);
+        	//duplicate pair, this should be ignored
+        	ind.insertString(key(i), i);
+        }
+        for (int i = 0; i < MAX; i++) {
+        	Iterator<SLEntry> it = ind.iterator(key(i), key(i));
+        	assertEquals(i, it.next().getValue());
+        	assertEquals(i + MAX, it.next().getValue());
+        	assertEquals(i + 2*MAX, it.next().getValue());
+        	assertFalse(it.hasNext());
+        }
+        //remove middle value
+        for (int i = 0; i < MAX; i++) {
+        	assertEquals(i + MAX, ind.removeString(key(i), i + MAX));
+        }
+        for (int i = 0; i < MAX; i++) {
+        	Iterator<SLEntry> it = ind.descendingIterator(key(i), key(i));
+        	assertEquals(i + 2*MAX, it.next().getValue());
+        	assertEquals(i, it.next().getValue());
+        	assertFalse(it.hasNext());
+        }
+        try {
+        	ind.removeString(key(1), 1 + MAX);
+        	fail();
+        } catch (NoSuchElementException e) {
+        	//good
+        }
+    }
+    
+    @Test
+    public void testRemoveAllAndReinsert() {
+        final int MAX = 10000;
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, true);
+        TreeMap<String, Long> map = new TreeMap<String, Long>();
+        for (int i = 0; i < MAX; i++) {
+        	ind.insertString(key(i), i);
+        	map.put(key(i), (long) i);
+        }
+        //remove every second entry
+        for (int i = 0; i < MAX; i += 2) {
+        	assertEquals(i, ind.removeString(key(i), i));
+        	map.remove(key(i));
+        }
+        checkRange(ind, map, null, null);
+        checkRange(ind, map, key(100), key(200));
+        
+        for (int i = 1; i < MAX; i += 2) {
+        	assertEquals(i, ind.removeString(key(i), i));
+        }
+        assertFalse(ind.iterator(null, null).hasNext());
+        assertFalse(ind.descendingIterator(null, null).hasNext());
+        
+        for (int i = 0; i < MAX; i++) {
+        	ind.insertString(key(i), i);
+        	map.put(key(i), (long) i);
+        }
+        checkRange(ind, map, null, null);
+    }
+    
+    @Test
+    public void testNullAndEmptyKeys() {
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, false);
+        for (int i = 0; i < 1000; i++) {
+        	ind.insertString(null, i);
+        	ind.insertString("", i);
+        	ind.insertString(key(i), i);
+        }
+        //null keys come first
+        Iterator<SLEntry> it = ind.iterator(null, "");
+        for (int i = 0; i < 1000; i++) {
+        	SLEntry e = it.next();
+        	assertNull(e.getKey());
+        	assertEquals(i, e.getValue());
+        }
+        for (int i = 0; i < 1000; i++) {
+        	SLEntry e = it.next();
+        	assertEquals("", e.getKey());
+        	assertEquals(i, e.getValue());
+        }
+        assertFalse(it.hasNext());
+        
+        it = ind.iterator("", "");
+        assertEquals("", it.next().getKey());
+        
+        for (int i = 0; i < 1000; i++) {
+        	ind.removeString(null, i);
+        }
+        it = ind.iterator(null, null);
+        assertEquals("", it.next().getKey());
+    }
+
+    @Test
+    public void testLongKeys() {
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, false);
+        int len = ind.getMaxKeyLength();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2*len; i++) {
+        	sb.append((char)('a' + i % 26));
+        }
+        String prefix = sb.toString();
+        for (int i = 0; i < 1000; i++) {
+        	ind.insertString(prefix + i, i);
+        }
+        //all keys are truncated to the same prefix, the query needs to filter them
+        Iterator<SLEntry> it = ind.iterator(prefix + 5, prefix + 5);
+        int n = 0;
+        while (it.hasNext()) {
+        	assertEquals(len, it.next().getKey().length());
+        	n++;
+        }
+        assertEquals(1000, n);
+        for (int i = 0; i < 1000; i++) {
+        	ind.removeString(prefix + i, i);
+        }
+        assertFalse(ind.iterator(null, null).hasNext());
+    }
+    
+    @Test
+    public void testLongKeysUnique() {
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, true);
+        int len = ind.getMaxKeyLength();
+        assertEquals(PagedStringLong.maxKeyLength(paf.getPageSize(), true), len);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < len; i++) {
+        	sb.append((char)('a' + i % 26));
+        }
+        String max = sb.toString();
+        //keys of maximum length are stored in full
+        ind.insertString(max, 1);
+        ind.insertString(max.substring(1) + "x", 2);
+        assertEquals(1, ind.findValue(max).getValue());
+        assertEquals(2, ind.findValue(max.substring(1) + "x").getValue());
+        
+        //longer keys must not collide with 'max' or with each other
+        ind.insertString(max + "1", 3);
+        assertTrue(ind.insertStringIfNotSet(max + "2", 4));
+        assertFalse(ind.insertStringIfNotSet(max + "1", 5));
+        assertEquals(1, ind.findValue(max).getValue());
+        assertEquals(3, ind.findValue(max + "1").getValue());
+        assertEquals(4, ind.findValue(max + "2").getValue());
+        assertNull(ind.findValue(max + "3"));
+        
+        //range searches return all keys with the same prefix
+        assertEquals(3, count(ind.iterator(max + "1", max + "1")));
+        assertEquals(3, count(ind.descendingIterator(max + "1", max + "1")));
+        assertEquals(4, count(ind.iterator(null, null)));
+        
+        assertEquals(3, ind.removeString(max + "1", 3));
+        assertNull(ind.findValue(max + "1"));
+        try {
+        	ind.removeString(max + "1", 3);
+        	fail();
+        } catch (NoSuchElementException e) {
+        	//good
+        }
+        assertEquals(1, ind.findValue(max).getValue());
+        assertEquals(4, ind.findValue(max + "2").getValue());
+        
+        //non-unique indices accept them
+        PagedStringLong ind2 = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, false);
+        while (sb.length() <= ind2.getMaxKeyLength()) {
+        	sb.append('z');
+        }
+        String long2 = sb.toString();
+        ind2.insertString(long2 + "1", 3);
+        ind2.insertString(long2 + "2", 4);
+        assertEquals(2, count(ind2.iterator(long2 + "1", long2 + "1")));
+    }
+    
+    private static int count(Iterator<?> it) {
+    	int n = 0;
+    	while (it.hasNext()) {
+    		it.next();
+    		n++;
+    	}
+    	return n;
+    }
+    
+    @Test
+    public void testWriteAndRead() {
+        final int MAX = 20000;
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, true);
+        TreeMap<String, Long> map = new TreeMap<String, Long>();
+        for (int i = 0; i < MAX; i++) {
+        	ind.insertString(key(i), i);
+        	map.put(key(i), (long) i);
+        }
+        ind.insertString(null, -1);
+        int root = ind.write();
+        
+        PagedStringLong ind2 = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, root, true);
+        assertEquals(-1, ind2.findValue(null).getValue());
+        ind2.removeString(null, -1);
+        checkRange(ind2, map, null, null);
+        checkRange(ind2, map, key(10), key(20));
+        
+        //modify and write again
+        for (int i = 0; i < MAX; i += 3) {
+        	ind2.removeString(key(i), i);
+        	map.remove(key(i));
+        }
+        root = ind2.write();
+        PagedStringLong ind3 = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, root, true);
+        checkRange(ind3, map, null, null);
+    }
+    
+    @Test
+    public void testIteratorWithRemove() {
+        final int MAX = 10000;
+        StorageChannel paf = createPageAccessFile();
+        PagedStringLong ind = new PagedStringLong(DATA_TYPE.GENERIC_INDEX, paf, true);
+        for (int i = 0; i < MAX; i++) {
+        	ind.insertString(key(i), i);
+        }
+        //remove all entries while iterating
+        Iterator<SLEntry> it = ind.iterator(null, null);
+        int n = 0;
+        while (it.hasNext()) {
+        	SLEntry e = it.next();
+        	ind.removeString(e.getKey(), e.getValue());
+        	n++;
+        }
+        assertEquals(MAX, n);
+        assertFalse(ind.iterator(null, null).hasNext());
+    }
+}
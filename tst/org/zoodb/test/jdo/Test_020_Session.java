@@ -67,46 +67,28 @@ public class Test_020_Session {
 		PersistenceManagerFactory pmf2 = 
 			JDOHelper.getPersistenceManagerFactory(props);
 
-		try {
-			// ************************************************
-			// Currently we do not support multiple session.
-			// ************************************************
-			pmf2.getPersistenceManager();
-			fail();
-		} catch (Exception e) {
-			//good
-		}
+		PersistenceManager pm21 = pmf2.getPersistenceManager();
+		
+		//should have returned different pm's
+		assertFalse(pm21 == pm11);
 
+		PersistenceManager pm12 = pmf1.getPersistenceManager();
+		//should never return same pm (JDO spec 2.2/11.2)
+		assertTrue(pm12 != pm11);
 
-//		PersistenceManager pm21 = pmf2.getPersistenceManager();
-//		
-//		//should have returned different pm's
-//		assertFalse(pm21 == pm11);
-//
-//		PersistenceManager pm12 = pmf1.getPersistenceManager();
-//		//should never return same pm (JDO spec 2.2/11.2)
-//		assertTrue(pm12 != pm11);
-//
-//		try {
-//			pmf1.close();
-//			fail();
-//		} catch (JDOUserException e) {
-//			//good, there are still open session!
-//		}
-//		
 		assertFalse(pm11.isClosed());
-//		assertFalse(pm12.isClosed());
+		assertFalse(pm12.isClosed());
 		pm11.close();
-//		pm12.close();
+		pm12.close();
 		assertTrue(pm11.isClosed());
-//		assertTrue(pm12.isClosed());
-//	
-//		assertFalse(pm21.isClosed());
-//		pm21.close();
-//		assertTrue(pm21.isClosed());
-//
+		assertTrue(pm12.isClosed());
+	
+		assertFalse(pm21.isClosed());
+		pm21.close();
+		assertTrue(pm21.isClosed());
+
 		pmf1.close();
-//		pmf2.close();
+		pmf2.close();
 		
 		try {
 			pmf1.getPersistenceManager();
@@ -157,10 +139,10 @@ public class Test_020_Session {
 	}
 	
 	/**
-	 * CURRENTLY, only one PMF should be allowed to connect to a database.
+	 * Multiple PMFs can connect to the same database.
 	 */
 	@Test
-	public void testDualSessionAccessFail() {
+	public void testDualSessionAccess() {
 		ZooJdoProperties props = new ZooJdoProperties(DB_NAME);
 		PersistenceManagerFactory pmf1 = 
 			JDOHelper.getPersistenceManagerFactory(props);
@@ -169,16 +151,14 @@ public class Test_020_Session {
 		PersistenceManagerFactory pmf2 = 
 			JDOHelper.getPersistenceManagerFactory(props);
 
-		try {
-			// ************************************************
-			// Currently we do not support multiple session.
-			// ************************************************
-			pmf2.getPersistenceManager();
-			fail();
-		} catch (JDOUserException e) {
-			//good
-		}
+		PersistenceManager pm21 = pmf2.getPersistenceManager();
+		pm21.currentTransaction().begin();
+		pm11.currentTransaction().begin();
+		pm11.currentTransaction().rollback();
+		pm21.currentTransaction().rollback();
 		
+		pm21.close();
+		pmf2.close();
 		pm11.close();
 		pmf1.close();
 	}
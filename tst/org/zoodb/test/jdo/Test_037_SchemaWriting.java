@@ -432,18 +432,20 @@ public class Test_037_SchemaWriting {
 		q = pm.newQuery(TestClass.class, "!(_string == 'haha')");
 		c = (Collection<?>) q.execute();
 		assertEquals(3, c.size());
+		//The index statistics show that the index is useless here, so the query uses
+		//the extent, which returns the objects in the order of their OIDs.
 		it = c.iterator(); 
 		assertEquals(oid1, pm.getObjectId(it.next()));
-		assertEquals(oid3, pm.getObjectId(it.next()));
 		assertEquals(oid2, pm.getObjectId(it.next()));
+		assertEquals(oid3, pm.getObjectId(it.next()));
 
 		q = pm.newQuery(TestClass.class, "_string != 'haha'");
 		c = (Collection<?>) q.execute();
 		assertEquals(3, c.size());
 		it = c.iterator(); 
 		assertEquals(oid1, pm.getObjectId(it.next()));
-		assertEquals(oid3, pm.getObjectId(it.next()));
 		assertEquals(oid2, pm.getObjectId(it.next()));
+		assertEquals(oid3, pm.getObjectId(it.next()));
 		TestTools.closePM();
 
 		//delete all
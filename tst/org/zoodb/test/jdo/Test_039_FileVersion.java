@@ -0,0 +1,177 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+
+import javax.jdo.JDOException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.internal.server.DiskAccessOneFile;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooDebug;
+
+/**
+ * Opening databases that were written with older file versions.
+ * 
+ * Test_039_FileVersion15.zdb has been created with file version 1.5. It contains 100 
+ * TestClass objects with a unique index on _string ("str0" to "str99") and 100 
+ * TestClassSmall objects with an index on myString ("s0" to "s9"). The first 50 objects of 
+ * each class are stored with an outdated schema version.
+ */
+public class Test_039_FileVersion {
+
+	@AfterClass
+	public static void tearDown() {
+		TestTools.closePM();
+	}
+
+	@Before
+	public void before() throws IOException {
+		TestTools.createDb();
+		copyDb("Test_039_FileVersion15.zdb");
+	}
+
+	private static void copyDb(String resource) throws IOException {
+		InputStream in = Test_039_FileVersion.class.getResourceAsStream(resource);
+		try {
+			Files.copy(in, FileSystems.getDefault().getPath(TestTools.getDbFileName()), 
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			in.close();
+		}
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private static int count(PersistenceManager pm, Class<?> cls, String filter) {
+		Query q = pm.newQuery(cls, filter);
+		Collection<?> c = (Collection<?>) q.execute();
+		int n = c.size();
+		q.closeAll();
+		return n;
+	}
+
+	private static void checkIndices(PersistenceManager pm) {
+		pm.currentTransaction().begin();
+		assertEquals(1, count(pm, TestClass.class, "_string == 'str7'"));
+		assertEquals(1, count(pm, TestClass.class, "_string == 'str77'"));
+		assertEquals(0, count(pm, TestClass.class, "_string == 'str100'"));
+		//str9, str90 - str99
+		assertEquals(11, count(pm, TestClass.class, "_string >= 'str9'"));
+		assertEquals(10, count(pm, TestClassSmall.class, "myString == 's3'"));
+		assertEquals(20, count(pm, TestClassSmall.class, "myString > 's7'"));
+		pm.currentTransaction().rollback();
+	}
+
+	@Test
+	public void testOpenVersion15() {
+		PersistenceManager pm = TestTools.openPM();
+		checkIndices(pm);
+
+		//unique index
+		pm.currentTransaction().begin();
+		TestClass t = new TestClass();
+		t.setString("str42");
+		pm.makePersistent(t);
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOException e) {
+			//good
+		}
+		pm.currentTransaction().rollback();
+
+		//index maintenance
+		pm.currentTransaction().begin();
+		t = new TestClass();
+		t.setString("str100");
+		pm.makePersistent(t);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		assertEquals(1, count(pm, TestClass.class, "_string == 'str100'"));
+		pm.currentTransaction().rollback();
+		pm.currentTransaction().begin();
+		pm.deletePersistent(t);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		//the file has been upgraded
+		pm = TestTools.openPM();
+		checkIndices(pm);
+		TestTools.closePM();
+	}
+
+	@Test
+	public void testNewerVersionFails() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(TestTools.getDbFileName(), "rw");
+		try {
+			//file ID, major version, minor version
+			raf.seek(8);
+			raf.writeInt(DiskAccessOneFile.DB_FILE_VERSION_MIN + 1);
+		} finally {
+			raf.close();
+		}
+		try {
+			TestTools.openPM();
+			fail();
+		} catch (JDOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Illegal minor file version"));
+		}
+	}
+
+	/**
+	 * Test_039_FileVersion15Vector.zdb has been created with file version 1.5. It contains a 
+	 * DBLargeVector, which was stored as DBArrayList.
+	 */
+	@Test
+	public void testLegacyLargeVectorFails() throws IOException {
+		copyDb("Test_039_FileVersion15Vector.zdb");
+		try {
+			TestTools.openPM();
+			fail();
+		} catch (JDOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("DBLargeVector"));
+		}
+		//fails if the file has not been closed
+		ZooDebug.closeOpenFiles();
+	}
+
+}
@@ -22,6 +22,7 @@ package org.zoodb.test.jdo;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assert.assertNull;
 
@@ -206,6 +207,54 @@ public class Test_041_TransactionsCommit {
 		pmf.close();
 	}
 	
+	/**
+	 * Objects that become reachable from dirty objects are made persistent. This must 
+	 * also work if a commit is retried after a failed commit.
+	 */
+	@Test
+	public void testReachabilityAfterFailedCommit() {
+		Properties props = new ZooJdoProperties(DB_NAME);
+		pmf = JDOHelper.getPersistenceManagerFactory(props);
+		pm = pmf.getPersistenceManager();
+		pm.currentTransaction().begin();
+		
+		TestClass tc = new TestClass();
+		pm.makePersistent(tc);
+		for (int i = 0; i < 1000; i++) {
+			pm.makePersistent(new TestClass());
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+
+		//illegal reference
+		tc.setRef1(Thread.currentThread());
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		
+		//retry with a chain of new objects
+		TestClass tc2 = new TestClass();
+		TestClass tc3 = new TestClass();
+		tc3.setInt(3);
+		tc2.setRef2(tc3);
+		tc.setRef1(tc2);
+		pm.currentTransaction().commit();
+		assertTrue(JDOHelper.isPersistent(tc2));
+		assertTrue(JDOHelper.isPersistent(tc3));
+		Object oid = pm.getObjectId(tc);
+		pm.close();
+		
+		pm = pmf.getPersistenceManager();
+		pm.currentTransaction().begin();
+		tc = (TestClass) pm.getObjectById(oid);
+		assertEquals(3, ((TestClass) tc.getRef1()).getRef2().getInt());
+		pm.currentTransaction().commit();
+		pm.close();
+	}
+	
 	private void assertGetIntFails(TestClass tc) {
 		try {
 			tc.getInt();
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoProperties;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for group commit and relaxed durability. A crash is simulated by copying the 
+ * database file while it is open.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_049_TransactionsDurability {
+
+	private static final String DB2 = TestTools.getDbFileName() + "2";
+	
+	@BeforeClass
+	public static void beforeClass() {
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+	}
+
+	@Before
+	public void before() {
+		TestTools.dropInstances(TestClass.class);
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		ZooConfig.setFileSyncCommits(ZooConfig.FILE_SYNC_COMMITS_DEFAULT);
+		ZooConfig.setFileSyncInterval(ZooConfig.FILE_SYNC_INTERVAL_DEFAULT);
+		removeFile(FileSystems.getDefault().getPath(DB2));
+	}
+	
+	@AfterClass
+	public static void afterClass() {
+		TestTools.removeDb();
+	}
+	
+    private void removeFile(Path p) {
+        if (Files.exists(p)) {
+        	try {
+				Files.delete(p);
+			} catch (IOException e) {
+	        	throw new RuntimeException(e);
+			}
+        }
+    }
+    
+    /**
+     * Copy the open database. The copy contains the state of the database after a crash.
+     * @return Number of TestClass instances in the copy.
+     */
+    private int crashCopy() {
+        try {
+	        Path p1 = FileSystems.getDefault().getPath(TestTools.getDbFileName());
+	        Path p2 = FileSystems.getDefault().getPath(DB2);
+	        removeFile(p2);
+	        Files.copy(p1, p2);
+        } catch (IOException e) {
+        	throw new RuntimeException(e);
+        }
+        PersistenceManager pm = openCopy();
+        pm.currentTransaction().begin();
+        int n = count(pm);
+        pm.currentTransaction().commit();
+        closeCopy(pm);
+        return n;
+    }
+    
+    private static PersistenceManager openCopy() {
+    	//Do not use TestTools.openPM(), it would replace the default PM.
+    	ZooJdoProperties props = new ZooJdoProperties(DB2);
+    	return JDOHelper.getPersistenceManagerFactory(props).getPersistenceManager();
+    }
+    
+    private static void closeCopy(PersistenceManager pm) {
+    	//Do not use TestTools.closePM(), it would fail because the original is still open.
+    	pm.close();
+    	pm.getPersistenceManagerFactory().close();
+    }
+    
+    private static int count(PersistenceManager pm) {
+    	Query q = pm.newQuery(TestClass.class);
+    	int n = 0;
+    	for (Object o: (Collection<?>) q.execute()) {
+    		n++;
+    	}
+    	q.closeAll();
+    	return n;
+    }
+    
+    private static void commitNew(PersistenceManager pm, int n) {
+		pm.currentTransaction().begin();
+		for (int i = 0; i < n; i++) {
+			pm.makePersistent(new TestClass());
+		}
+		pm.currentTransaction().commit();
+    }
+	
+	@Test
+	public void testDefaultIsDurable() {
+		PersistenceManager pm = TestTools.openPM();
+		commitNew(pm, 10);
+		assertEquals(10, crashCopy());
+		commitNew(pm, 5);
+		assertEquals(15, crashCopy());
+		TestTools.closePM();
+	}
+	
+	@Test
+	public void testSyncAfterCommits() {
+		ZooConfig.setFileSyncCommits(3);
+		PersistenceManager pm = TestTools.openPM();
+		commitNew(pm, 1);
+		commitNew(pm, 1);
+		assertEquals(0, crashCopy());
+		commitNew(pm, 1);
+		assertEquals(3, crashCopy());
+		commitNew(pm, 1);
+		assertEquals(3, crashCopy());
+		
+		//the commits are visible to other sessions before they are durable
+		PersistenceManager pm2 = pm.getPersistenceManagerFactory().getPersistenceManager();
+		pm2.currentTransaction().begin();
+		assertEquals(4, count(pm2));
+		pm2.currentTransaction().commit();
+		pm2.close();
+		
+		//closing syncs the database
+		TestTools.closePM();
+		assertEquals(4, crashCopy());
+	}
+	
+	/**
+	 * Pages that are freed by commits that are not durable must not be reused.
+	 */
+	@Test
+	public void testNoReuseOfPagesBeforeSync() {
+		ZooConfig.setFileSyncCommits(0);
+		PersistenceManager pm = TestTools.openPM();
+		commitNew(pm, 1000);
+		//closing syncs the database
+		TestTools.closePM();
+		assertEquals(1000, crashCopy());
+		
+		pm = TestTools.openPM();
+		for (int r = 1; r <= 20; r++) {
+			pm.currentTransaction().begin();
+			Collection<?> c = (Collection<?>) pm.newQuery(TestClass.class).execute();
+			for (Object o: c) {
+				((TestClass) o).setInt(r);
+			}
+			pm.makePersistent(new TestClass());
+			pm.currentTransaction().commit();
+		}
+		
+		//the copy contains the unmodified last durable state
+		assertEquals(1000, crashCopy());
+		PersistenceManager pm2 = openCopy();
+		pm2.currentTransaction().begin();
+		Collection<?> c = (Collection<?>) pm2.newQuery(TestClass.class).execute();
+		for (Object o: c) {
+			assertEquals(0, ((TestClass) o).getInt());
+		}
+		pm2.currentTransaction().commit();
+		closeCopy(pm2);
+		TestTools.closePM();
+		
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(1020, count(pm));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+	
+	/**
+	 * Concurrent sessions commit with synchronous durability. 
+	 */
+	@Test
+	public void testConcurrentCommits() throws InterruptedException {
+		final int N_THREADS = 4;
+		final int N_COMMITS = 20;
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		final PersistenceManagerFactory pmf = TestTools.openPM().getPersistenceManagerFactory();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < N_THREADS; t++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					PersistenceManager pm = pmf.getPersistenceManager();
+					try {
+						int n = 0;
+						while (n < N_COMMITS) {
+							try {
+								commitNew(pm, 10);
+								n++;
+							} catch (JDOUserException e) {
+								//concurrent modification, retry
+								if (pm.currentTransaction().isActive()) {
+									pm.currentTransaction().rollback();
+								}
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					} finally {
+						pm.close();
+					}
+				}
+			});
+		}
+		for (Thread t: threads) {
+			t.start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		if (!errors.isEmpty()) {
+			errors.get(0).printStackTrace();
+			fail(errors.get(0).getMessage());
+		}
+		
+		PersistenceManager pm = pmf.getPersistenceManager();
+		pm.currentTransaction().begin();
+		assertEquals(N_THREADS * N_COMMITS * 10, count(pm));
+		pm.currentTransaction().commit();
+		assertEquals(N_THREADS * N_COMMITS * 10, crashCopy());
+		pm.close();
+		TestTools.closePM();
+	}
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.jdo.ZooJdoProperties;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for the write-ahead log. A crash is simulated by copying the database file and the
+ * log files while the database is open.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_049w_TransactionsWal {
+
+	private static final String DB2 = TestTools.getDbFileName() + "2";
+	private static final String[] LOG = {".wal0", ".wal1"};
+	private static long nextLong = 1;
+	
+	@BeforeClass
+	public static void beforeClass() {
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+	}
+
+	@Before
+	public void before() {
+		TestTools.dropInstances(TestClass.class);
+		ZooConfig.setFileWal(true);
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		ZooConfig.setFileWal(false);
+		ZooConfig.setFileWalCheckpointSize(ZooConfig.FILE_WAL_CHECKPOINT_SIZE_DEFAULT);
+		ZooConfig.setFileSyncCommits(ZooConfig.FILE_SYNC_COMMITS_DEFAULT);
+		removeFile(DB2);
+		for (String l: LOG) {
+			removeFile(DB2 + l);
+		}
+	}
+	
+	@AfterClass
+	public static void afterClass() {
+		TestTools.removeDb();
+	}
+	
+    private static void removeFile(String fileName) {
+    	Path p = FileSystems.getDefault().getPath(fileName);
+        if (Files.exists(p)) {
+        	try {
+				Files.delete(p);
+			} catch (IOException e) {
+	        	throw new RuntimeException(e);
+			}
+        }
+    }
+    
+    private static void copyFile(String from, String to) {
+    	removeFile(to);
+    	Path p1 = FileSystems.getDefault().getPath(from);
+    	Path p2 = FileSystems.getDefault().getPath(to);
+    	if (Files.exists(p1)) {
+    		try {
+    			Files.copy(p1, p2);
+    		} catch (IOException e) {
+    			throw new RuntimeException(e);
+    		}
+    	}
+    }
+    
+    private static boolean logExists(String dbFileName) {
+    	for (String l: LOG) {
+    		if (Files.exists(FileSystems.getDefault().getPath(dbFileName + l))) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    /**
+     * Copy the open database. The copy contains the state of the database after a crash.
+     * The log is copied first, because a checkpoint may be running in the background. 
+     * The checkpoint clears the log only after the database file has been updated.  
+     * @param withLog Whether to copy the log files
+     */
+    private static void crashCopy(boolean withLog) {
+    	for (String l: LOG) {
+    		if (withLog) {
+    			copyFile(TestTools.getDbFileName() + l, DB2 + l);
+    		} else {
+    			removeFile(DB2 + l);
+    		}
+    	}
+    	copyFile(TestTools.getDbFileName(), DB2);
+    }
+    
+    /**
+     * @return The sum of the int values of all TestClass instances in the copy.
+     */
+    private static long sumCopy() {
+    	//Do not use TestTools.openPM(), it would replace the default PM.
+    	ZooJdoProperties props = new ZooJdoProperties(DB2);
+    	PersistenceManagerFactory pmf = JDOHelper.getPersistenceManagerFactory(props);
+        PersistenceManager pm = pmf.getPersistenceManager();
+        pm.currentTransaction().begin();
+        long sum = sum(pm);
+        pm.currentTransaction().commit();
+        pm.close();
+        pmf.close();
+        return sum;
+    }
+    
+    private static long sum(PersistenceManager pm) {
+    	Query q = pm.newQuery(TestClass.class);
+    	long sum = 0;
+    	for (Object o: (Collection<?>) q.execute()) {
+    		sum += ((TestClass) o).getInt();
+    	}
+    	q.closeAll();
+    	return sum;
+    }
+    
+    private static void commitNew(PersistenceManager pm, int n, int value) {
+		pm.currentTransaction().begin();
+		for (int i = 0; i < n; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(value);
+			tc.setLong(nextLong++);
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+    }
+    
+    private static void updateAll(PersistenceManager pm, int value) {
+		pm.currentTransaction().begin();
+		for (Object o: (Collection<?>) pm.newQuery(TestClass.class).execute()) {
+			((TestClass) o).setInt(value);
+		}
+		pm.currentTransaction().commit();
+    }
+	
+	@Test
+	public void testRecovery() {
+		ZooConfig.setFileWalCheckpointSize(Integer.MAX_VALUE);
+		PersistenceManager pm = TestTools.openPM();
+		commitNew(pm, 10, 1);
+		commitNew(pm, 10, 2);
+		
+		crashCopy(true);
+		assertEquals(30, sumCopy());
+		//the log of the copy has been removed after recovery
+		assertFalse(logExists(DB2));
+		assertEquals(30, sumCopy());
+		
+		//updates free and reuse pages 
+		for (int i = 3; i < 10; i++) {
+			updateAll(pm, i);
+			commitNew(pm, 1, 1);
+		}
+		crashCopy(true);
+		assertEquals(26 * 9 + 1, sumCopy());
+		
+		TestTools.closePM();
+		assertFalse(logExists(TestTools.getDbFileName()));
+	}
+	
+	/**
+	 * Commits are only written to the log, the database file is written by checkpoints.
+	 */
+	@Test
+	public void testCommitsOnlyInLog() {
+		ZooConfig.setFileWalCheckpointSize(Integer.MAX_VALUE);
+		PersistenceManager pm = TestTools.openPM();
+		commitNew(pm, 10, 1);
+		updateAll(pm, 2);
+		
+		//the database file does not contain the commits
+		crashCopy(false);
+		assertEquals(0, sumCopy());
+		crashCopy(true);
+		assertEquals(20, sumCopy());
+		
+		//other sessions read the pages from the log
+		PersistenceManager pm2 = pm.getPersistenceManagerFactory().getPersistenceManager();
+		pm2.currentTransaction().begin();
+		assertEquals(20, sum(pm2));
+		pm2.currentTransaction().commit();
+		pm2.close();
+		
+		//closing performs a checkpoint
+		TestTools.closePM();
+		crashCopy(false);
+		assertEquals(20, sumCopy());
+	}
+	
+	/**
+	 * Recovery also works if the log is disabled when the database is opened.
+	 */
+	@Test
+	public void testRecoveryWithoutWal() {
+		ZooConfig.setFileWalCheckpointSize(Integer.MAX_VALUE);
+		PersistenceManager pm = TestTools.openPM();
+		commitNew(pm, 10, 3);
+		crashCopy(true);
+		TestTools.closePM();
+		
+		ZooConfig.setFileWal(false);
+		assertEquals(30, sumCopy());
+		assertFalse(logExists(DB2));
+	}
+	
+	/**
+	 * Pages of failed commits are not replayed.
+	 */
+	@Test
+	public void testFailedCommit() {
+		ZooConfig.setFileWalCheckpointSize(Integer.MAX_VALUE);
+		TestTools.defineIndex(TestClass.class, "_long", true);
+		PersistenceManager pm = TestTools.openPM();
+		commitNew(pm, 100, 1);
+		
+		pm.currentTransaction().begin();
+		for (Object o: (Collection<?>) pm.newQuery(TestClass.class).execute()) {
+			((TestClass) o).setInt(5);
+		}
+		for (int i = 0; i < 100; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(5);
+			pm.makePersistent(tc);
+		}
+		TestClass tc = new TestClass();
+		tc.setLong(nextLong - 1);
+		pm.makePersistent(tc);
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOUserException e) {
+			//good, unique index collision
+		}
+		pm.currentTransaction().rollback();
+		
+		commitNew(pm, 1, 2);
+		crashCopy(true);
+		assertEquals(102, sumCopy());
+		
+		pm.currentTransaction().begin();
+		ZooJdoHelper.schema(pm).getClass(TestClass.class).removeIndex("_long");
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+	
+	@Test
+	public void testCheckpoint() throws InterruptedException {
+		ZooConfig.setFileWalCheckpointSize(1);
+		PersistenceManager pm = TestTools.openPM();
+		for (int i = 1; i <= 10; i++) {
+			commitNew(pm, 10, i);
+		}
+		
+		//the checkpoint is performed in the background
+		long sum = 0;
+		for (int i = 0; i < 100 && sum != 550; i++) {
+			Thread.sleep(50);
+			crashCopy(false);
+			sum = sumCopy();
+		}
+		assertEquals(550, sum);
+		
+		//commits after checkpoints
+		for (int i = 0; i < 20; i++) {
+			updateAll(pm, i);
+		}
+		crashCopy(true);
+		assertEquals(19 * 100, sumCopy());
+		TestTools.closePM();
+		assertFalse(logExists(TestTools.getDbFileName()));
+	}
+	
+	@Test
+	public void testRelaxedDurability() {
+		ZooConfig.setFileSyncCommits(0);
+		PersistenceManager pm = TestTools.openPM();
+		commitNew(pm, 10, 1);
+		updateAll(pm, 2);
+		assertTrue(logExists(TestTools.getDbFileName()));
+		TestTools.closePM();
+		
+		//closing performs a checkpoint
+		assertFalse(logExists(TestTools.getDbFileName()));
+		crashCopy(false);
+		assertEquals(20, sumCopy());
+	}
+	
+	/**
+	 * Concurrent sessions commit while checkpoints are performed.
+	 */
+	@Test
+	public void testConcurrentCommits() throws InterruptedException {
+		ZooConfig.setFileWalCheckpointSize(10);
+		final int N_THREADS = 4;
+		final int N_COMMITS = 20;
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		final PersistenceManagerFactory pmf = TestTools.openPM().getPersistenceManagerFactory();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < N_THREADS; t++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					PersistenceManager pm = pmf.getPersistenceManager();
+					try {
+						int n = 0;
+						while (n < N_COMMITS) {
+							try {
+								commitNew(pm, 10, 1);
+								n++;
+							} catch (JDOUserException e) {
+								//concurrent modification, retry
+								if (pm.currentTransaction().isActive()) {
+									pm.currentTransaction().rollback();
+								}
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					} finally {
+						pm.close();
+					}
+				}
+			});
+		}
+		for (Thread t: threads) {
+			t.start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		if (!errors.isEmpty()) {
+			errors.get(0).printStackTrace();
+			fail(errors.get(0).getMessage());
+		}
+		
+		crashCopy(true);
+		assertEquals(N_THREADS * N_COMMITS * 10, sumCopy());
+		TestTools.closePM();
+		
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(N_THREADS * N_COMMITS * 10, sum(pm));
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+}
@@ -25,6 +25,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
@@ -90,4 +91,72 @@ public class Test_070ii_Query extends Test_070_Query {
 
         TestTools.closePM(pm);
 	}
+	
+	/**
+	 * Sub-queries on different indices with overlapping results. The OIDs are merged before
+	 * the objects are loaded, so every object is returned only once.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testUnionOfIndexRanges() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, "_int <= 123 || _double == 3.0 || _float > 1.0");
+		Collection<TestClass> r = (Collection<TestClass>) q.execute();
+		int n = 0;
+		for (TestClass tc: r) {
+			assertTrue("int=" + tc.getInt(), tc.getInt() <= 123 || tc.getFloat() > 1.0);
+			n++;
+		}
+		assertEquals(5, n);
+
+		q = pm.newQuery(TestClass.class, "_int == 12 || _double == 3.0 || _string == 'xyz'");
+		r = (Collection<TestClass>) q.execute();
+		assertEquals(5, r.size());
+
+		q = pm.newQuery(TestClass.class, "(_int == 12 || _double == 3.0) && _float > 0");
+		r = (Collection<TestClass>) q.execute();
+		assertEquals(1, r.size());
+		assertEquals(123, r.iterator().next().getInt());
+
+		TestTools.closePM(pm);
+	}
+	
+	/**
+	 * Several indexed fields are compared for equality. The OIDs of the indices are 
+	 * intersected before the objects are loaded.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testIntersectionOfIndexRanges() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, 
+				"_short == 32000 && _string == 'xyz' && _long == 1234567890");
+		Collection<TestClass> r = (Collection<TestClass>) q.execute();
+		assertEquals(5, r.size());
+
+		q = pm.newQuery(TestClass.class, "_short == 32000 && _double == 3.0 && _string == 'xyz'");
+		r = (Collection<TestClass>) q.execute();
+		assertEquals(1, r.size());
+		assertEquals(123, r.iterator().next().getInt());
+
+		q = pm.newQuery(TestClass.class, "_double == 3.0 && _int == 12");
+		r = (Collection<TestClass>) q.execute();
+		assertEquals(0, r.size());
+
+		//ordering and range on intersected results
+		q = pm.newQuery(TestClass.class, "_short == 32000 && _string == 'xyz'");
+		q.setOrdering("_int descending");
+		q.setRange(1, 3);
+		r = (Collection<TestClass>) q.execute();
+		Iterator<TestClass> it = r.iterator();
+		assertEquals(1234, it.next().getInt());
+		assertEquals(123, it.next().getInt());
+		assertFalse(it.hasNext());
+
+		TestTools.closePM(pm);
+	}
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for query ordering.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_070o_QueryOrdering {
+
+	private static final int N = 100;
+	
+	@BeforeClass
+	public static void setUp() {
+        TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class, TestClassTiny.class, TestClassTiny2.class);
+	}
+
+	@Before
+	public void before() {
+        PersistenceManager pm = TestTools.openPM();
+        pm.currentTransaction().begin();
+
+        pm.newQuery(TestClass.class).deletePersistentAll();
+        pm.newQuery(TestClassTiny.class).deletePersistentAll();
+        
+        //create objects in 'random' order
+        for (int j = 0; j < N; j++) {
+        	int i = (j * 37) % N;
+        	TestClass tc = new TestClass();
+        	tc.setData(i, i%2==0, 'x', (byte)i, (short)(i%10), 1000L*i, 
+        			i%3==0 ? null : "str" + (char)('a' + i%26), null, -i*0.5f, i*0.25);
+        	pm.makePersistent(tc);
+        	pm.makePersistent(new TestClassTiny(i, N-i));
+        	pm.makePersistent(new TestClassTiny2(i, N-i, i, i));
+        }
+        
+        pm.currentTransaction().commit();
+        TestTools.closePM();
+	}
+	
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+		ZooConfig.setDefaults();
+	}
+	
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> List<T> exec(PersistenceManager pm, Class<T> cls, String filter, 
+			String ordering) {
+		Query q = pm.newQuery(cls, filter);
+		q.setOrdering(ordering);
+		Collection<T> c = (Collection<T>) q.execute();
+		List<T> ret = new ArrayList<T>(c);
+		q.closeAll();
+		return ret;
+	}
+	
+	private void checkInts(List<TestClass> c, int ... ints) {
+		assertEquals(ints.length, c.size());
+		for (int i = 0; i < ints.length; i++) {
+			assertEquals(ints[i], c.get(i).getInt());
+		}
+	}
+	
+	@Test
+	public void testOrdering() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		checkInts(exec(pm, TestClass.class, "_int < 5", "_int ascending"), 0, 1, 2, 3, 4);
+		checkInts(exec(pm, TestClass.class, "_int < 5", "_int desc"), 4, 3, 2, 1, 0);
+		checkInts(exec(pm, TestClass.class, "_int < 5", "this._float asc"), 4, 3, 2, 1, 0);
+		checkInts(exec(pm, TestClass.class, "_int < 5", "_double descending"), 4, 3, 2, 1, 0);
+		checkInts(exec(pm, TestClass.class, "_int < 5 || _int > 95", "_bool asc, _int desc"), 
+				99, 97, 3, 1, 98, 96, 4, 2, 0);
+		checkInts(exec(pm, TestClass.class, "_int < 25", "_short desc, _long asc"), 
+				9, 19, 8, 18, 7, 17, 6, 16, 5, 15, 4, 14, 24, 3, 13, 23, 2, 12, 22, 1, 11, 21, 
+				0, 10, 20);
+		
+		//null values come first
+		List<TestClass> c = exec(pm, TestClass.class, "_int >= 50", "_string ascending");
+		assertEquals(50, c.size());
+		for (int i = 0; i < 17; i++) {
+			assertNull(c.get(i).getString());
+		}
+		for (int i = 18; i < c.size(); i++) {
+			assertTrue(c.get(i-1).getString().compareTo(c.get(i).getString()) <= 0);
+		}
+		
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testOrderingWithoutFilter() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		List<TestClass> c = exec(pm, TestClass.class, "", "_int descending");
+		assertEquals(N, c.size());
+		for (int i = 0; i < N; i++) {
+			assertEquals(N-1-i, c.get(i).getInt());
+		}
+		
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testOrderingSubClasses() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		List<TestClassTiny> c = exec(pm, TestClassTiny.class, "_int >= 10", "_long asc");
+		assertEquals(180, c.size());
+		for (int i = 1; i < c.size(); i++) {
+			assertTrue(c.get(i-1).getLong() <= c.get(i).getLong());
+		}
+		
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testOrderingExternalSort() {
+		ZooConfig.setQuerySortBufferSize(7);
+		testOrdering();
+		testOrderingWithoutFilter();
+		testOrderingSubClasses();
+		testOrderingWithRange();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private List<TestClass> execRange(PersistenceManager pm, String filter, String ordering, 
+			long from, long to) {
+		Query q = pm.newQuery(TestClass.class, filter);
+		q.setOrdering(ordering);
+		q.setRange(from, to);
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		List<TestClass> ret = new ArrayList<TestClass>(c);
+		q.closeAll();
+		return ret;
+	}
+	
+	@Test
+	public void testOrderingWithRange() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		checkInts(execRange(pm, "", "_int desc", 0, 3), 99, 98, 97);
+		checkInts(execRange(pm, "_int < 50", "_int asc", 3, 6), 3, 4, 5);
+		checkInts(execRange(pm, "_int < 25", "_short desc, _long asc", 2, 5), 8, 18, 7);
+		List<TestClass> c = execRange(pm, "_int >= 10", "_long desc", 20, 80);
+		assertEquals(60, c.size());
+		for (int i = 0; i < c.size(); i++) {
+			assertEquals(79 - i, c.get(i).getInt());
+		}
+		assertEquals(0, execRange(pm, "_int >= 10", "_long desc", 0, 0).size());
+		assertEquals(0, execRange(pm, "_int >= 10", "_long desc", 200, 300).size());
+		
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private List<TestClass> execSingleString(PersistenceManager pm, String query, 
+			Object ... params) {
+		Query q = pm.newQuery(query);
+		Collection<TestClass> c = (Collection<TestClass>) q.executeWithArray(params);
+		List<TestClass> ret = new ArrayList<TestClass>(c);
+		q.closeAll();
+		return ret;
+	}
+	
+	@Test
+	public void testOrderingSingleString() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		String from = "SELECT FROM " + TestClass.class.getName();
+		checkInts(execSingleString(pm, from + " WHERE _int < 5 ORDER BY _int desc"), 
+				4, 3, 2, 1, 0);
+		checkInts(execSingleString(pm, from + " WHERE _int < 25 order by _short desc, _long asc" +
+				" RANGE 2, 5"), 8, 18, 7);
+		checkInts(execSingleString(pm, from + " ORDER BY _int desc RANGE 0, 3"), 99, 98, 97);
+		checkInts(execSingleString(pm, from + 
+				" WHERE _int < x PARAMETERS int x ORDER BY _int asc", 3), 0, 1, 2);
+		
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testOrderingWithIndex() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.createIndex("_int", false);
+		s.createIndex("_long", true);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		try {
+			testOrdering();
+			testOrderingWithoutFilter();
+			
+			pm = TestTools.openPM();
+			pm.currentTransaction().begin();
+			//descending index scan on a different index than the query index
+			checkInts(exec(pm, TestClass.class, "_int < 5", "_long descending"), 4, 3, 2, 1, 0);
+			checkInts(exec(pm, TestClass.class, "_long < 5000", "_long descending"), 
+					4, 3, 2, 1, 0);
+			checkInts(exec(pm, TestClass.class, "_long >= 95000 && _bool == true", "_long asc"), 
+					96, 98);
+
+			//new and modified objects
+			pm.setIgnoreCache(false);
+			TestClass tc = new TestClass();
+			tc.setInt(-5);
+			tc.setLong(-5);
+			pm.makePersistent(tc);
+			TestClass tc1 = exec(pm, TestClass.class, "_int == 1", null).get(0);
+			tc1.setLong(200000);
+			List<TestClass> c = exec(pm, TestClass.class, "", "_long asc");
+			assertEquals(N + 1, c.size());
+			assertEquals(-5, c.get(0).getInt());
+			assertEquals(0, c.get(1).getInt());
+			assertEquals(2, c.get(2).getInt());
+			assertEquals(1, c.get(N).getInt());
+			pm.currentTransaction().rollback();
+			TestTools.closePM();
+		} finally {
+			pm = TestTools.openPM();
+			pm.currentTransaction().begin();
+			s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+			s.removeIndex("_int");
+			s.removeIndex("_long");
+			pm.currentTransaction().commit();
+			TestTools.closePM();
+		}
+	}
+	
+	@Test
+	public void testOrderingFailures() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		checkFails(pm, "_xyz ascending");
+		checkFails(pm, "_int upwards");
+		checkFails(pm, "_int asc desc");
+		checkFails(pm, "_int asc,");
+		checkFails(pm, "_bArray asc");
+		checkFails(pm, "_ref2 asc");
+		
+		try {
+			pm.newQuery(TestClass.class, "_int < 5 ORDER BY RANGE 0, 3");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		
+		TestTools.closePM(pm);
+	}
+	
+	private void checkFails(PersistenceManager pm, String ordering) {
+		try {
+			exec(pm, TestClass.class, "_int < 5", ordering);
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for query ranges.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_070r_QueryRange {
+
+	private static final int N = 100;
+	
+	@BeforeClass
+	public static void setUp() {
+        TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+
+        PersistenceManager pm = TestTools.openPM();
+        pm.currentTransaction().begin();
+        //create objects in 'random' order
+        for (int j = 0; j < N; j++) {
+        	int i = (j * 37) % N;
+        	TestClass tc = new TestClass();
+        	tc.setData(i, i%2==0, 'x', (byte)i, (short)(i%10), 1000L*i, 
+        			"str" + i, null, -i*0.5f, i*0.25);
+        	pm.makePersistent(tc);
+        }
+        pm.currentTransaction().commit();
+        TestTools.closePM();
+	}
+
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+	
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<TestClass> exec(PersistenceManager pm, String filter, String ordering, 
+			long from, long to) {
+		Query q = pm.newQuery(TestClass.class, filter);
+		q.setOrdering(ordering);
+		q.setRange(from, to);
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		List<TestClass> ret = new ArrayList<TestClass>(c);
+		q.closeAll();
+		return ret;
+	}
+	
+	private void checkInts(List<TestClass> c, int ... ints) {
+		assertEquals(ints.length, c.size());
+		for (int i = 0; i < ints.length; i++) {
+			assertEquals(ints[i], c.get(i).getInt());
+		}
+	}
+
+	private int countCachedInstances(PersistenceManager pm) {
+		int n = 0;
+		for (Object o: pm.getManagedObjects()) {
+			if (o instanceof TestClass) {
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	@Test
+	public void testRange() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		assertEquals(10, exec(pm, "", null, 0, 10).size());
+		assertEquals(10, exec(pm, "_int >= 0", null, 90, 200).size());
+		assertEquals(0, exec(pm, "_int >= 0", null, 200, 300).size());
+		assertEquals(0, exec(pm, "_int >= 0", null, 5, 5).size());
+		assertEquals(5, exec(pm, "_int < 10", null, 5, 50).size());
+		assertEquals(N, exec(pm, "_int >= 0", null, 0, Long.MAX_VALUE).size());
+		
+		TestTools.closePM(pm);
+	}
+
+	@Test
+	public void testRangeWithOrdering() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		checkInts(exec(pm, "", "_int asc", 0, 3), 0, 1, 2);
+		checkInts(exec(pm, "_int < 50", "_int desc", 2, 5), 47, 46, 45);
+		checkInts(exec(pm, "_int < 50", "_short asc, _int desc", 0, 4), 40, 30, 20, 10);
+		
+		TestTools.closePM(pm);
+	}
+
+	@Test
+	public void testRangeWithIndex() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.createIndex("_int", true);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		try {
+			testRangeWithOrdering();
+			
+			pm = TestTools.openPM();
+			pm.currentTransaction().begin();
+			checkInts(exec(pm, "_int >= 10 && _int < 90", "_int desc", 0, 3), 89, 88, 87);
+			checkInts(exec(pm, "_long > 0", "_int asc", 10, 12), 11, 12);
+			
+			//new objects must be considered
+			TestClass tc = new TestClass();
+			tc.setInt(-5);
+			pm.makePersistent(tc);
+			checkInts(exec(pm, "", "_int asc", 0, 3), -5, 0, 1);
+			pm.currentTransaction().rollback();
+			TestTools.closePM();
+		} finally {
+			pm = TestTools.openPM();
+			pm.currentTransaction().begin();
+			s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+			s.removeIndex("_int");
+			pm.currentTransaction().commit();
+			TestTools.closePM();
+		}
+	}
+	
+	@Test
+	public void testEarlyTermination() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		Query q = pm.newQuery(TestClass.class, "_int >= 0");
+		q.setRange(0, 5);
+		@SuppressWarnings("unchecked")
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		assertEquals(5, c.size());
+		int n = countCachedInstances(pm);
+		assertTrue("" + n, n < 10);
+		q.closeAll();
+		
+		TestTools.closePM(pm);
+	}
+
+	@Test
+	public void testLazyResult() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		Query q = pm.newQuery(TestClass.class, "_int < 20");
+		@SuppressWarnings("unchecked")
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		assertFalse(c.isEmpty());
+		Iterator<TestClass> it = c.iterator();
+		it.next();
+		it.next();
+		//iterate again
+		int n = 0;
+		for (TestClass tc: c) {
+			assertTrue(tc.getInt() < 20);
+			n++;
+		}
+		assertEquals(20, n);
+		assertEquals(20, c.size());
+		q.close(c);
+		//already retrieved objects remain accessible
+		assertEquals(20, c.size());
+		
+		TestTools.closePM(pm);
+	}
+
+	@Test
+	public void testLazyResultCursors() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		Query q = pm.newQuery(TestClass.class, "_int < 20");
+		q.setRange(5, 15);
+		@SuppressWarnings("unchecked")
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		assertFalse(c.isEmpty());
+		//iterators are independent 
+		Iterator<TestClass> it1 = c.iterator();
+		Iterator<TestClass> it2 = c.iterator();
+		int n1 = 0;
+		while (it1.hasNext()) {
+			assertTrue(it1.next().getInt() < 20);
+			n1++;
+			if (n1 == 3) {
+				assertEquals(it2.next().getInt(), c.iterator().next().getInt());
+			}
+		}
+		assertEquals(10, n1);
+		int n2 = 1;
+		while (it2.hasNext()) {
+			it2.next();
+			n2++;
+		}
+		assertEquals(10, n2);
+
+		//closing the result closes open iterators
+		it1 = c.iterator();
+		it1.next();
+		q.close(c);
+		assertFalse(it1.hasNext());
+		assertFalse(c.iterator().hasNext());
+		
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRangeString() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		Query q = pm.newQuery(TestClass.class, "_int < 50");
+		q.setRange("10, 15");
+		assertEquals(5, ((Collection<TestClass>) q.execute()).size());
+		
+		q = pm.newQuery(TestClass.class, "_int < 50 range 10, 12");
+		assertEquals(2, ((Collection<TestClass>) q.execute()).size());
+
+		q = pm.newQuery(TestClass.class, "_int < x parameters int x RANGE 0,3");
+		assertEquals(3, ((Collection<TestClass>) q.execute(50)).size());
+		
+		q = pm.newQuery("SELECT FROM " + TestClass.class.getName() + 
+				" WHERE _int < 50 RANGE 48, 60");
+		assertEquals(2, ((Collection<TestClass>) q.execute()).size());
+		
+		q.closeAll();
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testRangeFailures() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		Query q = pm.newQuery(TestClass.class);
+		try {
+			q.setRange(-1, 5);
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			q.setRange(5, 4);
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			q.setRange("5");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			q.setRange("1, 2x");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			q.setRange(":a");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		
+		q = pm.newQuery(TestClass.class, "_int < 50 RANGE :from, :to");
+		try {
+			q.execute(5, 4);
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			q.execute(5, "x");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			q.execute(5);
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRangeParameters() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		Query q = pm.newQuery(TestClass.class, "_int < 50 RANGE :from, :to");
+		assertEquals(5, ((Collection<TestClass>) q.execute(10, 15)).size());
+		//the values are assigned for every execution
+		assertEquals(2, ((Collection<TestClass>) q.execute(0L, 2L)).size());
+		
+		q = pm.newQuery(TestClass.class, "_int < x parameters int x RANGE :from, 3");
+		assertEquals(2, ((Collection<TestClass>) q.execute(50, 1)).size());
+		
+		q = pm.newQuery(TestClass.class, 
+				"_int < 50 PARAMETERS long from, long to RANGE from, to");
+		assertEquals(3, ((Collection<TestClass>) q.execute(1, 4)).size());
+		
+		q = pm.newQuery(TestClass.class, "_int < x");
+		q.declareParameters("int x");
+		q.setRange(":from, :to");
+		assertEquals(5, ((Collection<TestClass>) q.execute(50, 10, 15)).size());
+		q.setRange(0, 3);
+		assertEquals(3, ((Collection<TestClass>) q.execute(50)).size());
+		
+		q = pm.newQuery("SELECT FROM " + TestClass.class.getName() + 
+				" WHERE _int < 50 RANGE 48, :to");
+		assertEquals(2, ((Collection<TestClass>) q.execute(60)).size());
+		
+		q.closeAll();
+		TestTools.closePM(pm);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for queries that are evaluated on serialized objects.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_070s_QuerySerialized {
+
+	@BeforeClass
+	public static void setUp() {
+        TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class, TestClassTiny.class, TestClassTiny2.class);
+	}
+
+	@Before
+	public void before() {
+        PersistenceManager pm = TestTools.openPM();
+        pm.currentTransaction().begin();
+
+        pm.newQuery(TestClass.class).deletePersistentAll();
+        pm.newQuery(TestClassTiny.class).deletePersistentAll();
+        
+        for (int i = 0; i < 100; i++) {
+        	TestClass tc = new TestClass();
+        	tc.setData(i, i%2==0, (char)('a' + i%26), (byte)i, (short)(i*10), 1000L*i, 
+        			i%3==0 ? null : "str" + i, null, i*0.5f, i*0.25);
+        	if (i%5 == 0) {
+        		tc.setRef2(tc);
+        	}
+        	pm.makePersistent(tc);
+        	pm.makePersistent(new TestClassTiny(i, i));
+        	pm.makePersistent(new TestClassTiny2(i, i, i, i));
+        }
+        
+        pm.currentTransaction().commit();
+        TestTools.closePM();
+	}
+	
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+	
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	private int count(PersistenceManager pm, Class<?> cls, String filter) {
+		Query q = pm.newQuery(cls, filter);
+		Collection<?> c = (Collection<?>) q.execute();
+		int n = c.size();
+		q.closeAll();
+		return n;
+	}
+	
+	@Test
+	public void testPrimitives() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		assertEquals(10, count(pm, TestClass.class, "_int < 10"));
+		assertEquals(50, count(pm, TestClass.class, "_bool == true"));
+		assertEquals(20, count(pm, TestClass.class, "_long >= 80000"));
+		assertEquals(1, count(pm, TestClass.class, "_short == 500"));
+		assertEquals(5, count(pm, TestClass.class, "_float > 47.0 && _float <= 49.5"));
+		assertEquals(96, count(pm, TestClass.class, "_double > 0.75"));
+		assertEquals(1, count(pm, TestClass.class, "_byte == 99"));
+		assertEquals(11, count(pm, TestClass.class, "_int < 10 || _int == 50"));
+		assertEquals(90, count(pm, TestClass.class, "!(_int < 10)"));
+
+		//Only the matching objects should have been loaded
+		TestTools.closePM(pm);
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(3, count(pm, TestClass.class, "_int >= 97"));
+		assertTrue(pm.getManagedObjects(TestClass.class).size() <= 3);
+		
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testNullChecks() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		assertEquals(34, count(pm, TestClass.class, "_string == null"));
+		assertEquals(66, count(pm, TestClass.class, "_string != null"));
+		assertEquals(20, count(pm, TestClass.class, "_ref2 != null"));
+		assertEquals(80, count(pm, TestClass.class, "_ref2 == null"));
+		assertEquals(5, count(pm, TestClass.class, "_ref2 == null && _string == null && _int < 20"));
+		//not evaluable on serialized objects
+		assertEquals(1, count(pm, TestClass.class, "_string == 'str7'"));
+		
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testSubClasses() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		assertEquals(20, count(pm, TestClassTiny.class, "_int < 10"));
+		assertEquals(10, count(pm, TestClassTiny2.class, "_int < 10"));
+		assertEquals(10, count(pm, TestClassTiny2.class, "_int < 10 && i2 < 20"));
+		assertEquals(5, count(pm, TestClassTiny2.class, "_int < 10 && i2 < 5"));
+		
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testDirtyObjects() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClassTiny2.class, "_int == 5");
+		Collection<?> c = (Collection<?>) q.execute();
+		TestClassTiny2 t5 = (TestClassTiny2) c.iterator().next();
+		q = pm.newQuery(TestClassTiny2.class, "_int == 6");
+		c = (Collection<?>) q.execute();
+		TestClassTiny2 t6 = (TestClassTiny2) c.iterator().next();
+		
+		//modified objects
+		t5.setInt(1005);
+		assertEquals(0, count(pm, TestClassTiny2.class, "_int == 5"));
+		assertEquals(1, count(pm, TestClassTiny2.class, "_int == 1005"));
+		assertEquals(1, count(pm, TestClassTiny2.class, "_int > 99"));
+		
+		//deleted objects
+		pm.deletePersistent(t6);
+		assertEquals(0, count(pm, TestClassTiny2.class, "_int == 6"));
+		assertEquals(98, count(pm, TestClassTiny2.class, "_int < 100"));
+		
+		//new objects
+		pm.makePersistent(new TestClassTiny2(5, 5, 5, 5));
+		assertEquals(1, count(pm, TestClassTiny2.class, "_int == 5"));
+		
+		pm.currentTransaction().rollback();
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testWithIndex() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.createIndex("_int", false);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+
+		assertEquals(5, count(pm, TestClass.class, "_int < 20 && _bool == true && _long > 9000"));
+		assertEquals(6, count(pm, TestClass.class, 
+				"_int >= 10 && _int < 20 && _ref2 == null && _string != null"));
+
+		s.removeIndex("_int");
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+}
@@ -204,6 +204,49 @@ public class Test_091_IndexUpdates {
     }
     
     
+    /**
+     * Strings that are too long for the keys of a unique index are stored as a prefix and a
+     * hash. Strings with the same prefix must not collide.
+     */
+    @Test
+    public void testUniqueIndexLongStrings() {
+        TestTools.defineIndex(TestClass.class, "_string", true);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+        	sb.append((char)('a' + i % 26));
+        }
+        String prefix = sb.toString();
+
+        PersistenceManager pm = TestTools.openPM();
+        pm.currentTransaction().begin();
+        for (int i = 0; i < 10; i++) {
+        	TestClass tc = new TestClass();
+        	tc.setString(prefix + i);
+        	tc.setInt(i);
+        	pm.makePersistent(tc);
+        }
+        pm.currentTransaction().commit();
+        pm.currentTransaction().begin();
+
+        checkQueryResult(pm, 1, 3, "_string == '" + prefix + 3 + "'");
+        checkQuery(pm, "_string >= '" + prefix + 3 + "'", 7);
+        checkQuery(pm, "_string == '" + prefix + "'", 0);
+
+        //duplicates are still detected
+        TestClass tc = new TestClass();
+        tc.setString(prefix + 3);
+        pm.makePersistent(tc);
+        try {
+            pm.currentTransaction().commit();
+            Assert.fail();
+        } catch (JDOUserException e) {
+            //good
+        }
+        pm.currentTransaction().rollback();
+        TestTools.closePM(pm);
+    }
+    
+    
     /**
      * Test what happens if a unique index is update because objects swap values.
      * The evil part is that re-ordering the objects to solve the collision is not possibles,
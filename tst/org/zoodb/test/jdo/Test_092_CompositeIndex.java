@@ -0,0 +1,391 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.test.testutil.TestTools;
+
+public class Test_092_CompositeIndex {
+
+	@Before
+	public void setUp() {
+        TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+	}
+
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private void defineCompositeIndex(boolean isUnique, String ... fieldNames) {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.createCompositeIndex(isUnique, fieldNames);
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+	
+	private void populate(PersistenceManager pm) {
+		for (int i = -5; i < 5; i++) {
+			for (int j = -10; j < 10; j++) {
+				TestClass tc = new TestClass();
+				tc.setData(i, j%2 == 0, 'c', (byte)1, (short)2, j, "str" + ((j+10)%3), null, 
+						j/10f, i*j*0.5);
+				pm.makePersistent(tc);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void checkQuery(PersistenceManager pm, String qStr, int n) {
+        Query q = pm.newQuery(TestClass.class, qStr);
+        Collection<TestClass> col = (Collection<TestClass>) q.execute();
+        assertEquals(qStr, n, col.size());
+    }
+	
+	private void checkQueries(PersistenceManager pm) {
+		checkQuery(pm, "_int == 3", 20);
+		checkQuery(pm, "_int == -3", 20);
+		checkQuery(pm, "_int == 3 && _long == 7", 1);
+		checkQuery(pm, "_int == -3 && _long == -7", 1);
+		checkQuery(pm, "_int == 3 && _long >= 5 && _long < 9", 4);
+		checkQuery(pm, "_int == -3 && _long > -3 && _long <= 2", 5);
+		checkQuery(pm, "_int == 3 && _long < 0", 10);
+		checkQuery(pm, "_int >= 3", 40);
+		checkQuery(pm, "_int < -3", 40);
+		checkQuery(pm, "_int >= 3 && _long == 1", 2);
+		checkQuery(pm, "_long == 1", 10);
+		checkQuery(pm, "(_int == 3 && _long == 7) || (_int == 4 && _long > 5)", 5);
+		checkQuery(pm, "_int == 5 && _long == 7", 0);
+	}
+	
+	@Test
+	public void testQueryPrimitives() {
+		defineCompositeIndex(false, "_int", "_long");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		populate(pm);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		
+		checkQueries(pm);
+
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testQueryStringsAndBooleans() {
+		defineCompositeIndex(false, "_string", "_bool", "_int");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		populate(pm);
+		TestClass tc = new TestClass();
+		tc.setString(null);
+		tc.setInt(1);
+		pm.makePersistent(tc);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		
+		checkQuery(pm, "_string == 'str1'", 70);
+		checkQuery(pm, "_string == 'str1' && _bool == true", 30);
+		checkQuery(pm, "_string == 'str1' && _bool == false && _int == 2", 4);
+		checkQuery(pm, "_string == 'str1' && _bool == false && _int > 2", 8);
+		checkQuery(pm, "_string > 'str0' && _string <= 'str1'", 70);
+		checkQuery(pm, "_string == 'str'", 0);
+		checkQuery(pm, "_string == null && _int == 1", 1);
+		
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testIndexOnExistingObjects() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		populate(pm);
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+
+		defineCompositeIndex(false, "_int", "_long");
+		
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		checkQueries(pm);
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testUpdateAndDelete() {
+		defineCompositeIndex(false, "_int", "_long");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		TestClass tc1 = new TestClass();
+		tc1.setInt(1);
+		tc1.setLong(1);
+		pm.makePersistent(tc1);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+
+		checkQuery(pm, "_int == 1 && _long == 1", 1);
+		
+		//modify
+		tc1.setLong(2);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+
+		checkQuery(pm, "_int == 1 && _long == 1", 0);
+		checkQuery(pm, "_int == 1 && _long == 2", 1);
+		
+		//delete
+		pm.deletePersistent(tc1);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+
+		checkQuery(pm, "_int == 1 && _long == 2", 0);
+		checkQuery(pm, "_int == 1", 0);
+
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testUnique() {
+		defineCompositeIndex(true, "_int", "_long");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		TestClass tc1 = new TestClass();
+		tc1.setInt(1);
+		tc1.setLong(1);
+		pm.makePersistent(tc1);
+		TestClass tc2 = new TestClass();
+		tc2.setInt(1);
+		tc2.setLong(2);
+		pm.makePersistent(tc2);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+
+		//swapping values is allowed
+		tc1.setLong(2);
+		tc2.setLong(1);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		checkQuery(pm, "_int == 1 && _long == 1", 1);
+		checkQuery(pm, "_int == 1 && _long == 2", 1);
+		
+		//clash
+		TestClass tc3 = new TestClass();
+		tc3.setInt(1);
+		tc3.setLong(1);
+		pm.makePersistent(tc3);
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		TestTools.closePM(pm);
+	}
+	
+	private static String longString(char c) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			sb.append((char)('a' + i % 26));
+		}
+		return sb.append(c).toString();
+	}
+	
+	/**
+	 * A long leading String must not cut the following fields from the key.
+	 */
+	@Test
+	public void testLongStrings() {
+		defineCompositeIndex(false, "_string", "_int");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < 10; i++) {
+			for (char c = 'A'; c < 'D'; c++) {
+				TestClass tc = new TestClass();
+				tc.setString(longString(c));
+				tc.setInt(i);
+				pm.makePersistent(tc);
+			}
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		
+		String sA = longString('A');
+		checkQuery(pm, "_string == '" + sA + "'", 10);
+		checkQuery(pm, "_string == '" + sA + "' && _int == 3", 1);
+		checkQuery(pm, "_string == '" + sA + "' && _int > 3", 6);
+		checkQuery(pm, "_string > '" + sA + "' && _string <= '" + longString('C') + "'", 20);
+		checkQuery(pm, "_int == 3", 3);
+		
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+	
+	/**
+	 * Unique indices can not truncate keys. Too long keys must be reported as such, not as
+	 * duplicates.
+	 */
+	@Test
+	public void testLongStringsUnique() {
+		defineCompositeIndex(true, "_string", "_int");
+
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		TestClass tc1 = new TestClass();
+		tc1.setString("short");
+		tc1.setInt(1);
+		pm.makePersistent(tc1);
+		TestClass tc2 = new TestClass();
+		tc2.setString("short");
+		tc2.setInt(2);
+		pm.makePersistent(tc2);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		checkQuery(pm, "_string == 'short' && _int == 2", 1);
+		
+		TestClass tc3 = new TestClass();
+		tc3.setString(longString('A'));
+		tc3.setInt(1);
+		pm.makePersistent(tc3);
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOUserException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("too long"));
+		}
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testUniqueClashWhenDefining() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < 2; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(1);
+			tc.setLong(1);
+			pm.makePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.createCompositeIndex(true, "_int", "_long");
+		try {
+			pm.currentTransaction().commit();
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testIndexManagement() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		assertFalse(s.hasCompositeIndex("_int", "_long"));
+		s.createCompositeIndex(false, "_int", "_long");
+		assertTrue(s.hasCompositeIndex("_int", "_long"));
+		assertFalse(s.hasCompositeIndex("_long", "_int"));
+		try {
+			s.createCompositeIndex(true, "_int", "_long");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			s.createCompositeIndex(true, "_int");
+			fail();
+		} catch (IllegalArgumentException e) {
+			//good
+		}
+		try {
+			s.createCompositeIndex(true, "_int", "_object");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		
+		//rollback
+		pm.currentTransaction().rollback();
+		pm.currentTransaction().begin();
+		assertFalse(s.hasCompositeIndex("_int", "_long"));
+		
+		s.createCompositeIndex(false, "_int", "_long");
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+		
+		//reopen
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		assertTrue(s.hasCompositeIndex("_int", "_long"));
+		populate(pm);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		checkQueries(pm);
+		
+		assertTrue(s.removeCompositeIndex("_int", "_long"));
+		assertFalse(s.removeCompositeIndex("_int", "_long"));
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+
+		//reopen
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		assertFalse(s.hasCompositeIndex("_int", "_long"));
+		checkQueries(pm);
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+}
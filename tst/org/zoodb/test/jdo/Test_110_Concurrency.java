@@ -20,12 +20,34 @@
  */
 package org.zoodb.test.jdo;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jdo.Extent;
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+import javax.jdo.listener.LoadCallback;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.zoodb.api.DBLargeVector;
+import org.zoodb.jdo.spi.PersistenceCapableImpl;
 import org.zoodb.test.api.TestSerializer;
 import org.zoodb.test.api.TestSuper;
 import org.zoodb.test.testutil.TestTools;
@@ -35,7 +57,7 @@ public class Test_110_Concurrency {
 
     @Before
     public void before() {
-        // nothing
+        TestTools.dropInstances(TestSuper.class, TestBlockingLoad.class);
     }
 
 
@@ -51,7 +73,8 @@ public class Test_110_Concurrency {
     @BeforeClass
     public static void beforeClass() {
         TestTools.createDb();
-        TestTools.defineSchema(TestSerializer.class, TestSuper.class, DBLargeVector.class);
+        TestTools.defineSchema(TestSerializer.class, TestSuper.class, DBLargeVector.class, 
+        		TestBlockingLoad.class);
     }
     
 
@@ -60,85 +83,471 @@ public class Test_110_Concurrency {
         TestTools.removeDb();
     }
 
-//    private static class Reader extends Thread {
-//        
-//        private final PersistenceManager pm;
-//        private final int N;
-//        private int n = 0;
-//        
-//        private Reader(PersistenceManager pm, int n) {
-//            this.pm = pm;
-//            this.N = n;
-//        }
-//        
-//        @SuppressWarnings("unchecked")
-//        @Override
-//        public void run() {
-//            Extent<TestSuper> ext = pm.getExtent(TestSuper.class);
-//            for (TestSuper t: ext) {
-//                assertTrue(t.getId() >= 0 && t.getId() < N);
-//                assertTrue(t.getData()[0] >= 0 && t.getData()[0] < N);
-//                TestSuper t2 = (TestSuper) pm.getObjectById( JDOHelper.getObjectId(t) );
-//                assertEquals(t.getId(), t2.getId());
-//                n++;
-//            }
-//            Collection<TestSuper> col = 
-//                (Collection<TestSuper>) pm.newQuery(TestSuper.class).execute();
-//            for (TestSuper t: col) {
-//                assertTrue(t.getId() >= 0 && t.getId() < N);
-//                assertTrue(t.getData()[0] >= 0 && t.getData()[0] < N);
-//                TestSuper t2 = (TestSuper) JDOHelper.getObjectId( JDOHelper.getObjectId(t) );
-//                assertEquals(t.getId(), t2.getId());
-//                n++;
-//            }
-//        }
-//    }
+    private static PersistenceManager openSecondPM() {
+        PersistenceManagerFactory pmf = JDOHelper.getPersistenceManagerFactory(
+                TestTools.getProps());
+        return pmf.getPersistenceManager();
+    }
+    
+    private static void closeSecondPM(PersistenceManager pm) {
+        PersistenceManagerFactory pmf = pm.getPersistenceManagerFactory();
+        if (pm.currentTransaction().isActive()) {
+            pm.currentTransaction().rollback();
+        }
+        pm.close();
+        pmf.close();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static int count(PersistenceManager pm) {
+        Query q = pm.newQuery(TestSuper.class);
+        int n = 0;
+        for (Iterator<TestSuper> it = ((Collection<TestSuper>) q.execute()).iterator(); 
+                it.hasNext(); it.next()) {
+            n++;
+        }
+        q.closeAll();
+        return n;
+    }
+    
+    /**
+     * A session sees the state of the database at the beginning of its transaction. 
+     */
+    @Test
+    public void testSnapshotIsolation() {
+        PersistenceManager pm1 = TestTools.openPM();
+        pm1.currentTransaction().begin();
+        pm1.makePersistent(new TestSuper(1, 1, null));
+        pm1.currentTransaction().commit();
+        
+        PersistenceManager pm2 = openSecondPM();
+        pm2.currentTransaction().begin();
+        assertEquals(1, count(pm2));
+        
+        //uncommitted objects are not visible
+        pm1.currentTransaction().begin();
+        pm1.makePersistent(new TestSuper(2, 2, null));
+        assertEquals(1, count(pm2));
+        
+        //objects committed after the begin() are not visible
+        pm1.currentTransaction().commit();
+        assertEquals(1, count(pm2));
+        pm2.currentTransaction().commit();
+        
+        pm2.currentTransaction().begin();
+        assertEquals(2, count(pm2));
+        pm2.currentTransaction().rollback();
+        
+        closeSecondPM(pm2);
+        TestTools.closePM(pm1);
+    }
+    
+    /**
+     * If two sessions modify the database, the first commit wins.
+     */
+    @Test
+    public void testWriteConflict() {
+        PersistenceManager pm1 = TestTools.openPM();
+        PersistenceManager pm2 = openSecondPM();
+        pm1.currentTransaction().begin();
+        pm2.currentTransaction().begin();
+        pm1.makePersistent(new TestSuper(1, 1, null));
+        pm2.makePersistent(new TestSuper(2, 2, null));
+        
+        pm1.currentTransaction().commit();
+        try {
+            pm2.currentTransaction().commit();
+            fail();
+        } catch (JDOUserException e) {
+            //good, pm2 uses an outdated snapshot
+        }
+        pm2.currentTransaction().rollback();
+        
+        //retry
+        pm2.currentTransaction().begin();
+        pm2.makePersistent(new TestSuper(3, 3, null));
+        pm2.currentTransaction().commit();
+        
+        pm2.currentTransaction().begin();
+        assertEquals(2, count(pm2));
+        pm2.currentTransaction().rollback();
+        
+        pm1.currentTransaction().begin();
+        assertEquals(2, count(pm1));
+        pm1.currentTransaction().rollback();
+        
+        closeSecondPM(pm2);
+        TestTools.closePM(pm1);
+    }
     
+    /**
+     * Read-only transactions do not conflict with other sessions.
+     */
+    @Test
+    public void testReadOnlyNoConflict() {
+        PersistenceManager pm1 = TestTools.openPM();
+        PersistenceManager pm2 = openSecondPM();
+        pm1.currentTransaction().begin();
+        pm2.currentTransaction().begin();
+        pm1.makePersistent(new TestSuper(1, 1, null));
+        assertEquals(0, count(pm2));
+        pm1.currentTransaction().commit();
+        pm2.currentTransaction().commit();
+        
+        closeSecondPM(pm2);
+        TestTools.closePM(pm1);
+    }
     
     /**
-     * Test serialisation. 
+     * OIDs are unique across sessions.
      */
     @Test
-    public void testParallelRead() {
-        System.err.println("Re-enable concurrency test later.");
-        if (true) return;
-        
-        
-//        final int N = 10000;
-//        final int T = 10;
-//        
-//        PersistenceManager pm = TestTools.openPM();
-//        pm.currentTransaction().begin();
-//        for (int i = 0; i < N; i++) {
-//            TestSuper o = new TestSuper(i, i, new long[]{i});
-//            pm.makePersistent(o);
-//        }
-//        
-//        pm.currentTransaction().commit();
-//        TestTools.closePM();
-//
-//        pm = TestTools.openPM();
-//        pm.currentTransaction().begin();
-//        Reader[] readers = new Reader[T];
-//        for (int i = 0; i < T; i++) {
-//            readers[i] = new Reader(pm, N);
-//        }
-//        
-//        for (Reader reader: readers) {
-//            reader.start();
-//        }
-//        
-//        for (Reader reader: readers) {
-//            try {
-//                reader.join();
-//                assertEquals(10000 * 2, reader.n);
-//            } catch (InterruptedException e) {
-//                throw new RuntimeException(e);
-//            }
-//        }
-//        
-//        pm.currentTransaction().rollback();
-//        TestTools.closePM();
+    public void testOidsAreUnique() {
+        PersistenceManager pm1 = TestTools.openPM();
+        PersistenceManager pm2 = openSecondPM();
+        pm1.currentTransaction().begin();
+        pm2.currentTransaction().begin();
+        HashSet<Object> oids = new HashSet<Object>();
+        for (int i = 0; i < 100; i++) {
+            TestSuper t1 = new TestSuper(i, i, null);
+            pm1.makePersistent(t1);
+            TestSuper t2 = new TestSuper(i, i, null);
+            pm2.makePersistent(t2);
+            assertNull(oids.add(pm1.getObjectId(t1)) ? null : t1);
+            assertNull(oids.add(pm2.getObjectId(t2)) ? null : t2);
+        }
+        pm2.currentTransaction().rollback();
+        pm1.currentTransaction().commit();
+        
+        //the next session must not reuse any OIDs
+        closeSecondPM(pm2);
+        TestTools.closePM(pm1);
+        PersistenceManager pm = TestTools.openPM();
+        pm.currentTransaction().begin();
+        for (int i = 0; i < 100; i++) {
+            TestSuper t = new TestSuper(i, i, null);
+            pm.makePersistent(t);
+            assertFalse(oids.contains(pm.getObjectId(t)));
+        }
+        pm.currentTransaction().commit();
+        TestTools.closePM();
+    }
+    
+    private static class SessionReader extends Thread {
+        
+        private final PersistenceManagerFactory pmf;
+        private final int N;
+        private int n = 0;
+        private Throwable t = null;
+        
+        private SessionReader(PersistenceManagerFactory pmf, int n) {
+            this.pmf = pmf;
+            this.N = n;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                PersistenceManager pm = pmf.getPersistenceManager();
+                pm.currentTransaction().begin();
+                Extent<TestSuper> ext = pm.getExtent(TestSuper.class);
+                for (TestSuper t: ext) {
+                    assertEquals(t.getId(), t.getData()[0]);
+                    assertEquals(t, pm.getObjectById(JDOHelper.getObjectId(t)));
+                    n++;
+                }
+                ext.closeAll();
+                assertEquals(N, count(pm));
+                pm.currentTransaction().rollback();
+                pm.close();
+            } catch (Throwable e) {
+                t = e;
+            }
+        }
     }
+    
+    /**
+     * Parallel reading with one session per thread. 
+     */
+    @Test
+    public void testParallelReadSessions() throws InterruptedException {
+        final int N = 10000;
+        final int T = 10;
+        
+        PersistenceManager pm = TestTools.openPM();
+        pm.currentTransaction().begin();
+        for (int i = 0; i < N; i++) {
+            TestSuper o = new TestSuper(i, i, new long[]{i});
+            pm.makePersistent(o);
+        }
+        pm.currentTransaction().commit();
+        
+        //keep a writing session open
+        pm.currentTransaction().begin();
+        pm.makePersistent(new TestSuper(N, N, new long[]{N}));
+        
+        PersistenceManagerFactory pmf = JDOHelper.getPersistenceManagerFactory(
+                TestTools.getProps());
+        SessionReader[] readers = new SessionReader[T];
+        for (int i = 0; i < T; i++) {
+            readers[i] = new SessionReader(pmf, N);
+        }
+        for (SessionReader reader: readers) {
+            reader.start();
+        }
+        for (SessionReader reader: readers) {
+            reader.join();
+            if (reader.t != null) {
+                throw new RuntimeException(reader.t);
+            }
+            assertEquals(N, reader.n);
+        }
+        pmf.close();
+        
+        pm.currentTransaction().commit();
+        TestTools.closePM();
+    }
+    
+    private static class Reader extends Thread {
+        
+        private final PersistenceManager pm;
+        private final int N;
+        private int n = 0;
+        private Throwable t = null;
+        
+        private Reader(PersistenceManager pm, int n) {
+            this.pm = pm;
+            this.N = n;
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        public void run() {
+            try {
+                Extent<TestSuper> ext = pm.getExtent(TestSuper.class);
+                for (TestSuper t: ext) {
+                    assertTrue(t.getId() >= 0 && t.getId() < N);
+                    assertTrue(t.getData()[0] >= 0 && t.getData()[0] < N);
+                    TestSuper t2 = (TestSuper) pm.getObjectById( JDOHelper.getObjectId(t) );
+                    assertEquals(t.getId(), t2.getId());
+                    n++;
+                }
+                ext.closeAll();
+                Query q = pm.newQuery(TestSuper.class);
+                Collection<TestSuper> col = (Collection<TestSuper>) q.execute();
+                for (TestSuper t: col) {
+                    assertTrue(t.getId() >= 0 && t.getId() < N);
+                    assertTrue(t.getData()[0] >= 0 && t.getData()[0] < N);
+                    TestSuper t2 = (TestSuper) pm.getObjectById( JDOHelper.getObjectId(t) );
+                    assertEquals(t.getId(), t2.getId());
+                    n++;
+                }
+                q.closeAll();
+            } catch (Throwable e) {
+                t = e;
+            }
+        }
+    }
+    
+    
+    /**
+     * Parallel reading with several threads in one multithreaded session. 
+     */
+    @Test
+    public void testParallelRead() throws InterruptedException {
+        final int N = 10000;
+        final int T = 10;
+        
+        PersistenceManager pm = TestTools.openPM();
+        pm.currentTransaction().begin();
+        for (int i = 0; i < N; i++) {
+            TestSuper o = new TestSuper(i, i, new long[]{i});
+            pm.makePersistent(o);
+        }
+        pm.currentTransaction().commit();
+        TestTools.closePM();
+
+        PersistenceManagerFactory pmf = JDOHelper.getPersistenceManagerFactory(
+                TestTools.getProps());
+        pmf.setMultithreaded(true);
+        pm = pmf.getPersistenceManager();
+        assertTrue(pm.getMultithreaded());
+        pm.currentTransaction().begin();
+        Reader[] readers = new Reader[T];
+        for (int i = 0; i < T; i++) {
+            readers[i] = new Reader(pm, N);
+        }
+        for (Reader reader: readers) {
+            reader.start();
+        }
+        for (Reader reader: readers) {
+            reader.join();
+            if (reader.t != null) {
+                throw new RuntimeException(reader.t);
+            }
+            assertEquals(N * 2, reader.n);
+        }
+        
+        pm.currentTransaction().rollback();
+        pm.close();
+        pmf.close();
+    }
+
+    /**
+     * Several threads create objects in the same session. 
+     */
+    @Test
+    public void testParallelWrite() throws InterruptedException {
+        final int N = 1000;
+        final int T = 10;
+        
+        final PersistenceManager pm = TestTools.openPM();
+        pm.setMultithreaded(true);
+        pm.currentTransaction().begin();
+        Thread[] writers = new Thread[T];
+        final Throwable[] errors = new Throwable[T];
+        for (int i = 0; i < T; i++) {
+            final int id = i;
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < N; j++) {
+                            int x = id * N + j;
+                            pm.makePersistent(new TestSuper(x, x, new long[]{x}));
+                        }
+                    } catch (Throwable e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+        }
+        for (Thread writer: writers) {
+            writer.start();
+        }
+        for (int i = 0; i < T; i++) {
+            writers[i].join();
+            if (errors[i] != null) {
+                throw new RuntimeException(errors[i]);
+            }
+        }
+        pm.currentTransaction().commit();
+        
+        pm.currentTransaction().begin();
+        assertEquals(N * T, count(pm));
+        HashSet<Long> ids = new HashSet<Long>();
+        Extent<TestSuper> ext = pm.getExtent(TestSuper.class);
+        for (TestSuper t: ext) {
+            assertEquals(t.getId(), t.getData()[0]);
+            assertTrue(ids.add(t.getId()));
+        }
+        ext.closeAll();
+        pm.currentTransaction().rollback();
+        pm.setMultithreaded(false);
+        TestTools.closePM();
+    }
+    
+    /**
+     * Threads of a multithreaded session read from disk while another thread is loading 
+     * an object. 
+     */
+    @Test
+    public void testParallelLoad() throws InterruptedException {
+        PersistenceManager pm = TestTools.openPM();
+        pm.currentTransaction().begin();
+        TestBlockingLoad x = new TestBlockingLoad(1);
+        TestBlockingLoad y = new TestBlockingLoad(2);
+        pm.makePersistent(x);
+        pm.makePersistent(y);
+        final Object oidX = pm.getObjectId(x);
+        final Object oidY = pm.getObjectId(y);
+        pm.currentTransaction().commit();
+        TestTools.closePM();
+
+        final PersistenceManager pm2 = TestTools.openPM();
+        pm2.setMultithreaded(true);
+        pm2.currentTransaction().begin();
+        final TestBlockingLoad[] loaded = new TestBlockingLoad[3];
+        TestBlockingLoad.loading = new CountDownLatch(1);
+        TestBlockingLoad.release = new CountDownLatch(1);
+        try {
+        	//blocks in jdoPostLoad() of x
+        	Thread a = new Thread() {
+        		@Override
+        		public void run() {
+        			loaded[0] = (TestBlockingLoad) pm2.getObjectById(oidX);
+        		}
+        	};
+        	a.start();
+        	assertTrue(TestBlockingLoad.loading.await(10, TimeUnit.SECONDS));
+        	
+        	//other objects are read from disk in the meantime
+        	Thread c = new Thread() {
+        		@Override
+        		public void run() {
+        			loaded[1] = (TestBlockingLoad) pm2.getObjectById(oidY);
+        		}
+        	};
+        	c.start();
+        	c.join(10000);
+        	assertFalse(c.isAlive());
+        	assertEquals(2, loaded[1].getI());
+        	
+        	//x is not loaded twice
+        	Thread b = new Thread() {
+        		@Override
+        		public void run() {
+        			loaded[2] = (TestBlockingLoad) pm2.getObjectById(oidX);
+        		}
+        	};
+        	b.start();
+        	b.join(10000);
+        	assertFalse(b.isAlive());
+        	
+        	TestBlockingLoad.release.countDown();
+        	a.join(10000);
+        	assertFalse(a.isAlive());
+        	assertEquals(1, loaded[0].getI());
+        	assertSame(loaded[0], loaded[2]);
+        } finally {
+        	TestBlockingLoad.release.countDown();
+        	TestBlockingLoad.release = null;
+        }
+        pm2.currentTransaction().rollback();
+        pm2.setMultithreaded(false);
+        TestTools.closePM();
+    }
+
+}
 
+class TestBlockingLoad extends PersistenceCapableImpl implements LoadCallback {
+	static volatile CountDownLatch loading;
+	static volatile CountDownLatch release;
+	private int i;
+	
+	TestBlockingLoad() {
+		// default constructor
+	}
+	
+	TestBlockingLoad(int i) {
+		this.i = i;
+	}
+	
+	@Override
+	public void jdoPostLoad() {
+		CountDownLatch r = release;
+		if (i == 1 && r != null) {
+			loading.countDown();
+			try {
+				r.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	int getI() {
+		zooActivateRead();
+		return i;
+	}
 }
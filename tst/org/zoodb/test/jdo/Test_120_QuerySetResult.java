@@ -20,6 +20,7 @@
  */
 package org.zoodb.test.jdo;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assert.assertEquals;
@@ -35,6 +36,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
 import org.zoodb.test.testutil.TestTools;
 
 /**
@@ -412,4 +414,68 @@ public class Test_120_QuerySetResult {
 		TestTools.closePM();
     }
 	
+    /**
+     * Aggregates are computed from the indices or from the serialized objects, without 
+     * loading the candidate objects.
+     */
+    @Test
+    public void testAggregatesWithoutMaterialization() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooJdoHelper.schema(pm).getClass(TestClass.class).createIndex("_int", false);
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		
+		//Creating the index loads all objects, so we need a new PM
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		//object index and field index
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("count(this)");
+		assertEquals(5L, q.execute());
+		
+		q.setResult("min(_int), max(_int), count(this)");
+		Object[] r = (Object[]) q.execute();
+		assertEquals(1, r[0]);
+		assertEquals(12345, r[1]);
+		assertEquals(5L, r[2]);
+		
+		//extent scan
+		q = pm.newQuery(TestClass.class, "_short > 32002");
+		q.setResult("sum(_int), avg(_double), count(this)");
+		r = (Object[]) q.execute();
+		assertEquals(13702L, r[0]);
+		assertTrue(-10.7 < (Double)r[1] && -10.6 > (Double)r[1]);
+		assertEquals(3L, r[2]);
+
+		//index scan
+		q = pm.newQuery(TestClass.class, "_int >= 12 && _int < 1234");
+		q.setResult("sum(_long), max(_float)");
+		r = (Object[]) q.execute();
+		assertEquals(2469135780L, r[0]);
+		assertEquals(0.1f, r[1]);
+		
+		for (Object o: pm.getManagedObjects()) {
+			assertFalse(o instanceof TestClass);
+		}
+		
+		//modified objects have to be taken into account
+		q = pm.newQuery(TestClass.class, "_int == 1");
+		q.setUnique(true);
+		TestClass tc = (TestClass) q.execute();
+		tc.setInt(2);
+		q = pm.newQuery(TestClass.class);
+		q.setResult("sum(_int), min(_int)");
+		r = (Object[]) q.execute();
+		assertEquals(13716L, r[0]);
+		assertEquals(2, r[1]);
+		pm.currentTransaction().rollback();
+		
+		pm.currentTransaction().begin();
+		ZooJdoHelper.schema(pm).getClass(TestClass.class).removeIndex("_int");
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+    }
+	
 }
@@ -109,12 +109,6 @@ public class Test_121_QueryResultProcessing {
 		
 		System.err.println("TODO implement query imports");
 		checkFails(pm, start + "imports xyz");
-		System.err.println("TODO implement query group");
-		checkFails(pm, start + "group by xyz");
-		System.err.println("TODO implement query order");
-		checkFails(pm, start + "order by xyz");
-		System.err.println("TODO implement query range");
-		checkFails(pm, start + "range a, b");
 	}
 	
 	private void checkFails(PersistenceManager pm, String s) {
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for query grouping.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_123_QueryGrouping {
+
+	private static final int N = 20;
+	
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+	}
+
+	@Before
+	public void before() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		pm.newQuery(TestClass.class).deletePersistentAll();
+		
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setData(i, i % 2 == 0, 'c', (byte)i, (short)(i % 3), i % 4, "xyz", 
+					new byte[]{1,2}, i * 0.5f, i);
+			pm.makePersistent(tc);
+		}
+		
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+		
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+		ZooConfig.setDefaults();
+	}
+	
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGroupingSingleField() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("_short, count(this), sum(_int), avg(_double), max(_float)");
+		q.setGrouping("_short");
+		Collection<Object[]> r = (Collection<Object[]>) q.execute();
+		assertEquals(3, r.size());
+		for (Object[] oa: r) {
+			short s = (Short) oa[0];
+			long n = 0;
+			long sum = 0;
+			float max = 0;
+			for (int i = 0; i < N; i++) {
+				if (i % 3 == s) {
+					n++;
+					sum += i;
+					max = i * 0.5f;
+				}
+			}
+			assertEquals(n, oa[1]);
+			assertEquals(sum, oa[2]);
+			assertEquals(sum/(double)n, (Double) oa[3], 0.0001);
+			assertEquals(max, (Float) oa[4], 0.0001);
+		}
+
+		//single result column
+		q = pm.newQuery(TestClass.class);
+		q.setResult("count(this)");
+		q.setGrouping("_bool");
+		Collection<Long> r2 = (Collection<Long>) q.execute();
+		assertEquals(2, r2.size());
+		for (Long l: r2) {
+			assertEquals(N / 2, (long) l);
+		}
+
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGroupingMultipleFields() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("_long, _bool, count(this), min(_int)");
+		q.setGrouping("_long, _bool");
+		Collection<Object[]> r = (Collection<Object[]>) q.execute();
+		//_bool is determined by _long
+		assertEquals(4, r.size());
+		for (Object[] oa: r) {
+			long l = (Long) oa[0];
+			assertEquals(l % 2 == 0, oa[1]);
+			assertEquals(N / 4L, oa[2]);
+			assertEquals((int) l, oa[3]);
+		}
+
+		q = pm.newQuery(TestClass.class);
+		q.setResult("_short, _long, count(this)");
+		q.setGrouping("_short, _long");
+		r = (Collection<Object[]>) q.execute();
+		assertEquals(12, r.size());
+		
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGroupingWithFilter() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, "_int >= 10");
+		q.setResult("_bool, count(this), sum(_int)");
+		q.setGrouping("_bool");
+		Collection<Object[]> r = (Collection<Object[]>) q.execute();
+		assertEquals(2, r.size());
+		for (Object[] oa: r) {
+			assertEquals(5L, oa[1]);
+			assertEquals((Boolean) oa[0] ? 70L : 75L, oa[2]);
+		}
+
+		//no matching objects
+		q = pm.newQuery(TestClass.class, "_int > 1000");
+		q.setResult("_bool, count(this)");
+		q.setGrouping("_bool");
+		r = (Collection<Object[]>) q.execute();
+		assertEquals(0, r.size());
+		
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGroupingWithIndex() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		if (!s.hasIndex("_int")) {
+			s.createIndex("_int", false);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		Query q = pm.newQuery(TestClass.class, "_int >= 10 && _int < 16");
+		q.setResult("_short, count(this)");
+		q.setGrouping("_short");
+		Collection<Object[]> r = (Collection<Object[]>) q.execute();
+		assertEquals(3, r.size());
+		for (Object[] oa: r) {
+			assertEquals(2L, oa[1]);
+		}
+		
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		s = ZooJdoHelper.schema(pm).getClass(TestClass.class);
+		s.removeIndex("_int");
+		pm.currentTransaction().commit();
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGroupingSingleString() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class, "_int >= 10 GROUP BY _bool");
+		q.setResult("_bool, count(this), sum(_int)");
+		Collection<Object[]> r = (Collection<Object[]>) q.execute();
+		assertEquals(2, r.size());
+		for (Object[] oa: r) {
+			assertEquals(5L, oa[1]);
+			assertEquals((Boolean) oa[0] ? 70L : 75L, oa[2]);
+		}
+
+		q = pm.newQuery("SELECT FROM " + TestClass.class.getName() + 
+				" group by _short having count(this) > 6");
+		q.setResult("_short, count(this)");
+		r = (Collection<Object[]>) q.execute();
+		assertEquals(2, r.size());
+		for (Object[] oa: r) {
+			assertTrue((Short) oa[0] != 2);
+			assertEquals(7L, oa[1]);
+		}
+		
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testHaving() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("_short, count(this)");
+		q.setGrouping("_short having count(this) > 6");
+		Collection<Object[]> r = (Collection<Object[]>) q.execute();
+		assertEquals(2, r.size());
+		for (Object[] oa: r) {
+			assertTrue((Short) oa[0] != 2);
+			assertEquals(7L, oa[1]);
+		}
+
+		//aggregate that is not part of the result 
+		q = pm.newQuery(TestClass.class);
+		q.setResult("_long");
+		q.setGrouping("_long HAVING sum(_int) >= 45 && (_long == 1 || avg(_double) > 10.5)");
+		Collection<Long> r2 = (Collection<Long>) q.execute();
+		//sum: 0->40, 1->45, 2->50, 3->55
+		assertEquals(2, r2.size());
+		assertTrue(r2.contains(1L));
+		assertTrue(r2.contains(3L));
+		
+		//compare float aggregate
+		q = pm.newQuery(TestClass.class);
+		q.setResult("_bool, max(_float)");
+		q.setGrouping("_bool having max(_float) < 9.5");
+		r = (Collection<Object[]>) q.execute();
+		assertEquals(1, r.size());
+		assertEquals(true, r.iterator().next()[0]);
+		
+		TestTools.closePM(pm);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGroupingUnique() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("_short, count(this)");
+		q.setGrouping("_short having count(this) < 7");
+		q.setUnique(true);
+		Object[] oa = (Object[]) q.execute();
+		assertEquals((short) 2, oa[0]);
+		assertEquals(6L, oa[1]);
+
+		q = pm.newQuery(TestClass.class);
+		q.setResult("_short, count(this)");
+		q.setGrouping("_short");
+		q.setUnique(true);
+		try {
+			q.execute();
+			fail();
+		} catch (JDOUserException e) {
+			//good, too many results
+		}
+		
+		TestTools.closePM(pm);
+	}
+	
+	/**
+	 * Modified objects in the cache have to be grouped in memory.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGroupingWithDirtyCache() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Collection<TestClass> c = (Collection<TestClass>) pm.newQuery(
+				TestClass.class, "_int == 0").execute();
+		TestClass t = c.iterator().next();
+		t.setShort((short) 5);
+		
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("_short, count(this)");
+		q.setGrouping("_short");
+		Collection<Object[]> r = (Collection<Object[]>) q.execute();
+		assertEquals(4, r.size());
+		Map<Short, Long> map = new HashMap<Short, Long>();
+		for (Object[] oa: r) {
+			map.put((Short) oa[0], (Long) oa[1]);
+		}
+		assertEquals(6L, (long) map.get((short) 0));
+		assertEquals(1L, (long) map.get((short) 5));
+		
+		pm.currentTransaction().rollback();
+		TestTools.closePM(pm);
+	}
+	
+	/**
+	 * Groups that do not fit into the buffer are written to temporary files.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGroupingWithSpill() {
+		ZooConfig.setQueryGroupBufferSize(3);
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult("_int, count(this), sum(_double)");
+		q.setGrouping("_int");
+		Collection<Object[]> r = (Collection<Object[]>) q.execute();
+		assertEquals(N, r.size());
+		boolean[] found = new boolean[N];
+		for (Object[] oa: r) {
+			int i = (Integer) oa[0];
+			assertFalse(found[i]);
+			found[i] = true;
+			assertEquals(1L, oa[1]);
+			assertEquals((double) i, (Double) oa[2], 0.0);
+		}
+
+		//in-memory grouping of a dirty cache
+		Collection<TestClass> c = (Collection<TestClass>) pm.newQuery(
+				TestClass.class, "_int == 0").execute();
+		c.iterator().next().setDouble(1);
+		q = pm.newQuery(TestClass.class);
+		q.setResult("_long, sum(_double)");
+		q.setGrouping("_long");
+		r = (Collection<Object[]>) q.execute();
+		assertEquals(4, r.size());
+		for (Object[] oa: r) {
+			long l = (Long) oa[0];
+			assertEquals(l == 0 ? 41.0 : 40.0 + 5*l, (Double) oa[1], 0.0);
+		}
+		
+		pm.currentTransaction().rollback();
+		TestTools.closePM(pm);
+	}
+	
+	@Test
+	public void testGroupingFailures() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		checkGroupingFails(pm, null, "_short");
+		checkGroupingFails(pm, "_int, count(this)", "_short");
+		checkGroupingFails(pm, "count(this)", "_string");
+		checkGroupingFails(pm, "count(this)", "_xyz");
+		checkGroupingFails(pm, "count(this)", "_short having _int > 2");
+		checkGroupingFails(pm, "count(this)", "_short having count(this) >");
+		checkGroupingFails(pm, "count(this)", "_short having count(this) > 1 &&");
+		checkGroupingFails(pm, "sum(_bool)", "_short");
+		
+		TestTools.closePM(pm);
+	}
+	
+	private void checkGroupingFails(PersistenceManager pm, String result, String grouping) {
+		Query q = pm.newQuery(TestClass.class);
+		q.setResult(result);
+		q.setGrouping(grouping);
+		try {
+			q.execute();
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+	}
+}
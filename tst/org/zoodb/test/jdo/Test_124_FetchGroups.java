@@ -0,0 +1,332 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+
+import javax.jdo.FetchGroup;
+import javax.jdo.FetchPlan;
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOUserException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for fetch groups and partial loading of objects.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_124_FetchGroups {
+
+	private static final int N = 20;
+	
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+		TestTools.defineIndex(TestClass.class, "_string", false);
+	}
+
+	@Before
+	public void before() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		pm.newQuery(TestClass.class).deletePersistentAll();
+		
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setData(i, i % 2 == 0, 'c', (byte)i, (short)(i % 3), i % 4, "xyz" + i, 
+					new byte[]{1,2}, i * 0.5f, i);
+			pm.makePersistent(tc);
+		}
+		
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+		
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+	
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	private static void setListGroup(PersistenceManager pm) {
+		FetchGroup fg = pm.getFetchGroup(TestClass.class, "list");
+		fg.addMembers("_int", "_long");
+		pm.getFetchPlan().setGroup("list");
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Collection<TestClass> queryAll(PersistenceManager pm) {
+		Query q = pm.newQuery(TestClass.class, "_int >= 0");
+		return (Collection<TestClass>) q.execute();
+	}
+	
+	@Test
+	public void testDefaultPlan() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		FetchPlan fp = pm.getFetchPlan();
+		assertEquals(1, fp.getGroups().size());
+		assertTrue(fp.getGroups().contains(FetchPlan.DEFAULT));
+		
+		Collection<TestClass> c = queryAll(pm);
+		assertEquals(N, c.size());
+		for (TestClass tc: c) {
+			assertEquals("xyz" + tc.getInt(), TestTools.getFieldValue("_string", tc));
+			assertArrayEquals(new byte[]{1,2}, 
+					(byte[]) TestTools.getFieldValue("_bArray", tc));
+		}
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testPartialLoading() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		setListGroup(pm);
+		
+		Collection<TestClass> c = queryAll(pm);
+		assertEquals(N, c.size());
+		for (TestClass tc: c) {
+			int i = (Integer) TestTools.getFieldValue("_int", tc);
+			assertEquals((long) (i % 4), TestTools.getFieldValue("_long", tc));
+			assertNull(TestTools.getFieldValue("_string", tc));
+			assertNull(TestTools.getFieldValue("_bArray", tc));
+			assertEquals(0f, TestTools.getFieldValue("_float", tc));
+			
+			//loaded fields do not trigger loading
+			tc.zooActivateRead("_long");
+			assertNull(TestTools.getFieldValue("_string", tc));
+			
+			//missing fields are loaded on demand
+			tc.zooActivateRead("_string");
+			assertEquals("xyz" + i, TestTools.getFieldValue("_string", tc));
+			assertEquals(i * 0.5f, TestTools.getFieldValue("_float", tc));
+			assertArrayEquals(new byte[]{1,2}, 
+					(byte[]) TestTools.getFieldValue("_bArray", tc));
+		}
+		
+		//back to default
+		pm.getFetchPlan().setGroup(FetchPlan.DEFAULT);
+		pm.evictAll();
+		for (TestClass tc: queryAll(pm)) {
+			assertEquals("xyz" + tc.getInt(), TestTools.getFieldValue("_string", tc));
+		}
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testGetterLoadsAll() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		setListGroup(pm);
+		
+		for (TestClass tc: queryAll(pm)) {
+			assertNull(TestTools.getFieldValue("_string", tc));
+			//zooActivateRead() without field
+			assertEquals("xyz" + tc.getInt(), tc.getString());
+		}
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testHollowActivation() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		setListGroup(pm);
+		
+		TestClass tc = queryAll(pm).iterator().next();
+		Object oid = pm.getObjectId(tc);
+		pm.evict(tc);
+		assertTrue(JDOHelper.isPersistent(tc));
+		
+		tc.zooActivateRead("_int");
+		int i = (Integer) TestTools.getFieldValue("_int", tc);
+		assertNull(TestTools.getFieldValue("_string", tc));
+		tc.zooActivateRead("_bArray");
+		assertEquals("xyz" + i, TestTools.getFieldValue("_string", tc));
+
+		pm.evict(tc);
+		assertTrue(tc == pm.getObjectById(oid));
+		assertNull(TestTools.getFieldValue("_string", tc));
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testUpdatePartialObject() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		setListGroup(pm);
+		
+		for (TestClass tc: queryAll(pm)) {
+			tc.setLong(tc.getLong() + 100);
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		Collection<TestClass> c = queryAll(pm);
+		assertEquals(N, c.size());
+		for (TestClass tc: c) {
+			int i = tc.getInt();
+			assertEquals(i % 4 + 100, tc.getLong());
+			assertEquals("xyz" + i, tc.getString());
+			assertEquals(i * 0.5f, tc.getFloat(), 0.0);
+			assertArrayEquals(new byte[]{1,2}, tc.getBytaArray());
+		}
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testDeletePartialObject() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		setListGroup(pm);
+		
+		for (TestClass tc: queryAll(pm)) {
+			pm.deletePersistent(tc);
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		
+		//the String index must be empty
+		Query q = pm.newQuery(TestClass.class, "_string == 'xyz3'");
+		assertEquals(0, ((Collection<?>)q.execute()).size());
+		assertEquals(0, queryAll(pm).size());
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testQueryOnMissingFields() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		setListGroup(pm);
+		
+		//load partial objects into the cache
+		assertEquals(N, queryAll(pm).size());
+		
+		Query q = pm.newQuery(TestClass.class, "_float > 4.9");
+		q.setOrdering("_double descending");
+		Collection<TestClass> c = (Collection<TestClass>) q.execute();
+		assertEquals(10, c.size());
+		assertEquals(19, c.iterator().next().getInt());
+		
+		q = pm.newQuery(TestClass.class, "_int == 3");
+		q.setResult("_string");
+		q.setUnique(true);
+		assertEquals("xyz3", q.execute());
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testFactoryGroups() {
+		PersistenceManager pm0 = TestTools.openPM();
+		PersistenceManagerFactory pmf = pm0.getPersistenceManagerFactory();
+		FetchGroup fg = pmf.getFetchGroup(TestClass.class, "list");
+		fg.addMember("_int").addCategory(FetchGroup.BASIC);
+		//_intObj is stored after _bArray and before _string, so it would force loading them
+		fg.removeMembers("_string", "_intObj");
+		assertFalse(fg.isUnmodifiable());
+		pmf.addFetchGroups(fg);
+		assertTrue(fg.isUnmodifiable());
+		assertEquals(1, pmf.getFetchGroups().size());
+		try {
+			fg.addMember("_bArray");
+			fail();
+		} catch (JDOUserException e) {
+			//good, unmodifiable
+		}
+		
+		PersistenceManager pm = pmf.getPersistenceManager();
+		pm.currentTransaction().begin();
+		pm.getFetchPlan().setGroup("list");
+		for (TestClass tc: queryAll(pm)) {
+			int i = (Integer) TestTools.getFieldValue("_int", tc);
+			assertEquals(i * 0.5f, TestTools.getFieldValue("_float", tc));
+			assertNull(TestTools.getFieldValue("_string", tc));
+		}
+		
+		//PM groups override PMF groups
+		FetchGroup fg2 = pm.getFetchGroup(TestClass.class, "list");
+		assertFalse(fg2.isUnmodifiable());
+		assertEquals(fg.getMembers(), fg2.getMembers());
+		fg2.addMember("_string");
+		pm.evictAll();
+		for (TestClass tc: queryAll(pm)) {
+			assertEquals("xyz" + tc.getInt(), TestTools.getFieldValue("_string", tc));
+		}
+		pm.currentTransaction().rollback();
+		pm.close();
+		
+		pmf.removeAllFetchGroups();
+		assertEquals(0, pmf.getFetchGroups().size());
+	}
+	
+	@Test
+	public void testInvalidMember() {
+		PersistenceManager pm = TestTools.openPM();
+		FetchGroup fg = pm.getFetchGroup(TestClass.class, "list");
+		try {
+			fg.addMember("_notAField");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		try {
+			fg.addMember("_transInt");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		assertTrue(fg == pm.getFetchGroup(TestClass.class, "list"));
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.JDOUserException;
+import javax.jdo.ObjectState;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.test.testutil.TestTools;
+
+/**
+ * Tests for batch loading and prefetching of referenced objects.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_125_Prefetch {
+
+	private static final int N = 100;
+	
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+	}
+
+	/**
+	 * Create a linked list of objects: 0 -> 1 -> 2 ...
+	 */
+	@Before
+	public void before() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		pm.newQuery(TestClass.class).deletePersistentAll();
+		
+		TestClass prev = null;
+		for (int i = N-1; i >= 0; i--) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			tc.setRef2(prev);
+			pm.makePersistent(tc);
+			prev = tc;
+		}
+		
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+		
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+	}
+	
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	private static TestClass getRoot(PersistenceManager pm) {
+		Query q = pm.newQuery(TestClass.class, "_int == 0");
+		q.setUnique(true);
+		return (TestClass) q.execute();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGetObjectsById() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		List<Object> oids = new ArrayList<Object>();
+		for (TestClass tc: (Collection<TestClass>) pm.newQuery(TestClass.class).execute()) {
+			oids.add(pm.getObjectId(tc));
+		}
+		assertEquals(N, oids.size());
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		
+		pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		Collection<Object> c = pm.getObjectsById(oids);
+		assertEquals(N, c.size());
+		int i = 0;
+		for (Object o: c) {
+			assertEquals(oids.get(i++), pm.getObjectId(o));
+			assertEquals(ObjectState.PERSISTENT_CLEAN, JDOHelper.getObjectState(o));
+		}
+		
+		Object[] oa = pm.getObjectsById(oids.get(5), oids.get(3));
+		assertEquals(oids.get(5), pm.getObjectId(oa[0]));
+		assertEquals(oids.get(3), pm.getObjectId(oa[1]));
+		
+		try {
+			pm.getObjectsById(oids.get(1), 12345678L);
+			fail();
+		} catch (JDOObjectNotFoundException e) {
+			//good
+		}
+		
+		try {
+			pm.getObjectsById(oids.get(1), "12345678");
+			fail();
+		} catch (JDOUserException e) {
+			//good
+		}
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testNoPrefetchByDefault() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		assertEquals(1, pm.getFetchPlan().getMaxFetchDepth());
+		
+		TestClass root = getRoot(pm);
+		pm.evictAll();
+		assertEquals(0, root.getInt());
+		TestClass tc1 = root.getRef2();
+		assertEquals(ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL, 
+				JDOHelper.getObjectState(tc1));
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testPrefetchDepth() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		pm.getFetchPlan().setMaxFetchDepth(3);
+		
+		TestClass root = getRoot(pm);
+		pm.evictAll();
+		//activation loads the referenced objects up to depth 3
+		assertEquals(0, root.getInt());
+		TestClass tc = root;
+		for (int i = 1; i < 3; i++) {
+			tc = (TestClass) TestTools.getFieldValue("_ref2", tc);
+			assertEquals(ObjectState.PERSISTENT_CLEAN, JDOHelper.getObjectState(tc));
+			assertEquals(i, TestTools.getFieldValue("_int", tc));
+		}
+		tc = (TestClass) TestTools.getFieldValue("_ref2", tc);
+		assertEquals(ObjectState.HOLLOW_PERSISTENT_NONTRANSACTIONAL, 
+				JDOHelper.getObjectState(tc));
+		
+		//unlimited
+		pm.getFetchPlan().setMaxFetchDepth(-1);
+		pm.evictAll();
+		assertEquals(0, root.getInt());
+		tc = root;
+		int n = 1;
+		while ((tc = (TestClass) TestTools.getFieldValue("_ref2", tc)) != null) {
+			assertTrue(JDOHelper.getObjectState(tc) == ObjectState.PERSISTENT_CLEAN);
+			n++;
+		}
+		assertEquals(N, n);
+		
+		pm.currentTransaction().rollback();
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.DBStatistics;
+import org.zoodb.tools.DBStatistics.STATS;
+import org.zoodb.tools.ZooConfig;
+
+/**
+ * Tests for loading neighbouring objects from recently read data pages.
+ * 
+ * @author Tilmann Zaeschke
+ */
+public class Test_126_ObjectCache {
+
+	private static final int N = 1000;
+	
+	private final List<Object> oids = new ArrayList<Object>();
+	
+	@BeforeClass
+	public static void setUp() {
+		TestTools.removeDb();
+		TestTools.createDb();
+		TestTools.defineSchema(TestClass.class);
+	}
+
+	/**
+	 * Create objects, every tenth object is larger than a page.
+	 */
+	@Before
+	public void before() {
+		DBStatistics.enable(true);
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+
+		pm.newQuery(TestClass.class).deletePersistentAll();
+		
+		oids.clear();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = new TestClass();
+			tc.setInt(i);
+			tc.setString("s" + i);
+			if (i % 10 == 5) {
+				tc.setByteArray(new byte[ZooConfig.getFilePageSize() * 2]);
+			}
+			pm.makePersistent(tc);
+			oids.add(pm.getObjectId(tc));
+		}
+		
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+		
+	@After
+	public void afterTest() {
+		TestTools.closePM();
+		ZooConfig.setFileObjectCacheSize(ZooConfig.FILE_OBJECT_CACHE_SIZE_DEFAULT);
+		DBStatistics.enable(false);
+	}
+	
+	@AfterClass
+	public static void tearDown() {
+		TestTools.removeDb();
+	}
+
+	private void checkObjects(PersistenceManager pm) {
+		for (int i = 0; i < N; i++) {
+			TestClass tc = (TestClass) pm.getObjectById(oids.get(i));
+			assertEquals(i, tc.getInt());
+			assertEquals("s" + i, tc.getString());
+			if (i % 10 == 5) {
+				assertEquals(ZooConfig.getFilePageSize() * 2, tc.getBytaArray().length);
+			}
+		}
+	}
+	
+	@Test
+	public void testNeighbours() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		checkObjects(pm);
+		
+		DBStatistics stats = ZooJdoHelper.getStatistics(pm);
+		int nHit = stats.getStat(STATS.IO_OBJECT_CACHE_HIT_CNT);
+		int nMiss = stats.getStat(STATS.IO_OBJECT_CACHE_MISS_CNT);
+		assertTrue("hit=" + nHit + " miss=" + nMiss, nHit > nMiss);
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testDisabled() {
+		ZooConfig.setFileObjectCacheSize(0);
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		checkObjects(pm);
+		
+		DBStatistics stats = ZooJdoHelper.getStatistics(pm);
+		assertEquals(0, stats.getStat(STATS.IO_OBJECT_CACHE_HIT_CNT));
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testUpdate() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		
+		checkObjects(pm);
+		
+		//modify objects, this moves them to other pages
+		for (int i = 0; i < N; i += 3) {
+			TestClass tc = (TestClass) pm.getObjectById(oids.get(i));
+			tc.setString("s" + i);
+			tc.setInt(i);
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		pm.evictAll();
+
+		checkObjects(pm);
+
+		//delete objects
+		for (int i = 1; i < N; i += 7) {
+			pm.deletePersistent(pm.getObjectById(oids.get(i)));
+		}
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		pm.evictAll();
+		
+		for (int i = 0; i < N; i++) {
+			if (i % 7 == 1) {
+				try {
+					pm.getObjectById(oids.get(i));
+					fail();
+				} catch (JDOObjectNotFoundException e) {
+					//good
+				}
+			} else {
+				TestClass tc = (TestClass) pm.getObjectById(oids.get(i));
+				assertEquals(i, tc.getInt());
+				assertEquals("s" + i, tc.getString());
+			}
+		}
+		
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testConcurrentSessions() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		checkObjects(pm);
+		pm.currentTransaction().commit();
+		
+		//modify objects in another session
+		PersistenceManager pm2 = pm.getPersistenceManagerFactory().getPersistenceManager();
+		pm2.currentTransaction().begin();
+		for (int i = 0; i < N; i += 2) {
+			TestClass tc = (TestClass) pm2.getObjectById(oids.get(i));
+			tc.setInt(-i);
+		}
+		pm2.currentTransaction().commit();
+		pm2.close();
+		
+		pm.currentTransaction().begin();
+		pm.evictAll();
+		for (int i = 0; i < N; i++) {
+			TestClass tc = (TestClass) pm.getObjectById(oids.get(i));
+			assertEquals(i % 2 == 0 ? -i : i, tc.getInt());
+			assertEquals("s" + i, tc.getString());
+		}
+		pm.currentTransaction().rollback();
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.jdo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.internal.Session;
+import org.zoodb.jdo.ZooJdoHelper;
+import org.zoodb.schema.ZooClass;
+import org.zoodb.schema.ZooHandle;
+import org.zoodb.test.testutil.TestTools;
+import org.zoodb.tools.ZooSchemaMigrator;
+import org.zoodb.tools.ZooSchemaMigrator.ProgressListener;
+
+public class Test_127_SchemaMigration {
+
+	private static final int N = 2500;
+	
+	@AfterClass
+	public static void tearDown() {
+		TestTools.closePM();
+	}
+
+	@Before
+	public void before() {
+		TestTools.createDb();
+		TestTools.defineSchema(TestClassTiny.class);
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		for (int i = 0; i < N; i++) {
+			pm.makePersistent(new TestClassTiny(i, i*2L));
+		}
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+	}
+
+	@After
+	public void after() {
+		TestTools.closePM();
+		TestTools.removeDb();
+	}
+
+	private static long countOutdated(PersistenceManager pm) {
+		Session s = (Session) pm.getDataStoreConnection().getNativeConnection();
+		pm.currentTransaction().begin();
+		long n = s.countOutdatedObjects();
+		pm.currentTransaction().rollback();
+		return n;
+	}
+	
+	/**
+	 * Create a new schema version that is compatible with the Java class. 
+	 */
+	private static PersistenceManager evolveSchema() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass c = ZooJdoHelper.schema(pm).getClass(TestClassTiny.class);
+		c.addField("tmp", Integer.TYPE);
+		pm.currentTransaction().commit();
+		pm.currentTransaction().begin();
+		c.getField("tmp").remove();
+		pm.currentTransaction().commit();
+		TestTools.closePM();
+		return TestTools.openPM();
+	}
+	
+	private static void checkObjects(PersistenceManager pm) {
+		pm.currentTransaction().begin();
+		int n = 0;
+		for (TestClassTiny t: pm.getExtent(TestClassTiny.class)) {
+			assertEquals(t.getInt()*2L, t.getLong());
+			n++;
+		}
+		assertEquals(N, n);
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testMigrateAddedField() {
+		PersistenceManager pm = TestTools.openPM();
+		pm.currentTransaction().begin();
+		ZooClass c = ZooJdoHelper.schema(pm).getClass(TestClassTiny.class);
+		c.addField("myInt", Integer.TYPE);
+		pm.currentTransaction().commit();
+		assertEquals(N, countOutdated(pm));
+		
+		ZooSchemaMigrator m = new ZooSchemaMigrator(pm.getPersistenceManagerFactory());
+		m.setBatchSize(1000);
+		m.setBatchPause(0);
+		final ArrayList<Long> progress = new ArrayList<Long>();
+		m.setProgressListener(new ProgressListener() {
+			@Override
+			public void progress(long nMigrated, long nTotal) {
+				assertEquals(N, nTotal);
+				progress.add(nMigrated);
+			}
+		});
+		m.run();
+		
+		assertNull(m.getError());
+		assertTrue(m.isFinished());
+		assertEquals(N, m.getMigratedCount());
+		assertEquals(N, m.getTotalCount());
+		assertEquals("[1000, 2000, 2500]", progress.toString());
+		assertEquals(0, countOutdated(pm));
+		
+		TestTools.closePM();
+		pm = TestTools.openPM();
+		assertEquals(0, countOutdated(pm));
+		pm.currentTransaction().begin();
+		c = ZooJdoHelper.schema(pm).getClass(TestClassTiny.class);
+		Iterator<ZooHandle> it = c.getHandleIterator(false);
+		int n = 0;
+		while (it.hasNext()) {
+			ZooHandle h = it.next();
+			int i = (Integer) c.getField("_int").getValue(h);
+			assertEquals(i*2L, (long)(Long) c.getField("_long").getValue(h));
+			assertEquals(0, (int)(Integer) c.getField("myInt").getValue(h));
+			n++;
+		}
+		assertEquals(N, n);
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testMigrateInBackground() {
+		PersistenceManager pm = evolveSchema();
+		assertEquals(N, countOutdated(pm));
+		
+		ZooSchemaMigrator m = new ZooSchemaMigrator(pm.getPersistenceManagerFactory());
+		m.setBatchSize(100);
+		m.start();
+		//concurrent reads
+		checkObjects(pm);
+		m.join();
+		
+		assertNull(m.getError());
+		assertTrue(m.isFinished());
+		assertEquals(N, m.getMigratedCount());
+		assertEquals(0, countOutdated(pm));
+		checkObjects(pm);
+		
+		TestTools.closePM();
+		pm = TestTools.openPM();
+		assertEquals(0, countOutdated(pm));
+		checkObjects(pm);
+	}
+	
+	@Test
+	public void testMigrateWithConcurrentWriter() {
+		PersistenceManager pm = evolveSchema();
+		PersistenceManagerFactory pmf = pm.getPersistenceManagerFactory();
+		
+		ZooSchemaMigrator m = new ZooSchemaMigrator(pmf);
+		m.setBatchSize(100);
+		m.setBatchPause(1);
+		m.start();
+		//concurrent writes
+		pm.currentTransaction().begin();
+		for (int i = N; i < N + 100; i++) {
+			pm.makePersistent(new TestClassTiny(i, i*2L));
+		}
+		pm.currentTransaction().commit();
+		m.join();
+
+		assertNull(m.getError());
+		assertTrue(m.isFinished());
+		assertEquals(0, countOutdated(pm));
+		pm.currentTransaction().begin();
+		int n = 0;
+		for (TestClassTiny t: pm.getExtent(TestClassTiny.class)) {
+			assertEquals(t.getInt()*2L, t.getLong());
+			n++;
+		}
+		assertEquals(N + 100, n);
+		pm.currentTransaction().rollback();
+	}
+	
+	@Test
+	public void testStop() {
+		PersistenceManager pm = evolveSchema();
+		
+		ZooSchemaMigrator m = new ZooSchemaMigrator(pm.getPersistenceManagerFactory());
+		m.setBatchSize(10);
+		m.setBatchPause(10000);
+		m.start();
+		m.stop();
+		
+		assertNull(m.getError());
+		assertTrue(m.getMigratedCount() < N);
+		assertEquals(N - m.getMigratedCount(), countOutdated(pm));
+		checkObjects(pm);
+		
+		//resume
+		m = new ZooSchemaMigrator(pm.getPersistenceManagerFactory());
+		m.setBatchPause(0);
+		m.run();
+		assertTrue(m.isFinished());
+		assertEquals(0, countOutdated(pm));
+		checkObjects(pm);
+	}
+	
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ * 
+ * This file is part of ZooDB.
+ * 
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * See the README and COPYING files for further information. 
+ */
+package org.zoodb.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.internal.server.index.PagedUniqueLongLong.LLEntry;
+import org.zoodb.internal.util.CloseableIterator;
+import org.zoodb.internal.util.OrderedIntersectIterator;
+
+/**
+ * Test harness for OrderedIntersectIterator.
+ *
+ * @author  Tilmann Zaeschke
+ */
+public final class OrderedIntersectIteratorTest {
+
+	private List<LLEntry> list1;
+	private List<LLEntry> list2;
+	private List<LLEntry> list3;
+
+	@Before
+	public void before() {
+		list1 = new LinkedList<LLEntry>();
+		add(list1, 1, 11, 12, 20, 23, 30);
+		list2 = new LinkedList<LLEntry>();
+		add(list2, 1, 12, 23, 24, 30);
+		list3 = new LinkedList<LLEntry>();
+		add(list3, 0, 1, 10, 11, 12, 13, 30, 31);
+	}
+
+	private void add(List<LLEntry> list, int ... values) {
+		for (int v: values) {
+			list.add(new LLEntry(v, v));
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private OrderedIntersectIterator intersect(List<?> ... lists) {
+		CloseableIterator<LLEntry>[] iters = 
+				(CloseableIterator<LLEntry>[]) new CloseableIterator<?>[lists.length];
+		for (int i = 0; i < lists.length; i++) {
+			iters[i] = toCI(((List<LLEntry>)lists[i]).iterator());
+		}
+		return new OrderedIntersectIterator(iters);
+	}
+	
+	private CloseableIterator<LLEntry> toCI(final Iterator<LLEntry> it) {
+		return new CloseableIterator<LLEntry>() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public LLEntry next() {
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+			}
+
+			@Override
+			public void close() {
+				// nothing to do
+			}
+
+            @Override
+            public void refresh() {
+                throw new UnsupportedOperationException();
+            }
+		};
+	}
+	
+	@Test
+	public void testIterator() {
+		OrderedIntersectIterator it = intersect(list1, list2, list3);
+		assertEquals(1, it.next().getKey());
+		assertEquals(12, it.next().getKey());
+		assertEquals(30, it.next().getKey());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testTwoIterators() {
+		OrderedIntersectIterator it = intersect(list2, list1);
+		assertEquals(1, it.next().getKey());
+		assertEquals(12, it.next().getKey());
+		assertEquals(23, it.next().getKey());
+		assertEquals(30, it.next().getKey());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testSingleIterator() {
+		OrderedIntersectIterator it = intersect(list2);
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		assertEquals(list2.size(), n);
+	}
+
+	@Test
+	public void testEmpty() {
+		list2.clear();
+		assertFalse(intersect(list1, list2, list3).hasNext());
+		assertFalse(intersect(list2, list1).hasNext());
+	}
+}
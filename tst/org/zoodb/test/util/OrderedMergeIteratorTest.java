@@ -51,7 +51,6 @@ public final class OrderedMergeIteratorTest {
 	 * Run before each test.
 	 * The setUp method tests the put method.
 	 */
-	@SuppressWarnings("unchecked")
 	@Before
 	public void before() {
 		//create the lists
@@ -67,12 +66,17 @@ public final class OrderedMergeIteratorTest {
 		add(list3,11);
 		add(list3,12);
 		add(list3,13);
-		it = new OrderedMergeIterator(new CloseableIterator[]{
+		it = new OrderedMergeIterator(iterators());
+	}
+
+	@SuppressWarnings("unchecked")
+	private CloseableIterator<LLEntry>[] iterators() {
+		return (CloseableIterator<LLEntry>[]) new CloseableIterator<?>[]{
 				toCI(list1.iterator()),
 				toCI(list2.iterator()),
-				toCI(list3.iterator())});
+				toCI(list3.iterator())};
 	}
-
+	
 	private void add(List<LLEntry> list, int v) {
 		LLEntry e = new LLEntry(v, 1234);
 		list.add(e);	
@@ -138,6 +142,21 @@ public final class OrderedMergeIteratorTest {
 		assertFalse("Check the number of remaining elements", it.hasNext());
 	}
 
+	/**
+	 * Test that duplicates are skipped.
+	 */
+	@Test
+	public void testDistinct() {
+		it = new OrderedMergeIterator(null, iterators(), true);
+		assertEquals(01, (int)it.next().getKey());
+		assertEquals(10, (int)it.next().getKey());
+		assertEquals(11, (int)it.next().getKey());
+		assertEquals(12, (int)it.next().getKey());
+		assertEquals(13, (int)it.next().getKey());
+		assertEquals(23, (int)it.next().getKey());
+		assertFalse("Check the number of remaining elements", it.hasNext());
+	}
+
 	/**
 	 * Test remove.
 	 */
@@ -159,17 +178,13 @@ public final class OrderedMergeIteratorTest {
 	/**
 	 * Test empty.
 	 */
-	@SuppressWarnings("unchecked")
 	@Test
 	public void testEmpty() {
 		list1.clear();
 		list2.clear();
 		list3.clear();
 		
-		it = new OrderedMergeIterator(new CloseableIterator[]{
-				toCI(list1.iterator()),
-				toCI(list2.iterator()),
-				toCI(list3.iterator())});
+		it = new OrderedMergeIterator(iterators());
 
 		assertFalse(it.hasNext());
 	}
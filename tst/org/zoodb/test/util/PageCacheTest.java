@@ -0,0 +1,168 @@
+/*
+ * Copyright 2009-2014 Tilmann Zaeschke. All rights reserved.
+ *
+ * This file is part of ZooDB.
+ *
+ * ZooDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ZooDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ZooDB.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * See the README and COPYING files for further information.
+ */
+package org.zoodb.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.zoodb.internal.server.PageCache;
+
+/**
+ * Test harness for PageCache.
+ *
+ * @author  Tilmann Zaeschke
+ */
+public final class PageCacheTest {
+
+	private static final int PAGE_SIZE = 64;
+
+	private final ArrayList<Long> written = new ArrayList<Long>();
+	private PageCache cache;
+
+	@Before
+	public void before() {
+		written.clear();
+		cache = new PageCache(PAGE_SIZE, 3, new PageCache.PageWriter() {
+			@Override
+			public void writePage(ByteBuffer buf, long pageId) {
+				written.add(pageId);
+			}
+		});
+	}
+
+	private ByteBuffer page(int value) {
+		ByteBuffer b = ByteBuffer.allocate(PAGE_SIZE);
+		b.putInt(value);
+		b.position(PAGE_SIZE);
+		return b;
+	}
+
+	private ByteBuffer pageForWrite(int value) {
+		ByteBuffer b = page(value);
+		b.flip();
+		return b;
+	}
+
+	private int read(long pageId) {
+		ByteBuffer b = ByteBuffer.allocate(PAGE_SIZE);
+		assertTrue(cache.read(b, pageId));
+		return b.getInt(0);
+	}
+
+	@Test
+	public void testReadWrite() {
+		ByteBuffer b = ByteBuffer.allocate(PAGE_SIZE);
+		assertFalse(cache.read(b, 1));
+		cache.putClean(page(11), 1);
+		cache.putDirty(pageForWrite(22), 2);
+		assertEquals(11, read(1));
+		assertEquals(22, read(2));
+		assertFalse(cache.isDirty(1));
+		assertTrue(cache.isDirty(2));
+
+		cache.flush();
+		assertEquals(1, written.size());
+		assertEquals(2L, (long)written.get(0));
+		assertFalse(cache.isDirty(2));
+		assertEquals(22, read(2));
+	}
+
+	@Test
+	public void testEviction() {
+		for (int i = 0; i < 10; i++) {
+			cache.putClean(page(i), i);
+			assertEquals(Math.min(i + 1, 3), cache.size());
+		}
+		assertTrue(cache.contains(9));
+		assertFalse(cache.contains(0));
+		assertEquals(0, written.size());
+	}
+
+	@Test
+	public void testEvictionWritesDirtyPages() {
+		cache.putDirty(pageForWrite(1), 1);
+		for (int i = 10; i < 20; i++) {
+			cache.putClean(page(i), i);
+		}
+		assertFalse(cache.contains(1));
+		assertEquals(1, written.size());
+		assertEquals(1L, (long)written.get(0));
+	}
+
+	@Test
+	public void testPinning() {
+		cache.putClean(page(1), 1);
+		assertTrue(cache.pin(1));
+		assertFalse(cache.pin(2));
+		for (int i = 10; i < 20; i++) {
+			cache.putClean(page(i), i);
+		}
+		assertTrue(cache.contains(1));
+		assertEquals(1, read(1));
+		cache.unpin(1);
+		for (int i = 20; i < 30; i++) {
+			cache.putClean(page(i), i);
+		}
+		assertFalse(cache.contains(1));
+	}
+
+	@Test
+	public void testLengthAfterFlush() {
+		cache.putClean(page(1), 10);
+		assertEquals(5 * PAGE_SIZE, cache.getLengthAfterFlush(5 * PAGE_SIZE));
+		cache.putDirty(pageForWrite(2), 3);
+		assertEquals(5 * PAGE_SIZE, cache.getLengthAfterFlush(5 * PAGE_SIZE));
+		ByteBuffer b = ByteBuffer.allocate(PAGE_SIZE);
+		b.put((byte) 7);
+		b.flip();
+		cache.putDirty(b, 6);
+		assertEquals(6 * PAGE_SIZE + 1, cache.getLengthAfterFlush(5 * PAGE_SIZE));
+		//nothing has been written
+		assertEquals(0, written.size());
+		cache.flush();
+		assertEquals(5 * PAGE_SIZE, cache.getLengthAfterFlush(5 * PAGE_SIZE));
+	}
+
+	@Test
+	public void testPartialWrite() {
+		cache.putClean(page(5), 1);
+		ByteBuffer b = ByteBuffer.allocate(PAGE_SIZE);
+		b.put((byte) 7);
+		b.flip();
+		cache.putDirty(b, 1);
+		final ArrayList<Integer> len = new ArrayList<Integer>();
+		PageCache c2 = new PageCache(PAGE_SIZE, 1, new PageCache.PageWriter() {
+			@Override
+			public void writePage(ByteBuffer buf, long pageId) {
+				len.add(buf.remaining());
+			}
+		});
+		c2.putDirty(b, 1);
+		c2.flush();
+		assertEquals(1, (int)len.get(0));
+	}
+}